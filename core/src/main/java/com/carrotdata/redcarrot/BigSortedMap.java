@@ -15,12 +15,29 @@ import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.logging.log4j.LogManager;
@@ -29,17 +46,21 @@ import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.compression.Codec;
 import com.carrotdata.redcarrot.compression.CodecFactory;
 import com.carrotdata.redcarrot.compression.CodecType;
+import com.carrotdata.redcarrot.ops.DeleteExpired;
 import com.carrotdata.redcarrot.ops.IncrementDouble;
 import com.carrotdata.redcarrot.ops.IncrementFloat;
 import com.carrotdata.redcarrot.ops.IncrementInt;
 import com.carrotdata.redcarrot.ops.IncrementLong;
 import com.carrotdata.redcarrot.ops.Operation;
 import com.carrotdata.redcarrot.ops.OperationFailedException;
+import com.carrotdata.redcarrot.redis.CommandProcessor;
 import com.carrotdata.redcarrot.redis.RedisConf;
+import com.carrotdata.redcarrot.storage.WriteAheadLog;
 import com.carrotdata.redcarrot.util.Bytes;
 import com.carrotdata.redcarrot.util.IOUtils;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.KeysLocker;
+import com.carrotdata.redcarrot.util.MemoryAllocator;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 
@@ -76,6 +97,77 @@ public class BigSortedMap {
     return codec;
   }
 
+  /** Max memory eviction policy */
+  static EvictionPolicy evictionPolicy =
+      EvictionPolicy.fromString(RedisConf.getInstance().getMaxMemoryPolicy());
+
+  /** Number of data blocks sampled to select an eviction victim */
+  static int evictionSamples = RedisConf.getInstance().getMaxMemorySamples();
+
+  /*
+   * Maximum number of index blocks eviction sampling skips between two samples
+   */
+  static final int EVICTION_MAX_SKIP = 16;
+
+  /*
+   * Buffer size for keys of expired records
+   */
+  static final int EXPIRE_BUFFER_SIZE = 64 * 1024;
+
+  private static ThreadLocal<Long> expireBuffer = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      return UnsafeAccess.malloc(EXPIRE_BUFFER_SIZE);
+    }
+  };
+
+  private static ThreadLocal<DeleteExpired> deleteExpired = new ThreadLocal<DeleteExpired>() {
+    @Override
+    protected DeleteExpired initialValue() {
+      return new DeleteExpired();
+    }
+  };
+
+  /**
+   * Get memory allocator of data and index blocks
+   * @return memory allocator
+   */
+  public static MemoryAllocator getMemoryAllocator() {
+    return DataBlock.allocator;
+  }
+
+  /**
+   * Sets eviction policy
+   * @param policy eviction policy
+   */
+  public static void setEvictionPolicy(EvictionPolicy policy) {
+    BigSortedMap.evictionPolicy = policy;
+  }
+
+  /**
+   * Get eviction policy
+   * @return eviction policy
+   */
+  public static EvictionPolicy getEvictionPolicy() {
+    return evictionPolicy;
+  }
+
+  /**
+   * Sets number of data blocks sampled to select an eviction victim
+   * @param n number of samples
+   */
+  public static void setEvictionSamples(int n) {
+    BigSortedMap.evictionSamples = n;
+  }
+
+  /**
+   * Get number of data blocks sampled to select an eviction victim
+   * @return number of samples
+   */
+  public static int getEvictionSamples() {
+    return evictionSamples;
+  }
+
   /*
    * Thread local storage for index blocks used as a key in a Map<IndexBlock,IndexBlock> operations
    */
@@ -435,7 +527,29 @@ public class BigSortedMap {
    */
   
   ReentrantReadWriteLock cacheLock = new ReentrantReadWriteLock();
-  
+
+  /*
+   * Block-level concurrency mode: point operations share the map lock and lock only the index
+   * block they work on (and a new right neighbor during a split). Map lock is exclusive only
+   * for whole-map operations (dispose, deleteRange) and for explicit writeLock() callers.
+   */
+  private volatile boolean blockLocking = RedisConf.getInstance().isBlockLockingEnabled();
+
+  /*
+   * Eviction sampling position
+   */
+  private IndexBlock evictionCursor;
+
+  /*
+   * Active expiration position
+   */
+  private IndexBlock expireCursor;
+
+  /*
+   * Active expiration thread
+   */
+  private volatile Thread expireThread;
+
   /** This tracks instance allocated memory */
   AtomicLong allocatedMemory = new AtomicLong(0);
 
@@ -471,12 +585,72 @@ public class BigSortedMap {
    */
   AtomicLong indexSize = new AtomicLong(0);
 
+  /*
+   * This tracks instance number of records by the first byte of a key (data type of Redis keys)
+   */
+  AtomicLongArray recordCounts = new AtomicLongArray(256);
+
   /** Last snapshot time in ms */
   long lastSnapshotTimestamp;
 
+  /*
+   * Id of the last snapshot (used in partition file names)
+   */
+  private long lastSnapshotId;
+
+  /*
+   * Current modification epoch, is incremented at the start of every snapshot. Index blocks keep
+   * the epoch of their last modification
+   */
+  private volatile long modEpoch = 1;
+
+  /*
+   * Blocks modified in this epoch or later have not been saved by the last snapshot
+   */
+  private long snapshotEpoch;
+
+  /*
+   * Partitions of the last snapshot: first keys (the first partition's key is empty) and file
+   * names. Incremental snapshot reuses files of partitions which have not been modified
+   */
+  private byte[][] snapshotKeys;
+  private String[] snapshotFiles;
+
+  /*
+   * Number of incremental snapshots since the last full one
+   */
+  private int snapshotDeltas;
+
+  /*
+   * First keys of index blocks removed from the map since the last snapshot
+   */
+  private final Queue<byte[]> removedBlocks = new ConcurrentLinkedQueue<byte[]>();
+
+  /*
+   * Images of index blocks updated while a snapshot is being saved, null - no snapshot is running
+   */
+  private volatile SnapshotImage snapshotImage;
+
+  /*
+   * Held while a snapshot is being saved, store can not be disposed at that time
+   */
+  private final ReentrantLock snapshotLock = new ReentrantLock();
+
+  /*
+   * Memory mapped snapshot files, data blocks can reside in these files until first update
+   */
+  private final List<MappedByteBuffer> mappedFiles =
+      Collections.synchronizedList(new ArrayList<MappedByteBuffer>());
+
   /** Snapshot directory */
   String snapshotDir;
 
+  /** Write-ahead log (null, if disabled) */
+  private volatile WriteAheadLog wal;
+
+  /** Sequence number of the last WAL record in the loaded snapshot */
+  private long walSequence;
+
   /** Little hack */
   private long indexBlockSizeBeforeSnapshot;
 
@@ -512,6 +686,94 @@ public class BigSortedMap {
   public final void writeUnlock() {
     this.cacheLock.writeLock().unlock();
   }
+
+  /**
+   * Is map's exclusive lock held by the current thread
+   * @return true - yes, false - otherwise
+   */
+  public final boolean isWriteLockedByCurrentThread() {
+    return this.cacheLock.isWriteLockedByCurrentThread();
+  }
+
+  /**
+   * Is block-level concurrency mode enabled
+   * @return true - yes, false - otherwise (single map-wide lock)
+   */
+  public final boolean isBlockLockingEnabled() {
+    return this.blockLocking;
+  }
+
+  /**
+   * Enables/disables block-level concurrency mode. Must be called before the store is shared
+   * between threads.
+   * @param b true - enable, false - disable
+   */
+  public final void setBlockLockingEnabled(boolean b) {
+    this.blockLocking = b;
+  }
+
+  /** Map lock for a point update operation */
+  private final void updateLock() {
+    if (this.blockLocking) {
+      readLock();
+    } else {
+      writeLock();
+    }
+  }
+
+  /** Map unlock for a point update operation */
+  private final void updateUnlock() {
+    if (this.blockLocking) {
+      readUnlock();
+    } else {
+      writeUnlock();
+    }
+  }
+
+  /**
+   * Locks index block (in a block-level concurrency mode only) and verifies that the block is still
+   * responsible for a search key after lock was acquired (concurrent split or removal can happen)
+   * @param b index block
+   * @param kvBlock search key block, if null - no verification is done
+   * @param exclusive exclusive (write) lock
+   * @return true if block is locked and verified, false - block is unlocked, caller must retry
+   */
+  private boolean lockIndexBlock(IndexBlock b, IndexBlock kvBlock, boolean exclusive) {
+    if (!this.blockLocking) {
+      return true;
+    }
+    try {
+      if (exclusive) {
+        b.writeLock();
+      } else {
+        b.readLock();
+      }
+    } catch (RetryOperationException e) {
+      unlockIndexBlock(b, exclusive);
+      return false;
+    }
+    if (kvBlock != null && map.floorKey(kvBlock) != b) {
+      unlockIndexBlock(b, exclusive);
+      return false;
+    }
+    return true;
+  }
+
+  /**
+   * Unlocks index block locked by lockIndexBlock
+   * @param b index block
+   * @param exclusive exclusive (write) lock
+   */
+  private void unlockIndexBlock(IndexBlock b, boolean exclusive) {
+    if (!this.blockLocking || b == null) {
+      return;
+    }
+    if (exclusive) {
+      b.writeUnlock();
+    } else {
+      b.readUnlock();
+    }
+  }
   
   /**
    * Legacy constructor of a big sorted map (single instance)
@@ -583,6 +845,22 @@ public class BigSortedMap {
     this.snapshotDir = dir;
   }
 
+  /**
+   * Get write-ahead log for the store
+   * @return write-ahead log or null
+   */
+  public WriteAheadLog getWAL() {
+    return this.wal;
+  }
+
+  /**
+   * Set write-ahead log for the store
+   * @param wal write-ahead log (opened)
+   */
+  public void setWAL(WriteAheadLog wal) {
+    this.wal = wal;
+  }
+
   /** Prints memory allocation statistics for the store */
   public void printMemoryAllocationStats() {
     log.debug("Carrot memory allocation statistics [id={}]:", Thread.currentThread().getName());
@@ -658,6 +936,54 @@ public class BigSortedMap {
     return dataInDataBlocksSize.addAndGet(incr);
   }
 
+  /**
+   * Get instance number of records which keys start with a given byte
+   * @param prefix first byte of a key
+   * @return number of records
+   */
+  public long getInstanceRecordCount(int prefix) {
+    return recordCounts.get(prefix & 0xff);
+  }
+
+  /**
+   * Increment instance number of records which keys start with the first byte of a given key
+   * @param keyPtr key address
+   * @param keyLength key length
+   * @param incr increment value
+   */
+  public void incrInstanceRecordCount(long keyPtr, int keyLength, long incr) {
+    if (keyLength > 0) {
+      recordCounts.addAndGet(UnsafeAccess.toByte(keyPtr) & 0xff, incr);
+    }
+  }
+
+  /**
+   * Recounts instance records by the first byte of a key. Records loaded from a snapshot are not
+   * counted on insert, therefore it must be called after a load. Complexity O(N)
+   */
+  void recountRecords() {
+    for (int i = 0; i < recordCounts.length(); i++) {
+      recordCounts.set(i, 0);
+    }
+    BigSortedMapScanner scanner = getScanner(0, 0, 0, 0);
+    if (scanner == null) {
+      return;
+    }
+    try {
+      while (scanner.hasNext()) {
+        incrInstanceRecordCount(scanner.keyAddress(), scanner.keySize(), 1);
+        scanner.next();
+      }
+    } catch (IOException e) {
+      // should never be thrown
+    } finally {
+      try {
+        scanner.close();
+      } catch (IOException e) {
+      }
+    }
+  }
+
   /**
    * Get instance memory allocated for index blocks
    * @return memory
@@ -868,6 +1194,98 @@ public class BigSortedMap {
     return sequenceID.get();
   }
 
+  /**
+   * Removes index block from the map
+   * @param b index block
+   */
+  private void removeIndexBlock(IndexBlock b) {
+    map.remove(b);
+    if (snapshotFiles != null) {
+      // Partition of this block must be saved by the next incremental snapshot
+      removedBlocks.add(b.getFirstKey());
+    }
+  }
+
+  /**
+   * Get current modification epoch
+   * @return epoch
+   */
+  final long getModificationEpoch() {
+    return modEpoch;
+  }
+
+  /**
+   * Marks index block, which contains a given key as modified. Is used by data types, which
+   * update their external allocations in place
+   * @param keyPtr key address
+   * @param keyLength key length
+   */
+  public void touch(long keyPtr, int keyLength) {
+    IndexBlock kvBlock = getThreadLocalBlock();
+    kvBlock.putForSearch(keyPtr, keyLength, getSequenceId());
+    IndexBlock b = map.floorKey(kvBlock);
+    if (b != null) {
+      b.markDirty();
+    }
+  }
+
+  /**
+   * Keeps the image of an index block, which holds a given key, for a running snapshot. It must be
+   * called before an update of data referenced by a record, which does not go through the map
+   * (list segments are updated in place). Does nothing if no snapshot is running
+   * @param keyPtr key address
+   * @param keyLength key length
+   */
+  public void preserve(long keyPtr, int keyLength) {
+    if (snapshotImage == null) {
+      return;
+    }
+    IndexBlock kvBlock = getThreadLocalBlock();
+    kvBlock.putForSearch(keyPtr, keyLength, getSequenceId());
+    try {
+      updateLock();
+      while (true) {
+        IndexBlock b = map.floorKey(kvBlock);
+        if (b == null) {
+          return;
+        }
+        if (!lockIndexBlock(b, kvBlock, true)) {
+          continue;
+        }
+        try {
+          b.copyOnWrite();
+          return;
+        } finally {
+          unlockIndexBlock(b, true);
+        }
+      }
+    } finally {
+      updateUnlock();
+    }
+  }
+
+  /**
+   * Keeps the image of an index block for a running snapshot. It is called under block's
+   * exclusive lock before an update
+   * @param b index block
+   */
+  final void preserve(IndexBlock b) {
+    SnapshotImage image = this.snapshotImage;
+    if (image == null || b.getSnapshotEpoch() >= image.getEpoch() || !b.isValid()) {
+      return;
+    }
+    image.preserve(b);
+  }
+
+  /**
+   * Get modification epoch of a running snapshot
+   * @return epoch, 0 - no snapshot is running
+   */
+  final long getRunningSnapshotEpoch() {
+    SnapshotImage image = this.snapshotImage;
+    return image == null ? 0 : image.getEpoch();
+  }
+
   /**
    * Put index block into map
    * @param b index block
@@ -884,47 +1302,244 @@ public class BigSortedMap {
   }
 
   /**
-   * Execute generic read - modify - write operation in a single update If Update is in place or no
-   * updates - set Operation.setReadOnlyOrUpdateInPlace
-   * @param op - update operation
-   * @return true if operation succeeds, false otherwise
+   * Selects eviction victim: samples data blocks and picks the one with the lowest eviction score.
+   * Keys of all victim's records (only records with expiration time for VOLATILE_TTL policy) are
+   * copied into a buffer in the format [short size][key]... Caller is responsible for the keys
+   * deletion.
+   * @param policy eviction policy
+   * @param samples number of data blocks to sample
+   * @param buf buffer address
+   * @param bufSize buffer size
+   * @return number of keys copied, 0 - no candidates found
    */
-  @SuppressWarnings("deprecation")
-  public boolean execute(Operation op) {
-    long version = getSequenceId();
-    IndexBlock kvBlock = getThreadLocalBlock();
-    op.setVersion(version);
-    kvBlock.putForSearch(op.getKeyAddress(), op.getKeySize(), version);
-    IndexBlock b = null;
-    boolean lowerKey = false;
-    boolean readOnly = op.isReadOnly();
-    int seqNumber;
+  public int selectEvictionVictim(EvictionPolicy policy, int samples, long buf, int bufSize) {
+    ThreadLocalRandom r = ThreadLocalRandom.current();
+    IndexBlock victim = null;
+    int victimIndex = 0;
+    long minScore = Long.MAX_VALUE;
     try {
-      if (readOnly) {
-        readLock();
-      } else {
-        writeLock();
-      }
-    while (true) {
-      try {
-        b = lowerKey == false ? map.floorKey(kvBlock) : map.lowerKey(b);
+      updateLock();
+      IndexBlock b = evictionCursor;
+      for (int i = 0; i < samples; i++) {
+        b = nextEvictionSample(b, r.nextInt(EVICTION_MAX_SKIP) + 1);
         if (b == null) {
-          // TODO
-          return false;
+          break;
         }
-        boolean firstBlock = b.isFirstIndexBlock();
-        if (!b.isValid()) {
+        int num = b.getNumberOfDataBlock();
+        if (num == 0) {
           continue;
         }
-        seqNumber = b.getSeqNumberSplitOrMerge();
-        // TODO: optimize - last time split? what is the safest threshold? 100ms
-        if (b.hasRecentUnsafeModification()) {
-          IndexBlock bbb = lowerKey == false ? map.floorKey(kvBlock) : map.lowerKey(b);
-          if (b != bbb) {
-            continue;
-          } else {
-            int sn = b.getSeqNumberSplitOrMerge();
-            if (sn != seqNumber) {
+        int index = r.nextInt(num);
+        try {
+          long score = b.evictionScore(index, policy);
+          if (score < minScore) {
+            minScore = score;
+            victim = b;
+            victimIndex = index;
+          }
+        } catch (RetryOperationException e) {
+          continue;
+        }
+      }
+      evictionCursor = b;
+      if (victim == null) {
+        return 0;
+      }
+      try {
+        return victim.copyDataBlockKeys(victimIndex, buf, bufSize,
+          policy == EvictionPolicy.VOLATILE_TTL);
+      } catch (RetryOperationException e) {
+        return 0;
+      }
+    } finally {
+      updateUnlock();
+    }
+  }
+
+  /**
+   * Advances eviction sampling position, wraps around the end of the map
+   * @param b current position (can be null)
+   * @param skip number of index blocks to skip
+   * @return next sampled index block or null (map is empty)
+   */
+  private IndexBlock nextEvictionSample(IndexBlock b, int skip) {
+    for (int i = 0; i < skip; i++) {
+      IndexBlock next = b != null ? map.higherKey(b) : null;
+      if (next == null) {
+        Map.Entry<IndexBlock, IndexBlock> first = map.firstEntry();
+        if (first == null) {
+          return null;
+        }
+        next = first.getKey();
+      }
+      b = next;
+    }
+    return b;
+  }
+
+  /**
+   * Active expiration cycle: incrementally walks index blocks (starting from where the previous
+   * cycle stopped) and deletes expired records. Blocks which have no records with expiration time
+   * or whose earliest expiration time is in the future are skipped. Deletes compact and merge data
+   * blocks which become sparse and release empty index blocks.
+   * @param maxTimeMs time budget in ms
+   * @return number of expired records deleted
+   */
+  public int activeExpireCycle(long maxTimeMs) {
+    long start = System.currentTimeMillis();
+    long buf = expireBuffer.get();
+    int deleted = 0;
+    // Visit every index block at most once per cycle
+    int toVisit = map.size();
+    while (toVisit > 0) {
+      long now = System.currentTimeMillis();
+      int num = 0;
+      try {
+        readLock();
+        IndexBlock b = expireCursor;
+        do {
+          b = nextEvictionSample(b, 1);
+          toVisit--;
+        } while (b != null && toVisit > 0 && !b.mayHaveExpired(now));
+        expireCursor = b;
+        if (b == null || !b.mayHaveExpired(now)) {
+          break;
+        }
+        try {
+          num = b.copyExpiredKeys(now, buf, EXPIRE_BUFFER_SIZE);
+        } catch (RetryOperationException e) {
+          continue;
+        }
+      } finally {
+        readUnlock();
+      }
+      long ptr = buf;
+      DeleteExpired op = deleteExpired.get();
+      for (int i = 0; i < num; i++) {
+        int keySize = UnsafeAccess.toShort(ptr) & 0xffff;
+        op.reset();
+        op.setKeyAddress(ptr + Utils.SIZEOF_SHORT);
+        op.setKeySize(keySize);
+        op.setTime(now);
+        if (execute(op)) {
+          deleted++;
+        }
+        ptr += Utils.SIZEOF_SHORT + keySize;
+      }
+      if (System.currentTimeMillis() - start >= maxTimeMs) {
+        break;
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Starts active expiration thread
+   * @param intervalMs interval between cycles in ms
+   * @param maxTimeMs time budget of a cycle in ms
+   */
+  public synchronized void startActiveExpire(long intervalMs, long maxTimeMs) {
+    if (expireThread != null || intervalMs <= 0) {
+      return;
+    }
+    Thread t = new Thread(() -> runActiveExpire(intervalMs, maxTimeMs), "carrot-active-expire");
+    t.setDaemon(true);
+    expireThread = t;
+    t.start();
+  }
+
+  /** Stops active expiration thread */
+  public void stopActiveExpire() {
+    Thread t;
+    synchronized (this) {
+      t = expireThread;
+      expireThread = null;
+    }
+    if (t == null) {
+      return;
+    }
+    t.interrupt();
+    try {
+      t.join();
+    } catch (InterruptedException e) {
+      log.error("StackTrace: ", e);
+    }
+  }
+
+  private void runActiveExpire(long intervalMs, long maxTimeMs) {
+    Thread current = Thread.currentThread();
+    while (expireThread == current) {
+      try {
+        int deleted = activeExpireCycle(maxTimeMs);
+        if (deleted > 0) {
+          log.debug("Active expiration deleted {} records", deleted);
+        }
+        Thread.sleep(intervalMs);
+      } catch (InterruptedException e) {
+        return;
+      } catch (Throwable e) {
+        log.error("StackTrace: ", e);
+      }
+    }
+  }
+
+  /**
+   * Execute generic read - modify - write operation in a single update If Update is in place or no
+   * updates - set Operation.setReadOnlyOrUpdateInPlace
+   * @param op - update operation
+   * @return true if operation succeeds, false otherwise
+   */
+  @SuppressWarnings("deprecation")
+  public boolean execute(Operation op) {
+    long version = getSequenceId();
+    IndexBlock kvBlock = getThreadLocalBlock();
+    op.setVersion(version);
+    kvBlock.putForSearch(op.getKeyAddress(), op.getKeySize(), version);
+    IndexBlock b = null;
+    boolean lowerKey = false;
+    boolean readOnly = op.isReadOnly();
+    int seqNumber;
+    try {
+      if (readOnly) {
+        readLock();
+      } else {
+        updateLock();
+      }
+    while (true) {
+      boolean locked = false;
+      IndexBlock upper = b;
+      try {
+        b = lowerKey == false ? map.floorKey(kvBlock) : map.lowerKey(b);
+        if (b == null) {
+          // TODO
+          return false;
+        }
+        boolean firstBlock = b.isFirstIndexBlock();
+        if (!b.isValid()) {
+          continue;
+        }
+        locked = lockIndexBlock(b, lowerKey ? null : kvBlock, !readOnly);
+        if (!locked) {
+          lowerKey = false;
+          continue;
+        } else if (lowerKey && this.blockLocking && map.higherKey(b) != upper) {
+          // Split or merge happened in between
+          lowerKey = false;
+          continue;
+        }
+        if (!readOnly) {
+          // Operation can update record in place
+          b.copyOnWrite();
+        }
+        seqNumber = b.getSeqNumberSplitOrMerge();
+        // TODO: optimize - last time split? what is the safest threshold? 100ms
+        if (b.hasRecentUnsafeModification()) {
+          IndexBlock bbb = lowerKey == false ? map.floorKey(kvBlock) : map.lowerKey(b);
+          if (b != bbb) {
+            continue;
+          } else {
+            int sn = b.getSeqNumberSplitOrMerge();
+            if (sn != seqNumber) {
               seqNumber = sn;
               continue;
             }
@@ -944,6 +1559,11 @@ public class BigSortedMap {
         op.setFoundRecordAddress(recordAddress);
         // Execute operation
         boolean result = op.execute();
+        if (result && !readOnly) {
+          b.markDirty();
+          // Operation can update expiration time in place
+          b.updateMinExpire(op.getExpire());
+        }
         boolean updateInPlace = op.isUpdateInPlace();
         boolean compressionEnabled = isCompressionEnabled();
         int updatesCount = op.getUpdatesCount();
@@ -996,7 +1616,7 @@ public class BigSortedMap {
             System.exit(-1);
           }
           if (b.isEmpty() && !firstBlock) {
-            map.remove(b);
+            removeIndexBlock(b);
             b.free();
             b.invalidate();
           }
@@ -1029,13 +1649,16 @@ public class BigSortedMap {
       } catch (RetryOperationException e) {
         continue;
       } finally {
+        if (locked) {
+          unlockIndexBlock(b, !readOnly);
+        }
       }
     }
     } finally {
       if (readOnly) {
         readUnlock();
       } else {
-        writeUnlock();
+        updateUnlock();
       }
     }
   }
@@ -1091,18 +1714,21 @@ public class BigSortedMap {
 
     try {
 
-      writeLock();
+      updateLock();
       long version = getSequenceId();
       IndexBlock kvBlock = getThreadLocalBlock();
       kvBlock.putForSearch(keyPtr, keyLength, version);
 
       while (true) {
         IndexBlock b = null;
+        boolean locked = false;
         int seqNumber;
         try {
           b = map.floorKey(kvBlock);
-          // TODO: we do a lot of locking
-          // writeLock(b);
+          locked = lockIndexBlock(b, kvBlock, true);
+          if (!locked) {
+            continue;
+          }
           seqNumber = b.getSeqNumberSplitOrMerge();
           // TODO: optimize - last time split? what is the safest threshold? 100ms
           if (b.hasRecentUnsafeModification()) {
@@ -1121,6 +1747,8 @@ public class BigSortedMap {
               b.put(keyPtr, keyLength, valuePtr, valueLength, version, expire, reuseValue);
           if (!result && getGlobalAllocatedMemory() < getGlobalMemoryLimit()) {
             IndexBlock bb = null;
+            // In a block-level mode we still hold the lock on b,
+            // so nobody can insert into b until bb is in the map
             bb = b.split();
             // block into
             putBlock(bb);
@@ -1134,11 +1762,13 @@ public class BigSortedMap {
         } catch (RetryOperationException e) {
           continue;
         } finally {
-
+          if (locked) {
+            unlockIndexBlock(b, true);
+          }
         }
       }
     } finally {
-      writeUnlock();
+      updateUnlock();
     }
   }
 
@@ -1167,7 +1797,7 @@ public class BigSortedMap {
     IndexBlock current = first;
     while (current != afterLast) {
       if (current.isEmpty() && !current.isFirstIndexBlock()) {
-        map.remove(current);
+        removeIndexBlock(current);
         IndexBlock ib = current;
         current = map.higherKey(current);
         ib.free();
@@ -1202,7 +1832,7 @@ public class BigSortedMap {
           b = blocks.get(i);
           long del = b.deleteRange(startKeyPtr, startKeyLength, endKeyPtr, endKeyLength, version);
           if (b.isEmpty() && !b.isFirstIndexBlock()) {
-            map.remove(b);
+            removeIndexBlock(b);
             b.free();
           }
           if (del == 0 && !firstBlock) {
@@ -1233,18 +1863,23 @@ public class BigSortedMap {
    */
   public boolean delete(long keyPtr, int keyLength) {
     try {
-      writeLock();
+      updateLock();
       IndexBlock kvBlock = getThreadLocalBlock();
       long version = getSequenceId();
       kvBlock.putForSearch(keyPtr, keyLength, version);
       while (true) {
         IndexBlock b = null;
+        boolean locked = false;
         int seqNumber;
         try {
           b = map.floorKey(kvBlock);
           if (!b.isValid()) {
             continue;
           }
+          locked = lockIndexBlock(b, kvBlock, true);
+          if (!locked) {
+            continue;
+          }
           seqNumber = b.getSeqNumberSplitOrMerge();
           if (b.hasRecentUnsafeModification()) {
             IndexBlock bbb = map.floorKey(kvBlock);
@@ -1262,7 +1897,7 @@ public class BigSortedMap {
           OpResult result = b.delete(keyPtr, keyLength, version);
           if (result == OpResult.OK) {
             if (b.isEmpty()) {
-              map.remove(b);
+              removeIndexBlock(b);
               b.free();
               b.invalidate();
             }
@@ -1277,12 +1912,13 @@ public class BigSortedMap {
         } catch (RetryOperationException e) {
           continue;
         } finally {
-          if (b != null) {
+          if (locked) {
+            unlockIndexBlock(b, true);
           }
         }
       }
     } finally {
-      writeUnlock();
+      updateUnlock();
     }
   }
 
@@ -1305,8 +1941,13 @@ public class BigSortedMap {
       boolean locked = false;
       IndexBlock b = null;
       while (true) {
+        IndexBlock lockedBlock = null;
         try {
           b = map.floorKey(kvBlock);
+          if (!lockIndexBlock(b, kvBlock, false)) {
+            continue;
+          }
+          lockedBlock = b;
           long result = b.get(keyPtr, keyLength, valueBuf, valueBufLength, version);
           if (result < 0 && b.hasRecentUnsafeModification()) {
             // check one more time with lock
@@ -1329,14 +1970,265 @@ public class BigSortedMap {
         } catch (RetryOperationException e) {
           continue;
         } finally {
+          unlockIndexBlock(lockedBlock, false);
+        }
+      }
+    } finally {
+      readUnlock();
+    }
+  }
 
+  /**
+   * Batched get. Keys are sorted and grouped by index block, every group is served under a single
+   * index block lock and every data block is decompressed only once per batch. Values are copied
+   * into a value buffer one after another in ascending key order
+   * @param keyPtrs keys addresses
+   * @param keySizes keys sizes
+   * @param valueBuf value buffer address
+   * @param valueBufLength value buffer length
+   * @param valueSizes value sizes (output), -1 - key does not exist
+   * @param valueOffsets value offsets in a value buffer (output), -1 - value did not fit
+   * @param version version
+   * @return total size of copied values
+   */
+  public int get(long[] keyPtrs, int[] keySizes, long valueBuf, int valueBufLength,
+      long[] valueSizes, int[] valueOffsets, long version) {
+    int[] index = sortedOrder(keyPtrs, keySizes);
+    int bufOffset = 0;
+    try {
+      readLock();
+      IndexBlock kvBlock = getThreadLocalBlock();
+      int i = 0;
+      while (i < index.length) {
+        int k = index[i];
+        kvBlock.reset();
+        kvBlock.putForSearch(keyPtrs[k], keySizes[k], version);
+        IndexBlock b = null;
+        boolean locked = false;
+        try {
+          b = map.floorKey(kvBlock);
+          locked = lockIndexBlock(b, kvBlock, false);
+          if (!locked) {
+            continue;
+          }
+          byte[] bound = nextFirstKey(b);
+          int to = i + 1;
+          while (to < index.length && lessThan(keyPtrs[index[to]], keySizes[index[to]], bound)) {
+            to++;
+          }
+          bufOffset = b.get(keyPtrs, keySizes, index, i, to, valueBuf, valueBufLength, bufOffset,
+            valueSizes, valueOffsets, version);
+          if (b.hasRecentUnsafeModification()) {
+            // we could catch split in flight - check missing keys one by one
+            for (int j = i; j < to; j++) {
+              k = index[j];
+              if (valueSizes[k] != DataBlock.NOT_FOUND) {
+                continue;
+              }
+              long size = b.get(keyPtrs[k], keySizes[k], valueBuf + bufOffset,
+                valueBufLength - bufOffset, version);
+              valueSizes[k] = size;
+              if (size >= 0 && size <= valueBufLength - bufOffset) {
+                valueOffsets[k] = bufOffset;
+                bufOffset += size;
+              }
+            }
+          }
+          i = to;
+        } catch (RetryOperationException e) {
+          continue;
+        } finally {
+          if (locked) {
+            unlockIndexBlock(b, false);
+          }
         }
       }
+      return bufOffset;
     } finally {
       readUnlock();
     }
   }
 
+  /**
+   * Batched put. Keys are sorted and grouped by index block, every group is written under a single
+   * index block lock
+   * @param keyPtrs keys addresses
+   * @param keySizes keys sizes
+   * @param valuePtrs values addresses
+   * @param valueSizes values sizes
+   * @param expire expiration time
+   * @return true, if success, false otherwise (map is full)
+   */
+  public boolean put(long[] keyPtrs, int[] keySizes, long[] valuePtrs, int[] valueSizes,
+      long expire) {
+    int[] index = sortedOrder(keyPtrs, keySizes);
+    try {
+      updateLock();
+      IndexBlock kvBlock = getThreadLocalBlock();
+      int i = 0;
+      while (i < index.length) {
+        int k = index[i];
+        long version = getSequenceId();
+        kvBlock.reset();
+        kvBlock.putForSearch(keyPtrs[k], keySizes[k], version);
+        IndexBlock b = null;
+        boolean locked = false;
+        try {
+          b = map.floorKey(kvBlock);
+          locked = lockIndexBlock(b, kvBlock, true);
+          if (!locked) {
+            continue;
+          }
+          if (b.hasRecentUnsafeModification() && b != map.floorKey(kvBlock)) {
+            continue;
+          }
+          byte[] bound = nextFirstKey(b);
+          while (i < index.length) {
+            k = index[i];
+            if (!lessThan(keyPtrs[k], keySizes[k], bound)) {
+              break;
+            }
+            boolean result = b.put(keyPtrs[k], keySizes[k], valuePtrs[k], valueSizes[k],
+              getSequenceId(), expire, false);
+            if (result) {
+              i++;
+            } else if (getGlobalAllocatedMemory() < getGlobalMemoryLimit()) {
+              // Group boundaries change after split - look up index block again
+              IndexBlock bb = b.split();
+              putBlock(bb);
+              break;
+            } else {
+              // MAP is FULL
+              return false;
+            }
+          }
+        } catch (RetryOperationException e) {
+          continue;
+        } finally {
+          if (locked) {
+            unlockIndexBlock(b, true);
+          }
+        }
+      }
+      return true;
+    } finally {
+      updateUnlock();
+    }
+  }
+
+  /**
+   * Batched delete. Keys are sorted and grouped by index block, every group is deleted under a
+   * single index block lock
+   * @param keyPtrs keys addresses
+   * @param keySizes keys sizes
+   * @param deleted deleted flags (output), can be null
+   * @return number of deleted keys
+   */
+  public int delete(long[] keyPtrs, int[] keySizes, boolean[] deleted) {
+    int[] index = sortedOrder(keyPtrs, keySizes);
+    int count = 0;
+    try {
+      updateLock();
+      IndexBlock kvBlock = getThreadLocalBlock();
+      int i = 0;
+      while (i < index.length) {
+        int k = index[i];
+        kvBlock.reset();
+        kvBlock.putForSearch(keyPtrs[k], keySizes[k], getSequenceId());
+        IndexBlock b = null;
+        boolean locked = false;
+        try {
+          b = map.floorKey(kvBlock);
+          if (!b.isValid()) {
+            continue;
+          }
+          locked = lockIndexBlock(b, kvBlock, true);
+          if (!locked) {
+            continue;
+          }
+          if (b.hasRecentUnsafeModification() && b != map.floorKey(kvBlock)) {
+            continue;
+          }
+          byte[] bound = nextFirstKey(b);
+          while (i < index.length) {
+            k = index[i];
+            if (!lessThan(keyPtrs[k], keySizes[k], bound)) {
+              break;
+            }
+            OpResult result = b.delete(keyPtrs[k], keySizes[k], getSequenceId());
+            if (result == OpResult.OK || result == OpResult.NOT_FOUND) {
+              if (deleted != null) {
+                deleted[k] = result == OpResult.OK;
+              }
+              count += result == OpResult.OK ? 1 : 0;
+              i++;
+              if (result == OpResult.OK && b.isEmpty()) {
+                removeIndexBlock(b);
+                b.free();
+                b.invalidate();
+                break;
+              }
+              continue;
+            }
+            // split is required
+            IndexBlock bb = b.split();
+            putBlock(bb);
+            break;
+          }
+        } catch (RetryOperationException e) {
+          continue;
+        } finally {
+          if (locked) {
+            unlockIndexBlock(b, true);
+          }
+        }
+      }
+      return count;
+    } finally {
+      updateUnlock();
+    }
+  }
+
+  /**
+   * Sorts keys (indirectly)
+   * @param keyPtrs keys addresses
+   * @param keySizes keys sizes
+   * @return indexes of keys in ascending key order
+   */
+  private static int[] sortedOrder(long[] keyPtrs, int[] keySizes) {
+    Integer[] order = new Integer[keyPtrs.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (x, y) -> Utils.compareTo(keyPtrs[x], keySizes[x], keyPtrs[y],
+      keySizes[y]));
+    int[] index = new int[order.length];
+    for (int i = 0; i < index.length; i++) {
+      index[i] = order[i];
+    }
+    return index;
+  }
+
+  /**
+   * Get first key of a next index block
+   * @param b index block
+   * @return first key or null, if b is the last block
+   */
+  private byte[] nextFirstKey(IndexBlock b) {
+    IndexBlock next = map.higherKey(b);
+    return next == null ? null : next.getFirstKey();
+  }
+
+  /**
+   * Checks if key is less than a bound key
+   * @param keyPtr key address
+   * @param keySize key size
+   * @param bound bound key, null - no bound
+   * @return true or false
+   */
+  private static boolean lessThan(long keyPtr, int keySize, byte[] bound) {
+    return bound == null || Utils.compareTo(bound, 0, bound.length, keyPtr, keySize) > 0;
+  }
   /**
    * Returns the greatest key, which is less or equals to a given key
    * @param keyPtr key
@@ -1353,9 +2245,14 @@ public class BigSortedMap {
     try {
       readLock();
       while (true) {
+      IndexBlock lockedBlock = null;
       try {
         b = map.floorKey(kvBlock);
         // TODO: b == null? possible?
+        if (!lockIndexBlock(b, kvBlock, false)) {
+          continue;
+        }
+        lockedBlock = b;
         long result = b.floorKey(keyPtr, keyLength, buf, bufLength);
         if (result < 0 && b.hasRecentUnsafeModification()) {
           // check one more time with lock
@@ -1378,6 +2275,7 @@ public class BigSortedMap {
       } catch (RetryOperationException e) {
         continue;
       } finally {
+        unlockIndexBlock(lockedBlock, false);
       }
     }
     } finally {
@@ -1398,10 +2296,15 @@ public class BigSortedMap {
     int seqNumber;
     try {
 
-      writeLock();
+      updateLock();
       while (true) {
+        boolean locked = false;
         try {
           b = map.floorKey(kvBlock);
+          locked = lockIndexBlock(b, kvBlock, true);
+          if (!locked) {
+            continue;
+          }
           seqNumber = b.getSeqNumberSplitOrMerge();
           if (b.hasRecentUnsafeModification()) {
             IndexBlock bbb = map.floorKey(kvBlock);
@@ -1437,11 +2340,13 @@ public class BigSortedMap {
         } catch (RetryOperationException e) {
           continue;
         } finally {
-
+          if (locked) {
+            unlockIndexBlock(b, true);
+          }
         }
       }
     } finally {
-      writeUnlock();
+      updateUnlock();
     }
   }
 
@@ -1617,10 +2522,15 @@ public class BigSortedMap {
     int seqNumber;
     try {
 
-      writeLock();
+      updateLock();
       while (true) {
+        boolean locked = false;
         try {
           b = map.floorKey(kvBlock);
+          locked = lockIndexBlock(b, kvBlock, true);
+          if (!locked) {
+            continue;
+          }
           seqNumber = b.getSeqNumberSplitOrMerge();
           if (b.hasRecentUnsafeModification()) {
             IndexBlock bbb = map.floorKey(kvBlock);
@@ -1653,11 +2563,13 @@ public class BigSortedMap {
         } catch (RetryOperationException e) {
           continue;
         } finally {
-
+          if (locked) {
+            unlockIndexBlock(b, true);
+          }
         }
       }
     } finally {
-      writeUnlock();
+      updateUnlock();
     }
   }
 
@@ -1673,10 +2585,15 @@ public class BigSortedMap {
     IndexBlock b = null;
     int seqNumber;
     try {
-      writeLock();
+      updateLock();
       while (true) {
+        boolean locked = false;
         try {
           b = map.floorKey(kvBlock);
+          locked = lockIndexBlock(b, kvBlock, true);
+          if (!locked) {
+            continue;
+          }
           seqNumber = b.getSeqNumberSplitOrMerge();
           if (b.hasRecentUnsafeModification()) {
             IndexBlock bbb = map.floorKey(kvBlock);
@@ -1712,11 +2629,13 @@ public class BigSortedMap {
         } catch (RetryOperationException e) {
           continue;
         } finally {
-
+          if (locked) {
+            unlockIndexBlock(b, true);
+          }
         }
       }
     } finally {
-      writeUnlock();
+      updateUnlock();
     }
   }
 
@@ -1732,10 +2651,15 @@ public class BigSortedMap {
     IndexBlock b = null;
     int seqNumber;
     try {
-      writeLock();
+      updateLock();
       while (true) {
+        boolean locked = false;
         try {
           b = map.floorKey(kvBlock);
+          locked = lockIndexBlock(b, kvBlock, true);
+          if (!locked) {
+            continue;
+          }
           seqNumber = b.getSeqNumberSplitOrMerge();
           if (b.hasRecentUnsafeModification()) {
             IndexBlock bbb = map.floorKey(kvBlock);
@@ -1773,11 +2697,13 @@ public class BigSortedMap {
         } catch (RetryOperationException e) {
           continue;
         } finally {
-
+          if (locked) {
+            unlockIndexBlock(b, true);
+          }
         }
       }
     } finally {
-      writeUnlock();
+      updateUnlock();
     }
   }
 
@@ -2004,23 +2930,45 @@ public class BigSortedMap {
     return getSafeScanner(startRowPtr, startRowLength, endRowPtr, endRowLength, reverse);
   }
 
-  /** Disposes map, deallocate all the memory */
+  /** Disposes map, deallocate all the memory. Waits for a running snapshot */
   public void dispose() {
+    stopActiveExpire();
+    snapshotLock.lock();
     try {
-      writeLock();
-      for (IndexBlock b : map.keySet()) {
-        b.free();
+      try {
+        writeLock();
+        for (IndexBlock b : map.keySet()) {
+          b.free();
+        }
+        map.clear();
+        for (int i = 0; i < recordCounts.length(); i++) {
+          recordCounts.set(i, 0);
+        }
+        // Mapped files are released by GC
+        mappedFiles.clear();
+        evictionCursor = null;
+        expireCursor = null;
+      } finally {
+        writeUnlock();
       }
-      map.clear();
+      // Partitions of the last snapshot can not be reused
+      snapshotKeys = null;
+      snapshotFiles = null;
+      removedBlocks.clear();
     } finally {
-      writeUnlock();
+      snapshotLock.unlock();
     }
   }
 
   public void flushAll() {
     long start = System.currentTimeMillis();
-    dispose();
-    initNodes();
+    snapshotLock.lock();
+    try {
+      dispose();
+      initNodes();
+    } finally {
+      snapshotLock.unlock();
+    }
     long end = System.currentTimeMillis();
     log.debug("[{}] flushall took:{}ms", Thread.currentThread().getName(), end - start);
   }
@@ -2077,9 +3025,91 @@ public class BigSortedMap {
 
   private static int BUFFER_SIZE = 256 * 1024;
 
+  /* Single file snapshot (legacy), is loaded if there is no manifest */
+  static final String SNAPSHOT_FILE = "snapshot.data";
+
+  /* Snapshot manifest: store meta data, snapshot time and list of partition files */
+  static final String SNAPSHOT_MANIFEST = "snapshot.manifest";
+
+  /* Partition file name: prefix + snapshot id + "-" + partition index + suffix */
+  static final String SNAPSHOT_PARTITION_PREFIX = "snapshot-";
+  static final String SNAPSHOT_PARTITION_SUFFIX = ".data";
+
+  /* Images of index blocks updated while a snapshot is being saved */
+  static final String SNAPSHOT_IMAGES = "snapshot.images";
+
+  /*
+   * Number of threads (and key range partitions) used to save and load a snapshot
+   */
+  private static int snapshotThreads = RedisConf.getInstance().getSnapshotThreads();
+
+  /**
+   * Sets number of threads used to save and load snapshots
+   * @param n number of threads
+   */
+  public static void setSnapshotThreads(int n) {
+    snapshotThreads = Math.max(1, n);
+  }
+
+  /**
+   * Gets number of threads used to save and load snapshots
+   * @return number of threads
+   */
+  public static int getSnapshotThreads() {
+    return snapshotThreads;
+  }
+
+  /*
+   * Maximum number of index blocks in a snapshot partition (file). Smaller partitions - less data
+   * is rewritten by incremental snapshots
+   */
+  private static int snapshotPartitionSize = RedisConf.getInstance().getSnapshotPartitionSize();
+
+  /**
+   * Sets maximum number of index blocks in a snapshot partition
+   * @param n number of index blocks
+   */
+  public static void setSnapshotPartitionSize(int n) {
+    snapshotPartitionSize = Math.max(1, n);
+  }
+
+  /*
+   * Load snapshot partitions as memory mapped files
+   */
+  private static boolean snapshotLoadMmap = RedisConf.getInstance().isSnapshotLoadMmap();
+
+  /**
+   * Sets snapshot load mode. In a memory mapped mode index blocks are built on load, but data
+   * blocks are read from partition files on demand and copied into allocated memory on a first
+   * update
+   * @param b true - memory mapped, false - load all data into memory
+   */
+  public static void setSnapshotLoadMmap(boolean b) {
+    snapshotLoadMmap = b;
+  }
+
+  /**
+   * Is snapshot loaded as memory mapped files
+   * @return true or false
+   */
+  public static boolean isSnapshotLoadMmap() {
+    return snapshotLoadMmap;
+  }
+
   // WRITE DATA
-  @SuppressWarnings("resource")
+  /** Full snapshot */
   public void snapshot() {
+    snapshot(false);
+  }
+
+  /**
+   * Saves store snapshot. Full snapshot splits the store into new key range partitions and saves
+   * all of them. Incremental snapshot keeps partitions of the last snapshot and rewrites only
+   * those, which have index blocks modified (or removed) since then, the rest of partition files
+   * is reused. If there is no previous snapshot, full snapshot is taken.
+   * @param incremental incremental if true, full - otherwise
+   */
+  public synchronized void snapshot(boolean incremental) {
     // Check if dir exists
     // Check if snapshotDir is NULL - during tests
     if (snapshotDir == null) {
@@ -2093,94 +3123,361 @@ public class BigSortedMap {
       }
     }
 
-    File snapshotFile = new File(dir, "snapshot.data_tmp");
-    RandomAccessFile raf = null;
-    FileChannel fc = null;
+    // Snapshot has all logged records up to this sequence number and none after it. Commands are
+    // not applied only while the snapshot starts, index blocks updated after that keep their images
+    WriteAheadLog wal = this.wal;
+    long walSequence = 0;
+    long walSegment = 0;
+    long since = snapshotEpoch;
+    long epoch;
+    List<byte[]> removed = new ArrayList<byte[]>();
+    SnapshotImage image;
+    if (wal != null) {
+      wal.lockExclusive();
+    }
+    snapshotLock.lock();
     try {
-      raf = new RandomAccessFile(snapshotFile, "rw");
-      fc = raf.getChannel();
+      if (wal != null) {
+        walSequence = wal.getSequence();
+        walSegment = wal.rotate();
+      }
+      // Blocks modified after this point get the next epoch. Writers update epoch of a block under
+      // its lock, therefore if a block is saved before modification, it gets the new epoch
+      epoch = ++modEpoch;
+      byte[] key;
+      while ((key = removedBlocks.poll()) != null) {
+        removed.add(key);
+      }
+      image = new SnapshotImage(new File(dir, SNAPSHOT_IMAGES), epoch);
+      this.snapshotImage = image;
+    } catch (IOException e) {
+      log.error("Snapshot failed. Can not create file: {}",
+        new File(dir, SNAPSHOT_IMAGES).getAbsolutePath());
+      log.error("StackTrace: ", e);
+      removedBlocks.addAll(removed);
+      snapshotLock.unlock();
+      return;
+    } finally {
+      if (wal != null) {
+        wal.unlockExclusive();
+      }
+    }
+    boolean success;
+    try {
+      success = saveSnapshot(dir, incremental, walSequence, since, epoch, removed, image);
+    } finally {
+      this.snapshotImage = null;
+      image.close();
+      snapshotLock.unlock();
+    }
+    if (wal != null && success) {
+      wal.checkpoint(walSegment);
+    }
+  }
+
+  /**
+   * Saves snapshot partitions and the manifest
+   * @param dir snapshot directory
+   * @param incremental incremental if true, full - otherwise
+   * @param walSequence sequence number of the last WAL record in the snapshot
+   * @param since the last snapshot epoch
+   * @param epoch this snapshot epoch
+   * @param removed first keys of blocks removed since the last snapshot
+   * @param image images of blocks updated since the snapshot start
+   * @return true on success, false - otherwise
+   */
+  private boolean saveSnapshot(File dir, boolean incremental, long walSequence, long since,
+      long epoch, List<byte[]> removed, SnapshotImage image) {
+    // Unique snapshot id, is a part of partition file names
+    long id = Math.max(System.currentTimeMillis(), lastSnapshotId + 1);
+    lastSnapshotId = id;
+
+    incremental = incremental && snapshotFiles != null;
+    byte[][] keys = incremental ? snapshotKeys
+        : getPartitionKeys(
+          Math.max(snapshotThreads, (map.size() + snapshotPartitionSize - 1) / snapshotPartitionSize));
+    int numPartitions = keys.length;
+    String[] names = new String[numPartitions];
+    List<Future<String>> results = new ArrayList<Future<String>>();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(snapshotThreads, numPartitions));
+    for (int i = 0; i < numPartitions; i++) {
+      String name = SNAPSHOT_PARTITION_PREFIX + id + "-" + i + SNAPSHOT_PARTITION_SUFFIX;
+      String prevName = incremental ? snapshotFiles[i] : null;
+      byte[] startKey = keys[i];
+      byte[] stopKey = i == numPartitions - 1 ? null : keys[i + 1];
+      results.add(executor.submit(() -> {
+        if (prevName != null && new File(dir, prevName).exists()
+            && !isPartitionDirty(startKey, stopKey, since, removed, image)) {
+          return prevName;
+        }
+        return savePartition(new File(dir, name), startKey, stopKey, id, image) ? name : null;
+      }));
+    }
+    executor.shutdown();
+    boolean success = true;
+    int saved = 0;
+    for (int i = 0; i < numPartitions; i++) {
+      try {
+        names[i] = results.get(i).get();
+        if (names[i] == null) {
+          success = false;
+        } else if (!incremental || !names[i].equals(snapshotFiles[i])) {
+          saved++;
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        log.error("StackTrace: ", e);
+        success = false;
+      }
+    }
+    if (success && image.getError() != null) {
+      log.error("StackTrace: ", image.getError());
+      success = false;
+    }
+    if (!success) {
+      log.error("Snapshot failed. Can not create snapshot partitions in: {}",
+        dir.getAbsolutePath());
+      abortSnapshot(dir, id, since, removed);
+      return false;
+    }
+    int deltas = incremental ? snapshotDeltas + 1 : 0;
+
+    // Save last snapshot time to a manifest file, manifest makes new partitions visible
+    long timestamp = System.currentTimeMillis();
+    File manifestFile = new File(dir, SNAPSHOT_MANIFEST);
+    File tmpFile = new File(dir, SNAPSHOT_MANIFEST + "_tmp");
+    try (RandomAccessFile raf = new RandomAccessFile(tmpFile, "rw")) {
+      raf.setLength(0);
+      FileChannel fc = raf.getChannel();
       // Save store meta data
       saveStoreMeta(fc);
+      ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+      buf.putLong(timestamp);
+      buf.putInt(deltas);
+      buf.putInt(numPartitions);
+      for (int i = 0; i < numPartitions; i++) {
+        if (buf.remaining() < 2 * Short.BYTES + keys[i].length + names[i].length()) {
+          IOUtils.drainBuffer(buf, fc);
+        }
+        buf.putShort((short) keys[i].length);
+        buf.put(keys[i]);
+        byte[] bytes = names[i].getBytes();
+        buf.putShort((short) bytes.length);
+        buf.put(bytes);
+      }
+      if (buf.remaining() < Utils.SIZEOF_LONG) {
+        IOUtils.drainBuffer(buf, fc);
+      }
+      buf.putLong(walSequence);
+      IOUtils.drainBuffer(buf, fc);
+      fc.force(true);
     } catch (IOException e) {
-      log.error("Snapshot failed. Can not create snapshot file: {}",
-        snapshotFile.getAbsolutePath());
+      log.error("Snapshot failed. Can not create manifest file: {}", tmpFile.getAbsolutePath());
       log.error("StackTrace: ", e);
-      return;
+      abortSnapshot(dir, id, since, removed);
+      return false;
+    }
+    try {
+      Files.move(tmpFile.toPath(), manifestFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.error("ERROR! Can not rename new manifest file: {} to {}", tmpFile.getAbsolutePath(),
+        manifestFile.getAbsolutePath());
+      log.error("StackTrace: ", e);
+      abortSnapshot(dir, id, since, removed);
+      return false;
+    }
+    this.snapshotEpoch = epoch;
+    this.snapshotKeys = keys;
+    this.snapshotFiles = names;
+    this.snapshotDeltas = deltas;
+    // Update store's last snapshot time
+    setLastSnapshotTimestamp(timestamp);
+    log.debug("Snapshot created: {} incremental={} partitions={} saved={}",
+      manifestFile.getAbsolutePath(), incremental, numPartitions, saved);
+    // Delete old snapshot
+    deleteSnapshotPartitions(dir, new HashSet<String>(Arrays.asList(names)), -1);
+    return true;
+  }
+
+  /**
+   * Cleans up after a failed snapshot: deletes new partition files, keeps track of removed index
+   * blocks for the next snapshot
+   */
+  private void abortSnapshot(File dir, long id, long since, List<byte[]> removed) {
+    deleteSnapshotPartitions(dir, Collections.emptySet(), id);
+    // Epoch has been incremented already, blocks modified since the last successful snapshot
+    // are still dirty, because snapshotEpoch has not been changed
+    removedBlocks.addAll(removed);
+  }
+
+  /**
+   * Get number of incremental snapshots since the last full snapshot
+   * @return number of incremental snapshots
+   */
+  public synchronized int getSnapshotDeltas() {
+    return snapshotDeltas;
+  }
+
+  /**
+   * Splits the map into key ranges with (approximately) the same number of index blocks
+   * @param n maximum number of partitions
+   * @return partitions start keys: first keys of index blocks, which start partitions (sorted),
+   *         start key of the first partition is empty
+   */
+  private byte[][] getPartitionKeys(int n) {
+    List<byte[]> keys = new ArrayList<byte[]>();
+    keys.add(new byte[0]);
+    int numBlocks = map.size();
+    n = Math.max(1, Math.min(n, numBlocks));
+    // Partition k starts at block with index k * numBlocks / n
+    long next = numBlocks / n;
+    int count = 0;
+    for (IndexBlock b : map.keySet()) {
+      if (keys.size() == n) {
+        break;
+      }
+      if (count > 0 && count == next) {
+        // Cached first key is never modified in place, it is safe to keep a reference
+        keys.add(b.getFirstKey());
+        next = (long) keys.size() * numBlocks / n;
+      }
+      count++;
     }
+    return keys.toArray(new byte[keys.size()][]);
+  }
 
-    log.debug("Snapshot file opened: {}", snapshotFile.getAbsolutePath());
+  /**
+   * Checks if a partition has index blocks, which have been modified or removed since the last
+   * snapshot
+   * @param startKey start key (inclusive), empty - from the beginning
+   * @param stopKey stop key (exclusive), null - till the end
+   * @param since the last snapshot epoch
+   * @param removed first keys of removed blocks
+   * @param image images of blocks updated since the snapshot start
+   * @return true - partition must be saved, false - otherwise
+   */
+  private boolean isPartitionDirty(byte[] startKey, byte[] stopKey, long since,
+      List<byte[]> removed, SnapshotImage image) {
+    for (byte[] key : removed) {
+      if (inRange(key, startKey, stopKey)) {
+        return true;
+      }
+    }
+    IndexBlock b = firstIndexBlock(startKey);
+    while (b != null && inRange(b.getFirstKey(), startKey, stopKey)) {
+      if (b.getModificationEpoch() >= since) {
+        return true;
+      }
+      b = nextIndexBlock(b);
+    }
+    // Block can be removed after the snapshot start, its image is preserved before that
+    return image.contains(startKey, stopKey);
+  }
 
-    // main loop over all index blocks
-    // We readLock two consecutive index blocks to prevent index block
-    // "split-in-the-middle" issue
+  private static boolean inRange(byte[] key, byte[] startKey, byte[] stopKey) {
+    return Utils.compareTo(key, 0, key.length, startKey, 0, startKey.length) >= 0
+        && (stopKey == null
+            || Utils.compareTo(key, 0, key.length, stopKey, 0, stopKey.length) < 0);
+  }
+
+  /**
+   * Saves all index blocks with first keys in a range [startKey, stopKey) into a partition file.
+   * File format is the same as for a single file snapshot without store meta data: index blocks
+   * followed by 8 bytes snapshot id. Blocks updated since the snapshot start are saved from their
+   * images, blocks created since then are skipped
+   * @param file partition file
+   * @param startKey start key (inclusive), empty - from the beginning
+   * @param stopKey stop key (exclusive), null - till the end
+   * @param id snapshot id
+   * @param image images of blocks updated since the snapshot start
+   * @return true on success, false - otherwise
+   */
+  private boolean savePartition(File file, byte[] startKey, byte[] stopKey, long id,
+      SnapshotImage image) {
     IndexBlock prev = null, cur = null;
+    // Images of blocks with smaller first keys have been saved
+    byte[] imageKey = startKey;
     ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
-    buf.clear();
-    while (true) {
-      try {
-        cur = nextIndexBlock(prev);
-        if (cur == null) {
-          if (prev != null) {
-            prev.readUnlock();
-          }
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.setLength(0);
+      FileChannel fc = raf.getChannel();
+      while (true) {
+        cur = prev == null ? firstIndexBlock(startKey) : nextIndexBlock(prev);
+        if (cur == null || stopKey != null && Utils.compareTo(cur.getFirstKey(), 0,
+          cur.getFirstKey().length, stopKey, 0, stopKey.length) >= 0) {
           // We are done
           break;
-        } else if (cur.isValid() == false) {
-          // TODO: is it safe?
-          continue;
-        }
-        // Lock current index block
-        cur.readLock();
-        // Unlock previous one
-        if (prev != null) {
-          prev.readUnlock();
         }
-        // Process index block
-        if (cur.isValid()) {
-          cur.saveData(fc, buf);
+        // Map lock excludes map-wide updates
+        readLock();
+        try {
+          cur.readLock();
+          if (cur.isValid() && cur.getSnapshotEpoch() < image.getEpoch()) {
+            // Block has not been updated since the snapshot start, first key is the same
+            byte[] key = cur.getFirstKey();
+            IOUtils.drainBuffer(buf, fc);
+            image.write(imageKey, key, fc);
+            imageKey = key;
+            cur.saveData(fc, buf);
+            cur.setSnapshotEpoch(image.getEpoch());
+          }
+        } catch (RetryOperationException e) {
+          // Lock is held, block has been removed from the map, its image is preserved
+        } finally {
+          cur.readUnlock();
+          readUnlock();
         }
         prev = cur;
-      } catch (RetryOperationException e) {
-        continue;
-      } catch (IOException e) {
-        log.error("Snapshot failed. Can not create snapshot file: {}",
-          snapshotFile.getAbsolutePath());
-        log.error("StackTrace: ", e);
-        return;
       }
-    }
-
-    // Close file
-    try {
       // Drain buffer
       IOUtils.drainBuffer(buf, fc);
-      // Save last snapshot time to a snapshot file
-      long timestamp = System.currentTimeMillis();
-      buf.putLong(timestamp);
+      image.write(imageKey, stopKey, fc);
+      buf.putLong(id);
       IOUtils.drainBuffer(buf, fc);
-      // Update store's last snapshot time
-      setLastSnapshotTimestamp(timestamp);
-      raf.close();
+      fc.force(true);
+      return true;
     } catch (IOException e) {
-      log.error("WARNING! StackTrace: ", e);
-      // TODO: what to do?
+      log.error("Snapshot failed. Can not create snapshot file: {}", file.getAbsolutePath());
+      log.error("StackTrace: ", e);
+      return false;
     }
+  }
 
-    // Delete old snapshot
-    File oldSnapshotFile = new File(dir, "snapshot.data");
-    if (oldSnapshotFile.exists()) {
-      boolean result = oldSnapshotFile.delete();
-      if (!result) {
-        log.error("ERROR! Can not delete old snapshot file.");
-        return;
-      }
+  /**
+   * Get first index block with a first key greater or equals to a given key
+   * @param key key, if empty - the first block in the map is returned
+   * @return index block or null
+   */
+  private IndexBlock firstIndexBlock(byte[] key) {
+    if (key.length == 0) {
+      return map.firstKey();
     }
-    boolean result = snapshotFile.renameTo(oldSnapshotFile);
-    if (!result) {
-      log.error("ERROR! Can not rename new snapshot file: {} to {}", snapshotFile.getAbsolutePath(),
-        oldSnapshotFile.getAbsolutePath());
-    } else {
-      log.debug("Snapshot file created: {}", oldSnapshotFile.getAbsolutePath());
+    IndexBlock kvBlock = getThreadLocalBlock();
+    // Search only: compareTo() uses cached first key
+    kvBlock.firstKey = key;
+    return map.ceilingKey(kvBlock);
+  }
+
+  /**
+   * Deletes snapshot files, which do not belong to the current snapshot: a legacy single file
+   * snapshot and old (or failed) partitions
+   * @param dir snapshot directory
+   * @param keep current snapshot partitions
+   * @param id if > 0 - delete only partitions of this snapshot
+   */
+  private static void deleteSnapshotPartitions(File dir, Set<String> keep, long id) {
+    String prefix = id > 0 ? SNAPSHOT_PARTITION_PREFIX + id + "-" : SNAPSHOT_PARTITION_PREFIX;
+    File[] files = dir.listFiles((d, name) -> !keep.contains(name)
+        && (name.startsWith(prefix) && name.endsWith(SNAPSHOT_PARTITION_SUFFIX)
+            || id <= 0 && name.equals(SNAPSHOT_FILE)));
+    if (files == null) {
+      return;
+    }
+    for (File f : files) {
+      if (!f.delete()) {
+        log.error("ERROR! Can not delete old snapshot file: {}", f.getAbsolutePath());
+      }
     }
   }
 
@@ -2207,13 +3504,213 @@ public class BigSortedMap {
   public static BigSortedMap loadStore(String server, int port) {
     RedisConf conf = RedisConf.getInstance();
     String snapshotDir = conf.getDataDirForNode(server, port);
-    return loadStoreFromSnapshot(snapshotDir);
+    BigSortedMap map = loadStoreFromSnapshot(snapshotDir);
+    if (map != null) {
+      map.recountRecords();
+    }
+    return map;
   }
 
   public static BigSortedMap loadStore(int storeId) {
     RedisConf conf = RedisConf.getInstance();
     String snapshotDir = conf.getDataDir(storeId);
-    return loadStoreFromSnapshot(snapshotDir);
+    BigSortedMap map = loadStoreFromSnapshot(snapshotDir);
+    if (map != null) {
+      map.recountRecords();
+    }
+    return map;
+  }
+
+  /**
+   * Opens write-ahead log of the store. Records written after the snapshot the store has been
+   * loaded from are replayed first. Store must be fully initialized (compression codec,
+   * deallocators) before this call.
+   * @param walDir WAL directory
+   * @param replay if false, records are not replayed (store has not been loaded from a snapshot)
+   */
+  public void openWAL(String walDir, boolean replay) {
+    WriteAheadLog wal = WriteAheadLog.fromConf(walDir);
+    try {
+      long start = System.currentTimeMillis();
+      long count;
+      if (replay) {
+        count = wal.replay(walSequence, (ptr, size) -> CommandProcessor.execute(this, ptr));
+      } else {
+        // Records are skipped, new records must get greater sequence numbers
+        count = wal.replay(Long.MAX_VALUE, (ptr, size) -> {
+        });
+      }
+      log.debug("Replayed {} WAL records from: {} in {}ms", count, walDir,
+        System.currentTimeMillis() - start);
+      wal.open(walSequence);
+      setWAL(wal);
+    } catch (IOException e) {
+      log.error("WAL recovery failed, WAL is disabled. StackTrace: ", e);
+    }
+  }
+
+  /**
+   * Loads store from a partitioned snapshot. Partitions are loaded in parallel, every partition
+   * loader inserts its index blocks directly into the (concurrent) index map
+   * @param snapshotDir snapshot directory
+   * @param manifestFile manifest file
+   * @return store or null
+   */
+  private static BigSortedMap loadStoreFromPartitions(String snapshotDir, File manifestFile) {
+    BigSortedMap map = null;
+    long timestamp;
+    int deltas;
+    byte[][] keys;
+    String[] names;
+    long walSequence;
+    log.debug("Started loading store data from: {} at {}", manifestFile.getAbsolutePath(),
+      LocalDateTime.now());
+    try (RandomAccessFile raf = new RandomAccessFile(manifestFile, "r")) {
+      FileChannel fc = raf.getChannel();
+      // Load store meta data
+      map = loadStoreMeta(fc);
+      ByteBuffer buf = ByteBuffer.allocate((int) (fc.size() - fc.position()));
+      while (buf.hasRemaining()) {
+        if (fc.read(buf) < 0) {
+          throw new IOException("Unexpected End-Of-Stream");
+        }
+      }
+      buf.flip();
+      timestamp = buf.getLong();
+      deltas = buf.getInt();
+      int numPartitions = buf.getInt();
+      keys = new byte[numPartitions][];
+      names = new String[numPartitions];
+      for (int i = 0; i < numPartitions; i++) {
+        keys[i] = new byte[buf.getShort()];
+        buf.get(keys[i]);
+        byte[] bytes = new byte[buf.getShort()];
+        buf.get(bytes);
+        names[i] = new String(bytes);
+      }
+      // Manifest of older versions does not have it
+      walSequence = buf.remaining() >= Utils.SIZEOF_LONG ? buf.getLong() : 0;
+    } catch (IOException | RuntimeException e) {
+      log.error("Loading store failed. Corrupted (?) manifest file: {}",
+        manifestFile.getAbsolutePath());
+      log.error("StackTrace: ", e);
+      return null;
+    }
+
+    final BigSortedMap store = map;
+    List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(Math.min(snapshotThreads, names.length));
+    for (int i = 0; i < names.length; i++) {
+      File file = new File(snapshotDir, names[i]);
+      boolean first = i == 0;
+      results.add(executor.submit(() -> snapshotLoadMmap && file.length() <= Integer.MAX_VALUE
+          ? mapPartition(store, file, first) : loadPartition(store, file, first)));
+    }
+    executor.shutdown();
+    boolean success = true;
+    for (Future<Boolean> f : results) {
+      try {
+        success &= f.get();
+      } catch (InterruptedException | ExecutionException e) {
+        log.error("StackTrace: ", e);
+        success = false;
+      }
+    }
+    if (!success) {
+      return null;
+    }
+    log.debug("Loaded store from: {} partitions={} at {}", manifestFile.getAbsolutePath(),
+      names.length, LocalDateTime.now());
+    map.setLastSnapshotTimestamp(timestamp);
+    map.setSnapshotDir(snapshotDir);
+    // Loaded snapshot is the base for the next incremental snapshot
+    map.snapshotEpoch = map.modEpoch;
+    map.snapshotKeys = keys;
+    map.snapshotFiles = names;
+    map.snapshotDeltas = deltas;
+    map.walSequence = walSequence;
+    map.adjustCountersAfterLoad();
+    map.printMemoryAllocationStats();
+    return map;
+  }
+
+  /**
+   * Loads snapshot partition
+   * @param map store
+   * @param file partition file
+   * @param first is it the first partition
+   * @return true on success, false - otherwise
+   */
+  private static boolean loadPartition(BigSortedMap map, File file, boolean first) {
+    ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      FileChannel fc = raf.getChannel();
+      // Read first chunk from file
+      fc.read(buf);
+      buf.flip();
+      DataBlock block = null;
+      do {
+        IndexBlock ib = new IndexBlock(map, maxIndexBlockSize);
+        if (first) {
+          ib.isFirst = true;
+          first = false;
+        }
+        if (block != null) {
+          ib.insertBlock(block);
+          block.compressDataBlockIfNeeded();
+        }
+        block = ib.loadData(fc, buf);
+        if (!ib.isEmpty()) {
+          map.map.put(ib, ib);
+        }
+      } while (block != null);
+      return true;
+    } catch (IOException e) {
+      log.error("Loading store failed. Corrupted (?) snapshot file: {}", file.getAbsolutePath());
+      log.error("StackTrace: ", e);
+      return false;
+    }
+  }
+
+  /**
+   * Maps snapshot partition into memory. Data blocks which do not require de-serialization are
+   * not loaded, they are accessed directly in a (private) file mapping
+   * @param map store
+   * @param file partition file
+   * @param first is it the first partition
+   * @return true on success, false - otherwise
+   */
+  private static boolean mapPartition(BigSortedMap map, File file, boolean first) {
+    // Private (copy-on-write) mapping requires read-write channel, but file is never modified
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      FileChannel fc = raf.getChannel();
+      MappedByteBuffer buf = fc.map(FileChannel.MapMode.PRIVATE, 0, fc.size());
+      map.mappedFiles.add(buf);
+      // Loading of de-serialized blocks must not read the channel
+      fc.position(fc.size());
+      DataBlock block = null;
+      do {
+        IndexBlock ib = new IndexBlock(map, maxIndexBlockSize);
+        if (first) {
+          ib.isFirst = true;
+          first = false;
+        }
+        if (block != null) {
+          ib.insertBlock(block);
+          block.compressDataBlockIfNeeded();
+        }
+        block = ib.mapData(fc, buf);
+        if (!ib.isEmpty()) {
+          map.map.put(ib, ib);
+        }
+      } while (block != null);
+      return true;
+    } catch (IOException e) {
+      log.error("Loading store failed. Corrupted (?) snapshot file: {}", file.getAbsolutePath());
+      log.error("StackTrace: ", e);
+      return false;
+    }
   }
 
   // READ DATA
@@ -2227,7 +3724,12 @@ public class BigSortedMap {
       return new BigSortedMap();
     }
 
-    File snapshotFile = new File(dir, "snapshot.data");
+    File manifestFile = new File(dir, SNAPSHOT_MANIFEST);
+    if (manifestFile.exists()) {
+      return loadStoreFromPartitions(snapshotDir, manifestFile);
+    }
+
+    File snapshotFile = new File(dir, SNAPSHOT_FILE);
     if (!snapshotFile.exists()) {
       log.error("Snapshot file does not exists: {}", snapshotFile.getAbsolutePath());
       BigSortedMap bsm = new BigSortedMap();
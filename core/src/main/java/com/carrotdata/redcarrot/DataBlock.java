@@ -15,6 +15,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
@@ -25,6 +26,7 @@ import com.carrotdata.redcarrot.compression.Codec;
 import com.carrotdata.redcarrot.compression.CodecFactory;
 import com.carrotdata.redcarrot.redis.RedisConf;
 import com.carrotdata.redcarrot.util.Bytes;
+import com.carrotdata.redcarrot.util.MemoryAllocator;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 
@@ -48,6 +50,11 @@ import com.carrotdata.redcarrot.util.Utils;
  * <TYPE> - DEPRECATED <br>
  * <VALUE> <br>
  * For ordering we use <KEY><TYPE>
+ * <p>
+ * Sparse record offset table: offsets (2 bytes) of every OFFSETS_STRIDE-th record are kept at the
+ * end of a block's free space, lookups binary search the table and then scan at most
+ * OFFSETS_STRIDE records. The table is built on a read access and is invalidated by any change of
+ * block's layout. It is never saved in a snapshot, therefore the block format is not changed.
  */
 // @SuppressWarnings("unused")
 public final class DataBlock {
@@ -380,10 +387,38 @@ public final class DataBlock {
   // Minimum data block size for compression
   public static final int MIN_COMP_SIZE = 512;
 
+  // Every N-th record offset is kept in a sparse offset table
+  public static final int OFFSETS_STRIDE = 8;
+
+  // Minimum number of records in a block to build offset table
+  public static final int OFFSETS_MIN_RECORDS = 2 * OFFSETS_STRIDE;
+
+  // Size of an offset table entry
+  static final int OFFSET_SIZE = 2;
+
+  static boolean offsetsEnabled = true;
+
   static {
     RedisConf conf = RedisConf.getInstance();
     MAX_BLOCK_SIZE = (short) conf.getMaxDataBlockSize();
     MAX_EMBEDDED_KV_SIZE = (short) conf.getMaxEmbeddedKVSize();
+    offsetsEnabled = conf.isDataBlockOffsetsEnabled();
+  }
+
+  /**
+   * Enables/disables sparse record offset tables (for testing)
+   * @param b true - enable, false - disable
+   */
+  public static void setOffsetsEnabled(boolean b) {
+    offsetsEnabled = b;
+  }
+
+  /**
+   * Are sparse record offset tables enabled
+   * @return true - yes, false - otherwise
+   */
+  public static boolean isOffsetsEnabled() {
+    return offsetsEnabled;
   }
 
   /**
@@ -431,10 +466,26 @@ public final class DataBlock {
   static int[] BLOCK_SIZES = new int[] { 256, 320, 384, 448, 512, 768, 1024, 1280, 1536, 1792, 2048,
       2304, 2560, 2816, 3072, 3328, 3584, 3840, 4096};
 
+  /*
+   * Memory allocator of data and index blocks, size classes are block sizes
+   */
+  static MemoryAllocator allocator;
+
   static {
     RedisConf conf = RedisConf.getInstance();
     int[] sizes = conf.getDataBlockSizes();
     if (sizes != null) BLOCK_SIZES = sizes;
+    // Index blocks are allocated with a maximum index block size
+    int[] classes = Arrays.copyOf(BLOCK_SIZES, BLOCK_SIZES.length + 1);
+    classes[BLOCK_SIZES.length] = IndexBlock.MAX_BLOCK_SIZE;
+    try {
+      allocator = MemoryAllocator.create(conf.getMemoryAllocator(), classes,
+        conf.getMemorySlabSize(), conf.getMemorySlabCacheSize());
+    } catch (IllegalArgumentException e) {
+      log.error("Invalid memory allocator configuration, using '{}': {}", MemoryAllocator.UNSAFE,
+        e.getMessage());
+      allocator = new MemoryAllocator.UnsafeAllocator();
+    }
   }
 
   /*
@@ -537,8 +588,9 @@ public final class DataBlock {
 
   /*
    * Auxiliary byte: is used to keep compression codec (lower 3 bits, 0 means no compression, total
-   * up to 7 codecs can be used), Bit 4: 1 - block is compressed, 0 - decompressed Four upper bits
-   * are reserved for future use is used to keep long K-V presence
+   * up to 7 codecs can be used), Bit 4: 1 - block is compressed, 0 - decompressed, Bit 5: 1 - block
+   * data resides in a memory mapped snapshot file, Bit 6: 1 - block has a valid record offset
+   * table. Two upper bits are reserved for future use
    */
   static final int auxOffset = 15;
 
@@ -546,6 +598,10 @@ public final class DataBlock {
 
   static final int COMPRESSED_MASK = 8; // 000001000;
 
+  static final int MAPPED_MASK = 16; // 000010000;
+
+  static final int OFFSETS_MASK = 32; // 000100000;
+
   /*
    * Number of records with external allocations (key, value or both) This is used to optimize
    * snapshot of a data block
@@ -557,6 +613,11 @@ public final class DataBlock {
    */
   static final int numCustomAllocsOffset = 18;
 
+  /*
+   * Access info for eviction policies: LRU clock or LFU counter (4 bytes), see EvictionPolicy
+   */
+  static final int accessOffset = 20;
+
   /*
    * Block's address (current)
    */
@@ -614,6 +675,16 @@ public final class DataBlock {
    */
   short codecCompressData = -1;
 
+  /*
+   * Used when data block is being mapped from a snapshot file
+   */
+  boolean mapped;
+
+  /*
+   * Access info, used until block is registered in an index block
+   */
+  int access;
+
   /*
    * Is it thread safe?
    */
@@ -663,8 +734,18 @@ public final class DataBlock {
    * @param size of a block
    */
   DataBlock(IndexBlock indexBlock, int size) {
+    this(indexBlock, allocator.malloc(size), size);
+  }
+
+  /**
+   * Create new block with a given address and size. Memory mapped blocks are accounted as allocated
+   * ones, because they are copied into allocated memory on a first update
+   * @param ptr block address
+   * @param size of a block
+   */
+  DataBlock(IndexBlock indexBlock, long ptr, int size) {
     this.indexBlock = indexBlock;
-    this.dataPtr = UnsafeAccess.malloc(size);
+    this.dataPtr = ptr;
     if (dataPtr == 0) {
       throw new RuntimeException("Failed to allocate " + size + " bytes");
     }
@@ -677,6 +758,7 @@ public final class DataBlock {
       map.incrInstanceBlockDataSize(size);
     }
     this.blockSize = (short) size;
+    this.access = BigSortedMap.getEvictionPolicy().initialAccess();
   }
 
   /** Constructor w/o memory allocation and maximum size */
@@ -715,6 +797,7 @@ public final class DataBlock {
     this.codecCompressData = -1;
     this.numExtAllocs = 0;
     this.numCustomAllocs = 0;
+    this.mapped = false;
   }
 
   protected boolean isMutationOp() {
@@ -789,16 +872,16 @@ public final class DataBlock {
         }
         if (wasCompressed && newBlockSize != blockSize) {
           blockSize = newBlockSize;
-          ptr = UnsafeAccess.malloc(blockSize);
-          UnsafeAccess.free(this.compressedDataPtr);
+          ptr = allocator.malloc(blockSize);
+          allocator.free(this.compressedDataPtr);
         } else if (!wasCompressed) {
           blockSize = newBlockSize;
           // Compress previously uncompressed block
-          ptr = UnsafeAccess.malloc(blockSize);
+          ptr = allocator.malloc(blockSize);
           // Deallocate dataPtr
           if (this.dataPtr != decompBuffer1.get() && this.dataPtr != decompBuffer2.get()) {
 
-            UnsafeAccess.free(this.dataPtr);
+            allocator.free(this.dataPtr);
           }
         }
         setCompressionCodec(codec);
@@ -813,9 +896,9 @@ public final class DataBlock {
         short newBlockSize = (short) getMinSizeGreaterOrEqualsThan(MAX_BLOCK_SIZE, size);
         if ((this.dataPtr == decompBuffer1.get() || this.dataPtr == decompBuffer2.get())
             && this.compressedDataPtr > 0) {
-          ptr = UnsafeAccess.malloc(newBlockSize);
+          ptr = allocator.malloc(newBlockSize);
           UnsafeAccess.copy(this.dataPtr, ptr, size);
-          UnsafeAccess.free(this.compressedDataPtr);
+          allocator.free(this.compressedDataPtr);
           // Update memory stats
           BigSortedMap map = indexBlock.getMap();
           if (map != null) {
@@ -871,6 +954,11 @@ public final class DataBlock {
     }
     setNumberOfExtAllocsRecords(numExtAllocs);
     setNumberOfCustomAllocsRecords(numCustomAllocs);
+    setMapped(mapped);
+    if (mapped) {
+      indexBlock.setMapped(true);
+    }
+    setAccess(access);
   }
 
   public static AllocType getRecordAllocationType(long ptr) {
@@ -1026,6 +1114,7 @@ public final class DataBlock {
    */
   final void setDataPtr(long ptr) {
     if (!detached()) {
+      invalidateOffsets();
       UnsafeAccess.putLong(this.indexPtr, ptr);
       UnsafeAccess.storeFence();
     } else {
@@ -1055,6 +1144,7 @@ public final class DataBlock {
    */
   final void setBlockSize(short v) {
     if (!detached()) {
+      invalidateOffsets();
       UnsafeAccess.putShort(this.indexPtr + blockSizeOffset, v);
       UnsafeAccess.storeFence();
     } else {
@@ -1087,6 +1177,7 @@ public final class DataBlock {
    */
   final void setDataInBlockSize(short v) {
     if (!detached()) {
+      invalidateOffsets();
       UnsafeAccess.putShort(indexPtr + dataSizeOffset, v);
       UnsafeAccess.storeFence();
     } else {
@@ -1126,6 +1217,7 @@ public final class DataBlock {
    */
   final void setNumberOfRecords(short v) {
     if (!detached()) {
+      invalidateOffsets();
       UnsafeAccess.putShort(indexPtr + numRecordsOffset, v);
       UnsafeAccess.storeFence();
     } else {
@@ -1140,6 +1232,21 @@ public final class DataBlock {
     setNumberOfRecords((short) (v + val));
   }
 
+  /**
+   * Increment map number of records with the same first key byte
+   * @param keyPtr key address
+   * @param keyLength key length
+   * @param val increment value
+   */
+  private void incrRecordCount(long keyPtr, int keyLength, int val) {
+    if (!isThreadSafe()) {
+      BigSortedMap map = this.indexBlock.getMap();
+      if (map != null) {
+        map.incrInstanceRecordCount(keyPtr, keyLength, val);
+      }
+    }
+  }
+
   /**
    * Get number of records with external allocations
    * @return number
@@ -1320,6 +1427,169 @@ public final class DataBlock {
     UnsafeAccess.storeFence();
   }
 
+  /**
+   * Get access info (eviction policy specific)
+   * @return access info
+   */
+  final int getAccess() {
+    if (!detached()) {
+      return UnsafeAccess.toInt(indexPtr + accessOffset);
+    } else {
+      return this.access;
+    }
+  }
+
+  /**
+   * Set access info
+   * @param v access info
+   */
+  final void setAccess(int v) {
+    if (!detached()) {
+      UnsafeAccess.putInt(indexPtr + accessOffset, v);
+    } else {
+      this.access = v;
+    }
+  }
+
+  /** Records block access, if eviction policy needs it */
+  final void access() {
+    EvictionPolicy policy = BigSortedMap.getEvictionPolicy();
+    if (policy.tracksAccess()) {
+      setAccess(policy.access(getAccess()));
+    }
+  }
+
+  /**
+   * Is block data in a memory mapped snapshot file
+   * @return true - mapped, false - allocated
+   */
+  final boolean isMapped() {
+    if (!detached()) {
+      return (UnsafeAccess.toByte(indexPtr + auxOffset) & MAPPED_MASK) != 0;
+    } else {
+      return this.mapped;
+    }
+  }
+
+  /**
+   * Set mapped
+   * @param b mapped
+   */
+  final void setMapped(boolean b) {
+    if (!detached()) {
+      int v = UnsafeAccess.toByte(indexPtr + auxOffset);
+      if (b) {
+        v |= MAPPED_MASK;
+      } else {
+        v &= ~MAPPED_MASK;
+      }
+      UnsafeAccess.putByte(indexPtr + auxOffset, (byte) v);
+      UnsafeAccess.storeFence();
+    } else {
+      this.mapped = b;
+    }
+  }
+
+  /**
+   * Copies data of a mapped block into allocated memory. Mapped data is never modified or
+   * released, block must be copied before the first update
+   */
+  final void copyOnWrite() {
+    if (!isMapped()) {
+      return;
+    }
+    int blockSize = getBlockSize();
+    long ptr = allocator.malloc(blockSize);
+    if (ptr == 0) {
+      throw new RuntimeException("Failed to allocate " + blockSize + " bytes");
+    }
+    // Memory stats are updated when block is mapped
+    UnsafeAccess.copy(getDataPtr(), ptr, getDataInBlockSize());
+    this.dataPtr = ptr;
+    setDataPtr(ptr);
+    setMapped(false);
+  }
+
+  /**
+   * Has block a valid record offset table
+   * @return true - yes, false - otherwise
+   */
+  final boolean hasOffsets() {
+    return !detached() && (UnsafeAccess.toByte(indexPtr + auxOffset) & OFFSETS_MASK) != 0;
+  }
+
+  /** Invalidates record offset table, must be called on any change of block's layout */
+  private void invalidateOffsets() {
+    int v = UnsafeAccess.toByte(indexPtr + auxOffset);
+    if ((v & OFFSETS_MASK) != 0) {
+      UnsafeAccess.putByte(indexPtr + auxOffset, (byte) (v & ~OFFSETS_MASK));
+    }
+  }
+
+  /**
+   * Builds sparse record offset table in a free space at the end of a block. Compressed and memory
+   * mapped blocks do not have offset tables
+   * @param numRecords number of records
+   * @return true - success, false - table does not fit the block or block is not eligible
+   */
+  private boolean buildOffsets(int numRecords) {
+    if (detached() || isCompressionEnabled() || isMapped()) {
+      return false;
+    }
+    int num = (numRecords - 1) / OFFSETS_STRIDE;
+    int blockSize = getBlockSize();
+    if (getDataInBlockSize() + num * OFFSET_SIZE > blockSize) {
+      return false;
+    }
+    long table = dataPtr + blockSize - num * OFFSET_SIZE;
+    long ptr = dataPtr;
+    for (int i = 1, j = 0; j < num; i++) {
+      ptr += blockKeyLength(ptr) + blockValueLength(ptr) + RECORD_TOTAL_OVERHEAD;
+      if (i % OFFSETS_STRIDE == 0) {
+        UnsafeAccess.putShort(table + j * OFFSET_SIZE, (short) (ptr - dataPtr));
+        j++;
+      }
+    }
+    UnsafeAccess.storeFence();
+    int v = UnsafeAccess.toByte(indexPtr + auxOffset);
+    UnsafeAccess.putByte(indexPtr + auxOffset, (byte) (v | OFFSETS_MASK));
+    return true;
+  }
+
+  /**
+   * Get address of a record to start a linear search from. Binary searches record offset table,
+   * which is built on a first read access
+   * @param keyPtr key address
+   * @param keyLength key length
+   * @param floor true - start record's key is less or equals to a given key, false - less than
+   * @return start record address
+   */
+  private long searchStart(long keyPtr, int keyLength, boolean floor) {
+    int numRecords = getNumberOfRecords();
+    if (!offsetsEnabled || numRecords < OFFSETS_MIN_RECORDS) {
+      return dataPtr;
+    }
+    if (!hasOffsets() && (isMutationOp() || !buildOffsets(numRecords))) {
+      return dataPtr;
+    }
+    int num = (numRecords - 1) / OFFSETS_STRIDE;
+    long table = dataPtr + getBlockSize() - num * OFFSET_SIZE;
+    long start = dataPtr;
+    int low = 0, high = num - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long ptr = dataPtr + (UnsafeAccess.toShort(table + mid * OFFSET_SIZE) & 0xffff);
+      int res = Utils.compareTo(keyAddress(ptr), keyLength(ptr), keyPtr, keyLength);
+      if (res < 0 || (res == 0 && floor)) {
+        start = ptr;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return start;
+  }
+
   // TODO: not used - eligible for removal
   final void setAllCompressData(byte v) {
     UnsafeAccess.putByte(indexPtr + auxOffset, v);
@@ -1349,7 +1619,7 @@ public final class DataBlock {
       return true;
     }
 
-    long newPtr = UnsafeAccess.malloc(nextSize);
+    long newPtr = allocator.malloc(nextSize);
     if (newPtr <= 0) {
       return false;
     }
@@ -1365,7 +1635,7 @@ public final class DataBlock {
     // Do copy
     UnsafeAccess.copy(dataPtr, newPtr, dataSize);
     // DO not free local thread buffer
-    UnsafeAccess.free(dataPtr);
+    allocator.free(dataPtr);
     this.dataPtr = newPtr;
     setDataPtr(newPtr);
     setBlockSize((short) nextSize);
@@ -1396,7 +1666,7 @@ public final class DataBlock {
       return true;
     }
 
-    long newPtr = UnsafeAccess.malloc(nextSize);
+    long newPtr = allocator.malloc(nextSize);
     if (newPtr <= 0) {
       return false;
     }
@@ -1411,7 +1681,7 @@ public final class DataBlock {
     }
     // Do copy
     UnsafeAccess.copy(dataPtr, newPtr, dataSize);
-    UnsafeAccess.free(dataPtr);
+    allocator.free(dataPtr);
     this.dataPtr = newPtr;
     setDataPtr(newPtr);
     setBlockSize((short) nextSize);
@@ -1794,6 +2064,7 @@ public final class DataBlock {
         setRecordType(addr, Op.PUT);
 
         incrNumberOfRecords((short) 1);
+        incrRecordCount(keyPtr, keyLength, 1);
         incrDataSize((short) newRecLen);
         // Check custom allocations
         if (isCustomKey(keyPtr, keyLength)) {
@@ -2014,6 +2285,7 @@ public final class DataBlock {
         setRecordType(addr, Op.PUT);
 
         incrNumberOfRecords((short) 1);
+        incrRecordCount(keyPtr, keyLength, 1);
         incrDataSize((short) newRecLength);
         // Increment external allocation number
         incrNumberOfExtAllocsRecords((short) 1);
@@ -2217,7 +2489,7 @@ public final class DataBlock {
    * @return address to insert (or update)
    */
   final long search(long keyPtr, int keyLength, long version, boolean forPut) {
-    long ptr = dataPtr;
+    long ptr = searchStart(keyPtr, keyLength, false);
     long stopAddress = 0;
     int dataSize = getDataInBlockSize();
     stopAddress = dataPtr + dataSize;
@@ -2251,7 +2523,7 @@ public final class DataBlock {
    * @return address to insert (or update)
    */
   final long searchFloor(long keyPtr, int keyLength, long version) {
-    long ptr = dataPtr;
+    long ptr = searchStart(keyPtr, keyLength, true);
     long stopAddress = 0;
     int dataSize = getDataInBlockSize();
     long prevPtr = NOT_FOUND;
@@ -2337,10 +2609,13 @@ public final class DataBlock {
       if (Utils.compareTo(kPtr, keylen, endKeyPtr, endKeySize) >= 0) {
         break;
       }
-      int vallen = valueLength(ptr);
+      // Records with external key and/or value occupy less space in a block
+      int blockKeylen = blockKeyLength(ptr);
+      int blockVallen = blockValueLength(ptr);
+      incrRecordCount(kPtr, keylen, -1);
       deallocateIfExternalRecord(ptr);
       deleted++;
-      ptr += keylen + vallen + RECORD_TOTAL_OVERHEAD;
+      ptr += blockKeylen + blockVallen + RECORD_TOTAL_OVERHEAD;
     }
     if (deleted > 0) {
       deletedSize = ptr - startRange;
@@ -2528,6 +2803,7 @@ public final class DataBlock {
           UnsafeAccess.copy(addr + moveDist, addr, dataPtr + dataSize - addr - moveDist);
           incrDataSize((short) -moveDist);
           incrNumberOfRecords((short) -1);
+          incrRecordCount(keyPtr, keyLength, -1);
           // Update data size
           dataSize = getDataInBlockSize();
           result = OpResult.OK;
@@ -2699,6 +2975,48 @@ public final class DataBlock {
     }
   }
 
+  /**
+   * Get minimum expiration time of block's records. Block must be decompressed
+   * @return minimum expiration time, 0 - block has no records with expiration time
+   */
+  final long getMinExpire() {
+    long min = 0;
+    for (long ptr = first(); ptr != NOT_FOUND; ptr = next(ptr)) {
+      long expire = getRecordExpire(ptr);
+      if (expire > 0 && (min == 0 || expire < min) && getRecordType(ptr) == Op.PUT) {
+        min = expire;
+      }
+    }
+    return min;
+  }
+
+  /**
+   * Copies keys of all block's records into a buffer in the format [short size][key]... Block must
+   * be decompressed
+   * @param buf buffer address
+   * @param bufSize buffer size
+   * @param volatileOnly copy keys of records with expiration time only
+   * @return number of keys copied, keys which do not fit the buffer are skipped
+   */
+  final int copyKeys(long buf, int bufSize, boolean volatileOnly) {
+    int count = 0;
+    long limit = buf + bufSize;
+    for (long ptr = first(); ptr != NOT_FOUND; ptr = next(ptr)) {
+      int keyLength = keyLength(ptr);
+      if (getRecordType(ptr) != Op.PUT || buf + keyLength + KEY_SIZE_LENGTH > limit) {
+        continue;
+      }
+      if (volatileOnly && getRecordExpire(ptr) <= 0) {
+        continue;
+      }
+      UnsafeAccess.putShort(buf, (short) keyLength);
+      UnsafeAccess.copy(keyAddress(ptr), buf + KEY_SIZE_LENGTH, keyLength);
+      buf += keyLength + KEY_SIZE_LENGTH;
+      count++;
+    }
+    return count;
+  }
+
   /**
    * Previous record address or NOT_FOUND
    * @param ptr current record address
@@ -2993,6 +3311,7 @@ public final class DataBlock {
       right.numRecords = (short) (oldNumRecords - num);
       right.dataInBlockSize = (short) rightDataSize;
       right.seqNumberSplitOrMerge = 0;
+      right.access = getAccess();
 
       // TODO: compression
       // right.compressed = false;
@@ -3180,6 +3499,7 @@ public final class DataBlock {
     int count = 0;
     int blockSize = getBlockSize();
     int numRecords = getNumberOfRecords();
+    boolean mapped = isMapped();
     BigSortedMap map = this.indexBlock.getMap();
 
     decompressDataBlockIfNeeded();
@@ -3223,7 +3543,9 @@ public final class DataBlock {
     valid = false;
 
     if (this.compressedDataPtr > 0) {
-      UnsafeAccess.free(this.compressedDataPtr);
+      if (!mapped) {
+        allocator.free(this.compressedDataPtr);
+      }
       if (map == null) {
         BigSortedMap.incrGlobalCompressedDataSize(-this.compDataSize);
       } else {
@@ -3231,7 +3553,9 @@ public final class DataBlock {
       }
       blockSize = this.compDataBlockSize;
     } else if (dataPtr != decompBuffer1.get() && dataPtr != decompBuffer2.get()) {
-      UnsafeAccess.free(dataPtr);
+      if (!mapped) {
+        allocator.free(dataPtr);
+      }
     } else {
       return;
     }
@@ -3402,7 +3726,7 @@ public final class DataBlock {
   private void saveMeta(ByteBuffer buf) {
 
     // Compression data
-    buf.put(getAllCompressData());
+    buf.put((byte) (getAllCompressData() & ~(MAPPED_MASK | OFFSETS_MASK)));
     buf.putShort(getNumberOfRecords());
     buf.putShort(getDataInBlockSize());
     buf.putShort(getNumberOfExtAllocsRecords());
@@ -3508,6 +3832,51 @@ public final class DataBlock {
     return block;
   }
 
+  /**
+   * Maps data block from a memory mapped snapshot file: block data stays in the file until the
+   * first update. Blocks which require de-serialization are loaded into allocated memory
+   * @param parent parent index block
+   * @param fc file channel (positioned at the end of a file)
+   * @param buf memory mapped file
+   * @return data block or null (end of stream)
+   * @throws IOException
+   */
+  static DataBlock mapData(IndexBlock parent, FileChannel fc, ByteBuffer buf) throws IOException {
+    int meta_block_size = 10;
+    int pos = buf.position();
+    if (buf.remaining() < meta_block_size) {
+      if (buf.remaining() == Utils.SIZEOF_LONG /* last 8 bytes are snapshot id */) {
+        return null;
+      }
+      throw new IOException("Unexpected End-Of-Stream");
+    }
+    byte type = buf.get(pos);
+    if (type == SERDE) {
+      return loadData(parent, fc, buf);
+    }
+    byte codecCompData = buf.get(pos + 1);
+    short numRecords = buf.getShort(pos + 2);
+    short dataSize = buf.getShort(pos + 4);
+    short numExtAllocs = buf.getShort(pos + 6);
+    short numCustomAllocs = buf.getShort(pos + 8);
+
+    if (buf.remaining() < meta_block_size + dataSize) {
+      throw new IOException("Unexpected End-Of-Stream");
+    }
+    int blockSize = getMinSizeGreaterOrEqualsThan(MAX_BLOCK_SIZE, dataSize);
+    long ptr = UnsafeAccess.address(buf) + pos + meta_block_size;
+
+    DataBlock block = new DataBlock(parent, ptr, blockSize);
+    block.numRecords = numRecords;
+    block.dataInBlockSize = dataSize;
+    block.numExtAllocs = numExtAllocs;
+    block.numCustomAllocs = numCustomAllocs;
+    block.codecCompressData = codecCompData;
+    block.mapped = true;
+    buf.position(pos + meta_block_size + dataSize);
+    return block;
+  }
+
   private static void deserialize(long ptr, FileChannel fc, ByteBuffer buf) throws IOException {
     int total = serdes.size();
     for (int i = 0; i < total; i++) {
@@ -136,6 +136,28 @@ public final class DataBlockScanner extends Scanner {
   public static DataBlockScanner getScanner(DataBlock b, long startRowPtr, int startRowLength,
       long stopRowPtr, int stopRowLength, long snapshotId, DataBlockScanner bs)
       throws RetryOperationException {
+    return getScanner(b, startRowPtr, startRowLength, stopRowPtr, stopRowLength, snapshotId, bs,
+      0);
+  }
+
+  /**
+   * Call this method when multiple instances are expected inside one thread operation and data
+   * blocks can be compressed. Block data is copied into a scanner's private buffer, therefore the
+   * block can be released (compressed) right after this call
+   * @param b data block - decompressed
+   * @param startRowPtr start row address
+   * @param startRowLength start row length
+   * @param stopRowPtr stop row address
+   * @param stopRowLength stop row length
+   * @param snapshotId snapshot id
+   * @param scanner scanner to reuse
+   * @param copyBuffer buffer to copy block data to (0 - do not copy)
+   * @return new instance of a scanner
+   * @throws RetryOperationException
+   */
+  public static DataBlockScanner getScanner(DataBlock b, long startRowPtr, int startRowLength,
+      long stopRowPtr, int stopRowLength, long snapshotId, DataBlockScanner bs, long copyBuffer)
+      throws RetryOperationException {
 
     if (bs == null) {
       bs = new DataBlockScanner();
@@ -149,7 +171,7 @@ public final class DataBlockScanner extends Scanner {
         return null;
       }
     }
-    bs.setBlock(b);
+    bs.setBlock(b, copyBuffer);
     bs.setSnapshotId(snapshotId);
     bs.setStartRow(startRowPtr, startRowLength);
     // Now check this.curPtr against stopRow
@@ -287,11 +309,28 @@ public final class DataBlockScanner extends Scanner {
    * @throws RetryOperationException
    */
   private void setBlock(DataBlock b) throws RetryOperationException {
+    setBlock(b, 0);
+  }
+
+  /**
+   * Set scanner with new block
+   * @param b block
+   * @param copyBuffer buffer to copy block data to, 0 - scan block data in place
+   * @throws RetryOperationException
+   */
+  private void setBlock(DataBlock b, long copyBuffer) throws RetryOperationException {
     b.decompressDataBlockIfNeeded();
     this.blockSize = BigSortedMap.maxBlockSize;
     this.dataSize = b.getDataInBlockSize();
     this.numRecords = b.getNumberOfRecords();
-    this.ptr = b.getAddress();
+    if (copyBuffer != 0) {
+      // Decompressed data lives in a thread local buffer, which is reused by any other scanner or
+      // operation of this thread
+      UnsafeAccess.copy(b.getAddress(), copyBuffer, this.dataSize);
+      this.ptr = copyBuffer;
+    } else {
+      this.ptr = b.getAddress();
+    }
     this.curPtr = this.ptr;
     this.isFirst = b.isFirstBlock();
   }
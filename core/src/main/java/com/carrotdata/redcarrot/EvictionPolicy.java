@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Max memory eviction policies. Eviction works on a data block granularity: every data block keeps
+ * 4 bytes of access info in its index record, which is either LRU clock (milliseconds) or LFU
+ * logarithmic counter (lower 8 bits) with the last decrement time in minutes (upper 16 bits).
+ * Eviction candidates are sampled, the one with the lowest score is evicted.
+ */
+public enum EvictionPolicy {
+  /* Return error when memory limit is reached */
+  NOEVICTION,
+  /* Evict least recently used */
+  ALLKEYS_LRU,
+  /* Evict least frequently used */
+  ALLKEYS_LFU,
+  /* Evict keys with the nearest expiration time */
+  VOLATILE_TTL,
+  /* Evict randomly */
+  ALLKEYS_RANDOM;
+
+  /*
+   * Start of the LRU clock (2024-01-01)
+   */
+  private static final long CLOCK_START = 1704067200000L;
+
+  /*
+   * Initial value of LFU counter, gives new blocks a chance to accumulate accesses
+   */
+  static final int LFU_INIT_VAL = 5;
+
+  /*
+   * LFU counter logarithmic factor
+   */
+  static final int LFU_LOG_FACTOR = 10;
+
+  /*
+   * LFU counter decay time in minutes
+   */
+  static final int LFU_DECAY_TIME = 1;
+
+  /**
+   * Get policy by name ('allkeys-lru', 'volatile-ttl' etc)
+   * @param s policy name
+   * @return policy
+   */
+  public static EvictionPolicy fromString(String s) {
+    return valueOf(s.trim().toUpperCase().replace('-', '_'));
+  }
+
+  /**
+   * Does policy track data block access
+   * @return true - yes, false - otherwise
+   */
+  public final boolean tracksAccess() {
+    return this == ALLKEYS_LRU || this == ALLKEYS_LFU;
+  }
+
+  /**
+   * Access info of a new data block
+   * @return access info
+   */
+  final int initialAccess() {
+    switch (this) {
+      case ALLKEYS_LRU:
+        return clock();
+      case ALLKEYS_LFU:
+        return minutes() << 8 | LFU_INIT_VAL;
+      default:
+        return 0;
+    }
+  }
+
+  /**
+   * Updates access info on a data block access
+   * @param access current access info
+   * @return new access info
+   */
+  final int access(int access) {
+    switch (this) {
+      case ALLKEYS_LRU:
+        return clock();
+      case ALLKEYS_LFU:
+        int counter = lfuDecrement(access);
+        return minutes() << 8 | lfuIncrement(counter);
+      default:
+        return access;
+    }
+  }
+
+  /**
+   * Eviction score of a data block. Block with a lowest score is evicted first
+   * @param access access info
+   * @param minExpire minimum expiration time of block's records (0 - no records with expiration)
+   * @return score, Long.MAX_VALUE - block is not a candidate for eviction
+   */
+  final long score(int access, long minExpire) {
+    switch (this) {
+      case ALLKEYS_LRU:
+        // The longer idle time - the lower score, clock wraps around every ~49 days
+        return -((clock() - access) & 0xffffffffL);
+      case ALLKEYS_LFU:
+        return lfuDecrement(access);
+      case VOLATILE_TTL:
+        return minExpire > 0 ? minExpire : Long.MAX_VALUE;
+      case ALLKEYS_RANDOM:
+        return ThreadLocalRandom.current().nextLong(Long.MAX_VALUE);
+      default:
+        return Long.MAX_VALUE;
+    }
+  }
+
+  /**
+   * LRU clock
+   * @return milliseconds since clock start (lower 32 bits)
+   */
+  static int clock() {
+    return (int) (System.currentTimeMillis() - CLOCK_START);
+  }
+
+  /**
+   * LFU decrement time
+   * @return minutes since clock start (16 bits)
+   */
+  static int minutes() {
+    return (int) ((System.currentTimeMillis() - CLOCK_START) / 60000) & 0xffff;
+  }
+
+  /**
+   * Decrements LFU counter by a number of decay periods elapsed since the last decrement
+   * @param access access info
+   * @return decremented counter
+   */
+  static int lfuDecrement(int access) {
+    int counter = access & 0xff;
+    int time = (access >>> 8) & 0xffff;
+    int now = minutes();
+    int elapsed = now >= time ? now - time : 0xffff - time + now;
+    int periods = elapsed / LFU_DECAY_TIME;
+    return periods > counter ? 0 : counter - periods;
+  }
+
+  /**
+   * Logarithmic increment of LFU counter: the larger the counter, the less likely it is incremented
+   * @param counter counter
+   * @return new counter
+   */
+  static int lfuIncrement(int counter) {
+    if (counter == 255) {
+      return counter;
+    }
+    double r = ThreadLocalRandom.current().nextDouble();
+    double base = Math.max(0, counter - LFU_INIT_VAL);
+    double p = 1.0 / (base * LFU_LOG_FACTOR + 1);
+    return r < p ? counter + 1 : counter;
+  }
+}
@@ -17,6 +17,7 @@ import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -34,7 +35,7 @@ import com.carrotdata.redcarrot.util.Utils;
  * <p>
  * Records are sorted Format: [DATA_BLOCK_STATIC_PREFIX][BLOCK_START_KEY]
  * <p>
- * TODO: reconsider overhead [DATA_BLOCK_STATIC_PREFIX] - 19 bytes
+ * TODO: reconsider overhead [DATA_BLOCK_STATIC_PREFIX] - 24 bytes
  * <p>
  * dataPtr (8 bytes) <br>
  * blockSize (2 bytes) <br>
@@ -44,6 +45,7 @@ import com.carrotdata.redcarrot.util.Utils;
  * aux (1 byte) <br>
  * numExternalAllocs (2 bytes) <br>
  * numCustomAllocs (2 bytes) <br>
+ * access (4 bytes) - eviction policy access info <br>
  * <p>
  * [BLOCK_START_KEY] = [len][key] [len] - 2 bytes [key] - key data [version] - 8 bytes [type] - 1
  * byte (DELETE=0, PUT =1)
@@ -63,13 +65,18 @@ public final class IndexBlock implements Comparable<IndexBlock> {
    */
   public static int MAX_BLOCK_SIZE = 4096;
 
-  public static final int DATA_BLOCK_STATIC_PREFIX = 20;
+  public static final int DATA_BLOCK_STATIC_PREFIX = 24;
   // public final static int VERSION_SIZE = 8;
   public static final int TYPE_SIZE = 1;
   public static final int DATA_BLOCK_STATIC_OVERHEAD =
       DATA_BLOCK_STATIC_PREFIX /* + VERSION_SIZE */ + TYPE_SIZE; // 28
   public static final int INT_SIZE = 4;
   public static final int ADDRESS_SIZE = 8;
+  /*
+   * Earliest expiration time of a block loaded from a snapshot: unknown, block must be checked by
+   * an active expiration
+   */
+  static final long EXPIRE_UNKNOWN = 1;
 
   /*
    * This is heuristic value. Must be configurable. THis threshold defines the maximum possible
@@ -221,13 +228,41 @@ public final class IndexBlock implements Comparable<IndexBlock> {
    */
   volatile long lastUnsafeModTime;
 
+  /*
+   * Modification epoch of the parent map at the last update of this block (0 - not modified since
+   * load). Incremental snapshots rewrite only key ranges with blocks modified since the last one
+   */
+  volatile long modEpoch;
+
+  /*
+   * Epoch of a running (or the last) snapshot, which has saved this block or its image. Blocks
+   * created while a snapshot is running have it on creation, their data is in images of the others
+   */
+  private volatile long snapshotEpoch;
+
+  /*
+   * Block has data blocks in a memory mapped snapshot file
+   */
+  volatile boolean mapped;
+
+  /*
+   * Earliest expiration time of block's records (it is never later than the actual one), 0 - block
+   * has no records with expiration time. Active expiration skips blocks which have no expired records
+   */
+  volatile long minExpire;
+
+  /*
+   * Index block lock, it is used only when the parent map runs in a block-level concurrency mode
+   */
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
   /**
    * Constructor
    * @param initial size
    */
   IndexBlock(BigSortedMap map, int size) {
     this.map = map;
-    this.dataPtr = UnsafeAccess.mallocZeroed(size);
+    this.dataPtr = DataBlock.allocator.mallocZeroed(size);
     if (dataPtr == 0) {
       // TODO: OOM handling
       throw new RuntimeException("Failed to allocate " + size + " bytes");
@@ -243,6 +278,9 @@ public final class IndexBlock implements Comparable<IndexBlock> {
     }
 
     this.blockSize = (short) size;
+    if (map != null) {
+      this.snapshotEpoch = map.getRunningSnapshotEpoch();
+    }
     updateUnsafeModificationTime();
   }
 
@@ -254,6 +292,71 @@ public final class IndexBlock implements Comparable<IndexBlock> {
     return map;
   }
 
+  /** Marks block as modified in a current modification epoch of a parent map */
+  void markDirty() {
+    if (map != null) {
+      modEpoch = map.getModificationEpoch();
+    }
+  }
+
+  /**
+   * Get modification epoch of this block
+   * @return epoch
+   */
+  long getModificationEpoch() {
+    return modEpoch;
+  }
+
+  /**
+   * Get epoch of a snapshot, which has saved this block or its image
+   * @return epoch
+   */
+  long getSnapshotEpoch() {
+    return snapshotEpoch;
+  }
+
+  /**
+   * Set epoch of a snapshot, which has saved this block or its image
+   * @param epoch epoch
+   */
+  void setSnapshotEpoch(long epoch) {
+    this.snapshotEpoch = epoch;
+  }
+
+  /**
+   * Set mapped: block has data blocks in a memory mapped snapshot file
+   * @param b mapped
+   */
+  void setMapped(boolean b) {
+    this.mapped = b;
+  }
+
+  /**
+   * Does this block have data blocks in a memory mapped snapshot file
+   * @return true or false
+   */
+  public boolean isMapped() {
+    return mapped;
+  }
+
+  /**
+   * Copies all mapped data blocks into allocated memory. It is called under exclusive lock before
+   * any update of this block. Running snapshot keeps the image of a block before its first update
+   */
+  void copyOnWrite() {
+    if (map != null && !threadSafe) {
+      map.preserve(this);
+    }
+    if (!mapped) {
+      return;
+    }
+    DataBlock b = null;
+    while ((b = nextBlock(b, false)) != null) {
+      b.copyOnWrite();
+    }
+    mapped = false;
+  }
+
   void updateUnsafeModificationTime() {
     this.lastUnsafeModTime = System.currentTimeMillis();
   }
@@ -452,6 +555,15 @@ public final class IndexBlock implements Comparable<IndexBlock> {
 
   static long count = 0;
 
+  /**
+   * Is locking enabled for this index block. Locks are real only when parent map runs in a
+   * block-level concurrency mode and current thread does not own map's exclusive lock
+   * @return true - yes, false - otherwise
+   */
+  private boolean isLockingEnabled() {
+    return map != null && map.isBlockLockingEnabled() && !map.isWriteLockedByCurrentThread();
+  }
+
   /**
    * Read lock
    * @throws RetryOperationException
@@ -461,26 +573,63 @@ public final class IndexBlock implements Comparable<IndexBlock> {
     readLock(true);
   }
 
+  /**
+   * Read lock. When compression is enabled, read operations modify data block headers (decompress
+   * in place), therefore read lock becomes exclusive.
+   * @param withException throw RetryOperationException if block is not valid anymore. Lock is
+   *          held when exception is thrown, caller must release it
+   * @throws RetryOperationException
+   */
   public void readLock(boolean withException) throws RetryOperationException {
-
+    if (!isLockingEnabled()) {
+      return;
+    }
+    if (BigSortedMap.isCompressionEnabled()) {
+      lock.writeLock().lock();
+    } else {
+      lock.readLock().lock();
+    }
+    if (withException && !valid) {
+      throw new RetryOperationException();
+    }
   }
 
   /** Read unlock */
   public void readUnlock() {
-
+    if (lock.isWriteLockedByCurrentThread()) {
+      // See readLock(boolean) - read lock can be exclusive
+      if (lock.getReadHoldCount() == 0) {
+        lock.writeLock().unlock();
+        return;
+      }
+    }
+    if (lock.getReadHoldCount() > 0) {
+      lock.readLock().unlock();
+    }
   }
 
   /**
    * Write lock
-   * @throws RetryOperationException
+   * @throws RetryOperationException if block is not valid anymore. Lock is held when exception is
+   *           thrown, caller must release it
    * @throws InterruptedException
    */
   public void writeLock() throws RetryOperationException {
+    if (isLockingEnabled()) {
+      lock.writeLock().lock();
+      if (!valid) {
+        throw new RetryOperationException();
+      }
+    }
+    // Block is going to be updated
+    copyOnWrite();
   }
 
   /** Write unlock */
   public void writeUnlock() {
-
+    if (lock.isWriteLockedByCurrentThread()) {
+      lock.writeLock().unlock();
+    }
   }
 
   boolean insertBlock(DataBlock bb) {
@@ -606,7 +755,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
   void expand(int required) {
     short increase = (short) Math.max(required, EXPANSION_SIZE);
     this.blockSize = (short) (this.blockSize + increase);
-    this.dataPtr = UnsafeAccess.realloc(this.dataPtr, this.blockSize);
+    this.dataPtr = DataBlock.allocator.realloc(this.dataPtr, this.blockSize);
     // incrSeqNumberSplitOrMerge();
   }
 
@@ -703,7 +852,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
     UnsafeAccess.putByte(
       indexPtr + DATA_BLOCK_STATIC_PREFIX + KEY_SIZE_LENGTH + keyLength /* + VERSION_SIZE */,
       (byte) type.ordinal());
-    this.firstKey = null;
+    refreshFirstKey();
     this.blockDataSize += toMove;
     if (map == null) {
       // BigSortedMap.incrGlobalDataInIndexBlocksSize(toMove);
@@ -899,6 +1048,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       if (isLessOrEqualsThanMin(endKeyPtr, endKeySize, version)) {
         return 0;
       }
+      markDirty();
       long ptr = this.dataPtr;
       if (!isLessOrEqualsThanMin(startKeyPtr, startKeySize, version)) {
         // Find first key which starts with a given key
@@ -1037,6 +1187,8 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       // TODO: key-value size check
       // TODO: optimize locking: we do double locking: index block and data block
       writeLock();
+      markDirty();
+      updateMinExpire(expire);
 
       if (isEmpty()) {
         // Should be OK if k-v size is below block size
@@ -1047,6 +1199,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       // return false if splitting of index block is required
       dataBlock = block.get();
       dataBlock.set(this, ptr - dataPtr);
+      dataBlock.access();
       // decompress if necessary
       dataBlock.decompressDataBlockIfNeeded();
       boolean res = false;
@@ -1671,6 +1824,9 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       dataBlock.decompressDataBlockIfNeeded();
 
       OpResult result = deleteInBlock(dataBlock, address, keyPtr, keyLength, version);
+      if (result != OpResult.NOT_FOUND) {
+        markDirty();
+      }
       if (result == OpResult.OK && dataBlock.isValid() && !dataBlock.isEmpty()) {
         // try merge adjacent blocks
         tryMergeAdjacentBlocks(dataBlock);
@@ -1815,7 +1971,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
     this.numDataBlocks -= 1;
     boolean firstBlockInIndex = this.dataPtr == b.getIndexPtr();
     if (firstBlockInIndex && this.numDataBlocks > 0) {
-      firstKey = null;
+      refreshFirstKey();
     }
   }
 
@@ -1842,6 +1998,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
 
       dataBlock = block.get();
       dataBlock.set(this, ptr - dataPtr);
+      dataBlock.access();
       dataBlock.decompressDataBlockIfNeeded();
 
       long res = dataBlock.get(keyPtr, keyLength, version);
@@ -1931,6 +2088,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       }
       dataBlock = block.get();
       dataBlock.set(this, ptr - dataPtr);
+      dataBlock.access();
       dataBlock.decompressDataBlockIfNeeded();
       long res = dataBlock.get(keyPtr, keyLength, version, floor);
       // TODO res = -1
@@ -2117,6 +2275,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       }
       dataBlock = block.get();
       dataBlock.set(this, ptr - dataPtr);
+      dataBlock.access();
 
       dataBlock.decompressDataBlockIfNeeded();
 
@@ -2144,6 +2303,88 @@ public final class IndexBlock implements Comparable<IndexBlock> {
     }
   }
 
+  /**
+   * Batched get of keys which belong to this index block. Keys are processed in ascending order,
+   * therefore every data block is searched and decompressed only once for all its keys. Values are
+   * copied into a value buffer one after another
+   * @param keyPtrs keys addresses
+   * @param keySizes keys sizes
+   * @param index indexes of keys in ascending key order
+   * @param from first position in index array (inclusive)
+   * @param to last position in index array (exclusive)
+   * @param valueBuf value buffer address
+   * @param valueBufLength value buffer length
+   * @param bufOffset current offset in a value buffer
+   * @param valueSizes value sizes (output), NOT_FOUND - key does not exist
+   * @param valueOffsets value offsets in a value buffer (output), -1 - value was not copied
+   * @param version version
+   * @return offset in a value buffer after all copied values
+   * @throws RetryOperationException
+   */
+  int get(long[] keyPtrs, int[] keySizes, int[] index, int from, int to, long valueBuf,
+      int valueBufLength, int bufOffset, long[] valueSizes, int[] valueOffsets, long version)
+      throws RetryOperationException {
+
+    DataBlock dataBlock = null;
+    long blockPtr = NOT_FOUND;
+    try {
+      readLock();
+      for (int i = from; i < to; i++) {
+        int k = index[i];
+        long keyPtr = keyPtrs[k];
+        int keyLength = keySizes[k];
+        valueSizes[k] = NOT_FOUND;
+        valueOffsets[k] = -1;
+        long ptr = search(keyPtr, keyLength, version, Op.DELETE);
+        if (ptr <= 0) {
+          continue;
+        }
+        if (ptr != blockPtr) {
+          if (dataBlock != null) {
+            dataBlock.compressDataBlockIfNeeded();
+          } else {
+            dataBlock = block.get();
+          }
+          dataBlock.set(this, ptr - dataPtr);
+          dataBlock.access();
+          dataBlock.decompressDataBlockIfNeeded();
+          blockPtr = ptr;
+        }
+        long bufPtr = valueBuf + bufOffset;
+        int available = valueBufLength - bufOffset;
+        long res = dataBlock.get(keyPtr, keyLength, bufPtr, available, version);
+        if (res == DataBlock.NOT_FOUND) {
+          // Key can continue in the next data blocks (see get)
+          long address = blockPtr;
+          while ((address = searchForGet(keyPtr, keyLength, address)) != NOT_FOUND) {
+            dataBlock.compressDataBlockIfNeeded();
+            dataBlock.set(this, address - this.dataPtr);
+            dataBlock.decompressDataBlockIfNeeded();
+            blockPtr = address;
+            res = dataBlock.get(keyPtr, keyLength, bufPtr, available, version);
+            if (res != DataBlock.NOT_FOUND) {
+              break;
+            }
+          }
+        }
+        if (res == DataBlock.NOT_FOUND) {
+          continue;
+        }
+        valueSizes[k] = res;
+        if (res <= available) {
+          valueOffsets[k] = bufOffset;
+          bufOffset += res;
+        }
+      }
+      return bufOffset;
+    } finally {
+      if (dataBlock != null) {
+        dataBlock.compressDataBlockIfNeeded();
+      }
+      readUnlock();
+    }
+  }
+
   /**
    * Get block size
    * @return block size
@@ -2168,6 +2409,167 @@ public final class IndexBlock implements Comparable<IndexBlock> {
     return numDataBlocks;
   }
 
+  /**
+   * Get data block by its index, no locking
+   * @param index index of a data block
+   * @return data block or null
+   */
+  private DataBlock dataBlockAt(int index) {
+    long ptr = this.dataPtr;
+    final long limit = this.dataPtr + this.blockDataSize;
+    for (int i = 0; i < index && ptr < limit; i++) {
+      ptr += DATA_BLOCK_STATIC_OVERHEAD + KEY_SIZE_LENGTH + blockKeyLength(ptr);
+    }
+    if (ptr >= limit) {
+      return null;
+    }
+    DataBlock b = block.get();
+    b.set(this, ptr - this.dataPtr);
+    return b;
+  }
+
+  /**
+   * Eviction support: calculates eviction score of a data block
+   * @param index index of a data block
+   * @param policy eviction policy
+   * @return score (the lower - the better candidate), Long.MAX_VALUE - not a candidate
+   * @throws RetryOperationException
+   */
+  long evictionScore(int index, EvictionPolicy policy) throws RetryOperationException {
+    DataBlock b = null;
+    try {
+      readLock();
+      b = dataBlockAt(index);
+      if (b == null) {
+        return Long.MAX_VALUE;
+      }
+      long minExpire = 0;
+      if (policy == EvictionPolicy.VOLATILE_TTL) {
+        b.decompressDataBlockIfNeeded();
+        minExpire = b.getMinExpire();
+      }
+      return policy.score(b.getAccess(), minExpire);
+    } finally {
+      if (b != null) {
+        b.compressDataBlockIfNeeded();
+      }
+      readUnlock();
+    }
+  }
+
+  /**
+   * Eviction support: copies keys of all records of a data block into a buffer
+   * @param index index of a data block
+   * @param buf buffer address
+   * @param bufSize buffer size
+   * @param volatileOnly copy keys of records with expiration time only
+   * @return number of keys copied
+   * @throws RetryOperationException
+   */
+  int copyDataBlockKeys(int index, long buf, int bufSize, boolean volatileOnly)
+      throws RetryOperationException {
+    DataBlock b = null;
+    try {
+      readLock();
+      b = dataBlockAt(index);
+      if (b == null) {
+        return 0;
+      }
+      b.decompressDataBlockIfNeeded();
+      return b.copyKeys(buf, bufSize, volatileOnly);
+    } finally {
+      if (b != null) {
+        b.compressDataBlockIfNeeded();
+      }
+      readUnlock();
+    }
+  }
+
+  /**
+   * Updates earliest expiration time of block's records
+   * @param expire expiration time of a new or updated record (0 - no expiration)
+   */
+  final void updateMinExpire(long expire) {
+    long min = this.minExpire;
+    if (expire > 0 && (min == 0 || expire < min)) {
+      this.minExpire = expire;
+    }
+  }
+
+  /**
+   * Get earliest expiration time of block's records
+   * @return earliest expiration time, 0 - block has no records with expiration time
+   */
+  public long getMinExpire() {
+    return minExpire;
+  }
+
+  /**
+   * Can block have expired records
+   * @param now current time
+   * @return true - yes, false - otherwise
+   */
+  final boolean mayHaveExpired(long now) {
+    long min = this.minExpire;
+    return min > 0 && min <= now;
+  }
+
+  /**
+   * Active expiration support: copies keys of all expired records into a buffer in the format
+   * [short size][key]... Earliest expiration time is recalculated if all the keys fit the buffer
+   * @param now current time
+   * @param buf buffer address
+   * @param bufSize buffer size
+   * @return number of keys copied
+   * @throws RetryOperationException
+   */
+  int copyExpiredKeys(long now, long buf, int bufSize) throws RetryOperationException {
+    long min = 0;
+    int count = 0;
+    boolean complete = true;
+    final long bufLimit = buf + bufSize;
+    try {
+      readLock();
+      final long limit = this.dataPtr + this.blockDataSize;
+      DataBlock b = block.get();
+      for (long ptr = this.dataPtr; ptr < limit;
+          ptr += DATA_BLOCK_STATIC_OVERHEAD + KEY_SIZE_LENGTH + blockKeyLength(ptr)) {
+        b.set(this, ptr - this.dataPtr);
+        b.decompressDataBlockIfNeeded();
+        try {
+          for (long rec = b.first(); rec != DataBlock.NOT_FOUND; rec = b.next(rec)) {
+            long expire = DataBlock.getRecordExpire(rec);
+            if (expire <= 0 || DataBlock.getRecordType(rec) != Op.PUT) {
+              continue;
+            }
+            if (expire > now) {
+              min = min == 0 ? expire : Math.min(min, expire);
+              continue;
+            }
+            int keyLength = DataBlock.keyLength(rec);
+            if (buf + keyLength + KEY_SIZE_LENGTH > bufLimit) {
+              complete = false;
+              continue;
+            }
+            UnsafeAccess.putShort(buf, (short) keyLength);
+            UnsafeAccess.copy(DataBlock.keyAddress(rec), buf + KEY_SIZE_LENGTH, keyLength);
+            buf += keyLength + KEY_SIZE_LENGTH;
+            count++;
+          }
+        } finally {
+          b.compressDataBlockIfNeeded();
+        }
+      }
+      if (complete) {
+        // Keys copied will be deleted
+        this.minExpire = min;
+      }
+      return count;
+    } finally {
+      readUnlock();
+    }
+  }
+
   public int getSeqNumberSplitOrMerge() {
     return seqNumberSplitOrMerge;
   }
@@ -2214,8 +2616,11 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       right.numDataBlocks = (short) (oldNumRecords - this.numDataBlocks);
       right.blockDataSize = (short) (oldDataSize - this.blockDataSize);
       UnsafeAccess.copy(ptr, right.dataPtr, right.blockDataSize);
+      right.minExpire = this.minExpire;
       // Init first key
       right.getFirstKey();
+      right.markDirty();
+      markDirty();
       updateUnsafeModificationTime();
       return right;
     } finally {
@@ -2253,6 +2658,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       UnsafeAccess.copy(left.dataPtr, this.dataPtr + blockDataSize, left.blockDataSize);
       this.numDataBlocks += left.numDataBlocks;
       this.blockDataSize += left.blockDataSize;
+      updateMinExpire(left.minExpire);
 
       // After merge left block becomes invalid
       // TODO
@@ -2280,7 +2686,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
     deallocateBlocks();
     // deallocate large keys
     deallocateLargeKeys();
-    UnsafeAccess.free(dataPtr);
+    DataBlock.allocator.free(dataPtr);
     if (map == null) {
       // BigSortedMap.incrGlobalDataInIndexBlocksSize(-blockDataSize);
       BigSortedMap.incrGlobalIndexSize(-blockDataSize);
@@ -2356,22 +2762,34 @@ public final class IndexBlock implements Comparable<IndexBlock> {
   }
 
   public byte[] getFirstKey() {
-
+    byte[] key = firstKey;
+    if (key != null) {
+      return key;
+    }
     try {
       readLock(false);
       if (firstKey != null) {
         return firstKey;
       }
-      int keylen = keyLength(dataPtr);
-      byte[] buf = new byte[keylen];
-      UnsafeAccess.copy(keyAddress(dataPtr), buf, 0, buf.length);
-      firstKey = buf;
-      return firstKey;
+      return refreshFirstKey();
     } finally {
       readUnlock();
     }
   }
 
+  /**
+   * Re-reads first key after it was changed. Cached first key is never reset to null for a block
+   * which is in the map, because concurrent map navigation reads it without locking the block
+   * @return new first key
+   */
+  private byte[] refreshFirstKey() {
+    int keylen = keyLength(dataPtr);
+    byte[] buf = new byte[keylen];
+    UnsafeAccess.copy(keyAddress(dataPtr), buf, 0, buf.length);
+    firstKey = buf;
+    return buf;
+  }
+
   void compact() {
     DataBlock db = null;
     while ((db = nextBlock(db, true)) != null) {
@@ -2394,6 +2812,7 @@ public final class IndexBlock implements Comparable<IndexBlock> {
   }
 
   DataBlock loadData(FileChannel fc, ByteBuffer buf) throws IOException {
+    this.minExpire = EXPIRE_UNKNOWN;
 
     while (true) {
       DataBlock next = DataBlock.loadData(this, fc, buf);
@@ -2410,4 +2829,26 @@ public final class IndexBlock implements Comparable<IndexBlock> {
       next.compressDataBlockIfNeeded();
     }
   }
+
+  /**
+   * Maps data blocks from a memory mapped snapshot file
+   * @param fc file channel (positioned at the end of a file)
+   * @param buf memory mapped file
+   * @return data block which does not fit this index block or null (end of stream)
+   * @throws IOException
+   */
+  DataBlock mapData(FileChannel fc, ByteBuffer buf) throws IOException {
+    this.minExpire = EXPIRE_UNKNOWN;
+    while (true) {
+      DataBlock next = DataBlock.mapData(this, fc, buf);
+      if (next == null) {
+        return null;
+      }
+      next.decompressDataBlockIfNeeded();
+      if (insertBlock(next) == false) {
+        return next;
+      }
+      next.compressDataBlockIfNeeded();
+    }
+  }
 }
@@ -14,6 +14,7 @@ package com.carrotdata.redcarrot;
 import java.io.Closeable;
 import java.io.IOException;
 
+import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 
 /**
@@ -74,6 +75,12 @@ public final class IndexBlockScanner implements Closeable {
    * Is reverse scanner?
    */
   private boolean reverse = false;
+
+  /*
+   * Private copy of a current data block (multiple instances safe and compression is enabled),
+   * because decompression buffers are shared by all scanners and operations of a thread
+   */
+  private long copyBuffer;
   /*
    * Thread local for scanner instance. Multiple instances UNSAFE (can not be used in multiple
    * instances in context of a one thread)
@@ -183,6 +190,9 @@ public final class IndexBlockScanner implements Closeable {
         bs = new IndexBlockScanner();
       }
       bs.setMultiInstanceSafe(true);
+      if (BigSortedMap.isCompressionEnabled() && bs.copyBuffer == 0) {
+        bs.copyBuffer = UnsafeAccess.malloc(DataBlock.MAX_BLOCK_SIZE + 80);
+      }
       bs.setReverse(reverse);
       bs.setBlock(b);
       bs.snapshotId = snapshotId;
@@ -376,7 +386,7 @@ public final class IndexBlockScanner implements Closeable {
       } else {
         this.curDataBlockScanner = DataBlockScanner.getScanner(this.currentDataBlock,
           this.startRowPtr, this.startRowLength, this.stopRowPtr, this.stopRowLength, snapshotId,
-          this.curDataBlockScanner);
+          this.curDataBlockScanner, this.copyBuffer);
       }
     } else if (!closed) {
       if (!isMultiSafe) {
@@ -385,7 +395,7 @@ public final class IndexBlockScanner implements Closeable {
       } else {
         this.curDataBlockScanner = DataBlockScanner.getScanner(this.currentDataBlock,
           this.startRowPtr, this.startRowLength, this.stopRowPtr, this.stopRowLength, snapshotId,
-          this.curDataBlockScanner);
+          this.curDataBlockScanner, this.copyBuffer);
       }
       if (this.indexBlock.isFirstIndexBlock() && this.startRowPtr == 0
           && this.curDataBlockScanner != null && !reverse) {
@@ -395,6 +405,10 @@ public final class IndexBlockScanner implements Closeable {
     } else {
       return null;
     }
+    if (this.copyBuffer != 0 && this.currentDataBlock != null) {
+      // Scanner works on a copy, release data block right away
+      this.currentDataBlock.compressDataBlockIfNeeded();
+    }
     if (reverse && this.curDataBlockScanner != null) {
       boolean result = this.curDataBlockScanner.last();
       if (!result) {
@@ -478,6 +492,10 @@ public final class IndexBlockScanner implements Closeable {
       return;
     }
     closed = true;
+    if (this.copyBuffer != 0) {
+      UnsafeAccess.free(this.copyBuffer);
+      this.copyBuffer = 0;
+    }
     if (this.curDataBlockScanner != null) {
       try {
         this.curDataBlockScanner.close();
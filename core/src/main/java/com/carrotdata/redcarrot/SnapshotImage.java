@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import com.carrotdata.redcarrot.util.IOUtils;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Images of index blocks updated while a snapshot is being saved. Snapshot is a point in time image
+ * of a store: the first update of an index block after the snapshot start saves block's data into
+ * a spill file, partitions are written from these images and from index blocks which have not been
+ * updated. Images are sorted by the first keys blocks had at the snapshot start.
+ */
+final class SnapshotImage {
+
+  private static int BUFFER_SIZE = 256 * 1024;
+
+  /* Modification epoch of a snapshot */
+  private final long epoch;
+
+  private final File file;
+
+  private final RandomAccessFile raf;
+
+  private final FileChannel fc;
+
+  private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+  /* Block first key -> [offset, length] of its image in a spill file */
+  private final ConcurrentSkipListMap<byte[], long[]> images =
+      new ConcurrentSkipListMap<byte[], long[]>(
+          (a, b) -> Utils.compareTo(a, 0, a.length, b, 0, b.length));
+
+  private boolean closed;
+
+  private volatile IOException error;
+
+  /**
+   * Constructor
+   * @param file spill file
+   * @param epoch modification epoch of a snapshot
+   * @throws IOException
+   */
+  SnapshotImage(File file, long epoch) throws IOException {
+    this.file = file;
+    this.epoch = epoch;
+    this.raf = new RandomAccessFile(file, "rw");
+    this.raf.setLength(0);
+    this.fc = raf.getChannel();
+  }
+
+  /**
+   * Get modification epoch of a snapshot
+   * @return epoch
+   */
+  long getEpoch() {
+    return epoch;
+  }
+
+  /**
+   * Saves image of an index block. It is called under block's exclusive lock before the first
+   * update of a block, which has not been saved yet
+   * @param b index block
+   */
+  synchronized void preserve(IndexBlock b) {
+    if (closed || b.getSnapshotEpoch() >= epoch) {
+      return;
+    }
+    byte[] key = b.getFirstKey();
+    try {
+      long offset = fc.position();
+      b.saveData(fc, buf);
+      IOUtils.drainBuffer(buf, fc);
+      images.put(key, new long[] { offset, fc.position() - offset });
+    } catch (IOException e) {
+      // Snapshot fails
+      error = e;
+      buf.clear();
+    }
+    b.setSnapshotEpoch(epoch);
+  }
+
+  /**
+   * Writes images of blocks with first keys in a range [startKey, stopKey)
+   * @param startKey start key (inclusive)
+   * @param stopKey stop key (exclusive), null - till the end
+   * @param out partition file channel
+   * @throws IOException
+   */
+  void write(byte[] startKey, byte[] stopKey, FileChannel out) throws IOException {
+    for (long[] image : range(startKey, stopKey).values()) {
+      long offset = image[0];
+      long end = image[0] + image[1];
+      while (offset < end) {
+        offset += fc.transferTo(offset, end - offset, out);
+      }
+    }
+  }
+
+  /**
+   * Are there images of blocks with first keys in a range [startKey, stopKey)
+   * @param startKey start key (inclusive)
+   * @param stopKey stop key (exclusive), null - till the end
+   * @return true or false
+   */
+  boolean contains(byte[] startKey, byte[] stopKey) {
+    return !range(startKey, stopKey).isEmpty();
+  }
+
+  private NavigableMap<byte[], long[]> range(byte[] startKey, byte[] stopKey) {
+    return stopKey == null ? images.tailMap(startKey, true)
+        : images.subMap(startKey, true, stopKey, false);
+  }
+
+  /**
+   * Get error of a block image save
+   * @return error or null
+   */
+  IOException getError() {
+    return error;
+  }
+
+  /** Closes and deletes spill file, blocks are not preserved anymore */
+  synchronized void close() {
+    closed = true;
+    try {
+      raf.close();
+    } catch (IOException e) {
+      // ignore
+    }
+    file.delete();
+  }
+}
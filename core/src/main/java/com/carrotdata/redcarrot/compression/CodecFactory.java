@@ -28,7 +28,8 @@ public class CodecFactory {
   /** Boolean array with TRUE value for each codec if supported, FALSE otherwise */
   private static boolean[] supportedCodecs = new boolean[CodecType.values().length];
 
-  private static Codec[] codecs = { new LZ4Codec(), new LZ4HCCodec(), null, new ZstdCodec() };
+  private static Codec[] codecs = { new LZ4Codec(), new LZ4HCCodec(), null, new ZstdCodec(),
+      new PrefixCodec() };
 
   /**
    * Gets the single instance of CodecFactory.
@@ -100,6 +101,8 @@ public class CodecFactory {
         return codecs[2];
       case 4:
         return codecs[3];
+      case 5:
+        return codecs[4];
       // No codec
       case 0:
         return null;
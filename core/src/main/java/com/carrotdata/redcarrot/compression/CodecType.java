@@ -24,7 +24,9 @@ public enum CodecType {
   /** Bitmap codec */
   BITMAP(3),
   /** ZSTD */
-  ZSTD(4);
+  ZSTD(4),
+  /** Front coding of keys */
+  PREFIX(5);
 
   /** The id. */
   private int id;
@@ -59,6 +61,8 @@ public enum CodecType {
         return CodecFactory.getInstance().getCodec(CodecType.LZ4HC);
       case 4:
         return CodecFactory.getInstance().getCodec(CodecType.ZSTD);
+      case 5:
+        return CodecFactory.getInstance().getCodec(CodecType.PREFIX);
 
     }
     return null;
@@ -0,0 +1,218 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.compression;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.carrotdata.redcarrot.DataBlock;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Front coding (shared key prefix) codec for data blocks. Each record keeps only the key suffix
+ * which differs from the previous record's key. Encoded record format:<br>
+ * <SHARED> - length of a prefix shared with a previous key (1 byte if less than 128, 2 bytes with
+ * a high bit set otherwise)<br>
+ * <RECORD PREFIX> - key size, value size and expiration as in a data block<br>
+ * <KEY SUFFIX> <br>
+ * <TYPE> <br>
+ * <VALUE> <br>
+ * Every RESTART_INTERVAL-th record and records with external keys are stored with a full key.
+ * Decoding is a sequence of memory copies, which is much cheaper than LZ4 or ZSTD.
+ */
+public class PrefixCodec implements Codec {
+
+  /** Every N-th record keeps a full key */
+  public static final int RESTART_INTERVAL = 16;
+
+  /** The total size. */
+  private AtomicLong totalSize = new AtomicLong();
+
+  /** The total comp size. */
+  private AtomicLong totalCompSize = new AtomicLong();
+
+  /** The min comp size. */
+  private int minCompSize = 100;
+
+  /** Instantiates a new prefix codec. */
+  public PrefixCodec() {
+    minCompSize = Integer.parseInt(System.getProperty(COMPRESSION_THRESHOLD, "100"));
+  }
+
+  @Override
+  public int compress(ByteBuffer src, ByteBuffer dst) throws IOException {
+    checkDirect(src, dst);
+    int srcSize = src.limit() - src.position();
+    int size = compress(UnsafeAccess.address(src) + src.position(), srcSize,
+      UnsafeAccess.address(dst) + dst.position(), dst.capacity() - dst.position());
+    dst.limit(dst.position() + size);
+    return size;
+  }
+
+  @Override
+  public int decompress(ByteBuffer src, ByteBuffer dst) throws IOException {
+    checkDirect(src, dst);
+    int size = decompress(UnsafeAccess.address(src) + src.position(), src.limit() - src.position(),
+      UnsafeAccess.address(dst) + dst.position(), dst.capacity() - dst.position());
+    dst.limit(dst.position() + size);
+    return size;
+  }
+
+  private void checkDirect(ByteBuffer src, ByteBuffer dst) throws IOException {
+    if (!src.isDirect() || !dst.isDirect()) {
+      throw new IOException("Only direct buffers are supported");
+    }
+  }
+
+  /**
+   * Compress data block records. If data is not a valid sequence of records or encoded size is not
+   * less than the source size, source size is returned (data is not compressible)
+   */
+  @Override
+  public int compress(long src, int srcSize, long dst, int dstCapacity) {
+    this.totalSize.addAndGet(srcSize);
+    long ptr = src;
+    long end = src + srcSize;
+    long out = dst;
+    long outEnd = dst + Math.min(dstCapacity, srcSize);
+    long prevKey = 0;
+    int prevKeyLength = 0;
+    int count = 0;
+    while (ptr < end) {
+      if (ptr + DataBlock.RECORD_TOTAL_OVERHEAD > end) {
+        return notCompressible(srcSize);
+      }
+      int keyLength = DataBlock.blockKeyLength(ptr);
+      int valueLength = DataBlock.blockValueLength(ptr);
+      if (keyLength < 0 || valueLength < 0) {
+        return notCompressible(srcSize);
+      }
+      int recLength = keyLength + valueLength + DataBlock.RECORD_TOTAL_OVERHEAD;
+      if (ptr + recLength > end) {
+        return notCompressible(srcSize);
+      }
+      long key = ptr + DataBlock.RECORD_PREFIX_LENGTH;
+      int shared = 0;
+      if (count % RESTART_INTERVAL != 0 && prevKeyLength > 0 && keyLength > 0) {
+        shared = Utils.prefix(prevKey, prevKeyLength, key, keyLength);
+      }
+      int toCopy = recLength - DataBlock.RECORD_PREFIX_LENGTH - shared;
+      int sharedSize = shared < 0x80 ? 1 : 2;
+      if (out + sharedSize + DataBlock.RECORD_PREFIX_LENGTH + toCopy > outEnd) {
+        return notCompressible(srcSize);
+      }
+      if (sharedSize == 1) {
+        UnsafeAccess.putByte(out, (byte) shared);
+      } else {
+        UnsafeAccess.putByte(out, (byte) ((shared >>> 8) | 0x80));
+        UnsafeAccess.putByte(out + 1, (byte) shared);
+      }
+      out += sharedSize;
+      UnsafeAccess.copy(ptr, out, DataBlock.RECORD_PREFIX_LENGTH);
+      out += DataBlock.RECORD_PREFIX_LENGTH;
+      UnsafeAccess.copy(key + shared, out, toCopy);
+      out += toCopy;
+      prevKey = key;
+      prevKeyLength = keyLength;
+      ptr += recLength;
+      count++;
+    }
+    int size = (int) (out - dst);
+    this.totalCompSize.addAndGet(size);
+    return size;
+  }
+
+  private int notCompressible(int srcSize) {
+    this.totalCompSize.addAndGet(srcSize);
+    return srcSize;
+  }
+
+  @Override
+  public int decompress(long src, int srcSize, long dst, int dstCapacity) {
+    long ptr = src;
+    long end = src + srcSize;
+    long out = dst;
+    long outEnd = dst + dstCapacity;
+    long prevKey = 0;
+    while (ptr < end) {
+      int shared = UnsafeAccess.toByte(ptr) & 0xff;
+      if ((shared & 0x80) != 0) {
+        shared = ((shared & 0x7f) << 8) | (UnsafeAccess.toByte(ptr + 1) & 0xff);
+        ptr += 2;
+      } else {
+        ptr += 1;
+      }
+      if (out + DataBlock.RECORD_PREFIX_LENGTH > outEnd) {
+        return 0;
+      }
+      UnsafeAccess.copy(ptr, out, DataBlock.RECORD_PREFIX_LENGTH);
+      int keyLength = DataBlock.blockKeyLength(out);
+      int valueLength = DataBlock.blockValueLength(out);
+      int recLength = keyLength + valueLength + DataBlock.RECORD_TOTAL_OVERHEAD;
+      if (out + recLength > outEnd) {
+        return 0;
+      }
+      ptr += DataBlock.RECORD_PREFIX_LENGTH;
+      long key = out + DataBlock.RECORD_PREFIX_LENGTH;
+      if (shared > 0) {
+        UnsafeAccess.copy(prevKey, key, shared);
+      }
+      int toCopy = recLength - DataBlock.RECORD_PREFIX_LENGTH - shared;
+      UnsafeAccess.copy(ptr, key + shared, toCopy);
+      ptr += toCopy;
+      prevKey = key;
+      out += recLength;
+    }
+    return (int) (out - dst);
+  }
+
+  @Override
+  public int getCompressionThreshold() {
+    return minCompSize;
+  }
+
+  @Override
+  public void setCompressionThreshold(int val) {
+    minCompSize = val;
+  }
+
+  @Override
+  public CodecType getType() {
+    return CodecType.PREFIX;
+  }
+
+  @Override
+  public double getAvgCompressionRatio() {
+    if (totalCompSize.get() == 0) {
+      return 1.d;
+    } else {
+      return ((double) totalSize.get()) / totalCompSize.get();
+    }
+  }
+
+  @Override
+  public long getTotalBytesProcessed() {
+    return totalSize.get();
+  }
+
+  /** Front coding has no levels */
+  @Override
+  public void setLevel(int level) {
+  }
+
+  @Override
+  public int getLevel() {
+    return 0;
+  }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.ops;
+
+import com.carrotdata.redcarrot.DataBlock;
+
+/**
+ * Deletes record if it is expired. Expiration is checked again, because record can be updated
+ * after it was selected by an active expiration.
+ */
+public class DeleteExpired extends Operation {
+
+  /* Current time */
+  private long time;
+
+  public DeleteExpired() {
+    updateInPlace = false;
+    readOnly = false;
+  }
+
+  /**
+   * Sets current time
+   * @param time current time
+   */
+  public void setTime(long time) {
+    this.time = time;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    time = 0;
+    updateInPlace = false;
+    readOnly = false;
+  }
+
+  @Override
+  public boolean execute() {
+    if (foundRecordAddress <= 0) {
+      this.updatesCount = 0;
+      return false;
+    }
+    long expire = DataBlock.getRecordExpire(foundRecordAddress);
+    if (expire <= 0 || expire > time) {
+      // Not expired or was updated
+      this.updatesCount = 0;
+      return false;
+    }
+    this.updatesCount = 1;
+    this.keys[0] = keyAddress;
+    this.keySizes[0] = keySize;
+    this.updateTypes[0] = true; // DELETE
+    return true;
+  }
+}
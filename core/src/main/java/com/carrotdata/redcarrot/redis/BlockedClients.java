@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.storage.WriteAheadLog;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+
+/**
+ * Clients blocked by BLPOP, BRPOP, BLMOVE, BRPOPLPUSH, BZPOPMIN and BZPOPMAX.
+ * <p>
+ * A blocking command which finds nothing to pop replies as if its timeout has expired and records
+ * a block request (see {@link #block(long[], int[], long)}). An I/O thread which executed the
+ * command does not send this reply, it parks the connection in a per-key FIFO queue of waiters
+ * and continues serving other connections. Commands which add elements to a list or a sorted set
+ * signal their keys (see {@link #signalKeyReady(long, int)}). After every command an I/O thread
+ * serves waiters of the signalled keys in FIFO order, re-executing their requests, until a key is
+ * empty again. The reply of a served waiter is handed over to its I/O thread, which sends it and
+ * resumes processing of the connection. Timeouts are tracked by I/O threads (timer wheel).
+ * <p>
+ * There is one instance per data store, it is shared by all I/O threads of the store.
+ */
+public class BlockedClients {
+
+  /** Block request of a command, which can not be served now */
+  static class BlockRequest {
+    final ByteBuffer[] keys;
+    final long timeout;
+
+    BlockRequest(ByteBuffer[] keys, long timeout) {
+      this.keys = keys;
+      this.timeout = timeout;
+    }
+  }
+
+  /** Blocked connection */
+  static class Waiter {
+    /* I/O thread which owns the connection */
+    final WorkThread thread;
+    /* Connection */
+    final SelectionKey key;
+    /* Blocking request (Redis format) */
+    final byte[] request;
+    /* Reply to send when timeout expires */
+    final byte[] timeoutReply;
+    /* Keys */
+    final ByteBuffer[] keys;
+    /* Deadline in ms (0 - no timeout) */
+    final long deadline;
+    /* Reply of a served request */
+    byte[] reply;
+    /* Waiter was served, timed out or cancelled */
+    boolean done;
+
+    Waiter(WorkThread thread, SelectionKey key, byte[] request, byte[] timeoutReply,
+        BlockRequest req) {
+      this.thread = thread;
+      this.key = key;
+      this.request = request;
+      this.timeoutReply = timeoutReply;
+      this.keys = req.keys;
+      this.deadline = req.timeout > 0 ? System.currentTimeMillis() + req.timeout : 0;
+    }
+
+    /**
+     * Connection waiting for WAL records of its commands to be synced (ALWAYS policy). It is not
+     * registered on keys and can not be cancelled or expired.
+     */
+    Waiter(WorkThread thread, SelectionKey key, byte[] reply) {
+      this.thread = thread;
+      this.key = key;
+      this.request = null;
+      this.timeoutReply = null;
+      this.keys = new ByteBuffer[0];
+      this.deadline = 0;
+      this.reply = reply;
+      this.done = true;
+    }
+  }
+
+  /*
+   * Total number of blocked clients (all data stores). Signals are ignored when it is 0.
+   */
+  private static final AtomicInteger waiting = new AtomicInteger();
+
+  /*
+   * Block request of the last executed command
+   */
+  private static final ThreadLocal<BlockRequest> blockRequestTLS = new ThreadLocal<>();
+
+  /*
+   * Keys signalled by commands executed by the thread
+   */
+  private static final ThreadLocal<ArrayList<ByteBuffer>> readyKeysTLS =
+      new ThreadLocal<ArrayList<ByteBuffer>>() {
+        @Override
+        protected ArrayList<ByteBuffer> initialValue() {
+          return new ArrayList<ByteBuffer>();
+        }
+      };
+
+  /*
+   * Data store
+   */
+  private final BigSortedMap store;
+
+  /*
+   * Waiters by key (FIFO)
+   */
+  private final HashMap<ByteBuffer, ArrayDeque<Waiter>> waiters = new HashMap<>();
+
+  BlockedClients(BigSortedMap store) {
+    this.store = store;
+  }
+
+  /**
+   * Called by a blocking command when there is nothing to pop. Connection is blocked if the command
+   * was executed by an I/O thread, otherwise the command's reply is final.
+   * @param keyPtrs key addresses
+   * @param keySizes key sizes
+   * @param timeout timeout in ms (0 - no timeout)
+   */
+  public static void block(long[] keyPtrs, int[] keySizes, long timeout) {
+    ByteBuffer[] keys = new ByteBuffer[keyPtrs.length];
+    for (int i = 0; i < keys.length; i++) {
+      keys[i] = toKey(keyPtrs[i], keySizes[i]);
+    }
+    blockRequestTLS.set(new BlockRequest(keys, timeout));
+  }
+
+  /**
+   * Called by a command which has added elements to a list or a sorted set
+   * @param keyPtr key address
+   * @param keySize key size
+   */
+  public static void signalKeyReady(long keyPtr, int keySize) {
+    if (waiting.get() == 0) {
+      return;
+    }
+    signalKeyReady(toKey(keyPtr, keySize));
+  }
+
+  private static void signalKeyReady(ByteBuffer key) {
+    ArrayList<ByteBuffer> ready = readyKeysTLS.get();
+    if (!ready.contains(key)) {
+      ready.add(key);
+    }
+  }
+
+  private static ByteBuffer toKey(long keyPtr, int keySize) {
+    byte[] key = new byte[keySize];
+    UnsafeAccess.copy(keyPtr, key, 0, keySize);
+    return ByteBuffer.wrap(key);
+  }
+
+  /**
+   * Returns and clears block request of the last executed command
+   * @return block request or null
+   */
+  static BlockRequest takeBlockRequest() {
+    BlockRequest req = blockRequestTLS.get();
+    if (req != null) {
+      blockRequestTLS.set(null);
+    }
+    return req;
+  }
+
+  /**
+   * Has the last executed command been blocked
+   * @return true or false
+   */
+  static boolean hasBlockRequest() {
+    return blockRequestTLS.get() != null;
+  }
+
+  /**
+   * Have any keys been signalled by this thread
+   * @return true or false
+   */
+  static boolean hasReadyKeys() {
+    return !readyKeysTLS.get().isEmpty();
+  }
+
+  /**
+   * Number of blocked clients
+   * @return number of blocked clients
+   */
+  static int getWaitingCount() {
+    return waiting.get();
+  }
+
+  /**
+   * Parks a connection. Its keys are signalled, because elements could be added after the
+   * blocking command has been executed.
+   * @param thread I/O thread
+   * @param key connection
+   * @param request blocking request
+   * @param timeoutReply reply to send on timeout
+   * @param req block request
+   * @return waiter
+   */
+  synchronized Waiter park(WorkThread thread, SelectionKey key, byte[] request,
+      byte[] timeoutReply, BlockRequest req) {
+    Waiter w = new Waiter(thread, key, request, timeoutReply, req);
+    for (ByteBuffer k : w.keys) {
+      ArrayDeque<Waiter> queue = waiters.get(k);
+      if (queue == null) {
+        queue = new ArrayDeque<Waiter>();
+        waiters.put(k, queue);
+      }
+      if (!queue.contains(w)) {
+        queue.add(w);
+      }
+    }
+    waiting.incrementAndGet();
+    for (ByteBuffer k : w.keys) {
+      signalKeyReady(k);
+    }
+    return w;
+  }
+
+  /**
+   * Serves waiters of the keys signalled by this thread
+   * @param buf buffer for replies
+   */
+  void serveReadyKeys(ByteBuffer buf) {
+    ArrayList<ByteBuffer> ready = readyKeysTLS.get();
+    synchronized (this) {
+      // Served requests can signal more keys (BLMOVE)
+      while (!ready.isEmpty()) {
+        serveKey(ready.remove(0), buf);
+      }
+    }
+  }
+
+  private void serveKey(ByteBuffer key, ByteBuffer buf) {
+    ArrayDeque<Waiter> queue = waiters.get(key);
+    while (queue != null && !queue.isEmpty()) {
+      Waiter w = queue.peekFirst();
+      ByteBuffer in = ByteBuffer.wrap(w.request);
+      in.position(w.request.length);
+      buf.clear();
+      CommandProcessor.process(store, in, buf);
+      if (takeBlockRequest() != null) {
+        // Nothing to pop
+        break;
+      }
+      byte[] reply = new byte[buf.position()];
+      buf.flip();
+      buf.get(reply);
+      w.reply = reply;
+      remove(w);
+      long seq = CommandProcessor.takeLogSequence();
+      WriteAheadLog wal = store.getWAL();
+      // For ALWAYS sync policy reply is sent after the served request has been synced
+      if (wal == null || !wal.deferUntilSynced(seq, () -> w.thread.unblock(w))) {
+        w.thread.unblock(w);
+      }
+      // Queue can be removed
+      queue = waiters.get(key);
+    }
+  }
+
+  /**
+   * Expires a waiter
+   * @param w waiter
+   * @return true if the waiter has been expired, false - it was served or cancelled already
+   */
+  synchronized boolean expire(Waiter w) {
+    if (w.done) {
+      return false;
+    }
+    remove(w);
+    return true;
+  }
+
+  /**
+   * Cancels a waiter (connection is closed)
+   * @param w waiter
+   */
+  synchronized void cancel(Waiter w) {
+    if (!w.done) {
+      remove(w);
+    }
+  }
+
+  private void remove(Waiter w) {
+    for (ByteBuffer k : w.keys) {
+      ArrayDeque<Waiter> queue = waiters.get(k);
+      if (queue == null) {
+        continue;
+      }
+      queue.remove(w);
+      if (queue.isEmpty()) {
+        waiters.remove(k);
+      }
+    }
+    w.done = true;
+    waiting.decrementAndGet();
+  }
+}
@@ -12,14 +12,23 @@
 package com.carrotdata.redcarrot.redis;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.commands.FLUSHALL;
 import com.carrotdata.redcarrot.redis.commands.RedisCommand;
 import com.carrotdata.redcarrot.redis.commands.SHUTDOWN;
+import com.carrotdata.redcarrot.redis.commands.SPOP;
+import com.carrotdata.redcarrot.redis.commands.RedisCommand.ReplyType;
+import com.carrotdata.redcarrot.redis.keys.Evictor;
 import com.carrotdata.redcarrot.redis.util.Utils;
+import com.carrotdata.redcarrot.storage.WriteAheadLog;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 
@@ -60,6 +69,27 @@ public class CommandProcessor {
     }
   };
 
+  /*
+   * Buffer for write-ahead log records, which differ from requests
+   */
+  private static ThreadLocal<Long> logBufTLS = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      long ptr = UnsafeAccess.malloc(BUFFER_SIZE);
+      return ptr;
+    }
+  };
+
+  /*
+   * Sequence number of a write-ahead log record of the last command executed by the thread
+   */
+  private static ThreadLocal<long[]> logSequenceTLS = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() {
+      return new long[1];
+    }
+  };
+
   /*
    * Redis command map.
    */
@@ -71,6 +101,54 @@ public class CommandProcessor {
         }
       };
 
+  /*
+   * Commands which modify the data store, they are logged to a write-ahead log
+   */
+  private static final Set<String> WRITE_COMMANDS = new HashSet<String>(Arrays.asList("APPEND",
+    "BITFIELD", "BITOP", "DECR", "DECRBY", "DEL", "EXPIRE", "FLUSHALL", "GETDEL", "GETEX", "GETSET",
+    "HDEL", "HINCRBY", "HINCRBYFLOAT", "HMSET", "HSET", "HSETNX", "INCR", "INCRBY", "INCRBYFLOAT",
+    "LINSERT", "LMOVE", "LPOP", "LPUSH", "LPUSHX", "LREM", "LSET", "LTRIM", "MSET", "MSETNX",
+    "PSETEX", "RENAME", "RPOP", "RPOPLPUSH", "RPUSH", "RPUSHX", "SADD", "SBITOP", "SDIFFSTORE",
+    "SET", "SETBIT", "SETEX", "SETNX", "SETRANGE", "SETXX", "SINTERSTORE", "SMOVE", "SPOP", "SREM",
+    "SSETBIT", "SSETRANGE", "SUNIONSTORE", "ZADD", "ZINCRBY", "ZINTERSTORE", "ZPOPMAX", "ZPOPMIN",
+    "ZREM", "ZREMRANGEBYLEX", "ZREMRANGEBYRANK", "ZREMRANGEBYSCORE", "ZUNIONSTORE", "BLPOP",
+    "BRPOP", "BLMOVE", "BRPOPLPUSH", "BZPOPMIN", "BZPOPMAX", "PEXPIREAT"));
+
+  private static final ClassValue<Boolean> isWriteCommand = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      return WRITE_COMMANDS.contains(type.getSimpleName());
+    }
+  };
+
+  /*
+   * Write commands with more than one key, all arguments are locked (extra locks do no harm)
+   */
+  private static final Set<String> MULTI_KEY_COMMANDS = new HashSet<String>(Arrays.asList("BITOP",
+    "BLMOVE", "BLPOP", "BRPOP", "BRPOPLPUSH", "BZPOPMAX", "BZPOPMIN", "DEL", "LMOVE", "MSET",
+    "MSETNX", "RENAME", "RPOPLPUSH", "SBITOP", "SDIFFSTORE", "SINTERSTORE", "SMOVE", "SUNIONSTORE",
+    "ZINTERSTORE", "ZUNIONSTORE"));
+
+  private static final ClassValue<Boolean> isMultiKeyCommand = new ClassValue<Boolean>() {
+    @Override
+    protected Boolean computeValue(Class<?> type) {
+      return MULTI_KEY_COMMANDS.contains(type.getSimpleName());
+    }
+  };
+
+  /*
+   * Key locks (striped). When WAL is enabled, write command holds locks of its keys from
+   * execution till its record is appended, therefore commands modifying the same key are logged
+   * in the order they have been applied
+   */
+  private static final ReentrantLock[] keyLocks = new ReentrantLock[1024];
+
+  static {
+    for (int i = 0; i < keyLocks.length; i++) {
+      keyLocks[i] = new ReentrantLock();
+    }
+  }
+
   private static final byte[] WRONG_REQUEST_FORMAT = "-ERR: Wrong request format".getBytes();
   private static final byte[] UNSUPPORTED_COMMAND = "-ERR: Unsupported command: ".getBytes();
 
@@ -84,9 +162,10 @@ public class CommandProcessor {
 
   static int count = 0;
 
-  @SuppressWarnings("deprecation")
   public static boolean process(BigSortedMap storage, ByteBuffer in, ByteBuffer out) {
     count++;
+    // Block request can be left by a command executed outside of this method
+    BlockedClients.takeBlockRequest();
     long inbuf = inBufTLS.get();
     // Convert Redis request to a Carrot internal format
     boolean result = Utils.requestToCarrot(in, inbuf, BUFFER_SIZE);
@@ -95,30 +174,48 @@ public class CommandProcessor {
       out.put(WRONG_REQUEST_FORMAT);
       return false;
     }
-    HashMap<Key, RedisCommand> map = commandMapTLS.get();
-    Key key = getCommandKey(inbuf);
-    RedisCommand cmd = map.get(key);
+    RedisCommand cmd = getCommand(inbuf);
     if (cmd == null) {
+      Key key = getCommandKey(inbuf);
       String cmdName = com.carrotdata.redcarrot.util.Utils.toString(key.address, key.length);
-      try {
-        @SuppressWarnings("unchecked")
-        Class<RedisCommand> cls = (Class<RedisCommand>) Class
-            .forName("com.carrotdata.redcarrot.redis.commands." + cmdName);
-        cmd = cls.newInstance();
-        map.put(key, cmd);
-      } catch (Throwable e) {
-        out.put(UNSUPPORTED_COMMAND);
-        out.put(cmdName.getBytes());
-        out.put((byte) '\r');
-        out.put((byte) '\n');
-        return false;
-      }
+      out.put(UNSUPPORTED_COMMAND);
+      out.put(cmdName.getBytes());
+      out.put((byte) '\r');
+      out.put((byte) '\n');
+      return false;
     }
     long outbuf = outBufTLS.get();
-    // Execute Redis command
-    long start = System.nanoTime();
-    cmd.executeCommand(storage, inbuf, outbuf, BUFFER_SIZE);
-    executeTotal += System.nanoTime() - start;
+    boolean writeCommand = isWriteCommand.get(cmd.getClass());
+    if (writeCommand && Evictor.isMemoryLimitReached()) {
+      // Free memory for a command, which can allocate it
+      Evictor.evictIfNeeded(storage);
+    }
+    WriteAheadLog wal = writeCommand ? storage.getWAL() : null;
+    int[] locks = null;
+    if (wal != null) {
+      // Command is executed in the form it is logged
+      long request = WALRecords.toAbsoluteTTL(cmd, inbuf, logBufTLS.get(), BUFFER_SIZE);
+      if (request != inbuf) {
+        UnsafeAccess.copy(request, inbuf, requestSize(request));
+        cmd = getCommand(inbuf);
+      }
+      locks = lock(wal, cmd, inbuf);
+    }
+    try {
+      // Execute Redis command
+      long start = System.nanoTime();
+      cmd.executeCommand(storage, inbuf, outbuf, BUFFER_SIZE);
+      executeTotal += System.nanoTime() - start;
+      // Blocked command has not modified the data store, it is logged when served
+      if (wal != null && !BlockedClients.hasBlockRequest()
+          && UnsafeAccess.toByte(outbuf) != (byte) ReplyType.ERROR.ordinal()) {
+        logSequenceTLS.get()[0] = log(wal, cmd, inbuf, outbuf);
+      }
+    } finally {
+      if (wal != null) {
+        unlock(wal, cmd, locks);
+      }
+    }
     if (count % 10000 == 0) {
       // log.debug(" command exe avg={}", executeTotal / (1000L * count));
     }
@@ -133,6 +230,147 @@ public class CommandProcessor {
     return cmd instanceof SHUTDOWN;
   }
 
+  /**
+   * Get sequence number of a write-ahead log record of the last command executed by the thread
+   * and reset it
+   * @return sequence number, 0 - command has not been logged
+   */
+  static long takeLogSequence() {
+    long[] seq = logSequenceTLS.get();
+    long value = seq[0];
+    seq[0] = 0;
+    return value;
+  }
+
+  /**
+   * Appends executed command to the write-ahead log
+   * @param wal write-ahead log
+   * @param cmd command
+   * @param inbuf request
+   * @param outbuf reply
+   * @return record sequence number, 0 - if not logged
+   */
+  private static long log(WriteAheadLog wal, RedisCommand cmd, long inbuf, long outbuf) {
+    if (!(cmd instanceof SPOP)) {
+      return wal.append(inbuf, requestSize(inbuf));
+    }
+    // Members are chosen randomly, log them explicitly
+    long buf = logBufTLS.get();
+    int size = WALRecords.spopToSrem(inbuf, outbuf, buf, BUFFER_SIZE);
+    if (size < 0) {
+      buf = UnsafeAccess.malloc(-size);
+      size = WALRecords.spopToSrem(inbuf, outbuf, buf, -size);
+      long seq = wal.append(buf, size);
+      UnsafeAccess.free(buf);
+      return seq;
+    }
+    return size > 0 ? wal.append(buf, size) : 0;
+  }
+
+  /**
+   * Locks write command keys and WAL barrier (shared). FLUSHALL locks the barrier exclusively.
+   * @param wal write-ahead log
+   * @param cmd command
+   * @param inbuf request
+   * @return sorted distinct key lock indexes
+   */
+  private static int[] lock(WriteAheadLog wal, RedisCommand cmd, long inbuf) {
+    if (cmd instanceof FLUSHALL) {
+      wal.lockExclusive();
+      return null;
+    }
+    wal.lockShared();
+    int numArgs = UnsafeAccess.toInt(inbuf);
+    int numKeys = isMultiKeyCommand.get(cmd.getClass()) ? numArgs - 1 : Math.min(1, numArgs - 1);
+    int[] locks = new int[numKeys];
+    long ptr = inbuf + com.carrotdata.redcarrot.util.Utils.SIZEOF_INT;
+    // skip command name
+    ptr += com.carrotdata.redcarrot.util.Utils.SIZEOF_INT + UnsafeAccess.toInt(ptr);
+    for (int i = 0; i < numKeys; i++) {
+      int size = UnsafeAccess.toInt(ptr);
+      ptr += com.carrotdata.redcarrot.util.Utils.SIZEOF_INT;
+      int hash = com.carrotdata.redcarrot.util.Utils.murmurHash(ptr, size, 0);
+      locks[i] = (hash & 0x7fffffff) % keyLocks.length;
+      ptr += size;
+    }
+    // Lock in order, no deadlocks
+    Arrays.sort(locks);
+    int n = 0;
+    for (int i = 0; i < numKeys; i++) {
+      if (i == 0 || locks[i] != locks[i - 1]) {
+        locks[n++] = locks[i];
+        keyLocks[locks[i]].lock();
+      }
+    }
+    return n == numKeys ? locks : Arrays.copyOf(locks, n);
+  }
+
+  private static void unlock(WriteAheadLog wal, RedisCommand cmd, int[] locks) {
+    if (locks == null) {
+      wal.unlockExclusive();
+      return;
+    }
+    for (int i = locks.length - 1; i >= 0; i--) {
+      keyLocks[locks[i]].unlock();
+    }
+    wal.unlockShared();
+  }
+
+  /**
+   * Executes command in a Carrot internal format without a response conversion (WAL replay)
+   * @param storage data store
+   * @param inbuf request buffer
+   * @return true on success, false - unsupported command
+   */
+  public static boolean execute(BigSortedMap storage, long inbuf) {
+    RedisCommand cmd = getCommand(inbuf);
+    if (cmd == null) {
+      return false;
+    }
+    cmd.executeCommand(storage, inbuf, outBufTLS.get(), BUFFER_SIZE);
+    return true;
+  }
+
+  /**
+   * Get command instance for a request
+   * @param inbuf request buffer (Carrot format)
+   * @return command or null, if not supported
+   */
+  private static RedisCommand getCommand(long inbuf) {
+    HashMap<Key, RedisCommand> map = commandMapTLS.get();
+    Key key = getCommandKey(inbuf);
+    RedisCommand cmd = map.get(key);
+    if (cmd == null) {
+      String cmdName = com.carrotdata.redcarrot.util.Utils.toString(key.address, key.length);
+      try {
+        @SuppressWarnings("unchecked")
+        Class<RedisCommand> cls = (Class<RedisCommand>) Class
+            .forName("com.carrotdata.redcarrot.redis.commands." + cmdName);
+        cmd = cls.getDeclaredConstructor().newInstance();
+        // Key is reused, we need a copy of a command name
+        map.put(new Key(UnsafeAccess.allocAndCopy(key.address, key.length), key.length), cmd);
+      } catch (Throwable e) {
+        return null;
+      }
+    }
+    return cmd;
+  }
+
+  /**
+   * Calculates size of a request in a Carrot internal format
+   * @param inbuf request buffer
+   * @return size of a request
+   */
+  private static int requestSize(long inbuf) {
+    int num = UnsafeAccess.toInt(inbuf);
+    long ptr = inbuf + com.carrotdata.redcarrot.util.Utils.SIZEOF_INT;
+    for (int i = 0; i < num; i++) {
+      int size = UnsafeAccess.toInt(ptr);
+      ptr += com.carrotdata.redcarrot.util.Utils.SIZEOF_INT + size;
+    }
+    return (int) (ptr - inbuf);
+  }
+
   /**
    * Extract command name from an input buffer
    * @param inbuf input buffer
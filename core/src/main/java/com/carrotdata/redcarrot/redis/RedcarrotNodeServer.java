@@ -14,7 +14,6 @@ package com.carrotdata.redcarrot.redis;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.StandardSocketOptions;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
@@ -25,38 +24,23 @@ import java.util.function.Consumer;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
-import com.carrotdata.redcarrot.redis.util.Utils;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
+import com.carrotdata.redcarrot.storage.WriteAheadLog;
 
-/** Carrot node server (single thread) */
+/**
+ * Carrot node server. Connections are accepted by the node's main thread and are served by a pool
+ * of I/O threads (see {@link RequestHandlers}), pipelined requests are supported
+ */
 public class RedcarrotNodeServer implements Runnable {
   private static final Logger log = LogManager.getLogger(RedcarrotNodeServer.class);
 
-  static int bufferSize = 256 * 1024;
   static CountDownLatch readyToStartLatch;
-  /*
-   * Input buffer
-   */
-  static ThreadLocal<ByteBuffer> inBuf = new ThreadLocal<ByteBuffer>() {
-    @Override
-    protected ByteBuffer initialValue() {
-      return ByteBuffer.allocateDirect(bufferSize);
-    }
-  };
-
-  /*
-   * Output buffer
-   */
-  static ThreadLocal<ByteBuffer> outBuf = new ThreadLocal<ByteBuffer>() {
-    @Override
-    protected ByteBuffer initialValue() {
-      return ByteBuffer.allocateDirect(bufferSize);
-    }
-  };
 
   private String host;
   private int port;
   private BigSortedMap store;
   private Thread runner;
+  private RequestHandlers handlers;
 
   /**
    * @param host
@@ -116,30 +100,30 @@ public class RedcarrotNodeServer implements Runnable {
     serverSocket.register(selector, ops, null);
     log.debug("[{}] Node server started on port: {}]", Thread.currentThread().getName(), port);
 
+    int numThreads = RedisConf.getInstance().getWorkingThreadPoolSize();
+    handlers = RequestHandlers.create(store, numThreads, "carrot-node-" + port + "-io",
+      this::shutdownNode);
+    handlers.start();
+
     Consumer<SelectionKey> action = key -> {
       try {
-        if (!key.isValid()) return;
         if (key.isValid() && key.isAcceptable()) {
           SocketChannel client = serverSocket.accept();
+          if (client == null) return;
           // Adjusts this channel's blocking mode to false
           client.configureBlocking(false);
           client.setOption(StandardSocketOptions.TCP_NODELAY, true);
           client.setOption(StandardSocketOptions.SO_SNDBUF, 64 * 1024);
           client.setOption(StandardSocketOptions.SO_RCVBUF, 64 * 1024);
-          // Operation-set bit for read operations
-          client.register(selector, SelectionKey.OP_READ);
+          // Pass connection to I/O threads
+          handlers.register(client);
           log.debug("[{}] Connection Accepted: {}]", Thread.currentThread().getName(),
             client.getLocalAddress());
-        } else if (key.isValid() && key.isReadable()) {
-          // Check if it is in use
-          RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
-          if (att != null && att.inUse()) return;
-          // process request
-          processRequest(key);
         }
       } catch (IOException e) {
         log.error("StackTrace: ", e);
         log.error("Shutting down node ...");
+        handlers.shutdown();
         store.dispose();
         store = null;
         log.error("Bye-bye folks. See you soon :)");
@@ -153,117 +137,37 @@ public class RedcarrotNodeServer implements Runnable {
     }
   }
 
-  long totalReqTime = 0;
-  int ricCount = 0;
-  int iter = 0;
-
-  /**
-   * Process incoming request
-   * @param key selection key for a socket channel
-   */
-  private void processRequest(SelectionKey key) {
-    long startTime = System.nanoTime();
-    if (key.attachment() == null) {
-      key.attach(new RequestHandlers.Attachment());
-    }
-
-    SocketChannel channel = (SocketChannel) key.channel();
-    // Read request first
-    ByteBuffer in = inBuf.get();
-    ByteBuffer out = outBuf.get();
-    in.clear();
-    out.clear();
-
-    try {
-      long startCounter = System.nanoTime();
-      long max_wait_ns = 100000000; // 100ms
-      long startClock = 0;
-
-      while (true) {
-        iter++;
-        int num = channel.read(in);
-
-        if (num < 0) {
-          // End-Of-Stream - socket was closed, cancel the key
-          key.cancel();
-          break;
-        } else if (num == 0) {
-          if (System.nanoTime() - startCounter > max_wait_ns) {
-            break;
-          }
-          continue;
-        }
-        // Try to parse
-        int oldPos = in.position();
-        if (startClock == 0) startClock = System.nanoTime();
-        if (!requestIsComplete(in)) {
-          // restore position
-          in.position(oldPos);
-          in.limit(in.capacity());
-          continue;
-        }
-
-        ricCount++;
-
-        in.position(oldPos);
-        // Process request
-        boolean shutdown = CommandProcessor.process(store, in, out);
-
-        // TODO: this is poor man terminator - FIXME
-        if (shutdown) {
-          shutdownNode();
-        }
-        // send response back
-        out.flip();
-        while (out.hasRemaining()) {
-          channel.write(out);
-        }
-        break;
-      }
-    } catch (IOException e) {
-      String msg = e.getMessage();
-      if (!msg.equals("Connection reset by peer")) {
-        // TODO
-        log.error("StackTrace: ", e);
-      }
-      key.cancel();
-    } finally {
-      // Release selection key - ready for the next request
-      release(key);
-    }
-    totalReqTime += System.nanoTime() - startTime;
-  }
-
   private void shutdownNode() {
+    WriteAheadLog wal = store.getWAL();
+    if (wal != null) {
+      wal.close();
+    }
     log.info("CarrotDB Node gracefully shutdown");
     System.exit(0);
   }
 
-  /**
-   * Release key - mark it not in use
-   * @param key
-   */
-  void release(SelectionKey key) {
-    RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
-    att.setInUse(false);
-  }
-
-  /**
-   * Checks if request is complete
-   * @param in input data buffer
-   * @return true - complete, false - otherwise
-   */
-  private boolean requestIsComplete(ByteBuffer in) {
-    return Utils.requestIsComplete(in);
-  }
-
   /** Load data store */
   private void loadDataStore() {
     long start = System.currentTimeMillis();
+    RedisConf conf = RedisConf.getInstance();
+    // Compression codec and deallocators are set on startup (see RedcarrotMain)
     store = BigSortedMap.loadStore(host, port);
+    boolean loaded = store != null;
+    if (!loaded) {
+      log.error("[{}] loading data store failed, node starts with an empty store",
+        Thread.currentThread().getName());
+      store = new BigSortedMap(conf.getMaxMemoryLimit());
+    }
+    KeyDirectory.rebuildIfNeeded(store);
+    if (conf.isWALEnabled()) {
+      if (!loaded) {
+        log.warn("WAL records are not replayed: there is no snapshot to apply them to");
+      }
+      store.openWAL(conf.getWALDirForNode(host, port), loaded);
+    }
     long end = System.currentTimeMillis();
     log.debug("[{}] loaded data store in {}ms]", Thread.currentThread().getName(), end - start);
-    RedisConf conf = RedisConf.getInstance();
     store.setSnapshotDir(conf.getDataDirForNode(host, port));
+    store.startActiveExpire(conf.getExpireActiveInterval(), conf.getExpireActiveTime());
   }
 }
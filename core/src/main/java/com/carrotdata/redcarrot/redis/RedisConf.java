@@ -32,23 +32,53 @@ public class RedisConf {
   public static final String CONF_COMMAND_COUNT = "command.count";
   public static final String CONF_COMPRESSION_CODEC = "compression.codec";
   public static final String CONF_MAX_MEMORY_LIMIT = "max.memory.limit";
+  public static final String CONF_MAX_MEMORY_POLICY = "max.memory.policy";
+  public static final String CONF_MAX_MEMORY_SAMPLES = "max.memory.samples";
+  public static final String CONF_EXPIRE_ACTIVE_INTERVAL_MS = "expire.active.interval.ms";
+  public static final String CONF_EXPIRE_ACTIVE_TIME_MS = "expire.active.time.ms";
   public static final String CONF_ZSET_MAX_COMPACT_SIZE = "zset.compact.maxsize";
   public static final String CONF_SERVER_PORT = "server.port";
   public static final String CONF_THREAD_POOL_SIZE = "thread.pool.size";
 
   public static final String CONF_DATA_DIR_PATH = "data.dir.path";
   public static final String CONF_SNAPSHOT_INTERVAL_SECS = "snapshot.interval.seconds";
+  public static final String CONF_SNAPSHOT_THREADS = "snapshot.threads";
+  public static final String CONF_SNAPSHOT_PARTITION_SIZE = "snapshot.partition.size";
+  public static final String CONF_SNAPSHOT_MODE = "snapshot.mode";
+  public static final String CONF_SNAPSHOT_MAX_DELTAS = "snapshot.max.deltas";
+  public static final String CONF_SNAPSHOT_LOAD_MMAP = "snapshot.load.mmap";
   public static final String CONF_SERVER_LOG_DIR_PATH = "server.log.dir.path";
   public static final String CONF_SERVER_WAL_DIR_PATH = "server.wal.dir.path";
+  public static final String CONF_SERVER_WAL_ENABLED = "server.wal.enabled";
+  public static final String CONF_SERVER_WAL_FSYNC = "server.wal.fsync";
+  public static final String CONF_SERVER_WAL_FSYNC_INTERVAL_MS = "server.wal.fsync.interval.ms";
+  public static final String CONF_SERVER_WAL_SEGMENT_SIZE = "server.wal.segment.size";
   public static final String CONF_SERVER_TEST_MODE = "server.test.mode";
   
   public static final String CONF_MAX_BLOCK_SIZE = "max.block.size";
 
   public static final String CONF_MAX_EMBEDDED_KV_SIZE = "max.embedded.kv.size";
 
+  public static final String CONF_STORE_CONCURRENCY_MODE = "store.concurrency.mode";
+
   
   public static final int DEFAULT_SNAPSHOT_INTERVAL_SECS = 0; // no snapshots
+  public static final int DEFAULT_SNAPSHOT_THREADS =
+      Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+  /* Maximum number of index blocks in a snapshot partition file */
+  public static final int DEFAULT_SNAPSHOT_PARTITION_SIZE = 32;
+  /* Snapshot modes: 'full' - save all data, 'incremental' - save only modified partitions */
+  public static final String SNAPSHOT_MODE_FULL = "full";
+  public static final String SNAPSHOT_MODE_INCREMENTAL = "incremental";
+  public static final String DEFAULT_SNAPSHOT_MODE = SNAPSHOT_MODE_FULL;
+  public static final int DEFAULT_SNAPSHOT_MAX_DELTAS = 10;
+  public static final boolean DEFAULT_SNAPSHOT_LOAD_MMAP = false;
   public static final String DEFAULT_SERVER_WAL_DIR_PATH = "./WALs";
+  public static final boolean DEFAULT_SERVER_WAL_ENABLED = false;
+  /* WAL fsync policies: 'always' - before reply, 'interval' - every N ms, 'os' - OS decides */
+  public static final String DEFAULT_SERVER_WAL_FSYNC = "interval";
+  public static final int DEFAULT_SERVER_WAL_FSYNC_INTERVAL_MS = 1000;
+  public static final long DEFAULT_SERVER_WAL_SEGMENT_SIZE = 64 * 1024 * 1024;
   public static final String DEFAULT_SERVER_LOG_DIR_PATH = "./logs";
   public static final String DEFAULT_DATA_DIR_PATH = "./snapshots";
 
@@ -56,6 +86,12 @@ public class RedisConf {
   // As of v. 0.1
   public static final int DEFAULT_COMMAND_COUNT = 106;
   public static final long DEFAULT_MAX_MEMORY_LIMIT = 1024 * 1024 * 1024; // 1GB
+  /* Eviction policies: noeviction, allkeys-lru, allkeys-lfu, volatile-ttl, allkeys-random */
+  public static final String DEFAULT_MAX_MEMORY_POLICY = "noeviction";
+  public static final int DEFAULT_MAX_MEMORY_SAMPLES = 5;
+  /* Active expiration runs every 100ms (0 - disabled) for at most 25ms */
+  public static final int DEFAULT_EXPIRE_ACTIVE_INTERVAL_MS = 100;
+  public static final int DEFAULT_EXPIRE_ACTIVE_TIME_MS = 25;
   public static final String DEFAULT_COMPRESSION_CODEC = "none";
   public static final int DEFAULT_THREAD_POOL_SIZE =
       Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
@@ -65,10 +101,32 @@ public class RedisConf {
   public static final int DEFAULT_MAX_EMBEDDED_KV_SIZE = 512;
 
   public static final int DEFAULT_MAX_BLOCK_SIZE = 4096;
+
+  /* Store concurrency modes: 'map' - single map-wide lock, 'block' - index block level locks */
+  public static final String STORE_CONCURRENCY_MODE_MAP = "map";
+  public static final String STORE_CONCURRENCY_MODE_BLOCK = "block";
+  public static final String DEFAULT_STORE_CONCURRENCY_MODE = STORE_CONCURRENCY_MODE_MAP;
   
   /* Data block configuration section */
   /* Comma separated list of data block sizes */
   public static final String DATA_BLOCK_SIZES_KEY = "datablock.sizes";
+  /* Keep sparse record offset table in a data block free space for binary search */
+  public static final String DATA_BLOCK_OFFSETS_ENABLED_KEY = "datablock.offsets.enabled";
+  public static final boolean DEFAULT_DATA_BLOCK_OFFSETS_ENABLED = true;
+  /* Keep sparse element offset table in packed set and hash values for binary search */
+  public static final String VALUE_OFFSETS_ENABLED_KEY = "value.offsets.enabled";
+  public static final boolean DEFAULT_VALUE_OFFSETS_ENABLED = true;
+
+  /* Memory allocator configuration section */
+  /* Data and index blocks allocator: 'slab' - size-class slabs, 'unsafe' - direct allocations */
+  public static final String MEMORY_ALLOCATOR_KEY = "memory.allocator";
+  public static final String DEFAULT_MEMORY_ALLOCATOR = "unsafe";
+  /* Slab size of a slab allocator */
+  public static final String MEMORY_SLAB_SIZE_KEY = "memory.slab.size";
+  public static final int DEFAULT_MEMORY_SLAB_SIZE = 256 * 1024;
+  /* Number of free slots per size class cached by a thread */
+  public static final String MEMORY_SLAB_CACHE_SIZE_KEY = "memory.slab.cache.size";
+  public static final int DEFAULT_MEMORY_SLAB_CACHE_SIZE = 32;
 
   private static RedisConf conf;
   private Properties props;
@@ -190,6 +248,15 @@ public class RedisConf {
     return getIntProperty(CONF_MAX_EMBEDDED_KV_SIZE, DEFAULT_MAX_EMBEDDED_KV_SIZE);
   }
   
+  /**
+   * Is index block level concurrency mode enabled for data stores
+   * @return true - yes, false - map-wide lock is used
+   */
+  public boolean isBlockLockingEnabled() {
+    String mode = getStringProperty(CONF_STORE_CONCURRENCY_MODE, DEFAULT_STORE_CONCURRENCY_MODE);
+    return STORE_CONCURRENCY_MODE_BLOCK.equalsIgnoreCase(mode.trim());
+  }
+
   /**
    * Maximum size of ZSet in a compact representation
    * @return maximum size
@@ -227,6 +294,38 @@ public class RedisConf {
     return getLongProperty(CONF_MAX_MEMORY_LIMIT, DEFAULT_MAX_MEMORY_LIMIT);
   }
 
+  /**
+   * Get eviction policy, which is used when maximum data store size is reached
+   * @return eviction policy name
+   */
+  public String getMaxMemoryPolicy() {
+    return getStringProperty(CONF_MAX_MEMORY_POLICY, DEFAULT_MAX_MEMORY_POLICY);
+  }
+
+  /**
+   * Get number of data blocks sampled to select an eviction victim
+   * @return number of samples
+   */
+  public int getMaxMemorySamples() {
+    return getIntProperty(CONF_MAX_MEMORY_SAMPLES, DEFAULT_MAX_MEMORY_SAMPLES);
+  }
+
+  /**
+   * Get interval between active expiration cycles
+   * @return interval in ms, 0 - active expiration is disabled
+   */
+  public int getExpireActiveInterval() {
+    return getIntProperty(CONF_EXPIRE_ACTIVE_INTERVAL_MS, DEFAULT_EXPIRE_ACTIVE_INTERVAL_MS);
+  }
+
+  /**
+   * Get maximum duration of an active expiration cycle
+   * @return time in ms
+   */
+  public int getExpireActiveTime() {
+    return getIntProperty(CONF_EXPIRE_ACTIVE_TIME_MS, DEFAULT_EXPIRE_ACTIVE_TIME_MS);
+  }
+
   /**
    * Get compression codec
    * @return codec
@@ -280,6 +379,51 @@ public class RedisConf {
     return getIntProperty(CONF_SNAPSHOT_INTERVAL_SECS, DEFAULT_SNAPSHOT_INTERVAL_SECS);
   }
 
+  /**
+   * Get number of threads (and key range partitions) used to save and load a store snapshot
+   * @return number of threads
+   */
+  public int getSnapshotThreads() {
+    return Math.max(1, getIntProperty(CONF_SNAPSHOT_THREADS, DEFAULT_SNAPSHOT_THREADS));
+  }
+
+  /**
+   * Get maximum number of index blocks in a snapshot partition (file)
+   * @return maximum partition size
+   */
+  public int getSnapshotPartitionSize() {
+    return Math.max(1,
+      getIntProperty(CONF_SNAPSHOT_PARTITION_SIZE, DEFAULT_SNAPSHOT_PARTITION_SIZE));
+  }
+
+  /**
+   * Is incremental snapshot mode the default one (for SAVE, BGSAVE)
+   * @return true - incremental, false - full
+   */
+  public boolean isSnapshotIncremental() {
+    String mode = getStringProperty(CONF_SNAPSHOT_MODE, DEFAULT_SNAPSHOT_MODE);
+    return SNAPSHOT_MODE_INCREMENTAL.equalsIgnoreCase(mode.trim());
+  }
+
+  /**
+   * Get maximum number of incremental snapshots after which partitions are merged into a new
+   * full snapshot
+   * @return maximum number of incremental snapshots
+   */
+  public int getSnapshotMaxDeltas() {
+    return getIntProperty(CONF_SNAPSHOT_MAX_DELTAS, DEFAULT_SNAPSHOT_MAX_DELTAS);
+  }
+
+  /**
+   * Is snapshot loaded as memory mapped files (data blocks are copied into memory on update)
+   * @return true - memory mapped, false - loaded into memory
+   */
+  public boolean isSnapshotLoadMmap() {
+    String value =
+        getStringProperty(CONF_SNAPSHOT_LOAD_MMAP, Boolean.toString(DEFAULT_SNAPSHOT_LOAD_MMAP));
+    return Boolean.parseBoolean(value);
+  }
+
   /**
    * Get log directory
    * @return log directory
@@ -296,6 +440,61 @@ public class RedisConf {
     return getStringProperty(CONF_SERVER_WAL_DIR_PATH, DEFAULT_SERVER_WAL_DIR_PATH);
   }
 
+  /**
+   * Get WAL directory for the store ID
+   * @param storeId store ID
+   * @return path as a string
+   */
+  public String getWALDir(int storeId) {
+    return getWALDir() + File.separator + storeId;
+  }
+
+  /**
+   * Get WAL directory for the node
+   * @param server node's server address
+   * @param port node's server port
+   * @return path as a string
+   */
+  public String getWALDirForNode(String server, int port) {
+    String value = getStringProperty(CONF_SERVER_WAL_DIR_PATH + "." + server + "." + port, null);
+    if (value != null) return value;
+    return getWALDir() + File.separator + server + File.separator + port;
+  }
+
+  /**
+   * Is write-ahead log enabled
+   * @return true or false
+   */
+  public boolean isWALEnabled() {
+    String value =
+        getStringProperty(CONF_SERVER_WAL_ENABLED, Boolean.toString(DEFAULT_SERVER_WAL_ENABLED));
+    return Boolean.parseBoolean(value);
+  }
+
+  /**
+   * Get WAL fsync policy: always, interval, os
+   * @return fsync policy
+   */
+  public String getWALSyncPolicy() {
+    return getStringProperty(CONF_SERVER_WAL_FSYNC, DEFAULT_SERVER_WAL_FSYNC);
+  }
+
+  /**
+   * Get WAL fsync interval in milliseconds (for 'interval' policy)
+   * @return interval
+   */
+  public int getWALSyncInterval() {
+    return getIntProperty(CONF_SERVER_WAL_FSYNC_INTERVAL_MS, DEFAULT_SERVER_WAL_FSYNC_INTERVAL_MS);
+  }
+
+  /**
+   * Get WAL segment size, WAL rolls over to a new segment file after reaching it
+   * @return segment size in bytes
+   */
+  public long getWALSegmentSize() {
+    return getLongProperty(CONF_SERVER_WAL_SEGMENT_SIZE, DEFAULT_SERVER_WAL_SEGMENT_SIZE);
+  }
+
   /**
    * Get test mode
    * @return test mode
@@ -349,6 +548,50 @@ public class RedisConf {
     return slots;
   }
 
+  /**
+   * Is data block record offset table enabled
+   * @return true - yes, false - otherwise
+   */
+  public boolean isDataBlockOffsetsEnabled() {
+    String value = getStringProperty(DATA_BLOCK_OFFSETS_ENABLED_KEY,
+      Boolean.toString(DEFAULT_DATA_BLOCK_OFFSETS_ENABLED));
+    return Boolean.parseBoolean(value);
+  }
+
+  /**
+   * Is element offset table of packed set and hash values enabled
+   * @return true - yes, false - otherwise
+   */
+  public boolean isValueOffsetsEnabled() {
+    String value = getStringProperty(VALUE_OFFSETS_ENABLED_KEY,
+      Boolean.toString(DEFAULT_VALUE_OFFSETS_ENABLED));
+    return Boolean.parseBoolean(value);
+  }
+
+  /**
+   * Get memory allocator of data and index blocks
+   * @return allocator name ('slab' or 'unsafe')
+   */
+  public String getMemoryAllocator() {
+    return getStringProperty(MEMORY_ALLOCATOR_KEY, DEFAULT_MEMORY_ALLOCATOR);
+  }
+
+  /**
+   * Get slab size of a slab allocator
+   * @return slab size
+   */
+  public int getMemorySlabSize() {
+    return getIntProperty(MEMORY_SLAB_SIZE_KEY, DEFAULT_MEMORY_SLAB_SIZE);
+  }
+
+  /**
+   * Get number of free slots per size class cached by a thread (slab allocator)
+   * @return cache size
+   */
+  public int getMemorySlabCacheSize() {
+    return getIntProperty(MEMORY_SLAB_CACHE_SIZE_KEY, DEFAULT_MEMORY_SLAB_CACHE_SIZE);
+  }
+
   /** Get data block sizes */
   public int[] getDataBlockSizes() {
     String value = getStringProperty(DATA_BLOCK_SIZES_KEY, null);
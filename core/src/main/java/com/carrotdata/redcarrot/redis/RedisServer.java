@@ -24,6 +24,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.redis.lists.Lists;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
+import com.carrotdata.redcarrot.storage.WriteAheadLog;
 
 /**
  * Simple network server for MVP (minimum viable product) Scalability and performance is not a goal
@@ -119,18 +121,17 @@ public class RedisServer {
           // Adjusts this channel's blocking mode to false
           client.configureBlocking(false);
           client.setOption(StandardSocketOptions.TCP_NODELAY, true);
-          // Operation-set bit for read operations
-          client.register(selector, SelectionKey.OP_READ);
+          // Pass connection to I/O threads
+          service.register(client);
           log.debug("Connection Accepted: {}", client.getLocalAddress());
-        } else if (key.isValid() && key.isReadable()) {
-          // Check if it is in use
-          RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
-          if (att != null && att.inUse()) return;
-          service.submit(key);
         }
       } catch (IOException e) {
         log.debug("Shutting down server ...");
         service.shutdown();
+        WriteAheadLog wal = store.getWAL();
+        if (wal != null) {
+          wal.close();
+        }
         store.dispose();
         store = null;
         service = null;
@@ -159,17 +160,25 @@ public class RedisServer {
   private static void initStore(String confFilePath) {
     RedisConf conf = RedisConf.getInstance(confFilePath);
     long limit = conf.getMaxMemoryLimit();
-    store = BigSortedMap.loadStore(0);
-    if (store == null) {
-      store = new BigSortedMap(limit);
-    }
-    // TODO: Load data from a configured snapshot directory
     BigSortedMap.setCompressionCodec(conf.getCompressionCodec());
     // Register custom memory deallocator for LIST data type
     Lists.registerDeallocator();
+    store = BigSortedMap.loadStore(0);
+    boolean loaded = store != null;
+    if (!loaded) {
+      log.error("Loading store failed, server starts with an empty store");
+      store = new BigSortedMap(limit);
+    }
+    KeyDirectory.rebuildIfNeeded(store);
+    if (conf.isWALEnabled()) {
+      if (!loaded) {
+        log.warn("WAL records are not replayed: there is no snapshot to apply them to");
+      }
+      store.openWAL(conf.getWALDir(0), loaded);
+    }
   }
 
-  private static void startRequestHandlers() {
+  private static void startRequestHandlers() throws IOException {
     RedisConf conf = RedisConf.getInstance();
     int numThreads = conf.getWorkingThreadPoolSize();
     service = RequestHandlers.create(store, numThreads);
@@ -1,11 +1,11 @@
 /*
- * Copyright (C) 2024-present Carrot Data, Inc. 
+ * Copyright (C) 2024-present Carrot Data, Inc.
  * <p>This program is free software: you can redistribute it
  * and/or modify it under the terms of the Server Side Public License, version 1, as published by
  * MongoDB, Inc.
  * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
  * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
- * PURPOSE. See the Server Side Public License for more details. 
+ * PURPOSE. See the Server Side Public License for more details.
  * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
  * <http://www.mongodb.com/licensing/server-side-public-license>.
  */
@@ -13,267 +13,176 @@ package com.carrotdata.redcarrot.redis;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Arrays;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
-import com.carrotdata.redcarrot.redis.util.Utils;
 
+/**
+ * Request handlers - a pool of I/O threads, each thread runs its own selector. Accepted
+ * connections are distributed between threads round-robin. Every thread reads all available data
+ * from a connection, executes all complete (pipelined) requests and sends responses back in a
+ * single write. Connections blocked by blocking commands do not occupy a thread (see
+ * {@link BlockedClients}). With ALWAYS write-ahead log sync policy, replies to pipelined requests
+ * are held until records of all their write commands are synced, the connection is parked in the
+ * meantime.
+ */
 public class RequestHandlers {
 
   private static final Logger log = LogManager.getLogger(RequestHandlers.class);
 
   static long epochStartNanos = System.nanoTime();
 
+  /** Connection state */
   static class Attachment {
     private long accessTime;
-    private boolean inUse = false;
 
-    Attachment() {
-      accessTime = System.nanoTime() - epochStartNanos;
-      setInUse(true);
-    }
+    /*
+     * Input buffer, keeps data which has not been processed yet (partial request)
+     */
+    private ByteBuffer in;
 
-    boolean inUse() {
-      return inUse;
-    }
+    /*
+     * Pending output (in read mode) - response data which has not been sent yet
+     */
+    private ByteBuffer out;
 
-    void setInUse(boolean b) {
-      this.inUse = b;
-    }
+    /*
+     * Blocked request or null
+     */
+    private BlockedClients.Waiter waiter;
 
-    long lastAccess() {
-      return accessTime;
+    Attachment(int bufferSize) {
+      this.in = ByteBuffer.allocateDirect(bufferSize);
+      access();
     }
 
-    void access() {
-      accessTime = System.nanoTime() - epochStartNanos;
+    ByteBuffer input() {
+      return in;
     }
-  }
-
-  /*
-   * Request handlers
-   */
-  WorkThread[] workers;
 
-  private RequestHandlers(BigSortedMap store, int numThreads) {
-    workers = new WorkThread[numThreads];
-    for (int i = 0; i < numThreads; i++) {
-      workers[i] = new WorkThread(store);
+    /** Doubles input buffer size, keeps all the data */
+    void expandInput() {
+      ByteBuffer buf = ByteBuffer.allocateDirect(2 * in.capacity());
+      in.flip();
+      buf.put(in);
+      in = buf;
     }
-  }
 
-  public static RequestHandlers create(BigSortedMap store, int numThreads) {
-    return new RequestHandlers(store, numThreads);
-  }
+    ByteBuffer pendingOutput() {
+      return out;
+    }
 
-  public void start() {
-    Arrays.stream(workers).forEach(Thread::start);
-    log.debug("Started request handlers: count={}", workers.length);
-  }
+    boolean hasPendingOutput() {
+      return out != null && out.hasRemaining();
+    }
 
-  /**
-   * Submit next socket channel for processing
-   * @param key selection key for socket channel
-   */
-  public void submit(SelectionKey key) {
-    while (true) {
-      for (int i = 0; i < workers.length; i++) {
-        if (workers[i].isBusy()) continue;
-        workers[i].nextKey(key);
-        return;
+    /**
+     * Appends response data to a pending output
+     * @param src data to append
+     */
+    void addPendingOutput(ByteBuffer src) {
+      if (out == null) {
+        out = ByteBuffer.allocate(src.remaining());
+      } else {
+        out.compact();
+        if (out.remaining() < src.remaining()) {
+          ByteBuffer buf = ByteBuffer.allocate(out.position() + src.remaining());
+          out.flip();
+          buf.put(out);
+          out = buf;
+        }
       }
+      out.put(src);
+      out.flip();
     }
-  }
 
-  /** Shutdown service */
-  public void shutdown() {
-    // TODO
-  }
-}
+    /** Releases pending output buffer, when all data has been sent */
+    void releasePendingOutput() {
+      out = null;
+    }
 
-class WorkThread extends Thread {
+    boolean isBlocked() {
+      return waiter != null;
+    }
 
-  private static final Logger log = LogManager.getLogger(WorkThread.class);
+    BlockedClients.Waiter waiter() {
+      return waiter;
+    }
 
-  /*
-   * Busy loop max iteration
-   */
-  private static final long BUSY_LOOP_MAX = 10000;
+    void block(BlockedClients.Waiter waiter) {
+      this.waiter = waiter;
+    }
 
-  static int bufferSize = 256 * 1024;
+    void unblock() {
+      this.waiter = null;
+    }
 
-  /*
-   * Input buffer
-   */
-  static ThreadLocal<ByteBuffer> inBuf = new ThreadLocal<ByteBuffer>() {
-    @Override
-    protected ByteBuffer initialValue() {
-      return ByteBuffer.allocateDirect(bufferSize);
+    long lastAccess() {
+      return accessTime;
     }
-  };
 
-  /*
-   * Output buffer
-   */
-  static ThreadLocal<ByteBuffer> outBuf = new ThreadLocal<ByteBuffer>() {
-    @Override
-    protected ByteBuffer initialValue() {
-      return ByteBuffer.allocateDirect(bufferSize);
+    void access() {
+      accessTime = System.nanoTime() - epochStartNanos;
     }
-  };
+  }
 
   /*
-   * Data store
+   * Request handlers
    */
-  private final BigSortedMap store;
-
-  /** Next selection key atomic reference */
-  private final AtomicReference<SelectionKey> nextKey = new AtomicReference<>();
+  WorkThread[] workers;
 
   /*
-   * Busy flag
+   * Next worker to assign a new connection to
    */
-  private volatile boolean busy = false;
+  private final AtomicInteger nextWorker = new AtomicInteger();
 
-  /**
-   * Default constructor
-   * @param store data store
-   */
-  WorkThread(BigSortedMap store) {
-    this.store = store;
+  private RequestHandlers(BigSortedMap store, int numThreads, String name,
+      Runnable shutdownHook) throws IOException {
+    workers = new WorkThread[numThreads];
+    BlockedClients blocked = new BlockedClients(store);
+    for (int i = 0; i < numThreads; i++) {
+      workers[i] = new WorkThread(store, blocked, name + "-" + i, shutdownHook);
+    }
   }
 
-  /**
-   * Is thread busy working?
-   * @return busy
-   */
-  boolean isBusy() {
-    return busy;
+  public static RequestHandlers create(BigSortedMap store, int numThreads) throws IOException {
+    return create(store, numThreads, "carrot-io", null);
   }
 
   /**
-   * Submits next selection key for processing
-   * @param key selection key
-   */
-  void nextKey(SelectionKey key) {
-    key.attach(new RequestHandlers.Attachment());
-    while (!nextKey.compareAndSet(null, key)) {
-      Thread.onSpinWait();
-    }
-  }
-
-  /**
-   * Release key - mark it not in use
-   * @param key
+   * Creates request handlers
+   * @param store data store
+   * @param numThreads number of I/O threads
+   * @param name thread name prefix
+   * @param shutdownHook called after response to SHUTDOWN command has been sent (can be null)
+   * @return request handlers
+   * @throws IOException
    */
-  void release(SelectionKey key) {
-    RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
-    att.setInUse(false);
+  public static RequestHandlers create(BigSortedMap store, int numThreads, String name,
+      Runnable shutdownHook) throws IOException {
+    return new RequestHandlers(store, numThreads, name, shutdownHook);
   }
 
-  /** Busy loop with expo-linear back off */
-  private SelectionKey waitForKey() {
-    long counter = 0;
-    long timeout = 0;
-    SelectionKey key = null;
-    // wait for next task
-    while ((key = nextKey.getAndSet(null)) == null) {
-      // Exponential (actually, linear :)) back off
-      if (counter < BUSY_LOOP_MAX) {
-        counter++;
-        Thread.onSpinWait();
-      } else {
-        timeout += 1;
-        if (timeout > 10) timeout = 10;
-        try {
-          Thread.sleep(timeout);
-        } catch (InterruptedException e) {
-        }
-      }
-    }
-    return key;
+  public void start() {
+    Arrays.stream(workers).forEach(Thread::start);
+    log.debug("Started request handlers: count={}", workers.length);
   }
 
-  /*
-   * Main loop
+  /**
+   * Register new connection for processing
+   * @param channel accepted socket channel (non-blocking)
    */
-  public void run() {
-
-    // infinite loop
-    while (true) {
-      SelectionKey key = null;
-      busy = false;
-      key = waitForKey();
-      // We are busy now
-      busy = true;
-      SocketChannel channel = (SocketChannel) key.channel();
-      // Read request first
-      ByteBuffer in = inBuf.get();
-      ByteBuffer out = outBuf.get();
-      in.clear();
-      out.clear();
-
-      try {
-        long startCounter = System.nanoTime();
-        long max_wait_ns = 100000000; // 100ms
-
-        while (true) {
-          int num = channel.read(in);
-          if (num < 0) {
-            // End-Of-Stream - socket was closed, cancel the key
-            key.cancel();
-            break;
-          } else if (num == 0) {
-            if (System.nanoTime() - startCounter > max_wait_ns) {
-              break;
-            }
-            continue;
-          }
-          // Try to parse
-          int oldPos = in.position();
-          if (!requestIsComplete(in)) {
-            // restore position
-            in.position(oldPos);
-            continue;
-          }
-          in.position(oldPos);
-          // Process request
-          CommandProcessor.process(store, in, out);
-          // send response back
-          out.flip();
-          int limit = out.limit();
-          byte[] bb = new byte[limit];
-          out.get(bb);
-          log.debug("SERVER:\n{}", new String(bb));
-          out.position(0);
-          out.limit(limit);
-          while (out.hasRemaining()) {
-            channel.write(out);
-          }
-          break;
-        }
-      } catch (IOException e) {
-        String msg = e.getMessage();
-        if (!msg.equals("Connection reset by peer")) {
-          // TODO
-          log.error("StackTrace: ", e);
-        }
-      } finally {
-        // Release selection key - ready for the next request
-        release(key);
-        nextKey.set(null);
-        // set busy flag to false
-        busy = false;
-      }
-    }
+  public void register(SocketChannel channel) {
+    int index = Math.floorMod(nextWorker.getAndIncrement(), workers.length);
+    workers[index].register(channel);
   }
 
-  private boolean requestIsComplete(ByteBuffer in) {
-    return Utils.requestIsComplete(in);
+  /** Shutdown service */
+  public void shutdown() {
+    Arrays.stream(workers).forEach(WorkThread::shutdown);
   }
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis;
+
+import com.carrotdata.redcarrot.redis.commands.EXPIRE;
+import com.carrotdata.redcarrot.redis.commands.GETEX;
+import com.carrotdata.redcarrot.redis.commands.PSETEX;
+import com.carrotdata.redcarrot.redis.commands.RedisCommand;
+import com.carrotdata.redcarrot.redis.commands.RedisCommand.ReplyType;
+import com.carrotdata.redcarrot.redis.commands.SET;
+import com.carrotdata.redcarrot.redis.commands.SETEX;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Makes write-ahead log records deterministic: replay of a record must give the same result as
+ * the original command execution. Relative expiration times (EXPIRE, SETEX, PSETEX, SET EX|PX,
+ * GETEX EX|PX) are converted to absolute ones before execution - the command is executed in the
+ * converted form, which is logged. SPOP removes random members, it is logged as SREM of the
+ * members it has returned. All requests are in a Carrot internal format.
+ */
+final class WALRecords {
+
+  private static final byte[] PEXPIREAT = "PEXPIREAT".getBytes();
+  private static final byte[] SET = "SET".getBytes();
+  private static final byte[] PXAT = "PXAT".getBytes();
+  private static final byte[] SREM = "SREM".getBytes();
+
+  private WALRecords() {
+  }
+
+  /**
+   * Converts relative expiration time of a request to an absolute one
+   * @param cmd command
+   * @param inbuf request
+   * @param buf buffer for a converted request
+   * @param bufSize buffer size
+   * @return converted request address (buf) or inbuf, if request has not been converted
+   */
+  static long toAbsoluteTTL(RedisCommand cmd, long inbuf, long buf, int bufSize) {
+    int numArgs = UnsafeAccess.toInt(inbuf);
+    try {
+      if (cmd instanceof EXPIRE && (numArgs == 3 || numArgs == 4)) {
+        // EXPIRE key seconds [NX|XX|GT|LT] -> PEXPIREAT key time [NX|XX|GT|LT]
+        long expireAt = System.currentTimeMillis() + 1000 * toLong(arg(inbuf, 2));
+        return convert(inbuf, buf, bufSize, PEXPIREAT, new int[] { 1, -1, 3 }, expireAt);
+      } else if ((cmd instanceof SETEX || cmd instanceof PSETEX) && numArgs == 4) {
+        // SETEX key seconds value -> SET key value PXAT time
+        long ttl = toLong(arg(inbuf, 2));
+        long expireAt = System.currentTimeMillis() + (cmd instanceof SETEX ? 1000 * ttl : ttl);
+        return convert(inbuf, buf, bufSize, SET, new int[] { 1, 3, -2, -1 }, expireAt);
+      } else if (cmd instanceof SET && numArgs >= 5) {
+        // SET key value EX|PX ttl ... -> SET key value PXAT time ...
+        return convertTTLSection(inbuf, buf, bufSize, 3);
+      } else if (cmd instanceof GETEX && numArgs == 4) {
+        // GETEX key EX|PX ttl -> GETEX key PXAT time
+        return convertTTLSection(inbuf, buf, bufSize, 2);
+      }
+    } catch (NumberFormatException e) {
+      // Command fails, it is not logged
+    }
+    return inbuf;
+  }
+
+  /**
+   * Creates SREM request for members removed by SPOP
+   * @param inbuf SPOP request
+   * @param outbuf SPOP reply
+   * @param buf buffer for SREM request
+   * @param bufSize buffer size
+   * @return SREM request size, 0 - nothing has been removed, negative - buffer is too small
+   *         (minus required size)
+   */
+  static int spopToSrem(long inbuf, long outbuf, long buf, int bufSize) {
+    long key = arg(inbuf, 1);
+    int keySize = Utils.SIZEOF_INT + UnsafeAccess.toInt(key);
+    int type = UnsafeAccess.toByte(outbuf);
+    long ptr = outbuf + Utils.SIZEOF_BYTE;
+    int count;
+    if (type == ReplyType.BULK_STRING.ordinal()) {
+      // Single member: [SIZE][VALUE], size is -1 for NULL
+      if (UnsafeAccess.toInt(ptr) < 0) {
+        return 0;
+      }
+      count = 1;
+    } else {
+      // VARRAY: [SERIALIZED SIZE][COUNT] then members [VSIZE][VALUE]
+      ptr += Utils.SIZEOF_INT;
+      count = UnsafeAccess.toInt(ptr);
+      ptr += Utils.SIZEOF_INT;
+    }
+    if (count <= 0) {
+      return 0;
+    }
+    // Calculate request size
+    long p = ptr;
+    int required = Utils.SIZEOF_INT + Utils.SIZEOF_INT + SREM.length + keySize;
+    for (int i = 0; i < count; i++) {
+      int size = memberSize(type, p);
+      p += memberOffset(type, size) + size;
+      required += Utils.SIZEOF_INT + size;
+    }
+    if (required > bufSize) {
+      return -required;
+    }
+    UnsafeAccess.putInt(buf, count + 2);
+    long dst = putArg(buf + Utils.SIZEOF_INT, SREM);
+    UnsafeAccess.copy(key, dst, keySize);
+    dst += keySize;
+    for (int i = 0; i < count; i++) {
+      int size = memberSize(type, ptr);
+      ptr += memberOffset(type, size);
+      UnsafeAccess.putInt(dst, size);
+      UnsafeAccess.copy(ptr, dst + Utils.SIZEOF_INT, size);
+      dst += Utils.SIZEOF_INT + size;
+      ptr += size;
+    }
+    return (int) (dst - buf);
+  }
+
+  private static int memberSize(int type, long ptr) {
+    return type == ReplyType.BULK_STRING.ordinal() ? UnsafeAccess.toInt(ptr) : Utils.readUVInt(ptr);
+  }
+
+  private static int memberOffset(int type, int size) {
+    return type == ReplyType.BULK_STRING.ordinal() ? Utils.SIZEOF_INT : Utils.sizeUVInt(size);
+  }
+
+  /**
+   * Replaces EX|PX section of a request with PXAT
+   * @param inbuf request
+   * @param buf buffer for a converted request
+   * @param bufSize buffer size
+   * @param index index of a TTL section argument
+   * @return converted request or inbuf
+   */
+  private static long convertTTLSection(long inbuf, long buf, int bufSize, int index) {
+    long flag = arg(inbuf, index);
+    int flagSize = UnsafeAccess.toInt(flag);
+    flag += Utils.SIZEOF_INT;
+    long expireAt;
+    if (isFlag(flag, flagSize, RedisCommand.EX_FLAG, RedisCommand.EX_FLAG_LOWER,
+      RedisCommand.EX_LENGTH)) {
+      expireAt = System.currentTimeMillis() + 1000 * toLong(arg(inbuf, index + 1));
+    } else if (isFlag(flag, flagSize, RedisCommand.PX_FLAG, RedisCommand.PX_FLAG_LOWER,
+      RedisCommand.PX_LENGTH)) {
+      expireAt = System.currentTimeMillis() + toLong(arg(inbuf, index + 1));
+    } else {
+      return inbuf;
+    }
+    int numArgs = UnsafeAccess.toInt(inbuf);
+    // Arguments of a converted request, -2 - PXAT, -1 - expiration time
+    int[] args = new int[numArgs - 1];
+    for (int i = 1, j = 0; i < numArgs; i++, j++) {
+      args[j] = i == index ? -2 : i == index + 1 ? -1 : i;
+    }
+    return convert(inbuf, buf, bufSize, null, args, expireAt);
+  }
+
+  /**
+   * Creates converted request
+   * @param inbuf original request
+   * @param buf buffer for a converted request
+   * @param bufSize buffer size
+   * @param name new command name or null (keep the original one)
+   * @param args arguments: index of an original argument, -1 - expiration time, -2 - PXAT flag
+   * @param expireAt expiration time
+   * @return converted request (buf) or inbuf, if it does not fit the buffer
+   */
+  private static long convert(long inbuf, long buf, int bufSize, byte[] name, int[] args,
+      long expireAt) {
+    int numArgs = UnsafeAccess.toInt(inbuf);
+    byte[] time = Long.toString(expireAt).getBytes();
+    // Upper bound: original request + PXAT + time + new name
+    long required = requestEnd(inbuf) - inbuf + 2 * Utils.SIZEOF_INT + PXAT.length + time.length
+        + (name != null ? name.length : 0);
+    if (required > bufSize) {
+      return inbuf;
+    }
+    int count = 0;
+    for (int i : args) {
+      if (i < numArgs) count++;
+    }
+    UnsafeAccess.putInt(buf, count + 1);
+    long dst = buf + Utils.SIZEOF_INT;
+    if (name != null) {
+      dst = putArg(dst, name);
+    } else {
+      dst = copyArg(arg(inbuf, 0), dst);
+    }
+    for (int i : args) {
+      if (i == -1) {
+        dst = putArg(dst, time);
+      } else if (i == -2) {
+        dst = putArg(dst, PXAT);
+      } else if (i < numArgs) {
+        dst = copyArg(arg(inbuf, i), dst);
+      }
+    }
+    return buf;
+  }
+
+  private static boolean isFlag(long ptr, int size, long flag, long flagLower, int flagSize) {
+    return size == flagSize && (Utils.compareTo(flag, flagSize, ptr, size) == 0
+        || Utils.compareTo(flagLower, flagSize, ptr, size) == 0);
+  }
+
+  private static long toLong(long arg) {
+    return Utils.strToLong(arg + Utils.SIZEOF_INT, UnsafeAccess.toInt(arg));
+  }
+
+  /**
+   * Get argument address ([SIZE][VALUE])
+   * @param inbuf request
+   * @param index argument index (0 - command name)
+   * @return address
+   */
+  private static long arg(long inbuf, int index) {
+    long ptr = inbuf + Utils.SIZEOF_INT;
+    for (int i = 0; i < index; i++) {
+      ptr += Utils.SIZEOF_INT + UnsafeAccess.toInt(ptr);
+    }
+    return ptr;
+  }
+
+  private static long requestEnd(long inbuf) {
+    return arg(inbuf, UnsafeAccess.toInt(inbuf));
+  }
+
+  private static long copyArg(long arg, long dst) {
+    int size = Utils.SIZEOF_INT + UnsafeAccess.toInt(arg);
+    UnsafeAccess.copy(arg, dst, size);
+    return dst + size;
+  }
+
+  private static long putArg(long dst, byte[] value) {
+    UnsafeAccess.putInt(dst, value.length);
+    UnsafeAccess.copy(value, 0, dst + Utils.SIZEOF_INT, value.length);
+    return dst + Utils.SIZEOF_INT + value.length;
+  }
+}
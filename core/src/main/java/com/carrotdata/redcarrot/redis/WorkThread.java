@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.util.TimerWheel;
+import com.carrotdata.redcarrot.redis.util.Utils;
+import com.carrotdata.redcarrot.storage.WriteAheadLog;
+
+/**
+ * I/O thread of {@link RequestHandlers}: runs its own selector, reads requests from connections
+ * registered with it, executes them and writes replies back.
+ */
+class WorkThread extends Thread {
+
+  private static final Logger log = LogManager.getLogger(WorkThread.class);
+
+  private static final byte[] WRONG_REQUEST_FORMAT = "-ERR: Wrong request format\r\n".getBytes();
+
+  /*
+   * Initial size of a connection's input buffer
+   */
+  static int bufferSize = 64 * 1024;
+
+  /*
+   * Maximum size of a single command response
+   */
+  static int maxResponseSize = 2 * 1024 * 1024;
+
+  /*
+   * Timer wheel: number of slots and tick duration in ms
+   */
+  static int timerSlots = 512;
+
+  static long timerTick = 10;
+
+  /*
+   * Output buffer, collects responses for all pipelined requests
+   */
+  private final ByteBuffer out = ByteBuffer.allocateDirect(2 * maxResponseSize);
+
+  /*
+   * Data store
+   */
+  private final BigSortedMap store;
+
+  /*
+   * I/O selector
+   */
+  private final Selector selector;
+
+  /*
+   * New connections, which have not been registered with the selector yet
+   */
+  private final Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+
+  /*
+   * Clients blocked on keys
+   */
+  private final BlockedClients blocked;
+
+  /*
+   * Blocked connections of this thread served by other threads
+   */
+  private final Queue<BlockedClients.Waiter> unblocked = new ConcurrentLinkedQueue<>();
+
+  /*
+   * Timeouts of blocked connections of this thread
+   */
+  private final TimerWheel<BlockedClients.Waiter> timers =
+      new TimerWheel<>(timerSlots, timerTick, System.currentTimeMillis());
+
+  /*
+   * Buffer for replies to blocked clients
+   */
+  private ByteBuffer serveBuffer;
+
+  /*
+   * Called on SHUTDOWN command
+   */
+  private final Runnable shutdownHook;
+
+  private volatile boolean stopped = false;
+
+  /**
+   * Default constructor
+   * @param store data store
+   * @param blocked blocked clients of the data store
+   * @param name thread name
+   * @param shutdownHook shutdown hook (can be null)
+   * @throws IOException
+   */
+  WorkThread(BigSortedMap store, BlockedClients blocked, String name, Runnable shutdownHook)
+      throws IOException {
+    super(name);
+    this.store = store;
+    this.blocked = blocked;
+    this.shutdownHook = shutdownHook;
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Submits new connection, connection is registered with the selector by this thread
+   * @param channel socket channel
+   */
+  void register(SocketChannel channel) {
+    newConnections.add(channel);
+    selector.wakeup();
+  }
+
+  /**
+   * Submits blocked connection which has been served, its reply is sent by this thread
+   * @param w waiter
+   */
+  void unblock(BlockedClients.Waiter w) {
+    unblocked.add(w);
+    selector.wakeup();
+  }
+
+  void shutdown() {
+    stopped = true;
+    selector.wakeup();
+  }
+
+  /*
+   * Main loop
+   */
+  public void run() {
+    try {
+      while (!stopped) {
+        selector.select(this::processKey, timers.size() > 0 ? timers.getTick() : 0);
+        registerNewConnections();
+        processUnblocked();
+        timers.advance(System.currentTimeMillis(), this::expire);
+      }
+    } catch (IOException e) {
+      log.error("StackTrace: ", e);
+    } finally {
+      selector.keys().forEach(this::close);
+      try {
+        selector.close();
+      } catch (IOException e) {
+        log.error("StackTrace: ", e);
+      }
+    }
+  }
+
+  private void registerNewConnections() {
+    SocketChannel channel;
+    while ((channel = newConnections.poll()) != null) {
+      try {
+        channel.register(selector, SelectionKey.OP_READ, new RequestHandlers.Attachment(bufferSize));
+      } catch (ClosedChannelException e) {
+        log.error("StackTrace: ", e);
+      }
+    }
+  }
+
+  private void processUnblocked() {
+    BlockedClients.Waiter w;
+    while ((w = unblocked.poll()) != null) {
+      resume(w, w.reply);
+    }
+  }
+
+  private void expire(BlockedClients.Waiter w) {
+    if (blocked.expire(w)) {
+      resume(w, w.timeoutReply);
+    }
+  }
+
+  /**
+   * Sends reply to a blocked request and resumes processing of a connection
+   * @param w waiter
+   * @param reply reply
+   */
+  private void resume(BlockedClients.Waiter w, byte[] reply) {
+    SelectionKey key = w.key;
+    if (!key.isValid()) {
+      return;
+    }
+    SocketChannel channel = (SocketChannel) key.channel();
+    RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
+    att.unblock();
+    try {
+      out.clear();
+      out.put(reply);
+      write(channel, att);
+      if (att.hasPendingOutput()) {
+        key.interestOps(SelectionKey.OP_WRITE);
+        return;
+      }
+      // Requests pipelined after the blocking one
+      processRequests(key, channel, att);
+    } catch (IOException e) {
+      close(key);
+    }
+  }
+
+  /**
+   * Handles I/O event for a connection
+   * @param key selection key
+   */
+  private void processKey(SelectionKey key) {
+    if (!key.isValid()) return;
+    SocketChannel channel = (SocketChannel) key.channel();
+    RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
+    att.access();
+    try {
+      if (key.isWritable()) {
+        if (!writePendingOutput(channel, att)) {
+          return;
+        }
+        // All pending data has been sent, resume reading
+        key.interestOps(SelectionKey.OP_READ);
+      } else if (key.isReadable()) {
+        ByteBuffer in = att.input();
+        if (!in.hasRemaining()) {
+          // Request does not fit the buffer
+          att.expandInput();
+          in = att.input();
+        }
+        if (channel.read(in) < 0) {
+          // End-Of-Stream - socket was closed
+          close(key);
+          return;
+        }
+      }
+      processRequests(key, channel, att);
+    } catch (IOException e) {
+      String msg = e.getMessage();
+      if (!"Connection reset by peer".equals(msg)) {
+        log.error("StackTrace: ", e);
+      }
+      close(key);
+    }
+  }
+
+  /**
+   * Executes all complete requests in a connection's input buffer. Responses are collected in the
+   * output buffer and sent together. If the socket can not accept all the data, the rest is kept
+   * as connection's pending output and processing is suspended until it is sent.
+   * @param key selection key
+   * @param channel socket channel
+   * @param att connection state
+   * @throws IOException
+   */
+  private void processRequests(SelectionKey key, SocketChannel channel,
+      RequestHandlers.Attachment att) throws IOException {
+    if (att.isBlocked()) {
+      // Keep input until the blocked request is served
+      return;
+    }
+    ByteBuffer in = att.input();
+    int limit = in.position();
+    int off = 0;
+    boolean shutdown = false;
+    out.clear();
+    // Sequence number of the last WAL record, which must be synced before replies are sent
+    long syncSeq = 0;
+
+    while (off < limit && !att.hasPendingOutput()) {
+      int size = Utils.requestSize(in, off, limit);
+      if (size == 0) {
+        // Partial request - wait for more data
+        break;
+      } else if (size < 0) {
+        // We can not find the next request's boundary - discard all data
+        out.put(WRONG_REQUEST_FORMAT);
+        off = limit;
+        break;
+      }
+      if (out.remaining() < maxResponseSize) {
+        if (syncSeq > 0) {
+          // Replies can not be sent yet
+          break;
+        }
+        write(channel, att);
+        if (att.hasPendingOutput()) {
+          break;
+        }
+      }
+      // Response is written to the output buffer starting at its current position
+      ByteBuffer response = out.slice();
+      shutdown = CommandProcessor.process(store, request(in, off, size), response);
+      BlockedClients.BlockRequest req = BlockedClients.takeBlockRequest();
+      if (req != null && syncSeq > 0) {
+        // Blocked request has not modified anything, it is executed again after replies to
+        // previous requests are sent
+        break;
+      } else if (req != null) {
+        // Nothing to pop - the reply is sent when the request is served or times out
+        park(key, att, in, off, size, response, req);
+        off += size;
+        break;
+      }
+      long seq = CommandProcessor.takeLogSequence();
+      WriteAheadLog wal = store.getWAL();
+      if (seq > 0 && wal != null && wal.getSyncPolicy() == WriteAheadLog.SyncPolicy.ALWAYS) {
+        syncSeq = seq;
+      }
+      out.position(out.position() + response.position());
+      off += size;
+      serveBlocked();
+      if (shutdown) {
+        break;
+      }
+    }
+    // Keep unprocessed data only
+    in.limit(limit);
+    in.position(off);
+    in.compact();
+
+    if (syncSeq > 0) {
+      parkUntilSynced(key, att, syncSeq);
+    } else {
+      write(channel, att);
+    }
+    if (att.hasPendingOutput()) {
+      key.interestOps(SelectionKey.OP_WRITE);
+    }
+    // Elements can be added before a connection has been parked
+    serveBlocked();
+    if (shutdown && shutdownHook != null) {
+      shutdownHook.run();
+    }
+  }
+
+  /**
+   * Parks a connection
+   * @param key selection key
+   * @param att connection state
+   * @param in input buffer
+   * @param off offset of a blocking request
+   * @param size size of a blocking request
+   * @param response reply to the request (sent on timeout)
+   * @param req block request
+   */
+  private void park(SelectionKey key, RequestHandlers.Attachment att, ByteBuffer in, int off,
+      int size, ByteBuffer response, BlockedClients.BlockRequest req) {
+    byte[] request = new byte[size];
+    ByteBuffer buf = in.duplicate();
+    buf.limit(off + size);
+    buf.position(off);
+    buf.get(request);
+    byte[] timeoutReply = new byte[response.position()];
+    response.flip();
+    response.get(timeoutReply);
+    BlockedClients.Waiter w = blocked.park(this, key, request, timeoutReply, req);
+    att.block(w);
+    if (w.deadline > 0) {
+      timers.add(w, w.deadline);
+    }
+  }
+
+  /**
+   * Parks a connection until a WAL record is synced, replies in the output buffer are sent after
+   * that
+   * @param key selection key
+   * @param att connection state
+   * @param seq record sequence number
+   */
+  private void parkUntilSynced(SelectionKey key, RequestHandlers.Attachment att, long seq) {
+    out.flip();
+    byte[] reply = new byte[out.remaining()];
+    out.get(reply);
+    out.clear();
+    BlockedClients.Waiter w = new BlockedClients.Waiter(this, key, reply);
+    att.block(w);
+    if (!store.getWAL().deferUntilSynced(seq, () -> unblock(w))) {
+      // Synced already, the rest of the input is processed when the reply is sent
+      unblock(w);
+    }
+  }
+
+  /**
+   * Serves clients blocked on keys signalled by executed commands
+   */
+  private void serveBlocked() {
+    if (!BlockedClients.hasReadyKeys()) {
+      return;
+    }
+    if (serveBuffer == null) {
+      serveBuffer = ByteBuffer.allocateDirect(maxResponseSize);
+    }
+    blocked.serveReadyKeys(serveBuffer);
+  }
+
+  /**
+   * Creates request view on input buffer: command processor expects request starting at 0 and
+   * position set to the end of a request
+   */
+  private ByteBuffer request(ByteBuffer in, int off, int size) {
+    if (in.get(off) != '*') {
+      // In-line request: skip line terminator
+      while (size > 0 && (in.get(off + size - 1) == '\n' || in.get(off + size - 1) == '\r')) {
+        size--;
+      }
+    }
+    ByteBuffer buf = in.duplicate();
+    buf.limit(off + size);
+    buf.position(off);
+    buf = buf.slice();
+    buf.position(size);
+    return buf;
+  }
+
+  /**
+   * Sends output buffer data. What can not be sent now is appended to the connection's pending
+   * output
+   */
+  private void write(SocketChannel channel, RequestHandlers.Attachment att) throws IOException {
+    out.flip();
+    if (!att.hasPendingOutput()) {
+      while (out.hasRemaining() && channel.write(out) > 0)
+        ;
+    }
+    if (out.hasRemaining()) {
+      att.addPendingOutput(out);
+    }
+    out.clear();
+  }
+
+  /**
+   * Sends pending output
+   * @return true if all the data has been sent
+   */
+  private boolean writePendingOutput(SocketChannel channel, RequestHandlers.Attachment att)
+      throws IOException {
+    ByteBuffer pending = att.pendingOutput();
+    if (pending != null) {
+      while (pending.hasRemaining() && channel.write(pending) > 0)
+        ;
+      if (pending.hasRemaining()) {
+        return false;
+      }
+      att.releasePendingOutput();
+    }
+    return true;
+  }
+
+  private void close(SelectionKey key) {
+    RequestHandlers.Attachment att = (RequestHandlers.Attachment) key.attachment();
+    if (att != null && att.isBlocked()) {
+      blocked.cancel(att.waiter());
+      att.unblock();
+    }
+    key.cancel();
+    try {
+      key.channel().close();
+    } catch (IOException e) {
+      // ignore
+    }
+  }
+}
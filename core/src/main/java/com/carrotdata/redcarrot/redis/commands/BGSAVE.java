@@ -12,16 +12,21 @@
 package com.carrotdata.redcarrot.redis.commands;
 
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.RedisConf;
 import com.carrotdata.redcarrot.redis.server.Server;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 
 public class BGSAVE implements RedisCommand {
 
-  /** Saves just one DB */
+  /**
+   * Saves just one DB. BGSAVE [SCHEDULE|FULL|INCREMENTAL], FULL and INCREMENTAL override default
+   * snapshot mode
+   */
   @Override
   public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
     boolean schedule = false;
+    boolean incremental = RedisConf.getInstance().isSnapshotIncremental();
     int numArgs = UnsafeAccess.toInt(inDataPtr);
     if (numArgs > 2) {
       Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
@@ -31,19 +36,25 @@ public class BGSAVE implements RedisCommand {
     inDataPtr += Utils.SIZEOF_INT;
     inDataPtr = skip(inDataPtr, 1);
 
-    // We ignore schedule flag for now
     if (numArgs == 2) {
       int size = UnsafeAccess.toInt(inDataPtr);
       inDataPtr += Utils.SIZEOF_INT;
-      if (Utils.compareTo(SCHEDULE_FLAG, SCHEDULE_LENGTH, inDataPtr, size) != 0
-          && Utils.compareTo(SCHEDULE_FLAG_LOWER, SCHEDULE_LENGTH, inDataPtr, size) != 0) {
+      if (Utils.compareTo(SCHEDULE_FLAG, SCHEDULE_LENGTH, inDataPtr, size) == 0
+          || Utils.compareTo(SCHEDULE_FLAG_LOWER, SCHEDULE_LENGTH, inDataPtr, size) == 0) {
+        schedule = true;
+      } else if (Utils.compareTo(FULL_FLAG, FULL_LENGTH, inDataPtr, size) == 0
+          || Utils.compareTo(FULL_FLAG_LOWER, FULL_LENGTH, inDataPtr, size) == 0) {
+        incremental = false;
+      } else if (Utils.compareTo(INCREMENTAL_FLAG, INCREMENTAL_LENGTH, inDataPtr, size) == 0
+          || Utils.compareTo(INCREMENTAL_FLAG_LOWER, INCREMENTAL_LENGTH, inDataPtr, size) == 0) {
+        incremental = true;
+      } else {
         Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_UNSUPPORTED_COMMAND,
           ": BGSAVE " + Utils.toString(inDataPtr, size));
         return;
       }
-      schedule = true;
     }
-    boolean result = Server.BGSAVE(map, schedule);
+    boolean result = Server.BGSAVE(map, schedule, incremental);
     if (!result) {
       // Error - snapshot is running and schedule == false
       Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_SNAPSHOT_RUNNING);
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.strings.Strings;
+import com.carrotdata.redcarrot.redis.util.BitFieldOp;
+import com.carrotdata.redcarrot.redis.util.BitFieldOp.Overflow;
+import com.carrotdata.redcarrot.redis.util.BitFieldOp.Type;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * BITFIELD key [GET type offset] [SET type offset value] [INCRBY type offset increment]
+ * [OVERFLOW WRAP|SAT|FAIL]
+ * <p>
+ * Reply is an array of integers, where FAIL overflows are NULLs, it is converted to a Redis format
+ * by the command itself.
+ */
+public class BITFIELD implements RedisCommand {
+
+  /* Maximum string size is 512MB */
+  private static final long MAX_BIT_OFFSET = 512L * 1024 * 1024 * Utils.BITS_PER_BYTE;
+
+  private Object[] result;
+  boolean autoConvert = false;
+
+  private void reset() {
+    // Reset state
+    autoConvert = false;
+    result = null;
+  }
+
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+
+    reset();
+
+    try {
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs < 2) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        autoConvert = true;
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+      // read key
+      int keySize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long keyPtr = inDataPtr;
+      inDataPtr += keySize;
+
+      List<BitFieldOp> ops = new ArrayList<BitFieldOp>();
+      Overflow overflow = Overflow.WRAP;
+      int count = 2;
+      while (count < numArgs) {
+        int valSize = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        long valPtr = inDataPtr;
+        inDataPtr += valSize;
+        count++;
+        if (Utils.compareTo(OVERFLOW_FLAG, OVERFLOW_LENGTH, valPtr, valSize) == 0
+            || Utils.compareTo(OVERFLOW_FLAG_LOWER, OVERFLOW_LENGTH, valPtr, valSize) == 0) {
+          if (count == numArgs) {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+            autoConvert = true;
+            return;
+          }
+          valSize = UnsafeAccess.toInt(inDataPtr);
+          inDataPtr += Utils.SIZEOF_INT;
+          valPtr = inDataPtr;
+          inDataPtr += valSize;
+          count++;
+          if (Utils.compareTo(WRAP_FLAG, WRAP_LENGTH, valPtr, valSize) == 0
+              || Utils.compareTo(WRAP_FLAG_LOWER, WRAP_LENGTH, valPtr, valSize) == 0) {
+            overflow = Overflow.WRAP;
+          } else if (Utils.compareTo(SAT_FLAG, SAT_LENGTH, valPtr, valSize) == 0
+              || Utils.compareTo(SAT_FLAG_LOWER, SAT_LENGTH, valPtr, valSize) == 0) {
+            overflow = Overflow.SAT;
+          } else if (Utils.compareTo(FAIL_FLAG, FAIL_LENGTH, valPtr, valSize) == 0
+              || Utils.compareTo(FAIL_FLAG_LOWER, FAIL_LENGTH, valPtr, valSize) == 0) {
+            overflow = Overflow.FAIL;
+          } else {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+              ": " + Utils.toString(valPtr, valSize));
+            autoConvert = true;
+            return;
+          }
+          continue;
+        }
+        Type type = null;
+        if (Utils.compareTo(GET_FLAG, GET_LENGTH, valPtr, valSize) == 0
+            || Utils.compareTo(GET_FLAG_LOWER, GET_LENGTH, valPtr, valSize) == 0) {
+          type = Type.GET;
+        } else if (Utils.compareTo(SET_FLAG, SET_LENGTH, valPtr, valSize) == 0
+            || Utils.compareTo(SET_FLAG_LOWER, SET_LENGTH, valPtr, valSize) == 0) {
+          type = Type.SET;
+        } else if (Utils.compareTo(INCRBY_FLAG, INCRBY_LENGTH, valPtr, valSize) == 0
+            || Utils.compareTo(INCRBY_FLAG_LOWER, INCRBY_LENGTH, valPtr, valSize) == 0) {
+          type = Type.INCRBY;
+        } else {
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+            ": " + Utils.toString(valPtr, valSize));
+          autoConvert = true;
+          return;
+        }
+        int required = type == Type.GET ? 2 : 3;
+        if (numArgs < count + required) {
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+          autoConvert = true;
+          return;
+        }
+        // integer type
+        valSize = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        valPtr = inDataPtr;
+        inDataPtr += valSize;
+        boolean signed = valSize > 0 && (UnsafeAccess.toByte(valPtr) | 0x20) == 'i';
+        int bits = bits(valPtr, valSize);
+        if (bits == 0) {
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_BITFIELD_TYPE,
+            ": " + Utils.toString(valPtr, valSize));
+          autoConvert = true;
+          return;
+        }
+        // offset
+        valSize = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        valPtr = inDataPtr;
+        inDataPtr += valSize;
+        long offset;
+        if (valSize > 0 && UnsafeAccess.toByte(valPtr) == '#') {
+          offset = Utils.strToLong(valPtr + 1, valSize - 1) * bits;
+        } else {
+          offset = Utils.strToLong(valPtr, valSize);
+        }
+        if (offset < 0 || offset + bits > MAX_BIT_OFFSET) {
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_OUT_OF_RANGE,
+            ": " + Utils.toString(valPtr, valSize));
+          autoConvert = true;
+          return;
+        }
+        long value = 0;
+        if (type != Type.GET) {
+          valSize = UnsafeAccess.toInt(inDataPtr);
+          inDataPtr += Utils.SIZEOF_INT;
+          value = Utils.strToLong(inDataPtr, valSize);
+          inDataPtr += valSize;
+        }
+        count += required;
+        ops.add(new BitFieldOp(type, signed, bits, offset, value, overflow));
+      }
+      Strings.BITFIELD(map, keyPtr, keySize, ops);
+      result = new Object[ops.size()];
+      for (int i = 0; i < result.length; i++) {
+        BitFieldOp op = ops.get(i);
+        result[i] = op.failed ? null : Long.valueOf(op.result);
+      }
+      // Carrot reply is not used, it only marks successful execution
+      INT_REPLY(outBufferPtr, result.length);
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+      autoConvert = true;
+    }
+  }
+
+  /**
+   * Parses integer type: i1-i64 or u1-u63
+   * @param ptr type address
+   * @param size type size
+   * @return number of bits or 0, if type is not valid
+   */
+  private int bits(long ptr, int size) {
+    if (size < 2) {
+      return 0;
+    }
+    int c = UnsafeAccess.toByte(ptr) | 0x20;
+    if (c != 'i' && c != 'u') {
+      return 0;
+    }
+    long bits;
+    try {
+      bits = Utils.strToLong(ptr + 1, size - 1);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+    int max = c == 'i' ? Long.SIZE : Long.SIZE - 1;
+    return bits < 1 || bits > max ? 0 : (int) bits;
+  }
+
+  /** Do automatic conversion? */
+  public boolean autoconvertToRedis() {
+    return autoConvert;
+  }
+
+  @Override
+  public void convertToRedis(ByteBuffer buf) {
+    com.carrotdata.redcarrot.redis.util.Utils.serializeTypedArray(result, buf);
+  }
+}
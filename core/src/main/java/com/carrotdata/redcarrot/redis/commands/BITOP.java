@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.strings.Strings;
+import com.carrotdata.redcarrot.redis.util.BitOp;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+public class BITOP implements RedisCommand {
+
+  /**
+   * BITOP AND|OR|XOR|NOT destkey key [key ...]
+   */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    int numArgs = UnsafeAccess.toInt(inDataPtr);
+    if (numArgs < 4) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+      return;
+    }
+    inDataPtr += Utils.SIZEOF_INT;
+    // skip command name
+    inDataPtr = skip(inDataPtr, 1);
+    // read operation
+    int opSize = UnsafeAccess.toInt(inDataPtr);
+    inDataPtr += Utils.SIZEOF_INT;
+    long opPtr = inDataPtr;
+    inDataPtr += opSize;
+    BitOp op = null;
+    if (Utils.compareTo(AND_FLAG, AND_LENGTH, opPtr, opSize) == 0
+        || Utils.compareTo(AND_FLAG_LOWER, AND_LENGTH, opPtr, opSize) == 0) {
+      op = BitOp.AND;
+    } else if (Utils.compareTo(OR_FLAG, OR_LENGTH, opPtr, opSize) == 0
+        || Utils.compareTo(OR_FLAG_LOWER, OR_LENGTH, opPtr, opSize) == 0) {
+      op = BitOp.OR;
+    } else if (Utils.compareTo(XOR_FLAG, XOR_LENGTH, opPtr, opSize) == 0
+        || Utils.compareTo(XOR_FLAG_LOWER, XOR_LENGTH, opPtr, opSize) == 0) {
+      op = BitOp.XOR;
+    } else if (Utils.compareTo(NOT_FLAG, NOT_LENGTH, opPtr, opSize) == 0
+        || Utils.compareTo(NOT_FLAG_LOWER, NOT_LENGTH, opPtr, opSize) == 0) {
+      op = BitOp.NOT;
+    } else {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+        ": " + Utils.toString(opPtr, opSize));
+      return;
+    }
+    if (op == BitOp.NOT && numArgs != 4) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+      return;
+    }
+    // destination key goes first
+    long[] keyPtrs = Utils.loadPointers(inDataPtr, numArgs - 2);
+    int[] keySizes = Utils.loadSizes(inDataPtr, numArgs - 2);
+    long size = Strings.BITOP(map, op, keyPtrs, keySizes);
+    INT_REPLY(outBufferPtr, size);
+  }
+}
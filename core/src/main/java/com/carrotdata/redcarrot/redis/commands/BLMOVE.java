@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
+import com.carrotdata.redcarrot.redis.lists.Lists;
+import com.carrotdata.redcarrot.redis.lists.Lists.Side;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+public class BLMOVE implements RedisCommand {
+
+  /**
+   * BLMOVE source destination LEFT|RIGHT LEFT|RIGHT timeout. If source is empty, the connection is
+   * blocked until timeout expires or an element is pushed to the source (see
+   * {@link BlockedClients})
+   */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    try {
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs != 6) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+      // read src key
+      int srcKeySize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long srcKeyPtr = inDataPtr;
+      inDataPtr += srcKeySize;
+      // read dst key
+      int dstKeySize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long dstKeyPtr = inDataPtr;
+      inDataPtr += dstKeySize;
+
+      Side srcSide = getSide(inDataPtr);
+      inDataPtr = skip(inDataPtr, 1);
+      Side dstSide = getSide(inDataPtr);
+      inDataPtr = skip(inDataPtr, 1);
+      if (srcSide == null || dstSide == null) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT);
+        return;
+      }
+      long timeout = getTimeout(inDataPtr);
+      if (timeout < 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_NEGATIVE_TIMEOUT);
+        return;
+      }
+      int off = Utils.SIZEOF_BYTE + Utils.SIZEOF_INT;
+      int size = Lists.LMOVE(map, srcKeyPtr, srcKeySize, dstKeyPtr, dstKeySize, srcSide, dstSide,
+        outBufferPtr + off, outBufferSize - off);
+      UnsafeAccess.putByte(outBufferPtr, (byte) ReplyType.BULK_STRING.ordinal());
+      UnsafeAccess.putInt(outBufferPtr + Utils.SIZEOF_BYTE, size);
+      if (size >= 0) {
+        BlockedClients.signalKeyReady(dstKeyPtr, dstKeySize);
+      } else {
+        BlockedClients.block(new long[] { srcKeyPtr }, new int[] { srcKeySize }, timeout);
+      }
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+    }
+  }
+
+  private Side getSide(long ptr) {
+    int size = UnsafeAccess.toInt(ptr);
+    ptr += Utils.SIZEOF_INT;
+    if (Utils.compareTo(LEFT_FLAG, LEFT_LENGTH, ptr, size) == 0
+        || Utils.compareTo(LEFT_FLAG_LOWER, LEFT_LENGTH, ptr, size) == 0) {
+      return Side.LEFT;
+    } else if (Utils.compareTo(RIGHT_FLAG, RIGHT_LENGTH, ptr, size) == 0
+        || Utils.compareTo(RIGHT_FLAG_LOWER, RIGHT_LENGTH, ptr, size) == 0) {
+      return Side.RIGHT;
+    }
+    return null;
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
+import com.carrotdata.redcarrot.redis.lists.Lists;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+public class BRPOP implements RedisCommand {
+
+  /**
+   * BRPOP key [key ...] timeout. If all lists are empty, the connection is blocked until
+   * timeout expires or an element is pushed to one of the lists (see {@link BlockedClients})
+   */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    try {
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs < 3) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+      int numKeys = numArgs - 2;
+      long[] keyPtrs = Utils.loadPointers(inDataPtr, numKeys);
+      int[] keySizes = Utils.loadSizes(inDataPtr, numKeys);
+      inDataPtr = skip(inDataPtr, numKeys);
+      long timeout = getTimeout(inDataPtr);
+      if (timeout < 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_NEGATIVE_TIMEOUT);
+        return;
+      }
+      for (int i = 0; i < numKeys; i++) {
+        // ARRAY: [type][size][2] [key size][key] [value size][value]
+        int off = Utils.SIZEOF_BYTE + 3 * Utils.SIZEOF_INT + keySizes[i] + Utils.SIZEOF_INT;
+        int size = Lists.RPOP(map, keyPtrs[i], keySizes[i], outBufferPtr + off,
+          outBufferSize - off);
+        if (size < 0 || size > outBufferSize - off) {
+          continue;
+        }
+        long ptr = outBufferPtr;
+        UnsafeAccess.putByte(ptr, (byte) ReplyType.ARRAY.ordinal());
+        ptr += Utils.SIZEOF_BYTE;
+        UnsafeAccess.putInt(ptr, off + size);
+        ptr += Utils.SIZEOF_INT;
+        UnsafeAccess.putInt(ptr, 2);
+        ptr += Utils.SIZEOF_INT;
+        UnsafeAccess.putInt(ptr, keySizes[i]);
+        ptr += Utils.SIZEOF_INT;
+        UnsafeAccess.copy(keyPtrs[i], ptr, keySizes[i]);
+        ptr += keySizes[i];
+        UnsafeAccess.putInt(ptr, size);
+        return;
+      }
+      // Reply on timeout
+      NULL_ARRAY_REPLY(outBufferPtr);
+      BlockedClients.block(keyPtrs, keySizes, timeout);
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+    }
+  }
+}
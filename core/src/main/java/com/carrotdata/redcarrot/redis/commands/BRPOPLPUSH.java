@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
+import com.carrotdata.redcarrot.redis.lists.Lists;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+public class BRPOPLPUSH implements RedisCommand {
+
+  /**
+   * BRPOPLPUSH source destination timeout. If source is empty, the connection is blocked until
+   * timeout expires or an element is pushed to the source (see {@link BlockedClients})
+   */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    try {
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs != 4) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+      // read src key
+      int srcKeySize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long srcKeyPtr = inDataPtr;
+      inDataPtr += srcKeySize;
+      // read dst key
+      int dstKeySize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long dstKeyPtr = inDataPtr;
+      inDataPtr += dstKeySize;
+      long timeout = getTimeout(inDataPtr);
+      if (timeout < 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_NEGATIVE_TIMEOUT);
+        return;
+      }
+      int off = Utils.SIZEOF_BYTE + Utils.SIZEOF_INT;
+      int size = Lists.RPOPLPUSH(map, srcKeyPtr, srcKeySize, dstKeyPtr, dstKeySize,
+        outBufferPtr + off, outBufferSize - off);
+      UnsafeAccess.putByte(outBufferPtr, (byte) ReplyType.BULK_STRING.ordinal());
+      UnsafeAccess.putInt(outBufferPtr + Utils.SIZEOF_BYTE, size);
+      if (size >= 0) {
+        BlockedClients.signalKeyReady(dstKeyPtr, dstKeySize);
+      } else {
+        BlockedClients.block(new long[] { srcKeyPtr }, new int[] { srcKeySize }, timeout);
+      }
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
+import com.carrotdata.redcarrot.redis.zsets.ZSets;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+public class BZPOPMAX implements RedisCommand {
+
+  /**
+   * BZPOPMAX key [key ...] timeout. If all sorted sets are empty, the connection is blocked until
+   * timeout expires or a member is added to one of the sets (see {@link BlockedClients})
+   */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    try {
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs < 3) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+      int numKeys = numArgs - 2;
+      long[] keyPtrs = Utils.loadPointers(inDataPtr, numKeys);
+      int[] keySizes = Utils.loadSizes(inDataPtr, numKeys);
+      inDataPtr = skip(inDataPtr, numKeys);
+      long timeout = getTimeout(inDataPtr);
+      if (timeout < 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_NEGATIVE_TIMEOUT);
+        return;
+      }
+      for (int i = 0; i < numKeys; i++) {
+        // ARRAY: [type][size][3] [key size][key] [member size][member] [score size][score]
+        int off = Utils.SIZEOF_BYTE + 3 * Utils.SIZEOF_INT + keySizes[i];
+        long buf = outBufferPtr + off;
+        long size = ZSets.ZPOPMAX(map, keyPtrs[i], keySizes[i], 1, buf, outBufferSize - off);
+        if (size <= 0 || size > outBufferSize - off) {
+          continue;
+        }
+        // Convert popped pair: [1][VARINT][SCORE][MEMBER]
+        long ptr = buf + Utils.SIZEOF_INT;
+        int pairSize = Utils.readUVInt(ptr);
+        ptr += Utils.sizeUVInt(pairSize);
+        double score = Utils.lexToDouble(ptr);
+        int memberSize = pairSize - Utils.SIZEOF_DOUBLE;
+        UnsafeAccess.putInt(buf, memberSize);
+        UnsafeAccess.copy(ptr + Utils.SIZEOF_DOUBLE, buf + Utils.SIZEOF_INT, memberSize);
+        ptr = buf + Utils.SIZEOF_INT + memberSize;
+        int len = Utils.doubleToStr(score, ptr + Utils.SIZEOF_INT,
+          (int) (outBufferPtr + outBufferSize - ptr - Utils.SIZEOF_INT));
+        UnsafeAccess.putInt(ptr, len);
+        ptr += Utils.SIZEOF_INT + len;
+
+        long hdr = outBufferPtr;
+        UnsafeAccess.putByte(hdr, (byte) ReplyType.ARRAY.ordinal());
+        hdr += Utils.SIZEOF_BYTE;
+        UnsafeAccess.putInt(hdr, (int) (ptr - outBufferPtr));
+        hdr += Utils.SIZEOF_INT;
+        UnsafeAccess.putInt(hdr, 3);
+        hdr += Utils.SIZEOF_INT;
+        UnsafeAccess.putInt(hdr, keySizes[i]);
+        hdr += Utils.SIZEOF_INT;
+        UnsafeAccess.copy(keyPtrs[i], hdr, keySizes[i]);
+        return;
+      }
+      // Reply on timeout
+      NULL_ARRAY_REPLY(outBufferPtr);
+      BlockedClients.block(keyPtrs, keySizes, timeout);
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+    }
+  }
+}
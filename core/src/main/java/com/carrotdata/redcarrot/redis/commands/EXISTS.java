@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.keys.Keys;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/** Redis EXISTS command */
+public class EXISTS implements RedisCommand {
+
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+
+    int numArgs = UnsafeAccess.toInt(inDataPtr);
+    if (numArgs < 2) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+      return;
+    }
+    inDataPtr += Utils.SIZEOF_INT;
+    // skip command name
+    int clen = UnsafeAccess.toInt(inDataPtr);
+    inDataPtr += Utils.SIZEOF_INT + clen;
+
+    // FIXME: convert ALL Redis API from long[] / int[] to memory buffer interface
+    long[] ptrs = Utils.loadPointers(inDataPtr, numArgs - 1);
+    int[] sizes = Utils.loadSizes(inDataPtr, numArgs - 1);
+    int num = Keys.EXISTS(map, ptrs, sizes);
+
+    // INTEGER reply - we do not check buffer size here - should be larger than 9
+    INT_REPLY(outBufferPtr, num);
+  }
+}
@@ -18,11 +18,11 @@ import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 
 public class EXPIRE implements RedisCommand {
-  /** TODO: v 7.0 support */
+
   @Override
   public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
     int numArgs = UnsafeAccess.toInt(inDataPtr);
-    if (numArgs != 3) {
+    if (numArgs != 3 && numArgs != 4) {
       Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
       return;
     }
@@ -37,8 +37,39 @@ public class EXPIRE implements RedisCommand {
     // read expiration time in sec
     int size = UnsafeAccess.toInt(inDataPtr);
     inDataPtr += Utils.SIZEOF_INT;
-    long secs = Utils.strToLong(inDataPtr, size);
-    int num = Keys.EXPIRE(map, keyPtr, keySize, secs, MutationOptions.NONE);
+    long secs = 0;
+    try {
+      secs = Utils.strToLong(inDataPtr, size);
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+      return;
+    }
+    inDataPtr += size;
+    MutationOptions opt = MutationOptions.NONE;
+    if (numArgs == 4) {
+      int optSize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long optPtr = inDataPtr;
+      if (Utils.compareTo(NX_FLAG, NX_LENGTH, optPtr, optSize) == 0
+          || Utils.compareTo(NX_FLAG_LOWER, NX_LENGTH, optPtr, optSize) == 0) {
+        opt = MutationOptions.NX;
+      } else if (Utils.compareTo(XX_FLAG, XX_LENGTH, optPtr, optSize) == 0
+          || Utils.compareTo(XX_FLAG_LOWER, XX_LENGTH, optPtr, optSize) == 0) {
+        opt = MutationOptions.XX;
+      } else if (Utils.compareTo(GT_FLAG, GT_LENGTH, optPtr, optSize) == 0
+          || Utils.compareTo(GT_FLAG_LOWER, GT_LENGTH, optPtr, optSize) == 0) {
+        opt = MutationOptions.GT;
+      } else if (Utils.compareTo(LT_FLAG, LT_LENGTH, optPtr, optSize) == 0
+          || Utils.compareTo(LT_FLAG_LOWER, LT_LENGTH, optPtr, optSize) == 0) {
+        opt = MutationOptions.LT;
+      } else {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+          ": " + Utils.toString(optPtr, optSize));
+        return;
+      }
+    }
+    int num = Keys.EXPIRE(map, keyPtr, keySize, secs, opt);
     // INT
     INT_REPLY(outBufferPtr, num);
   }
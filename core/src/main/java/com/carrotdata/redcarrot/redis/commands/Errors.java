@@ -21,6 +21,8 @@ public class Errors {
   static final byte[] SPACE = new byte[] { (byte) ':', (byte) ' ' };
   static final byte[] ERR_WRONG_NUMBER_FORMAT = "Wrong number format".getBytes();
   static final byte[] ERR_WRONG_BIT_VALUE = "Wrong bit value (must be 0 or 1)".getBytes();
+  static final byte[] ERR_WRONG_BITFIELD_TYPE =
+      "Wrong bitfield type (must be i1-i64 or u1-u63)".getBytes();
   static final byte[] ERR_WRONG_ARGS_NUMBER = "Wrong number of arguments".getBytes();
   static final byte[] ERR_WRONG_COMMAND_FORMAT =
       "Wrong command format, unexpected argument".getBytes();
@@ -32,6 +34,9 @@ public class Errors {
   static final byte[] ERR_OUT_OF_RANGE_OR =
       "Index is out of range or key does not exist".getBytes();
   static final byte[] ERR_POSITIVE_NUMBER_EXPECTED = "Positive number expected".getBytes();
+  static final byte[] ERR_NEGATIVE_NUMBER = "Number can't be negative".getBytes();
+  static final byte[] ERR_RANK_ZERO = "RANK can't be zero".getBytes();
+  static final byte[] ERR_NEGATIVE_TIMEOUT = "Timeout can't be negative".getBytes();
   static final String ERR_MIN_SPECIFIED =
       "Either '(' or '[' or '-' can be specified for a min argument";
   static final String ERR_MAX_SPECIFIED =
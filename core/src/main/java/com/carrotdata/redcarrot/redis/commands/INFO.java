@@ -13,6 +13,7 @@ package com.carrotdata.redcarrot.redis.commands;
 
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.redis.RedisConf;
+import com.carrotdata.redcarrot.util.MemoryAllocator;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 
@@ -38,7 +39,9 @@ public class INFO implements RedisCommand {
       return;
     }
 
-    String[] info = new String[13];
+    MemoryAllocator allocator = BigSortedMap.getMemoryAllocator();
+    String[] stats = allocator.getStats();
+    String[] info = new String[14 + stats.length];
     info[0] = "# Memory (Carrot)";
     long maxmemory = RedisConf.getInstance().getMaxMemoryLimit();
     info[1] = "maxmemory:" + maxmemory;
@@ -66,7 +69,9 @@ public class INFO implements RedisCommand {
         ? Utils.toString(
           ((double) BigSortedMap.getGlobalDataSize()) / BigSortedMap.getGlobalAllocatedMemory(), 2)
         : "0.0");
-    info[12] = "";
+    info[12] = "allocator:" + allocator.getName();
+    System.arraycopy(stats, 0, info, 13, stats.length);
+    info[info.length - 1] = "";
     ARRAY_REPLY(outBufferPtr, info);
   }
 }
@@ -12,6 +12,7 @@
 package com.carrotdata.redcarrot.redis.commands;
 
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
 import com.carrotdata.redcarrot.redis.lists.Lists;
 import com.carrotdata.redcarrot.redis.lists.Lists.Side;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
@@ -39,7 +40,7 @@ public class LMOVE implements RedisCommand {
     int dstKeySize = UnsafeAccess.toInt(inDataPtr);
     inDataPtr += Utils.SIZEOF_INT;
     long dstKeyPtr = inDataPtr;
-    inDataPtr += srcKeySize;
+    inDataPtr += dstKeySize;
 
     // src LEFT | RIGHT
     Side srcSide = Side.LEFT;
@@ -83,6 +84,9 @@ public class LMOVE implements RedisCommand {
     int off = +Utils.SIZEOF_BYTE + Utils.SIZEOF_INT;
     int size = Lists.LMOVE(map, srcKeyPtr, srcKeySize, dstKeyPtr, dstKeySize, srcSide, dstSide,
       outBufferPtr + off, outBufferSize - off);
+    if (size >= 0) {
+      BlockedClients.signalKeyReady(dstKeyPtr, dstKeySize);
+    }
 
     UnsafeAccess.putByte(outBufferPtr, (byte) ReplyType.BULK_STRING.ordinal());
     UnsafeAccess.putInt(outBufferPtr + Utils.SIZEOF_BYTE, size);
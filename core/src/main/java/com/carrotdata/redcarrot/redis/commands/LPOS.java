@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.lists.Lists;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+public class LPOS implements RedisCommand {
+
+  /**
+   * LPOS key element [RANK rank] [COUNT num-matches] [MAXLEN len] Returns index of a matching
+   * element or nil, with COUNT - array of indexes
+   */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    try {
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs < 3 || numArgs > 9 || numArgs % 2 == 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+      // read key
+      int keySize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long keyPtr = inDataPtr;
+      inDataPtr += keySize;
+      // read element
+      int elemSize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long elemPtr = inDataPtr;
+      inDataPtr += elemSize;
+
+      long rank = 1;
+      long count = -1;
+      long maxlen = 0;
+      for (int i = 3; i < numArgs; i += 2) {
+        int size = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        long flagPtr = inDataPtr;
+        inDataPtr += size;
+        int valSize = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        long value = Utils.strToLong(inDataPtr, valSize);
+        inDataPtr += valSize;
+        if (Utils.compareTo(RANK_FLAG, RANK_LENGTH, flagPtr, size) == 0
+            || Utils.compareTo(RANK_FLAG_LOWER, RANK_LENGTH, flagPtr, size) == 0) {
+          if (value == 0) {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_RANK_ZERO);
+            return;
+          }
+          rank = value;
+        } else if (Utils.compareTo(COUNT_FLAG, COUNT_LENGTH, flagPtr, size) == 0
+            || Utils.compareTo(COUNT_FLAG_LOWER, COUNT_LENGTH, flagPtr, size) == 0) {
+          if (value < 0) {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_NEGATIVE_NUMBER,
+              ": " + value);
+            return;
+          }
+          count = value;
+        } else if (Utils.compareTo(MAXLEN_FLAG, MAXLEN_LENGTH, flagPtr, size) == 0
+            || Utils.compareTo(MAXLEN_FLAG_LOWER, MAXLEN_LENGTH, flagPtr, size) == 0) {
+          if (value < 0) {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_NEGATIVE_NUMBER,
+              ": " + value);
+            return;
+          }
+          maxlen = value;
+        } else {
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+            ": " + Utils.toString(flagPtr, size));
+          return;
+        }
+      }
+      rank = Math.max(Math.min(rank, Integer.MAX_VALUE), -Integer.MAX_VALUE);
+      int numMatches = (int) Math.min(count < 0 ? 1 : count, Integer.MAX_VALUE);
+      int off = Utils.SIZEOF_BYTE + Utils.SIZEOF_INT;
+      int size = Lists.LPOS(map, keyPtr, keySize, elemPtr, elemSize, (int) rank, numMatches,
+        (int) Math.min(maxlen, Integer.MAX_VALUE), outBufferPtr + off, outBufferSize - off);
+      if (count < 0) {
+        // Single match
+        if (UnsafeAccess.toInt(outBufferPtr + off) == 0) {
+          NULL_STRING_REPLY(outBufferPtr);
+        } else {
+          INT_REPLY(outBufferPtr, UnsafeAccess.toLong(outBufferPtr + off + Utils.SIZEOF_INT));
+        }
+        return;
+      }
+      // INT_ARRAY reply
+      UnsafeAccess.putByte(outBufferPtr, (byte) ReplyType.INT_ARRAY.ordinal());
+      UnsafeAccess.putInt(outBufferPtr + Utils.SIZEOF_BYTE, size + off);
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+    }
+  }
+}
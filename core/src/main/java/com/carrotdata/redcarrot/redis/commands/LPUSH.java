@@ -12,6 +12,7 @@
 package com.carrotdata.redcarrot.redis.commands;
 
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
 import com.carrotdata.redcarrot.redis.lists.Lists;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
@@ -37,6 +38,9 @@ public class LPUSH implements RedisCommand {
     long[] ptrs = Utils.loadPointers(inDataPtr, numArgs - 2);
     int[] sizes = Utils.loadSizes(inDataPtr, numArgs - 2);
     int num = (int) Lists.LPUSH(map, keyPtr, keySize, ptrs, sizes);
+    if (num > 0) {
+      BlockedClients.signalKeyReady(keyPtr, keySize);
+    }
     INT_REPLY(outBufferPtr, num);
   }
 }
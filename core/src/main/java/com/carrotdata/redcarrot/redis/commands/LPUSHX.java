@@ -12,6 +12,7 @@
 package com.carrotdata.redcarrot.redis.commands;
 
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
 import com.carrotdata.redcarrot.redis.lists.Lists;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
@@ -36,6 +37,9 @@ public class LPUSHX implements RedisCommand {
     long[] ptrs = Utils.loadPointers(inDataPtr, numArgs - 2);
     int[] sizes = Utils.loadSizes(inDataPtr, numArgs - 2);
     int num = (int) Lists.LPUSHX(map, keyPtr, keySize, ptrs, sizes);
+    if (num > 0) {
+      BlockedClients.signalKeyReady(keyPtr, keySize);
+    }
     // INT reply
     INT_REPLY(outBufferPtr, num);
   }
@@ -19,7 +19,6 @@ import com.carrotdata.redcarrot.util.Utils;
 
 public class LTRIM implements RedisCommand {
 
-  /** TODO - not implemented yet */
   @Override
   public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
     try {
@@ -48,10 +47,11 @@ public class LTRIM implements RedisCommand {
       valPtr = inDataPtr;
       end = Utils.strToLong(valPtr, valSize);
 
-      long size = Lists.LTRIM(map, keyPtr, keySize, start, end);
+      Lists.LTRIM(map, keyPtr, keySize, start, end);
 
     } catch (NumberFormatException e) {
-      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT);
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
     }
   }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.keys.Keys;
+import com.carrotdata.redcarrot.redis.util.MutationOptions;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * PEXPIREAT key milliseconds-timestamp [NX|XX|GT|LT]. Write-ahead log keeps EXPIRE as PEXPIREAT,
+ * replay does not depend on the time of recovery
+ */
+public class PEXPIREAT implements RedisCommand {
+
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    int numArgs = UnsafeAccess.toInt(inDataPtr);
+    if (numArgs != 3 && numArgs != 4) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+      return;
+    }
+    inDataPtr += Utils.SIZEOF_INT;
+    // skip command name
+    inDataPtr = skip(inDataPtr, 1);
+    // read key
+    int keySize = UnsafeAccess.toInt(inDataPtr);
+    inDataPtr += Utils.SIZEOF_INT;
+    long keyPtr = inDataPtr;
+    inDataPtr += keySize;
+    // read expiration time in ms since epoch
+    int size = UnsafeAccess.toInt(inDataPtr);
+    inDataPtr += Utils.SIZEOF_INT;
+    long expireAt = 0;
+    try {
+      expireAt = Utils.strToLong(inDataPtr, size);
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+      return;
+    }
+    inDataPtr += size;
+    MutationOptions opt = MutationOptions.NONE;
+    if (numArgs == 4) {
+      int optSize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long optPtr = inDataPtr;
+      if (Utils.compareTo(NX_FLAG, NX_LENGTH, optPtr, optSize) == 0
+          || Utils.compareTo(NX_FLAG_LOWER, NX_LENGTH, optPtr, optSize) == 0) {
+        opt = MutationOptions.NX;
+      } else if (Utils.compareTo(XX_FLAG, XX_LENGTH, optPtr, optSize) == 0
+          || Utils.compareTo(XX_FLAG_LOWER, XX_LENGTH, optPtr, optSize) == 0) {
+        opt = MutationOptions.XX;
+      } else if (Utils.compareTo(GT_FLAG, GT_LENGTH, optPtr, optSize) == 0
+          || Utils.compareTo(GT_FLAG_LOWER, GT_LENGTH, optPtr, optSize) == 0) {
+        opt = MutationOptions.GT;
+      } else if (Utils.compareTo(LT_FLAG, LT_LENGTH, optPtr, optSize) == 0
+          || Utils.compareTo(LT_FLAG_LOWER, LT_LENGTH, optPtr, optSize) == 0) {
+        opt = MutationOptions.LT;
+      } else {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+          ": " + Utils.toString(optPtr, optSize));
+        return;
+      }
+    }
+    int num = Keys.PEXPIREAT(map, keyPtr, keySize, expireAt, opt);
+    // INT
+    INT_REPLY(outBufferPtr, num);
+  }
+}
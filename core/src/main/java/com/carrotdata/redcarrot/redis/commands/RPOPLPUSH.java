@@ -12,6 +12,7 @@
 package com.carrotdata.redcarrot.redis.commands;
 
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
 import com.carrotdata.redcarrot.redis.lists.Lists;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
@@ -42,6 +43,9 @@ public class RPOPLPUSH implements RedisCommand {
     int off = Utils.SIZEOF_BYTE + Utils.SIZEOF_INT;
     int size = Lists.RPOPLPUSH(map, srcKeyPtr, srcKeySize, dstKeyPtr, dstKeySize,
       outBufferPtr + off, outBufferSize - off);
+    if (size >= 0) {
+      BlockedClients.signalKeyReady(dstKeyPtr, dstKeySize);
+    }
     UnsafeAccess.putByte(outBufferPtr, (byte) ReplyType.BULK_STRING.ordinal());
     UnsafeAccess.putInt(outBufferPtr + Utils.SIZEOF_BYTE, size);
   }
@@ -12,6 +12,7 @@
 package com.carrotdata.redcarrot.redis.commands;
 
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
 import com.carrotdata.redcarrot.redis.lists.Lists;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
@@ -36,6 +37,9 @@ public class RPUSHX implements RedisCommand {
     long[] ptrs = Utils.loadPointers(inDataPtr, numArgs - 2);
     int[] sizes = Utils.loadSizes(inDataPtr, numArgs - 2);
     int num = (int) Lists.RPUSHX(map, keyPtr, keySize, ptrs, sizes);
+    if (num > 0) {
+      BlockedClients.signalKeyReady(keyPtr, keySize);
+    }
     UnsafeAccess.putByte(outBufferPtr, (byte) ReplyType.INTEGER.ordinal());
     UnsafeAccess.putLong(outBufferPtr + Utils.SIZEOF_BYTE, num);
   }
@@ -107,6 +107,14 @@ public interface RedisCommand {
   static final long XX_FLAG_LOWER = UnsafeAccess.allocAndCopy("xx", 0, "xx".length());
   static final int XX_LENGTH = "XX".length();
 
+  static final long GT_FLAG = UnsafeAccess.allocAndCopy("GT", 0, "GT".length());
+  static final long GT_FLAG_LOWER = UnsafeAccess.allocAndCopy("gt", 0, "gt".length());
+  static final int GT_LENGTH = "GT".length();
+
+  static final long LT_FLAG = UnsafeAccess.allocAndCopy("LT", 0, "LT".length());
+  static final long LT_FLAG_LOWER = UnsafeAccess.allocAndCopy("lt", 0, "lt".length());
+  static final int LT_LENGTH = "LT".length();
+
   static final long GET_FLAG = UnsafeAccess.allocAndCopy("GET", 0, "GET".length());
   static final long GET_FLAG_LOWER = UnsafeAccess.allocAndCopy("get", 0, "get".length());
   static final int GET_LENGTH = "GET".length();
@@ -134,6 +142,10 @@ public interface RedisCommand {
   static final long COUNT_FLAG_LOWER = UnsafeAccess.allocAndCopy("count", 0, "count".length());
   static final int COUNT_LENGTH = "COUNT".length();
 
+  static final long TYPE_FLAG = UnsafeAccess.allocAndCopy("TYPE", 0, "TYPE".length());
+  static final long TYPE_FLAG_LOWER = UnsafeAccess.allocAndCopy("type", 0, "type".length());
+  static final int TYPE_LENGTH = "TYPE".length();
+
   static final long BEFORE_FLAG = UnsafeAccess.allocAndCopy("BEFORE", 0, "BEFORE".length());
   static final long BEFORE_FLAG_LOWER = UnsafeAccess.allocAndCopy("before", 0, "before".length());
   static final int BEFORE_LENGTH = "BEFORE".length();
@@ -156,6 +168,86 @@ public interface RedisCommand {
       UnsafeAccess.allocAndCopy("withscores", 0, "withscores".length());
   static final int WITHSCORES_LENGTH = "WITHSCORES".length();
 
+  static final long WEIGHTS_FLAG = UnsafeAccess.allocAndCopy("WEIGHTS", 0, "WEIGHTS".length());
+  static final long WEIGHTS_FLAG_LOWER =
+      UnsafeAccess.allocAndCopy("weights", 0, "weights".length());
+  static final int WEIGHTS_LENGTH = "WEIGHTS".length();
+
+  static final long AGGREGATE_FLAG =
+      UnsafeAccess.allocAndCopy("AGGREGATE", 0, "AGGREGATE".length());
+  static final long AGGREGATE_FLAG_LOWER =
+      UnsafeAccess.allocAndCopy("aggregate", 0, "aggregate".length());
+  static final int AGGREGATE_LENGTH = "AGGREGATE".length();
+
+  static final long SUM_FLAG = UnsafeAccess.allocAndCopy("SUM", 0, "SUM".length());
+  static final long SUM_FLAG_LOWER = UnsafeAccess.allocAndCopy("sum", 0, "sum".length());
+  static final int SUM_LENGTH = "SUM".length();
+
+  static final long MIN_FLAG = UnsafeAccess.allocAndCopy("MIN", 0, "MIN".length());
+  static final long MIN_FLAG_LOWER = UnsafeAccess.allocAndCopy("min", 0, "min".length());
+  static final int MIN_LENGTH = "MIN".length();
+
+  static final long MAX_FLAG = UnsafeAccess.allocAndCopy("MAX", 0, "MAX".length());
+  static final long MAX_FLAG_LOWER = UnsafeAccess.allocAndCopy("max", 0, "max".length());
+  static final int MAX_LENGTH = "MAX".length();
+
+  static final long AND_FLAG = UnsafeAccess.allocAndCopy("AND", 0, "AND".length());
+  static final long AND_FLAG_LOWER = UnsafeAccess.allocAndCopy("and", 0, "and".length());
+  static final int AND_LENGTH = "AND".length();
+
+  static final long OR_FLAG = UnsafeAccess.allocAndCopy("OR", 0, "OR".length());
+  static final long OR_FLAG_LOWER = UnsafeAccess.allocAndCopy("or", 0, "or".length());
+  static final int OR_LENGTH = "OR".length();
+
+  static final long XOR_FLAG = UnsafeAccess.allocAndCopy("XOR", 0, "XOR".length());
+  static final long XOR_FLAG_LOWER = UnsafeAccess.allocAndCopy("xor", 0, "xor".length());
+  static final int XOR_LENGTH = "XOR".length();
+
+  static final long NOT_FLAG = UnsafeAccess.allocAndCopy("NOT", 0, "NOT".length());
+  static final long NOT_FLAG_LOWER = UnsafeAccess.allocAndCopy("not", 0, "not".length());
+  static final int NOT_LENGTH = "NOT".length();
+
+  static final long SET_FLAG = UnsafeAccess.allocAndCopy("SET", 0, "SET".length());
+  static final long SET_FLAG_LOWER = UnsafeAccess.allocAndCopy("set", 0, "set".length());
+  static final int SET_LENGTH = "SET".length();
+
+  static final long INCRBY_FLAG = UnsafeAccess.allocAndCopy("INCRBY", 0, "INCRBY".length());
+  static final long INCRBY_FLAG_LOWER = UnsafeAccess.allocAndCopy("incrby", 0, "incrby".length());
+  static final int INCRBY_LENGTH = "INCRBY".length();
+
+  static final long OVERFLOW_FLAG = UnsafeAccess.allocAndCopy("OVERFLOW", 0, "OVERFLOW".length());
+  static final long OVERFLOW_FLAG_LOWER =
+      UnsafeAccess.allocAndCopy("overflow", 0, "overflow".length());
+  static final int OVERFLOW_LENGTH = "OVERFLOW".length();
+
+  static final long WRAP_FLAG = UnsafeAccess.allocAndCopy("WRAP", 0, "WRAP".length());
+  static final long WRAP_FLAG_LOWER = UnsafeAccess.allocAndCopy("wrap", 0, "wrap".length());
+  static final int WRAP_LENGTH = "WRAP".length();
+
+  static final long SAT_FLAG = UnsafeAccess.allocAndCopy("SAT", 0, "SAT".length());
+  static final long SAT_FLAG_LOWER = UnsafeAccess.allocAndCopy("sat", 0, "sat".length());
+  static final int SAT_LENGTH = "SAT".length();
+
+  static final long FAIL_FLAG = UnsafeAccess.allocAndCopy("FAIL", 0, "FAIL".length());
+  static final long FAIL_FLAG_LOWER = UnsafeAccess.allocAndCopy("fail", 0, "fail".length());
+  static final int FAIL_LENGTH = "FAIL".length();
+
+  static final long ANDNOT_FLAG = UnsafeAccess.allocAndCopy("ANDNOT", 0, "ANDNOT".length());
+  static final long ANDNOT_FLAG_LOWER = UnsafeAccess.allocAndCopy("andnot", 0, "andnot".length());
+  static final int ANDNOT_LENGTH = "ANDNOT".length();
+
+  static final long STORE_FLAG = UnsafeAccess.allocAndCopy("STORE", 0, "STORE".length());
+  static final long STORE_FLAG_LOWER = UnsafeAccess.allocAndCopy("store", 0, "store".length());
+  static final int STORE_LENGTH = "STORE".length();
+
+  static final long RANK_FLAG = UnsafeAccess.allocAndCopy("RANK", 0, "RANK".length());
+  static final long RANK_FLAG_LOWER = UnsafeAccess.allocAndCopy("rank", 0, "rank".length());
+  static final int RANK_LENGTH = "RANK".length();
+
+  static final long MAXLEN_FLAG = UnsafeAccess.allocAndCopy("MAXLEN", 0, "MAXLEN".length());
+  static final long MAXLEN_FLAG_LOWER = UnsafeAccess.allocAndCopy("maxlen", 0, "maxlen".length());
+  static final int MAXLEN_LENGTH = "MAXLEN".length();
+
   static final long NEG_INFINITY_FLAG = UnsafeAccess.allocAndCopy("-inf", 0, "-inf".length());
   static final int NEG_INFINITY_LENGTH = "-inf".length();
 
@@ -179,6 +271,16 @@ public interface RedisCommand {
       UnsafeAccess.allocAndCopy("schedule", 0, "schedule".length());
   static final int SCHEDULE_LENGTH = "SCHEDULE".length();
 
+  static final long FULL_FLAG = UnsafeAccess.allocAndCopy("FULL", 0, "FULL".length());
+  static final long FULL_FLAG_LOWER = UnsafeAccess.allocAndCopy("full", 0, "full".length());
+  static final int FULL_LENGTH = "FULL".length();
+
+  static final long INCREMENTAL_FLAG =
+      UnsafeAccess.allocAndCopy("INCREMENTAL", 0, "INCREMENTAL".length());
+  static final long INCREMENTAL_FLAG_LOWER =
+      UnsafeAccess.allocAndCopy("incremental", 0, "incremental".length());
+  static final int INCREMENTAL_LENGTH = "INCREMENTAL".length();
+
   static final long SYNC_FLAG = UnsafeAccess.allocAndCopy("SYNC", 0, "SYNC".length());
   static final long SYNC_FLAG_LOWER = UnsafeAccess.allocAndCopy("sync", 0, "sync".length());
   static final int SYNC_LENGTH = "SYNC".length();
@@ -211,6 +313,8 @@ public interface RedisCommand {
   default void NULL_ARRAY_REPLY(long ptr) {
     UnsafeAccess.putByte(ptr, (byte) ReplyType.ARRAY.ordinal());
     UnsafeAccess.putInt(ptr + Utils.SIZEOF_BYTE, -1);
+    // Number of elements
+    UnsafeAccess.putInt(ptr + Utils.SIZEOF_BYTE + Utils.SIZEOF_INT, -1);
   }
 
   default void DOUBLE_REPLY(long ptr, int bufSize, double value) {
@@ -358,6 +462,21 @@ public interface RedisCommand {
     return getExpire(ptr, false, false, argsRemaining);
   }
 
+  /**
+   * Reads timeout of a blocking command (seconds, can be fractional)
+   * @param ptr argument address
+   * @return timeout in ms (0 - no timeout), -1 - timeout is negative
+   * @throws NumberFormatException
+   */
+  default long getTimeout(long ptr) throws NumberFormatException {
+    int size = UnsafeAccess.toInt(ptr);
+    double secs = Utils.strToDouble(ptr + Utils.SIZEOF_INT, size);
+    if (secs < 0) {
+      return -1;
+    }
+    return (long) Math.ceil(secs * 1000);
+  }
+
   default long skip(long ptr, int num) {
     for (int i = 0; i < num; i++) {
       int size = UnsafeAccess.toInt(ptr);
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.sparse.SparseBitmaps;
+import com.carrotdata.redcarrot.redis.util.BitOp;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+public class SBITOP implements RedisCommand {
+
+  /**
+   * SBITOP AND|OR|XOR|ANDNOT numkeys key [key ...] [STORE destkey] Returns number of bits set to 1
+   * in the result
+   */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    try {
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs < 4) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+      // read operation
+      int opSize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long opPtr = inDataPtr;
+      inDataPtr += opSize;
+      BitOp op = null;
+      if (Utils.compareTo(AND_FLAG, AND_LENGTH, opPtr, opSize) == 0
+          || Utils.compareTo(AND_FLAG_LOWER, AND_LENGTH, opPtr, opSize) == 0) {
+        op = BitOp.AND;
+      } else if (Utils.compareTo(OR_FLAG, OR_LENGTH, opPtr, opSize) == 0
+          || Utils.compareTo(OR_FLAG_LOWER, OR_LENGTH, opPtr, opSize) == 0) {
+        op = BitOp.OR;
+      } else if (Utils.compareTo(XOR_FLAG, XOR_LENGTH, opPtr, opSize) == 0
+          || Utils.compareTo(XOR_FLAG_LOWER, XOR_LENGTH, opPtr, opSize) == 0) {
+        op = BitOp.XOR;
+      } else if (Utils.compareTo(ANDNOT_FLAG, ANDNOT_LENGTH, opPtr, opSize) == 0
+          || Utils.compareTo(ANDNOT_FLAG_LOWER, ANDNOT_LENGTH, opPtr, opSize) == 0) {
+        op = BitOp.ANDNOT;
+      } else {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+          ": " + Utils.toString(opPtr, opSize));
+        return;
+      }
+      // read number of keys
+      int valSize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long numKeys = Utils.strToLong(inDataPtr, valSize);
+      inDataPtr += valSize;
+      if (numKeys <= 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_POSITIVE_NUMBER_EXPECTED,
+          ": " + numKeys);
+        return;
+      }
+      int count = 3;
+      if (numArgs != count + numKeys && numArgs != count + numKeys + 2) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      long[] keyPtrs = Utils.loadPointers(inDataPtr, (int) numKeys);
+      int[] keySizes = Utils.loadSizes(inDataPtr, (int) numKeys);
+      inDataPtr = skip(inDataPtr, (int) numKeys);
+      count += numKeys;
+
+      long dstKeyPtr = 0;
+      int dstKeySize = 0;
+      if (count < numArgs) {
+        valSize = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        long valPtr = inDataPtr;
+        inDataPtr += valSize;
+        if (Utils.compareTo(STORE_FLAG, STORE_LENGTH, valPtr, valSize) != 0
+            && Utils.compareTo(STORE_FLAG_LOWER, STORE_LENGTH, valPtr, valSize) != 0) {
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+            ": " + Utils.toString(valPtr, valSize));
+          return;
+        }
+        dstKeySize = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        dstKeyPtr = inDataPtr;
+      }
+      long bits = SparseBitmaps.SBITOP(map, op, dstKeyPtr, dstKeySize, keyPtrs, keySizes);
+      INT_REPLY(outBufferPtr, bits);
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+    }
+  }
+}
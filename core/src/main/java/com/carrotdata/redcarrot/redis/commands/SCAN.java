@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import java.util.regex.PatternSyntaxException;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.db.DBSystem;
+import com.carrotdata.redcarrot.redis.keys.Keys;
+import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/** Redis SCAN command */
+public class SCAN implements RedisCommand {
+  private static ThreadLocal<Long> keyArena = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      return UnsafeAccess.malloc(512);
+    }
+  };
+
+  private static ThreadLocal<Integer> keyArenaSize = new ThreadLocal<Integer>() {
+    @Override
+    protected Integer initialValue() {
+      return 512;
+    }
+  };
+
+  /* Data types supported by TYPE option */
+  private static final DataType[] TYPES = new DataType[] { DataType.STRING, DataType.LIST,
+      DataType.SET, DataType.ZSET, DataType.HASH, DataType.SBITMAP };
+
+  /**
+   * Checks key arena size
+   * @param required size
+   */
+  static void checkKeyArena(int required) {
+    int size = keyArenaSize.get();
+    if (size >= required) {
+      return;
+    }
+    long ptr = UnsafeAccess.realloc(keyArena.get(), required);
+    keyArena.set(ptr);
+    keyArenaSize.set(required);
+  }
+
+  /** SCAN cursor [MATCH pattern] [COUNT count] [TYPE type] */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+
+    boolean cursorOK = false;
+
+    try {
+      long lastSeenPtr = 0;
+      int lastSeenSize = 0;
+      int count = 10; // default
+      String pattern = null;
+      DataType type = null;
+
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs < 2 || numArgs > 8 || numArgs % 2 != 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+
+      // Read cursor
+      int curSize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long cursorPtr = inDataPtr;
+      inDataPtr += curSize;
+
+      long cursor = Utils.strToLong(cursorPtr, curSize);
+      cursorOK = true;
+
+      // Read options
+      for (int i = 2; i < numArgs; i += 2) {
+        int size = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        long flagPtr = inDataPtr;
+        int flagSize = size;
+        inDataPtr += size;
+        size = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        long valuePtr = inDataPtr;
+        inDataPtr += size;
+        if (Utils.compareTo(MATCH_FLAG, MATCH_LENGTH, flagPtr, flagSize) == 0
+            || Utils.compareTo(MATCH_FLAG_LOWER, MATCH_LENGTH, flagPtr, flagSize) == 0) {
+          pattern = Utils.toString(valuePtr, size);
+        } else if (Utils.compareTo(COUNT_FLAG, COUNT_LENGTH, flagPtr, flagSize) == 0
+            || Utils.compareTo(COUNT_FLAG_LOWER, COUNT_LENGTH, flagPtr, flagSize) == 0) {
+          count = (int) Utils.strToLong(valuePtr, size);
+        } else if (Utils.compareTo(TYPE_FLAG, TYPE_LENGTH, flagPtr, flagSize) == 0
+            || Utils.compareTo(TYPE_FLAG_LOWER, TYPE_LENGTH, flagPtr, flagSize) == 0) {
+          type = getType(Utils.toString(valuePtr, size));
+          if (type == null) {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+              ": " + Utils.toString(valuePtr, size));
+            return;
+          }
+        } else {
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+            ": " + Utils.toString(flagPtr, flagSize));
+          return;
+        }
+      }
+      if (count <= 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_POSITIVE_NUMBER_EXPECTED,
+          ": " + count);
+        return;
+      }
+
+      if (cursor != 0) {
+        // continuation of a scan operation
+        int size = DBSystem.getCursor(map, cursor, keyArena.get(), keyArenaSize.get());
+        if (size < 0) {
+          // Invalid cursor
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_INVALID_CURSOR,
+            ": " + Utils.toString(cursorPtr, curSize));
+          return;
+        } else if (size > keyArenaSize.get()) {
+          checkKeyArena(size);
+          size = DBSystem.getCursor(map, cursor, keyArena.get(), keyArenaSize.get());
+        }
+        lastSeenPtr = keyArena.get();
+        lastSeenSize = size;
+        // Delete current cursor
+        boolean result = DBSystem.deleteCursor(map, cursor);
+        assert result;
+      }
+
+      // Prepare reply
+      int off = 0;
+      UnsafeAccess.putByte(outBufferPtr + off, (byte) ReplyType.MULTI_BULK.ordinal());
+      off += Utils.SIZEOF_BYTE;
+      // First is INTEGER type - next cursor
+      UnsafeAccess.putByte(outBufferPtr + off, (byte) ReplyType.INTEGER.ordinal());
+      off += Utils.SIZEOF_BYTE;
+
+      cursor = DBSystem.nextId();
+      UnsafeAccess.putLong(outBufferPtr + off, cursor);
+      off += Utils.SIZEOF_LONG;
+      // Second is VARRAY type
+      UnsafeAccess.putByte(outBufferPtr + off, (byte) ReplyType.VARRAY.ordinal());
+      off += Utils.SIZEOF_BYTE;
+
+      // Actual call
+      long serLen = Keys.SCAN(map, lastSeenPtr, lastSeenSize, count,
+        outBufferPtr + off + Utils.SIZEOF_INT /* first 4 bytes keeps serialized size */,
+        outBufferSize - off - Utils.SIZEOF_INT, pattern, type);
+
+      if (serLen == 0) {
+        // We are done
+        cursor = 0;
+        UnsafeAccess.putLong(outBufferPtr + 2 * Utils.SIZEOF_BYTE, cursor);
+        // Empty array
+        UnsafeAccess.putInt(outBufferPtr + off, Utils.SIZEOF_INT);
+        UnsafeAccess.putInt(outBufferPtr + off + Utils.SIZEOF_INT, 0);
+      } else {
+        // Update VARRAY serialized size
+        UnsafeAccess.putInt(outBufferPtr + off, (int) serLen);
+        off += Utils.SIZEOF_INT; // skip serialized size of VARRAY
+        int numElements = UnsafeAccess.toInt(outBufferPtr + off);
+        if (numElements > 0) {
+          // get last seen key, it is always the last element
+          long ptr = outBufferPtr + off + Utils.SIZEOF_INT;
+          int size = 0;
+          for (int i = 0; i < numElements - 1; i++) {
+            size = Utils.readUVInt(ptr);
+            int sizeSize = Utils.sizeUVInt(size);
+            ptr += size + sizeSize;
+          }
+          size = Utils.readUVInt(ptr);
+          int sizeSize = Utils.sizeUVInt(size);
+          ptr += sizeSize;
+          // Save new cursor with last seen key
+          // Cursor has expiration time
+          DBSystem.saveCursor(map, cursor, ptr, size);
+          // Decrement by 1 number of elements
+          UnsafeAccess.putInt(outBufferPtr + off, numElements - 1);
+        }
+      }
+    } catch (NumberFormatException e) {
+      if (cursorOK) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+          ": " + e.getMessage());
+      } else {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_INVALID_CURSOR,
+          ": " + e.getMessage());
+      }
+    } catch (PatternSyntaxException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+        ": " + e.getPattern());
+    }
+  }
+
+  /**
+   * Get data type by its name
+   * @param name type name
+   * @return data type or null
+   */
+  private static DataType getType(String name) {
+    for (DataType t : TYPES) {
+      if (t.name().equalsIgnoreCase(name)) {
+        return t;
+      }
+    }
+    return null;
+  }
+}
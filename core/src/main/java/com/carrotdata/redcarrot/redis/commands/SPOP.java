@@ -52,7 +52,10 @@ public class SPOP implements RedisCommand {
       ;
       int size =
           (int) Sets.SPOP(map, keyPtr, keySize, outBufferPtr + off, outBufferSize - off, count);
-      if (!countSet) {
+      if (!countSet && size == 0) {
+        // Empty set or does not exist
+        NULL_STRING_REPLY(outBufferPtr);
+      } else if (!countSet) {
         // Return as a Bulk String
         varrayToBulkString(outBufferPtr);
       } else {
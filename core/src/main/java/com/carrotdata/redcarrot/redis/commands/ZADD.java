@@ -15,6 +15,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
 import com.carrotdata.redcarrot.redis.sets.Sets;
 import com.carrotdata.redcarrot.redis.util.MutationOptions;
 import com.carrotdata.redcarrot.redis.zsets.ZSets;
@@ -102,6 +103,7 @@ public class ZADD implements RedisCommand {
         if (!Sets.keyExists(map, keyPtr, keySize)) {
           List<ValueScore> members = populateAndGetValueScores(inDataPtr, number);
           long num = ZSets.ZADD_NEW(map, keyPtr, keySize, members);
+          BlockedClients.signalKeyReady(keyPtr, keySize);
           INT_REPLY(outBufferPtr, num);
           return;
         }
@@ -114,6 +116,7 @@ public class ZADD implements RedisCommand {
       populate(inDataPtr, ptrs, ptrSizes, scores);
 
       long num = ZSets.ZADD_GENERIC(map, keyPtr, keySize, scores, ptrs, ptrSizes, changed, opt);
+      BlockedClients.signalKeyReady(keyPtr, keySize);
       INT_REPLY(outBufferPtr, num);
 
     } catch (NumberFormatException e) {
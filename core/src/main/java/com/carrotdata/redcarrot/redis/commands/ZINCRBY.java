@@ -12,6 +12,7 @@
 package com.carrotdata.redcarrot.redis.commands;
 
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
 import com.carrotdata.redcarrot.redis.zsets.ZSets;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
@@ -46,6 +47,7 @@ public class ZINCRBY implements RedisCommand {
       inDataPtr += fieldSize;
 
       double newValue = ZSets.ZINCRBY(map, keyPtr, keySize, incrValue, fieldPtr, fieldSize);
+      BlockedClients.signalKeyReady(keyPtr, keySize);
       DOUBLE_REPLY(outBufferPtr, outBufferSize, newValue);
     } catch (NumberFormatException e) {
       Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.BlockedClients;
+import com.carrotdata.redcarrot.redis.util.Aggregate;
+import com.carrotdata.redcarrot.redis.zsets.ZSets;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+public class ZUNIONSTORE implements RedisCommand {
+
+  /**
+   * ZUNIONSTORE destination numkeys key [key ...] [WEIGHTS weight [weight ...]]
+   * [AGGREGATE SUM|MIN|MAX]
+   */
+  @Override
+  public void execute(BigSortedMap map, long inDataPtr, long outBufferPtr, int outBufferSize) {
+    try {
+      int numArgs = UnsafeAccess.toInt(inDataPtr);
+      if (numArgs < 4) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      inDataPtr += Utils.SIZEOF_INT;
+      // skip command name
+      inDataPtr = skip(inDataPtr, 1);
+      // read destination key
+      int dstKeySize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long dstKeyPtr = inDataPtr;
+      inDataPtr += dstKeySize;
+      // read number of keys
+      int valSize = UnsafeAccess.toInt(inDataPtr);
+      inDataPtr += Utils.SIZEOF_INT;
+      long numKeys = Utils.strToLong(inDataPtr, valSize);
+      inDataPtr += valSize;
+      if (numKeys <= 0) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_POSITIVE_NUMBER_EXPECTED,
+          ": " + numKeys);
+        return;
+      }
+      int count = 3;
+      if (numArgs < count + numKeys) {
+        Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+        return;
+      }
+      long[] keyPtrs = Utils.loadPointers(inDataPtr, (int) numKeys);
+      int[] keySizes = Utils.loadSizes(inDataPtr, (int) numKeys);
+      inDataPtr = skip(inDataPtr, (int) numKeys);
+      count += numKeys;
+
+      double[] weights = null;
+      Aggregate aggregate = Aggregate.SUM;
+      while (count < numArgs) {
+        valSize = UnsafeAccess.toInt(inDataPtr);
+        inDataPtr += Utils.SIZEOF_INT;
+        long valPtr = inDataPtr;
+        inDataPtr += valSize;
+        count++;
+        if (Utils.compareTo(WEIGHTS_FLAG, WEIGHTS_LENGTH, valPtr, valSize) == 0
+            || Utils.compareTo(WEIGHTS_FLAG_LOWER, WEIGHTS_LENGTH, valPtr, valSize) == 0) {
+          if (numArgs < count + numKeys) {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+            return;
+          }
+          weights = new double[(int) numKeys];
+          for (int i = 0; i < numKeys; i++) {
+            valSize = UnsafeAccess.toInt(inDataPtr);
+            inDataPtr += Utils.SIZEOF_INT;
+            weights[i] = Utils.strToDouble(inDataPtr, valSize);
+            inDataPtr += valSize;
+          }
+          count += numKeys;
+        } else if (Utils.compareTo(AGGREGATE_FLAG, AGGREGATE_LENGTH, valPtr, valSize) == 0
+            || Utils.compareTo(AGGREGATE_FLAG_LOWER, AGGREGATE_LENGTH, valPtr, valSize) == 0) {
+          if (count == numArgs) {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_ARGS_NUMBER);
+            return;
+          }
+          valSize = UnsafeAccess.toInt(inDataPtr);
+          inDataPtr += Utils.SIZEOF_INT;
+          valPtr = inDataPtr;
+          inDataPtr += valSize;
+          count++;
+          if (Utils.compareTo(SUM_FLAG, SUM_LENGTH, valPtr, valSize) == 0
+              || Utils.compareTo(SUM_FLAG_LOWER, SUM_LENGTH, valPtr, valSize) == 0) {
+            aggregate = Aggregate.SUM;
+          } else if (Utils.compareTo(MIN_FLAG, MIN_LENGTH, valPtr, valSize) == 0
+              || Utils.compareTo(MIN_FLAG_LOWER, MIN_LENGTH, valPtr, valSize) == 0) {
+            aggregate = Aggregate.MIN;
+          } else if (Utils.compareTo(MAX_FLAG, MAX_LENGTH, valPtr, valSize) == 0
+              || Utils.compareTo(MAX_FLAG_LOWER, MAX_LENGTH, valPtr, valSize) == 0) {
+            aggregate = Aggregate.MAX;
+          } else {
+            Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+              ": " + Utils.toString(valPtr, valSize));
+            return;
+          }
+        } else {
+          Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_COMMAND_FORMAT,
+            ": " + Utils.toString(valPtr, valSize));
+          return;
+        }
+      }
+      long num = ZSets.ZUNIONSTORE(map, dstKeyPtr, dstKeySize, keyPtrs, keySizes, weights,
+        aggregate);
+      if (num > 0) {
+        BlockedClients.signalKeyReady(dstKeyPtr, dstKeySize);
+      }
+      INT_REPLY(outBufferPtr, num);
+    } catch (NumberFormatException e) {
+      Errors.write(outBufferPtr, Errors.TYPE_GENERIC, Errors.ERR_WRONG_NUMBER_FORMAT,
+        ": " + e.getMessage());
+    }
+  }
+}
@@ -12,11 +12,15 @@
 package com.carrotdata.redcarrot.redis.hashes;
 
 import static com.carrotdata.redcarrot.redis.util.Commons.addNumElements;
+import static com.carrotdata.redcarrot.redis.util.Commons.buildOffsets;
+import static com.carrotdata.redcarrot.redis.util.Commons.dataSize;
 import static com.carrotdata.redcarrot.redis.util.Commons.elementAddressFromKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.elementSizeFromKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.isFirstKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.keySize;
 import static com.carrotdata.redcarrot.redis.util.Commons.keySizeWithPrefix;
+import static com.carrotdata.redcarrot.redis.util.Commons.numElementsInValue;
+import static com.carrotdata.redcarrot.redis.util.Commons.offsetsSize;
 
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.DataBlock;
@@ -45,6 +49,12 @@ public class HashDelete extends Operation {
 
   boolean checkForEmpty = false;
 
+  /** Serialized size change after update */
+  int sizeDelta;
+
+  /** Number of K-Vs deleted */
+  int chunksDelta;
+
   /** Constructor */
   public HashDelete() {
     setFloorKey(true);
@@ -59,12 +69,30 @@ public class HashDelete extends Operation {
     this.bufferSize = 0;
     this.valueSize = 0;
     this.checkForEmpty = false;
+    this.sizeDelta = 0;
+    this.chunksDelta = 0;
   }
 
   public boolean checkForEmpty() {
     return this.checkForEmpty;
   }
 
+  /**
+   * Gets serialized size change (negative)
+   * @return size delta
+   */
+  public int getSizeDelta() {
+    return this.sizeDelta;
+  }
+
+  /**
+   * Gets number of K-Vs deleted by this operation (negative)
+   * @return chunks delta
+   */
+  public int getChunksDelta() {
+    return this.chunksDelta;
+  }
+
   /**
    * Gets value size
    * @return serialized value size
@@ -137,31 +165,35 @@ public class HashDelete extends Operation {
 
     int toCut = fieldSizeSize + fieldSize + fieldValueSizeSize + fieldValueSize;
     long valueAddress = DataBlock.valueAddress(foundRecordAddress);
-    // decrement number of elements in this value
-    int numElements = addNumElements(valueAddress, -1);
+    int numElements = numElementsInValue(valueAddress) - 1;
     if (numElements == 0) {
       this.checkForEmpty = true;
     }
-    int valueSize = DataBlock.valueLength(foundRecordAddress);
+    // Offset table is rebuilt after update
+    int valueSize = dataSize(valueAddress, DataBlock.valueLength(foundRecordAddress));
     int newValueSize = valueSize - toCut;
-    Hashes.checkValueArena(newValueSize);
+    Hashes.checkValueArena(newValueSize + offsetsSize(numElements));
     long ptr = Hashes.valueArena.get();
     // TODO: check this
     UnsafeAccess.copy(valueAddress, ptr, addr - valueAddress);
     UnsafeAccess.copy(addr + toCut, ptr + addr - valueAddress,
       valueSize - toCut - (addr - valueAddress));
+    // decrement number of elements in a new value
+    addNumElements(ptr, -1);
 
     // set # of updates to 1
     this.updatesCount = 1;
     this.keys[0] = foundKeyAddress;
     this.keySizes[0] = foundKeySize;
     this.values[0] = ptr;
-    this.valueSizes[0] = valueSize - toCut;
+    this.valueSizes[0] = buildOffsets(ptr, newValueSize, true);
+    this.sizeDelta = -toCut;
     // TODO: Verify that we do not need to check canDelete to delete
     if (numElements == 0 && !isFirstKey /* && canDelete(foundKeyAddress, foundKeySize) */) {
       // Delete Key, b/c its empty
       // TODO: we postpone deleting empty first key
       this.updateTypes[0] = true;
+      this.chunksDelta = -1;
     }
     return true;
   }
@@ -207,10 +207,10 @@ public final class HashScanner extends Scanner {
   /** Main initialization routine */
   private void init() throws IOException {
     this.valueAddress = mapScanner.valueAddress();
-    this.valueSize = mapScanner.valueSize();
     if (this.valueAddress == -1) {
       throw new IOException("Empty scanner");
     }
+    this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
     this.valueNumber = Commons.numElementsInValue(this.valueAddress);
 
     if (reverse) {
@@ -281,7 +281,7 @@ public final class HashScanner extends Scanner {
       return false;
     }
     this.valueAddress = mapScanner.valueAddress();
-    this.valueSize = mapScanner.valueSize();
+    this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
     this.valueNumber = Commons.numElementsInValue(this.valueAddress);
 
     // check if it it is not empty
@@ -367,7 +367,7 @@ public final class HashScanner extends Scanner {
       mapScanner.next();
       if (mapScanner.hasNext()) {
         this.valueAddress = mapScanner.valueAddress();
-        this.valueSize = mapScanner.valueSize();
+        this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
         this.valueNumber = Commons.numElementsInValue(this.valueAddress);
 
         this.offset = NUM_ELEM_SIZE;
@@ -413,7 +413,7 @@ public final class HashScanner extends Scanner {
 
     while (mapScanner.hasNext()) {
       this.valueAddress = mapScanner.valueAddress();
-      this.valueSize = mapScanner.valueSize();
+      this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
       // check if it it is not empty
       this.offset = NUM_ELEM_SIZE;
       if (valueSize <= NUM_ELEM_SIZE) {
@@ -515,7 +515,7 @@ public final class HashScanner extends Scanner {
           mapScanner.next();
           if (mapScanner.hasNext()) {
             this.valueAddress = mapScanner.valueAddress();
-            this.valueSize = mapScanner.valueSize();
+            this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
             this.valueNumber = Commons.numElementsInValue(this.valueAddress);
             this.pos = 0;
             this.offset = NUM_ELEM_SIZE;
@@ -14,12 +14,15 @@ package com.carrotdata.redcarrot.redis.hashes;
 import static com.carrotdata.redcarrot.redis.util.Commons.KEY_SIZE;
 import static com.carrotdata.redcarrot.redis.util.Commons.NUM_ELEM_SIZE;
 import static com.carrotdata.redcarrot.redis.util.Commons.addNumElements;
+import static com.carrotdata.redcarrot.redis.util.Commons.buildOffsets;
 import static com.carrotdata.redcarrot.redis.util.Commons.canSplit;
+import static com.carrotdata.redcarrot.redis.util.Commons.dataSize;
 import static com.carrotdata.redcarrot.redis.util.Commons.elementAddressFromKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.elementSizeFromKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.keySize;
 import static com.carrotdata.redcarrot.redis.util.Commons.keySizeWithPrefix;
 import static com.carrotdata.redcarrot.redis.util.Commons.numElementsInValue;
+import static com.carrotdata.redcarrot.redis.util.Commons.offsetsSize;
 import static com.carrotdata.redcarrot.redis.util.Commons.setNumElements;
 
 import com.carrotdata.redcarrot.DataBlock;
@@ -58,6 +61,12 @@ public class HashSet extends Operation {
 
   private int added = 0;
 
+  /* Serialized size change after update */
+  private int sizeDelta;
+
+  /* Number of new K-Vs created */
+  private int chunksDelta;
+
   /**
    * Checks key arena size
    * @param required size
@@ -106,6 +115,22 @@ public class HashSet extends Operation {
     return added;
   }
 
+  /**
+   * Get serialized size change (new field-value or value size difference for existing field)
+   * @return size delta
+   */
+  public int getSizeDelta() {
+    return sizeDelta;
+  }
+
+  /**
+   * Get number of new K-Vs created by this operation
+   * @return number of new K-Vs
+   */
+  public int getChunksDelta() {
+    return chunksDelta;
+  }
+
   @Override
   public void reset() {
     super.reset();
@@ -114,6 +139,8 @@ public class HashSet extends Operation {
     this.fieldValueSize = 0;
     this.opts = null;
     this.added = 0;
+    this.sizeDelta = 0;
+    this.chunksDelta = 0;
   }
 
   /**
@@ -156,7 +183,8 @@ public class HashSet extends Operation {
     }
     // Set exists
     long valueAddress = DataBlock.valueAddress(foundRecordAddress);
-    int valueSize = DataBlock.valueLength(foundRecordAddress);
+    // Offset table is rebuilt after update
+    int valueSize = dataSize(valueAddress, DataBlock.valueLength(foundRecordAddress));
     // First two bytes are number of elements in a value
     long addr = Hashes.insertSearch(foundRecordAddress, fieldPtr, fieldSize);
     boolean append = addr == (valueAddress + valueSize);
@@ -173,18 +201,19 @@ public class HashSet extends Operation {
         : fieldValueSize + fieldValueSizeSize - Hashes.getFulValueSize(addr);
 
     int newValueSize = valueSize + toAdd;
-
-    boolean needSplit = DataBlock.mustStoreExternally(foundKeySize, newValueSize);
+    int tableSize = offsetsSize(numElementsInValue(valueAddress) + (exists ? 0 : 1));
+    boolean needSplit = DataBlock.mustStoreExternally(foundKeySize, newValueSize + tableSize);
     if (!exists) added = 1;
+    this.sizeDelta = toAdd;
     if (!needSplit) {
-      Hashes.checkValueArena(newValueSize);
+      Hashes.checkValueArena(newValueSize + tableSize);
       insertFieldValue(valueAddress, valueSize, addr, fieldPtr, fieldSize);
       // set # of updates to 1
       this.updatesCount = 1;
       this.keys[0] = foundKeyAddress; // use the key we found
       this.keySizes[0] = foundKeySize; // use the key we found
       this.values[0] = Hashes.valueArena.get();
-      this.valueSizes[0] = newValueSize;
+      this.valueSizes[0] = buildOffsets(this.values[0], newValueSize, true);
       return true;
     } else if (!canSplit(valueAddress)) {
       // We can't split existing KV , so insert new one
@@ -195,7 +224,7 @@ public class HashSet extends Operation {
       return true;
     } else {
       // Do split
-      Hashes.checkValueArena(newValueSize + NUM_ELEM_SIZE);
+      Hashes.checkValueArena(newValueSize + NUM_ELEM_SIZE + tableSize);
       insertFieldValue(valueAddress, valueSize, addr, fieldPtr, fieldSize);
       // calculate new key size
       // This is value address for update #1
@@ -221,8 +250,14 @@ public class HashSet extends Operation {
       int leftValueSize = (int) (splitPos - vPtr);
       // This is value size update #2
       int rightValueSize = (int) ((vPtr + newValueSize - splitPos) + NUM_ELEM_SIZE);
+      // Right split is moved to leave space for an offset table of a left split
+      long rightPtr = splitPos + offsetsSize(leftSplitElNum);
+      UnsafeAccess.copy(splitPos, rightPtr, rightValueSize);
+      leftValueSize = buildOffsets(vPtr, leftValueSize, true);
+      rightValueSize = buildOffsets(rightPtr, rightValueSize, true);
 
       // Prepare updates
+      this.chunksDelta = 1;
       this.updatesCount = 2;
       this.keys[0] = foundKeyAddress;
       this.keySizes[0] = foundKeySize;
@@ -231,7 +266,7 @@ public class HashSet extends Operation {
 
       this.keys[1] = kPtr;
       this.keySizes[1] = totalKeySize;
-      this.values[1] = splitPos;
+      this.values[1] = rightPtr;
       this.valueSizes[1] = rightValueSize;
       return true;
     }
@@ -266,6 +301,8 @@ public class HashSet extends Operation {
     UnsafeAccess.copy(fieldValueAddress, vPtr + NUM_ELEM_SIZE + fSizeSize + vSizeSize + fieldSize,
       fieldValueSize);
 
+    this.sizeDelta = fieldSize + fSizeSize + fieldValueSize + vSizeSize;
+    this.chunksDelta = 1;
     // set number of updates to 1
     this.updatesCount = 1;
     keys[0] = kPtr;
@@ -302,6 +339,8 @@ public class HashSet extends Operation {
     UnsafeAccess.copy(fieldValueAddress, vPtr + NUM_ELEM_SIZE + fSizeSize + vSizeSize + fieldSize,
       fieldValueSize);
 
+    this.sizeDelta = fieldSize + fSizeSize + fieldValueSize + vSizeSize;
+    this.chunksDelta = 1;
     // set number of updates to 1
     this.updatesCount = 1;
     keys[0] = kPtr;
@@ -335,12 +374,12 @@ public class HashSet extends Operation {
       }
     }
 
-    if (!update) {
-      addNumElements(valueAddress, 1);
-    }
     long ptr = Hashes.valueArena.get();
     // Copy everything before addr
     UnsafeAccess.copy(valueAddress, ptr, addr - valueAddress);
+    if (!update) {
+      addNumElements(ptr, 1);
+    }
     // Encode element size
     ptr += addr - valueAddress;
     int fSizeSize = Utils.writeUVInt(ptr, fieldSize);
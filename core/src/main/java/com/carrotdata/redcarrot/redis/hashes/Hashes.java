@@ -14,7 +14,6 @@ package com.carrotdata.redcarrot.redis.hashes;
 import static com.carrotdata.redcarrot.redis.util.Commons.KEY_SIZE;
 import static com.carrotdata.redcarrot.redis.util.Commons.NUM_ELEM_SIZE;
 import static com.carrotdata.redcarrot.redis.util.Commons.ZERO;
-import static com.carrotdata.redcarrot.redis.util.Commons.numElementsInValue;
 import static com.carrotdata.redcarrot.util.KeysLocker.readLock;
 import static com.carrotdata.redcarrot.util.KeysLocker.readUnlock;
 import static com.carrotdata.redcarrot.util.KeysLocker.writeLock;
@@ -35,6 +34,8 @@ import com.carrotdata.redcarrot.DataBlock;
 import com.carrotdata.redcarrot.ops.OperationFailedException;
 import com.carrotdata.redcarrot.redis.util.Commons;
 import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
+import com.carrotdata.redcarrot.redis.util.Metadata;
 import com.carrotdata.redcarrot.redis.util.MutationOptions;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.KeyValue;
@@ -53,7 +54,13 @@ import com.carrotdata.redcarrot.util.ValueScore;
  * Value format:
  * <p>
  * N - number of pairs - 2 bytes { field size - VLE (variable length encoding) value size - VLE
- * (variable length encoding) field data value data } +N
+ * (variable length encoding) field data value data } +N [offset table]
+ * <p>
+ * Optional offset table keeps offsets of every Commons.VALUE_OFFSETS_STRIDE-th pair, the highest
+ * bit of N is set when a value has it (see {@link Commons#buildOffsets(long, int, boolean)})
+ * <p>
+ * Number of fields, serialized size and number of K-Vs of a hash are kept in a metadata K-V (see
+ * {@link Metadata}), which makes HLEN O(1)
  */
 public class Hashes {
 
@@ -262,6 +269,10 @@ public class Hashes {
       long total = map.deleteRange(kPtr, newKeySize, endKeyPtr, endKeySize);
       UnsafeAccess.free(kPtr);
       if (endKeyPtr > 0) UnsafeAccess.free(endKeyPtr);
+      Metadata.delete(map, DataType.HASH, keyPtr, keySize);
+      if (total > 0) {
+        KeyDirectory.remove(map, DataType.HASH, keyPtr, keySize);
+      }
       return total > 0;
     } finally {
       if (lock) KeysLocker.writeUnlock(k);
@@ -287,6 +298,7 @@ public class Hashes {
 
     Key k = getKey(keyPtr, keySize);
     int count = 0;
+    long size = 0, chunks = 0;
     try {
       writeLock(k);
       for (int i = 0; i < fieldPtrs.length; i++) {
@@ -301,9 +313,13 @@ public class Hashes {
         set.setKeySize(kSize);
         set.setFieldValue(valuePtr, valueSize);
         set.setOptions(MutationOptions.NONE);
-        map.execute(set);
-        count += set.getAdded();
+        if (map.execute(set)) {
+          count += set.getAdded();
+          size += set.getSizeDelta();
+          chunks += set.getChunksDelta();
+        }
       }
+      updateMetadata(map, keyPtr, keySize, count, size, chunks);
       return count;
     } finally {
       writeUnlock(k);
@@ -326,6 +342,7 @@ public class Hashes {
     }
     Key k = getKey(keyPtr, keySize);
     int count = 0;
+    long size = 0, chunks = 0;
     try {
       writeLock(k);
 
@@ -342,13 +359,16 @@ public class Hashes {
         set.setFieldValue(valuePtr, valueSize);
         set.setOptions(MutationOptions.NONE);
         // version?
-        map.execute(set);
-        count += set.getAdded();
-
+        if (map.execute(set)) {
+          count += set.getAdded();
+          size += set.getSizeDelta();
+          chunks += set.getChunksDelta();
+        }
         if (count % 100000 == 0) {
           log.debug("Loaded {}", count);
         }
       }
+      updateMetadata(map, keyPtr, keySize, count, size, chunks);
       return count;
     } finally {
       writeUnlock(k);
@@ -439,8 +459,10 @@ public class Hashes {
       set.setKeySize(kSize);
       set.setFieldValue(valuePtr, valueSize);
       set.setOptions(MutationOptions.NONE);
-      map.execute(set);
-      count += set.getAdded();
+      if (map.execute(set)) {
+        count += set.getAdded();
+        updateMetadata(map, keyPtr, keySize, count, set.getSizeDelta(), set.getChunksDelta());
+      }
       return count;
     } finally {
       //if (lock) writeUnlock(k);
@@ -482,6 +504,7 @@ public class Hashes {
   public static int HSET_NEW(BigSortedMap map, long keyPtr, int keySize, List<KeyValue> members) {
     Key k = getKey(keyPtr, keySize);
     int count = 0;
+    long size = 0, chunks = 0;
     try {
       KeysLocker.writeLock(k);
       KeyValue first = new KeyValue(ZERO, SIZEOF_BYTE, ZERO, SIZEOF_BYTE);
@@ -509,8 +532,11 @@ public class Hashes {
           break;
         }
         count += num;
+        size += valueSize - NUM_ELEM_SIZE;
+        chunks++;
         prev = kv;
       }
+      Metadata.set(map, DataType.HASH, keyPtr, keySize, count, size, chunks);
       return count;
     } finally {
       KeysLocker.writeUnlock(k);
@@ -584,6 +610,7 @@ public class Hashes {
       List<ValueScore> members) {
     Key k = getKey(keyPtr, keySize);
     int count = 0;
+    long size = 0, chunks = 0;
     try {
       KeysLocker.writeLock(k);
       ValueScore first = new ValueScore(ZERO, SIZEOF_BYTE, 0);
@@ -611,8 +638,11 @@ public class Hashes {
           break;
         }
         count += num;
+        size += valueSize - NUM_ELEM_SIZE;
+        chunks++;
         prev = kv;
       }
+      Metadata.set(map, DataType.HASH, keyPtr, keySize, count, size, chunks);
       return count;
     } finally {
       KeysLocker.writeUnlock(k);
@@ -743,7 +773,10 @@ public class Hashes {
       set.setKeySize(kSize);
       set.setFieldValue(valuePtr, valueSize);
       set.setOptions(MutationOptions.NX);
-      map.execute(set);
+      if (map.execute(set)) {
+        updateMetadata(map, keyPtr, keySize, set.getAdded(), set.getSizeDelta(),
+          set.getChunksDelta());
+      }
       return set.getAdded();
     } finally {
       writeUnlock(k);
@@ -765,49 +798,20 @@ public class Hashes {
   }
 
   /**
-   * TODO: This operation is O(N). Should we use Sets approach to keep cardinality in a separate key
    * Returns the number of fields contained in the hash stored at key. Return value Integer reply:
-   * number of fields in the hash, or 0 when key does not exist.
+   * number of fields in the hash, or 0 when key does not exist. Complexity O(1), the number of
+   * fields is kept in the hash metadata
    * @param map sorted map storage
    * @param keyPtr hash key
    * @param keySize hash key size
    * @return number of elements(fields)
    */
   public static long HLEN(BigSortedMap map, long keyPtr, int keySize) {
-
     Key k = getKey(keyPtr, keySize);
-    long endKeyPtr = 0;
     try {
       readLock(k);
-      int kSize = buildKey(keyPtr, keySize, Commons.ZERO, 1);
-      long ptr = keyArena.get();
-      int endKeySize = kSize - 1;
-      endKeyPtr = Utils.prefixKeyEnd(ptr, endKeySize);
-      if (endKeyPtr == 0) {
-        endKeySize = 0;
-      }
-      BigSortedMapScanner scanner = map.getScanner(ptr, kSize, endKeyPtr, endKeySize);
-      if (scanner == null) {
-        return 0; // empty or does not exists
-      }
-      long total = 0;
-      try {
-        while (scanner.hasNext()) {
-          long valuePtr = scanner.valueAddress();
-          int num = numElementsInValue(valuePtr);
-          total += num;
-          scanner.next();
-        }
-        scanner.close();
-      } catch (IOException e) {
-        // should never be thrown
-        log.error("StackTrace: ", e);
-      }
-      return total;
+      return Metadata.getCount(map, DataType.HASH, keyPtr, keySize);
     } finally {
-      if (endKeyPtr > 0) {
-        UnsafeAccess.free(endKeyPtr);
-      }
       readUnlock(k);
     }
   }
@@ -820,52 +824,13 @@ public class Hashes {
    * @return true - yes, false - otherwise
    */
   public static boolean isEmpty(BigSortedMap map, long keyPtr, int keySize) {
-
     Key k = getKey(keyPtr, keySize);
-    long kPtr = 0, endKeyPtr = 0;
     try {
       readLock(k);
-      int newKeySize = keySize + KEY_SIZE + 2 * Utils.SIZEOF_BYTE;
-      kPtr = UnsafeAccess.malloc(newKeySize);
-      UnsafeAccess.putByte(kPtr, (byte) DataType.HASH.ordinal());
-      UnsafeAccess.putInt(kPtr + Utils.SIZEOF_BYTE, keySize);
-      UnsafeAccess.copy(keyPtr, kPtr + KEY_SIZE + Utils.SIZEOF_BYTE, keySize);
-      UnsafeAccess.putByte(kPtr + keySize + KEY_SIZE + Utils.SIZEOF_BYTE, (byte) 0);
-
-      int endKeySize = newKeySize - 1;
-
-      endKeyPtr = Utils.prefixKeyEnd(kPtr, newKeySize - 1);
-      if (endKeyPtr == 0) {
-        endKeySize = 0;
-      }
-
-      BigSortedMapScanner scanner = map.getScanner(kPtr, newKeySize, endKeyPtr, endKeySize);
-      if (scanner == null) {
-        return true; // empty or does not exists
-      }
-      long total = 0;
-      while (scanner.hasNext()) {
-        long valuePtr = scanner.valueAddress();
-        total += numElementsInValue(valuePtr);
-        if (total > 0) {
-          scanner.close();
-          return false;
-        }
-        scanner.next();
-      }
-      scanner.close();
-    } catch (IOException e) {
-      // should never be thrown
+      return Metadata.getCount(map, DataType.HASH, keyPtr, keySize) == 0;
     } finally {
       readUnlock(k);
-      if (endKeyPtr > 0) {
-        UnsafeAccess.free(endKeyPtr);
-      }
-      if (kPtr > 0) {
-        UnsafeAccess.free(kPtr);
-      }
     }
-    return true;
   }
 
   /**
@@ -877,35 +842,10 @@ public class Hashes {
    */
   public static long getHashSizeInBytes(BigSortedMap map, long keyPtr, int keySize) {
     Key k = getKey(keyPtr, keySize);
-    long endKeyPtr = 0;
     try {
       readLock(k);
-      int kSize = buildKey(keyPtr, keySize, Commons.ZERO, 1);
-      long ptr = keyArena.get();
-      int endKeySize = kSize - 1;
-      endKeyPtr = Utils.prefixKeyEnd(ptr, endKeySize);
-      if (endKeyPtr == 0) {
-        endKeySize = 0;
-      }
-      BigSortedMapScanner scanner = map.getScanner(ptr, kSize, endKeyPtr, endKeySize);
-      if (scanner == null) {
-        return 0; // empty or does not exists
-      }
-      long total = 0;
-      try {
-        while (scanner.hasNext()) {
-          long valueSize = scanner.valueSize();
-          total += valueSize - NUM_ELEM_SIZE;
-        }
-        scanner.close();
-      } catch (IOException e) {
-        // should never be thrown
-      }
-      return total;
+      return Metadata.getSize(map, DataType.HASH, keyPtr, keySize);
     } finally {
-      if (endKeyPtr > 0) {
-        UnsafeAccess.free(endKeyPtr);
-      }
       readUnlock(k);
     }
   }
@@ -931,6 +871,7 @@ public class Hashes {
 
     Key k = getKey(keyPtr, keySize);
     int deleted = 0;
+    long size = 0, chunks = 0;
     try {
       writeLock(k);
       if (!keyExists(map, keyPtr, keySize)) {
@@ -947,12 +888,13 @@ public class Hashes {
         update.setKeySize(kSize);
         if (map.execute(update)) {
           deleted++;
-          if (update.checkForEmpty() && isEmpty(map, keyPtr, keySize)) {
-            DELETE(map, keyPtr, keySize);
-            break;
-          }
+          size += update.getSizeDelta();
+          chunks += update.getChunksDelta();
         }
       }
+      if (updateMetadata(map, keyPtr, keySize, -deleted, size, chunks) == 0) {
+        DELETE(map, keyPtr, keySize);
+      }
       return deleted;
     } finally {
       writeUnlock(k);
@@ -1014,12 +956,12 @@ public class Hashes {
       update.setKeyAddress(keyArena.get());
       update.setKeySize(kSize);
       // version?
-      boolean result = map.execute(update);
-      if (result) {
+      if (map.execute(update)) {
         deleted++;
-      }
-      if (result && update.checkForEmpty() && isEmpty(map, keyPtr, keySize)) {
-        DELETE(map, keyPtr, keySize);
+        if (updateMetadata(map, keyPtr, keySize, -1, update.getSizeDelta(),
+          update.getChunksDelta()) == 0) {
+          DELETE(map, keyPtr, keySize);
+        }
       }
       return deleted;
     } finally {
@@ -1102,8 +1044,8 @@ public class Hashes {
       update.setKeySize(kSize);
       update.setBuffer(buffer, bufferSize);
       // version?
-      boolean result = map.execute(update);
-      if (result && update.checkForEmpty() && isEmpty(map, keyPtr, keySize)) {
+      if (map.execute(update) && updateMetadata(map, keyPtr, keySize, -1,
+        update.getSizeDelta(), update.getChunksDelta()) == 0) {
         DELETE(map, keyPtr, keySize);
       }
       return update.getValueSize();
@@ -1117,6 +1059,24 @@ public class Hashes {
     return map.exists(keyArena.get(), kSize);
   }
 
+  /**
+   * Applies hash mutation deltas to the hash metadata
+   * @param map sorted map storage
+   * @param keyPtr hash key address
+   * @param keySize hash key size
+   * @param count number of fields added (removed if negative)
+   * @param size serialized size change
+   * @param chunks number of K-Vs added (removed if negative)
+   * @return number of fields after update, -1 - if nothing has changed
+   */
+  private static long updateMetadata(BigSortedMap map, long keyPtr, int keySize, long count,
+      long size, long chunks) {
+    if (count == 0 && size == 0 && chunks == 0) {
+      return -1;
+    }
+    return Metadata.update(map, DataType.HASH, keyPtr, keySize, count, size, chunks);
+  }
+
   /**
    * For testing only
    * @param map sorted map storage
@@ -1463,6 +1423,8 @@ public class Hashes {
       set.setOptions(MutationOptions.NONE);
       // version?
       if (map.execute(set)) {
+        updateMetadata(map, keyPtr, keySize, set.getAdded(), set.getSizeDelta(),
+          set.getChunksDelta());
         return value;
       } else {
         throw new OperationFailedException();
@@ -1543,6 +1505,8 @@ public class Hashes {
       set.setOptions(MutationOptions.NONE);
       // version?
       if (map.execute(set)) {
+        updateMetadata(map, keyPtr, keySize, set.getAdded(), set.getSizeDelta(),
+          set.getChunksDelta());
         return value;
       } else {
         throw new OperationFailedException();
@@ -2407,7 +2371,8 @@ public class Hashes {
   }
 
   /**
-   * Finds location of a given field in a Value object
+   * Finds location of a given field in a Value object. Value with offset table is binary searched,
+   * its fields are sorted
    * @param foundRecordAddress address of K-V record
    * @param fieldPtr field's address
    * @param fieldSize field's size
@@ -2416,6 +2381,24 @@ public class Hashes {
   public static long exactSearch(long foundRecordAddress, long fieldPtr, int fieldSize) {
     long valuePtr = DataBlock.valueAddress(foundRecordAddress);
     int valueSize = DataBlock.valueLength(foundRecordAddress);
+    if (Commons.hasOffsets(valuePtr)) {
+      long ptr = Commons.searchStart(valuePtr, valueSize, fieldPtr, fieldSize, true);
+      long end = valuePtr + Commons.dataSize(valuePtr, valueSize);
+      while (ptr < end) {
+        int fSize = Utils.readUVInt(ptr);
+        int skip = Utils.sizeUVInt(fSize);
+        int vSize = Utils.readUVInt(ptr + skip);
+        skip += Utils.sizeUVInt(vSize);
+        int res = Utils.compareTo(ptr + skip, fSize, fieldPtr, fieldSize);
+        if (res == 0) {
+          return ptr;
+        } else if (res > 0) {
+          break;
+        }
+        ptr += skip + fSize + vSize;
+      }
+      return -1; // NOT_FOUND
+    }
     int off = NUM_ELEM_SIZE; // skip number of elements in value
     while (off < valueSize) {
       int fSize = Utils.readUVInt(valuePtr + off);
@@ -2441,18 +2424,19 @@ public class Hashes {
   public static long insertSearch(long foundRecordAddress, long fieldPtr, int fieldSize) {
     long valuePtr = DataBlock.valueAddress(foundRecordAddress);
     int valueSize = DataBlock.valueLength(foundRecordAddress);
-    int off = NUM_ELEM_SIZE; // skip number of elements
-    while (off < valueSize) {
-      int fSize = Utils.readUVInt(valuePtr + off);
+    long ptr = Commons.searchStart(valuePtr, valueSize, fieldPtr, fieldSize, true);
+    long end = valuePtr + Commons.dataSize(valuePtr, valueSize);
+    while (ptr < end) {
+      int fSize = Utils.readUVInt(ptr);
       int skip = Utils.sizeUVInt(fSize);
-      int vSize = Utils.readUVInt(valuePtr + off + skip);
+      int vSize = Utils.readUVInt(ptr + skip);
       skip += Utils.sizeUVInt(vSize);
-      if (Utils.compareTo(fieldPtr, fieldSize, valuePtr + off + skip, fSize) <= 0) {
-        return valuePtr + off;
+      if (Utils.compareTo(fieldPtr, fieldSize, ptr + skip, fSize) <= 0) {
+        return ptr;
       }
-      off += skip + fSize + vSize;
+      ptr += skip + fSize + vSize;
     }
-    return valuePtr + valueSize; // put in the end largest one
+    return end; // put in the end largest one
   }
 
   /**
@@ -0,0 +1,170 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.keys;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.EvictionPolicy;
+import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.storage.WriteAheadLog;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Max memory eviction. Victim data block is selected by the store according to an eviction
+ * policy, all Redis keys which have records in this block are deleted. Deletion is type-aware: all
+ * sub-records of a Hash, Set, ZSet, List or sparse bitmap are removed (and custom allocations are
+ * released), even if they reside in other data blocks. System keys are never evicted.
+ */
+public class Evictor {
+
+  /*
+   * Buffer size for victim block keys
+   */
+  static final int BUFFER_SIZE = 64 * 1024;
+
+  /*
+   * Maximum number of victim blocks evicted at once
+   */
+  static final int MAX_VICTIMS = 64;
+
+  /*
+   * Size of an internal key prefix: [type][key size]
+   */
+  static final int KEY_PREFIX_SIZE = Utils.SIZEOF_BYTE + Utils.SIZEOF_INT;
+
+  private static final byte[] DEL = "DEL".getBytes();
+
+  private static ThreadLocal<Long> buffer = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      return UnsafeAccess.malloc(BUFFER_SIZE);
+    }
+  };
+
+  /*
+   * Maximum memory reserved for a single command: store refuses to allocate new blocks when the
+   * limit is reached, therefore eviction starts a bit earlier
+   */
+  static final long MAX_HEADROOM = 1024 * 1024;
+
+  /**
+   * Is memory limit (minus headroom for a command) reached
+   * @return true - yes, false - otherwise
+   */
+  public static boolean isMemoryLimitReached() {
+    long limit = BigSortedMap.getGlobalMemoryLimit();
+    long headroom = Math.min(limit / 16, MAX_HEADROOM);
+    return BigSortedMap.getGlobalAllocatedMemory() >= limit - headroom;
+  }
+
+  /**
+   * Evicts keys until allocated memory gets below the limit
+   * @param map sorted map storage
+   * @return true - memory is below the limit, false - otherwise
+   */
+  public static boolean evictIfNeeded(BigSortedMap map) {
+    if (BigSortedMap.getEvictionPolicy() == EvictionPolicy.NOEVICTION) {
+      return !isMemoryLimitReached();
+    }
+    for (int i = 0; i < MAX_VICTIMS && isMemoryLimitReached(); i++) {
+      if (evict(map) < 0) {
+        break;
+      }
+    }
+    return !isMemoryLimitReached();
+  }
+
+  /**
+   * Evicts one victim data block
+   * @param map sorted map storage
+   * @return number of keys deleted, -1 - no candidates were found
+   */
+  public static int evict(BigSortedMap map) {
+    long buf = buffer.get();
+    int num = map.selectEvictionVictim(BigSortedMap.getEvictionPolicy(),
+      BigSortedMap.getEvictionSamples(), buf, BUFFER_SIZE);
+    if (num == 0) {
+      return -1;
+    }
+    int deleted = 0;
+    long prevPtr = 0;
+    int prevSize = 0;
+    long ptr = buf;
+    for (int i = 0; i < num; i++) {
+      int size = UnsafeAccess.toShort(ptr) & 0xffff;
+      long keyPtr = ptr + Utils.SIZEOF_SHORT;
+      ptr = keyPtr + size;
+      DataType type = getEvictableType(keyPtr, size);
+      if (type == null) {
+        continue;
+      }
+      int keySize = UnsafeAccess.toInt(keyPtr + Utils.SIZEOF_BYTE);
+      // Records of the same key are adjacent
+      if (prevPtr != 0
+          && Utils.compareTo(prevPtr, prevSize, keyPtr, keySize + KEY_PREFIX_SIZE) == 0) {
+        continue;
+      }
+      prevPtr = keyPtr;
+      prevSize = keySize + KEY_PREFIX_SIZE;
+      if (Keys.DELETE(map, type, keyPtr + KEY_PREFIX_SIZE, keySize)) {
+        logDelete(map, keyPtr + KEY_PREFIX_SIZE, keySize);
+        deleted++;
+      }
+    }
+    return deleted;
+  }
+
+  /**
+   * Logs evicted key as DEL command, otherwise write-ahead log replay would restore it
+   * @param map sorted map storage
+   * @param keyPtr key address
+   * @param keySize key size
+   */
+  private static void logDelete(BigSortedMap map, long keyPtr, int keySize) {
+    WriteAheadLog wal = map.getWAL();
+    if (wal == null) {
+      return;
+    }
+    // Carrot request format: [num args][size][DEL][size][key]
+    int size = 3 * Utils.SIZEOF_INT + DEL.length + keySize;
+    long ptr = UnsafeAccess.malloc(size);
+    UnsafeAccess.putInt(ptr, 2);
+    UnsafeAccess.putInt(ptr + Utils.SIZEOF_INT, DEL.length);
+    UnsafeAccess.copy(DEL, 0, ptr + 2 * Utils.SIZEOF_INT, DEL.length);
+    UnsafeAccess.putInt(ptr + 2 * Utils.SIZEOF_INT + DEL.length, keySize);
+    UnsafeAccess.copy(keyPtr, ptr + 3 * Utils.SIZEOF_INT + DEL.length, keySize);
+    wal.append(ptr, size);
+    UnsafeAccess.free(ptr);
+  }
+
+  /**
+   * Get data type of an internal key
+   * @param keyPtr internal key address
+   * @param size internal key size
+   * @return data type or null, if key can not be evicted
+   */
+  private static DataType getEvictableType(long keyPtr, int size) {
+    if (size <= KEY_PREFIX_SIZE) {
+      return null;
+    }
+    DataType type = DataType.getDataType(keyPtr);
+    if (type == null || type == DataType.SYSTEM || type == DataType.BTREE
+        || type == DataType.DIRECTORY) {
+      return null;
+    }
+    int keySize = UnsafeAccess.toInt(keyPtr + Utils.SIZEOF_BYTE);
+    if (keySize <= 0 || keySize > size - KEY_PREFIX_SIZE) {
+      return null;
+    }
+    return type;
+  }
+}
@@ -11,17 +11,43 @@
  */
 package com.carrotdata.redcarrot.redis.keys;
 
+import static com.carrotdata.redcarrot.redis.util.Commons.KEY_PREFIX_SIZE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.BigSortedMapScanner;
 import com.carrotdata.redcarrot.redis.hashes.Hashes;
 import com.carrotdata.redcarrot.redis.lists.Lists;
 import com.carrotdata.redcarrot.redis.sets.Sets;
 import com.carrotdata.redcarrot.redis.sparse.SparseBitmaps;
 import com.carrotdata.redcarrot.redis.strings.Strings;
+import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
 import com.carrotdata.redcarrot.redis.util.MutationOptions;
-import com.carrotdata.redcarrot.redis.zsets.ZSets;
+import com.carrotdata.redcarrot.util.Key;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+import com.carrotdata.redcarrot.util.Value;
 
+/**
+ * Generic key commands. Non-string keys are resolved by KeyDirectory, so a key of any type is found
+ * with at most two lookups: a string key and a directory record.
+ */
 public class Keys {
 
+  /* Collection types in a dispatch order, sorted set goes first */
+  private static final DataType[] COLLECTION_TYPES = new DataType[] { DataType.ZSET, DataType.SET,
+      DataType.HASH, DataType.LIST, DataType.SBITMAP };
+
+  /* Number of K-Vs moved at once by RENAME */
+  private static final int RENAME_BATCH_SIZE = 1000;
+
+  /* Number of keys visited at once by KEYS */
+  private static final int KEYS_BATCH_SIZE = 1000;
+
   /**
    * Available since 1.0.0. Time complexity: O(1) Returns the remaining time to live of a key that
    * has a timeout. This introspection capability allows a Redis client to check how many seconds a
@@ -36,7 +62,8 @@ public class Keys {
    * (see the description above).
    */
   public static long TTL(BigSortedMap map, long keyPtr, int keySize) {
-    return 0;
+    long ttl = PTTL(map, keyPtr, keySize);
+    return ttl < 0 ? ttl : (ttl + 500) / 1000;
   }
 
   /**
@@ -50,7 +77,460 @@ public class Keys {
    * error (see the description above).
    */
   public static long PTTL(BigSortedMap map, long keyPtr, int keySize) {
-    return 0;
+    // Only strings have expiration time
+    long expire = Strings.GETEXPIRE(map, keyPtr, keySize);
+    if (expire < 0) {
+      return keyExists(map, keyPtr, keySize) ? -1 : -2;
+    } else if (expire == 0) {
+      return -1;
+    }
+    long ttl = expire - System.currentTimeMillis();
+    // Expired key which was not deleted yet does not exist
+    return ttl > 0 ? ttl : -2;
+  }
+
+  /**
+   * Checks if key of a non-string type exists
+   * @param map sorted map storage
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return true - exists, false - otherwise
+   */
+  private static boolean keyExists(BigSortedMap map, long keyPtr, int keySize) {
+    return getCollectionType(map, keyPtr, keySize) != null;
+  }
+
+  /**
+   * Get type of a non-string key. Type found in a key directory is verified
+   * @param map sorted map storage
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return data type or null (key does not exist)
+   */
+  private static DataType getCollectionType(BigSortedMap map, long keyPtr, int keySize) {
+    int types = KeyDirectory.getTypes(map, keyPtr, keySize);
+    if (types == 0) {
+      return null;
+    }
+    for (DataType type : COLLECTION_TYPES) {
+      if (!KeyDirectory.contains(types, type) || !exists(map, type, keyPtr, keySize)) {
+        continue;
+      }
+      if (type == DataType.SET && KeyDirectory.contains(types, DataType.HASH)
+          && Hashes.keyExists(map, keyPtr, keySize)) {
+        // Sorted set in a normal mode keeps its members in a set and in a hash
+        return DataType.ZSET;
+      }
+      return type;
+    }
+    return null;
+  }
+
+  /**
+   * Checks if key of a given non-string type exists
+   * @param map sorted map storage
+   * @param type data type
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return true - exists, false - otherwise
+   */
+  private static boolean exists(BigSortedMap map, DataType type, long keyPtr, int keySize) {
+    switch (type) {
+      case LIST:
+        return Lists.LLEN(map, keyPtr, keySize) > 0;
+      case SET:
+      case ZSET:
+        // Sorted set members are kept in a Set
+        return Sets.keyExists(map, keyPtr, keySize);
+      case HASH:
+        return Hashes.keyExists(map, keyPtr, keySize);
+      case SBITMAP:
+        return SparseBitmaps.EXISTS(map, keyPtr, keySize);
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * EXISTS key [key ...]
+   * <p>
+   * Available since 1.0.0. Time complexity: O(N) where N is the number of keys to check. Returns if
+   * key exists. The user should be aware that if the same existing key is mentioned in the
+   * arguments multiple times, it will be counted multiple times.
+   * <p>
+   * Return value Integer reply: The number of keys existing among the ones specified as arguments.
+   * @param map sorted map storage
+   * @param keyPtrs key addresses
+   * @param keySizes key sizes
+   * @return number of existing keys
+   */
+  public static int EXISTS(BigSortedMap map, long[] keyPtrs, int[] keySizes) {
+    int count = 0;
+    for (int i = 0; i < keyPtrs.length; i++) {
+      if (TYPE(map, keyPtrs[i], keySizes[i]) != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * TYPE key
+   * <p>
+   * Available since 1.0.0. Time complexity: O(1) Returns the string representation of the type of
+   * the value stored at key. The different types that can be returned are: string, list, set, zset,
+   * hash and stream.
+   * <p>
+   * Return value Simple string reply: type of key, or none when key does not exist.
+   * @param map sorted map storage
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return data type (SBITMAP for sparse bitmaps) or null, if key does not exist
+   */
+  public static DataType TYPE(BigSortedMap map, long keyPtr, int keySize) {
+    if (Strings.keyExists(map, keyPtr, keySize)) {
+      return DataType.STRING;
+    }
+    return getCollectionType(map, keyPtr, keySize);
+  }
+
+  /**
+   * DBSIZE
+   * <p>
+   * Available since 1.0.0. Time complexity: O(1) Return the number of keys in the
+   * currently-selected database.
+   * <p>
+   * Every string key is a single K-V and every collection key has a single key directory K-V,
+   * therefore the number of keys is a sum of two record counters the store keeps up to date. Keys
+   * which are pending expiration are counted.
+   * @param map sorted map storage
+   * @return number of keys
+   */
+  public static long DBSIZE(BigSortedMap map) {
+    return map.getInstanceRecordCount(DataType.STRING.ordinal())
+        + map.getInstanceRecordCount(DataType.DIRECTORY.ordinal());
+  }
+
+  /**
+   * SCAN cursor [MATCH pattern] [COUNT count] [TYPE type]
+   * <p>
+   * Available since 2.8.0. Time complexity: O(1) for every call. O(N) for a complete iteration,
+   * including enough command calls for the cursor to return back to 0. N is the number of keys
+   * inside the database. The SCAN command is used in order to incrementally iterate over the keys
+   * of a database.
+   * <p>
+   * Keys are visited in a key order: string keys first, then collection keys from a key directory,
+   * so every collection is reported once. Only key ranges which can match a pattern are visited
+   * (see {@link #getKeyRange(String)}). COUNT is the number of keys visited in these ranges, a
+   * reply can have less keys, when some of them do not match a pattern or a type. The last element
+   * of a serialized array is the last seen key (in an internal format), a caller must save it to
+   * continue the scan and must remove it from a reply.
+   * @param map sorted map storage
+   * @param lastSeenKeyPtr last seen key address (0 - start a new scan)
+   * @param lastSeenKeySize last seen key size
+   * @param count number of keys to visit
+   * @param buffer memory buffer for return items
+   * @param bufferSize buffer size
+   * @param pattern glob-style pattern to match (can be null)
+   * @param type data type to match (can be null)
+   * @return total serialized size of the response, 0 - scan is complete
+   */
+  public static long SCAN(BigSortedMap map, long lastSeenKeyPtr, int lastSeenKeySize, int count,
+      long buffer, int bufferSize, String pattern, DataType type) {
+    Key[] range = getKeyRange(pattern);
+    String regex = pattern == null ? null
+        : com.carrotdata.redcarrot.redis.util.Utils.globToRegex(pattern);
+    Key lastSeen = lastSeenKeyPtr > 0 ? new Key(lastSeenKeyPtr, lastSeenKeySize) : null;
+    List<Key> keys = new ArrayList<Key>();
+    try {
+      scanKeys(map, lastSeen, range, type, count, keys);
+      if (keys.size() == 0) {
+        return 0;
+      }
+      int c = 0;
+      long ptr = buffer + Utils.SIZEOF_INT;
+      Key last = null;
+      for (Key k : keys) {
+        int size = k.length - KEY_PREFIX_SIZE;
+        boolean matches = matches(map, k, regex, type);
+        long required = matches ? Utils.sizeUVInt(size) + size : 0;
+        // Reserve space for the last seen key
+        required += Utils.sizeUVInt(k.length) + k.length;
+        if (ptr + required > buffer + bufferSize) {
+          break;
+        }
+        if (matches) {
+          ptr = writeKey(ptr, k.address + KEY_PREFIX_SIZE, size);
+          c++;
+        }
+        last = k;
+      }
+      if (last != null) {
+        writeKey(ptr, last.address, last.length);
+        c++;
+      }
+      UnsafeAccess.putInt(buffer, c);
+      return ptr - buffer;
+    } finally {
+      free(keys, range);
+    }
+  }
+
+  /**
+   * KEYS pattern
+   * <p>
+   * Available since 1.0.0. Time complexity: O(N) with N being the number of keys in the database,
+   * under the assumption that the key names in the database and the given pattern have limited
+   * length. Returns all keys matching pattern.
+   * <p>
+   * Only key ranges which can match a pattern are visited (see {@link #getKeyRange(String)}).
+   * @param map sorted map storage
+   * @param pattern glob-style pattern to match
+   * @param buffer memory buffer for return items
+   * @param bufferSize buffer size
+   * @return total serialized size of the response, if greater than bufferSize, the call must be
+   *         retried with the appropriately sized buffer
+   */
+  public static long KEYS(BigSortedMap map, String pattern, long buffer, int bufferSize) {
+    Key[] range = getKeyRange(pattern);
+    String regex = com.carrotdata.redcarrot.redis.util.Utils.globToRegex(pattern);
+    List<Key> keys = new ArrayList<Key>();
+    Key lastSeen = null;
+    int count = 0;
+    long ptr = buffer + Utils.SIZEOF_INT;
+    UnsafeAccess.putInt(buffer, count);
+    try {
+      while (true) {
+        scanKeys(map, lastSeen, range, null, KEYS_BATCH_SIZE, keys);
+        if (lastSeen != null) {
+          UnsafeAccess.free(lastSeen.address);
+          lastSeen = null;
+        }
+        if (keys.size() == 0) {
+          break;
+        }
+        for (Key k : keys) {
+          if (!matches(map, k, regex, null)) {
+            continue;
+          }
+          int size = k.length - KEY_PREFIX_SIZE;
+          int sizeSize = Utils.sizeUVInt(size);
+          if (ptr + size + sizeSize <= buffer + bufferSize) {
+            writeKey(ptr, k.address + KEY_PREFIX_SIZE, size);
+            count++;
+            UnsafeAccess.putInt(buffer, count);
+          }
+          ptr += size + sizeSize;
+        }
+        // Continue after the last key of a batch
+        lastSeen = keys.remove(keys.size() - 1);
+        free(keys, (Key[]) null);
+      }
+    } finally {
+      free(keys, range);
+    }
+    return ptr - buffer;
+  }
+
+  /**
+   * Collects keys of strings and collections (directory keys) in a key order. Key is copied in an
+   * internal format [TYPE][KEY_SIZE][KEY]. Internal keys are ordered by a key size first, therefore
+   * a key range [low, high) is visited separately for every key size, keys out of a range are
+   * skipped with a new scanner.
+   * @param map sorted map storage
+   * @param lastSeen last seen key, exclusive start (can be null)
+   * @param range key range (can be null)
+   * @param type data type (can be null)
+   * @param count maximum number of keys to collect
+   * @param keys list of keys to collect to, keys must be freed by a caller
+   */
+  private static void scanKeys(BigSortedMap map, Key lastSeen, Key[] range, DataType type,
+      int count, List<Key> keys) {
+    // String keys go first
+    DataType[] types = type == null ? new DataType[] { DataType.STRING, DataType.DIRECTORY }
+        : type == DataType.STRING ? new DataType[] { DataType.STRING }
+            : new DataType[] { DataType.DIRECTORY };
+    Key low = range == null ? null : range[0];
+    Key high = range == null ? null : range[1];
+    int minSize = low == null ? 0 : low.length;
+    int index = 0;
+    Key start = null;
+    if (lastSeen != null) {
+      int t = UnsafeAccess.toByte(lastSeen.address);
+      while (index < types.length && types[index].ordinal() < t) {
+        index++;
+      }
+      if (index < types.length && types[index].ordinal() == t) {
+        start = new Key(UnsafeAccess.allocAndCopy(lastSeen.address, lastSeen.length),
+            lastSeen.length);
+      }
+    }
+    if (start == null && index < types.length) {
+      start = buildSeekKey(types[index], minSize, low);
+    }
+    long endPtr = UnsafeAccess.malloc(Utils.SIZEOF_BYTE);
+    try {
+      while (index < types.length && keys.size() < count) {
+        UnsafeAccess.putByte(endPtr, (byte) (types[index].ordinal() + 1));
+        BigSortedMapScanner scanner =
+            map.getScanner(start.address, start.length, endPtr, Utils.SIZEOF_BYTE);
+        // Next position in the same type, null - all keys of a type were visited
+        Key next = null;
+        if (scanner != null) {
+          try {
+            while (scanner.hasNext() && keys.size() < count) {
+              long ptr = scanner.keyAddress();
+              int kSize = scanner.keySize();
+              if (kSize < KEY_PREFIX_SIZE
+                  || kSize != DataType.externalKeyLength(ptr) + KEY_PREFIX_SIZE
+                  || lastSeen != null
+                      && Utils.compareTo(ptr, kSize, lastSeen.address, lastSeen.length) == 0) {
+                scanner.next();
+                continue;
+              }
+              int size = kSize - KEY_PREFIX_SIZE;
+              if (low != null) {
+                long keyPtr = ptr + KEY_PREFIX_SIZE;
+                if (Utils.compareTo(keyPtr, size, low.address, low.length) < 0) {
+                  next = buildSeekKey(types[index], Math.max(size, low.length), low);
+                  break;
+                }
+                if (high != null && Utils.compareTo(keyPtr, size, high.address, high.length) >= 0) {
+                  // Skip to the next key size
+                  next = buildSeekKey(types[index], size + 1, low);
+                  break;
+                }
+              }
+              keys.add(new Key(UnsafeAccess.allocAndCopy(ptr, kSize), kSize));
+              scanner.next();
+            }
+          } finally {
+            scanner.close();
+          }
+        }
+        UnsafeAccess.free(start.address);
+        start = null;
+        if (next != null) {
+          start = next;
+        } else if (keys.size() < count && ++index < types.length) {
+          start = buildSeekKey(types[index], minSize, low);
+        }
+      }
+    } catch (IOException e) {
+      // should never be thrown
+    } finally {
+      UnsafeAccess.free(endPtr);
+      if (start != null) {
+        UnsafeAccess.free(start.address);
+      }
+    }
+  }
+
+  /**
+   * Checks if key matches a pattern and a data type. Type of a directory key is verified
+   * @param map sorted map storage
+   * @param key key in an internal format
+   * @param regex regular expression (can be null)
+   * @param type data type (can be null)
+   * @return true - matches, false - otherwise
+   */
+  private static boolean matches(BigSortedMap map, Key key, String regex, DataType type) {
+    long keyPtr = key.address + KEY_PREFIX_SIZE;
+    int keySize = key.length - KEY_PREFIX_SIZE;
+    if (regex != null && !Utils.matches(keyPtr, keySize, regex)) {
+      return false;
+    }
+    if (UnsafeAccess.toByte(key.address) == (byte) DataType.STRING.ordinal()) {
+      return true;
+    }
+    DataType t = getCollectionType(map, keyPtr, keySize);
+    return type == null ? t != null : t == type;
+  }
+
+  /**
+   * Converts glob-style pattern into a key range [low, high) which contains all matching keys.
+   * Pattern which starts with a character set or a wildcard has no range, pattern prefix[a-z] or
+   * prefix[a-z]* is converted by Utils.globToRange, otherwise the range is defined by a literal
+   * prefix of a pattern
+   * @param pattern glob-style pattern
+   * @return key range (must be freed by a caller) or null
+   */
+  static Key[] getKeyRange(String pattern) {
+    if (pattern == null) {
+      return null;
+    }
+    String[] range = null;
+    if (pattern.matches("[^*?\\[\\]\\\\^-]*\\[[^*?\\[\\]\\\\^-]-[^*?\\[\\]\\\\^-]\\]\\*?")) {
+      range = com.carrotdata.redcarrot.redis.util.Utils.globToRange(pattern);
+    } else {
+      int len = 0;
+      while (len < pattern.length() && "*?[\\".indexOf(pattern.charAt(len)) < 0) {
+        len++;
+      }
+      if (len > 0) {
+        String prefix = pattern.substring(0, len);
+        range = com.carrotdata.redcarrot.redis.util.Utils.globToRange(prefix + "*");
+      }
+    }
+    if (range == null || range[0] == null || range[1] == null || !isAscii(range[0])
+        || !isAscii(range[1]) || range[0].compareTo(range[1]) >= 0) {
+      return null;
+    }
+    byte[] low = range[0].getBytes();
+    byte[] high = range[1].getBytes();
+    return new Key[] { new Key(UnsafeAccess.allocAndCopy(low, 0, low.length), low.length),
+        new Key(UnsafeAccess.allocAndCopy(high, 0, high.length), high.length) };
+  }
+
+  private static boolean isAscii(String s) {
+    for (int i = 0; i < s.length(); i++) {
+      if (s.charAt(i) >= 0x80) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Builds a scanner start key [TYPE][KEY_SIZE][LOW]
+   * @param type data type
+   * @param keySize key size
+   * @param low low bound of a key range (can be null)
+   * @return start key (must be freed by a caller)
+   */
+  private static Key buildSeekKey(DataType type, int keySize, Key low) {
+    int size = KEY_PREFIX_SIZE + (low == null ? 0 : low.length);
+    long ptr = UnsafeAccess.malloc(size);
+    UnsafeAccess.putByte(ptr, (byte) type.ordinal());
+    UnsafeAccess.putInt(ptr + Utils.SIZEOF_BYTE, keySize);
+    if (low != null) {
+      UnsafeAccess.copy(low.address, ptr + KEY_PREFIX_SIZE, low.length);
+    }
+    return new Key(ptr, size);
+  }
+
+  /**
+   * Writes key with its VLE size prefix
+   * @param ptr buffer address
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return address after the key
+   */
+  private static long writeKey(long ptr, long keyPtr, int keySize) {
+    int sizeSize = Utils.writeUVInt(ptr, keySize);
+    UnsafeAccess.copy(keyPtr, ptr + sizeSize, keySize);
+    return ptr + sizeSize + keySize;
+  }
+
+  private static void free(List<Key> keys, Key[] range) {
+    for (Key k : keys) {
+      UnsafeAccess.free(k.address);
+    }
+    keys.clear();
+    if (range != null) {
+      UnsafeAccess.free(range[0].address);
+      UnsafeAccess.free(range[1].address);
+    }
   }
 
   /**
@@ -66,44 +546,76 @@ public class Keys {
    * @return number of keys removed
    */
   public static int DEL(BigSortedMap map, long[] keyPtrs, int[] keySizes) {
-    int total = 0;
+    // String keys are deleted in one batch
+    boolean[] deleted = new boolean[keyPtrs.length];
+    int total = Strings.DELETE(map, keyPtrs, keySizes, deleted);
     for (int i = 0; i < keyPtrs.length; i++) {
-      total += DELETE(map, keyPtrs[i], keySizes[i]);
+      if (!deleted[i]) {
+        total += DELETE(map, keyPtrs[i], keySizes[i]);
+      }
     }
     return total;
   }
 
   /**
-   * Deletes first key ONLY!!! The issue: we can have duplicate keys across types, but not in a
-   * type.
+   * Deletes first non-string key ONLY!!! The issue: we can have duplicate keys across types, but
+   * not in a type. String keys are deleted by DEL in a batch. Only types found in a key directory
+   * are tried, stale directory entry is removed.
    * @param map sorted map storage
    * @param keyPtr key address
    * @param keySize key size
    * @return 1 - success, 0 - key does not exists
    */
   private static int DELETE(BigSortedMap map, long keyPtr, int keySize) {
-
-    if (Strings.DELETE(map, keyPtr, keySize)) {
-      return 1;
-    }
-    if (ZSets.DELETE(map, keyPtr, keySize)) {
-      return 1;
-    }
-    if (Sets.DELETE(map, keyPtr, keySize)) {
-      return 1;
+    int types = KeyDirectory.getTypes(map, keyPtr, keySize);
+    if (types == 0) {
+      return 0;
     }
-    if (Hashes.DELETE(map, keyPtr, keySize)) {
+    int setTypes = KeyDirectory.typeBit(DataType.ZSET) | KeyDirectory.typeBit(DataType.SET)
+        | KeyDirectory.typeBit(DataType.HASH);
+    // Sorted set, set and hash are deleted together
+    if ((types & setTypes) != 0 && DELETE(map, DataType.SET, keyPtr, keySize)) {
       return 1;
     }
-    if (Lists.DELETE(map, keyPtr, keySize)) {
+    if (KeyDirectory.contains(types, DataType.LIST)
+        && DELETE(map, DataType.LIST, keyPtr, keySize)) {
       return 1;
     }
-    if (SparseBitmaps.DELETE(map, keyPtr, keySize)) {
+    if (KeyDirectory.contains(types, DataType.SBITMAP)
+        && DELETE(map, DataType.SBITMAP, keyPtr, keySize)) {
       return 1;
     }
+    KeyDirectory.remove(map, types, keyPtr, keySize);
     return 0;
   }
 
+  /**
+   * Deletes key of a given type with all its sub-records and custom allocations
+   * @param map sorted map storage
+   * @param type data type
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return true - success, false - key does not exist or type is not supported
+   */
+  public static boolean DELETE(BigSortedMap map, DataType type, long keyPtr, int keySize) {
+    switch (type) {
+      case STRING:
+        return Strings.DELETE(map, keyPtr, keySize);
+      case LIST:
+        return Lists.DELETE(map, keyPtr, keySize);
+      case SET:
+      case ZSET:
+      case HASH:
+        // Sorted set keeps its members in a Set and in a Hash under the same key
+        boolean result = Sets.DELETE(map, keyPtr, keySize);
+        return Hashes.DELETE(map, keyPtr, keySize) || result;
+      case SBITMAP:
+        return SparseBitmaps.DELETE(map, keyPtr, keySize);
+      default:
+        return false;
+    }
+  }
+
   /**
    * EXPIRE key seconds [NX|XX|GT|LT]
    * <p>
@@ -129,15 +641,222 @@ public class Keys {
    * expiry only when the new expiry is greater than current one LT -- Set expiry only when the new
    * expiry is less than current one A non-volatile key is treated as an infinite TTL for the
    * purpose of GT and LT. The GT, LT and NX options are mutually exclusive.
+   * <p>
+   * Only string keys support expiration. For keys of other types a non-positive timeout deletes
+   * the key, otherwise the timeout is not set.
    * @param map sorted map set
    * @param keyPtr key address
    * @param keySize key size
    * @param seconds seconds to live
-   * @return 1 - success, 0 - was not set, -1 - key does not exist
+   * @param opps mutation options (NONE, NX, XX, GT, LT)
+   * @return 1 - timeout was set (or key was deleted), 0 - key does not exist or timeout was not set
    */
   public static int EXPIRE(BigSortedMap map, long keyPtr, int keySize, long seconds,
       MutationOptions opps) {
-    // TODO
-    return 1;
+    return PEXPIREAT(map, keyPtr, keySize, System.currentTimeMillis() + seconds * 1000, opps);
+  }
+
+  /**
+   * PEXPIREAT key milliseconds-timestamp [NX|XX|GT|LT]
+   * <p>
+   * Available since 2.6.0. Time complexity: O(1) Has the same effect and semantic as EXPIRE, but
+   * the time at which the key will expire is specified in milliseconds since Unix epoch. A time in
+   * the past deletes the key.
+   * @param map sorted map set
+   * @param keyPtr key address
+   * @param keySize key size
+   * @param expireAt expiration time (ms since epoch)
+   * @param opps mutation options (NONE, NX, XX, GT, LT)
+   * @return 1 - timeout was set (or key was deleted), 0 - key does not exist or timeout was not set
+   */
+  public static int PEXPIREAT(BigSortedMap map, long keyPtr, int keySize, long expireAt,
+      MutationOptions opps) {
+    // Only strings have expiration time: -1 - not a string, 0 - no expire
+    long expire = Strings.GETEXPIRE(map, keyPtr, keySize);
+    if (!checkExpire(expire, expireAt, opps)) {
+      return 0;
+    }
+    if (expireAt <= System.currentTimeMillis()) {
+      return DEL(map, new long[] { keyPtr }, new int[] { keySize });
+    }
+    if (expire < 0) {
+      return 0;
+    }
+    return Strings.GETEX(map, keyPtr, keySize, expireAt, 0, 0) < 0 ? 0 : 1;
+  }
+
+  /**
+   * Checks EXPIRE options. A key without expiration time has an infinite TTL
+   * @param expire current expiration time (0 or negative - not set)
+   * @param expireAt new expiration time
+   * @param opps mutation options
+   * @return true - expiration time can be set, false - otherwise
+   */
+  private static boolean checkExpire(long expire, long expireAt, MutationOptions opps) {
+    switch (opps) {
+      case NX:
+        return expire <= 0;
+      case XX:
+        return expire > 0;
+      case GT:
+        return expire > 0 && expireAt > expire;
+      case LT:
+        return expire <= 0 || expireAt < expire;
+      default:
+        return true;
+    }
+  }
+
+  /**
+   * RENAME key newkey
+   * <p>
+   * Available since 1.0.0. Time complexity: O(1) Renames key to newkey. It returns an error when
+   * key does not exist. If newkey already exists it is overwritten, when this happens RENAME
+   * executes an implicit DEL operation, so if the deleted key contains a very big value it may
+   * cause high latency even if RENAME itself is usually a constant-time operation.
+   * <p>
+   * Here all K-Vs of a key are re-written under a new key, therefore complexity is O(N) where N is
+   * number of K-Vs of a key (1 for strings and lists). Expiration time is transferred to a new key.
+   * @param map sorted map storage
+   * @param keyPtr key address
+   * @param keySize key size
+   * @param newKeyPtr new key address
+   * @param newKeySize new key size
+   * @return true - success, false - key does not exist
+   */
+  public static boolean RENAME(BigSortedMap map, long keyPtr, int keySize, long newKeyPtr,
+      int newKeySize) {
+    try {
+      map.writeLock();
+      DataType type = TYPE(map, keyPtr, keySize);
+      if (type == null) {
+        return false;
+      }
+      if (Utils.compareTo(keyPtr, keySize, newKeyPtr, newKeySize) == 0) {
+        return true;
+      }
+      DEL(map, new long[] { newKeyPtr }, new int[] { newKeySize });
+      if (type == DataType.STRING) {
+        long expire = Strings.GETEXPIRE(map, keyPtr, keySize);
+        move(map, type, keyPtr, keySize, newKeyPtr, newKeySize, expire > 0 ? expire : 0);
+        return true;
+      }
+      // Sorted set members are kept in a Set and in a Hash
+      DataType[] parts = type == DataType.ZSET ? new DataType[] { DataType.SET, DataType.HASH }
+          : new DataType[] { type };
+      for (DataType t : parts) {
+        if (move(map, t, keyPtr, keySize, newKeyPtr, newKeySize, 0) > 0) {
+          KeyDirectory.remove(map, t, keyPtr, keySize);
+          KeyDirectory.add(map, t, newKeyPtr, newKeySize);
+        }
+      }
+      if (type == DataType.ZSET) {
+        KeyDirectory.add(map, DataType.ZSET, newKeyPtr, newKeySize);
+      }
+      return true;
+    } finally {
+      map.writeUnlock();
+    }
+  }
+
+  /**
+   * Moves all K-Vs of a given type from one key to another. K-Vs are moved in batches, scanner is
+   * closed before the map is updated
+   * @param map sorted map storage
+   * @param type data type
+   * @param keyPtr key address
+   * @param keySize key size
+   * @param newKeyPtr new key address
+   * @param newKeySize new key size
+   * @param expire expiration time
+   * @return number of K-Vs moved
+   */
+  private static long move(BigSortedMap map, DataType type, long keyPtr, int keySize,
+      long newKeyPtr, int newKeySize, long expire) {
+    int prefixSize = keySize + KEY_PREFIX_SIZE;
+    long prefixPtr = buildPrefix(type, keyPtr, keySize);
+    long newPrefixPtr = buildPrefix(type, newKeyPtr, newKeySize);
+    int newPrefixSize = newKeySize + KEY_PREFIX_SIZE;
+    List<Key> keys = new ArrayList<Key>();
+    List<Value> values = new ArrayList<Value>();
+    long total = 0;
+    try {
+      while (true) {
+        BigSortedMapScanner scanner = map.getPrefixScanner(prefixPtr, prefixSize);
+        if (scanner == null) {
+          break;
+        }
+        try {
+          while (scanner.hasNext() && keys.size() < RENAME_BATCH_SIZE) {
+            int kSize = scanner.keySize();
+            long kPtr = UnsafeAccess.malloc(kSize);
+            scanner.key(kPtr, kSize);
+            keys.add(new Key(kPtr, kSize));
+            int vSize = scanner.valueSize();
+            long vPtr = UnsafeAccess.malloc(vSize);
+            scanner.value(vPtr, vSize);
+            values.add(new Value(vPtr, vSize));
+            scanner.next();
+          }
+        } finally {
+          scanner.close();
+        }
+        if (keys.size() == 0) {
+          break;
+        }
+        for (int i = 0; i < keys.size(); i++) {
+          Key k = keys.get(i);
+          Value v = values.get(i);
+          // Replace key prefix, keep the suffix
+          int suffixSize = k.length - prefixSize;
+          int kSize = newPrefixSize + suffixSize;
+          long kPtr = UnsafeAccess.malloc(kSize);
+          UnsafeAccess.copy(newPrefixPtr, kPtr, newPrefixSize);
+          UnsafeAccess.copy(k.address + prefixSize, kPtr + newPrefixSize, suffixSize);
+          boolean result = map.put(kPtr, kSize, v.address, v.length, expire);
+          UnsafeAccess.free(kPtr);
+          if (!result) {
+            // Map is full, the rest of K-Vs stay under the old key
+            return total;
+          }
+          map.delete(k.address, k.length);
+          total++;
+        }
+        free(keys, values);
+      }
+    } catch (IOException e) {
+      // should never be thrown
+    } finally {
+      free(keys, values);
+      UnsafeAccess.free(prefixPtr);
+      UnsafeAccess.free(newPrefixPtr);
+    }
+    return total;
+  }
+
+  /**
+   * Builds key prefix of a given type [TYPE][KEY_SIZE][KEY]
+   * @param type data type
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return prefix address (must be freed by caller)
+   */
+  private static long buildPrefix(DataType type, long keyPtr, int keySize) {
+    long ptr = UnsafeAccess.malloc(keySize + KEY_PREFIX_SIZE);
+    UnsafeAccess.putByte(ptr, (byte) type.ordinal());
+    UnsafeAccess.putInt(ptr + Utils.SIZEOF_BYTE, keySize);
+    UnsafeAccess.copy(keyPtr, ptr + KEY_PREFIX_SIZE, keySize);
+    return ptr;
+  }
+
+  private static void free(List<Key> keys, List<Value> values) {
+    for (Key k : keys) {
+      UnsafeAccess.free(k.address);
+    }
+    for (Value v : values) {
+      UnsafeAccess.free(v.address);
+    }
+    keys.clear();
+    values.clear();
   }
 }
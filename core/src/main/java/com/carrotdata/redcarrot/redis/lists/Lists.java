@@ -25,6 +25,7 @@ import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.DataBlock;
 import com.carrotdata.redcarrot.redis.util.Commons;
 import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
 import com.carrotdata.redcarrot.util.IOUtils;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.KeysLocker;
@@ -41,6 +42,13 @@ public class Lists {
 
   private static final Logger log = LogManager.getLogger(Lists.class);
 
+  /*
+   * List value: SIZE FIRST-SEGMENT-ADDRESS LAST-SEGMENT-ADDRESS SEGMENT-INDEX-ADDRESS. Lists stored
+   * by older versions do not have segment index address
+   */
+  static final int INDEX_OFFSET = Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG;
+  static final int HEADER_SIZE = INDEX_OFFSET + Utils.SIZEOF_LONG;
+
   public static enum Side {
     LEFT, RIGHT;
   }
@@ -163,7 +171,14 @@ public class Lists {
       UnsafeAccess.putInt(valuePtr, numElements);
       UnsafeAccess.putLong(valuePtr + Utils.SIZEOF_INT, firstSegmentPtr);
       UnsafeAccess.putLong(valuePtr + Utils.SIZEOF_INT + Utils.SIZEOF_LONG, lastSegmentPtr);
-
+      if (DataBlock.valueLength(recordAddress) >= HEADER_SIZE) {
+        // Segment index is not serialized
+        long indexPtr = 0;
+        if (SegmentIndex.isIndexable(firstSegmentPtr)) {
+          indexPtr = SegmentIndex.build(null, 0, firstSegmentPtr);
+        }
+        UnsafeAccess.putLong(valuePtr + INDEX_OFFSET, indexPtr);
+      }
       return true;
     }
   }
@@ -210,6 +225,14 @@ public class Lists {
     }
   };
 
+  /* Positions of found elements in a segment (LPOS) */
+  private static ThreadLocal<int[]> positionsTLS = new ThreadLocal<int[]>() {
+    @Override
+    protected int[] initialValue() {
+      return new int[Segment.MAXIMUM_SEGMENT_SIZE];
+    }
+  };
+
   private static ThreadLocal<ListsLindex> listsLindex = new ThreadLocal<ListsLindex>() {
     @Override
     protected ListsLindex initialValue() {
@@ -224,8 +247,13 @@ public class Lists {
    * @return global allocated memory
    */
   static long allocMemory(BigSortedMap map, long size) {
-    map.incrInstanceAllocatedMemory(size);
-    map.incrInstanceExternalDataSize(size);
+    if (map != null) {
+      map.incrInstanceAllocatedMemory(size);
+      map.incrInstanceExternalDataSize(size);
+    } else {
+      BigSortedMap.incrGlobalAllocatedMemory(size);
+      BigSortedMap.incrGlobalExternalDataSize(size);
+    }
     return BigSortedMap.getGlobalAllocatedMemory();
   }
 
@@ -323,6 +351,103 @@ public class Lists {
     return k;
   }
 
+  /**
+   * Reads list header (value) into a buffer
+   * @param map sorted map storage
+   * @param kPtr list key address (with type prefix)
+   * @param kSize list key size
+   * @param valueBuf buffer
+   * @param valueBufSize buffer size
+   * @return size of a header or -1 if list does not exist
+   */
+  private static long getHeader(BigSortedMap map, long kPtr, int kSize, long valueBuf,
+      int valueBufSize) {
+    long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+    if (size >= 0 && size < HEADER_SIZE) {
+      // No segment index
+      UnsafeAccess.putLong(valueBuf + INDEX_OFFSET, 0);
+    }
+    return size;
+  }
+
+  /**
+   * Gets segment index address of a list
+   * @param valuePtr list header address
+   * @param valueSize list header size
+   * @return segment index address or 0
+   */
+  static long getSegmentIndex(long valuePtr, int valueSize) {
+    return valueSize >= HEADER_SIZE ? UnsafeAccess.toLong(valuePtr + INDEX_OFFSET) : 0;
+  }
+
+  /**
+   * Builds segment index when list becomes long enough, otherwise - rebuilds existing one. Used by
+   * operations which modify segments in the middle of a list
+   * @param map sorted map storage
+   * @param valueBuf list header
+   */
+  private static void rebuildIndex(BigSortedMap map, long valueBuf) {
+    long indexPtr = UnsafeAccess.toLong(valueBuf + INDEX_OFFSET);
+    long firstPtr = UnsafeAccess.toLong(valueBuf + Utils.SIZEOF_INT);
+    if (indexPtr == 0 && !SegmentIndex.isIndexable(firstPtr)) {
+      return;
+    }
+    UnsafeAccess.putLong(valueBuf + INDEX_OFFSET, SegmentIndex.build(map, indexPtr, firstPtr));
+  }
+
+  /**
+   * Updates segment index after elements were added to (or removed from) the first segment
+   * @param map sorted map storage
+   * @param valueBuf list header
+   * @param added number of elements added (negative - removed)
+   */
+  private static void updateIndexHead(BigSortedMap map, long valueBuf, int added) {
+    long indexPtr = UnsafeAccess.toLong(valueBuf + INDEX_OFFSET);
+    if (indexPtr == 0) {
+      rebuildIndex(map, valueBuf);
+      return;
+    }
+    long firstPtr = UnsafeAccess.toLong(valueBuf + Utils.SIZEOF_INT);
+    long start = SegmentIndex.getStart(indexPtr, 0) - added;
+    indexPtr = SegmentIndex.replace(map, indexPtr, 0, 1, firstPtr, start);
+    UnsafeAccess.putLong(valueBuf + INDEX_OFFSET, indexPtr);
+  }
+
+  /**
+   * Updates segment index after elements were added to (or removed from) the last segment
+   * @param map sorted map storage
+   * @param valueBuf list header
+   */
+  private static void updateIndexTail(BigSortedMap map, long valueBuf) {
+    long indexPtr = UnsafeAccess.toLong(valueBuf + INDEX_OFFSET);
+    if (indexPtr == 0) {
+      rebuildIndex(map, valueBuf);
+      return;
+    }
+    int last = SegmentIndex.getCount(indexPtr) - 1;
+    // Previous segment is intact, the last one can be reallocated, split or deleted
+    long firstPtr =
+        last > 0 ? Segment.getNextSegmentAddress(SegmentIndex.getAddress(indexPtr, last - 1))
+            : UnsafeAccess.toLong(valueBuf + Utils.SIZEOF_INT);
+    long start = SegmentIndex.getStart(indexPtr, last);
+    indexPtr = SegmentIndex.replace(map, indexPtr, last, last + 1, firstPtr, start);
+    UnsafeAccess.putLong(valueBuf + INDEX_OFFSET, indexPtr);
+  }
+
+  /**
+   * Frees segment index of a list
+   * @param map sorted map storage
+   * @param valuePtr list header address
+   * @param valueSize list header size
+   */
+  private static void freeIndex(BigSortedMap map, long valuePtr, int valueSize) {
+    long indexPtr = getSegmentIndex(valuePtr, valueSize);
+    if (indexPtr != 0) {
+      SegmentIndex.free(map, indexPtr);
+      UnsafeAccess.putLong(valuePtr + INDEX_OFFSET, 0);
+    }
+  }
+
   /**
    * TODO: verify thread-safe (looks OK) Deletes and frees memory resources
    * @param map sorted map storage
@@ -336,19 +461,27 @@ public class Lists {
       KeysLocker.writeLock(key);
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
-      Segment s = firstSegment(map, kPtr, kSize, valueBuf, valueBufSize);
-      if (s != null) {
-        long nextPtr = 0;
-        do {
-          nextPtr = s.getNextAddress();
-          s.free();
-          s.setDataPointerAndParentMap(map, nextPtr);
-        } while (nextPtr > 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
+      if (size < 0) {
+        return false;
+      }
+      Segment s = segment.get();
+      long nextPtr = UnsafeAccess.toLong(valueBuf + Utils.SIZEOF_INT);
+      while (nextPtr > 0) {
+        s.setDataPointerAndParentMap(map, nextPtr);
+        nextPtr = s.getNextAddress();
+        s.free();
       }
+      freeIndex(map, valueBuf, HEADER_SIZE);
       // Delete key
-      return map.delete(kPtr, kSize);
+      boolean result = map.delete(kPtr, kSize);
+      if (result) {
+        KeyDirectory.remove(map, DataType.LIST, keyPtr, keySize);
+      }
+      return result;
 
     } finally {
       KeysLocker.writeUnlock(key);
@@ -392,6 +525,10 @@ public class Lists {
           s.setDataPointerAndParentMap(map, nextPtr);
         } while (nextPtr > 0);
       }
+      long indexPtr = getSegmentIndex(valuePtr, DataBlock.valueLength(recordAddress));
+      if (indexPtr != 0) {
+        SegmentIndex.free(map, indexPtr);
+      }
       // We do not delete K-V
     } finally {
       KeysLocker.writeUnlock(key);
@@ -804,6 +941,26 @@ public class Lists {
     return -1;
   }
 
+  /**
+   * Finds segment which contains element by index using segment index of a list if it exists
+   * @param map sorted map storage
+   * @param s segment to start with (it is positioned to the found one)
+   * @param indexPtr segment index address or 0
+   * @param index index of an element being searched
+   * @return offset (in elements) in a segment of a given element or -1
+   */
+  static int findSegmentForIndex(BigSortedMap map, Segment s, long indexPtr, long index) {
+    if (indexPtr == 0) {
+      return findSegmentForIndex(s, index);
+    }
+    int entry = SegmentIndex.find(indexPtr, index);
+    if (entry < 0) {
+      return -1;
+    }
+    s.setDataPointerAndParentMap(map, SegmentIndex.getAddress(indexPtr, entry));
+    return SegmentIndex.offset(indexPtr, entry, index);
+  }
+
   /**
    * LINSERT key BEFORE|AFTER pivot element
    * <p>
@@ -839,9 +996,10 @@ public class Lists {
       KeysLocker.writeLock(key);
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
-      long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
       if (size < 0) {
         return -1; // Key does not exist
       }
@@ -878,8 +1036,9 @@ public class Lists {
           // Update number of elements in the list
           int n = UnsafeAccess.toInt(valueBuf);
           UnsafeAccess.putInt(valueBuf, n + 1);
+          rebuildIndex(map, valueBuf);
           // Update list header in a map
-          map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG, 0);
+          map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
           return n + 1;
         }
       } while (s.next(s) != null);
@@ -905,7 +1064,7 @@ public class Lists {
       long kPtr = keyArena.get();
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
-      long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
       if (size < 0) {
         return 0; // Key does not exist
       }
@@ -938,9 +1097,10 @@ public class Lists {
       KeysLocker.writeLock(key);
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
-      long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
       if (size < 0) {
         return -1; // Key does not exist
       }
@@ -968,8 +1128,9 @@ public class Lists {
         // Update fisrt segment address
         UnsafeAccess.putLong(valueBuf + Utils.SIZEOF_INT, nextSegmentPtr);
       }
+      updateIndexHead(map, valueBuf, -1);
       // Update list element number and first-last segments
-      map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG, 0);
+      map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
       // Should we delete list if it is empty now?
       if (numElements == 0) {
         DELETE(map, keyPtr, keySize);
@@ -1048,14 +1209,74 @@ public class Lists {
    * @param rank rank of a found
    * @param numMatches number of matches
    * @param maxlen maximum number of comparisons
-   * @param buffer buffer for array response
+   * @param buffer buffer for array response: number of matches (4 bytes) and indexes (8 bytes
+   *          each)
    * @param bufferSize size of a buffer
-   * @return serialized response size
+   * @return serialized response size, if greater then bufferSize - repeat the call
    */
   public static int LPOS(BigSortedMap map, long keyPtr, int keySize, long elemPtr, int elemSize,
       int rank, int numMatches, int maxlen, long buffer, int bufferSize) {
-    // TODO
-    return 0;
+    Key key = getKey(keyPtr, keySize);
+    try {
+      KeysLocker.readLock(key);
+      int kSize = buildKey(keyPtr, keySize);
+      long kPtr = keyArena.get();
+      long valueBuf = valueArena.get();
+      int valueBufSize = valueArenaSize.get();
+      boolean reverse = rank < 0;
+      Segment s = reverse ? lastSegment(map, kPtr, kSize, valueBuf, valueBufSize)
+          : firstSegment(map, kPtr, kSize, valueBuf, valueBufSize);
+      long toSkip = Math.abs((long) rank) - 1;
+      long limit = numMatches > 0 ? numMatches : Long.MAX_VALUE;
+      long maxCompare = maxlen > 0 ? maxlen : Long.MAX_VALUE;
+      long num = s != null ? UnsafeAccess.toInt(valueBuf) : 0;
+      int[] positions = positionsTLS.get();
+      long found = 0;
+      // Index of the first element of a current segment
+      long base = reverse ? num : 0;
+      while (s != null && found < limit) {
+        int n = s.getNumberOfElements();
+        int from = 0, to = n;
+        if (reverse) {
+          base -= n;
+          from = (int) Math.max(0, num - maxCompare - base);
+          if (from >= n) {
+            break;
+          }
+        } else {
+          if (base >= maxCompare) {
+            break;
+          }
+          to = (int) Math.min(n, maxCompare - base);
+        }
+        int max = n;
+        if (!reverse && limit - found < n) {
+          max = (int) Math.min(n, toSkip + limit - found);
+        }
+        int k = s.indexesOf(elemPtr, elemSize, from, to, positions, max);
+        for (int i = 0; i < k && found < limit; i++) {
+          if (toSkip > 0) {
+            toSkip--;
+            continue;
+          }
+          long index = base + positions[reverse ? k - 1 - i : i];
+          if (Utils.SIZEOF_INT + (found + 1) * Utils.SIZEOF_LONG <= bufferSize) {
+            UnsafeAccess.putLong(buffer + Utils.SIZEOF_INT + found * Utils.SIZEOF_LONG, index);
+          }
+          found++;
+        }
+        if (!reverse) {
+          base += n;
+        }
+        s = reverse ? s.previous(s) : s.next(s);
+      }
+      if (bufferSize >= Utils.SIZEOF_INT) {
+        UnsafeAccess.putInt(buffer, (int) found);
+      }
+      return (int) (Utils.SIZEOF_INT + found * Utils.SIZEOF_LONG);
+    } finally {
+      KeysLocker.readUnlock(key);
+    }
   }
 
   /**
@@ -1090,10 +1311,11 @@ public class Lists {
 
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
       Segment s = segment.get();
-      long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
       boolean exists = true;
       if (size < 0) {
         exists = false;
@@ -1122,8 +1344,15 @@ public class Lists {
       int n = exists ? UnsafeAccess.toInt(valueBuf) : 0;
       n += numberToPush;
       UnsafeAccess.putInt(valueBuf, n);
+      if (!exists) {
+        UnsafeAccess.putLong(valueBuf + INDEX_OFFSET, 0);
+      }
+      updateIndexHead(map, valueBuf, numberToPush);
       // Update list
-      map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG, 0);
+      map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
+      if (!exists) {
+        KeyDirectory.add(map, DataType.LIST, keyPtr, keySize);
+      }
       // Now we have first segment
       return n;
     } finally {
@@ -1163,10 +1392,11 @@ public class Lists {
 
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
       Segment s = segment.get();
-      long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
       if (size < 0) {
         return -1;
       } else {
@@ -1193,8 +1423,9 @@ public class Lists {
       int n = UnsafeAccess.toInt(valueBuf);
       n += numberToPush;
       UnsafeAccess.putInt(valueBuf, n);
+      updateIndexHead(map, valueBuf, numberToPush);
       // Update list
-      map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG, 0);
+      map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
       // Now we have first segment
       return n;
     } finally {
@@ -1205,7 +1436,7 @@ public class Lists {
   private static Segment firstSegment(BigSortedMap map, long kPtr, int kSize, long valueBuf,
       int valueBufSize) {
     Segment s = segment.get();
-    long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+    long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
     if (size < 0) {
       return null;
     } else {
@@ -1221,7 +1452,7 @@ public class Lists {
   private static Segment lastSegment(BigSortedMap map, long kPtr, int kSize, long valueBuf,
       int valueBufSize) {
     Segment s = segment.get();
-    long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+    long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
     if (size < 0) {
       return null;
     } else {
@@ -1277,7 +1508,7 @@ public class Lists {
       long kPtr = keyArena.get();
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
-      int size = (int) map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      int size = (int) getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
 
       // Initialize as an empty list
       UnsafeAccess.putInt(buffer, 0);
@@ -1309,13 +1540,13 @@ public class Lists {
       if (start > end || start >= num) {
         return 0;
       }
-      // TODO optimize (what for?)
       Segment s = firstSegment(map, kPtr, kSize, valueBuf, valueBufSize);
       if (s == null) {
         // Empty list?
         return -1;
       }
-      int off = findSegmentForIndex(s, start);
+      long indexPtr = getSegmentIndex(valueBuf, size);
+      int off = findSegmentForIndex(map, s, indexPtr, start);
       if (off < 0) {
         return -1;
       }
@@ -1383,6 +1614,7 @@ public class Lists {
       KeysLocker.writeLock(key);
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
       Segment s = reverse ? lastSegment(map, kPtr, kSize, valueBuf, valueBufSize)
@@ -1417,9 +1649,12 @@ public class Lists {
       }
 
       long total = incrementNumberOfElements(valueBuf, -deleted);
+      if (deleted > 0 && total > 0) {
+        rebuildIndex(map, valueBuf);
+      }
       if (deleted > 0) {
         // Update list number of elements, first and last segment
-        map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG, -1);
+        map.put(kPtr, kSize, valueBuf, HEADER_SIZE, -1);
       }
       if (total == 0) {
         DELETE(map, keyPtr, keySize);
@@ -1531,6 +1766,7 @@ public class Lists {
       KeysLocker.writeLock(key);
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
       Segment s = firstSegment(map, kPtr, kSize, valueBuf, valueBufSize);
@@ -1546,7 +1782,19 @@ public class Lists {
       if (index >= listSize) {
         return -1;
       }
-      int off = findSegmentForIndex(s, index);
+      long indexPtr = UnsafeAccess.toLong(valueBuf + INDEX_OFFSET);
+      int entry = -1;
+      int off;
+      if (indexPtr != 0) {
+        entry = SegmentIndex.find(indexPtr, index);
+        if (entry < 0) {
+          return -1;
+        }
+        s.setDataPointerAndParentMap(map, SegmentIndex.getAddress(indexPtr, entry));
+        off = SegmentIndex.offset(indexPtr, entry, index);
+      } else {
+        off = findSegmentForIndex(s, index);
+      }
       if (off < 0) {
         return -1; // Index is too big
       }
@@ -1568,20 +1816,29 @@ public class Lists {
       if (s.isFirst() && oldAddr != newAddr) {
         needUpdate = true;
         UnsafeAccess.putLong(valueBuf + Utils.SIZEOF_INT, newAddr);
-      } else if (s.isLast() && oldAddr != newAddr) {
+      }
+      // Segment can be reallocated or split
+      long lastPtr = s.isLast() ? newAddr
+          : Segment.isLast(s.getNextAddress()) ? s.getNextAddress() : 0;
+      if (lastPtr != 0
+          && lastPtr != UnsafeAccess.toLong(valueBuf + Utils.SIZEOF_INT + Utils.SIZEOF_LONG)) {
         needUpdate = true;
-        UnsafeAccess.putLong(valueBuf + Utils.SIZEOF_INT + Utils.SIZEOF_LONG, newAddr);
-      } else {
-        // TODO: Optimize, check if old last segment address != new last segment address
-        s = s.next(s);
-        if (s != null && s.isLast()) {
+        UnsafeAccess.putLong(valueBuf + Utils.SIZEOF_INT + Utils.SIZEOF_LONG, lastPtr);
+      }
+      if (entry >= 0) {
+        long start = SegmentIndex.getStart(indexPtr, entry);
+        long ptr = SegmentIndex.replace(map, indexPtr, entry, entry + 1, newAddr, start);
+        if (ptr != indexPtr) {
           needUpdate = true;
-          UnsafeAccess.putLong(valueBuf + Utils.SIZEOF_INT + Utils.SIZEOF_LONG, s.getDataPtr());
+          UnsafeAccess.putLong(valueBuf + INDEX_OFFSET, ptr);
         }
       }
 
       if (needUpdate) {
-        map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + Utils.SIZEOF_LONG + Utils.SIZEOF_LONG, 0);
+        map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
+      } else {
+        // Segment has been updated in place
+        map.touch(kPtr, kSize);
       }
       // Number of elements in this list
       return UnsafeAccess.toInt(valueBuf);
@@ -1616,10 +1873,121 @@ public class Lists {
    * @param keySize list key size
    * @param start interval start
    * @param end interval end
-   * @return TODO
+   * @return length of a list after the operation
    */
   public static long LTRIM(BigSortedMap map, long keyPtr, int keySize, long start, long end) {
-    return 0;
+    Key key = getKey(keyPtr, keySize);
+    try {
+      KeysLocker.writeLock(key);
+      int kSize = buildKey(keyPtr, keySize);
+      long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
+      long valueBuf = valueArena.get();
+      int valueBufSize = valueArenaSize.get();
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
+      if (size < 0) {
+        return 0; // Does not exists
+      }
+      int num = UnsafeAccess.toInt(valueBuf);
+      if (start < 0) {
+        start += num;
+        if (start < 0) {
+          start = 0;
+        }
+      }
+      if (end < 0) {
+        end += num;
+      }
+      if (end >= num) {
+        end = num - 1;
+      }
+      if (start > end || start >= num) {
+        // Empty list
+        DELETE(map, keyPtr, keySize);
+        return 0;
+      }
+      if (start == 0 && end == num - 1) {
+        return num;
+      }
+      long indexPtr = UnsafeAccess.toLong(valueBuf + INDEX_OFFSET);
+      Segment s = segment.get();
+      if (start > 0) {
+        // Entry of a segment which becomes the first one
+        int entry = indexPtr != 0 ? SegmentIndex.find(indexPtr, start) : -1;
+        long firstPtr = trimHead(map, s, UnsafeAccess.toLong(valueBuf + Utils.SIZEOF_INT), start);
+        UnsafeAccess.putLong(valueBuf + Utils.SIZEOF_INT, firstPtr);
+        if (entry >= 0) {
+          long newStart = SegmentIndex.getStart(indexPtr, 0) + start;
+          indexPtr = SegmentIndex.replace(map, indexPtr, 0, entry + 1, firstPtr, newStart);
+        }
+      }
+      long toRemove = num - 1 - end;
+      if (toRemove > 0) {
+        // Entry of a segment which becomes the last one
+        int entry = indexPtr != 0 ? SegmentIndex.find(indexPtr, end - start) : -1;
+        long lastPtr = UnsafeAccess.toLong(valueBuf + Utils.SIZEOF_INT + Utils.SIZEOF_LONG);
+        lastPtr = trimTail(map, s, lastPtr, toRemove);
+        UnsafeAccess.putLong(valueBuf + Utils.SIZEOF_INT + Utils.SIZEOF_LONG, lastPtr);
+        if (entry >= 0) {
+          int count = SegmentIndex.getCount(indexPtr);
+          long newStart = SegmentIndex.getStart(indexPtr, entry);
+          indexPtr = SegmentIndex.replace(map, indexPtr, entry, count, lastPtr, newStart);
+        }
+      }
+      UnsafeAccess.putLong(valueBuf + INDEX_OFFSET, indexPtr);
+      num = (int) (end - start + 1);
+      UnsafeAccess.putInt(valueBuf, num);
+      map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
+      return num;
+    } finally {
+      KeysLocker.writeUnlock(key);
+    }
+  }
+
+  /**
+   * Removes elements from the head of a list: whole segments are freed, only the new first segment
+   * is trimmed
+   * @param map sorted map storage
+   * @param s segment to reuse
+   * @param ptr first segment address
+   * @param toRemove number of elements to remove (less than list size)
+   * @return new first segment address
+   */
+  private static long trimHead(BigSortedMap map, Segment s, long ptr, long toRemove) {
+    s.setDataPointerAndParentMap(map, ptr);
+    int n;
+    while ((n = s.getNumberOfElements()) <= toRemove) {
+      toRemove -= n;
+      ptr = s.getNextAddress();
+      s.free();
+      s.setDataPointerAndParentMap(map, ptr);
+    }
+    s.setPreviousAddress(0);
+    s.removeRange(0, (int) toRemove);
+    return ptr;
+  }
+
+  /**
+   * Removes elements from the tail of a list: whole segments are freed, only the new last segment
+   * is trimmed
+   * @param map sorted map storage
+   * @param s segment to reuse
+   * @param ptr last segment address
+   * @param toRemove number of elements to remove (less than list size)
+   * @return new last segment address
+   */
+  private static long trimTail(BigSortedMap map, Segment s, long ptr, long toRemove) {
+    s.setDataPointerAndParentMap(map, ptr);
+    int n;
+    while ((n = s.getNumberOfElements()) <= toRemove) {
+      toRemove -= n;
+      ptr = s.getPreviousAddress();
+      s.free();
+      s.setDataPointerAndParentMap(map, ptr);
+    }
+    s.setNextAddress(0);
+    s.removeRange(n - (int) toRemove, (int) toRemove);
+    return ptr;
   }
 
   /**
@@ -1641,9 +2009,10 @@ public class Lists {
       KeysLocker.writeLock(key);
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
-      long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
       if (size < 0) return -1; // Key does not exist
       // Last segment pointer
       long ptr = UnsafeAccess.toLong(valueBuf + Utils.SIZEOF_INT + Utils.SIZEOF_LONG);
@@ -1674,9 +2043,10 @@ public class Lists {
           s.free();
         }
       }
+      updateIndexTail(map, valueBuf);
 
       // Update list element number and first-last segment
-      map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG, 0);
+      map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
       return elSize;
     } finally {
       KeysLocker.writeUnlock(key);
@@ -1713,10 +2083,11 @@ public class Lists {
       KeysLocker.writeLock(key);
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
       Segment s = segment.get();
-      long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
       boolean exists = true;
       if (size < 0) {
         exists = false;
@@ -1749,8 +2120,15 @@ public class Lists {
       int n = exists ? UnsafeAccess.toInt(valueBuf) : 0;
       n += numberToPush;
       UnsafeAccess.putInt(valueBuf, n);
+      if (!exists) {
+        UnsafeAccess.putLong(valueBuf + INDEX_OFFSET, 0);
+      }
+      updateIndexTail(map, valueBuf);
       // Update list
-      map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG, 0);
+      map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
+      if (!exists) {
+        KeyDirectory.add(map, DataType.LIST, keyPtr, keySize);
+      }
       // Now we have first segment
       return n;
     } finally {
@@ -1784,10 +2162,11 @@ public class Lists {
       KeysLocker.writeLock(key);
       int kSize = buildKey(keyPtr, keySize);
       long kPtr = keyArena.get();
+      map.preserve(kPtr, kSize);
       long valueBuf = valueArena.get();
       int valueBufSize = valueArenaSize.get();
       Segment s = segment.get();
-      long size = map.get(kPtr, kSize, valueBuf, valueBufSize, 0);
+      long size = getHeader(map, kPtr, kSize, valueBuf, valueBufSize);
       if (size < 0) {
         return -1;
       } else {
@@ -1816,8 +2195,9 @@ public class Lists {
       int n = UnsafeAccess.toInt(valueBuf);
       n += numberToPush;
       UnsafeAccess.putInt(valueBuf, n);
+      updateIndexTail(map, valueBuf);
       // Update list
-      map.put(kPtr, kSize, valueBuf, Utils.SIZEOF_INT + 2 * Utils.SIZEOF_LONG, 0);
+      map.put(kPtr, kSize, valueBuf, HEADER_SIZE, 0);
       // Now we have first segment
       return n;
     } finally {
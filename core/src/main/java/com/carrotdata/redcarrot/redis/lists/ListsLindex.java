@@ -83,7 +83,9 @@ public class ListsLindex extends Operation {
     Segment s = segment.get();
     // TODO: is it safe?
     s.setDataPointerAndParentMap(null, ptr);
-    int off = Lists.findSegmentForIndex(s, index);
+    long indexPtr =
+        Lists.getSegmentIndex(valuePtr, DataBlock.valueLength(foundRecordAddress));
+    int off = Lists.findSegmentForIndex(null, s, indexPtr, index);
     if (off < 0) {
       return false; // Index is too big
     }
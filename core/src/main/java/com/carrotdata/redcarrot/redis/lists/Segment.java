@@ -1007,6 +1007,71 @@ public final class Segment {
     return (int) (ptr - this.dataPtr);
   }
 
+  /**
+   * Removes range of elements
+   * @param from index of a first element to remove
+   * @param n number of elements to remove
+   * @return number of elements removed
+   */
+  public int removeRange(int from, int n) {
+    int num = getNumberOfElements();
+    if (from < 0 || from >= num || n <= 0) {
+      return 0;
+    }
+    n = Math.min(n, num - from);
+    long ptr = this.dataPtr + SEGMENT_OVERHEAD;
+    long max = ptr + getDataSize();
+    for (int i = 0; i < from; i++) {
+      ptr += elementBlockFullSize(ptr);
+    }
+    long start = ptr;
+    for (int i = 0; i < n; i++) {
+      if (isExternalAllocation(ptr)) {
+        UnsafeAccess.free(elementAddress(ptr));
+        Lists.freeMemory(map, elementSize(ptr));
+      }
+      ptr += elementBlockFullSize(ptr);
+    }
+    UnsafeAccess.copy(ptr, start, max - ptr);
+    incrementDataSize((int) (start - ptr));
+    incrementNumberOfElements(-n);
+    return n;
+  }
+
+  /**
+   * Searches positions of a given element
+   * @param elemPtr element address
+   * @param elemSize element size
+   * @param from index of a first element to compare
+   * @param to index of an element after the last one to compare
+   * @param positions array for indexes of found elements
+   * @param max maximum number of elements to find
+   * @return number of elements found
+   */
+  public int indexesOf(long elemPtr, int elemSize, int from, int to, int[] positions, int max) {
+    long ptr = this.dataPtr + SEGMENT_OVERHEAD;
+    int count = 0;
+    for (int i = 0; i < to && count < max; i++) {
+      int size = Utils.readUVInt(ptr);
+      int sizeSize = Utils.sizeUVInt(size);
+      if (size == 0) {
+        // External allocation
+        if (i >= from && UnsafeAccess.toInt(ptr + sizeSize) == elemSize
+            && Utils.compareTo(elementAddress(ptr), elemSize, elemPtr, elemSize) == 0) {
+          positions[count++] = i;
+        }
+        ptr += sizeSize + Utils.SIZEOF_INT + Utils.SIZEOF_LONG;
+      } else {
+        if (i >= from && size == elemSize
+            && Utils.compareTo(ptr + sizeSize, size, elemPtr, elemSize) == 0) {
+          positions[count++] = i;
+        }
+        ptr += sizeSize + size;
+      }
+    }
+    return count;
+  }
+
   /**
    * Gets element by index
    * @param index index to remove
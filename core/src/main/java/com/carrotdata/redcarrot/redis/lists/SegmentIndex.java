@@ -0,0 +1,204 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.lists;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Segment index of a list (off-heap memory area). It keeps segment addresses in list order together
+ * with a start position of each segment, so the segment which holds an element with a given index
+ * is found by a binary search instead of a linked list walk. Format:
+ * <p>
+ * 1. Capacity (number of entries) - 4 bytes 2. Number of entries - 4 bytes 3. Entries: segment
+ * address (8 bytes) and segment start position (8 bytes)
+ * <p>
+ * Start positions are virtual: index of an element in a list is its position minus start position
+ * of the first segment. This way pushes and pops at the head of a list update only the first
+ * entries and pushes and pops at the tail - only the last ones.
+ */
+final class SegmentIndex {
+
+  static final int CAPACITY_SIZE = Utils.SIZEOF_INT;
+  static final int COUNT_SIZE = Utils.SIZEOF_INT;
+  static final int HEADER_SIZE = CAPACITY_SIZE + COUNT_SIZE;
+  static final int ENTRY_SIZE = 2 * Utils.SIZEOF_LONG;
+  static final int MIN_CAPACITY = 16;
+  /** Minimum number of segments in a list to build the index */
+  static final int MIN_SEGMENTS = 8;
+
+  private SegmentIndex() {
+  }
+
+  static int getCapacity(long ptr) {
+    return UnsafeAccess.toInt(ptr);
+  }
+
+  static int getCount(long ptr) {
+    return UnsafeAccess.toInt(ptr + CAPACITY_SIZE);
+  }
+
+  private static void setCount(long ptr, int count) {
+    UnsafeAccess.putInt(ptr + CAPACITY_SIZE, count);
+  }
+
+  static long getAddress(long ptr, int i) {
+    return UnsafeAccess.toLong(ptr + HEADER_SIZE + (long) i * ENTRY_SIZE);
+  }
+
+  static long getStart(long ptr, int i) {
+    return UnsafeAccess.toLong(ptr + HEADER_SIZE + (long) i * ENTRY_SIZE + Utils.SIZEOF_LONG);
+  }
+
+  private static void setEntry(long ptr, int i, long address, long start) {
+    long entry = ptr + HEADER_SIZE + (long) i * ENTRY_SIZE;
+    UnsafeAccess.putLong(entry, address);
+    UnsafeAccess.putLong(entry + Utils.SIZEOF_LONG, start);
+  }
+
+  private static int sizeOf(int capacity) {
+    return HEADER_SIZE + capacity * ENTRY_SIZE;
+  }
+
+  /**
+   * Checks if a list is long enough to be indexed
+   * @param firstPtr first segment address
+   * @return true if - yes, false - otherwise
+   */
+  static boolean isIndexable(long firstPtr) {
+    long ptr = firstPtr;
+    for (int i = 0; i < MIN_SEGMENTS; i++) {
+      if (ptr <= 0) {
+        return false;
+      }
+      ptr = Segment.getNextSegmentAddress(ptr);
+    }
+    return true;
+  }
+
+  /**
+   * Builds the index (or rebuilds existing one)
+   * @param map sorted map storage (can be null)
+   * @param ptr index address or 0
+   * @param firstPtr first segment address
+   * @return index address
+   */
+  static long build(BigSortedMap map, long ptr, long firstPtr) {
+    if (ptr == 0) {
+      ptr = allocate(map, MIN_CAPACITY);
+    }
+    setCount(ptr, 0);
+    return replace(map, ptr, 0, 0, firstPtr, 0);
+  }
+
+  /**
+   * Frees the index
+   * @param map sorted map storage (can be null)
+   * @param ptr index address
+   */
+  static void free(BigSortedMap map, long ptr) {
+    Lists.freeMemory(map, sizeOf(getCapacity(ptr)));
+    UnsafeAccess.free(ptr);
+  }
+
+  private static long allocate(BigSortedMap map, int capacity) {
+    int size = sizeOf(capacity);
+    long ptr = UnsafeAccess.malloc(size);
+    Lists.allocMemory(map, size);
+    UnsafeAccess.putInt(ptr, capacity);
+    setCount(ptr, 0);
+    return ptr;
+  }
+
+  /**
+   * Replaces entries [from, to) with segments of a chain which starts with a given segment and ends
+   * before the segment of the entry 'to' (or at the end of the list).
+   * @param map sorted map storage (can be null)
+   * @param ptr index address
+   * @param from first entry to replace
+   * @param to entry after the last one to replace
+   * @param firstPtr first segment of a chain (0 - empty chain)
+   * @param start start position of a first segment of a chain
+   * @return index address (it can change)
+   */
+  static long replace(BigSortedMap map, long ptr, int from, int to, long firstPtr, long start) {
+    int count = getCount(ptr);
+    long stopPtr = to < count ? getAddress(ptr, to) : 0;
+    int n = 0;
+    for (long p = firstPtr; p > 0 && p != stopPtr; p = Segment.getNextSegmentAddress(p)) {
+      n++;
+    }
+    int newCount = count - (to - from) + n;
+    int capacity = getCapacity(ptr);
+    if (newCount > capacity) {
+      int newCapacity = Math.max(newCount, 2 * capacity);
+      long newPtr = UnsafeAccess.realloc(ptr, sizeOf(newCapacity));
+      Lists.allocMemory(map, sizeOf(newCapacity) - sizeOf(capacity));
+      ptr = newPtr;
+      UnsafeAccess.putInt(ptr, newCapacity);
+    }
+    if (to < count && from + n != to) {
+      long src = ptr + HEADER_SIZE + (long) to * ENTRY_SIZE;
+      long dst = ptr + HEADER_SIZE + (long) (from + n) * ENTRY_SIZE;
+      UnsafeAccess.copy(src, dst, (long) (count - to) * ENTRY_SIZE);
+    }
+    long p = firstPtr;
+    for (int i = from; i < from + n; i++) {
+      setEntry(ptr, i, p, start);
+      start += Segment.getNumberOfElements(p);
+      p = Segment.getNextSegmentAddress(p);
+    }
+    setCount(ptr, newCount);
+    return ptr;
+  }
+
+  /**
+   * Finds entry of a segment which contains element by index
+   * @param ptr index address
+   * @param index index of an element
+   * @return entry number or -1
+   */
+  static int find(long ptr, long index) {
+    int count = getCount(ptr);
+    if (count == 0 || index < 0) {
+      return -1;
+    }
+    long pos = getStart(ptr, 0) + index;
+    int low = 0, high = count - 1;
+    // Last entry whose start is not greater than pos (skips empty segments)
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (getStart(ptr, mid) <= pos) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    long off = pos - getStart(ptr, low);
+    if (off >= Segment.getNumberOfElements(getAddress(ptr, low))) {
+      return -1;
+    }
+    return low;
+  }
+
+  /**
+   * Offset of an element in a segment of a given entry
+   * @param ptr index address
+   * @param i entry number
+   * @param index index of an element in a list
+   * @return offset (in elements)
+   */
+  static int offset(long ptr, int i, long index) {
+    return (int) (getStart(ptr, 0) + index - getStart(ptr, i));
+  }
+}
@@ -13,8 +13,6 @@ package com.carrotdata.redcarrot.redis.server;
 
 import static com.carrotdata.redcarrot.redis.util.Commons.KEY_SIZE;
 
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 import org.apache.logging.log4j.LogManager;
@@ -22,6 +20,7 @@ import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.redis.RedisConf;
 import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.storage.SnapshotManager;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 
@@ -182,10 +181,8 @@ public class Server {
    * @return true on success, false -otherwise
    */
   public static boolean SAVE(BigSortedMap map) {
-    ensureBgSnapshot();
-    snapshotThread.workOn(map);
-    snapshotThread.waitUntilDone();
-    return true;
+    return SnapshotManager.getInstance().takeSnapshot(map, true,
+      RedisConf.getInstance().isSnapshotIncremental(), true);
   }
 
   /**
@@ -200,82 +197,23 @@ public class Server {
    * started if BGSAVE started correctly or Background saving scheduled when used with the SCHEDULE
    * subcommand. History >= 3.2.2: Added the SCHEDULE option.
    * @param map sorted map storage
+   * @param schedule schedule if true
+   * @return false - error, true - ok
    */
-  static class SnapshotThread extends Thread {
-
-    List<BigSortedMap> schedules =
-        (List<BigSortedMap>) Collections.synchronizedList(new ArrayList<BigSortedMap>());
-
-    public SnapshotThread() {
-      super("carrot-snapshot-thread");
-    }
-
-    public void workOn(BigSortedMap map) {
-      schedules.add(map);
-    }
-
-    public void run() {
-      while (true) {
-        waitForWork();
-        /* DEBUG */
-        log.debug("[{}] BGSAVE started", Thread.currentThread().getName());
-        BigSortedMap map = schedules.get(0);
-        map.snapshot();
-        schedules.remove(0);
-      }
-    }
-
-    private void waitForWork() {
-      while (schedules.isEmpty()) {
-        try {
-          Thread.sleep(10);
-        } catch (InterruptedException e) {
-        }
-      }
-    }
-
-    boolean isWorking() {
-      return !schedules.isEmpty();
-    }
-
-    void waitUntilDone() {
-      while (!schedules.isEmpty()) {
-        try {
-          Thread.sleep(10);
-        } catch (InterruptedException e) {
-        }
-      }
-    }
+  public static boolean BGSAVE(BigSortedMap map, boolean schedule) {
+    return BGSAVE(map, schedule, RedisConf.getInstance().isSnapshotIncremental());
   }
 
-  static SnapshotThread snapshotThread;
-
   /**
-   * BGSAVE command
+   * BGSAVE command in a given mode
    * @param map sorted map storage
    * @param schedule schedule if true
+   * @param incremental incremental snapshot if true, full - otherwise
    * @return false - error, true - ok
    */
-  public static boolean BGSAVE(BigSortedMap map, boolean schedule) {
-
-    ensureBgSnapshot();
-    if (snapshotThread.isWorking() && !schedule) {
-      return false;
-    }
-    snapshotThread.workOn(map);
+  public static boolean BGSAVE(BigSortedMap map, boolean schedule, boolean incremental) {
     // do not wait
-    return true;
-  }
-
-  static void ensureBgSnapshot() {
-    if (snapshotThread == null) {
-      synchronized (Server.class) {
-        if (snapshotThread == null) {
-          snapshotThread = new SnapshotThread();
-          snapshotThread.start();
-        }
-      }
-    }
+    return SnapshotManager.getInstance().takeSnapshot(map, false, incremental, schedule);
   }
 
   /**
@@ -15,12 +15,15 @@ import static com.carrotdata.redcarrot.redis.util.Commons.KEY_SIZE;
 import static com.carrotdata.redcarrot.redis.util.Commons.NUM_ELEM_SIZE;
 import static com.carrotdata.redcarrot.redis.util.Commons.ZERO;
 import static com.carrotdata.redcarrot.redis.util.Commons.addNumElements;
+import static com.carrotdata.redcarrot.redis.util.Commons.buildOffsets;
 import static com.carrotdata.redcarrot.redis.util.Commons.canSplit;
+import static com.carrotdata.redcarrot.redis.util.Commons.dataSize;
 import static com.carrotdata.redcarrot.redis.util.Commons.elementAddressFromKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.elementSizeFromKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.keySize;
 import static com.carrotdata.redcarrot.redis.util.Commons.keySizeWithPrefix;
 import static com.carrotdata.redcarrot.redis.util.Commons.numElementsInValue;
+import static com.carrotdata.redcarrot.redis.util.Commons.offsetsSize;
 import static com.carrotdata.redcarrot.redis.util.Commons.setNumElements;
 
 import com.carrotdata.redcarrot.DataBlock;
@@ -55,6 +58,12 @@ public class SetAdd extends Operation {
     }
   };
 
+  /* Serialized size change after update */
+  private int sizeDelta;
+
+  /* Number of new K-Vs created */
+  private int chunksDelta;
+
   /** Constructor */
   public SetAdd() {
     setFloorKey(true);
@@ -64,6 +73,24 @@ public class SetAdd extends Operation {
   public void reset() {
     super.reset();
     setFloorKey(true);
+    this.sizeDelta = 0;
+    this.chunksDelta = 0;
+  }
+
+  /**
+   * Get serialized size change (element size with its size prefix)
+   * @return size delta
+   */
+  public int getSizeDelta() {
+    return this.sizeDelta;
+  }
+
+  /**
+   * Get number of new K-Vs created by this operation
+   * @return number of new K-Vs
+   */
+  public int getChunksDelta() {
+    return this.chunksDelta;
   }
 
   /**
@@ -135,8 +162,9 @@ public class SetAdd extends Operation {
     // First two bytes are number of elements in a value
     long addr = Sets.insertSearch(foundRecordAddress, elementPtr, elementSize);
     // check if the same element
-    int valueSize = DataBlock.valueLength(foundRecordAddress);
     long valueAddress = DataBlock.valueAddress(foundRecordAddress);
+    // Offset table is rebuilt after update
+    int valueSize = dataSize(valueAddress, DataBlock.valueLength(foundRecordAddress));
     boolean append = addr == (valueAddress + valueSize);
 
     if (!append) {
@@ -150,17 +178,19 @@ public class SetAdd extends Operation {
     int elemSizeSize = Utils.sizeUVInt(elementSize);
     int toAdd = elemSizeSize + elementSize;
     int newValueSize = valueSize + toAdd;
-    boolean needSplit = DataBlock.mustStoreExternally(foundKeySize, newValueSize);
+    int tableSize = offsetsSize(numElementsInValue(valueAddress) + 1);
+    boolean needSplit = DataBlock.mustStoreExternally(foundKeySize, newValueSize + tableSize);
+    this.sizeDelta = toAdd;
 
     if (!needSplit) {
-      Sets.checkValueArena(newValueSize);
+      Sets.checkValueArena(newValueSize + tableSize);
       insertElement(valueAddress, valueSize, addr, elementPtr, elementSize);
       // set # of updates to 1
       this.updatesCount = 1;
       this.keys[0] = foundKeyAddress; // use the key we found
       this.keySizes[0] = foundKeySize; // use the key we found
       this.values[0] = Sets.valueArena.get();
-      this.valueSizes[0] = newValueSize;
+      this.valueSizes[0] = buildOffsets(this.values[0], newValueSize, false);
       return true;
     } else if (!canSplit(valueAddress)) {
       // We can't split existing KV , so insert new one
@@ -174,7 +204,7 @@ public class SetAdd extends Operation {
       return true;
     } else {
       // Do split
-      Sets.checkValueArena(newValueSize + NUM_ELEM_SIZE);
+      Sets.checkValueArena(newValueSize + NUM_ELEM_SIZE + tableSize);
       // Sets.valueArena is used
       insertElement(valueAddress, valueSize, addr, elementPtr, elementSize);
       // calculate new key size
@@ -201,8 +231,14 @@ public class SetAdd extends Operation {
       int leftValueSize = (int) (splitPos - vPtr);
       // This is value size update #2
       int rightValueSize = (int) ((vPtr + newValueSize - splitPos) + NUM_ELEM_SIZE);
+      // Right split is moved to leave space for an offset table of a left split
+      long rightPtr = splitPos + offsetsSize(leftSplitElNum);
+      UnsafeAccess.copy(splitPos, rightPtr, rightValueSize);
+      leftValueSize = buildOffsets(vPtr, leftValueSize, false);
+      rightValueSize = buildOffsets(rightPtr, rightValueSize, false);
 
       // Prepare updates
+      this.chunksDelta = 1;
       this.updatesCount = 2;
       this.keys[0] = foundKeyAddress; // keyAddress;
       this.keySizes[0] = foundKeySize; // keySize;
@@ -211,7 +247,7 @@ public class SetAdd extends Operation {
 
       this.keys[1] = kPtr;
       this.keySizes[1] = totalKeySize;
-      this.values[1] = splitPos;
+      this.values[1] = rightPtr;
       this.valueSizes[1] = rightValueSize;
       return true;
     }
@@ -238,6 +274,8 @@ public class SetAdd extends Operation {
     // Copy element
     UnsafeAccess.copy(ePtr, vPtr + NUM_ELEM_SIZE + eSizeSize, eSize);
 
+    this.sizeDelta = eSize + eSizeSize;
+    this.chunksDelta = 1;
     // set number of updates to 1
     this.updatesCount = 1;
     keys[0] = kPtr;
@@ -266,6 +304,8 @@ public class SetAdd extends Operation {
     Utils.writeUVInt(vPtr + NUM_ELEM_SIZE, eSize);
     // Copy element
     UnsafeAccess.copy(ePtr, vPtr + NUM_ELEM_SIZE + eSizeSize, eSize);
+    this.sizeDelta = eSize + eSizeSize;
+    this.chunksDelta = 1;
     // set number of updates to 1
     this.updatesCount = 1;
     keys[0] = kPtr;
@@ -285,11 +325,11 @@ public class SetAdd extends Operation {
    */
   private void insertElement(long valueAddress, int valueSize, long addr, long elementPtr,
       int elementSize) {
-    // increment number of elements in this value
-    addNumElements(valueAddress, 1);
     long ptr = Sets.valueArena.get();
     // Copy everything before addr
     UnsafeAccess.copy(valueAddress, ptr, addr - valueAddress);
+    // increment number of elements in a new value
+    addNumElements(ptr, 1);
     // Encode element size
     ptr += addr - valueAddress;
     int elemSizeSize = Utils.writeUVInt(ptr, elementSize);
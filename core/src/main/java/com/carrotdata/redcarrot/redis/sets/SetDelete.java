@@ -12,10 +12,14 @@
 package com.carrotdata.redcarrot.redis.sets;
 
 import static com.carrotdata.redcarrot.redis.util.Commons.addNumElements;
+import static com.carrotdata.redcarrot.redis.util.Commons.buildOffsets;
+import static com.carrotdata.redcarrot.redis.util.Commons.dataSize;
 import static com.carrotdata.redcarrot.redis.util.Commons.elementAddressFromKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.elementSizeFromKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.isFirstKey;
 import static com.carrotdata.redcarrot.redis.util.Commons.keySizeWithPrefix;
+import static com.carrotdata.redcarrot.redis.util.Commons.numElementsInValue;
+import static com.carrotdata.redcarrot.redis.util.Commons.offsetsSize;
 
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.DataBlock;
@@ -33,6 +37,10 @@ public class SetDelete extends Operation {
 
   BigSortedMap map;
   boolean checkForEmpty;
+  /* Serialized size change after update */
+  int sizeDelta;
+  /* Number of K-Vs deleted */
+  int chunksDelta;
 
   public SetDelete() {
     setFloorKey(true);
@@ -48,6 +56,24 @@ public class SetDelete extends Operation {
     setFloorKey(true);
     this.map = null;
     this.checkForEmpty = false;
+    this.sizeDelta = 0;
+    this.chunksDelta = 0;
+  }
+
+  /**
+   * Get serialized size change (negative)
+   * @return size delta
+   */
+  public int getSizeDelta() {
+    return this.sizeDelta;
+  }
+
+  /**
+   * Get number of K-Vs deleted by this operation (negative)
+   * @return chunks delta
+   */
+  public int getChunksDelta() {
+    return this.chunksDelta;
   }
 
   public void setMap(BigSortedMap map) {
@@ -86,30 +112,34 @@ public class SetDelete extends Operation {
     int elemSizeSize = Utils.sizeUVInt(elementSize);
     int toCut = elemSizeSize + elementSize;
     long valueAddress = DataBlock.valueAddress(foundRecordAddress);
-    // decrement number of elements in this value
-    int numElements = addNumElements(valueAddress, -1);
+    int numElements = numElementsInValue(valueAddress) - 1;
     if (numElements == 0) {
       this.checkForEmpty = true;
     }
-    int valueSize = DataBlock.valueLength(foundRecordAddress);
+    // Offset table is rebuilt after update
+    int valueSize = dataSize(valueAddress, DataBlock.valueLength(foundRecordAddress));
     int newValueSize = valueSize - toCut;
-    Sets.checkValueArena(newValueSize);
+    Sets.checkValueArena(newValueSize + offsetsSize(numElements));
     long ptr = Sets.valueArena.get();
     // TODO: check this
     UnsafeAccess.copy(valueAddress, ptr, addr - valueAddress);
     UnsafeAccess.copy(addr + toCut, ptr + addr - valueAddress,
       valueSize - toCut - (addr - valueAddress));
+    // decrement number of elements in a new value
+    addNumElements(ptr, -1);
 
     // set # of updates to 1
     this.updatesCount = 1;
     this.keys[0] = foundKeyAddress;
     this.keySizes[0] = foundKeySize;
     this.values[0] = ptr;
-    this.valueSizes[0] = valueSize - toCut;
+    this.valueSizes[0] = buildOffsets(ptr, newValueSize, false);
+    this.sizeDelta = -toCut;
     if (numElements == 0 && !isFirstKey /* canDelete(foundKeyAddress, foundKeySize) */) {
       // Delete Key, b/c its empty
       // TODO - this code leaves last key, which needs to be deleted explicitly
       this.updateTypes[0] = true;
+      this.chunksDelta = -1;
     }
     return true;
   }
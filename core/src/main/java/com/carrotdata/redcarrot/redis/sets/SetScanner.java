@@ -218,10 +218,10 @@ public final class SetScanner extends Scanner {
   /** Main initialization routine */
   private void init() throws IOException {
     this.valueAddress = mapScanner.valueAddress();
-    this.valueSize = mapScanner.valueSize();
     if (this.valueAddress == -1) {
       throw new IOException("Empty scanner");
     }
+    this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
 
     this.valueNumber = Commons.numElementsInValue(this.valueAddress);
 
@@ -281,7 +281,7 @@ public final class SetScanner extends Scanner {
       return false;
     }
     this.valueAddress = mapScanner.valueAddress();
-    this.valueSize = mapScanner.valueSize();
+    this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
     this.valueNumber = Commons.numElementsInValue(this.valueAddress);
 
     // check if it it is not empty
@@ -350,7 +350,7 @@ public final class SetScanner extends Scanner {
       mapScanner.next();
       if (mapScanner.hasNext()) {
         this.valueAddress = mapScanner.valueAddress();
-        this.valueSize = mapScanner.valueSize();
+        this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
         this.valueNumber = Commons.numElementsInValue(this.valueAddress);
 
         this.offset = NUM_ELEM_SIZE;
@@ -396,7 +396,7 @@ public final class SetScanner extends Scanner {
 
     while (mapScanner.hasNext()) {
       this.valueAddress = mapScanner.valueAddress();
-      this.valueSize = mapScanner.valueSize();
+      this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
 
       // check if it it is not empty
       this.offset = NUM_ELEM_SIZE;
@@ -488,7 +488,7 @@ public final class SetScanner extends Scanner {
           mapScanner.next();
           if (mapScanner.hasNext()) {
             this.valueAddress = mapScanner.valueAddress();
-            this.valueSize = mapScanner.valueSize();
+            this.valueSize = Commons.dataSize(this.valueAddress, mapScanner.valueSize());
             this.valueNumber = Commons.numElementsInValue(this.valueAddress);
             this.pos = 0;
             this.offset = NUM_ELEM_SIZE;
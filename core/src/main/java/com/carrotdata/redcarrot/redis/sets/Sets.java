@@ -32,6 +32,8 @@ import com.carrotdata.redcarrot.BigSortedMapScanner;
 import com.carrotdata.redcarrot.DataBlock;
 import com.carrotdata.redcarrot.redis.util.Commons;
 import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
+import com.carrotdata.redcarrot.redis.util.Metadata;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.KeysLocker;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
@@ -51,13 +53,17 @@ import com.carrotdata.redcarrot.util.ValueScore;
  * Value format:
  * <p>
  * N - number of elements - 2 bytes { element size - VLE (variable length encoding) element data }
- * +N
+ * +N [offset table]
+ * <p>
+ * Optional offset table keeps offsets of every Commons.VALUE_OFFSETS_STRIDE-th element, the
+ * highest bit of N is set when a value has it (see
+ * {@link Commons#buildOffsets(long, int, boolean)})
+ * <p>
+ * Cardinality, serialized size and number of K-Vs of a set are kept in a metadata K-V (see
+ * {@link Metadata}), which makes SCARD O(1)
  */
 public class Sets {
 
-  static final long CARD_KEY = UnsafeAccess.allocAndCopy(new byte[] { (byte) 0 }, 0, 1);
-  static final int CARD_KEY_SIZE = 1;
-
   private static final Logger log = LogManager.getLogger(Sets.class);
 
   private static ThreadLocal<Long> keyArena = new ThreadLocal<Long>() {
@@ -187,6 +193,7 @@ public class Sets {
 
       int toAdd = elemPtrs.length;
       int count = 0;
+      long size = 0, chunks = 0;
       for (int i = 0; i < toAdd; i++) {
         int kSize = buildKey(keyPtr, keySize, elemPtrs[i], elemSizes[i]);
         SetAdd add = setAdd.get();
@@ -196,11 +203,11 @@ public class Sets {
         // version?
         if (map.execute(add)) {
           count++;
+          size += add.getSizeDelta();
+          chunks += add.getChunksDelta();
         }
       }
-      if (count > 0) {
-        SINCRCARD(map, keyPtr, keySize, count);
-      }
+      updateMetadata(map, keyPtr, keySize, count, size, chunks);
       return count;
     } finally {
       KeysLocker.writeUnlock(k);
@@ -216,6 +223,7 @@ public class Sets {
       }
       int toAdd = members.size();
       int count = 0;
+      long size = 0, chunks = 0;
       for (int i = 0; i < toAdd; i++) {
         Key mem = members.get(i);
         int kSize = buildKey(keyPtr, keySize, mem.address, mem.length);
@@ -226,11 +234,11 @@ public class Sets {
         // version?
         if (map.execute(add)) {
           count++;
+          size += add.getSizeDelta();
+          chunks += add.getChunksDelta();
         }
       }
-      if (count > 0) {
-        SINCRCARD(map, keyPtr, keySize, count);
-      }
+      updateMetadata(map, keyPtr, keySize, count, size, chunks);
       return count;
     } finally {
       KeysLocker.writeUnlock(k);
@@ -248,6 +256,7 @@ public class Sets {
   public static int SADD_NEW(BigSortedMap map, long keyPtr, int keySize, List<Value> members) {
     Key k = getKey(keyPtr, keySize);
     int count = 0;
+    long size = 0, chunks = 0;
     try {
       KeysLocker.writeLock(k);
       Value first = new Value(ZERO, SIZEOF_BYTE);
@@ -275,11 +284,11 @@ public class Sets {
           break;
         }
         count += num;
+        size += valueSize - NUM_ELEM_SIZE;
+        chunks++;
         prev = value;
       }
-      if (count > 0) {
-        SINCRCARD(map, keyPtr, keySize, count);
-      }
+      Metadata.set(map, DataType.SET, keyPtr, keySize, count, size, chunks);
       return count;
     } finally {
       KeysLocker.writeUnlock(k);
@@ -355,6 +364,7 @@ public class Sets {
       List<ValueScore> members) {
     Key k = getKey(keyPtr, keySize);
     int count = 0;
+    long size = 0, chunks = 0;
     try {
       KeysLocker.writeLock(k);
       ValueScore first = new ValueScore(ZERO, SIZEOF_BYTE, 0);
@@ -382,11 +392,11 @@ public class Sets {
           break;
         }
         count += num;
+        size += valueSize - NUM_ELEM_SIZE;
+        chunks++;
         prev = value;
       }
-      if (count > 0) {
-        SINCRCARD(map, keyPtr, keySize, count);
-      }
+      Metadata.set(map, DataType.SET, keyPtr, keySize, count, size, chunks);
       return count;
     } finally {
       KeysLocker.writeUnlock(k);
@@ -478,22 +488,6 @@ public class Sets {
    */
   public static int SADD(BigSortedMap map, long keyPtr, int keySize, long elemPtr, int elemSize,
       boolean lock) {
-    return SADD(map, keyPtr, keySize, elemPtr, elemSize, lock, true);
-  }
-
-  /**
-   * SADD for single member (zero memory allocation)
-   * @param map sorted map storage
-   * @param keyPtr set key address
-   * @param keySize set key size
-   * @param elemPtr member value address
-   * @param elemSize member value size
-   * @param lock lock if true
-   * @param updateCardinality update cardinality
-   * @return 1 or 0
-   */
-  public static int SADD(BigSortedMap map, long keyPtr, int keySize, long elemPtr, int elemSize,
-      boolean lock, boolean updateCardinality) {
     Key k = getKey(keyPtr, keySize);
     try {
       if (lock) KeysLocker.writeLock(k);
@@ -507,9 +501,7 @@ public class Sets {
       // version?
       if (map.execute(add)) {
         count++;
-      }
-      if (count > 0 && updateCardinality) {
-        SINCRCARD(map, keyPtr, keySize, count);
+        updateMetadata(map, keyPtr, keySize, count, add.getSizeDelta(), add.getChunksDelta());
       }
       return count;
     } finally {
@@ -561,11 +553,123 @@ public class Sets {
 
   /**
    * Not in Redis API Calculates number of elements between start member (inclusive) and stop member
-   * (exclusive). When both": start and stop member are nulls this call is equivalent to SCARD
+   * (exclusive). When both": start and stop member are nulls this call is equivalent to SCARD.
+   * Whole K-Vs are counted by their number of elements, only the K-V which contains a range limit
+   * is scanned, therefore complexity is O(N/M) where M is average number of elements in a K-V
+   * @param map sorted map storage
+   * @param keyPtr set key address
+   * @param keySize set key size
+   * @param startPtr start member address (0 - from the beginning)
+   * @param startSize start member size
+   * @param stopPtr stop member address (0 - till the end)
+   * @param stopSize stop member size
+   * @return number of elements in a range
    */
   public static long SCOUNT(BigSortedMap map, long keyPtr, int keySize, long startPtr,
       int startSize, long stopPtr, int stopSize) {
-    return 0;
+    if (stopPtr == 0) {
+      long total = SCARD(map, keyPtr, keySize);
+      return startPtr == 0 ? total : total - SCOUNT(map, keyPtr, keySize, 0, 0, startPtr, startSize);
+    }
+    Key k = getKey(keyPtr, keySize);
+    try {
+      KeysLocker.readLock(k);
+      long total = countLess(map, keyPtr, keySize, stopPtr, stopSize);
+      if (startPtr > 0) {
+        total -= countLess(map, keyPtr, keySize, startPtr, startSize);
+      }
+      return total < 0 ? 0 : total;
+    } finally {
+      KeysLocker.readUnlock(k);
+    }
+  }
+
+  /**
+   * Counts set elements which are less than a given member
+   * @param map sorted map storage
+   * @param keyPtr set key address
+   * @param keySize set key size
+   * @param memberPtr member address
+   * @param memberSize member size
+   * @return number of elements
+   */
+  private static long countLess(BigSortedMap map, long keyPtr, int keySize, long memberPtr,
+      int memberSize) {
+    long startKeyPtr = 0, stopKeyPtr = 0, lastKeyPtr = 0;
+    long total = 0;
+    try {
+      startKeyPtr = UnsafeAccess.malloc(keySize + KEY_SIZE + 2 * Utils.SIZEOF_BYTE);
+      int startKeySize = buildKey(keyPtr, keySize, Commons.ZERO, 1, startKeyPtr);
+      stopKeyPtr = UnsafeAccess.malloc(keySize + KEY_SIZE + Utils.SIZEOF_BYTE + memberSize);
+      int stopKeySize = buildKey(keyPtr, keySize, memberPtr, memberSize, stopKeyPtr);
+      // K-V which can contain a member, its key is the floor key of a member's key
+      long size = map.floorKey(stopKeyPtr, stopKeySize, valueArena.get(), valueArenaSize.get());
+      if (size > valueArenaSize.get()) {
+        checkValueArena((int) size);
+        size = map.floorKey(stopKeyPtr, stopKeySize, valueArena.get(), valueArenaSize.get());
+      }
+      int prefixSize = startKeySize - 1;
+      if (size < prefixSize
+          || Utils.compareTo(startKeyPtr, prefixSize, valueArena.get(), prefixSize) != 0) {
+        // No K-Vs of this set before a member
+        return 0;
+      }
+      lastKeyPtr = UnsafeAccess.malloc(size);
+      int lastKeySize = (int) size;
+      UnsafeAccess.copy(valueArena.get(), lastKeyPtr, lastKeySize);
+
+      BigSortedMapScanner scanner =
+          map.getScanner(startKeyPtr, startKeySize, stopKeyPtr, stopKeySize);
+      if (scanner == null) {
+        return 0;
+      }
+      // All K-Vs but the last one contain only elements which are less than a member
+      while (scanner.hasNext()) {
+        long valuePtr = scanner.valueAddress();
+        if (Utils.compareTo(scanner.keyAddress(), scanner.keySize(), lastKeyPtr,
+          lastKeySize) == 0) {
+          total += countLessInValue(valuePtr, memberPtr, memberSize);
+        } else {
+          total += numElementsInValue(valuePtr);
+        }
+        scanner.next();
+      }
+      scanner.close();
+    } catch (IOException e) {
+      // should never be thrown
+    } finally {
+      if (startKeyPtr > 0) {
+        UnsafeAccess.free(startKeyPtr);
+      }
+      if (stopKeyPtr > 0) {
+        UnsafeAccess.free(stopKeyPtr);
+      }
+      if (lastKeyPtr > 0) {
+        UnsafeAccess.free(lastKeyPtr);
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Counts elements of a Value object which are less than a given member
+   * @param valuePtr value address
+   * @param memberPtr member address
+   * @param memberSize member size
+   * @return number of elements
+   */
+  private static int countLessInValue(long valuePtr, long memberPtr, int memberSize) {
+    int num = numElementsInValue(valuePtr);
+    long ptr = valuePtr + NUM_ELEM_SIZE;
+    for (int i = 0; i < num; i++) {
+      int elSize = Utils.readUVInt(ptr);
+      int elSizeSize = Utils.sizeUVInt(elSize);
+      if (Utils.compareTo(ptr + elSizeSize, elSize, memberPtr, memberSize) >= 0) {
+        return i;
+      }
+      ptr += elSize + elSizeSize;
+    }
+    return num;
   }
 
   /**
@@ -573,17 +677,19 @@ public class Sets {
    * given sets. Returns the members of the set resulting from the difference between the first set
    * and all the successive sets. For example: key1 = {a,b,c,d} key2 = {c} key3 = {a,c,e} SDIFF key1
    * key2 key3 = {b,d} Keys that do not exist are considered to be empty sets. Return value Array
-   * reply: list with members of the resulting set.
+   * reply: list with members of the resulting set. Serialized format is the same as in SMEMBERS.
    * @param map sorted map storage
    * @param keyPtrs array of key addresses
    * @param keySizes array of key sizes
    * @param buffer buffer for result
    * @param bufferSize size of the buffer
-   * @return total serialized size of an sets intersection
+   * @return total buffer size required to hold all members
    */
   public static long SDIFF(BigSortedMap map, long[] keyPtrs, int[] keySizes, long buffer,
       int bufferSize) {
-    return 0;
+    SetOpOutput out = SetOpOutput.toBuffer(buffer, bufferSize);
+    setOperation(map, SetOp.DIFF, keyPtrs, keySizes, 0, out);
+    return out.size();
   }
 
   /**
@@ -591,12 +697,12 @@ public class Sets {
    * destination. If destination already exists, it is overwritten. Return value Integer reply: the
    * number of elements in the resulting set.
    * @param map sorted map storage
-   * @param keyPtrs array of key addresses
+   * @param keyPtrs array of key addresses (first key is the destination)
    * @param keySizes array of key sizes
    * @return the number of elements in the resulting set.
    */
   public static long SDIFFSTORE(BigSortedMap map, long[] keyPtrs, int[] keySizes) {
-    return 0;
+    return setOperationStore(map, SetOp.DIFF, keyPtrs, keySizes);
   }
 
   /**
@@ -606,17 +712,19 @@ public class Sets {
    * SINTER key1 key2 key3 = {c} Keys that do not exist are considered to be empty sets. With one of
    * the keys being an empty set, the resulting set is also empty (since set intersection with an
    * empty set always results in an empty set). Return value Array reply: list with members of the
-   * resulting set.
+   * resulting set. Serialized format is the same as in SMEMBERS.
    * @param map sorted map storage
    * @param keyPtrs array of key addresses
    * @param keySizes array of key sizes
    * @param buffer buffer for result
    * @param bufferSize size of the buffer
-   * @return total serialized size of the result
+   * @return total buffer size required to hold all members
    */
   public static long SINTER(BigSortedMap map, long[] keyPtrs, int[] keySizes, long buffer,
       int bufferSize) {
-    return 0;
+    SetOpOutput out = SetOpOutput.toBuffer(buffer, bufferSize);
+    setOperation(map, SetOp.INTER, keyPtrs, keySizes, 0, out);
+    return out.size();
   }
 
   /**
@@ -629,24 +737,26 @@ public class Sets {
    * @return the number of elements in the resulting set.
    */
   public static long SINTERSTORE(BigSortedMap map, long[] keyPtrs, int[] keySizes) {
-    return 0;
+    return setOperationStore(map, SetOp.INTER, keyPtrs, keySizes);
   }
 
   /**
    * Returns the members of the set resulting from the union of all the given sets. For example:
    * key1 = {a,b,c,d} key2 = {c} key3 = {a,c,e} SUNION key1 key2 key3 = {a,b,c,d,e} Keys that do not
    * exist are considered to be empty sets. Return value Array reply: list with members of the
-   * resulting set.
+   * resulting set. Serialized format is the same as in SMEMBERS.
    * @param map sorted map storage
    * @param keyPtrs array of key addresses
    * @param keySizes array of key sizes
    * @param buffer buffer for result
    * @param bufferSize size of the buffer
-   * @return total serialized size of the result
+   * @return total buffer size required to hold all members
    */
   public static long SUNION(BigSortedMap map, long[] keyPtrs, int[] keySizes, long buffer,
       int bufferSize) {
-    return 0;
+    SetOpOutput out = SetOpOutput.toBuffer(buffer, bufferSize);
+    setOperation(map, SetOp.UNION, keyPtrs, keySizes, 0, out);
+    return out.size();
   }
 
   /**
@@ -659,7 +769,519 @@ public class Sets {
    * @return the number of elements in the resulting set.
    */
   public static long SUNIONSTORE(BigSortedMap map, long[] keyPtrs, int[] keySizes) {
-    return 0;
+    return setOperationStore(map, SetOp.UNION, keyPtrs, keySizes);
+  }
+
+  /** Set algebra operations */
+  private enum SetOp {
+    INTER, UNION, DIFF
+  }
+
+  /**
+   * When a set is at least LOOKUP_RATIO times larger than a driving set, its members are checked
+   * with point lookups (floor key search) instead of a merge scan
+   */
+  static final int LOOKUP_RATIO = 16;
+
+  /**
+   * Runs set operation and stores result in a destination set (first key), destination is
+   * overwritten. Result K-Vs are built from a sorted stream of members and put into the map
+   * directly, without per-member inserts. Destination is deleted first and every K-V is put as soon
+   * as it is completed, unless destination is one of the sources: then K-Vs are kept until the
+   * merge is over
+   * @param map sorted map storage
+   * @param op set operation
+   * @param keyPtrs array of key addresses (first key is the destination)
+   * @param keySizes array of key sizes
+   * @return the number of elements in the resulting set.
+   */
+  private static long setOperationStore(BigSortedMap map, SetOp op, long[] keyPtrs,
+      int[] keySizes) {
+    boolean buffered = false;
+    for (int i = 1; i < keyPtrs.length; i++) {
+      if (Utils.compareTo(keyPtrs[0], keySizes[0], keyPtrs[i], keySizes[i]) == 0) {
+        buffered = true;
+        break;
+      }
+    }
+    SetOpOutput out = SetOpOutput.toSet(map, keyPtrs[0], keySizes[0], buffered);
+    try {
+      map.writeLock();
+      if (!buffered) {
+        DELETE(map, keyPtrs[0], keySizes[0]);
+      }
+      setOperation(map, op, keyPtrs, keySizes, 1, out);
+      if (buffered) {
+        // All source scanners are closed, destination can be deleted now
+        DELETE(map, keyPtrs[0], keySizes[0]);
+      }
+      out.store();
+      return out.count();
+    } finally {
+      out.dispose();
+      map.writeUnlock();
+    }
+  }
+
+  /**
+   * Streaming sorted merge of a set members
+   * @param map sorted map storage
+   * @param op set operation
+   * @param keyPtrs array of key addresses
+   * @param keySizes array of key sizes
+   * @param from index of a first source key
+   * @param out operation output
+   */
+  private static void setOperation(BigSortedMap map, SetOp op, long[] keyPtrs, int[] keySizes,
+      int from, SetOpOutput out) {
+    int n = keyPtrs.length - from;
+    if (n <= 0) {
+      return;
+    }
+    SetCursor[] cursors = new SetCursor[n];
+    try {
+      for (int i = 0; i < n; i++) {
+        // Cardinality is not needed for union
+        long card = op == SetOp.UNION ? 0 : SCARD(map, keyPtrs[from + i], keySizes[from + i]);
+        cursors[i] = new SetCursor(map, keyPtrs[from + i], keySizes[from + i], card);
+      }
+      switch (op) {
+        case INTER:
+          intersect(cursors, out);
+          break;
+        case UNION:
+          union(cursors, out);
+          break;
+        case DIFF:
+          difference(cursors, out);
+          break;
+      }
+    } catch (IOException e) {
+      // should never be thrown
+    } finally {
+      for (SetCursor c : cursors) {
+        if (c != null) {
+          c.close();
+        }
+      }
+    }
+  }
+
+  /**
+   * Intersection is driven by the smallest set, other sets are either merge scanned or probed with
+   * point lookups, when they are much larger
+   * @param cursors set cursors
+   * @param out operation output
+   * @throws IOException
+   */
+  private static void intersect(SetCursor[] cursors, SetOpOutput out) throws IOException {
+    SetCursor driver = cursors[0];
+    for (SetCursor c : cursors) {
+      if (c.card < driver.card) {
+        driver = c;
+      }
+    }
+    if (driver.card == 0) {
+      return;
+    }
+    for (SetCursor c : cursors) {
+      c.open(c != driver && c.card >= LOOKUP_RATIO * driver.card);
+    }
+    while (driver.isValid()) {
+      long ptr = driver.memberAddress();
+      int size = driver.memberSize();
+      boolean found = true;
+      for (SetCursor c : cursors) {
+        if (c == driver) {
+          continue;
+        }
+        if (!c.contains(ptr, size)) {
+          if (c.isExhausted()) {
+            return;
+          }
+          found = false;
+          break;
+        }
+      }
+      if (found) {
+        out.add(ptr, size);
+        out.write(cursors);
+      }
+      driver.next();
+    }
+  }
+
+  /**
+   * K-way merge of all sets
+   * @param cursors set cursors
+   * @param out operation output
+   * @throws IOException
+   */
+  private static void union(SetCursor[] cursors, SetOpOutput out) throws IOException {
+    for (SetCursor c : cursors) {
+      c.open(false);
+    }
+    while (true) {
+      SetCursor min = null;
+      for (SetCursor c : cursors) {
+        if (c.isValid() && (min == null || c.compareTo(min) < 0)) {
+          min = c;
+        }
+      }
+      if (min == null) {
+        return;
+      }
+      out.add(min.memberAddress(), min.memberSize());
+      out.write(cursors);
+      for (SetCursor c : cursors) {
+        if (c != min && c.isValid() && c.compareTo(min) == 0) {
+          c.next();
+        }
+      }
+      min.next();
+    }
+  }
+
+  /**
+   * Difference is driven by the first set, other sets are either merge scanned or probed with point
+   * lookups, when they are much larger
+   * @param cursors set cursors
+   * @param out operation output
+   * @throws IOException
+   */
+  private static void difference(SetCursor[] cursors, SetOpOutput out) throws IOException {
+    SetCursor driver = cursors[0];
+    if (driver.card == 0) {
+      return;
+    }
+    for (SetCursor c : cursors) {
+      c.open(c != driver && c.card >= LOOKUP_RATIO * driver.card);
+    }
+    while (driver.isValid()) {
+      long ptr = driver.memberAddress();
+      int size = driver.memberSize();
+      boolean found = false;
+      for (SetCursor c : cursors) {
+        if (c != driver && c.card > 0 && c.contains(ptr, size)) {
+          found = true;
+          break;
+        }
+      }
+      if (!found) {
+        out.add(ptr, size);
+        out.write(cursors);
+      }
+      driver.next();
+    }
+  }
+
+  /**
+   * Forward cursor over set members, which is either a safe set scanner (merge mode) or point
+   * lookups (lookup mode). Scanner can be closed for a time of a map update and reopened at the
+   * same member
+   */
+  private static final class SetCursor {
+
+    final BigSortedMap map;
+    final long keyPtr;
+    final int keySize;
+    final long card;
+    SetScanner scanner;
+    boolean lookup;
+    boolean valid;
+    /* Copy of a current member while scanner is closed */
+    long savedPtr;
+    int savedSize;
+    int savedCapacity;
+
+    SetCursor(BigSortedMap map, long keyPtr, int keySize, long card) {
+      this.map = map;
+      this.keyPtr = keyPtr;
+      this.keySize = keySize;
+      this.card = card;
+    }
+
+    void open(boolean lookup) throws IOException {
+      this.lookup = lookup;
+      if (lookup) {
+        return;
+      }
+      this.scanner = getScanner(map, keyPtr, keySize, true);
+      this.valid = scanner != null && scanner.hasNext();
+    }
+
+    boolean isValid() {
+      return valid;
+    }
+
+    boolean isExhausted() {
+      return !lookup && !valid;
+    }
+
+    long memberAddress() {
+      return scanner.memberAddress();
+    }
+
+    int memberSize() {
+      return scanner.memberSize();
+    }
+
+    void next() throws IOException {
+      scanner.next();
+      valid = scanner.hasNext();
+    }
+
+    int compareTo(SetCursor c) {
+      return Utils.compareTo(memberAddress(), memberSize(), c.memberAddress(), c.memberSize());
+    }
+
+    /**
+     * Checks if a set contains a member, in a merge mode members must be checked in ascending
+     * order, cursor is advanced to the first member which is greater or equal to a given one
+     * @param ptr member address
+     * @param size member size
+     * @return true - yes, false - otherwise
+     * @throws IOException
+     */
+    boolean contains(long ptr, int size) throws IOException {
+      if (lookup) {
+        return SISMEMBER(map, keyPtr, keySize, ptr, size) == 1;
+      }
+      while (valid) {
+        int res = Utils.compareTo(memberAddress(), memberSize(), ptr, size);
+        if (res == 0) {
+          return true;
+        } else if (res > 0) {
+          return false;
+        }
+        next();
+      }
+      return false;
+    }
+
+    /**
+     * Closes scanner before the map is updated, current member is kept
+     */
+    void suspend() {
+      if (scanner == null) {
+        return;
+      }
+      if (valid) {
+        int size = memberSize();
+        if (size > savedCapacity) {
+          savedPtr = savedPtr == 0 ? UnsafeAccess.malloc(size)
+              : UnsafeAccess.realloc(savedPtr, size);
+          savedCapacity = size;
+        }
+        UnsafeAccess.copy(memberAddress(), savedPtr, size);
+        savedSize = size;
+      }
+      closeScanner();
+    }
+
+    /**
+     * Reopens scanner after the map was updated at the member it was closed at
+     * @throws IOException
+     */
+    void resume() throws IOException {
+      if (lookup || !valid || scanner != null) {
+        return;
+      }
+      scanner = getScanner(map, keyPtr, keySize, savedPtr, savedSize, 0, 0, true);
+      valid = scanner != null && scanner.hasNext();
+    }
+
+    private void closeScanner() {
+      if (scanner != null) {
+        try {
+          scanner.close();
+        } catch (IOException e) {
+        }
+        scanner = null;
+      }
+    }
+
+    void close() {
+      closeScanner();
+      valid = false;
+      if (savedPtr > 0) {
+        UnsafeAccess.free(savedPtr);
+        savedPtr = 0;
+      }
+    }
+  }
+
+  /**
+   * Output of a set operation. Members are either serialized into a buffer in SMEMBERS format or
+   * packed into a destination set's K-Vs. A completed K-V is put into the map while source scanners
+   * are closed, when destination is one of the sources all K-Vs are kept until the merge is over
+   */
+  private static final class SetOpOutput {
+
+    /* Buffer mode */
+    long buffer;
+    int bufferSize;
+    long ptr;
+
+    /* Store mode: destination key and completed K-Vs, which are not in the map yet */
+    BigSortedMap map;
+    long dstKeyPtr;
+    int dstKeySize;
+    boolean buffered;
+    List<Key> keys;
+    List<Value> values;
+    /* Number of completed K-Vs and their total size of elements */
+    int kvCount;
+    long dataSize;
+    /* Current K-V */
+    long keyPtr;
+    int keySize;
+    long valuePtr;
+    int valueSize;
+    int valueCapacity;
+
+    int count;
+
+    static SetOpOutput toBuffer(long buffer, int bufferSize) {
+      SetOpOutput out = new SetOpOutput();
+      out.buffer = buffer;
+      out.bufferSize = bufferSize;
+      out.ptr = buffer + Utils.SIZEOF_INT;
+      UnsafeAccess.putInt(buffer, 0);
+      return out;
+    }
+
+    static SetOpOutput toSet(BigSortedMap map, long dstKeyPtr, int dstKeySize,
+        boolean buffered) {
+      SetOpOutput out = new SetOpOutput();
+      out.map = map;
+      out.dstKeyPtr = dstKeyPtr;
+      out.dstKeySize = dstKeySize;
+      out.buffered = buffered;
+      out.keys = new ArrayList<Key>();
+      out.values = new ArrayList<Value>();
+      return out;
+    }
+
+    void add(long elPtr, int elSize) {
+      if (keys == null) {
+        addToBuffer(elPtr, elSize);
+      } else {
+        addToValue(elPtr, elSize);
+      }
+      count++;
+    }
+
+    private void addToBuffer(long elPtr, int elSize) {
+      int elSizeSize = Utils.sizeUVInt(elSize);
+      if (ptr + elSize + elSizeSize <= buffer + bufferSize) {
+        Utils.writeUVInt(ptr, elSize);
+        UnsafeAccess.copy(elPtr, ptr + elSizeSize, elSize);
+        UnsafeAccess.putInt(buffer, count + 1);
+      }
+      ptr += elSize + elSizeSize;
+    }
+
+    private void addToValue(long elPtr, int elSize) {
+      int elSizeSize = Utils.sizeUVInt(elSize);
+      int newValueSize = valueSize + elSize + elSizeSize;
+      if (valuePtr > 0 && DataBlock.mustStoreExternally(keySize,
+        newValueSize + Commons.offsetsSize(numElementsInValue(valuePtr) + 1))) {
+        flush();
+      }
+      if (valuePtr == 0) {
+        // First K-V of a set has [ZERO] suffix, others are keyed by their first member
+        int size = dstKeySize + KEY_SIZE + Utils.SIZEOF_BYTE + (kvCount == 0 ? 1 : elSize);
+        keyPtr = UnsafeAccess.malloc(size);
+        keySize = kvCount == 0 ? buildKey(dstKeyPtr, dstKeySize, ZERO, 1, keyPtr)
+            : buildKey(dstKeyPtr, dstKeySize, elPtr, elSize, keyPtr);
+        valueCapacity = Math.max(DataBlock.MAX_BLOCK_SIZE, NUM_ELEM_SIZE + elSize + elSizeSize);
+        valuePtr = UnsafeAccess.malloc(valueCapacity);
+        valueSize = NUM_ELEM_SIZE;
+        Commons.setNumElements(valuePtr, 0);
+        newValueSize = valueSize + elSize + elSizeSize;
+      }
+      Utils.writeUVInt(valuePtr + valueSize, elSize);
+      UnsafeAccess.copy(elPtr, valuePtr + valueSize + elSizeSize, elSize);
+      valueSize = newValueSize;
+      Commons.addNumElements(valuePtr, 1);
+    }
+
+    private void flush() {
+      kvCount++;
+      dataSize += valueSize - NUM_ELEM_SIZE;
+      // Members are merged in order, offset table fits the value capacity
+      valueSize = Commons.buildOffsets(valuePtr, valueSize, false);
+      keys.add(new Key(keyPtr, keySize));
+      values.add(new Value(valuePtr, valueSize));
+      keyPtr = 0;
+      valuePtr = 0;
+      valueSize = 0;
+    }
+
+    /**
+     * Puts completed K-Vs into the map, unless they are kept until the merge is over. Scanners of
+     * source sets are closed for a time of the update
+     * @param cursors source set cursors
+     * @throws IOException
+     */
+    void write(SetCursor[] cursors) throws IOException {
+      if (keys == null || buffered || keys.isEmpty()) {
+        return;
+      }
+      for (SetCursor c : cursors) {
+        c.suspend();
+      }
+      putAll();
+      for (SetCursor c : cursors) {
+        c.resume();
+      }
+    }
+
+    private void putAll() {
+      for (int i = 0; i < keys.size(); i++) {
+        Key k = keys.get(i);
+        Value v = values.get(i);
+        map.put(k.address, k.length, v.address, v.length, 0);
+        UnsafeAccess.free(k.address);
+        UnsafeAccess.free(v.address);
+      }
+      keys.clear();
+      values.clear();
+    }
+
+    /**
+     * Puts the rest of K-Vs and metadata of a destination set into the map
+     */
+    void store() {
+      if (valuePtr > 0) {
+        flush();
+      }
+      putAll();
+      Metadata.set(map, DataType.SET, dstKeyPtr, dstKeySize, count, dataSize, kvCount);
+    }
+
+    int count() {
+      return count;
+    }
+
+    long size() {
+      return ptr - buffer;
+    }
+
+    void dispose() {
+      if (valuePtr > 0) {
+        flush();
+      }
+      for (Key k : keys) {
+        UnsafeAccess.free(k.address);
+      }
+      for (Value v : values) {
+        UnsafeAccess.free(v.address);
+      }
+      keys.clear();
+      values.clear();
+    }
   }
 
   /**
@@ -692,50 +1314,21 @@ public class Sets {
 
   /**
    * Returns the set cardinality (number of elements) of the set stored at key. Return value Integer
-   * reply: the cardinality (number of elements) of the set, or 0 if key does not exist. Uses fast
-   * scan. Complexity O(N). For small and medium size sets can be OK.
+   * reply: the cardinality (number of elements) of the set, or 0 if key does not exist. Complexity
+   * O(1), cardinality is kept in the set metadata
    * @param map ordered map
    * @param keyPtr key address
    * @param keySize key size
    * @return number of elements
-   * @throws IOException
    */
   public static long SCARD(BigSortedMap map, long keyPtr, int keySize) {
-
     Key k = getKey(keyPtr, keySize);
-    long total = 0;
-    long startKeyPtr = 0, endKeyPtr = 0;
     try {
       KeysLocker.readLock(k);
-      startKeyPtr = UnsafeAccess.malloc(keySize + KEY_SIZE + 2 * Utils.SIZEOF_BYTE);
-      int kSize = buildKey(keyPtr, keySize, Commons.ZERO, 1, startKeyPtr);
-      int endKeySize = kSize - 1;
-      endKeyPtr = Utils.prefixKeyEnd(startKeyPtr, endKeySize);
-      if (endKeyPtr == 0) {
-        endKeySize = 0;
-      }
-      BigSortedMapScanner scanner = map.getScanner(startKeyPtr, kSize, endKeyPtr, endKeySize);
-      if (scanner == null) {
-        return 0; // empty or does not exists
-      }
-      while (scanner.hasNext()) {
-        long valuePtr = scanner.valueAddress();
-        total += numElementsInValue(valuePtr);
-        scanner.next();
-      }
-      scanner.close();
-    } catch (IOException e) {
-      // should never be thrown
+      return Metadata.getCount(map, DataType.SET, keyPtr, keySize);
     } finally {
-      if (startKeyPtr > 0) {
-        UnsafeAccess.free(startKeyPtr);
-      }
-      if (endKeyPtr > 0) {
-        UnsafeAccess.free(endKeyPtr);
-      }
       KeysLocker.readUnlock(k);
     }
-    return total;
   }
 
   /**
@@ -786,38 +1379,22 @@ public class Sets {
     return total;
   }
 
-  // public static long SCARD(BigSortedMap map, long keyPtr, int keySize) {
-  // // This key contains sets cardinality
-  // keySize = buildKey(keyPtr, keySize, 0, 0);
-  // keyPtr = keyArena.get();
-  // checkValueArena(Utils.SIZEOF_LONG);
-  // long buffer = valueArena.get();
-  // long size = map.get(keyPtr, keySize, buffer, Utils.SIZEOF_LONG, 0);
-  // if (size == Utils.SIZEOF_LONG) {
-  // return UnsafeAccess.toLong(buffer);
-  // } else if (size < 0) {
-  // return 0; // for compatibility
-  // }
-  // //TODO
-  // throw new RuntimeException();
-  // }
-  //
-  public static long SINCRCARD(BigSortedMap map, long keyPtr, int keySize, long incr) {
-    // This key contains sets cardinality
-    // keySize = buildKey(keyPtr, keySize, 0, 0);
-    // keyPtr = keyArena.get();
-    // try {
-    // return map.incrementLongOp(keyPtr, keySize, incr);
-    // } catch (OperationFailedException e) {
-    // throw new RuntimeException(e);
-    // }
-    return 0;
-  }
-
-  private static boolean deleteCardKey(BigSortedMap map, long keyPtr, int keySize) {
-    keySize = buildKey(keyPtr, keySize, 0, 0);
-    keyPtr = keyArena.get();
-    return map.delete(keyPtr, keySize);
+  /**
+   * Applies set mutation deltas to the set metadata
+   * @param map sorted map storage
+   * @param keyPtr set key address
+   * @param keySize set key size
+   * @param count number of elements added (removed if negative)
+   * @param size serialized size change
+   * @param chunks number of K-Vs added (removed if negative)
+   * @return cardinality after update, -1 - if nothing has changed
+   */
+  private static long updateMetadata(BigSortedMap map, long keyPtr, int keySize, long count,
+      long size, long chunks) {
+    if (count == 0 && size == 0 && chunks == 0) {
+      return -1;
+    }
+    return Metadata.update(map, DataType.SET, keyPtr, keySize, count, size, chunks);
   }
 
   /**
@@ -828,49 +1405,13 @@ public class Sets {
    * @return true - yes, false - otherwise
    */
   public static boolean isEmpty(BigSortedMap map, long keyPtr, int keySize) {
-
     Key k = getKey(keyPtr, keySize);
-    long kPtr = 0, endKeyPtr = 0;
     try {
       readLock(k);
-      int newKeySize = keySize + KEY_SIZE + 2 * Utils.SIZEOF_BYTE;
-      kPtr = UnsafeAccess.malloc(newKeySize);
-      buildKey(keyPtr, keySize, Commons.ZERO, 1, kPtr);
-
-      int endKeySize = newKeySize - 1;
-      endKeyPtr = Utils.prefixKeyEnd(kPtr, endKeySize);
-      if (endKeyPtr == 0) {
-        endKeySize = 0;
-      }
-
-      BigSortedMapScanner scanner = map.getScanner(kPtr, newKeySize, endKeyPtr, endKeySize);
-      if (scanner == null) {
-        return true; // empty or does not exists
-      }
-
-      long total = 0;
-      while (scanner.hasNext()) {
-        long valuePtr = scanner.valueAddress();
-        total += numElementsInValue(valuePtr);
-        if (total > 0) {
-          scanner.close();
-          return false;
-        }
-        scanner.next();
-      }
-      scanner.close();
-    } catch (IOException e) {
-      // should never be thrown
+      return Metadata.getCount(map, DataType.SET, keyPtr, keySize) == 0;
     } finally {
       readUnlock(k);
-      if (endKeyPtr > 0) {
-        UnsafeAccess.free(endKeyPtr);
-      }
-      if (kPtr > 0) {
-        UnsafeAccess.free(kPtr);
-      }
     }
-    return true;
   }
 
   /**
@@ -880,41 +1421,15 @@ public class Sets {
    * @param keyPtr key address
    * @param keySize key size
    * @return set size in bytes in serialized format (including variable size prefixes)
-   * @throws IOException
    */
   public static long getSetSizeInBytes(BigSortedMap map, long keyPtr, int keySize) {
-
-    long ptr = UnsafeAccess.malloc(keySize + KEY_SIZE + 2 * Utils.SIZEOF_BYTE);
-    int kSize = buildKey(keyPtr, keySize, Commons.ZERO, 1, ptr);
-    int endKeySize = kSize - 1;
-    long endKeyPtr = Utils.prefixKeyEnd(ptr, endKeySize);
-    if (endKeyPtr == 0) {
-      endKeySize = 0;
-    }
-    BigSortedMapScanner scanner = map.getScanner(ptr, kSize, endKeyPtr, endKeySize);
-
-    long total = 0;
+    Key k = getKey(keyPtr, keySize);
     try {
-      if (scanner == null) {
-        return 0; // empty or does not exists
-      }
-      while (scanner.hasNext()) {
-        //FIXME: what about keys?
-        long valueSize = scanner.valueSize();
-        total += valueSize - NUM_ELEM_SIZE;
-      }
-      scanner.close();
-    } catch (IOException e) {
-      // should never be thrown
+      readLock(k);
+      return Metadata.getSize(map, DataType.SET, keyPtr, keySize);
     } finally {
-      if (endKeyPtr > 0) {
-        UnsafeAccess.free(endKeyPtr);
-      }
-      if (ptr > 0) {
-        UnsafeAccess.free(ptr);
-      }
+      readUnlock(k);
     }
-    return total;
   }
 
   /**
@@ -984,6 +1499,7 @@ public class Sets {
       }
       final int toRemove = elemPtrs.length;
       int removed = 0;
+      long size = 0, chunks = 0;
       for (int i = 0; i < toRemove; i++) {
 
         int kSize = buildKey(keyPtr, keySize, elemPtrs[i], elemSizes[i]);
@@ -996,12 +1512,11 @@ public class Sets {
         // version?
         if (map.execute(remove)) {
           removed++;
+          size += remove.getSizeDelta();
+          chunks += remove.getChunksDelta();
         }
       }
-      if (removed > 0) {
-        SINCRCARD(map, keyPtr, keySize, -removed);
-      }
-      if (setDelete.get().checkForEmpty() && isEmpty(map, keyPtr, keySize)) {
+      if (updateMetadata(map, keyPtr, keySize, -removed, size, chunks) == 0) {
         DELETE(map, keyPtr, keySize);
       }
       return removed;
@@ -1035,22 +1550,6 @@ public class Sets {
    */
   public static int SREM(BigSortedMap map, long keyPtr, int keySize, long elemPtr, int elemSize,
       boolean lock) {
-    return SREM(map, keyPtr, keySize, elemPtr, elemSize, lock, true);
-  }
-
-  /**
-   * SREM for single member (zero object allocation)
-   * @param map sorted set storage
-   * @param keyPtr set key address
-   * @param keySize set key size
-   * @param elemPtr member address
-   * @param elemSize member size
-   * @param lock lock if true
-   * @param updateCardinality update cardinality
-   * @return 1 or 0
-   */
-  public static int SREM(BigSortedMap map, long keyPtr, int keySize, long elemPtr, int elemSize,
-      boolean lock, boolean updateCardinality) {
     Key k = getKey(keyPtr, keySize);
     try {
       if (lock) {
@@ -1066,14 +1565,11 @@ public class Sets {
       // version?
       if (map.execute(remove)) {
         removed++;
-        if (remove.checkForEmpty && isEmpty(map, keyPtr, keySize)) {
-          DELETE(map, keyPtr, keySize, lock, updateCardinality);
-          return removed;
+        if (updateMetadata(map, keyPtr, keySize, -removed, remove.getSizeDelta(),
+          remove.getChunksDelta()) == 0) {
+          DELETE(map, keyPtr, keySize, lock);
         }
       }
-      if (removed > 0 && updateCardinality) {
-        SINCRCARD(map, keyPtr, keySize, -removed);
-      }
       return removed;
     } finally {
       if (lock) {
@@ -1368,6 +1864,7 @@ public class Sets {
     // Reads total number of elements
     int total = UnsafeAccess.toInt(bufferPtr);
     int count = 0, deleted = 0;
+    long size = 0, chunks = 0;
     long ptr = bufferPtr + Utils.SIZEOF_INT;
     // No locking - it is safe here
     while (count++ < total) {
@@ -1382,12 +1879,12 @@ public class Sets {
       // version?
       if (map.execute(remove)) {
         deleted++;
+        size += remove.getSizeDelta();
+        chunks += remove.getChunksDelta();
       }
       ptr += eSize + eSizeSize;
     }
-    if (deleted > 0) {
-      SINCRCARD(map, keyPtr, keySize, -deleted);
-    }
+    updateMetadata(map, keyPtr, keySize, -deleted, size, chunks);
     return deleted;
   }
 
@@ -1413,7 +1910,7 @@ public class Sets {
    * @return true or false
    */
   public static boolean DELETE(BigSortedMap map, long keyPtr, int keySize) {
-    return DELETE(map, keyPtr, keySize, true, true);
+    return DELETE(map, keyPtr, keySize, true);
   }
 
   /**
@@ -1422,11 +1919,9 @@ public class Sets {
    * @param keyPtr key address
    * @param keySize key size
    * @param lock lock if true
-   * @param deleteCard delete cardinality
    * @return true or false
    */
-  public static boolean DELETE(BigSortedMap map, long keyPtr, int keySize, boolean lock,
-      boolean deleteCard) {
+  public static boolean DELETE(BigSortedMap map, long keyPtr, int keySize, boolean lock) {
     Key k = getKey(keyPtr, keySize);
     long startKeyPtr = 0, endKeyPtr = 0;
     try {
@@ -1441,11 +1936,12 @@ public class Sets {
         endKeySize = 0;
       }
       long deleted = map.deleteRange(startKeyPtr, newKeySize, endKeyPtr, endKeySize);
+      Metadata.delete(map, DataType.SET, keyPtr, keySize);
+      if (deleted > 0) {
+        KeyDirectory.remove(map, DataType.SET, keyPtr, keySize);
+      }
       return deleted > 0;
     } finally {
-      if (deleteCard) {
-        deleteCardKey(map, keyPtr, keySize);
-      }
       if (startKeyPtr > 0) {
         UnsafeAccess.free(startKeyPtr);
       }
@@ -2048,7 +2544,8 @@ public class Sets {
   }
 
   /**
-   * Finds location of a given element in a Value object
+   * Finds location of a given element in a Value object. Value with offset table is binary
+   * searched, its elements are sorted
    * @param foundRecordAddress address of K-V record
    * @param elementPtr element address
    * @param elementSize element size
@@ -2057,6 +2554,22 @@ public class Sets {
   public static long exactSearch(long foundRecordAddress, long elementPtr, int elementSize) {
     long valuePtr = DataBlock.valueAddress(foundRecordAddress);
     int valueSize = DataBlock.valueLength(foundRecordAddress);
+    if (Commons.hasOffsets(valuePtr)) {
+      long ptr = Commons.searchStart(valuePtr, valueSize, elementPtr, elementSize, false);
+      long end = valuePtr + Commons.dataSize(valuePtr, valueSize);
+      while (ptr < end) {
+        int eSize = Utils.readUVInt(ptr);
+        int skip = Utils.sizeUVInt(eSize);
+        int res = Utils.compareTo(ptr + skip, eSize, elementPtr, elementSize);
+        if (res == 0) {
+          return ptr;
+        } else if (res > 0) {
+          break;
+        }
+        ptr += skip + eSize;
+      }
+      return -1; // NOT_FOUND
+    }
     int off = NUM_ELEM_SIZE; // skip number of elements in value
     while (off < valueSize) {
       int eSize = Utils.readUVInt(valuePtr + off);
@@ -2079,16 +2592,17 @@ public class Sets {
   public static long insertSearch(long foundRecordAddress, long elementPtr, int elementSize) {
     long valuePtr = DataBlock.valueAddress(foundRecordAddress);
     int valueSize = DataBlock.valueLength(foundRecordAddress);
-    int off = NUM_ELEM_SIZE; // skip number of elements
-    while (off < valueSize) {
-      int eSize = Utils.readUVInt(valuePtr + off);
+    long ptr = Commons.searchStart(valuePtr, valueSize, elementPtr, elementSize, false);
+    long end = valuePtr + Commons.dataSize(valuePtr, valueSize);
+    while (ptr < end) {
+      int eSize = Utils.readUVInt(ptr);
       int eSizeSize = Utils.sizeUVInt(eSize);
-      if (Utils.compareTo(elementPtr, elementSize, valuePtr + off + eSizeSize, eSize) <= 0) {
-        return valuePtr + off;
+      if (Utils.compareTo(elementPtr, elementSize, ptr + eSizeSize, eSize) <= 0) {
+        return ptr;
       }
-      off += eSizeSize + eSize;
+      ptr += eSizeSize + eSize;
     }
-    return valuePtr + valueSize; // put in the end largest one
+    return end; // put in the end largest one
   }
 
   /**
@@ -2180,7 +2694,7 @@ public class Sets {
   }
 
   public static boolean checkCorruptedValue(long ptr, int expSize) {
-    int total = UnsafeAccess.toShort(ptr);
+    int total = numElementsInValue(ptr);
 
     int off = NUM_ELEM_SIZE;
     int count = 0;
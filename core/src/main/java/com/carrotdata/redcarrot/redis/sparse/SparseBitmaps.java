@@ -14,24 +14,31 @@ package com.carrotdata.redcarrot.redis.sparse;
 import static com.carrotdata.redcarrot.redis.util.Commons.KEY_SIZE;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.BigSortedMapScanner;
 import com.carrotdata.redcarrot.compression.Codec;
 import com.carrotdata.redcarrot.compression.CodecFactory;
 import com.carrotdata.redcarrot.compression.CodecType;
+import com.carrotdata.redcarrot.redis.util.BitOp;
 import com.carrotdata.redcarrot.redis.util.Commons;
 import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.KeysLocker;
 import com.carrotdata.redcarrot.util.Scanner;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
+import com.carrotdata.redcarrot.util.Value;
 
 /**
  * This class provides sparse bitmap implementation. Sparse bitmap are more memory efficient when
  * population do not exceed 5-10%. Bitmap storage allocation is done in chunks. Chunk size 4096
- * bytes. Each chunk is stored in a compressed form. Compression codec is LZ4
+ * bytes. Each chunk is stored either as a raw bitmap or as an array or a run container (see
+ * {@link SparseContainers}), whichever is smaller. Chunks compressed with LZ4 by previous versions
+ * are still readable.
  */
 public class SparseBitmaps {
 
@@ -77,6 +84,7 @@ public class SparseBitmaps {
     }
   };
 
+  /* Codec of LZ4 compressed chunks (previous versions) */
   static Codec codec = CodecFactory.getInstance().getCodec(CodecType.LZ4);
 
   /** Thread local updates Sparse Getbit */
@@ -128,22 +136,14 @@ public class SparseBitmaps {
   }
 
   /**
-   * Should we compress chunk? It depends on population count
+   * Should we encode chunk as a container? This is a cheap check, which depends on population count
+   * only: array container is smaller than a raw chunk. Run containers are considered by
+   * {@link #encode(long, int, boolean, long)} itself
    * @param popCount
    * @return true, if yes, false - otherwise
    */
-  static boolean shouldCompress(int popCount) {
-    double limit = 0;
-    switch (codec.getType()) {
-      case LZ4:
-        limit = 0.12;
-        break;
-      case LZ4HC:
-        limit = 0.15;
-        break;
-      default: // do nothing
-    }
-    return ((double) popCount) / BITS_PER_CHUNK < limit;
+  static boolean shouldEncode(int popCount) {
+    return SparseContainers.CONTAINER_HEADER_SIZE + popCount * Utils.SIZEOF_SHORT < CHUNK_SIZE;
   }
 
   /**
@@ -157,6 +157,10 @@ public class SparseBitmaps {
       return chunkAddress;
     }
     long ptr = buffer.get();
+    if (SparseContainers.isContainer(chunkAddress)) {
+      SparseContainers.decode(chunkAddress, compressedSize + HEADER_SIZE, ptr);
+      return ptr;
+    }
     codec.decompress(chunkAddress + HEADER_SIZE, compressedSize, ptr + HEADER_SIZE,
       BUFFER_CAPACITY - HEADER_SIZE);
     UnsafeAccess.putShort(ptr, getBitCount(chunkAddress));
@@ -174,6 +178,10 @@ public class SparseBitmaps {
     if (!isCompressed(chunkAddress)) {
       return chunkAddress;
     }
+    if (SparseContainers.isContainer(chunkAddress)) {
+      SparseContainers.decode(chunkAddress, compressedSize + HEADER_SIZE, buffer);
+      return buffer;
+    }
     codec.decompress(chunkAddress + HEADER_SIZE, compressedSize, buffer + HEADER_SIZE,
       BUFFER_CAPACITY - HEADER_SIZE);
     UnsafeAccess.putShort(buffer, getBitCount(chunkAddress));
@@ -181,42 +189,27 @@ public class SparseBitmaps {
   }
 
   /**
-   * Compress chunk into provided buffer
-   * @param chunkAddress chunk address
+   * Encode chunk as a container into provided buffer
+   * @param chunkAddress raw chunk address
    * @param bitCount bits count
-   * @param newChunk is this chunk new
-   * @param buffer to compress to address
-   * @return compressed chunk size, address is in buffer
+   * @param newChunk is this chunk new (it is deallocated)
+   * @param buf buffer to encode to
+   * @return container size (address is in buffer) or 0, if chunk must be kept as a raw bitmap
    */
-  static int compress(long chunkAddress /* Size is CHUNK_SIZE */, int bitCount, boolean newChunk,
+  static int encode(long chunkAddress /* Size is CHUNK_SIZE */, int bitCount, boolean newChunk,
       long buf) {
-    int compSize = codec.compress(chunkAddress + HEADER_SIZE, CHUNK_SIZE - HEADER_SIZE,
-      buf + HEADER_SIZE, BUFFER_CAPACITY);
-    setBitCount(buf, bitCount, true);
-    if (newChunk && chunkAddress != buffer.get()) {
+    int size = SparseContainers.encode(chunkAddress, bitCount, buf);
+    if (size > 0 && newChunk && chunkAddress != buffer.get()) {
       // deallocate previous address
       UnsafeAccess.free(chunkAddress);
       // Update memory stats
-      // TODO: make sure that
       BigSortedMap.incrGlobalAllocatedMemory(-CHUNK_SIZE);
     }
-    return compSize;
-  }
-
-  /**
-   * Compress chunk with possible reallocation
-   * @param chunkAddress chunkAddress
-   * @param bitCount bit count
-   * @param originPtr original chunk Address
-   * @return compressed chunk size
-   */
-  static int compressRealloc(long chunkAddress, int bitCount, long originPtr) {
-    // TODO tricky must return both address and compressed size
-    return 0;
+    return size;
   }
 
   /**
-   * TODO: test Is chunk compressed
+   * Is chunk compressed (encoded as a container or compressed with LZ4)
    * @param chunkAddress chunk address
    * @return true, if - yes, false - otherwise
    */
@@ -241,6 +234,9 @@ public class SparseBitmaps {
    * @return number of bits set
    */
   static short getBitCount(long chunkAddress) {
+    if (SparseContainers.isContainer(chunkAddress)) {
+      return SparseContainers.getBitCount(chunkAddress);
+    }
     return (short) (UnsafeAccess.toShort(chunkAddress) & 0x7fff);
   }
 
@@ -408,6 +404,9 @@ public class SparseBitmaps {
       long deleted = map.deleteRange(kPtr, newKeySize, endKeyPtr, endKeySize);
       UnsafeAccess.free(kPtr);
       if (endKeyPtr > 0) UnsafeAccess.free(endKeyPtr);
+      if (deleted > 0) {
+        KeyDirectory.remove(map, DataType.SBITMAP, keyPtr, keySize);
+      }
       return deleted > 0;
     } finally {
       KeysLocker.writeUnlock(k);
@@ -488,10 +487,7 @@ public class SparseBitmaps {
           boolean lastChunk = offsetBytes <= end && (offsetBytes + BYTES_PER_CHUNK) > end;
           boolean firstChunk = offsetBytes <= start;
           if (firstChunk || lastChunk) {
-            valueAddress =
-                isCompressed(valueAddress) ? decompress(valueAddress, valueSize - HEADER_SIZE)
-                    : valueAddress;
-            total += bitCount(valueAddress, offset, start, end);
+            total += bitCount(valueAddress, valueSize, offset, start, end);
           } else {
             int bitsCount = getBitCount(valueAddress);
             total += bitsCount;
@@ -591,6 +587,12 @@ public class SparseBitmaps {
       setbit.setOffset(offset);
       setbit.setBit(bit);
       map.execute(setbit);
+      if (setbit.isNewChunk()) {
+        KeyDirectory.add(map, DataType.SBITMAP, keyPtr, keySize);
+      } else if (setbit.isChunkDeleted() && !EXISTS(map, keyPtr, keySize)) {
+        // The last chunk was deleted
+        KeyDirectory.remove(map, DataType.SBITMAP, keyPtr, keySize);
+      }
       return setbit.getOldBit();
     } finally {
       KeysLocker.writeUnlock(kk);
@@ -775,20 +777,32 @@ public class SparseBitmaps {
   }
 
   /**
-   * TODO: test it Get bit count in the bit segment given offset, start and end
-   * @param valueAddress address of a bit segment (4096 bytes)
+   * Get bit count in the bit segment given offset, start and end. Containers are counted without
+   * decoding
+   * @param valueAddress address of a bit segment
+   * @param valueSize size of a bit segment
    * @param offset offset of the segment
    * @param start start offset in bytes
    * @param end end offset in bytes
    * @return number of bits in this segment given all above
    */
-  static long bitCount(final long valueAddress, final long offset, final long start,
-      final long end) {
+  static long bitCount(long valueAddress, final int valueSize, final long offset,
+      final long start, final long end) {
 
     if (start * Utils.BITS_PER_BYTE <= offset
         && end * Utils.BITS_PER_BYTE >= offset + SparseBitmaps.BITS_PER_CHUNK) {
       return getBitCount(valueAddress);
     }
+    if (SparseContainers.isContainer(valueAddress)) {
+      long from = Math.max(start * Utils.BITS_PER_BYTE - offset, 0);
+      long to = end < Long.MAX_VALUE / Utils.BITS_PER_BYTE
+          ? Math.min((end + 1) * Utils.BITS_PER_BYTE - 1 - offset, BITS_PER_CHUNK - 1)
+          : BITS_PER_CHUNK - 1;
+      return from > to ? 0
+          : SparseContainers.bitCount(valueAddress, valueSize, (int) from, (int) to);
+    }
+    valueAddress = isCompressed(valueAddress) ? decompress(valueAddress, valueSize - HEADER_SIZE)
+        : valueAddress;
 
     long limit = valueAddress + CHUNK_SIZE;
     if (end < Long.MAX_VALUE / Utils.BITS_PER_BYTE) {
@@ -1034,9 +1048,302 @@ public class SparseBitmaps {
         setChunk(map, keyPtr, keySize, off, ptr, BYTES_PER_CHUNK - suffixSize);
       }
       long strlen = SSTRLEN(map, keyPtr, keySize);
+      if (strlen > 0) {
+        KeyDirectory.add(map, DataType.SBITMAP, keyPtr, keySize);
+      } else {
+        KeyDirectory.remove(map, DataType.SBITMAP, keyPtr, keySize);
+      }
       return strlen;
     } finally {
       KeysLocker.writeUnlock(kk);
     }
   }
+
+  /**
+   * Performs a bitwise operation between multiple sparse bitmaps and optionally stores the result
+   * in a destination key. Supported operations are AND, OR, XOR and ANDNOT (first bitmap AND NOT
+   * all the others). Chunks of all bitmaps are merged in offset order: AND skips chunks which are
+   * absent from any input, ANDNOT is driven by chunks of the first bitmap. Only chunks which
+   * participate in the operation are decoded, a chunk which is present in a single input only is
+   * copied as is. If destination already exists, it is overwritten, if the result is empty,
+   * destination is deleted. Destination can be one of the sources.
+   * @param map sorted map storage
+   * @param op bitwise operation (NOT is not supported)
+   * @param dstKeyPtr destination key address (0 - do not store the result)
+   * @param dstKeySize destination key size
+   * @param keyPtrs source key addresses
+   * @param keySizes source key sizes
+   * @return number of bits set to 1 in the result
+   */
+  public static long SBITOP(BigSortedMap map, BitOp op, long dstKeyPtr, int dstKeySize,
+      long[] keyPtrs, int[] keySizes) {
+    if (dstKeyPtr == 0) {
+      return bitop(map, op, keyPtrs, keySizes, 0, 0, null, null);
+    }
+    List<Key> keys = new ArrayList<Key>();
+    List<Value> values = new ArrayList<Value>();
+    try {
+      map.writeLock();
+      long count = bitop(map, op, keyPtrs, keySizes, dstKeyPtr, dstKeySize, keys, values);
+      // All source scanners are closed, destination can be the same key as one of the sources
+      DELETE(map, dstKeyPtr, dstKeySize);
+      for (int i = 0; i < keys.size(); i++) {
+        Key k = keys.get(i);
+        Value v = values.get(i);
+        map.put(k.address, k.length, v.address, v.length, 0);
+      }
+      if (keys.size() > 0) {
+        KeyDirectory.add(map, DataType.SBITMAP, dstKeyPtr, dstKeySize);
+      }
+      return count;
+    } finally {
+      for (Key k : keys) {
+        UnsafeAccess.free(k.address);
+      }
+      for (Value v : values) {
+        UnsafeAccess.free(v.address);
+      }
+      map.writeUnlock();
+    }
+  }
+
+  /**
+   * Sorted merge of sparse bitmaps chunks
+   * @param map sorted map storage
+   * @param op bitwise operation
+   * @param keyPtrs source key addresses
+   * @param keySizes source key sizes
+   * @param dstKeyPtr destination key address
+   * @param dstKeySize destination key size
+   * @param keys list to collect result chunk keys (null - do not collect)
+   * @param values list to collect result chunks
+   * @return number of bits set to 1 in the result
+   */
+  private static long bitop(BigSortedMap map, BitOp op, long[] keyPtrs, int[] keySizes,
+      long dstKeyPtr, int dstKeySize, List<Key> keys, List<Value> values) {
+    int n = keyPtrs.length;
+    ChunkCursor[] cursors = new ChunkCursor[n];
+    ChunkCursor[] chunks = new ChunkCursor[n];
+    long acc = UnsafeAccess.malloc(BUFFER_CAPACITY);
+    long total = 0;
+    try {
+      for (int i = 0; i < n; i++) {
+        cursors[i] = new ChunkCursor(map, keyPtrs[i], keySizes[i]);
+      }
+      long offset;
+      while ((offset = nextOffset(op, cursors)) >= 0) {
+        int k = 0;
+        for (ChunkCursor c : cursors) {
+          if (c.valid && c.offset == offset) {
+            chunks[k++] = c;
+          }
+        }
+        total += combine(op, chunks, k, acc, offset, dstKeyPtr, dstKeySize, keys, values);
+        for (int i = 0; i < k; i++) {
+          chunks[i].next();
+        }
+      }
+    } catch (IOException e) {
+      // should never be thrown
+    } finally {
+      for (ChunkCursor c : cursors) {
+        if (c != null) {
+          c.close();
+        }
+      }
+      UnsafeAccess.free(acc);
+    }
+    return total;
+  }
+
+  /**
+   * Finds offset of a next chunk to process, cursors which can not contribute to the result are
+   * advanced without reading their chunks
+   * @param op bitwise operation
+   * @param cursors chunk cursors
+   * @return chunk offset (in bits) or -1 if there are no more chunks
+   * @throws IOException
+   */
+  private static long nextOffset(BitOp op, ChunkCursor[] cursors) throws IOException {
+    switch (op) {
+      case AND:
+        while (true) {
+          long max = -1;
+          for (ChunkCursor c : cursors) {
+            if (!c.valid) {
+              return -1;
+            }
+            max = Math.max(max, c.offset);
+          }
+          boolean aligned = true;
+          for (ChunkCursor c : cursors) {
+            aligned &= c.seek(max);
+          }
+          if (aligned) {
+            return max;
+          }
+        }
+      case ANDNOT:
+        ChunkCursor driver = cursors[0];
+        if (!driver.valid) {
+          return -1;
+        }
+        for (int i = 1; i < cursors.length; i++) {
+          cursors[i].seek(driver.offset);
+        }
+        return driver.offset;
+      default:
+        long min = -1;
+        for (ChunkCursor c : cursors) {
+          if (c.valid && (min < 0 || c.offset < min)) {
+            min = c.offset;
+          }
+        }
+        return min;
+    }
+  }
+
+  /**
+   * Combines chunks with the same offset
+   * @param op bitwise operation
+   * @param chunks cursors positioned at chunks (for ANDNOT the first one is the driver)
+   * @param k number of chunks
+   * @param acc accumulator buffer
+   * @param offset chunk offset
+   * @param dstKeyPtr destination key address
+   * @param dstKeySize destination key size
+   * @param keys list to collect result chunk keys (null - do not collect)
+   * @param values list to collect result chunks
+   * @return number of bits set to 1 in the result chunk
+   */
+  private static long combine(BitOp op, ChunkCursor[] chunks, int k, long acc, long offset,
+      long dstKeyPtr, int dstKeySize, List<Key> keys, List<Value> values) {
+    long valuePtr = chunks[0].scanner.valueAddress();
+    int valueSize = chunks[0].scanner.valueSize();
+    if (k == 1) {
+      // Chunk is present in a single input only - use it as is
+      int popCount = getBitCount(valuePtr);
+      if (keys != null) {
+        addChunk(dstKeyPtr, dstKeySize, offset, valuePtr, valueSize, keys, values);
+      }
+      return popCount;
+    }
+    long ptr = decompress(valuePtr, valueSize - HEADER_SIZE);
+    UnsafeAccess.copy(ptr + HEADER_SIZE, acc + HEADER_SIZE, BYTES_PER_CHUNK);
+    for (int i = 1; i < k; i++) {
+      valuePtr = chunks[i].scanner.valueAddress();
+      valueSize = chunks[i].scanner.valueSize();
+      ptr = decompress(valuePtr, valueSize - HEADER_SIZE);
+      switch (op) {
+        case AND:
+          Utils.bitAnd(acc + HEADER_SIZE, ptr + HEADER_SIZE, BYTES_PER_CHUNK);
+          break;
+        case OR:
+          Utils.bitOr(acc + HEADER_SIZE, ptr + HEADER_SIZE, BYTES_PER_CHUNK);
+          break;
+        case XOR:
+          Utils.bitXor(acc + HEADER_SIZE, ptr + HEADER_SIZE, BYTES_PER_CHUNK);
+          break;
+        case ANDNOT:
+          Utils.bitAndNot(acc + HEADER_SIZE, ptr + HEADER_SIZE, BYTES_PER_CHUNK);
+          break;
+        default:
+      }
+    }
+    int popCount = (int) Utils.bitcount(acc + HEADER_SIZE, BYTES_PER_CHUNK);
+    if (popCount == 0 || keys == null) {
+      return popCount;
+    }
+    int size = encode(acc, popCount, false, buffer.get());
+    if (size > 0) {
+      addChunk(dstKeyPtr, dstKeySize, offset, buffer.get(), size, keys, values);
+    } else {
+      setBitCount(acc, popCount, false);
+      addChunk(dstKeyPtr, dstKeySize, offset, acc, CHUNK_SIZE, keys, values);
+    }
+    return popCount;
+  }
+
+  /**
+   * Adds a copy of a result chunk
+   * @param dstKeyPtr destination key address
+   * @param dstKeySize destination key size
+   * @param offset chunk offset
+   * @param valuePtr chunk address (including header)
+   * @param valueSize chunk size
+   * @param keys list of chunk keys
+   * @param values list of chunks
+   */
+  private static void addChunk(long dstKeyPtr, int dstKeySize, long offset, long valuePtr,
+      int valueSize, List<Key> keys, List<Value> values) {
+    long kPtr = UnsafeAccess.malloc(KEY_SIZE + dstKeySize + Utils.SIZEOF_BYTE + Utils.SIZEOF_LONG);
+    int kSize = buildKey(dstKeyPtr, dstKeySize, offset, kPtr);
+    long vPtr = UnsafeAccess.malloc(valueSize);
+    UnsafeAccess.copy(valuePtr, vPtr, valueSize);
+    keys.add(new Key(kPtr, kSize));
+    values.add(new Value(vPtr, valueSize));
+  }
+
+  /**
+   * Forward cursor over chunks of a sparse bitmap (safe scanner)
+   */
+  private static final class ChunkCursor {
+
+    BigSortedMapScanner scanner;
+    boolean valid;
+    long offset = -1;
+
+    ChunkCursor(BigSortedMap map, long keyPtr, int keySize) throws IOException {
+      int kSize = buildKey(keyPtr, keySize);
+      long startPtr = UnsafeAccess.allocAndCopy(keyArena.get(), kSize);
+      long stopPtr = Utils.prefixKeyEnd(startPtr, kSize);
+      this.scanner = map.getSafeScanner(startPtr, kSize, stopPtr, stopPtr == 0 ? 0 : kSize);
+      if (this.scanner == null) {
+        UnsafeAccess.free(startPtr);
+        if (stopPtr > 0) {
+          UnsafeAccess.free(stopPtr);
+        }
+        return;
+      }
+      update();
+    }
+
+    private void update() throws IOException {
+      this.valid = scanner.hasNext();
+      if (valid) {
+        this.offset = getChunkOffsetFromKey(scanner.keyAddress(), scanner.keySize());
+      }
+    }
+
+    void next() throws IOException {
+      scanner.next();
+      update();
+    }
+
+    /**
+     * Advances cursor to the first chunk with offset greater or equal to a given one, skipped
+     * chunks are not read
+     * @param off chunk offset
+     * @return true if cursor is positioned at a chunk with a given offset
+     * @throws IOException
+     */
+    boolean seek(long off) throws IOException {
+      while (valid && offset < off) {
+        next();
+      }
+      return valid && offset == off;
+    }
+
+    void close() {
+      if (scanner != null) {
+        try {
+          // Frees start and stop keys
+          scanner.close(true);
+        } catch (IOException e) {
+        }
+        scanner = null;
+      }
+      valid = false;
+    }
+  }
 }
@@ -0,0 +1,321 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.sparse;
+
+import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.BITS_PER_CHUNK;
+import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.BYTES_PER_CHUNK;
+import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.CHUNK_SIZE;
+import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.HEADER_SIZE;
+
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Roaring-style containers for sparse bitmap chunks. A chunk is stored either as a raw bitmap
+ * (BITMAP container) or as one of the following containers, whichever is the smallest:<br>
+ * ARRAY - [MARKER][TYPE][BIT COUNT][POSITION]* - sorted positions of set bits <br>
+ * RUN - [MARKER][TYPE][BIT COUNT][START][END]* - sorted runs of set bits (END is inclusive)<br>
+ * MARKER is a chunk header with the compressed flag set and bit count 0x7fff, which is greater
+ * than BITS_PER_CHUNK, therefore containers can not be confused with LZ4 compressed chunks. Bit
+ * positions inside a chunk fit into 2 bytes. Single bit tests and bit counts run directly on a
+ * container, other operations decode it into a raw bitmap.
+ */
+final class SparseContainers {
+
+  /** Container marker (chunk header) */
+  static final short MARKER = (short) 0xffff;
+
+  /** Array container type */
+  static final byte ARRAY = 1;
+
+  /** Run container type */
+  static final byte RUN = 2;
+
+  /** Container header size: marker, type and bit count */
+  static final int CONTAINER_HEADER_SIZE = HEADER_SIZE + Utils.SIZEOF_BYTE + Utils.SIZEOF_SHORT;
+
+  /** Number of 8 byte words in a chunk bitmap (the last one is partial) */
+  static final int WORDS_PER_CHUNK = (BYTES_PER_CHUNK + Utils.SIZEOF_LONG - 1) / Utils.SIZEOF_LONG;
+
+  private SparseContainers() {
+  }
+
+  /**
+   * Is chunk a container
+   * @param chunkAddress chunk address
+   * @return true - yes, false - otherwise
+   */
+  static boolean isContainer(long chunkAddress) {
+    return UnsafeAccess.toShort(chunkAddress) == MARKER;
+  }
+
+  /**
+   * Get container type
+   * @param chunkAddress container address
+   * @return ARRAY or RUN
+   */
+  static byte getType(long chunkAddress) {
+    return UnsafeAccess.toByte(chunkAddress + HEADER_SIZE);
+  }
+
+  /**
+   * Get total bits set in a container
+   * @param chunkAddress container address
+   * @return number of bits set
+   */
+  static short getBitCount(long chunkAddress) {
+    return UnsafeAccess.toShort(chunkAddress + HEADER_SIZE + Utils.SIZEOF_BYTE);
+  }
+
+  /**
+   * Number of elements (positions or runs) in a container
+   * @param chunkAddress container address
+   * @param size container size
+   * @return number of elements
+   */
+  private static int numElements(long chunkAddress, int size) {
+    int elSize = getType(chunkAddress) == ARRAY ? Utils.SIZEOF_SHORT : 2 * Utils.SIZEOF_SHORT;
+    return (size - CONTAINER_HEADER_SIZE) / elSize;
+  }
+
+  /**
+   * Get a short value at index
+   * @param chunkAddress container address
+   * @param index index of a short value
+   * @return value
+   */
+  private static int get(long chunkAddress, int index) {
+    return UnsafeAccess
+        .toShort(chunkAddress + CONTAINER_HEADER_SIZE + index * Utils.SIZEOF_SHORT);
+  }
+
+  /**
+   * Finds the first element which is greater or equal to a given value. For a run container
+   * elements are run ends
+   * @param chunkAddress container address
+   * @param n number of elements
+   * @param stride 1 - array container, 2 - run container
+   * @param off index of a value inside an element (run end - 1)
+   * @param value value to look for
+   * @return index of the element (n if all elements are less than value)
+   */
+  private static int lowerBound(long chunkAddress, int n, int stride, int off, int value) {
+    int low = 0, high = n;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (get(chunkAddress, mid * stride + off) < value) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * Returns bit value at a position
+   * @param chunkAddress container address
+   * @param size container size
+   * @param pos bit position inside a chunk
+   * @return 1 or 0
+   */
+  static int getBit(long chunkAddress, int size, int pos) {
+    int n = numElements(chunkAddress, size);
+    if (getType(chunkAddress) == ARRAY) {
+      int i = lowerBound(chunkAddress, n, 1, 0, pos);
+      return i < n && get(chunkAddress, i) == pos ? 1 : 0;
+    }
+    int i = lowerBound(chunkAddress, n, 2, 1, pos);
+    return i < n && get(chunkAddress, 2 * i) <= pos ? 1 : 0;
+  }
+
+  /**
+   * Counts bits set in a range of positions
+   * @param chunkAddress container address
+   * @param size container size
+   * @param from start position (inclusive)
+   * @param to end position (inclusive)
+   * @return number of bits set
+   */
+  static int bitCount(long chunkAddress, int size, int from, int to) {
+    int n = numElements(chunkAddress, size);
+    if (getType(chunkAddress) == ARRAY) {
+      return lowerBound(chunkAddress, n, 1, 0, to + 1) - lowerBound(chunkAddress, n, 1, 0, from);
+    }
+    int count = 0;
+    for (int i = lowerBound(chunkAddress, n, 2, 1, from); i < n; i++) {
+      int start = get(chunkAddress, 2 * i);
+      if (start > to) {
+        break;
+      }
+      int end = get(chunkAddress, 2 * i + 1);
+      count += Math.min(end, to) - Math.max(start, from) + 1;
+    }
+    return count;
+  }
+
+  /**
+   * Returns position of the last bit set
+   * @param chunkAddress container address
+   * @param size container size
+   * @return position
+   */
+  static int lastBit(long chunkAddress, int size) {
+    return get(chunkAddress, (size - CONTAINER_HEADER_SIZE) / Utils.SIZEOF_SHORT - 1);
+  }
+
+  /**
+   * Decodes container into a raw chunk
+   * @param chunkAddress container address
+   * @param size container size
+   * @param buffer buffer address (size is CHUNK_SIZE at least)
+   */
+  static void decode(long chunkAddress, int size, long buffer) {
+    long ptr = buffer + HEADER_SIZE;
+    UnsafeAccess.setMemory(ptr, BYTES_PER_CHUNK, (byte) 0);
+    int n = numElements(chunkAddress, size);
+    if (getType(chunkAddress) == ARRAY) {
+      for (int i = 0; i < n; i++) {
+        int pos = get(chunkAddress, i);
+        long addr = ptr + (pos >>> 3);
+        UnsafeAccess.putByte(addr, (byte) (UnsafeAccess.toByte(addr) | (0x80 >>> (pos & 7))));
+      }
+    } else {
+      for (int i = 0; i < n; i++) {
+        setRange(ptr, get(chunkAddress, 2 * i), get(chunkAddress, 2 * i + 1));
+      }
+    }
+    SparseBitmaps.setBitCount(buffer, getBitCount(chunkAddress), false);
+  }
+
+  /**
+   * Sets bits in a range of positions
+   * @param ptr bitmap address
+   * @param from start position (inclusive)
+   * @param to end position (inclusive)
+   */
+  private static void setRange(long ptr, int from, int to) {
+    int first = from >>> 3;
+    int last = to >>> 3;
+    int firstMask = 0xff >>> (from & 7);
+    int lastMask = (0xff << (7 - (to & 7))) & 0xff;
+    if (first == last) {
+      firstMask &= lastMask;
+    }
+    UnsafeAccess.putByte(ptr + first, (byte) (UnsafeAccess.toByte(ptr + first) | firstMask));
+    if (first == last) {
+      return;
+    }
+    if (last - first > 1) {
+      UnsafeAccess.setMemory(ptr + first + 1, last - first - 1, (byte) 0xff);
+    }
+    UnsafeAccess.putByte(ptr + last, (byte) (UnsafeAccess.toByte(ptr + last) | lastMask));
+  }
+
+  /**
+   * Reads 8 bytes word of a bitmap, the last partial word is padded with zeros
+   * @param ptr bitmap address
+   * @param index word index
+   * @return word
+   */
+  private static long word(long ptr, int index) {
+    int off = index * Utils.SIZEOF_LONG;
+    if (off + Utils.SIZEOF_LONG <= BYTES_PER_CHUNK) {
+      return UnsafeAccess.toLong(ptr + off);
+    }
+    long w = 0;
+    for (int i = 0; i < Utils.SIZEOF_LONG; i++) {
+      w <<= Utils.BITS_PER_BYTE;
+      if (off + i < BYTES_PER_CHUNK) {
+        w |= UnsafeAccess.toByte(ptr + off + i) & 0xff;
+      }
+    }
+    return w;
+  }
+
+  /**
+   * Counts runs of set bits
+   * @param ptr bitmap address
+   * @return number of runs
+   */
+  private static int numberOfRuns(long ptr) {
+    int runs = 0;
+    long prev = 0;
+    for (int i = 0; i < WORDS_PER_CHUNK; i++) {
+      long w = word(ptr, i);
+      // A run starts where a bit is set and the previous one is not
+      runs += Long.bitCount(w & ~((w >>> 1) | (prev << 63)));
+      prev = w & 1;
+    }
+    return runs;
+  }
+
+  /**
+   * Encodes a raw chunk as an array or a run container, if it is smaller than the raw chunk
+   * @param chunkAddress raw chunk address (size is CHUNK_SIZE)
+   * @param bitCount number of bits set
+   * @param buffer buffer to encode to (size is CHUNK_SIZE at least)
+   * @return container size or 0, if the chunk must be kept as a raw bitmap
+   */
+  static int encode(long chunkAddress, int bitCount, long buffer) {
+    long ptr = chunkAddress + HEADER_SIZE;
+    int arraySize = CONTAINER_HEADER_SIZE + bitCount * Utils.SIZEOF_SHORT;
+    int runSize = CONTAINER_HEADER_SIZE + numberOfRuns(ptr) * 2 * Utils.SIZEOF_SHORT;
+    if (Math.min(arraySize, runSize) >= CHUNK_SIZE) {
+      return 0;
+    }
+    boolean array = arraySize <= runSize;
+    UnsafeAccess.putShort(buffer, MARKER);
+    UnsafeAccess.putByte(buffer + HEADER_SIZE, array ? ARRAY : RUN);
+    UnsafeAccess.putShort(buffer + HEADER_SIZE + Utils.SIZEOF_BYTE, (short) bitCount);
+    long out = buffer + CONTAINER_HEADER_SIZE;
+    boolean inRun = false;
+    for (int i = 0; i < WORDS_PER_CHUNK; i++) {
+      long w = word(ptr, i);
+      if ((w == 0 && !inRun) || (w == -1L && inRun)) {
+        continue;
+      }
+      int base = i * Long.SIZE;
+      if (array) {
+        while (w != 0) {
+          int lz = Long.numberOfLeadingZeros(w);
+          UnsafeAccess.putShort(out, (short) (base + lz));
+          out += Utils.SIZEOF_SHORT;
+          w &= ~(Long.MIN_VALUE >>> lz);
+        }
+        continue;
+      }
+      int p = 0;
+      while (p < Long.SIZE) {
+        // Look for the next set bit (run start) or the next unset bit (run end)
+        long x = inRun ? ~w << p : w << p;
+        if (x == 0) {
+          break;
+        }
+        p += Long.numberOfLeadingZeros(x);
+        if (inRun) {
+          UnsafeAccess.putShort(out, (short) (base + p - 1));
+          out += Utils.SIZEOF_SHORT;
+        } else {
+          UnsafeAccess.putShort(out, (short) (base + p));
+          out += Utils.SIZEOF_SHORT;
+        }
+        inRun = !inRun;
+      }
+    }
+    if (inRun) {
+      UnsafeAccess.putShort(out, (short) (BITS_PER_CHUNK - 1));
+      out += Utils.SIZEOF_SHORT;
+    }
+    return (int) (out - buffer);
+  }
+}
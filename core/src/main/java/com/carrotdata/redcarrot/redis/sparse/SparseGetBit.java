@@ -53,6 +53,12 @@ public class SparseGetBit extends Operation {
     }
     long valuePtr = DataBlock.valueAddress(foundRecordAddress);
     int valueSize = DataBlock.valueLength(foundRecordAddress);
+    if (SparseContainers.isContainer(valuePtr)) {
+      // Bit test runs on a container directly
+      int off = (int) (this.offset - foundChunkOffset);
+      this.bit = SparseContainers.getBit(valuePtr, valueSize, off);
+      return true;
+    }
     boolean isCompressed = SparseBitmaps.isCompressed(valuePtr);
     if (isCompressed) {
       valuePtr = SparseBitmaps.decompress(valuePtr, valueSize - SparseBitmaps.HEADER_SIZE);
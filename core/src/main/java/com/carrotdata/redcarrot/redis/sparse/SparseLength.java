@@ -46,6 +46,11 @@ public class SparseLength extends Operation {
       return true;
     }
     long offset = SparseBitmaps.getChunkOffsetFromKey(foundKeyPtr, foundKeySize);
+    if (SparseContainers.isContainer(foundValuePtr)) {
+      this.strlen = offset / Utils.BITS_PER_BYTE
+          + (SparseContainers.lastBit(foundValuePtr, foundValueSize) / Utils.BITS_PER_BYTE + 1);
+      return true;
+    }
     boolean isCompressed = SparseBitmaps.isCompressed(foundValuePtr);
     foundValuePtr = isCompressed
         ? SparseBitmaps.decompress(foundValuePtr, foundValueSize - SparseBitmaps.HEADER_SIZE)
@@ -36,6 +36,10 @@ public class SparseSetBit extends Operation {
   long offset;
   int bit;
   int oldBit;
+  /* New chunk was created */
+  boolean newChunk;
+  /* Chunk was deleted (it has no bits set) */
+  boolean chunkDeleted;
 
   public SparseSetBit() {
     setFloorKey(true);
@@ -46,7 +50,8 @@ public class SparseSetBit extends Operation {
 
     this.updatesCount = 0;
     boolean existKey = true;
-    boolean newChunk = false;
+    this.newChunk = false;
+    this.chunkDeleted = false;
     long foundKeyPtr = 0;
     int foundKeySize = 0;
     if (foundRecordAddress < 0) {
@@ -94,9 +99,13 @@ public class SparseSetBit extends Operation {
     }
     this.oldBit = getsetbit(valuePtr, valueSize);
     int bitCount = existKey ? SparseBitmaps.getBitCount(valuePtr) : 1;
-    if (bitCount > 0 && SparseBitmaps.shouldCompress(bitCount)) {
-      int compSize = SparseBitmaps.compress(valuePtr, bitCount, newChunk, buffer.get());
-      valueSize = compSize + SparseBitmaps.HEADER_SIZE;
+    // Raw chunk updated in place is re-encoded only when an array container gets smaller
+    int encodedSize = 0;
+    if (bitCount > 0 && (this.updatesCount == 1 || SparseBitmaps.shouldEncode(bitCount))) {
+      encodedSize = SparseBitmaps.encode(valuePtr, bitCount, newChunk, buffer.get());
+    }
+    if (encodedSize > 0) {
+      valueSize = encodedSize;
       valuePtr = buffer.get();
       this.updatesCount = 1;
     } else if (bitCount > 0) {
@@ -109,6 +118,7 @@ public class SparseSetBit extends Operation {
     this.valueSizes[0] = valueSize;
     if (bitCount == 0) {
       this.updateTypes[0] = true; // DELETE
+      this.chunkDeleted = true;
     }
     return true;
   }
@@ -141,6 +151,8 @@ public class SparseSetBit extends Operation {
     this.bit = 0;
     this.oldBit = 0;
     this.offset = 0;
+    this.newChunk = false;
+    this.chunkDeleted = false;
     setFloorKey(true);
   }
 
@@ -168,4 +180,20 @@ public class SparseSetBit extends Operation {
   public int getOldBit() {
     return oldBit;
   }
+
+  /**
+   * Was new chunk created
+   * @return true or false
+   */
+  public boolean isNewChunk() {
+    return newChunk;
+  }
+
+  /**
+   * Was chunk deleted
+   * @return true or false
+   */
+  public boolean isChunkDeleted() {
+    return chunkDeleted;
+  }
 }
@@ -16,7 +16,7 @@ import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.BUFFER_CAPACIT
 import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.BYTES_PER_CHUNK;
 import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.CHUNK_SIZE;
 import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.HEADER_SIZE;
-import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.compress;
+import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.encode;
 import static com.carrotdata.redcarrot.redis.sparse.SparseBitmaps.setBitCount;
 import static com.carrotdata.redcarrot.util.Utils.BITS_PER_BYTE;
 import static com.carrotdata.redcarrot.util.Utils.SIZEOF_LONG;
@@ -103,10 +103,10 @@ public class SparseSetChunk extends Operation {
       this.updatesCount = 0;
       return true;
     }
-    if (SparseBitmaps.shouldCompress(popCount)) {
-      // we set newChunk = false to save thread local buffer
-      int compSize = compress(chunkPtr, popCount, false, buffer.get());
-      valueSize = compSize + HEADER_SIZE;
+    // we set newChunk = false to save thread local buffer
+    int encodedSize = encode(chunkPtr, popCount, false, buffer.get());
+    if (encodedSize > 0) {
+      valueSize = encodedSize;
       valuePtr = buffer.get();
     } else {
       valuePtr = chunkPtr;
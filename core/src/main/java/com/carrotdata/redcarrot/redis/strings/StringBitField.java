@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.strings;
+
+import java.util.List;
+
+import com.carrotdata.redcarrot.DataBlock;
+import com.carrotdata.redcarrot.ops.Operation;
+import com.carrotdata.redcarrot.redis.util.BitFieldOp;
+import com.carrotdata.redcarrot.redis.util.BitFieldOp.Overflow;
+import com.carrotdata.redcarrot.redis.util.BitFieldOp.Type;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Bit field operation. Executes a list of GET, SET and INCRBY subcommands on integer fields of a
+ * string value in a single read-modify-write pass. The string is grown (zero-padded) once to the
+ * size required by the most far SET or INCRBY field, after that all the fields are updated in
+ * place. Fields are read and written with 64-bit big-endian loads and stores (plus one extra byte
+ * when a field crosses the word boundary), bit 0 is the most significant bit of the first byte.
+ */
+public class StringBitField extends Operation {
+
+  List<BitFieldOp> ops;
+
+  @Override
+  public boolean execute() {
+    this.updatesCount = 0;
+    long valuePtr = 0;
+    int valueSize = 0;
+    if (foundRecordAddress > 0) {
+      valuePtr = DataBlock.valueAddress(foundRecordAddress);
+      valueSize = DataBlock.valueLength(foundRecordAddress);
+    }
+    int requiredSize = requiredSize();
+    if (requiredSize > valueSize) {
+      long oldValuePtr = valuePtr;
+      valuePtr = UnsafeAccess.mallocZeroed(requiredSize);
+      if (valueSize > 0) {
+        UnsafeAccess.copy(oldValuePtr, valuePtr, valueSize);
+      }
+      valueSize = requiredSize;
+      this.updatesCount = 1;
+      this.keys[0] = keyAddress;
+      this.keySizes[0] = keySize;
+      this.values[0] = valuePtr;
+      this.valueSizes[0] = valueSize;
+      this.reuseValues[0] = true;
+    } else if (requiredSize > 0) {
+      setUpdateInPlace(true);
+    }
+    for (int i = 0; i < ops.size(); i++) {
+      execute(ops.get(i), valuePtr, valueSize);
+    }
+    return true;
+  }
+
+  /**
+   * Minimum value size required by all SET and INCRBY subcommands
+   * @return size in bytes (0 - if there are no updates)
+   */
+  private int requiredSize() {
+    long max = 0;
+    for (int i = 0; i < ops.size(); i++) {
+      BitFieldOp op = ops.get(i);
+      if (op.type == Type.GET) {
+        continue;
+      }
+      long size = (op.offset + op.bits + Utils.BITS_PER_BYTE - 1) / Utils.BITS_PER_BYTE;
+      max = Math.max(max, size);
+    }
+    return (int) max;
+  }
+
+  private void execute(BitFieldOp op, long valuePtr, int valueSize) {
+    long old = get(valuePtr, valueSize, op.offset, op.bits, op.signed);
+    op.failed = false;
+    switch (op.type) {
+      case GET:
+        op.result = old;
+        break;
+      case SET:
+        long v = op.signed ? setSigned(op) : setUnsigned(op);
+        if (!op.failed) {
+          set(valuePtr, op.offset, op.bits, v);
+        }
+        op.result = old;
+        break;
+      case INCRBY:
+        long n = op.signed ? incrSigned(op, old) : incrUnsigned(op, old);
+        if (!op.failed) {
+          set(valuePtr, op.offset, op.bits, n);
+        }
+        op.result = n;
+        break;
+    }
+  }
+
+  private static long maxSigned(int bits) {
+    return bits == Long.SIZE ? Long.MAX_VALUE : (1L << (bits - 1)) - 1;
+  }
+
+  private static long minSigned(int bits) {
+    return bits == Long.SIZE ? Long.MIN_VALUE : -(1L << (bits - 1));
+  }
+
+  private static long wrapSigned(long v, int bits) {
+    return bits == Long.SIZE ? v : (v << (Long.SIZE - bits)) >> (Long.SIZE - bits);
+  }
+
+  private static long setSigned(BitFieldOp op) {
+    long max = maxSigned(op.bits);
+    long min = minSigned(op.bits);
+    if (op.value > max) {
+      return overflow(op, wrapSigned(op.value, op.bits), max);
+    } else if (op.value < min) {
+      return overflow(op, wrapSigned(op.value, op.bits), min);
+    }
+    return op.value;
+  }
+
+  private static long setUnsigned(BitFieldOp op) {
+    long max = (1L << op.bits) - 1;
+    // Negative value is a huge unsigned number
+    if (op.value < 0 || op.value > max) {
+      return overflow(op, op.value & max, max);
+    }
+    return op.value;
+  }
+
+  private static long incrSigned(BitFieldOp op, long old) {
+    long max = maxSigned(op.bits);
+    long min = minSigned(op.bits);
+    long incr = op.value;
+    if (incr > 0 && old > max - incr) {
+      return overflow(op, wrapSigned(old + incr, op.bits), max);
+    } else if (incr < 0 && old < min - incr) {
+      return overflow(op, wrapSigned(old + incr, op.bits), min);
+    }
+    return old + incr;
+  }
+
+  private static long incrUnsigned(BitFieldOp op, long old) {
+    long max = (1L << op.bits) - 1;
+    long incr = op.value;
+    if (incr > 0 && incr > max - old) {
+      return overflow(op, (old + incr) & max, max);
+    } else if (incr < 0 && old + incr < 0) {
+      return overflow(op, (old + incr) & max, 0);
+    }
+    return old + incr;
+  }
+
+  private static long overflow(BitFieldOp op, long wrapped, long saturated) {
+    if (op.overflow == Overflow.FAIL) {
+      op.failed = true;
+      return 0;
+    }
+    return op.overflow == Overflow.SAT ? saturated : wrapped;
+  }
+
+  /**
+   * Reads 8 bytes in big-endian order, bytes beyond the value size are zeros
+   * @param ptr value address
+   * @param size value size
+   * @param index byte index
+   * @return 64 bits starting at index
+   */
+  private static long load(long ptr, int size, long index) {
+    if (index + Utils.SIZEOF_LONG <= size) {
+      return UnsafeAccess.toLong(ptr + index);
+    }
+    long w = 0;
+    for (int i = 0; i < Utils.SIZEOF_LONG; i++) {
+      w <<= Utils.BITS_PER_BYTE;
+      if (index + i < size) {
+        w |= UnsafeAccess.toByte(ptr + index + i) & 0xff;
+      }
+    }
+    return w;
+  }
+
+  /**
+   * Writes 8 bytes in big-endian order, bytes beyond the value size are skipped
+   * @param ptr value address
+   * @param size value size
+   * @param index byte index
+   * @param w 64 bits to store at index
+   */
+  private static void store(long ptr, int size, long index, long w) {
+    if (index + Utils.SIZEOF_LONG <= size) {
+      UnsafeAccess.putLong(ptr + index, w);
+      return;
+    }
+    for (int i = 0; i < Utils.SIZEOF_LONG && index + i < size; i++) {
+      int shift = (Utils.SIZEOF_LONG - 1 - i) * Utils.BITS_PER_BYTE;
+      UnsafeAccess.putByte(ptr + index + i, (byte) (w >>> shift));
+    }
+  }
+
+  /**
+   * Reads bit field
+   * @param ptr value address
+   * @param size value size
+   * @param offset field offset in bits
+   * @param bits field width
+   * @param signed signed integer
+   * @return field value
+   */
+  static long get(long ptr, int size, long offset, int bits, boolean signed) {
+    long index = offset >>> 3;
+    int shift = (int) (offset & 7);
+    long hi = load(ptr, size, index);
+    long v = (hi << shift) >>> (Long.SIZE - bits);
+    int low = shift + bits - Long.SIZE;
+    if (low > 0) {
+      // The field crosses 64-bit boundary
+      long lastIndex = index + Utils.SIZEOF_LONG;
+      int last = lastIndex < size ? UnsafeAccess.toByte(ptr + lastIndex) & 0xff : 0;
+      v |= last >>> (Utils.BITS_PER_BYTE - low);
+    }
+    if (signed && bits < Long.SIZE) {
+      v = (v << (Long.SIZE - bits)) >> (Long.SIZE - bits);
+    }
+    return v;
+  }
+
+  /**
+   * Writes bit field. Value must be large enough to hold the field.
+   * @param ptr value address
+   * @param offset field offset in bits
+   * @param bits field width
+   * @param v new value (only lowest bits are used)
+   */
+  private static void set(long ptr, long offset, int bits, long v) {
+    int size = (int) ((offset + bits + Utils.BITS_PER_BYTE - 1) / Utils.BITS_PER_BYTE);
+    long index = offset >>> 3;
+    int shift = (int) (offset & 7);
+    long hi = load(ptr, size, index);
+    int low = shift + bits - Long.SIZE;
+    if (low <= 0) {
+      long mask = (-1L >>> (Long.SIZE - bits)) << -low;
+      hi = (hi & ~mask) | ((v << -low) & mask);
+    } else {
+      long mask = -1L >>> shift;
+      hi = (hi & ~mask) | ((v >>> low) & mask);
+      long lastPtr = ptr + index + Utils.SIZEOF_LONG;
+      int lastMask = (0xff << (Utils.BITS_PER_BYTE - low)) & 0xff;
+      int last = UnsafeAccess.toByte(lastPtr) & 0xff;
+      last = (last & ~lastMask) | (((int) v << (Utils.BITS_PER_BYTE - low)) & lastMask);
+      UnsafeAccess.putByte(lastPtr, (byte) last);
+    }
+    store(ptr, size, index, hi);
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    this.ops = null;
+  }
+
+  /**
+   * Sets list of subcommands
+   * @param ops subcommands (results are set after execution)
+   */
+  public void setOps(List<BitFieldOp> ops) {
+    this.ops = ops;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.strings;
+
+import com.carrotdata.redcarrot.DataBlock;
+import com.carrotdata.redcarrot.ops.Operation;
+import com.carrotdata.redcarrot.redis.util.BitOp;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Bitwise operation between a string value and an accumulator buffer. The value is read in place
+ * (no copy) and combined with the buffer 8 bytes at a time, the remaining tail is processed byte by
+ * byte. The buffer has the size of the longest input string, shorter values are treated as if they
+ * were zero-padded. The first input is copied into the buffer (and inverted for NOT).
+ */
+public class StringBitOp extends Operation {
+
+  BitOp op;
+  long bufferPtr;
+  int bufferSize;
+  boolean first;
+
+  public StringBitOp() {
+    setReadOnly(true);
+  }
+
+  @Override
+  public boolean execute() {
+    this.updatesCount = 0;
+    long valuePtr = 0;
+    int valueSize = 0;
+    if (foundRecordAddress > 0) {
+      valuePtr = DataBlock.valueAddress(foundRecordAddress);
+      valueSize = Math.min(DataBlock.valueLength(foundRecordAddress), bufferSize);
+    }
+    if (first) {
+      if (valueSize > 0) {
+        UnsafeAccess.copy(valuePtr, bufferPtr, valueSize);
+      }
+      if (op == BitOp.NOT) {
+        Utils.bitNot(bufferPtr, bufferSize);
+      }
+      return true;
+    }
+    switch (op) {
+      case AND:
+        Utils.bitAnd(bufferPtr, valuePtr, valueSize);
+        if (valueSize < bufferSize) {
+          UnsafeAccess.setMemory(bufferPtr + valueSize, bufferSize - valueSize, (byte) 0);
+        }
+        break;
+      case OR:
+        Utils.bitOr(bufferPtr, valuePtr, valueSize);
+        break;
+      case XOR:
+        Utils.bitXor(bufferPtr, valuePtr, valueSize);
+        break;
+      case ANDNOT:
+        Utils.bitAndNot(bufferPtr, valuePtr, valueSize);
+        break;
+      default:
+        // NOT has a single input
+    }
+    return true;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    this.op = null;
+    this.bufferPtr = 0;
+    this.bufferSize = 0;
+    this.first = false;
+    setReadOnly(true);
+  }
+
+  /**
+   * Sets bitwise operation
+   * @param op operation
+   * @param first is it the first input
+   */
+  public void setBitOp(BitOp op, boolean first) {
+    this.op = op;
+    this.first = first;
+  }
+
+  /**
+   * Sets accumulator buffer
+   * @param ptr buffer address
+   * @param size buffer size (size of the longest input)
+   */
+  public void setBuffer(long ptr, int size) {
+    this.bufferPtr = ptr;
+    this.bufferSize = size;
+  }
+}
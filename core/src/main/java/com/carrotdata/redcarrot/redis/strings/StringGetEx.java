@@ -17,7 +17,7 @@ import com.carrotdata.redcarrot.util.UnsafeAccess;
 
 /**
  * String GETEX operation. Atomically gets key value and updates expire. Returns an error when key
- * exists but does not hold a string value.
+ * exists but does not hold a string value. If buffer is not set only expire is updated.
  */
 public class StringGetEx extends Operation {
 
@@ -31,12 +31,14 @@ public class StringGetEx extends Operation {
     if (foundRecordAddress > 0) {
       int vLength = DataBlock.valueLength(foundRecordAddress);
       this.size = vLength;
-      if (this.size > this.bufferSize) {
-        this.updatesCount = 0;
-        return false;
+      if (this.bufferPtr != 0) {
+        if (this.size > this.bufferSize) {
+          this.updatesCount = 0;
+          return false;
+        }
+        long vPtr = DataBlock.valueAddress(foundRecordAddress);
+        UnsafeAccess.copy(vPtr, bufferPtr, vLength);
       }
-      long vPtr = DataBlock.valueAddress(foundRecordAddress);
-      UnsafeAccess.copy(vPtr, bufferPtr, vLength);
       // Update expire field
       // FIXME: does not work when compression is on, b/c we update only
       // thread-local buffer
@@ -19,6 +19,7 @@ import java.util.List;
 
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.ops.OperationFailedException;
+import com.carrotdata.redcarrot.redis.util.BitFieldOp;
 import com.carrotdata.redcarrot.redis.util.BitOp;
 import com.carrotdata.redcarrot.redis.util.DataType;
 import com.carrotdata.redcarrot.redis.util.MutationOptions;
@@ -187,6 +188,20 @@ public class Strings {
     }
   };
 
+  private static ThreadLocal<StringBitField> stringBitfield = new ThreadLocal<StringBitField>() {
+    @Override
+    protected StringBitField initialValue() {
+      return new StringBitField();
+    }
+  };
+
+  private static ThreadLocal<StringBitOp> stringBitop = new ThreadLocal<StringBitOp>() {
+    @Override
+    protected StringBitOp initialValue() {
+      return new StringBitOp();
+    }
+  };
+
   /**
    * Checks key arena size
    * @param required size
@@ -556,18 +571,34 @@ public class Strings {
   public static long MGET(BigSortedMap map, long[] keyPtrs, int[] keySizes, long buffer,
       int bufferSize) {
 
+    int n = keyPtrs.length;
+    long[] kPtrs = new long[n];
+    int[] kSizes = new int[n];
+    long[] valueSizes = new long[n];
+    int[] valueOffsets = new int[n];
+    buildKeys(keyPtrs, keySizes, kPtrs, kSizes);
+    // Values are read in a key order and then copied to the buffer in a request order
+    checkValueArena(bufferSize);
+    long valueBuf = valueArena.get();
+    map.get(kPtrs, kSizes, valueBuf, bufferSize, valueSizes, valueOffsets, Long.MAX_VALUE);
+
     long ptr = buffer + Utils.SIZEOF_INT;
 
     int count = 1;
+    boolean full = false;
     UnsafeAccess.putInt(buffer, 0);
 
-    for (int i = 0; i < keyPtrs.length; i++, count++) {
+    for (int i = 0; i < n; i++, count++) {
       int available = (int) (bufferSize - (ptr - buffer) - Utils.SIZEOF_INT);
-      long size = GET(map, keyPtrs[i], keySizes[i], ptr + Utils.SIZEOF_INT, available);
-      if (size <= available) {
+      long size = valueSizes[i];
+      full = full || size > available || (size > 0 && valueOffsets[i] < 0);
+      if (!full) {
         UnsafeAccess.putInt(buffer, count);
         UnsafeAccess.putInt(ptr, (int) size);
         // size == -1 means NULL
+        if (size > 0) {
+          UnsafeAccess.copy(valueBuf + valueOffsets[i], ptr + Utils.SIZEOF_INT, size);
+        }
       }
       if (size < 0) size = 0;
       ptr += size + Utils.SIZEOF_INT;
@@ -575,6 +606,30 @@ public class Strings {
     return ptr - buffer;
   }
 
+  /**
+   * Builds keys of a multi-key operation in a thread local key arena
+   * @param keyPtrs keys addresses
+   * @param keySizes keys sizes
+   * @param kPtrs addresses of built keys (output)
+   * @param kSizes sizes of built keys (output)
+   */
+  private static void buildKeys(long[] keyPtrs, int[] keySizes, long[] kPtrs, int[] kSizes) {
+    int required = 0;
+    for (int i = 0; i < keySizes.length; i++) {
+      required += KEY_SIZE + keySizes[i] + Utils.SIZEOF_BYTE;
+    }
+    checkKeyArena(required);
+    long ptr = keyArena.get();
+    for (int i = 0; i < keyPtrs.length; i++) {
+      UnsafeAccess.putByte(ptr, (byte) DataType.STRING.ordinal());
+      UnsafeAccess.putInt(ptr + Utils.SIZEOF_BYTE, keySizes[i]);
+      UnsafeAccess.copy(keyPtrs[i], ptr + KEY_SIZE + Utils.SIZEOF_BYTE, keySizes[i]);
+      kPtrs[i] = ptr;
+      kSizes[i] = KEY_SIZE + keySizes[i] + Utils.SIZEOF_BYTE;
+      ptr += kSizes[i];
+    }
+  }
+
   /**
    * BITFIELD key [GET type offset] [SET type offset value] [INCRBY type offset increment] [OVERFLOW
    * WRAP|SAT|FAIL]
@@ -681,13 +736,27 @@ public class Strings {
    * +--------+--------+ |00000001|01110000| +--------+--------+ When offsets and integer sizes are
    * aligned to bytes boundaries, this is the same as big endian, however when such alignment does
    * not exist, its important to also understand how the bits inside a byte are ordered.
-   * @param map
-   * @param keyPtr
-   * @param keySize
-   * @return
+   * @param map sorted map storage
+   * @param keyPtr key address
+   * @param keySize key size
+   * @param ops list of GET, SET and INCRBY subcommands, results are set after execution
+   * @return true on success, false - otherwise
    */
-  public static long BITFIELD(BigSortedMap map, long keyPtr, int keySize) {
-    return 0;
+  public static boolean BITFIELD(BigSortedMap map, long keyPtr, int keySize,
+      List<BitFieldOp> ops) {
+    Key kk = getKey(keyPtr, keySize);
+    try {
+      KeysLocker.writeLock(kk);
+      int kSize = buildKey(keyPtr, keySize);
+      StringBitField bitfield = stringBitfield.get();
+      bitfield.reset();
+      bitfield.setKeyAddress(keyArena.get());
+      bitfield.setKeySize(kSize);
+      bitfield.setOps(ops);
+      return map.execute(bitfield);
+    } finally {
+      KeysLocker.writeUnlock(kk);
+    }
   }
 
   /**
@@ -861,7 +930,7 @@ public class Strings {
    * @param keyPtr key address
    * @param keySize key size in bytes
    * @param expireAt set expiration time (if == 0, then unexpire)
-   * @param bufferPtr buffer address
+   * @param bufferPtr buffer address (0 - update expiration time only)
    * @param bufferSize buffer size
    * @return size of a value or -1
    */
@@ -1039,6 +1108,22 @@ public class Strings {
     }
   }
 
+  /**
+   * Deletes multiple keys in one batch
+   * @param map sorted map storage
+   * @param keyPtrs keys addresses
+   * @param keySizes keys sizes
+   * @param deleted deleted flags (output)
+   * @return number of deleted keys
+   */
+  public static int DELETE(BigSortedMap map, long[] keyPtrs, int[] keySizes, boolean[] deleted) {
+    int n = keyPtrs.length;
+    long[] kPtrs = new long[n];
+    int[] kSizes = new int[n];
+    buildKeys(keyPtrs, keySizes, kPtrs, kSizes);
+    return map.delete(kPtrs, kSizes, deleted);
+  }
+
   /**
    * Set key to hold string value if key does not exist. In that case, it is equal to SET. When key
    * already holds a value, no operation is performed. SETNX is short for "SET if Not eXists".
@@ -1217,15 +1302,7 @@ public class Strings {
 
     try {
       KeysLocker.writeLockAllKeyValues(kvs);
-      for (int i = 0; i < kvs.size(); i++) {
-        KeyValue kv = kvs.get(i);
-        boolean result = SET_DIRECT(map, kv.keyPtr, kv.keySize, kv.valuePtr, kv.valueSize);
-        if (!result) {
-          // Out of memory possible
-          return false;
-        }
-      }
-      return true;
+      return putAll(map, kvs);
     } finally {
       KeysLocker.writeUnlockAllKeyValues(kvs);
     }
@@ -1248,22 +1325,54 @@ public class Strings {
 
     try {
       KeysLocker.writeLockAllKeyValues(kvs);
-      for (int i = 0; i < kvs.size(); i++) {
+      int n = kvs.size();
+      long[] kPtrs = new long[n];
+      int[] kSizes = new int[n];
+      long[] valueSizes = new long[n];
+      int[] valueOffsets = new int[n];
+      for (int i = 0; i < n; i++) {
         KeyValue kv = kvs.get(i);
-        if (keyExists(map, kv.keyPtr, kv.keySize)) {
+        kPtrs[i] = kv.keyPtr;
+        kSizes[i] = kv.keySize;
+      }
+      buildKeys(kPtrs, kSizes, kPtrs, kSizes);
+      // Existence check only - values are not copied
+      map.get(kPtrs, kSizes, valueArena.get(), 0, valueSizes, valueOffsets, Long.MAX_VALUE);
+      for (int i = 0; i < n; i++) {
+        if (valueSizes[i] >= 0) {
           return false;
         }
       }
-      for (int i = 0; i < kvs.size(); i++) {
-        KeyValue kv = kvs.get(i);
-        SET(map, kv.keyPtr, kv.keySize, kv.valuePtr, kv.valueSize, 0, MutationOptions.NONE, false);
-      }
+      putAll(map, kvs);
     } finally {
       KeysLocker.writeUnlockAllKeyValues(kvs);
     }
     return true;
   }
 
+  /**
+   * Puts all key-values in one batch
+   * @param map sorted map storage
+   * @param kvs list of key-values to set
+   * @return true on success, false - otherwise (out of memory)
+   */
+  private static boolean putAll(BigSortedMap map, List<KeyValue> kvs) {
+    int n = kvs.size();
+    long[] kPtrs = new long[n];
+    int[] kSizes = new int[n];
+    long[] valuePtrs = new long[n];
+    int[] valueSizes = new int[n];
+    for (int i = 0; i < n; i++) {
+      KeyValue kv = kvs.get(i);
+      kPtrs[i] = kv.keyPtr;
+      kSizes[i] = kv.keySize;
+      valuePtrs[i] = kv.valuePtr;
+      valueSizes[i] = kv.valueSize;
+    }
+    buildKeys(kPtrs, kSizes, kPtrs, kSizes);
+    return map.put(kPtrs, kSizes, valuePtrs, valueSizes, 0);
+  }
+
   /**
    * Available since 2.6.0. Time complexity: O(N) Perform a bitwise operation between multiple keys
    * (containing string values) and store the result in the destination key. The BITOP command
@@ -1310,7 +1419,58 @@ public class Strings {
    * @return size of a destination string in bytes
    */
   public static long BITOP(BigSortedMap map, BitOp op, long[] keyPtrs, int[] keySizes) {
-    // TODO
-    return 0;
+    // NOT is an unary operator
+    int n = op == BitOp.NOT ? Math.min(2, keyPtrs.length) : keyPtrs.length;
+    long buffer = 0;
+    try {
+      map.writeLock();
+      int size = 0;
+      for (int i = 1; i < n; i++) {
+        size = Math.max(size, STRLEN(map, keyPtrs[i], keySizes[i]));
+      }
+      if (size == 0) {
+        DELETE(map, keyPtrs[0], keySizes[0]);
+        return 0;
+      }
+      buffer = UnsafeAccess.mallocZeroed(size);
+      for (int i = 1; i < n; i++) {
+        bitop(map, op, i == 1, keyPtrs[i], keySizes[i], buffer, size);
+      }
+      SET_DIRECT(map, keyPtrs[0], keySizes[0], buffer, size);
+      return size;
+    } finally {
+      if (buffer > 0) {
+        UnsafeAccess.free(buffer);
+      }
+      map.writeUnlock();
+    }
+  }
+
+  /**
+   * Combines string value with an accumulator buffer
+   * @param map sorted map storage
+   * @param op bitwise operation
+   * @param first is it the first input
+   * @param keyPtr key address
+   * @param keySize key size
+   * @param bufferPtr buffer address
+   * @param bufferSize buffer size
+   */
+  private static void bitop(BigSortedMap map, BitOp op, boolean first, long keyPtr, int keySize,
+      long bufferPtr, int bufferSize) {
+    Key kk = getKey(keyPtr, keySize);
+    try {
+      KeysLocker.readLock(kk);
+      int kSize = buildKey(keyPtr, keySize);
+      StringBitOp bitop = stringBitop.get();
+      bitop.reset();
+      bitop.setKeyAddress(keyArena.get());
+      bitop.setKeySize(kSize);
+      bitop.setBitOp(op, first);
+      bitop.setBuffer(bufferPtr, bufferSize);
+      map.execute(bitop);
+    } finally {
+      KeysLocker.readUnlock(kk);
+    }
   }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+/**
+ * BITFIELD subcommand: GET, SET or INCRBY of a signed or unsigned integer field. Operation result
+ * is set after execution, failed is true when an overflow was detected in FAIL mode.
+ */
+public class BitFieldOp {
+
+  public static enum Type {
+    GET, SET, INCRBY;
+  }
+
+  public static enum Overflow {
+    WRAP, SAT, FAIL;
+  }
+
+  public final Type type;
+  public final boolean signed;
+  /* Field width in bits: 1-64 for signed, 1-63 for unsigned */
+  public final int bits;
+  /* Offset in bits */
+  public final long offset;
+  /* Value to set or increment */
+  public final long value;
+  public final Overflow overflow;
+
+  public long result;
+  public boolean failed;
+
+  public BitFieldOp(Type type, boolean signed, int bits, long offset, long value,
+      Overflow overflow) {
+    this.type = type;
+    this.signed = signed;
+    this.bits = bits;
+    this.offset = offset;
+    this.value = value;
+    this.overflow = overflow;
+  }
+}
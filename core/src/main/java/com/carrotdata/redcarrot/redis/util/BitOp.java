@@ -13,5 +13,5 @@ package com.carrotdata.redcarrot.redis.util;
 
 /** Bit operations enum */
 public enum BitOp {
-  AND, XOR, OR, NOT;
+  AND, XOR, OR, NOT, ANDNOT;
 }
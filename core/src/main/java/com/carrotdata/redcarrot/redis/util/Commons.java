@@ -15,6 +15,7 @@ import java.io.IOException;
 
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.BigSortedMapScanner;
+import com.carrotdata.redcarrot.redis.RedisConf;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 
@@ -31,6 +32,27 @@ public class Commons {
    * Number of bytes to keep sizes of element in Value object
    */
   public static final int NUM_ELEM_SIZE = Utils.SIZEOF_SHORT;
+  /*
+   * Packed set and hash values can have a sparse offset table: offsets (2 bytes) of every
+   * VALUE_OFFSETS_STRIDE-th element are kept after the last element and the highest bit of a number
+   * of elements is set. Lookups binary search the table and then scan at most VALUE_OFFSETS_STRIDE
+   * elements. The table is built by updates when elements of a value are sorted
+   */
+  public static final int VALUE_OFFSETS_STRIDE = 8;
+  /*
+   * Minimum number of elements in a value to build offset table
+   */
+  public static final int VALUE_OFFSETS_MIN_ELEMENTS = 2 * VALUE_OFFSETS_STRIDE;
+  /*
+   * Size of an offset table entry
+   */
+  public static final int VALUE_OFFSET_SIZE = Utils.SIZEOF_SHORT;
+  /*
+   * Value has offset table
+   */
+  private static final int VALUE_OFFSETS_MASK = 0x8000;
+
+  private static boolean valueOffsetsEnabled = RedisConf.getInstance().isValueOffsetsEnabled();
   /*
    * Key size, currently 4 bytes
    */
@@ -102,24 +124,25 @@ public class Commons {
    * @return number of elements
    */
   public static int numElementsInValue(long valuePtr) {
-    return UnsafeAccess.toShort(valuePtr);
+    return UnsafeAccess.toShort(valuePtr) & ~VALUE_OFFSETS_MASK & 0xffff;
   }
 
   /**
-   * Increase number of elements (fields-values) in a Value object
+   * Increase number of elements (fields-values) in a Value object. Value must not have offset
+   * table, because its size depends on a number of elements
    * @param valuePtr value address
    * @param v value to increase
    * @return total new number of elements
    */
   public static int addNumElements(long valuePtr, int v) {
-    int value = UnsafeAccess.toShort(valuePtr);
+    int value = numElementsInValue(valuePtr);
     // if (value + v < 0) return value;
     UnsafeAccess.putShort(valuePtr, (short) (value + v));
     return value + v;
   }
 
   /**
-   * Set number of elements (field-values) in a Value object
+   * Set number of elements (field-values) in a Value object, value has no offset table
    * @param valuePtr value address
    * @param v value to set to
    * @return v new number of elements
@@ -129,6 +152,161 @@ public class Commons {
     return v;
   }
 
+  /**
+   * Enables/disables element offset tables of new and updated values (for testing)
+   * @param b true - enable, false - disable
+   */
+  public static void setValueOffsetsEnabled(boolean b) {
+    valueOffsetsEnabled = b;
+  }
+
+  /**
+   * Are element offset tables enabled
+   * @return true - yes, false - otherwise
+   */
+  public static boolean isValueOffsetsEnabled() {
+    return valueOffsetsEnabled;
+  }
+
+  /**
+   * Has value an element offset table
+   * @param valuePtr value address
+   * @return true - yes, false - otherwise
+   */
+  public static boolean hasOffsets(long valuePtr) {
+    return (UnsafeAccess.toShort(valuePtr) & VALUE_OFFSETS_MASK) != 0;
+  }
+
+  /**
+   * Size of an element offset table which is built for a given number of elements
+   * @param numElements number of elements
+   * @return table size, 0 - no table
+   */
+  public static int offsetsSize(int numElements) {
+    if (!valueOffsetsEnabled || numElements < VALUE_OFFSETS_MIN_ELEMENTS) {
+      return 0;
+    }
+    return (numElements - 1) / VALUE_OFFSETS_STRIDE * VALUE_OFFSET_SIZE;
+  }
+
+  /**
+   * Size of elements of a value (without offset table)
+   * @param valuePtr value address
+   * @param valueSize value size
+   * @return size of a value data
+   */
+  public static int dataSize(long valuePtr, int valueSize) {
+    if (!hasOffsets(valuePtr)) {
+      return valueSize;
+    }
+    return valueSize - (numElementsInValue(valuePtr) - 1) / VALUE_OFFSETS_STRIDE
+        * VALUE_OFFSET_SIZE;
+  }
+
+  /**
+   * Builds element offset table after the last element of a value, value must have space for
+   * offsetsSize(numElementsInValue(valuePtr)) bytes after its data. Table is not built when the
+   * elements are not sorted
+   * @param valuePtr value address
+   * @param dataSize size of a value data
+   * @param pairs true - elements are field-value pairs (hash), false - members (set)
+   * @return new value size
+   */
+  public static int buildOffsets(long valuePtr, int dataSize, boolean pairs) {
+    int n = numElementsInValue(valuePtr);
+    setNumElements(valuePtr, n);
+    int tableSize = offsetsSize(n);
+    if (tableSize == 0) {
+      return dataSize;
+    }
+    long table = valuePtr + dataSize;
+    long ptr = valuePtr + NUM_ELEM_SIZE;
+    long prev = 0;
+    for (int i = 0, j = 0; i < n; i++) {
+      if (prev > 0 && compareElements(ptr, pairs, elementKeyAddress(prev, pairs),
+        elementKeySize(prev)) <= 0) {
+        // Old compact sorted sets can have unordered chunks
+        return dataSize;
+      }
+      if (i > 0 && i % VALUE_OFFSETS_STRIDE == 0) {
+        UnsafeAccess.putShort(table + j * VALUE_OFFSET_SIZE, (short) (ptr - valuePtr));
+        j++;
+      }
+      prev = ptr;
+      ptr += elementLength(ptr, pairs);
+    }
+    UnsafeAccess.putShort(valuePtr, (short) (n | VALUE_OFFSETS_MASK));
+    return dataSize + tableSize;
+  }
+
+  /**
+   * Get address of an element to start a linear search from. Binary searches element offset table,
+   * start element is the last one in the table which is less or equals to a given key
+   * @param valuePtr value address
+   * @param valueSize value size
+   * @param keyPtr member or field address
+   * @param keySize member or field size
+   * @param pairs true - elements are field-value pairs (hash), false - members (set)
+   * @return start element address (first element, if value has no offset table)
+   */
+  public static long searchStart(long valuePtr, int valueSize, long keyPtr, int keySize,
+      boolean pairs) {
+    long start = valuePtr + NUM_ELEM_SIZE;
+    if (!hasOffsets(valuePtr)) {
+      return start;
+    }
+    int num = (numElementsInValue(valuePtr) - 1) / VALUE_OFFSETS_STRIDE;
+    long table = valuePtr + valueSize - num * VALUE_OFFSET_SIZE;
+    int low = 0, high = num - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long ptr = valuePtr + (UnsafeAccess.toShort(table + mid * VALUE_OFFSET_SIZE) & 0xffff);
+      if (compareElements(ptr, pairs, keyPtr, keySize) <= 0) {
+        start = ptr;
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    return start;
+  }
+
+  /**
+   * Compares element's member or field with a given key
+   * @param ptr element address
+   * @param pairs true - field-value pair, false - member
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return 0, negative or positive
+   */
+  private static int compareElements(long ptr, boolean pairs, long keyPtr, int keySize) {
+    return Utils.compareTo(elementKeyAddress(ptr, pairs), elementKeySize(ptr), keyPtr,
+      keySize);
+  }
+
+  private static long elementKeyAddress(long ptr, boolean pairs) {
+    int size = Utils.readUVInt(ptr);
+    long addr = ptr + Utils.sizeUVInt(size);
+    if (pairs) {
+      addr += Utils.sizeUVInt(Utils.readUVInt(addr));
+    }
+    return addr;
+  }
+
+  private static int elementKeySize(long ptr) {
+    return Utils.readUVInt(ptr);
+  }
+
+  private static int elementLength(long ptr, boolean pairs) {
+    int size = Utils.readUVInt(ptr);
+    int len = Utils.sizeUVInt(size) + size;
+    if (pairs) {
+      int vSize = Utils.readUVInt(ptr + Utils.sizeUVInt(size));
+      len += Utils.sizeUVInt(vSize) + vSize;
+    }
+    return len;
+  }
+
   /**
    * This method checks if next K-V exists in the set/hash/list
    * @param ptr current key address
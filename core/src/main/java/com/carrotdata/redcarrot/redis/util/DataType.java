@@ -17,11 +17,11 @@ import com.carrotdata.redcarrot.util.Utils;
 
 /** Data types of Key-Values */
 public enum DataType {
-  SYSTEM, STRING, LIST, SET, ZSET, HASH, SBITMAP, BTREE;
+  SYSTEM, STRING, LIST, SET, ZSET, HASH, SBITMAP, BTREE, DIRECTORY;
 
   public static DataType getDataType(long keyPtr) {
     int ordinal = UnsafeAccess.toByte(keyPtr);
-    if (ordinal >= 0 && ordinal <= DataType.BTREE.ordinal()) {
+    if (ordinal >= 0 && ordinal <= DataType.DIRECTORY.ordinal()) {
       return DataType.values()[ordinal];
     } else {
       return null;
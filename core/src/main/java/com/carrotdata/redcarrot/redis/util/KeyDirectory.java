@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import static com.carrotdata.redcarrot.redis.util.Commons.KEY_SIZE;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.BigSortedMapScanner;
+import com.carrotdata.redcarrot.redis.db.DBSystem;
+import com.carrotdata.redcarrot.util.Key;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Directory of collection keys and their types. Every key of a list, set, sorted set, hash or
+ * sparse bitmap has a directory K-V:
+ * <p>
+ * [DIRECTORY][KEY_SIZE][KEY] -> [TYPES]
+ * <p>
+ * TYPES is a one byte mask of (1 << DataType.ordinal()) bits, the same key can exist in several
+ * types. String keys are not in a directory, they are checked directly. Sorted set has SET bit (and
+ * HASH bit in a normal mode) in addition to ZSET bit, because its members are kept in a set and in
+ * a hash.
+ * <p>
+ * Directory is updated when a collection is created or deleted, it never misses an existing
+ * collection, but can have a stale type bit (for example, when collection became empty by an
+ * operation which does not track it). Therefore, a type found in a directory must be verified by
+ * the type itself. Stores created before directory was introduced are indexed once on load.
+ */
+public class KeyDirectory {
+
+  private static final Logger log = LogManager.getLogger(KeyDirectory.class);
+
+  /* Directory types in a dispatch order */
+  private static final DataType[] TYPES = new DataType[] { DataType.LIST, DataType.SET,
+      DataType.HASH, DataType.SBITMAP };
+
+  /* Number of keys indexed at once */
+  private static final int REBUILD_BATCH_SIZE = 1000;
+
+  /* System key which marks indexed store */
+  private static final byte[] MARKER = "keydirectory".getBytes();
+
+  private static ThreadLocal<Long> keyArena = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      return UnsafeAccess.malloc(512);
+    }
+  };
+
+  private static ThreadLocal<Integer> keyArenaSize = new ThreadLocal<Integer>() {
+    @Override
+    protected Integer initialValue() {
+      return 512;
+    }
+  };
+
+  private static ThreadLocal<Long> valueArena = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      return UnsafeAccess.malloc(Utils.SIZEOF_BYTE);
+    }
+  };
+
+  private static ThreadLocal<KeyDirectoryUpdate> directoryUpdate =
+      new ThreadLocal<KeyDirectoryUpdate>() {
+        @Override
+        protected KeyDirectoryUpdate initialValue() {
+          return new KeyDirectoryUpdate();
+        }
+      };
+
+  /**
+   * Checks key arena size
+   * @param required size
+   */
+  static void checkKeyArena(int required) {
+    int size = keyArenaSize.get();
+    if (size >= required) {
+      return;
+    }
+    long ptr = UnsafeAccess.realloc(keyArena.get(), required);
+    keyArena.set(ptr);
+    keyArenaSize.set(required);
+  }
+
+  /**
+   * Build directory key. It uses thread local key arena
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return directory key size
+   */
+  static int buildKey(long keyPtr, int keySize) {
+    int kSize = KEY_SIZE + keySize + Utils.SIZEOF_BYTE;
+    checkKeyArena(kSize);
+    long arena = keyArena.get();
+    UnsafeAccess.putByte(arena, (byte) DataType.DIRECTORY.ordinal());
+    UnsafeAccess.putInt(arena + Utils.SIZEOF_BYTE, keySize);
+    UnsafeAccess.copy(keyPtr, arena + KEY_SIZE + Utils.SIZEOF_BYTE, keySize);
+    return kSize;
+  }
+
+  /**
+   * Get type bit of a data type
+   * @param type data type
+   * @return type bit
+   */
+  public static int typeBit(DataType type) {
+    return 1 << type.ordinal();
+  }
+
+  /**
+   * Checks if type mask contains a given type
+   * @param types type mask
+   * @param type data type
+   * @return true or false
+   */
+  public static boolean contains(int types, DataType type) {
+    return (types & typeBit(type)) != 0;
+  }
+
+  /**
+   * Get types of a key
+   * @param map sorted map storage
+   * @param keyPtr key address
+   * @param keySize key size
+   * @return type mask, 0 - key is not a collection
+   */
+  public static int getTypes(BigSortedMap map, long keyPtr, int keySize) {
+    int kSize = buildKey(keyPtr, keySize);
+    long ptr = valueArena.get();
+    long size = map.get(keyArena.get(), kSize, ptr, Utils.SIZEOF_BYTE, 0);
+    if (size != Utils.SIZEOF_BYTE) {
+      return 0;
+    }
+    return UnsafeAccess.toByte(ptr) & 0xff;
+  }
+
+  /**
+   * Adds key type. Must be called when a collection is created under the same key lock
+   * @param map sorted map storage
+   * @param type data type
+   * @param keyPtr key address
+   * @param keySize key size
+   */
+  public static void add(BigSortedMap map, DataType type, long keyPtr, int keySize) {
+    update(map, keyPtr, keySize, typeBit(type), 0);
+  }
+
+  /**
+   * Removes key type. Must be called when a collection is deleted under the same key lock. Removal
+   * of a SET type removes ZSET type as well
+   * @param map sorted map storage
+   * @param type data type
+   * @param keyPtr key address
+   * @param keySize key size
+   */
+  public static void remove(BigSortedMap map, DataType type, long keyPtr, int keySize) {
+    int clear = typeBit(type);
+    if (type == DataType.SET) {
+      // Sorted set without its set part does not exist
+      clear |= typeBit(DataType.ZSET);
+    }
+    update(map, keyPtr, keySize, 0, clear);
+  }
+
+  /**
+   * Removes all given key types. It is used to clean up a stale directory entry
+   * @param map sorted map storage
+   * @param types type mask
+   * @param keyPtr key address
+   * @param keySize key size
+   */
+  public static void remove(BigSortedMap map, int types, long keyPtr, int keySize) {
+    update(map, keyPtr, keySize, 0, types);
+  }
+
+  private static void update(BigSortedMap map, long keyPtr, int keySize, int set, int clear) {
+    int kSize = buildKey(keyPtr, keySize);
+    KeyDirectoryUpdate op = directoryUpdate.get();
+    op.reset();
+    op.setKeyAddress(keyArena.get());
+    op.setKeySize(kSize);
+    op.setMasks(set, clear);
+    map.execute(op);
+  }
+
+  /**
+   * Indexes all collections of a store which was created before key directory was introduced. It
+   * is done only once, the store is marked by a system key afterwards. Complexity O(N), where N is
+   * total number of collection K-Vs
+   * @param map sorted map storage
+   * @return number of indexed keys, -1 - store is already indexed
+   */
+  public static long rebuildIfNeeded(BigSortedMap map) {
+    long markerPtr = UnsafeAccess.allocAndCopy(MARKER, 0, MARKER.length);
+    int markerSize = DBSystem.getSystemKeySize(MARKER.length);
+    try {
+      if (map.exists(DBSystem.buildKey(markerPtr, MARKER.length), markerSize)) {
+        return -1;
+      }
+      long start = System.currentTimeMillis();
+      long total = 0;
+      for (DataType type : TYPES) {
+        total += rebuild(map, type);
+      }
+      long valuePtr = valueArena.get();
+      UnsafeAccess.putByte(valuePtr, (byte) 1);
+      map.put(DBSystem.buildKey(markerPtr, MARKER.length), markerSize, valuePtr,
+        Utils.SIZEOF_BYTE, 0);
+      log.debug("Indexed {} keys in {}ms", total, System.currentTimeMillis() - start);
+      return total;
+    } finally {
+      UnsafeAccess.free(markerPtr);
+    }
+  }
+
+  /**
+   * Indexes all keys of a given type
+   * @param map sorted map storage
+   * @param type data type
+   * @return number of keys
+   */
+  private static long rebuild(BigSortedMap map, DataType type) {
+    long startPtr = UnsafeAccess.malloc(Utils.SIZEOF_BYTE);
+    UnsafeAccess.putByte(startPtr, (byte) type.ordinal());
+    int startSize = Utils.SIZEOF_BYTE;
+    long endPtr = UnsafeAccess.malloc(Utils.SIZEOF_BYTE);
+    UnsafeAccess.putByte(endPtr, (byte) (type.ordinal() + 1));
+    List<Key> keys = new ArrayList<Key>();
+    long total = 0;
+    try {
+      while (true) {
+        // Collect keys in a batch, scanner must be closed before we update the map
+        BigSortedMapScanner scanner =
+            map.getScanner(startPtr, startSize, endPtr, Utils.SIZEOF_BYTE);
+        if (scanner == null) {
+          break;
+        }
+        try {
+          while (scanner.hasNext() && keys.size() < REBUILD_BATCH_SIZE) {
+            long ptr = scanner.keyAddress();
+            int size = scanner.keySize();
+            scanner.next();
+            if (size <= KEY_SIZE + Utils.SIZEOF_BYTE) {
+              continue;
+            }
+            long extSize = DataType.externalKeyLength(ptr);
+            if (extSize <= 0 || extSize + KEY_SIZE + Utils.SIZEOF_BYTE > size) {
+              // Corrupted key: do not fail the whole rebuild
+              log.warn("Skipped malformed {} key: size={} key length={}", type, size, extSize);
+              continue;
+            }
+            int prefixSize = (int) extSize + KEY_SIZE + Utils.SIZEOF_BYTE;
+            if (keys.size() > 0) {
+              Key last = keys.get(keys.size() - 1);
+              if (Utils.compareTo(last.address, last.length, ptr, prefixSize) == 0) {
+                // Next K-V of the same collection
+                continue;
+              }
+            }
+            long kPtr = UnsafeAccess.malloc(prefixSize);
+            UnsafeAccess.copy(ptr, kPtr, prefixSize);
+            keys.add(new Key(kPtr, prefixSize));
+          }
+        } finally {
+          scanner.close();
+        }
+        if (keys.size() == 0) {
+          break;
+        }
+        for (Key k : keys) {
+          long keyPtr = DataType.internalKeyToExternalKeyAddress(k.address);
+          int keySize = k.length - KEY_SIZE - Utils.SIZEOF_BYTE;
+          int set = typeBit(type);
+          if (type == DataType.HASH && contains(getTypes(map, keyPtr, keySize), DataType.SET)) {
+            // Set and hash under the same key is a sorted set in a normal mode
+            set |= typeBit(DataType.ZSET);
+          }
+          update(map, keyPtr, keySize, set, 0);
+        }
+        total += keys.size();
+        // Continue after the last collection
+        Key last = keys.get(keys.size() - 1);
+        UnsafeAccess.free(startPtr);
+        startSize = nextPrefix(last.address, last.length);
+        startPtr = last.address;
+        for (int i = 0; i < keys.size() - 1; i++) {
+          UnsafeAccess.free(keys.get(i).address);
+        }
+        keys.clear();
+        if (startSize == 0) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      // should never be thrown
+    } finally {
+      UnsafeAccess.free(startPtr);
+      UnsafeAccess.free(endPtr);
+      for (Key k : keys) {
+        UnsafeAccess.free(k.address);
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Converts key prefix in place into the smallest key which is greater than all keys starting
+   * with this prefix
+   * @param ptr prefix address
+   * @param size prefix size
+   * @return new key size, 0 - no such key
+   */
+  private static int nextPrefix(long ptr, int size) {
+    for (int i = size - 1; i >= 0; i--) {
+      int v = UnsafeAccess.toByte(ptr + i) & 0xff;
+      if (v != 0xff) {
+        UnsafeAccess.putByte(ptr + i, (byte) (v + 1));
+        return i + 1;
+      }
+    }
+    return 0;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import com.carrotdata.redcarrot.DataBlock;
+import com.carrotdata.redcarrot.ops.Operation;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * This read-modify-write mutation is executed atomically and isolated. It sets and clears type bits
+ * of a key directory record. The record is created when the first bit is set and deleted when the
+ * last bit is cleared. Operation fails (returns false) when there is nothing to update
+ */
+public class KeyDirectoryUpdate extends Operation {
+
+  /* Buffer for a new record value */
+  private long buffer = UnsafeAccess.malloc(Utils.SIZEOF_BYTE);
+
+  int setMask;
+  int clearMask;
+
+  /* Type mask after update */
+  int types;
+
+  public KeyDirectoryUpdate() {
+    setReadOnly(false);
+  }
+
+  /**
+   * Sets type bits to set and to clear
+   * @param set bits to set
+   * @param clear bits to clear
+   */
+  public void setMasks(int set, int clear) {
+    this.setMask = set;
+    this.clearMask = clear;
+  }
+
+  /**
+   * Get type mask after update
+   * @return type mask
+   */
+  public int getTypes() {
+    return this.types;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    setReadOnly(false);
+    this.setMask = 0;
+    this.clearMask = 0;
+    this.types = 0;
+  }
+
+  @Override
+  public boolean execute() {
+    this.updatesCount = 0;
+    if (foundRecordAddress <= 0) {
+      this.types = this.setMask & ~this.clearMask;
+      if (this.types == 0) {
+        // Nothing to update
+        return false;
+      }
+      // Insert new record
+      UnsafeAccess.putByte(buffer, (byte) this.types);
+      this.updatesCount = 1;
+      this.keys[0] = keyAddress;
+      this.keySizes[0] = keySize;
+      this.values[0] = buffer;
+      this.valueSizes[0] = Utils.SIZEOF_BYTE;
+      return true;
+    }
+    if (DataBlock.valueLength(foundRecordAddress) != Utils.SIZEOF_BYTE) {
+      return false;
+    }
+    long ptr = DataBlock.valueAddress(foundRecordAddress);
+    int old = UnsafeAccess.toByte(ptr) & 0xff;
+    this.types = (old | this.setMask) & ~this.clearMask;
+    if (this.types == old) {
+      // Nothing to update
+      return false;
+    }
+    if (this.types == 0) {
+      // No types left - delete record
+      this.updatesCount = 1;
+      this.keys[0] = DataBlock.keyAddress(foundRecordAddress);
+      this.keySizes[0] = DataBlock.keyLength(foundRecordAddress);
+      this.updateTypes[0] = true;
+      return true;
+    }
+    UnsafeAccess.putByte(ptr, (byte) this.types);
+    setUpdateInPlace(true);
+    return true;
+  }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import static com.carrotdata.redcarrot.redis.util.Commons.KEY_SIZE;
+import static com.carrotdata.redcarrot.redis.util.Commons.NUM_ELEM_SIZE;
+import static com.carrotdata.redcarrot.redis.util.Commons.numElementsInValue;
+
+import java.io.IOException;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.BigSortedMapScanner;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Metadata of packed collections (sets and hashes). Metadata is kept in a separate K-V under the
+ * collection key without suffix:
+ * <p>
+ * [TYPE][KEY_SIZE][KEY] -> [ELEMENT_COUNT][SIZE][CHUNK_COUNT]
+ * <p>
+ * ELEMENT_COUNT - number of elements (8 bytes), SIZE - total size of serialized elements (8 bytes),
+ * CHUNK_COUNT - number of K-Vs the collection is packed into (8 bytes). This key sorts right
+ * before the first K-V of a collection ([TYPE][KEY_SIZE][KEY]'\0'), therefore collection scanners
+ * and range deletes do not see it.
+ * <p>
+ * Metadata is updated by a collection mutation under the same key lock, the record is removed when
+ * collection becomes empty. Creation and removal of a collection are reported to KeyDirectory.
+ * Collections created before metadata was introduced do not have it, for them it is calculated by
+ * scanning the collection and restored on a first mutation.
+ */
+public class Metadata {
+
+  public static final int COUNT_OFFSET = 0;
+  public static final int SIZE_OFFSET = Utils.SIZEOF_LONG;
+  public static final int CHUNKS_OFFSET = 2 * Utils.SIZEOF_LONG;
+  public static final int METADATA_SIZE = 3 * Utils.SIZEOF_LONG;
+
+  private static ThreadLocal<Long> keyArena = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      return UnsafeAccess.malloc(512);
+    }
+  };
+
+  private static ThreadLocal<Integer> keyArenaSize = new ThreadLocal<Integer>() {
+    @Override
+    protected Integer initialValue() {
+      return 512;
+    }
+  };
+
+  private static ThreadLocal<Long> valueArena = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      return UnsafeAccess.malloc(METADATA_SIZE);
+    }
+  };
+
+  private static ThreadLocal<MetadataUpdate> metadataUpdate = new ThreadLocal<MetadataUpdate>() {
+    @Override
+    protected MetadataUpdate initialValue() {
+      return new MetadataUpdate();
+    }
+  };
+
+  /**
+   * Checks key arena size
+   * @param required size
+   */
+  static void checkKeyArena(int required) {
+    int size = keyArenaSize.get();
+    if (size >= required) {
+      return;
+    }
+    long ptr = UnsafeAccess.realloc(keyArena.get(), required);
+    keyArena.set(ptr);
+    keyArenaSize.set(required);
+  }
+
+  /**
+   * Build metadata key. It uses thread local key arena
+   * @param type collection type
+   * @param keyPtr collection key address
+   * @param keySize collection key size
+   * @return metadata key size
+   */
+  static int buildKey(DataType type, long keyPtr, int keySize) {
+    int kSize = KEY_SIZE + keySize + Utils.SIZEOF_BYTE;
+    checkKeyArena(kSize);
+    long arena = keyArena.get();
+    UnsafeAccess.putByte(arena, (byte) type.ordinal());
+    UnsafeAccess.putInt(arena + Utils.SIZEOF_BYTE, keySize);
+    UnsafeAccess.copy(keyPtr, arena + KEY_SIZE + Utils.SIZEOF_BYTE, keySize);
+    return kSize;
+  }
+
+  /**
+   * Get number of elements in a collection
+   * @param map sorted map storage
+   * @param type collection type
+   * @param keyPtr collection key address
+   * @param keySize collection key size
+   * @return number of elements, 0 - if collection does not exist
+   */
+  public static long getCount(BigSortedMap map, DataType type, long keyPtr, int keySize) {
+    return get(map, type, keyPtr, keySize, COUNT_OFFSET);
+  }
+
+  /**
+   * Get total serialized size of collection elements (not including keys)
+   * @param map sorted map storage
+   * @param type collection type
+   * @param keyPtr collection key address
+   * @param keySize collection key size
+   * @return size in bytes, 0 - if collection does not exist
+   */
+  public static long getSize(BigSortedMap map, DataType type, long keyPtr, int keySize) {
+    return get(map, type, keyPtr, keySize, SIZE_OFFSET);
+  }
+
+  /**
+   * Get number of K-Vs collection is packed into
+   * @param map sorted map storage
+   * @param type collection type
+   * @param keyPtr collection key address
+   * @param keySize collection key size
+   * @return number of K-Vs, 0 - if collection does not exist
+   */
+  public static long getChunks(BigSortedMap map, DataType type, long keyPtr, int keySize) {
+    return get(map, type, keyPtr, keySize, CHUNKS_OFFSET);
+  }
+
+  private static long get(BigSortedMap map, DataType type, long keyPtr, int keySize, int offset) {
+    int kSize = buildKey(type, keyPtr, keySize);
+    long ptr = valueArena.get();
+    long size = map.get(keyArena.get(), kSize, ptr, METADATA_SIZE, 0);
+    if (size != METADATA_SIZE) {
+      // No metadata: collection is empty, does not exist or was created by an older version
+      calculate(map, type, keyPtr, keySize, ptr);
+    }
+    return UnsafeAccess.toLong(ptr + offset);
+  }
+
+  /**
+   * Applies deltas to a collection metadata. Must be called after mutation under the same key lock.
+   * If metadata does not exist it is calculated from a scratch (new collection)
+   * @param map sorted map storage
+   * @param type collection type
+   * @param keyPtr collection key address
+   * @param keySize collection key size
+   * @param count element count delta
+   * @param size serialized size delta
+   * @param chunks chunk count delta
+   * @return number of elements after update
+   */
+  public static long update(BigSortedMap map, DataType type, long keyPtr, int keySize,
+      long count, long size, long chunks) {
+    int kSize = buildKey(type, keyPtr, keySize);
+    MetadataUpdate op = metadataUpdate.get();
+    op.reset();
+    op.setKeyAddress(keyArena.get());
+    op.setKeySize(kSize);
+    op.setDeltas(count, size, chunks);
+    if (map.execute(op)) {
+      count = op.getCount();
+      if (count == 0) {
+        KeyDirectory.remove(map, type, keyPtr, keySize);
+      }
+      return count;
+    }
+    long ptr = valueArena.get();
+    calculate(map, type, keyPtr, keySize, ptr);
+    count = UnsafeAccess.toLong(ptr + COUNT_OFFSET);
+    if (count > 0) {
+      kSize = buildKey(type, keyPtr, keySize);
+      map.put(keyArena.get(), kSize, ptr, METADATA_SIZE, 0);
+      KeyDirectory.add(map, type, keyPtr, keySize);
+    }
+    return count;
+  }
+
+  /**
+   * Sets collection metadata. It is used when collection is created in bulk
+   * @param map sorted map storage
+   * @param type collection type
+   * @param keyPtr collection key address
+   * @param keySize collection key size
+   * @param count number of elements
+   * @param size serialized size of elements
+   * @param chunks number of K-Vs
+   */
+  public static void set(BigSortedMap map, DataType type, long keyPtr, int keySize, long count,
+      long size, long chunks) {
+    if (count <= 0) {
+      delete(map, type, keyPtr, keySize);
+      KeyDirectory.remove(map, type, keyPtr, keySize);
+      return;
+    }
+    int kSize = buildKey(type, keyPtr, keySize);
+    long ptr = valueArena.get();
+    UnsafeAccess.putLong(ptr + COUNT_OFFSET, count);
+    UnsafeAccess.putLong(ptr + SIZE_OFFSET, size);
+    UnsafeAccess.putLong(ptr + CHUNKS_OFFSET, chunks);
+    map.put(keyArena.get(), kSize, ptr, METADATA_SIZE, 0);
+    KeyDirectory.add(map, type, keyPtr, keySize);
+  }
+
+  /**
+   * Deletes collection metadata
+   * @param map sorted map storage
+   * @param type collection type
+   * @param keyPtr collection key address
+   * @param keySize collection key size
+   * @return true - deleted, false - did not exist
+   */
+  public static boolean delete(BigSortedMap map, DataType type, long keyPtr, int keySize) {
+    int kSize = buildKey(type, keyPtr, keySize);
+    return map.delete(keyArena.get(), kSize);
+  }
+
+  /**
+   * Calculates collection metadata by scanning all its K-Vs. Complexity O(N)
+   * @param map sorted map storage
+   * @param type collection type
+   * @param keyPtr collection key address
+   * @param keySize collection key size
+   * @param ptr buffer to write metadata to (METADATA_SIZE)
+   */
+  private static void calculate(BigSortedMap map, DataType type, long keyPtr, int keySize,
+      long ptr) {
+    long count = 0, size = 0, chunks = 0;
+    int kSize = buildKey(type, keyPtr, keySize) + 1;
+    checkKeyArena(kSize);
+    long startKeyPtr = keyArena.get();
+    // First K-V of a collection has '\0' suffix
+    UnsafeAccess.putByte(startKeyPtr + kSize - 1, (byte) 0);
+    int endKeySize = kSize - 1;
+    long endKeyPtr = Utils.prefixKeyEnd(startKeyPtr, endKeySize);
+    if (endKeyPtr == 0) {
+      endKeySize = 0;
+    }
+    BigSortedMapScanner scanner = map.getScanner(startKeyPtr, kSize, endKeyPtr, endKeySize);
+    try {
+      if (scanner != null) {
+        while (scanner.hasNext()) {
+          long valuePtr = scanner.valueAddress();
+          count += numElementsInValue(valuePtr);
+          size += Commons.dataSize(valuePtr, scanner.valueSize()) - NUM_ELEM_SIZE;
+          chunks++;
+          scanner.next();
+        }
+        scanner.close();
+      }
+    } catch (IOException e) {
+      // should never be thrown
+    } finally {
+      if (endKeyPtr > 0) {
+        UnsafeAccess.free(endKeyPtr);
+      }
+    }
+    UnsafeAccess.putLong(ptr + COUNT_OFFSET, count);
+    UnsafeAccess.putLong(ptr + SIZE_OFFSET, size);
+    UnsafeAccess.putLong(ptr + CHUNKS_OFFSET, chunks);
+  }
+}
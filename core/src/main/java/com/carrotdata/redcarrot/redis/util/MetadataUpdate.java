@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import static com.carrotdata.redcarrot.redis.util.Metadata.CHUNKS_OFFSET;
+import static com.carrotdata.redcarrot.redis.util.Metadata.COUNT_OFFSET;
+import static com.carrotdata.redcarrot.redis.util.Metadata.METADATA_SIZE;
+import static com.carrotdata.redcarrot.redis.util.Metadata.SIZE_OFFSET;
+
+import com.carrotdata.redcarrot.DataBlock;
+import com.carrotdata.redcarrot.ops.Operation;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+
+/**
+ * This read-modify-write mutation is executed atomically and isolated. It applies element count,
+ * size and chunk count deltas to an existing collection metadata record. The record is deleted when
+ * the element count drops to zero
+ */
+public class MetadataUpdate extends Operation {
+
+  long countDelta;
+  long sizeDelta;
+  long chunksDelta;
+
+  /* Element count after update */
+  long count;
+
+  public MetadataUpdate() {
+    setReadOnly(false);
+  }
+
+  /**
+   * Sets deltas to apply
+   * @param count element count delta
+   * @param size serialized size delta
+   * @param chunks chunk count delta
+   */
+  public void setDeltas(long count, long size, long chunks) {
+    this.countDelta = count;
+    this.sizeDelta = size;
+    this.chunksDelta = chunks;
+  }
+
+  /**
+   * Get element count after update
+   * @return element count
+   */
+  public long getCount() {
+    return this.count;
+  }
+
+  @Override
+  public void reset() {
+    super.reset();
+    setReadOnly(false);
+    this.countDelta = 0;
+    this.sizeDelta = 0;
+    this.chunksDelta = 0;
+    this.count = 0;
+  }
+
+  @Override
+  public boolean execute() {
+    if (foundRecordAddress <= 0) {
+      return false;
+    }
+    if (DataBlock.valueLength(foundRecordAddress) != METADATA_SIZE) {
+      return false;
+    }
+    long ptr = DataBlock.valueAddress(foundRecordAddress);
+    this.count = UnsafeAccess.toLong(ptr + COUNT_OFFSET) + countDelta;
+    if (this.count <= 0) {
+      // Collection is empty - delete metadata
+      this.count = 0;
+      this.updatesCount = 1;
+      this.keys[0] = DataBlock.keyAddress(foundRecordAddress);
+      this.keySizes[0] = DataBlock.keyLength(foundRecordAddress);
+      this.updateTypes[0] = true;
+      return true;
+    }
+    UnsafeAccess.putLong(ptr + COUNT_OFFSET, count);
+    UnsafeAccess.putLong(ptr + SIZE_OFFSET, UnsafeAccess.toLong(ptr + SIZE_OFFSET) + sizeDelta);
+    UnsafeAccess.putLong(ptr + CHUNKS_OFFSET,
+      UnsafeAccess.toLong(ptr + CHUNKS_OFFSET) + chunksDelta);
+    setUpdateInPlace(true);
+    this.updatesCount = 0;
+    return true;
+  }
+}
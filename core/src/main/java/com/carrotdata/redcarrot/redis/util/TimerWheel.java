@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timer wheel. Timers are put into slots by their deadline tick, advancing the wheel visits
+ * only slots of elapsed ticks, so adding a timer and expiring it are O(1). Timers which are due in
+ * later rounds stay in their slots until then. Not thread-safe: it is owned by a single thread.
+ * Timers can not be cancelled - an owner ignores expired values which are not relevant anymore.
+ * @param <T> timer value type
+ */
+public class TimerWheel<T> {
+
+  private static class Timer<T> {
+    final T value;
+    final long deadline;
+
+    Timer(T value, long deadline) {
+      this.value = value;
+      this.deadline = deadline;
+    }
+  }
+
+  /*
+   * Wheel slots
+   */
+  private final ArrayList<Timer<T>>[] slots;
+
+  /*
+   * Tick duration in ms
+   */
+  private final long tick;
+
+  /*
+   * Last processed tick
+   */
+  private long currentTick;
+
+  /*
+   * Number of timers
+   */
+  private int size;
+
+  /**
+   * Constructor
+   * @param numSlots number of slots
+   * @param tick tick duration in ms
+   * @param now current time in ms
+   */
+  @SuppressWarnings("unchecked")
+  public TimerWheel(int numSlots, long tick, long now) {
+    this.slots = new ArrayList[numSlots];
+    for (int i = 0; i < numSlots; i++) {
+      slots[i] = new ArrayList<Timer<T>>();
+    }
+    this.tick = tick;
+    this.currentTick = now / tick;
+  }
+
+  /**
+   * Tick duration
+   * @return tick duration in ms
+   */
+  public long getTick() {
+    return tick;
+  }
+
+  /**
+   * Number of timers
+   * @return number of timers
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Adds new timer
+   * @param value timer value
+   * @param deadline time (in ms) when the timer expires
+   */
+  public void add(T value, long deadline) {
+    // Round up: a timer never expires before its deadline
+    long t = Math.max((deadline + tick - 1) / tick, currentTick + 1);
+    slots[(int) (t % slots.length)].add(new Timer<T>(value, deadline));
+    size++;
+  }
+
+  /**
+   * Advances the wheel to a given time
+   * @param now current time in ms
+   * @param expired consumer of expired timer values
+   */
+  public void advance(long now, Consumer<T> expired) {
+    long nowTick = now / tick;
+    if (nowTick <= currentTick) {
+      return;
+    }
+    long from = currentTick + 1;
+    // All slots are visited at most once
+    long to = Math.min(nowTick, currentTick + slots.length);
+    currentTick = nowTick;
+    for (long t = from; t <= to && size > 0; t++) {
+      ArrayList<Timer<T>> slot = slots[(int) (t % slots.length)];
+      int n = 0;
+      for (int i = 0; i < slot.size(); i++) {
+        Timer<T> timer = slot.get(i);
+        if (timer.deadline <= now) {
+          size--;
+          expired.accept(timer.value);
+        } else {
+          // Next round
+          slot.set(n++, timer);
+        }
+      }
+      while (slot.size() > n) {
+        slot.remove(slot.size() - 1);
+      }
+    }
+  }
+}
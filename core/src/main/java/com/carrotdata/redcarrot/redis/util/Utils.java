@@ -114,6 +114,80 @@ public class Utils {
     return true;
   }
 
+  /**
+   * Returns size of the first request in a buffer's range [off, limit). Buffer may contain
+   * several pipelined requests, the last one can be incomplete. Both RESP arrays of bulk strings
+   * and inline (telnet mode, terminated by a new line) requests are supported. Buffer's position
+   * and limit are not changed
+   * @param buf request data
+   * @param off offset of the request
+   * @param limit end of data (exclusive)
+   * @return request size, 0 - request is not complete yet, -1 - wrong request format
+   */
+  public static int requestSize(ByteBuffer buf, int off, int limit) {
+    if (off >= limit) {
+      return 0;
+    }
+    if (ARR_TYPE != buf.get(off)) {
+      // In-line request
+      for (int i = off; i < limit; i++) {
+        if (buf.get(i) == (byte) '\n') {
+          return i - off + 1;
+        }
+      }
+      return 0;
+    }
+    try {
+      int eol = indexOfCRLF(buf, off, limit);
+      if (eol < 0) {
+        return 0;
+      }
+      long len = strToLong(buf, off + 1, eol - off - 1);
+      int pos = eol + 2;
+      for (int i = 0; i < len; i++) {
+        if (pos >= limit) {
+          return 0;
+        }
+        if (buf.get(pos) != BULK_TYPE) {
+          return -1;
+        }
+        eol = indexOfCRLF(buf, pos, limit);
+        if (eol < 0) {
+          return 0;
+        }
+        long strlen = strToLong(buf, pos + 1, eol - pos - 1);
+        if (strlen < 0) {
+          return -1;
+        }
+        // 2 - \r\n
+        long next = eol + 2 + strlen + 2;
+        if (next > limit) {
+          return 0;
+        }
+        pos = (int) next;
+      }
+      return pos - off;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  /**
+   * Finds next CR/LF combo
+   * @param buf byte buffer
+   * @param off start offset
+   * @param limit end of data (exclusive)
+   * @return offset of CR or -1, if not found
+   */
+  private static int indexOfCRLF(ByteBuffer buf, int off, int limit) {
+    for (int i = off; i < limit - 1; i++) {
+      if (buf.get(i) == (byte) '\r' && buf.get(i + 1) == (byte) '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
   public static boolean arrayResponseIsComplete(ByteBuffer buf) {
 
     if (buf.position() == 0) return false;
@@ -590,7 +664,7 @@ public class Utils {
     ptr += SIZEOF_INT;
     longToStr(len, buf, buf.position());
     buf.put(CRLF);
-
+    // Null array has length -1
     for (int i = 0; i < len; i++) {
       int size = UnsafeAccess.toInt(ptr);
       ptr += SIZEOF_INT;
@@ -622,7 +696,10 @@ public class Utils {
   }
 
   private static void serializeObject(Object obj, ByteBuffer buf) {
-    if (obj instanceof Long) {
+    if (obj == null) {
+      // NULL bulk string
+      serializeString(null, buf);
+    } else if (obj instanceof Long) {
       Long value = (Long) obj;
       serializeLong(value, buf);
     } else if (obj instanceof String) {
@@ -989,7 +1066,7 @@ public class Utils {
     char[] chars = new char[len - 1];
     range[0].getChars(0, len - 1, chars, 0);
     // In theory this can break, but in practice - not (I hope)
-    chars[len - 1] += 1;
+    chars[len - 2] += 1;
     range[1] = new String(chars);
     return range;
   }
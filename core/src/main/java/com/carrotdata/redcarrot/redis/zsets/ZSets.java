@@ -19,6 +19,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.PriorityQueue;
 
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.redis.RedisConf;
@@ -30,6 +31,8 @@ import com.carrotdata.redcarrot.redis.sets.SetScanner;
 import com.carrotdata.redcarrot.redis.sets.Sets;
 import com.carrotdata.redcarrot.redis.util.Aggregate;
 import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
+import com.carrotdata.redcarrot.redis.util.Metadata;
 import com.carrotdata.redcarrot.redis.util.MutationOptions;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.KeyValue;
@@ -364,6 +367,7 @@ public class ZSets {
       int toAdd = memberPtrs.length;
       int inserted = 0;
       int updated = 0;
+      boolean anyExisted = false;
       boolean maybeCompactMode = !Hashes.keyExists(map, keyPtr, keySize) && keyExists;
       RedisConf conf = RedisConf.getInstance();
       // FIXME: performance
@@ -376,6 +380,7 @@ public class ZSets {
           prevScore = removeIfExistsWithOptions(map, keyPtr, keySize, memberPtrs[i], memberSizes[i],
             maybeCompactMode, maxCompactSize, options);
           existed = prevScore != null;
+          anyExisted |= existed;
         }
         if (existed && options == MutationOptions.NX || !existed && options == MutationOptions.XX) {
           continue;
@@ -387,7 +392,10 @@ public class ZSets {
         add.reset();
         add.setKeyAddress(keyArena.get());
         add.setKeySize(kSize);
-        map.execute(add);
+        if (map.execute(add)) {
+          Metadata.update(map, DataType.SET, keyPtr, keySize, 1, add.getSizeDelta(),
+            add.getChunksDelta());
+        }
         if (!existed) {
           inserted++;
         }
@@ -399,6 +407,10 @@ public class ZSets {
       if (maybeCompactMode) {
         // convert to normal representation if cardinality > maxCompactSize
         int count = (int) Sets.SCARD(map, keyPtr, keySize);
+        if (anyExisted && count <= toAdd) {
+          // The set could have been re-created after its last member was removed
+          KeyDirectory.add(map, DataType.ZSET, keyPtr, keySize);
+        }
         if (count >= maxCompactSize) {
           convertToNormalMode(map, keyPtr, keySize, count);
         }
@@ -412,13 +424,6 @@ public class ZSets {
     }
   }
 
-  private static long ZINCRCARD(BigSortedMap map, long keyPtr, int keySize, long incr) {
-    if (incr != 0) {
-      return Sets.SINCRCARD(map, keyPtr, keySize, incr);
-    }
-    return 0;
-  }
-
   // TODO: FIXME - does not look like a correct and optimal
   private static long ZADD_NEW(BigSortedMap map, long keyPtr, int keySize, double[] scores,
       long[] memberPtrs, int[] memberSizes) {
@@ -429,6 +434,9 @@ public class ZSets {
       int maxCompactSize = conf.getMaxZSetCompactSize();
       List<Value> lv = forSet(scores, memberPtrs, memberSizes);
       int added = Sets.SADD_NEW(map, keyPtr, keySize, Utils.copyValues(lv));
+      if (added > 0) {
+        KeyDirectory.add(map, DataType.ZSET, keyPtr, keySize);
+      }
       // TODO: memory leak
       Utils.freeKeys(lv);
       if (added >= maxCompactSize) {
@@ -471,7 +479,9 @@ public class ZSets {
       Collections.sort(members);
       copy = Utils.copyValueScores(members);
       int added = Sets.SADD_NEW_ZADD(map, keyPtr, keySize, copy);
-
+      if (added > 0) {
+        KeyDirectory.add(map, DataType.ZSET, keyPtr, keySize);
+      }
       return added;
     } finally {
       map.writeUnlock();
@@ -560,8 +570,8 @@ public class ZSets {
         // Copy member field
         UnsafeAccess.copy(memberPtr, valueBuf + Utils.SIZEOF_DOUBLE, memberSize);
         // Delete - do not lock again!!!
-        int res = Sets.SREM(map, keyPtr, keySize, valueBuf, Utils.SIZEOF_DOUBLE + memberSize, false,
-          false);
+        int res =
+            Sets.SREM(map, keyPtr, keySize, valueBuf, Utils.SIZEOF_DOUBLE + memberSize, false);
         assert (res == 1);
       }
     }
@@ -612,7 +622,7 @@ public class ZSets {
         if (options != MutationOptions.NX) {
           checkValueArena(size);
           UnsafeAccess.copy(ptr, valueArena.get(), size);
-          int res = Sets.SREM(map, keyPtr, keySize, valueArena.get(), size, false, false);
+          int res = Sets.SREM(map, keyPtr, keySize, valueArena.get(), size, false);
           assert (res == 1);
         }
       }
@@ -764,7 +774,7 @@ public class ZSets {
       long[] memberPtrs, int[] memberSizes, MutationOptions options) {
 
     int toAdd = memberPtrs.length;
-    long count = 0;
+    long count = 0, added = 0, size = 0, chunks = 0;
     for (int i = 0; i < toAdd; i++) {
       long fieldPtr = memberPtrs[i];
       int fieldSize = memberSizes[i];
@@ -783,8 +793,14 @@ public class ZSets {
       // version?
       if (map.execute(set)) {
         count++;
+        added += set.getAdded();
+        size += set.getSizeDelta();
+        chunks += set.getChunksDelta();
       }
     }
+    if (count > 0) {
+      Metadata.update(map, DataType.HASH, keyPtr, keySize, added, size, chunks);
+    }
     return count;
   }
 
@@ -1025,8 +1041,8 @@ public class ZSets {
           // member exists in ZSET
           // Remove from SET first - create full member in a buffer
           UnsafeAccess.copy(memberPtr, buffer + Utils.SIZEOF_DOUBLE, memberSize);
-          int res = Sets.SREM(map, keyPtr, keySize, buffer, memberSize + Utils.SIZEOF_DOUBLE, false,
-            false);
+          int res =
+              Sets.SREM(map, keyPtr, keySize, buffer, memberSize + Utils.SIZEOF_DOUBLE, false);
           assert (res == 1);
           score += Utils.lexToDouble(buffer);
           exists = true;
@@ -1038,8 +1054,8 @@ public class ZSets {
         checkValueArena(memberSize + Utils.SIZEOF_DOUBLE);
         buffer = valueArena.get();
         UnsafeAccess.copy(memberPtr, buffer + Utils.SIZEOF_DOUBLE, memberSize);
-        int res = Sets.SADD(map, keyPtr, keySize, buffer, memberSize + Utils.SIZEOF_DOUBLE, false,
-          result < 0);
+        int res =
+            Sets.SADD(map, keyPtr, keySize, buffer, memberSize + Utils.SIZEOF_DOUBLE, false);
         assert (res == 1);
 
       } else {
@@ -1072,7 +1088,7 @@ public class ZSets {
             scanner = null;
           }
           if (found) {
-            int res = Sets.SREM(map, keyPtr, keySize, foundPtr, foundSize, false, false);
+            int res = Sets.SREM(map, keyPtr, keySize, foundPtr, foundSize, false);
             assert (res == 1);
             UnsafeAccess.free(foundPtr);
           }
@@ -1082,9 +1098,13 @@ public class ZSets {
         long buffer = valueArena.get();
         Utils.doubleToLex(buffer, score);
         UnsafeAccess.copy(memberPtr, buffer + Utils.SIZEOF_DOUBLE, memberSize);
-        int res = Sets.SADD(map, keyPtr, keySize, buffer, memberSize + Utils.SIZEOF_DOUBLE, false,
-          !found);
+        int res =
+            Sets.SADD(map, keyPtr, keySize, buffer, memberSize + Utils.SIZEOF_DOUBLE, false);
         assert (res == 1);
+        if (cardinality == 0 || cardinality == 1 && found) {
+          // New sorted set or the set was re-created after its only member was removed
+          KeyDirectory.add(map, DataType.ZSET, keyPtr, keySize);
+        }
         if (!exists && (cardinality + 1) == maxCompactSize) {
           convertToNormalMode(map, keyPtr, keySize, cardinality + 1);
         }
@@ -1103,6 +1123,31 @@ public class ZSets {
     return score;
   }
 
+  /**
+   * For testing only
+   * @param map sorted map storage
+   * @param dstKey destination key
+   * @param keys sorted sets keys
+   * @param weights corresponding weights
+   * @param aggregate aggregate function
+   * @return number of members in a destination set
+   */
+  public static long ZINTERSTORE(BigSortedMap map, String dstKey, String[] keys, double[] weights,
+      Aggregate aggregate) {
+    long dstKeyPtr = UnsafeAccess.allocAndCopy(dstKey, 0, dstKey.length());
+    long[] keyPtrs = new long[keys.length];
+    int[] keySizes = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      keyPtrs[i] = UnsafeAccess.allocAndCopy(keys[i], 0, keys[i].length());
+      keySizes[i] = keys[i].length();
+    }
+    long result =
+        ZINTERSTORE(map, dstKeyPtr, dstKey.length(), keyPtrs, keySizes, weights, aggregate);
+    UnsafeAccess.free(dstKeyPtr);
+    Arrays.stream(keyPtrs).forEach(x -> UnsafeAccess.free(x));
+    return result;
+  }
+
   /**
    * Available since 2.0.0. Time complexity: O(N*K)+O(M*log(M)) worst case with N being the smallest
    * input sorted set, K being the number of input sorted sets and M being the number of elements in
@@ -1126,8 +1171,7 @@ public class ZSets {
    */
   public static long ZINTERSTORE(BigSortedMap map, long dstKeyPtr, int dstKeySize, long[] keys,
       int[] keySizes, double[] weights, Aggregate aggregate) {
-    // TODO
-    return 0;
+    return aggregateStore(map, dstKeyPtr, dstKeySize, keys, keySizes, weights, aggregate, true);
   }
 
   /**
@@ -1364,8 +1408,6 @@ public class ZSets {
       if (ptr > buffer + bufferSize) {
         return ptr - buffer;
       }
-
-      map.writeLock();
       // TODO: optimize when deleted == cardinality
       bulkDelete(map, buffer, keyPtr, keySize, normalMode);
       // Restore total size
@@ -1496,7 +1538,6 @@ public class ZSets {
       if (ptr > buffer + bufferSize) {
         return ptr - buffer;
       }
-      map.writeLock();
       // if (cardinality > deleted) {
       bulkDelete(map, buffer, keyPtr, keySize, normalMode);
       // Restore total size
@@ -2463,6 +2504,30 @@ public class ZSets {
     return result;
   }
 
+  /**
+   * Builds (score, member) set element in the auxiliary arena. Member's score is taken from the
+   * member -> score hash, which exists only in a normal (not compact) mode
+   * @param map sorted map storage
+   * @param keyPtr sorted set key address
+   * @param keySize sorted set key size
+   * @param memberPtr member name address
+   * @param memberSize member name size
+   * @return element size, 0 - member does not exist, -1 - sorted set is in a compact mode
+   */
+  private static int buildScoreMember(BigSortedMap map, long keyPtr, int keySize, long memberPtr,
+      int memberSize) {
+    int elSize = memberSize + Utils.SIZEOF_DOUBLE;
+    checkAuxArena(elSize);
+    long buf = auxArena.get();
+    int size =
+        Hashes.HGET(map, keyPtr, keySize, memberPtr, memberSize, buf, Utils.SIZEOF_DOUBLE, false);
+    if (size == Utils.SIZEOF_DOUBLE) {
+      UnsafeAccess.copy(memberPtr, buf + Utils.SIZEOF_DOUBLE, memberSize);
+      return elSize;
+    }
+    return Hashes.keyExists(map, keyPtr, keySize) ? 0 : -1;
+  }
+
   /**
    * Returns the rank of member in the sorted set stored at key, with the scores ordered from low to
    * high. The rank (or index) is 0-based, which means that the member with the lowest score has
@@ -2479,9 +2544,15 @@ public class ZSets {
     if (memberPtr <= 0) return -1;
     long rank = 0;
     //Key key = getKey(keyPtr, keySize);
-    // TODO this operation can be optimized
-    // Use hash to retrieve score?
-    // See Sets SCOUNT (not implemented yet)
+    // Normal mode: get member's score from the hash and count elements in the set
+    // which are less than (score, member) pair K-V by K-V
+    int elSize = buildScoreMember(map, keyPtr, keySize, memberPtr, memberSize);
+    if (elSize > 0) {
+      return Sets.SCOUNT(map, keyPtr, keySize, 0, 0, auxArena.get(), elSize);
+    } else if (elSize == 0) {
+      return -1;
+    }
+    // Compact mode - scan the set
     SetScanner scanner = null;
     try {
       //KeysLocker.readLock(key);
@@ -2577,7 +2648,7 @@ public class ZSets {
           UnsafeAccess.copy(memberPtr, buffer + Utils.SIZEOF_DOUBLE + Utils.SIZEOF_BYTE,
             memberSize);
           int res = Sets.SREM(map, keyPtr, keySize, buffer + Utils.SIZEOF_BYTE,
-            memberSize + Utils.SIZEOF_DOUBLE, false, false);
+            memberSize + Utils.SIZEOF_DOUBLE, false);
           deleted++;
         }
         // Convert to compact if necessary
@@ -2626,7 +2697,7 @@ public class ZSets {
             scanner.next();
           }
           if (foundPtr > 0) {
-            int res = Sets.SREM(map, keyPtr, keySize, foundPtr, foundSize, false, false);
+            int res = Sets.SREM(map, keyPtr, keySize, foundPtr, foundSize, false);
             assert (res > 0);
             UnsafeAccess.free(foundPtr);
           }
@@ -2700,7 +2771,7 @@ public class ZSets {
         // copy member to buffer + 1 (first byte is length of the value, which is 8)
         UnsafeAccess.copy(memberPtr, buffer + Utils.SIZEOF_DOUBLE + Utils.SIZEOF_BYTE, memberSize);
         Sets.SREM(map, keyPtr, keySize, buffer + Utils.SIZEOF_BYTE,
-          memberSize + Utils.SIZEOF_DOUBLE, false, false);
+          memberSize + Utils.SIZEOF_DOUBLE, false);
         int cardinality = (int) Sets.SCARD_COMPACT(map, keyPtr, keySize, maxCompactModeSize);
         if (cardinality > 0) {
           convertToCompactMode(map, keyPtr, keySize);
@@ -2735,7 +2806,7 @@ public class ZSets {
           scanner.next();
         }
         if (foundPtr > 0) {
-          int res = Sets.SREM(map, keyPtr, keySize, foundPtr, foundSize, false, false);
+          int res = Sets.SREM(map, keyPtr, keySize, foundPtr, foundSize, false);
           assert (res > 0);
           UnsafeAccess.free(foundPtr);
         }
@@ -4260,10 +4331,17 @@ public class ZSets {
    */
   public static long ZREVRANK(BigSortedMap map, long keyPtr, int keySize, long memberPtr,
       int memberSize) {
-    // TODO: Optimize
+    if (memberPtr <= 0) return -1;
     long rank = 0;
     //Key key = getKey(keyPtr, keySize);
-    // TODO this operation can be optimized
+    int elSize = buildScoreMember(map, keyPtr, keySize, memberPtr, memberSize);
+    if (elSize > 0) {
+      long less = Sets.SCOUNT(map, keyPtr, keySize, 0, 0, auxArena.get(), elSize);
+      return ZCARD(map, keyPtr, keySize) - less - 1;
+    } else if (elSize == 0) {
+      return -1;
+    }
+    // Compact mode - scan the set
     SetScanner scanner = null;
     try {
       //KeysLocker.readLock(key);
@@ -4717,6 +4795,31 @@ public class ZSets {
     return ptr - bufferPtr;
   }
 
+  /**
+   * For testing only
+   * @param map sorted map storage
+   * @param dstKey destination key
+   * @param keys sorted sets keys
+   * @param weights corresponding weights
+   * @param aggregate aggregate function
+   * @return number of members in a destination set
+   */
+  public static long ZUNIONSTORE(BigSortedMap map, String dstKey, String[] keys, double[] weights,
+      Aggregate aggregate) {
+    long dstKeyPtr = UnsafeAccess.allocAndCopy(dstKey, 0, dstKey.length());
+    long[] keyPtrs = new long[keys.length];
+    int[] keySizes = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      keyPtrs[i] = UnsafeAccess.allocAndCopy(keys[i], 0, keys[i].length());
+      keySizes[i] = keys[i].length();
+    }
+    long result =
+        ZUNIONSTORE(map, dstKeyPtr, dstKey.length(), keyPtrs, keySizes, weights, aggregate);
+    UnsafeAccess.free(dstKeyPtr);
+    Arrays.stream(keyPtrs).forEach(x -> UnsafeAccess.free(x));
+    return result;
+  }
+
   /**
    * Available since 2.0.0. Time complexity: O(N)+O(M log(M)) with N being the sum of the sizes of
    * the input sorted sets, and M being the number of elements in the resulting sorted set. Computes
@@ -4744,7 +4847,214 @@ public class ZSets {
    */
   public static long ZUNIONSTORE(BigSortedMap map, long dstKeyPtr, int dstKeySize, long[] keys,
       int[] keySizes, double[] weights, Aggregate aggregate) {
-    return 0;
+    return aggregateStore(map, dstKeyPtr, dstKeySize, keys, keySizes, weights, aggregate, false);
+  }
+
+  /**
+   * Computes union or intersection of sorted sets and stores it in a destination key. Input sorted
+   * sets are merged in member order (k-way merge): normal mode sorted sets are read from their
+   * hashes, which are ordered by member, compact mode sorted sets are small and get sorted by
+   * member in memory. The result is written with ZADD_NEW, which builds both the set and the hash
+   * in bulk.
+   * @param map sorted map storage
+   * @param dstKeyPtr destination key address
+   * @param dstKeySize destination key size
+   * @param keys sorted sets keys
+   * @param keySizes sorted sets key sizes
+   * @param weights corresponding weights (can be null)
+   * @param aggregate aggregate function (can be null, default - SUM)
+   * @param intersect intersection if true, union - otherwise
+   * @return number of members in a destination set
+   */
+  private static long aggregateStore(BigSortedMap map, long dstKeyPtr, int dstKeySize,
+      long[] keys, int[] keySizes, double[] weights, Aggregate aggregate, boolean intersect) {
+    if (aggregate == null) {
+      aggregate = Aggregate.SUM;
+    }
+    int n = keys.length;
+    MemberCursor[] cursors = new MemberCursor[n];
+    List<ValueScore> result = new ArrayList<ValueScore>();
+    try {
+      map.writeLock();
+      PriorityQueue<MemberCursor> queue = new PriorityQueue<MemberCursor>(Math.max(n, 1));
+      for (int i = 0; i < n; i++) {
+        cursors[i] = new MemberCursor(map, keys[i], keySizes[i], weights != null ? weights[i] : 1);
+        if (cursors[i].isValid()) {
+          queue.add(cursors[i]);
+        }
+      }
+      MemberCursor[] equal = new MemberCursor[n];
+      // Intersection is empty as soon as one of the inputs is exhausted
+      while (!queue.isEmpty() && (!intersect || queue.size() == n)) {
+        int count = 0;
+        equal[count++] = queue.poll();
+        while (!queue.isEmpty() && queue.peek().compareTo(equal[0]) == 0) {
+          equal[count++] = queue.poll();
+        }
+        if (!intersect || count == n) {
+          double score = equal[0].score();
+          for (int i = 1; i < count; i++) {
+            score = aggregate(score, equal[i].score(), aggregate);
+          }
+          int size = equal[0].memberSize();
+          long ptr = UnsafeAccess.allocAndCopy(equal[0].memberAddress(), size);
+          result.add(new ValueScore(ptr, size, score));
+        }
+        for (int i = 0; i < count; i++) {
+          if (equal[i].next()) {
+            queue.add(equal[i]);
+          }
+        }
+      }
+      // Close all scanners before the destination is overwritten, it can be one of the inputs
+      for (MemberCursor c : cursors) {
+        if (c != null) {
+          c.close();
+        }
+      }
+      DELETE(map, dstKeyPtr, dstKeySize, false);
+      if (result.size() > 0) {
+        // Members are already sorted, ZADD_NEW sorts them by score for the set
+        ZADD_NEW(map, dstKeyPtr, dstKeySize, new ArrayList<ValueScore>(result));
+      }
+      return result.size();
+    } catch (IOException e) {
+      // should never be thrown
+      return 0;
+    } finally {
+      for (MemberCursor c : cursors) {
+        if (c != null) {
+          c.close();
+        }
+      }
+      for (ValueScore vs : result) {
+        UnsafeAccess.free(vs.address);
+      }
+      map.writeUnlock();
+    }
+  }
+
+  /**
+   * Aggregates two scores, inf - inf is 0 as in Redis
+   * @param score1 first score
+   * @param score2 second score
+   * @param aggregate aggregate function
+   * @return result score
+   */
+  private static double aggregate(double score1, double score2, Aggregate aggregate) {
+    switch (aggregate) {
+      case MIN:
+        return Math.min(score1, score2);
+      case MAX:
+        return Math.max(score1, score2);
+      default:
+        double sum = score1 + score2;
+        return Double.isNaN(sum) ? 0 : sum;
+    }
+  }
+
+  /**
+   * Cursor over sorted set members in member order with weighted scores
+   */
+  private static final class MemberCursor implements Comparable<MemberCursor> {
+
+    final double weight;
+    /* Normal mode */
+    HashScanner scanner;
+    /* Compact mode */
+    List<ValueScore> members;
+    int index;
+    boolean valid;
+
+    MemberCursor(BigSortedMap map, long keyPtr, int keySize, double weight) throws IOException {
+      this.weight = weight;
+      if (Hashes.keyExists(map, keyPtr, keySize)) {
+        this.scanner = Hashes.getScanner(map, keyPtr, keySize, true);
+        this.valid = scanner != null && scanner.hasNext();
+        return;
+      }
+      SetScanner setScanner = Sets.getScanner(map, keyPtr, keySize, true);
+      if (setScanner == null) {
+        return;
+      }
+      // Compact mode: elements are [SCORE][MEMBER] ordered by score
+      this.members = new ArrayList<ValueScore>();
+      try {
+        while (setScanner.hasNext()) {
+          long ptr = setScanner.memberAddress();
+          int size = setScanner.memberSize() - Utils.SIZEOF_DOUBLE;
+          members.add(new ValueScore(UnsafeAccess.allocAndCopy(ptr + Utils.SIZEOF_DOUBLE, size),
+              size, Utils.lexToDouble(ptr)));
+          setScanner.next();
+        }
+      } finally {
+        setScanner.close();
+      }
+      Collections.sort(members, new Comparator<ValueScore>() {
+        @Override
+        public int compare(ValueScore o1, ValueScore o2) {
+          return Utils.compareTo(o1.address, o1.length, o2.address, o2.length);
+        }
+      });
+      this.valid = members.size() > 0;
+    }
+
+    boolean isValid() {
+      return valid;
+    }
+
+    long memberAddress() {
+      return scanner != null ? scanner.fieldAddress() : members.get(index).address;
+    }
+
+    int memberSize() {
+      return scanner != null ? scanner.fieldSize() : members.get(index).length;
+    }
+
+    double score() {
+      double score = scanner != null ? Utils.lexToDouble(scanner.fieldValueAddress())
+          : members.get(index).score;
+      score *= weight;
+      // 0 * inf
+      return Double.isNaN(score) ? 0 : score;
+    }
+
+    /**
+     * Advances cursor
+     * @return true if cursor has more members, false - otherwise
+     * @throws IOException
+     */
+    boolean next() throws IOException {
+      if (scanner != null) {
+        scanner.next();
+        valid = scanner.hasNext();
+      } else {
+        valid = ++index < members.size();
+      }
+      return valid;
+    }
+
+    @Override
+    public int compareTo(MemberCursor c) {
+      return Utils.compareTo(memberAddress(), memberSize(), c.memberAddress(), c.memberSize());
+    }
+
+    void close() {
+      if (scanner != null) {
+        try {
+          scanner.close();
+        } catch (IOException e) {
+        }
+        scanner = null;
+      }
+      if (members != null) {
+        for (ValueScore vs : members) {
+          UnsafeAccess.free(vs.address);
+        }
+        members = null;
+      }
+      valid = false;
+    }
   }
 
   /**
@@ -4775,8 +5085,7 @@ public class ZSets {
    */
   public static long BZPOPMIN(BigSortedMap map, long[] keys, int[] sizes, long timeout, long buffer,
       int bufferSize) {
-    // This is non-blocking call
-    // Timeout MUST be implemented outside of a handler thread
+    // This is non-blocking call, the server blocks connections (see BlockedClients)
     for (int i = 0; i < keys.length; i++) {
       long size = ZPOPMIN(map, keys[i], sizes[i], 1, buffer, bufferSize);
       if (size > 0) {
@@ -4814,8 +5123,7 @@ public class ZSets {
    */
   public static long BZPOPMAX(BigSortedMap map, long[] keys, int[] sizes, long timeout, long buffer,
       int bufferSize) {
-    // This is non-blocking call
-    // Timeout MUST be implemented outside of a handler thread
+    // This is non-blocking call, the server blocks connections (see BlockedClients)
     for (int i = 0; i < keys.length; i++) {
       long size = ZPOPMAX(map, keys[i], sizes[i], 1, buffer, bufferSize);
       if (size > 0) {
@@ -4993,7 +5301,7 @@ public class ZSets {
     for (int i = 0; i < total; i++) {
       int mSize = Utils.readUVInt(ptr);
       int mSizeSize = Utils.sizeUVInt(mSize);
-      int res = Sets.SREM(map, keyPtr, keySize, ptr + mSizeSize, mSize, false, false);
+      int res = Sets.SREM(map, keyPtr, keySize, ptr + mSizeSize, mSize, false);
       assert (res == 1);
       deleted += res;
       if (normalMode) {
@@ -5003,8 +5311,6 @@ public class ZSets {
       }
       ptr += mSize + mSizeSize;
     }
-    ZINCRCARD(map, keyPtr, keySize, -deleted);
-
     UnsafeAccess.putInt(memory, 0);
     return deleted;
   }
@@ -13,69 +13,128 @@ package com.carrotdata.redcarrot.storage;
 
 import java.time.LocalDateTime;
 import java.util.Date;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.RedisConf;
 
-/** Snapshot Manager */
+/**
+ * Snapshot Manager. Runs full and incremental snapshots in a background thread. When the number of
+ * incremental snapshots of a store reaches configured maximum, the manager merges them into a new
+ * full snapshot (which re-balances key range partitions)
+ */
 public class SnapshotManager {
 
   private static final Logger log = LogManager.getLogger(SnapshotManager.class);
 
-  private static SnapshotManager manager;
+  private static volatile SnapshotManager manager;
   SnapshotThread worker;
 
   private SnapshotManager() {
-    worker = new SnapshotThread();
+    worker = new SnapshotThread(RedisConf.getInstance().getSnapshotMaxDeltas());
     worker.setPriority(Thread.MIN_PRIORITY);
+    worker.setDaemon(true);
     worker.start();
   }
 
   public static SnapshotManager getInstance() {
     if (manager != null) return manager;
     synchronized (SnapshotManager.class) {
-      manager = new SnapshotManager();
+      if (manager == null) {
+        manager = new SnapshotManager();
+      }
     }
     return manager;
   }
 
+  /**
+   * Takes snapshot in a default (configured) mode
+   * @param store data store
+   * @param sync wait for completion
+   * @return false if another snapshot is in progress, true - otherwise
+   */
   public boolean takeSnapshot(BigSortedMap store, boolean sync) {
-    boolean result = worker.take(store, sync);
+    return takeSnapshot(store, sync, RedisConf.getInstance().isSnapshotIncremental(), false);
+  }
+
+  /**
+   * Takes snapshot
+   * @param store data store
+   * @param sync wait for completion
+   * @param incremental incremental if true, full - otherwise
+   * @param schedule if true - schedule snapshot even if another one is in progress
+   * @return false if another snapshot is in progress and schedule is false, true - otherwise
+   */
+  public boolean takeSnapshot(BigSortedMap store, boolean sync, boolean incremental,
+      boolean schedule) {
+    boolean result = worker.take(store, sync, incremental, schedule);
     if (!result) {
       // WARN
       log.debug("Active snapshot started at {}", worker.getLastSnapshotTime());
     }
     return result;
   }
+
+  /**
+   * Is snapshot in progress (or scheduled)
+   * @return true - yes, false - otherwise
+   */
+  public boolean isRunning() {
+    return worker.isWorking();
+  }
 }
 
 class SnapshotThread extends Thread {
   private static final Logger log = LogManager.getLogger(SnapshotThread.class);
 
-  AtomicReference<BigSortedMap> storeRef = new AtomicReference<BigSortedMap>();
-  Date lastSnapshotTime;
+  static class Request {
+    final BigSortedMap store;
+    final boolean incremental;
+    final CountDownLatch done = new CountDownLatch(1);
 
-  SnapshotThread() {
+    Request(BigSortedMap store, boolean incremental) {
+      this.store = store;
+      this.incremental = incremental;
+    }
+  }
+
+  BlockingQueue<Request> requests = new LinkedBlockingQueue<Request>();
+  /* Number of requests, which are not finished yet */
+  AtomicInteger pending = new AtomicInteger();
+  volatile Date lastSnapshotTime;
+  int maxDeltas;
+
+  SnapshotThread(int maxDeltas) {
     super("snapshot-thread");
+    this.maxDeltas = maxDeltas;
   }
 
   Date getLastSnapshotTime() {
     return lastSnapshotTime;
   }
 
-  boolean take(BigSortedMap store, boolean sync) {
-    if (storeRef.compareAndSet(null, store) == false) {
-      return false;
+  boolean isWorking() {
+    return pending.get() > 0;
+  }
+
+  boolean take(BigSortedMap store, boolean sync, boolean incremental, boolean schedule) {
+    Request r = new Request(store, incremental);
+    synchronized (this) {
+      if (!schedule && isWorking()) {
+        return false;
+      }
+      pending.incrementAndGet();
+      requests.add(r);
     }
-    notify();
     if (sync) {
-      while (storeRef.get() != null) {
-        try {
-          Thread.sleep(10);
-        } catch (InterruptedException ignored) {
-        }
+      try {
+        r.done.await();
+      } catch (InterruptedException ignored) {
       }
     }
     return true;
@@ -84,19 +143,29 @@ class SnapshotThread extends Thread {
   public void run() {
     log.debug("Thread {} started at {}", getName(), LocalDateTime.now());
     for (;;) {
+      Request r;
       try {
-        wait();
+        r = requests.take();
       } catch (InterruptedException ignored) {
-
-      }
-      BigSortedMap map = storeRef.get();
-      if (map == null) {
         continue;
       }
-      log.debug("Snapshot started at {}", lastSnapshotTime);
+      BigSortedMap map = r.store;
       lastSnapshotTime = new Date();
-      map.snapshot();
-      storeRef.set(null);
+      log.debug("Snapshot started at {} incremental={}", lastSnapshotTime, r.incremental);
+      try {
+        map.snapshot(r.incremental);
+        if (r.incremental && maxDeltas > 0 && map.getSnapshotDeltas() >= maxDeltas) {
+          // Merge incremental snapshots into a new full one
+          log.debug("Merge {} incremental snapshots into a new full snapshot",
+            map.getSnapshotDeltas());
+          map.snapshot(false);
+        }
+      } catch (Throwable t) {
+        log.error("StackTrace: ", t);
+      } finally {
+        pending.decrementAndGet();
+        r.done.countDown();
+      }
       log.debug("Snapshot finished at {}", LocalDateTime.now());
     }
   }
@@ -0,0 +1,622 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.redis.RedisConf;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+
+/**
+ * Append-only write-ahead log (WAL) of mutating commands. Each record keeps a command in the
+ * Carrot internal request format (see RedisCommand). Every record gets a sequence number when it
+ * is appended. Commands are applied and appended under a shared barrier lock (see
+ * {@link #lockShared()}), snapshot holds it exclusively, therefore a snapshot covers all records
+ * up to the sequence number it was started at and none after it.
+ * <p>
+ * Records are appended to an in-memory buffer, a dedicated writer thread swaps buffers and writes
+ * them to the current segment file - all records appended since the last write are committed
+ * together (group commit). Sync policies:
+ * <p>
+ * ALWAYS - every write is followed by fsync, a reply to a command is sent after its record has
+ * been synced (see {@link #deferUntilSynced(long, Runnable)})
+ * <p>
+ * INTERVAL - fsync every N milliseconds
+ * <p>
+ * OS - no explicit fsync, operating system decides
+ * <p>
+ * Segment files are named wal-{id}.log, WAL rolls over to a new segment when current one exceeds
+ * maximum segment size or on snapshot start. After a successful snapshot, all segments preceding
+ * the one started with the snapshot are deleted (checkpoint). On recovery only records with
+ * sequence numbers greater than the one of the snapshot are replayed.
+ * <p>
+ * Record format: [4] data size, [4] CRC32 of sequence number and data, [8] sequence number, [blob]
+ * data
+ */
+public class WriteAheadLog {
+
+  private static final Logger log = LogManager.getLogger(WriteAheadLog.class);
+
+  public static enum SyncPolicy {
+    ALWAYS, INTERVAL, OS;
+
+    public static SyncPolicy fromString(String s) {
+      return valueOf(s.trim().toUpperCase());
+    }
+  }
+
+  /** Applies WAL records during recovery */
+  public static interface RecordHandler {
+    /**
+     * Apply record
+     * @param ptr record data address
+     * @param size record data size
+     */
+    void apply(long ptr, int size);
+  }
+
+  static final String SEGMENT_PREFIX = "wal-";
+  static final String SEGMENT_SUFFIX = ".log";
+  static final String CHECKPOINT_FILE = "checkpoint";
+
+  private static final int RECORD_HEADER_SIZE = 2 * Utils.SIZEOF_INT + Utils.SIZEOF_LONG;
+
+  /*
+   * Append buffer size
+   */
+  static int bufferSize = 4 * 1024 * 1024;
+
+  private final File dir;
+  private final SyncPolicy policy;
+  private final long syncInterval;
+  private final long maxSegmentSize;
+
+  /*
+   * Records are appended to this buffer
+   */
+  private ByteBuffer appendBuf = ByteBuffer.allocateDirect(bufferSize);
+
+  /*
+   * This buffer is written to a file by the writer thread
+   */
+  private ByteBuffer writeBuf = ByteBuffer.allocateDirect(bufferSize);
+
+  private final CRC32 crc = new CRC32();
+
+  /*
+   * Sequence number of the last appended record
+   */
+  private long appended;
+
+  /*
+   * Sequence number of the last record written (and synced, for ALWAYS policy)
+   */
+  private long written;
+
+  /*
+   * Actions waiting for records to be synced (ALWAYS policy)
+   */
+  private final List<SyncAction> syncActions = new ArrayList<SyncAction>();
+
+  /*
+   * Commands are applied and logged under the shared lock, snapshot holds the exclusive one
+   */
+  private final ReentrantReadWriteLock barrier = new ReentrantReadWriteLock();
+
+  /*
+   * Number of completed segment rotations
+   */
+  private long rotations;
+
+  private boolean rotateRequested;
+
+  private volatile boolean closed;
+
+  /*
+   * Current segment (accessed by writer thread only, after open)
+   */
+  private long segmentId;
+  private FileChannel channel;
+  private long segmentSize;
+
+  private Thread writer;
+
+  /**
+   * Constructor
+   * @param dir WAL directory
+   * @param policy sync policy
+   * @param syncInterval sync interval in ms (for INTERVAL policy)
+   * @param maxSegmentSize maximum segment size
+   */
+  public WriteAheadLog(String dir, SyncPolicy policy, long syncInterval, long maxSegmentSize) {
+    this.dir = new File(dir);
+    this.policy = policy;
+    this.syncInterval = syncInterval;
+    this.maxSegmentSize = maxSegmentSize;
+  }
+
+  /**
+   * Creates WAL using configuration settings
+   * @param dir WAL directory
+   * @return write-ahead log (not opened yet)
+   */
+  public static WriteAheadLog fromConf(String dir) {
+    RedisConf conf = RedisConf.getInstance();
+    return new WriteAheadLog(dir, SyncPolicy.fromString(conf.getWALSyncPolicy()),
+        conf.getWALSyncInterval(), conf.getWALSegmentSize());
+  }
+
+  /**
+   * Get WAL directory
+   * @return directory
+   */
+  public File getDir() {
+    return dir;
+  }
+
+  /**
+   * Get sync policy
+   * @return sync policy
+   */
+  public SyncPolicy getSyncPolicy() {
+    return policy;
+  }
+
+  /**
+   * Opens WAL for appends: starts a new segment and the writer thread. Replay (if needed) must be
+   * done before.
+   * @param sequence last sequence number known to a caller (covered by a snapshot), new records
+   *          get sequence numbers greater than this one and than any replayed record
+   * @throws IOException
+   */
+  public void open(long sequence) throws IOException {
+    if (!dir.exists() && !dir.mkdirs()) {
+      throw new IOException("Can not create WAL directory: " + dir.getAbsolutePath());
+    }
+    long[] ids = listSegments();
+    segmentId = ids.length > 0 ? ids[ids.length - 1] : 0;
+    synchronized (this) {
+      appended = written = Math.max(appended, sequence);
+    }
+    openNextSegment();
+    writer = new Thread(this::runWriter, "carrot-wal-writer");
+    writer.setDaemon(true);
+    writer.start();
+    log.debug("WAL opened: dir={} policy={} segment={} sequence={}", dir.getAbsolutePath(),
+      policy, segmentId, appended);
+  }
+
+  /**
+   * Acquires the barrier lock in a shared mode. Command must hold it from its execution till its
+   * record is appended
+   */
+  public void lockShared() {
+    barrier.readLock().lock();
+  }
+
+  public void unlockShared() {
+    barrier.readLock().unlock();
+  }
+
+  /**
+   * Acquires the barrier lock in an exclusive mode: waits for commands in progress, new commands
+   * are not applied until the lock is released
+   */
+  public void lockExclusive() {
+    barrier.writeLock().lock();
+  }
+
+  public void unlockExclusive() {
+    barrier.writeLock().unlock();
+  }
+
+  /**
+   * Get sequence number of the last appended record
+   * @return sequence number
+   */
+  public synchronized long getSequence() {
+    return appended;
+  }
+
+  /**
+   * Appends record to the log. Does not wait for the record to be written (see
+   * {@link #deferUntilSynced(long, Runnable)})
+   * @param ptr data address
+   * @param size data size
+   * @return record sequence number, 0 - WAL is closed
+   */
+  public synchronized long append(long ptr, int size) {
+    if (closed) {
+      log.error("WAL is closed, record is not logged");
+      return 0;
+    }
+    int recordSize = size + RECORD_HEADER_SIZE;
+    while (appendBuf.remaining() < recordSize) {
+      if (appendBuf.position() == 0) {
+        // Record is larger than the buffer
+        appendBuf = ByteBuffer.allocateDirect(recordSize);
+        break;
+      }
+      // Wait until writer takes the buffer
+      notifyAll();
+      waitQuietly(0);
+    }
+    long seq = ++appended;
+    int pos = appendBuf.position();
+    long address = UnsafeAccess.address(appendBuf) + pos + RECORD_HEADER_SIZE;
+    UnsafeAccess.copy(ptr, address, size);
+    appendBuf.putLong(pos + 2 * Utils.SIZEOF_INT, seq);
+    ByteBuffer data = appendBuf.duplicate();
+    data.limit(pos + recordSize);
+    data.position(pos + 2 * Utils.SIZEOF_INT);
+    crc.reset();
+    crc.update(data);
+    appendBuf.putInt(size);
+    appendBuf.putInt((int) crc.getValue());
+    appendBuf.position(pos + recordSize);
+    notifyAll();
+    return seq;
+  }
+
+  /**
+   * Defers an action (sending a reply) until a record is synced to disk. Only ALWAYS policy
+   * requires it, I/O threads do not wait for fsync.
+   * @param seq record sequence number
+   * @param action action, called by the writer thread
+   * @return true - action has been deferred, false - action must be done by a caller right now
+   */
+  public synchronized boolean deferUntilSynced(long seq, Runnable action) {
+    if (policy != SyncPolicy.ALWAYS || written >= seq || closed) {
+      return false;
+    }
+    syncActions.add(new SyncAction(seq, action));
+    return true;
+  }
+
+  /**
+   * Rolls over to a new segment. All records appended before this call are in previous segments.
+   * @return new segment id
+   */
+  public synchronized long rotate() {
+    long expected = rotations + 1;
+    rotateRequested = true;
+    notifyAll();
+    while (rotations < expected && !closed) {
+      waitQuietly(0);
+    }
+    return segmentId;
+  }
+
+  /**
+   * Marks all segments before a given one as obsolete (they are in a snapshot) and deletes them
+   * @param id first segment id which must be replayed on recovery
+   */
+  public void checkpoint(long id) {
+    try {
+      File tmp = new File(dir, CHECKPOINT_FILE + ".tmp");
+      Files.write(tmp.toPath(), Long.toString(id).getBytes());
+      Files.move(tmp.toPath(), new File(dir, CHECKPOINT_FILE).toPath(),
+        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.error("WAL checkpoint failed: ", e);
+      return;
+    }
+    for (long segment : listSegments()) {
+      if (segment >= id) break;
+      File f = segmentFile(segment);
+      if (!f.delete()) {
+        log.error("Can not delete WAL segment: {}", f.getAbsolutePath());
+      }
+    }
+    log.debug("WAL checkpoint: {}", id);
+  }
+
+  /**
+   * Replays all records written after the last checkpoint
+   * @param handler record handler
+   * @return number of records replayed
+   * @throws IOException
+   */
+  public long replay(RecordHandler handler) throws IOException {
+    return replay(0, handler);
+  }
+
+  /**
+   * Replays records with sequence numbers greater than a given one, written after the last
+   * checkpoint. Only the last non-empty segment can end with an incomplete or corrupted record (a
+   * tail of the log, written before crash), the tail is truncated. Such a record in any other
+   * segment is a gap in the log, replay fails, because records after the gap can not be applied
+   * consistently.
+   * @param sequence sequence number covered by a snapshot
+   * @param handler record handler
+   * @return number of records replayed
+   * @throws IOException if a segment, which is not the last one, is corrupted
+   */
+  public long replay(long sequence, RecordHandler handler) throws IOException {
+    if (!dir.exists()) {
+      return 0;
+    }
+    long checkpoint = readCheckpoint();
+    long count = 0;
+    long[] segments = listSegments();
+    for (int i = 0; i < segments.length; i++) {
+      long id = segments[i];
+      if (id < checkpoint) continue;
+      File f = segmentFile(id);
+      long valid;
+      long length;
+      try (RandomAccessFile raf = new RandomAccessFile(f, "r")) {
+        FileChannel fc = raf.getChannel();
+        long size = fc.size();
+        if (size == 0) continue;
+        MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        long address = UnsafeAccess.address(buf);
+        int pos = 0;
+        while (pos + RECORD_HEADER_SIZE <= size) {
+          int dataSize = buf.getInt(pos);
+          int checksum = buf.getInt(pos + Utils.SIZEOF_INT);
+          if (dataSize < 0 || pos + RECORD_HEADER_SIZE + (long) dataSize > size) {
+            break;
+          }
+          ByteBuffer data = buf.duplicate();
+          data.limit(pos + RECORD_HEADER_SIZE + dataSize);
+          data.position(pos + 2 * Utils.SIZEOF_INT);
+          crc.reset();
+          crc.update(data);
+          if ((int) crc.getValue() != checksum) {
+            break;
+          }
+          long seq = buf.getLong(pos + 2 * Utils.SIZEOF_INT);
+          if (seq > sequence) {
+            handler.apply(address + pos + RECORD_HEADER_SIZE, dataSize);
+            count++;
+          }
+          synchronized (this) {
+            appended = written = Math.max(appended, seq);
+          }
+          pos += RECORD_HEADER_SIZE + dataSize;
+        }
+        valid = pos;
+        length = size;
+      }
+      if (valid < length) {
+        if (hasRecordsAfter(segments, i)) {
+          throw new IOException("WAL segment " + f.getAbsolutePath()
+              + " is corrupted at " + valid + ", size=" + length + ", later segments have records");
+        }
+        log.warn("WAL segment {} has incomplete or corrupted tail at {}, size={}, truncated",
+          f.getAbsolutePath(), valid, length);
+        try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+          raf.setLength(valid);
+        }
+      }
+    }
+    log.debug("WAL replayed: dir={} records={}", dir.getAbsolutePath(), count);
+    return count;
+  }
+
+  /**
+   * Checks if any segment after a given one has data
+   * @param segments sorted segment ids
+   * @param index segment index
+   * @return true - yes, false - otherwise
+   */
+  private boolean hasRecordsAfter(long[] segments, int index) {
+    for (int i = index + 1; i < segments.length; i++) {
+      if (segmentFile(segments[i]).length() > 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** Flushes all appended records and closes the log */
+  public void close() {
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      notifyAll();
+    }
+    if (writer != null) {
+      try {
+        writer.join();
+      } catch (InterruptedException e) {
+        log.error("StackTrace: ", e);
+      }
+    }
+    // Writer has failed or has not been started
+    runSyncActions(Long.MAX_VALUE);
+  }
+
+  private void runWriter() {
+    long lastSync = System.currentTimeMillis();
+    boolean unsynced = false;
+    try {
+      while (true) {
+        ByteBuffer buf;
+        long seq;
+        boolean rotate;
+        boolean done;
+        synchronized (this) {
+          while (appendBuf.position() == 0 && !rotateRequested && !closed) {
+            if (policy == SyncPolicy.INTERVAL && unsynced) {
+              long timeout = lastSync + syncInterval - System.currentTimeMillis();
+              if (timeout <= 0) break;
+              waitQuietly(timeout);
+            } else {
+              waitQuietly(0);
+            }
+          }
+          buf = appendBuf;
+          appendBuf = writeBuf;
+          writeBuf = buf;
+          seq = appended;
+          rotate = rotateRequested;
+          rotateRequested = false;
+          done = closed;
+          // Wake up appenders waiting for free space
+          notifyAll();
+        }
+        buf.flip();
+        if (buf.hasRemaining()) {
+          segmentSize += buf.remaining();
+          while (buf.hasRemaining()) {
+            channel.write(buf);
+          }
+          unsynced = true;
+        }
+        buf.clear();
+        long now = System.currentTimeMillis();
+        if (unsynced && (policy == SyncPolicy.ALWAYS
+            || policy == SyncPolicy.INTERVAL && now - lastSync >= syncInterval)) {
+          channel.force(false);
+          lastSync = now;
+          unsynced = false;
+        }
+        if (rotate || segmentSize >= maxSegmentSize) {
+          openNextSegment();
+          unsynced = false;
+        }
+        synchronized (this) {
+          written = seq;
+          if (rotate) {
+            rotations++;
+          }
+          notifyAll();
+        }
+        runSyncActions(seq);
+        if (done) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      log.error("WAL writer failed, WAL is closed: ", e);
+      synchronized (this) {
+        closed = true;
+        notifyAll();
+      }
+    } finally {
+      closeSegment();
+    }
+  }
+
+  /**
+   * Runs deferred actions of synced records
+   * @param seq sequence number of the last synced record
+   */
+  private void runSyncActions(long seq) {
+    List<SyncAction> ready = null;
+    synchronized (this) {
+      Iterator<SyncAction> it = syncActions.iterator();
+      while (it.hasNext()) {
+        SyncAction a = it.next();
+        if (a.seq <= seq) {
+          if (ready == null) {
+            ready = new ArrayList<SyncAction>();
+          }
+          ready.add(a);
+          it.remove();
+        }
+      }
+    }
+    if (ready != null) {
+      ready.forEach(a -> a.action.run());
+    }
+  }
+
+  private void openNextSegment() throws IOException {
+    closeSegment();
+    segmentId++;
+    File f = segmentFile(segmentId);
+    @SuppressWarnings("resource")
+    RandomAccessFile raf = new RandomAccessFile(f, "rw");
+    raf.setLength(0);
+    channel = raf.getChannel();
+    segmentSize = 0;
+  }
+
+  private void closeSegment() {
+    if (channel == null) return;
+    try {
+      if (policy != SyncPolicy.OS) {
+        channel.force(false);
+      }
+      channel.close();
+    } catch (IOException e) {
+      log.error("StackTrace: ", e);
+    }
+    channel = null;
+  }
+
+  private File segmentFile(long id) {
+    return new File(dir, String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+  }
+
+  /**
+   * List segment ids in ascending order
+   * @return segment ids
+   */
+  private long[] listSegments() {
+    String[] names =
+        dir.list((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    if (names == null) {
+      return new long[0];
+    }
+    long[] ids = Arrays.stream(names).mapToLong(
+      name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+        name.length() - SEGMENT_SUFFIX.length()))).toArray();
+    Arrays.sort(ids);
+    return ids;
+  }
+
+  private long readCheckpoint() throws IOException {
+    File f = new File(dir, CHECKPOINT_FILE);
+    if (!f.exists()) {
+      return 0;
+    }
+    return Long.parseLong(new String(Files.readAllBytes(f.toPath())).trim());
+  }
+
+  private static class SyncAction {
+    final long seq;
+    final Runnable action;
+
+    SyncAction(long seq, Runnable action) {
+      this.seq = seq;
+      this.action = action;
+    }
+  }
+
+  private void waitQuietly(long timeout) {
+    try {
+      wait(timeout);
+    } catch (InterruptedException e) {
+      // ignore
+    }
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.util;
+
+/**
+ * Off-heap memory allocator of data and index blocks. Memory allocated by an allocator must be
+ * released or reallocated by the same allocator.
+ */
+public interface MemoryAllocator {
+
+  /** Allocator, which calls UnsafeAccess directly */
+  public static final String UNSAFE = "unsafe";
+
+  /** Size-class slab allocator (see {@link SlabAllocator}) */
+  public static final String SLAB = "slab";
+
+  /**
+   * Creates allocator by name
+   * @param name allocator name ('unsafe' or 'slab')
+   * @param sizes size classes (used by slab allocator)
+   * @param slabSize slab size (used by slab allocator)
+   * @param cacheSize thread cache size per size class (used by slab allocator)
+   * @return allocator
+   */
+  public static MemoryAllocator create(String name, int[] sizes, int slabSize, int cacheSize) {
+    if (SLAB.equalsIgnoreCase(name)) {
+      return new SlabAllocator(sizes, slabSize, cacheSize);
+    } else if (UNSAFE.equalsIgnoreCase(name)) {
+      return new UnsafeAllocator();
+    }
+    throw new IllegalArgumentException("Unknown memory allocator: " + name);
+  }
+
+  /**
+   * Allocate memory
+   * @param size size of memory to allocate
+   * @return memory pointer
+   */
+  public long malloc(long size);
+
+  /**
+   * Allocate zeroed memory
+   * @param size size of memory to allocate
+   * @return memory pointer
+   */
+  public long mallocZeroed(long size);
+
+  /**
+   * Reallocate memory, content is preserved up to a minimum of old and new sizes
+   * @param ptr memory pointer
+   * @param newSize new size
+   * @return new memory pointer
+   */
+  public long realloc(long ptr, long newSize);
+
+  /**
+   * Free memory
+   * @param ptr memory pointer
+   */
+  public void free(long ptr);
+
+  /**
+   * Allocator name
+   * @return name
+   */
+  public String getName();
+
+  /**
+   * Allocator statistics, one 'name:value' line per entry
+   * @return statistics
+   */
+  public String[] getStats();
+
+  /** Allocator, which calls UnsafeAccess directly */
+  public static class UnsafeAllocator implements MemoryAllocator {
+
+    @Override
+    public long malloc(long size) {
+      return UnsafeAccess.malloc(size);
+    }
+
+    @Override
+    public long mallocZeroed(long size) {
+      return UnsafeAccess.mallocZeroed(size);
+    }
+
+    @Override
+    public long realloc(long ptr, long newSize) {
+      return UnsafeAccess.realloc(ptr, newSize);
+    }
+
+    @Override
+    public void free(long ptr) {
+      UnsafeAccess.free(ptr);
+    }
+
+    @Override
+    public String getName() {
+      return UNSAFE;
+    }
+
+    @Override
+    public String[] getStats() {
+      return new String[0];
+    }
+  }
+}
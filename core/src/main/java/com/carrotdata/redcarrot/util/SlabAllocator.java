@@ -0,0 +1,506 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.util;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-class slab allocator. Memory is reserved in slabs of a fixed size, every slab is split into
+ * slots of a single size class. Requests are rounded up to the nearest size class, requests larger
+ * than the largest class are passed to UnsafeAccess. Free slots are kept in a per-class free list
+ * and in thread-local caches, so most allocations and releases do not take any locks. A slab, all
+ * slots of which are back in a free list, is returned to the system, unless it is the only spare
+ * slab of its size class.
+ * <p>
+ * A slab which owns a pointer is found by its address (binary search over slab addresses), so a
+ * pointer is released without its size and pointers, which were not allocated from slabs, are
+ * released by UnsafeAccess. Slots cached by a terminated thread are moved to the free lists, when
+ * the next thread cache is created or a new slab is required. Slots (not slabs) are recorded in
+ * UnsafeAccess malloc statistics, therefore memory debug reports leaked blocks.
+ */
+public class SlabAllocator implements MemoryAllocator {
+
+  /* Slab */
+  private static final class Slab {
+    /* Slab address */
+    final long address;
+    /* Size class index */
+    final int sizeClass;
+    /* Number of slots, which are not in a free list (used or cached by threads) */
+    int taken;
+
+    Slab(long address, int sizeClass) {
+      this.address = address;
+      this.sizeClass = sizeClass;
+    }
+  }
+
+  /* Size class */
+  private static final class SizeClass {
+    /* Slot size */
+    final int size;
+    /* Number of slots in a slab */
+    final int slots;
+    /* Free slots */
+    long[] free = new long[64];
+    /* Number of free slots */
+    int numFree;
+    /* Last slab, its slots are taken in address order */
+    Slab last;
+    /* Next never used slot in the last slab */
+    long next;
+    /* End of the last slab */
+    long end;
+    /* Number of slabs */
+    int numSlabs;
+    /* Number of slots in use */
+    final LongAdder used = new LongAdder();
+
+    SizeClass(int size, int slabSize) {
+      this.size = size;
+      this.slots = slabSize / size;
+    }
+
+    void push(long ptr) {
+      if (numFree == free.length) {
+        free = Arrays.copyOf(free, 2 * free.length);
+      }
+      free[numFree++] = ptr;
+    }
+  }
+
+  /* Slab addresses (sorted) and slabs */
+  private static final class Registry {
+    final long[] addresses;
+    final Slab[] slabs;
+
+    Registry(long[] addresses, Slab[] slabs) {
+      this.addresses = addresses;
+      this.slabs = slabs;
+    }
+  }
+
+  /* Thread-local cache of free slots */
+  private static final class ThreadCache {
+    final WeakReference<Thread> owner;
+    final long[][] slots;
+    final int[] counts;
+
+    ThreadCache(int numClasses, int cacheSize) {
+      owner = new WeakReference<Thread>(Thread.currentThread());
+      slots = new long[numClasses][Math.max(1, cacheSize)];
+      counts = new int[numClasses];
+    }
+
+    boolean isOwnerAlive() {
+      Thread t = owner.get();
+      return t != null && t.isAlive();
+    }
+  }
+
+  /*
+   * Size classes
+   */
+  private final int[] sizes;
+
+  private final SizeClass[] classes;
+
+  /*
+   * Slab size
+   */
+  private final int slabSize;
+
+  /*
+   * Maximum number of cached slots per size class
+   */
+  private final int cacheSize;
+
+  /*
+   * Slab registry, it is replaced when a slab is allocated or released
+   */
+  private volatile Registry registry = new Registry(new long[0], new Slab[0]);
+
+  /*
+   * Reserved memory (all slabs)
+   */
+  private final AtomicLong reserved = new AtomicLong();
+
+  private final ThreadLocal<ThreadCache> caches;
+
+  /*
+   * All thread caches, caches of terminated threads are released
+   */
+  private final List<ThreadCache> threadCaches = new ArrayList<ThreadCache>();
+
+  /**
+   * Constructor
+   * @param sizes size classes
+   * @param slabSize slab size (at least the largest size class)
+   * @param cacheSize thread cache size per size class (0 - no caching)
+   */
+  public SlabAllocator(int[] sizes, int slabSize, int cacheSize) {
+    int[] sorted = Arrays.stream(sizes).filter(x -> x > 0).sorted().distinct().toArray();
+    if (sorted.length == 0) {
+      throw new IllegalArgumentException("No size classes");
+    }
+    if (slabSize < sorted[sorted.length - 1]) {
+      throw new IllegalArgumentException(
+          "Slab size " + slabSize + " is less than size class " + sorted[sorted.length - 1]);
+    }
+    this.sizes = sorted;
+    this.classes = new SizeClass[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      classes[i] = new SizeClass(sorted[i], slabSize);
+    }
+    this.slabSize = slabSize;
+    this.cacheSize = Math.max(0, cacheSize);
+    this.caches = ThreadLocal.withInitial(this::newThreadCache);
+  }
+
+  @Override
+  public long malloc(long size) {
+    int i = classIndex(size);
+    if (i < 0) {
+      return UnsafeAccess.malloc(size);
+    }
+    ThreadCache cache = caches.get();
+    int n = cache.counts[i];
+    long ptr;
+    if (n > 0) {
+      ptr = cache.slots[i][--n];
+      cache.counts[i] = n;
+    } else {
+      ptr = refill(cache, i);
+    }
+    classes[i].used.increment();
+    UnsafeAccess.mallocStats.allocEvent(ptr, classes[i].size);
+    return ptr;
+  }
+
+  @Override
+  public long mallocZeroed(long size) {
+    long ptr = malloc(size);
+    UnsafeAccess.setMemory(ptr, size, (byte) 0);
+    return ptr;
+  }
+
+  @Override
+  public long realloc(long ptr, long newSize) {
+    int i = classOf(ptr);
+    if (i < 0) {
+      return UnsafeAccess.realloc(ptr, newSize);
+    }
+    int size = classes[i].size;
+    if (newSize <= size) {
+      return ptr;
+    }
+    long newPtr = malloc(newSize);
+    UnsafeAccess.copy(ptr, newPtr, size);
+    free(ptr);
+    return newPtr;
+  }
+
+  @Override
+  public void free(long ptr) {
+    int i = classOf(ptr);
+    if (i < 0) {
+      UnsafeAccess.free(ptr);
+      return;
+    }
+    UnsafeAccess.mallocStats.freeEvent(ptr);
+    SizeClass c = classes[i];
+    c.used.decrement();
+    ThreadCache cache = caches.get();
+    long[] slots = cache.slots[i];
+    int n = cache.counts[i];
+    if (n == cacheSize) {
+      // Move a half of the cache to the free list
+      int keep = cacheSize / 2;
+      synchronized (c) {
+        for (int k = keep; k < n; k++) {
+          put(c, slots[k]);
+        }
+        if (keep == cacheSize) {
+          put(c, ptr);
+        }
+      }
+      n = keep;
+    }
+    if (n < cacheSize) {
+      slots[n++] = ptr;
+    }
+    cache.counts[i] = n;
+  }
+
+  /**
+   * Moves slots cached by a current thread to the free lists. A thread, which is about to
+   * terminate, can call it to make its slots available for other threads immediately.
+   */
+  public void releaseThreadCache() {
+    release(caches.get());
+  }
+
+  /*
+   * Creates and registers a cache of a current thread
+   */
+  private ThreadCache newThreadCache() {
+    releaseTerminatedCaches();
+    ThreadCache cache = new ThreadCache(classes.length, cacheSize);
+    synchronized (threadCaches) {
+      threadCaches.add(cache);
+    }
+    return cache;
+  }
+
+  /*
+   * Releases and unregisters caches of terminated threads (no size class lock must be held)
+   */
+  private void releaseTerminatedCaches() {
+    synchronized (threadCaches) {
+      Iterator<ThreadCache> it = threadCaches.iterator();
+      while (it.hasNext()) {
+        ThreadCache cache = it.next();
+        if (!cache.isOwnerAlive()) {
+          // Terminated thread does not access its cache anymore
+          release(cache);
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /*
+   * Moves all slots of a thread cache to the free lists
+   */
+  private void release(ThreadCache cache) {
+    for (int i = 0; i < classes.length; i++) {
+      int n = cache.counts[i];
+      if (n == 0) {
+        continue;
+      }
+      SizeClass c = classes[i];
+      synchronized (c) {
+        for (int k = 0; k < n; k++) {
+          put(c, cache.slots[i][k]);
+        }
+      }
+      cache.counts[i] = 0;
+    }
+  }
+
+  /*
+   * Takes a batch of slots into an empty thread cache
+   * @return one of the slots
+   */
+  private long refill(ThreadCache cache, int i) {
+    SizeClass c = classes[i];
+    if (c.numFree == 0 && c.next == c.end) {
+      // A new slab is likely required, terminated threads can have free slots
+      releaseTerminatedCaches();
+    }
+    long[] slots = cache.slots[i];
+    int batch = Math.max(1, cacheSize / 2);
+    int n = 0;
+    synchronized (c) {
+      while (n < batch && c.numFree > 0) {
+        long ptr = c.free[--c.numFree];
+        slabOf(ptr).taken++;
+        slots[n++] = ptr;
+      }
+      while (n < batch) {
+        if (c.next == c.end) {
+          newSlab(c, i);
+        }
+        c.last.taken++;
+        slots[n++] = c.next;
+        c.next += c.size;
+      }
+    }
+    cache.counts[i] = n - 1;
+    return slots[n - 1];
+  }
+
+  /*
+   * Returns a slot to the free list (called under lock of a size class). A slab, all slots of which
+   * are free, is released, if the free list has at least one more slab of free slots.
+   */
+  private void put(SizeClass c, long ptr) {
+    c.push(ptr);
+    Slab slab = slabOf(ptr);
+    if (--slab.taken > 0 || slab == c.last || c.numFree < 2 * c.slots) {
+      return;
+    }
+    // Remove slots of the slab from the free list
+    long start = slab.address;
+    long end = start + slabSize;
+    int n = 0;
+    for (int k = 0; k < c.numFree; k++) {
+      long p = c.free[k];
+      if (p < start || p >= end) {
+        c.free[n++] = p;
+      }
+    }
+    c.numFree = n;
+    releaseSlab(c, slab);
+  }
+
+  /*
+   * Allocates and registers a new slab (called under lock of a size class)
+   */
+  private void newSlab(SizeClass c, int i) {
+    // Slots of a slab are recorded in malloc statistics
+    long ptr = UnsafeAccess.theUnsafe.allocateMemory(slabSize);
+    Slab slab = new Slab(ptr, i);
+    synchronized (this) {
+      Registry r = registry;
+      int pos = -Arrays.binarySearch(r.addresses, ptr) - 1;
+      long[] addresses = new long[r.addresses.length + 1];
+      Slab[] slabs = new Slab[addresses.length];
+      System.arraycopy(r.addresses, 0, addresses, 0, pos);
+      System.arraycopy(r.slabs, 0, slabs, 0, pos);
+      addresses[pos] = ptr;
+      slabs[pos] = slab;
+      System.arraycopy(r.addresses, pos, addresses, pos + 1, r.addresses.length - pos);
+      System.arraycopy(r.slabs, pos, slabs, pos + 1, r.addresses.length - pos);
+      registry = new Registry(addresses, slabs);
+    }
+    c.last = slab;
+    c.next = ptr;
+    c.end = ptr + (long) c.slots * c.size;
+    c.numSlabs++;
+    reserved.addAndGet(slabSize);
+  }
+
+  /*
+   * Unregisters and frees a slab (called under lock of a size class)
+   */
+  private void releaseSlab(SizeClass c, Slab slab) {
+    synchronized (this) {
+      Registry r = registry;
+      int pos = Arrays.binarySearch(r.addresses, slab.address);
+      long[] addresses = new long[r.addresses.length - 1];
+      Slab[] slabs = new Slab[addresses.length];
+      System.arraycopy(r.addresses, 0, addresses, 0, pos);
+      System.arraycopy(r.slabs, 0, slabs, 0, pos);
+      System.arraycopy(r.addresses, pos + 1, addresses, pos, addresses.length - pos);
+      System.arraycopy(r.slabs, pos + 1, slabs, pos, addresses.length - pos);
+      registry = new Registry(addresses, slabs);
+    }
+    UnsafeAccess.theUnsafe.freeMemory(slab.address);
+    c.numSlabs--;
+    reserved.addAndGet(-slabSize);
+  }
+
+  /*
+   * Index of the smallest size class, which is not less than a given size
+   * @return index or -1 (size is larger than the largest class)
+   */
+  private int classIndex(long size) {
+    if (size > sizes[sizes.length - 1]) {
+      return -1;
+    }
+    int i = Arrays.binarySearch(sizes, (int) size);
+    return i >= 0 ? i : -i - 1;
+  }
+
+  /*
+   * Slab, which owns a given pointer
+   * @return slab or null (pointer was not allocated from slabs)
+   */
+  private Slab slabOf(long ptr) {
+    Registry r = registry;
+    long[] addresses = r.addresses;
+    int low = 0, high = addresses.length - 1;
+    // Last slab whose address is not greater than ptr
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (addresses[mid] <= ptr) {
+        low = mid + 1;
+      } else {
+        high = mid - 1;
+      }
+    }
+    if (high < 0 || ptr >= addresses[high] + slabSize) {
+      return null;
+    }
+    return r.slabs[high];
+  }
+
+  /*
+   * Index of a size class of a slab, which owns a given pointer
+   * @return index or -1 (pointer was not allocated from slabs)
+   */
+  private int classOf(long ptr) {
+    Slab slab = slabOf(ptr);
+    return slab == null ? -1 : slab.sizeClass;
+  }
+
+  /**
+   * Size of a slot, which holds a given pointer
+   * @param ptr memory pointer
+   * @return slot size or -1 (pointer was not allocated from slabs)
+   */
+  public int sizeOf(long ptr) {
+    int i = classOf(ptr);
+    return i < 0 ? -1 : classes[i].size;
+  }
+
+  /**
+   * Memory reserved in slabs
+   * @return reserved memory
+   */
+  public long getReservedMemory() {
+    return reserved.get();
+  }
+
+  /**
+   * Memory in slots, which are in use
+   * @return used memory
+   */
+  public long getUsedMemory() {
+    long used = 0;
+    for (SizeClass c : classes) {
+      used += c.used.sum() * c.size;
+    }
+    return used;
+  }
+
+  @Override
+  public String getName() {
+    return SLAB;
+  }
+
+  @Override
+  public String[] getStats() {
+    releaseTerminatedCaches();
+    long reserved = getReservedMemory();
+    long used = getUsedMemory();
+    String[] stats = new String[4 + classes.length];
+    stats[0] = "allocator_slab_size:" + slabSize;
+    stats[1] = "allocator_reserved:" + reserved;
+    stats[2] = "allocator_used:" + used;
+    stats[3] = "allocator_fragmentation_ratio:"
+        + (used > 0 ? Utils.toString((double) reserved / used, 2) : "0.0");
+    for (int i = 0; i < classes.length; i++) {
+      SizeClass c = classes[i];
+      stats[4 + i] =
+          "allocator_class_" + c.size + ":slabs=" + c.numSlabs + ",used=" + c.used.sum();
+    }
+    return stats;
+  }
+}
@@ -27,6 +27,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
 import java.util.regex.Matcher;
@@ -1629,6 +1630,90 @@ public class Utils {
     return -1;
   }
 
+  /**
+   * Bitwise AND of two memory blocks: dst = dst AND src. Blocks are processed 8 bytes at a time,
+   * the remaining tail - byte by byte
+   * @param dst destination address
+   * @param src source address
+   * @param size number of bytes
+   */
+  public static void bitAnd(long dst, long src, int size) {
+    int i = 0;
+    for (; i + SIZEOF_LONG <= size; i += SIZEOF_LONG) {
+      UnsafeAccess.putLong(dst + i, UnsafeAccess.toLong(dst + i) & UnsafeAccess.toLong(src + i));
+    }
+    for (; i < size; i++) {
+      UnsafeAccess.putByte(dst + i,
+        (byte) (UnsafeAccess.toByte(dst + i) & UnsafeAccess.toByte(src + i)));
+    }
+  }
+
+  /**
+   * Bitwise AND NOT of two memory blocks: dst = dst AND NOT src
+   * @param dst destination address
+   * @param src source address
+   * @param size number of bytes
+   */
+  public static void bitAndNot(long dst, long src, int size) {
+    int i = 0;
+    for (; i + SIZEOF_LONG <= size; i += SIZEOF_LONG) {
+      UnsafeAccess.putLong(dst + i, UnsafeAccess.toLong(dst + i) & ~UnsafeAccess.toLong(src + i));
+    }
+    for (; i < size; i++) {
+      UnsafeAccess.putByte(dst + i,
+        (byte) (UnsafeAccess.toByte(dst + i) & ~UnsafeAccess.toByte(src + i)));
+    }
+  }
+
+  /**
+   * Bitwise OR of two memory blocks: dst = dst OR src
+   * @param dst destination address
+   * @param src source address
+   * @param size number of bytes
+   */
+  public static void bitOr(long dst, long src, int size) {
+    int i = 0;
+    for (; i + SIZEOF_LONG <= size; i += SIZEOF_LONG) {
+      UnsafeAccess.putLong(dst + i, UnsafeAccess.toLong(dst + i) | UnsafeAccess.toLong(src + i));
+    }
+    for (; i < size; i++) {
+      UnsafeAccess.putByte(dst + i,
+        (byte) (UnsafeAccess.toByte(dst + i) | UnsafeAccess.toByte(src + i)));
+    }
+  }
+
+  /**
+   * Bitwise XOR of two memory blocks: dst = dst XOR src
+   * @param dst destination address
+   * @param src source address
+   * @param size number of bytes
+   */
+  public static void bitXor(long dst, long src, int size) {
+    int i = 0;
+    for (; i + SIZEOF_LONG <= size; i += SIZEOF_LONG) {
+      UnsafeAccess.putLong(dst + i, UnsafeAccess.toLong(dst + i) ^ UnsafeAccess.toLong(src + i));
+    }
+    for (; i < size; i++) {
+      UnsafeAccess.putByte(dst + i,
+        (byte) (UnsafeAccess.toByte(dst + i) ^ UnsafeAccess.toByte(src + i)));
+    }
+  }
+
+  /**
+   * Bitwise NOT of a memory block in place
+   * @param dst address
+   * @param size number of bytes
+   */
+  public static void bitNot(long dst, int size) {
+    int i = 0;
+    for (; i + SIZEOF_LONG <= size; i += SIZEOF_LONG) {
+      UnsafeAccess.putLong(dst + i, ~UnsafeAccess.toLong(dst + i));
+    }
+    for (; i < size; i++) {
+      UnsafeAccess.putByte(dst + i, (byte) ~UnsafeAccess.toByte(dst + i));
+    }
+  }
+
   static final long FRACTION_MASK = 0x000fffffffffffffL; // 52 lower bits
   static final long MAX_FRACTION = FRACTION_MASK;
   static final long EXP_MASK = 0x7ff0000000000000L;
@@ -1733,12 +1818,12 @@ public class Utils {
   }
 
   /**
-   * Copy list
+   * Copy list. Bulk loaders consume the copy from its head, therefore it is a linked list
    * @param list
    * @return list copy
    */
   public static List<ValueScore> copyValueScores(final List<ValueScore> list) {
-    List<ValueScore> copy = new ArrayList<>();
+    List<ValueScore> copy = new LinkedList<>();
     copy.addAll(list);
     return copy;
   }
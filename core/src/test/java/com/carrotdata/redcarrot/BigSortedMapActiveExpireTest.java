@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BigSortedMapActiveExpireTest extends CarrotCoreBase {
+
+  private static final Logger log = LogManager.getLogger(BigSortedMapActiveExpireTest.class);
+
+  int MAX_ROWS = 100000;
+
+  public BigSortedMapActiveExpireTest(Object c) {
+    super(c);
+    BigSortedMap.setMaxBlockSize(4096);
+  }
+
+  @Before
+  @Override
+  public void setUp() throws IOException {
+    super.setUp();
+  }
+
+  @Override
+  public void extTearDown() {
+  }
+
+  @Test
+  public void testNoExpiration() {
+    for (int i = 0; i < MAX_ROWS; i++) {
+      assertTrue(load(i, 0));
+    }
+    for (IndexBlock b : map.getMap().keySet()) {
+      assertEquals(0, b.getMinExpire());
+    }
+    assertEquals(0, map.activeExpireCycle(Long.MAX_VALUE));
+    for (int i = 0; i < MAX_ROWS; i++) {
+      assertTrue(exists(i));
+    }
+  }
+
+  @Test
+  public void testActiveExpireCycle() throws InterruptedException {
+    long now = System.currentTimeMillis();
+    long expired = now + 100;
+    long future = now + 1000000;
+    for (int i = 0; i < MAX_ROWS; i++) {
+      // Every second record expires, every fourth one - has expiration time in a future
+      long expire = i % 2 == 0 ? expired : i % 4 == 1 ? future : 0;
+      assertTrue(load(i, expire));
+    }
+    Thread.sleep(200);
+    long dataSize = map.getInstanceDataSize();
+    long start = System.currentTimeMillis();
+    int deleted = 0, n;
+    // Each cycle visits every index block at most once
+    while ((n = map.activeExpireCycle(10)) > 0) {
+      deleted += n;
+    }
+    log.debug("Deleted {} expired records in {}ms", deleted, System.currentTimeMillis() - start);
+    assertEquals(MAX_ROWS / 2, deleted);
+    for (int i = 0; i < MAX_ROWS; i++) {
+      assertEquals(i % 2 != 0, exists(i));
+    }
+    assertTrue(map.getInstanceDataSize() < dataSize);
+    // Blocks have only records which expire in a future
+    for (IndexBlock b : map.getMap().keySet()) {
+      long minExpire = b.getMinExpire();
+      assertTrue(minExpire == 0 || minExpire == future);
+    }
+    assertEquals(0, map.activeExpireCycle(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void testActiveExpireThread() throws InterruptedException {
+    long expire = System.currentTimeMillis() + 100;
+    for (int i = 0; i < MAX_ROWS; i++) {
+      assertTrue(load(i, i % 2 == 0 ? expire : 0));
+    }
+    map.startActiveExpire(10, 5);
+    try {
+      long deadline = System.currentTimeMillis() + 10000;
+      while (exists(MAX_ROWS - 2) && System.currentTimeMillis() < deadline) {
+        Thread.sleep(10);
+      }
+    } finally {
+      map.stopActiveExpire();
+    }
+    for (int i = 0; i < MAX_ROWS; i++) {
+      assertEquals(i % 2 != 0, exists(i));
+    }
+  }
+
+  @Test
+  public void testExpirationUpdated() throws InterruptedException {
+    long expire = System.currentTimeMillis() + 100;
+    for (int i = 0; i < MAX_ROWS; i++) {
+      assertTrue(load(i, expire));
+    }
+    // Overwrite records without expiration time
+    for (int i = 0; i < MAX_ROWS; i += 2) {
+      assertTrue(load(i, 0));
+    }
+    Thread.sleep(200);
+    int deleted = 0, n;
+    while ((n = map.activeExpireCycle(10)) > 0) {
+      deleted += n;
+    }
+    assertEquals(MAX_ROWS / 2, deleted);
+    for (int i = 0; i < MAX_ROWS; i++) {
+      assertEquals(i % 2 == 0, exists(i));
+    }
+  }
+
+  private boolean load(int n, long expire) {
+    byte[] key = ("KEY" + n).getBytes();
+    byte[] value = ("VALUE" + n).getBytes();
+    return map.put(key, 0, key.length, value, 0, value.length, expire);
+  }
+
+  private boolean exists(int n) {
+    byte[] key = ("KEY" + n).getBytes();
+    long keyPtr = UnsafeAccess.allocAndCopy(key, 0, key.length);
+    boolean result = map.exists(keyPtr, key.length);
+    UnsafeAccess.free(keyPtr);
+    return result;
+  }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.compression.CodecFactory;
+import com.carrotdata.redcarrot.compression.CodecType;
+import com.carrotdata.redcarrot.ops.OperationFailedException;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Put/get/increment benchmark: compares write scaling (1 .. N threads) of a map-wide lock and
+ * index block level concurrency modes
+ */
+public class BigSortedMapConcurrencyTestMT {
+
+  private static final Logger log = LogManager.getLogger(BigSortedMapConcurrencyTestMT.class);
+
+  static int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+  static int keysPerThread = 200000;
+  static int incrementsPerThread = 200000;
+  static int numCounters = 1000;
+  static int keySize = 16;
+  static int valueSize = 64;
+
+  @BeforeClass
+  public static void setUp() {
+    BigSortedMap.setCompressionCodec(CodecFactory.getInstance().getCodec(CodecType.NONE));
+    BigSortedMap.setMaxBlockSize(4096);
+  }
+
+  static class Worker extends Thread {
+    BigSortedMap map;
+    int id;
+    CyclicBarrier barrier;
+    long putTime, getTime, incrTime;
+    long notFound;
+
+    Worker(BigSortedMap map, int id, CyclicBarrier barrier) {
+      super(Integer.toString(id));
+      this.map = map;
+      this.id = id;
+      this.barrier = barrier;
+    }
+
+    /** Keys are random, but unique across threads: first 4 bytes - thread id */
+    private void nextKey(Random r, long key) {
+      UnsafeAccess.putInt(key, id);
+      UnsafeAccess.putLong(key + Utils.SIZEOF_INT, r.nextLong());
+      UnsafeAccess.putInt(key + Utils.SIZEOF_INT + Utils.SIZEOF_LONG, r.nextInt());
+    }
+
+    public void run() {
+      long key = UnsafeAccess.malloc(keySize);
+      long value = UnsafeAccess.mallocZeroed(valueSize);
+      long counter = UnsafeAccess.malloc(Utils.SIZEOF_INT + 1);
+      try {
+        barrier.await();
+        Random r = new Random(id);
+        long start = System.nanoTime();
+        for (int i = 0; i < keysPerThread; i++) {
+          nextKey(r, key);
+          assertTrue(map.put(key, keySize, value, valueSize, 0));
+        }
+        putTime = System.nanoTime() - start;
+
+        barrier.await();
+        r = new Random(id);
+        start = System.nanoTime();
+        for (int i = 0; i < keysPerThread; i++) {
+          nextKey(r, key);
+          if (map.get(key, keySize, value, valueSize, Long.MAX_VALUE) != valueSize) {
+            notFound++;
+          }
+        }
+        getTime = System.nanoTime() - start;
+
+        barrier.await();
+        r = new Random(id);
+        // Counter keys are shared between all threads
+        UnsafeAccess.putByte(counter, (byte) 0xff);
+        start = System.nanoTime();
+        for (int i = 0; i < incrementsPerThread; i++) {
+          UnsafeAccess.putInt(counter + 1, r.nextInt(numCounters));
+          map.incrementLongOp(counter, Utils.SIZEOF_INT + 1, 1);
+        }
+        incrTime = System.nanoTime() - start;
+      } catch (OperationFailedException e) {
+        log.error("StackTrace: ", e);
+        throw new RuntimeException(e);
+      } catch (Exception e) {
+        log.error("StackTrace: ", e);
+      } finally {
+        UnsafeAccess.free(key);
+        UnsafeAccess.free(value);
+        UnsafeAccess.free(counter);
+      }
+    }
+  }
+
+  @Test
+  public void testWriteScaling() throws InterruptedException {
+    for (int n = 1; n <= maxThreads; n *= 2) {
+      runTest(n, false);
+      runTest(n, true);
+    }
+  }
+
+  private void runTest(int numThreads, boolean blockLocking) throws InterruptedException {
+    BigSortedMap map = new BigSortedMap(4L * 1024 * 1024 * 1024);
+    map.setBlockLockingEnabled(blockLocking);
+    CyclicBarrier barrier = new CyclicBarrier(numThreads);
+    Worker[] workers = new Worker[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      workers[i] = new Worker(map, i, barrier);
+      workers[i].start();
+    }
+    long putTime = 0, getTime = 0, incrTime = 0, notFound = 0;
+    for (Worker w : workers) {
+      w.join();
+      putTime = Math.max(putTime, w.putTime);
+      getTime = Math.max(getTime, w.getTime);
+      incrTime = Math.max(incrTime, w.incrTime);
+      notFound += w.notFound;
+    }
+    assertEquals(0, notFound);
+    assertEquals((long) numThreads * keysPerThread + numCounters, map.countRecords());
+    assertEquals((long) numThreads * incrementsPerThread, sumCounters(map));
+
+    long keys = (long) numThreads * keysPerThread;
+    long incrs = (long) numThreads * incrementsPerThread;
+    log.debug("mode={} threads={} PUT={} GET={} INCR={} (ops/sec)",
+      blockLocking ? "block" : "map", numThreads, keys * 1000000000 / putTime,
+      keys * 1000000000 / getTime, incrs * 1000000000 / incrTime);
+    map.dispose();
+  }
+
+  private long sumCounters(BigSortedMap map) {
+    AtomicLong sum = new AtomicLong();
+    long counter = UnsafeAccess.malloc(Utils.SIZEOF_INT + 1);
+    long value = UnsafeAccess.malloc(Utils.SIZEOF_LONG);
+    UnsafeAccess.putByte(counter, (byte) 0xff);
+    for (int i = 0; i < numCounters; i++) {
+      UnsafeAccess.putInt(counter + 1, i);
+      long size = map.get(counter, Utils.SIZEOF_INT + 1, value, Utils.SIZEOF_LONG, Long.MAX_VALUE);
+      if (size == Utils.SIZEOF_LONG) {
+        sum.addAndGet(UnsafeAccess.toLong(value));
+      }
+    }
+    UnsafeAccess.free(counter);
+    UnsafeAccess.free(value);
+    return sum.get();
+  }
+}
@@ -106,6 +106,25 @@ public class BigSortedMapLargeKVsTest extends CarrotCoreBase {
     assertEquals(totalLoaded, countRecords());
   }
 
+  @Test
+  public void testDeleteRange() throws IOException {
+    int start = keys.size() / 4;
+    int stop = keys.size() / 2;
+    Key startKey = keys.get(start);
+    Key stopKey = keys.get(stop);
+    long deleted = map.deleteRange(startKey.address, startKey.length, stopKey.address,
+      stopKey.length);
+    assertEquals(stop - start, (int) deleted);
+    assertEquals(totalLoaded - deleted, countRecords());
+    List<Key> left = new ArrayList<Key>(keys.subList(0, start));
+    left.addAll(keys.subList(stop, keys.size()));
+    verifyGets(left);
+    BigSortedMapScanner scanner = map.getScanner(0, 0, 0, 0);
+    long scanned = verifyScanner(scanner, left);
+    scanner.close();
+    assertEquals(left.size(), (int) scanned);
+  }
+
   @Test
   public void testGetAfterLoad() {
 
@@ -14,11 +14,16 @@ package com.carrotdata.redcarrot;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Random;
+import java.util.Set;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.redis.RedisConf;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import org.junit.Before;
 import org.junit.Test;
@@ -309,4 +314,192 @@ public class BigSortedMapSnapshotTest extends CarrotCoreBase {
     end = System.currentTimeMillis();
     log.debug("Verified {} in {}ms", records, end - start);
   }
+
+  @Test
+  public void testSnapshotPartitions() throws IOException {
+    int threads = BigSortedMap.getSnapshotThreads();
+    try {
+      // One partition per thread
+      BigSortedMap.setSnapshotPartitionSize(Integer.MAX_VALUE);
+      for (int n : new int[] { 1, 3, 8 }) {
+        BigSortedMap.setSnapshotThreads(n);
+        long start = System.currentTimeMillis();
+        map.snapshot();
+        long end = System.currentTimeMillis();
+        log.debug("snapshot create threads={} time={}ms", n, end - start);
+
+        File dir = new File(RedisConf.getInstance().getDataDir(0));
+        assertTrue(new File(dir, BigSortedMap.SNAPSHOT_MANIFEST).exists());
+        // Old partitions are deleted
+        assertEquals(n, partitionFiles(dir).size());
+
+        map.dispose();
+        start = System.currentTimeMillis();
+        BigSortedMap.setStatsUpdatesDisabled(true);
+        map = BigSortedMap.loadStore(0);
+        BigSortedMap.setStatsUpdatesDisabled(false);
+        map.syncStatsToGlobal();
+        end = System.currentTimeMillis();
+        log.debug("snapshot load threads={} time={}ms", n, end - start);
+
+        assertEquals(totalLoaded, countRecords());
+        verifyRecords();
+      }
+    } finally {
+      BigSortedMap.setSnapshotThreads(threads);
+      BigSortedMap.setSnapshotPartitionSize(RedisConf.getInstance().getSnapshotPartitionSize());
+    }
+  }
+
+  @Test
+  public void testIncrementalSnapshot() throws IOException {
+    // One partition per index block
+    BigSortedMap.setSnapshotPartitionSize(1);
+    try {
+      File dir = new File(RedisConf.getInstance().getDataDir(0));
+      map.snapshot(false);
+      Set<String> base = partitionFiles(dir);
+      log.debug("full snapshot partitions={}", base.size());
+      assertEquals(0, map.getSnapshotDeltas());
+
+      // Nothing has changed
+      map.snapshot(true);
+      assertEquals(base, partitionFiles(dir));
+      assertEquals(1, map.getSnapshotDeltas());
+
+      // Update, delete and insert records
+      assertTrue(load(1));
+      assertTrue(delete(2));
+      assertTrue(put("NEWKEY"));
+      map.snapshot(true);
+      Set<String> delta = partitionFiles(dir);
+      assertEquals(base.size(), delta.size());
+      delta.removeAll(base);
+      log.debug("incremental snapshot saved={}", delta.size());
+      assertTrue(delta.size() > 0 && delta.size() <= 3);
+      assertEquals(2, map.getSnapshotDeltas());
+
+      map.dispose();
+      BigSortedMap.setStatsUpdatesDisabled(true);
+      map = BigSortedMap.loadStore(0);
+      BigSortedMap.setStatsUpdatesDisabled(false);
+      map.syncStatsToGlobal();
+      assertEquals(totalLoaded, countRecords());
+      assertTrue(exists("KEY1"));
+      assertTrue(!exists("KEY2"));
+      assertTrue(exists("NEWKEY"));
+
+      // Loaded snapshot is a base for the next incremental one
+      assertEquals(2, map.getSnapshotDeltas());
+      base = partitionFiles(dir);
+      assertTrue(delete(3));
+      map.snapshot(true);
+      delta = partitionFiles(dir);
+      delta.removeAll(base);
+      assertEquals(1, delta.size());
+
+      // Full snapshot rewrites everything
+      map.snapshot(false);
+      assertEquals(0, map.getSnapshotDeltas());
+      delta = partitionFiles(dir);
+      delta.retainAll(base);
+      assertEquals(0, delta.size());
+    } finally {
+      BigSortedMap.setSnapshotPartitionSize(RedisConf.getInstance().getSnapshotPartitionSize());
+    }
+  }
+
+  @Test
+  public void testSnapshotMmapLoad() throws IOException {
+    int extValueLoaded = Math.max(1, (int) (MAX_ROWS / 100));
+    // Blocks with external allocations are loaded into memory
+    loadExtValueRecords(extValueLoaded);
+    map.snapshot();
+    map.dispose();
+    try {
+      BigSortedMap.setSnapshotLoadMmap(true);
+      long start = System.currentTimeMillis();
+      BigSortedMap.setStatsUpdatesDisabled(true);
+      map = BigSortedMap.loadStore(0);
+      BigSortedMap.setStatsUpdatesDisabled(false);
+      map.syncStatsToGlobal();
+      long end = System.currentTimeMillis();
+      log.debug("snapshot mmap load={}ms", end - start);
+
+      int mapped = mappedBlocks();
+      assertTrue(mapped > 0);
+      assertEquals(totalLoaded + extValueLoaded, countRecords());
+      verifyRecords();
+      verifyExtValueRecords(extValueLoaded);
+      // Reads do not copy data
+      assertEquals(mapped, mappedBlocks());
+
+      // Update, delete and insert records: updated blocks are copied
+      assertTrue(load(1));
+      assertTrue(delete(2));
+      assertTrue(put("NEWKEY"));
+      assertTrue(mappedBlocks() < mapped);
+      assertTrue(mappedBlocks() > 0);
+      assertEquals(totalLoaded + extValueLoaded, countRecords());
+      assertTrue(exists("KEY1"));
+      assertTrue(!exists("KEY2"));
+      assertTrue(exists("NEWKEY"));
+
+      // Snapshot of a mapped store
+      map.snapshot();
+      map.dispose();
+      BigSortedMap.setSnapshotLoadMmap(false);
+      BigSortedMap.setStatsUpdatesDisabled(true);
+      map = BigSortedMap.loadStore(0);
+      BigSortedMap.setStatsUpdatesDisabled(false);
+      map.syncStatsToGlobal();
+      assertEquals(0, mappedBlocks());
+      assertEquals(totalLoaded + extValueLoaded, countRecords());
+      assertTrue(!exists("KEY2"));
+      assertTrue(exists("NEWKEY"));
+      verifyExtValueRecords(extValueLoaded);
+    } finally {
+      BigSortedMap.setSnapshotLoadMmap(RedisConf.getInstance().isSnapshotLoadMmap());
+    }
+  }
+
+  private int mappedBlocks() {
+    int count = 0;
+    for (IndexBlock b : map.getMap().keySet()) {
+      if (b.isMapped()) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private Set<String> partitionFiles(File dir) {
+    String[] files = dir.list((d, name) -> name.startsWith(BigSortedMap.SNAPSHOT_PARTITION_PREFIX)
+        && name.endsWith(BigSortedMap.SNAPSHOT_PARTITION_SUFFIX));
+    return new HashSet<String>(Arrays.asList(files));
+  }
+
+  private boolean put(String k) {
+    byte[] key = k.getBytes();
+    long keyPtr = UnsafeAccess.allocAndCopy(key, 0, key.length);
+    boolean result = map.put(keyPtr, key.length, keyPtr, key.length, 0);
+    UnsafeAccess.free(keyPtr);
+    return result;
+  }
+
+  private boolean delete(long n) {
+    byte[] key = ("KEY" + n).getBytes();
+    long keyPtr = UnsafeAccess.allocAndCopy(key, 0, key.length);
+    boolean result = map.delete(keyPtr, key.length);
+    UnsafeAccess.free(keyPtr);
+    return result;
+  }
+
+  private boolean exists(String k) {
+    byte[] key = k.getBytes();
+    long keyPtr = UnsafeAccess.allocAndCopy(key, 0, key.length);
+    boolean result = map.exists(keyPtr, key.length);
+    UnsafeAccess.free(keyPtr);
+    return result;
+  }
 }
@@ -90,6 +90,7 @@ public abstract class CarrotCoreBase {
   public static Collection<Object[]> data() {
     return Arrays.asList(new Object[][] { { CodecFactory.getInstance().getCodec(CodecType.LZ4) },
       { CodecFactory.getInstance().getCodec(CodecType.ZSTD) },
+        { CodecFactory.getInstance().getCodec(CodecType.PREFIX) },
         { CodecFactory.getInstance().getCodec(CodecType.NONE) }
         // {CodecFactory.getInstance().getCodec(CodecType.LZ4HC)}
     });
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.compression.CodecFactory;
+import com.carrotdata.redcarrot.compression.CodecType;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Get/put latency versus maximum data block size, with and without data block record offset
+ * tables
+ */
+public class DataBlockSearchPerfTest {
+
+  private static final Logger log = LogManager.getLogger(DataBlockSearchPerfTest.class);
+
+  static final int[] BLOCK_SIZES = new int[] { 512, 1024, 2048, 4096 };
+
+  static final int N = 1000000;
+
+  static final int KEY_SIZE = 16;
+
+  static final int VALUE_SIZE = 16;
+
+  static long keys;
+
+  static long value;
+
+  @BeforeClass
+  public static void setUp() {
+    BigSortedMap.setCompressionCodec(CodecFactory.getInstance().getCodec(CodecType.NONE));
+    keys = UnsafeAccess.malloc((long) N * KEY_SIZE);
+    value = UnsafeAccess.malloc(VALUE_SIZE);
+    Random r = new Random(1);
+    byte[] buf = new byte[KEY_SIZE];
+    for (int i = 0; i < N; i++) {
+      r.nextBytes(buf);
+      UnsafeAccess.copy(buf, 0, keys + (long) i * KEY_SIZE, KEY_SIZE);
+    }
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    UnsafeAccess.free(keys);
+    UnsafeAccess.free(value);
+    BigSortedMap.setMaxBlockSize(4096);
+    DataBlock.setOffsetsEnabled(true);
+  }
+
+  @Test
+  public void testGetPutLatency() {
+    // Warm up
+    run(4096, true);
+    run(4096, false);
+    for (int size : BLOCK_SIZES) {
+      long[] with = run(size, true);
+      long[] without = run(size, false);
+      log.info("block={} put={}ns/{}ns get={}ns/{}ns (offsets/no offsets)", size, with[0],
+        without[0], with[1], without[1]);
+    }
+  }
+
+  /**
+   * Loads and reads all the keys
+   * @param blockSize maximum data block size
+   * @param offsets use record offset tables
+   * @return put and get latency in ns
+   */
+  private long[] run(int blockSize, boolean offsets) {
+    BigSortedMap.setMaxBlockSize(blockSize);
+    DataBlock.setOffsetsEnabled(offsets);
+    BigSortedMap map = new BigSortedMap(1L << 30);
+    try {
+      long start = System.nanoTime();
+      for (int i = 0; i < N; i++) {
+        assertTrue(map.put(keys + (long) i * KEY_SIZE, KEY_SIZE, value, VALUE_SIZE, 0));
+      }
+      long put = (System.nanoTime() - start) / N;
+      long buf = UnsafeAccess.malloc(VALUE_SIZE);
+      start = System.nanoTime();
+      for (int i = 0; i < N; i++) {
+        assertEquals(VALUE_SIZE, map.get(keys + (long) i * KEY_SIZE, KEY_SIZE, buf, VALUE_SIZE, 0));
+      }
+      long get = (System.nanoTime() - start) / N;
+      UnsafeAccess.free(buf);
+      return new long[] { put, get };
+    } finally {
+      map.dispose();
+    }
+  }
+}
@@ -328,6 +328,20 @@ public class DataBlockTest extends DataBlockTestBase {
     BigSortedMap.setCompressionCodec(CodecFactory.getInstance().getCodec(CodecType.NONE));
   }
 
+  @Test
+  public void testPrefixCompressionDecompression() throws RetryOperationException, IOException {
+    BigSortedMap.setCompressionCodec(CodecFactory.getInstance().getCodec(CodecType.PREFIX));
+    log.debug("testPrefixCompression");
+
+    DataBlock b = getDataBlock();
+    List<Key> keys = fillDataBlockSharedPrefix(b);
+    b.compressDataBlockIfNeeded();
+    assertTrue(b.isCompressed());
+    b.decompressDataBlockIfNeeded();
+    scanAndVerify(b, keys);
+    BigSortedMap.setCompressionCodec(CodecFactory.getInstance().getCodec(CodecType.NONE));
+  }
+
   @Test
   public void testFirstKey() throws IOException {
     log.debug("testFirstKey");
@@ -521,6 +535,28 @@ public class DataBlockTest extends DataBlockTestBase {
     return keys;
   }
 
+  protected ArrayList<Key> fillDataBlockSharedPrefix(DataBlock b) throws RetryOperationException {
+    ArrayList<Key> keys = new ArrayList<>();
+    Random r = new Random();
+    int prefixLength = 24;
+    int keyLength = 32;
+    byte[] prefix = new byte[prefixLength];
+    r.nextBytes(prefix);
+    boolean result = true;
+    while (result) {
+      byte[] key = new byte[keyLength];
+      r.nextBytes(key);
+      System.arraycopy(prefix, 0, key, 0, prefixLength);
+      long ptr = UnsafeAccess.malloc(keyLength);
+      UnsafeAccess.copy(key, 0, ptr, keyLength);
+      result = b.put(key, 0, key.length, key, 0, key.length, -1);
+      if (result) {
+        keys.add(new Key(ptr, keyLength));
+      }
+    }
+    return keys;
+  }
+
   protected void scanAndVerify(DataBlock b, List<Key> keys)
       throws RetryOperationException, IOException {
     long buffer = 0;
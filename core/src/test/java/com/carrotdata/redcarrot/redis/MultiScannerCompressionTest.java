@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.CarrotCoreBase;
+import com.carrotdata.redcarrot.compression.CodecType;
+import com.carrotdata.redcarrot.redis.sets.Sets;
+import com.carrotdata.redcarrot.redis.sparse.SparseBitmaps;
+import com.carrotdata.redcarrot.redis.util.Aggregate;
+import com.carrotdata.redcarrot.redis.util.BitOp;
+import com.carrotdata.redcarrot.redis.util.Commons;
+import com.carrotdata.redcarrot.redis.zsets.ZSets;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Multi-key operations (SINTER, ZUNIONSTORE, SBITOP) keep several scanners open at the same time.
+ * Sources are large enough to span many data blocks, so with a codec enabled scanners decompress
+ * blocks concurrently.
+ */
+public class MultiScannerCompressionTest extends CarrotCoreBase {
+
+  private static final Logger log = LogManager.getLogger(MultiScannerCompressionTest.class);
+
+  private int n;
+  private long buffer;
+  private int bufferSize = 1 << 20;
+
+  public MultiScannerCompressionTest(Object c) {
+    super(c);
+  }
+
+  @Before
+  @Override
+  public void setUp() throws IOException {
+    super.setUp();
+    n = memoryDebug ? 2000 : 20000;
+    buffer = UnsafeAccess.malloc(bufferSize);
+  }
+
+  @Override
+  public void extTearDown() {
+    UnsafeAccess.free(buffer);
+  }
+
+  private static String member(int i) {
+    return String.format("member-%08d", i);
+  }
+
+  private void verifyCompressed() {
+    if (codec != null && codec.getType() != CodecType.NONE) {
+      assertTrue(map.getInstanceCompressedDataSize() > 0);
+    }
+  }
+
+  private static long[] ptrs(String... keys) {
+    long[] ptrs = new long[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      ptrs[i] = UnsafeAccess.allocAndCopy(keys[i], 0, keys[i].length());
+    }
+    return ptrs;
+  }
+
+  private static int[] sizes(String... keys) {
+    int[] sizes = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      sizes[i] = keys[i].length();
+    }
+    return sizes;
+  }
+
+  private static void free(long[] ptrs) {
+    for (long ptr : ptrs) {
+      UnsafeAccess.free(ptr);
+    }
+  }
+
+  @Test
+  public void testSINTER() {
+    for (int i = 0; i < n; i++) {
+      String m = member(i);
+      Sets.SADD(map, "s1", m);
+      if (i % 2 == 0) Sets.SADD(map, "s2", m);
+      if (i % 3 == 0) Sets.SADD(map, "s3", m);
+      // Small set: members of other sets are looked up
+      if (i % 100 == 0) Sets.SADD(map, "s4", m);
+    }
+    verifyCompressed();
+
+    String[] keys = new String[] { "dst", "s1", "s2", "s3" };
+    long[] keyPtrs = ptrs(keys);
+    int[] keySizes = sizes(keys);
+    long count = Sets.SINTERSTORE(map, keyPtrs, keySizes);
+    assertEquals((n + 5) / 6, count);
+    assertEquals(count, Sets.SCARD(map, "dst"));
+    for (int i = 0; i < n; i++) {
+      assertEquals(i % 6 == 0 ? 1 : 0, Sets.SISMEMBER(map, "dst", member(i)));
+    }
+    // Result of SINTER is the same as SMEMBERS of the stored result
+    long size = Sets.SINTER(map, Arrays.copyOfRange(keyPtrs, 1, 4),
+      Arrays.copyOfRange(keySizes, 1, 4), buffer, bufferSize);
+    verifyBuffer(keyPtrs[0], keySizes[0], size);
+
+    free(keyPtrs);
+    keys = new String[] { "dst", "s4", "s1", "s2", "s3" };
+    keyPtrs = ptrs(keys);
+    keySizes = sizes(keys);
+    count = Sets.SINTERSTORE(map, keyPtrs, keySizes);
+    assertEquals((n + 299) / 300, count);
+    for (int i = 0; i < n; i += 100) {
+      assertEquals(i % 300 == 0 ? 1 : 0, Sets.SISMEMBER(map, "dst", member(i)));
+    }
+    size = Sets.SINTER(map, Arrays.copyOfRange(keyPtrs, 1, 5),
+      Arrays.copyOfRange(keySizes, 1, 5), buffer, bufferSize);
+    verifyBuffer(keyPtrs[0], keySizes[0], size);
+    free(keyPtrs);
+  }
+
+  private void verifyBuffer(long keyPtr, int keySize, long size) {
+    assertTrue(size > 0 && size <= bufferSize);
+    long expected = UnsafeAccess.malloc(bufferSize);
+    try {
+      assertEquals(size, Sets.SMEMBERS(map, keyPtr, keySize, expected, bufferSize));
+      assertEquals(0, Utils.compareTo(buffer, (int) size, expected, (int) size));
+    } finally {
+      UnsafeAccess.free(expected);
+    }
+  }
+
+  @Test
+  public void testZUNIONSTORE() {
+    for (int i = 0; i < n; i++) {
+      ZSets.ZADD(map, "z1", new String[] { member(i) }, new double[] { i }, false);
+      if (i % 2 == 0) {
+        ZSets.ZADD(map, "z2", new String[] { member(i) }, new double[] { -i }, false);
+      }
+      if (i % 5 == 0) {
+        ZSets.ZADD(map, "z3", new String[] { member(n + i) }, new double[] { i }, false);
+      }
+    }
+    verifyCompressed();
+
+    String[] keys = new String[] { "z1", "z2", "z3" };
+    long count = ZSets.ZUNIONSTORE(map, "dst", keys, null, Aggregate.SUM);
+    assertEquals(n + (n + 4) / 5, count);
+    assertEquals(count, ZSets.ZCARD(map, "dst"));
+    for (int i = 0; i < n; i++) {
+      double expected = i % 2 == 0 ? 0 : i;
+      assertEquals(expected, ZSets.ZSCORE(map, "dst", member(i)), 0.0);
+      if (i % 5 == 0) {
+        assertEquals((double) i, ZSets.ZSCORE(map, "dst", member(n + i)), 0.0);
+      }
+    }
+    count = ZSets.ZUNIONSTORE(map, "dst", keys, new double[] { 1, 2, 3 }, Aggregate.MIN);
+    assertEquals(n + (n + 4) / 5, count);
+    for (int i = 0; i < n; i++) {
+      double expected = i % 2 == 0 ? -2 * i : i;
+      assertEquals(expected, ZSets.ZSCORE(map, "dst", member(i)), 0.0);
+    }
+    log.debug("Compressed data size={}", map.getInstanceCompressedDataSize());
+  }
+
+  @Test
+  public void testSBITOP() {
+    String[] keys = new String[] { "dst", "b1", "b2", "b3" };
+    long[] keyPtrs = ptrs(keys);
+    int[] keySizes = sizes(keys);
+    BitSet[] bits = new BitSet[] { new BitSet(), new BitSet(), new BitSet() };
+    // Bits are spread over many chunks
+    for (int i = 0; i < n; i++) {
+      int offset = i * 37;
+      SparseBitmaps.SSETBIT(map, keyPtrs[1], keySizes[1], offset, 1);
+      bits[0].set(offset);
+      if (i % 2 == 0) {
+        SparseBitmaps.SSETBIT(map, keyPtrs[2], keySizes[2], offset + 1, 1);
+        bits[1].set(offset + 1);
+      }
+      if (i % 3 == 0) {
+        SparseBitmaps.SSETBIT(map, keyPtrs[3], keySizes[3], offset, 1);
+        bits[2].set(offset);
+      }
+    }
+    verifyCompressed();
+    long[] srcPtrs = Arrays.copyOfRange(keyPtrs, 1, 4);
+    int[] srcSizes = Arrays.copyOfRange(keySizes, 1, 4);
+
+    BitSet expected = (BitSet) bits[0].clone();
+    expected.or(bits[1]);
+    expected.or(bits[2]);
+    verifyBitop(BitOp.OR, keyPtrs[0], keySizes[0], srcPtrs, srcSizes, expected);
+
+    expected = (BitSet) bits[0].clone();
+    expected.and(bits[2]);
+    verifyBitop(BitOp.AND, keyPtrs[0], keySizes[0], new long[] { srcPtrs[0], srcPtrs[2] },
+      new int[] { srcSizes[0], srcSizes[2] }, expected);
+
+    expected = (BitSet) bits[0].clone();
+    expected.xor(bits[1]);
+    expected.xor(bits[2]);
+    verifyBitop(BitOp.XOR, keyPtrs[0], keySizes[0], srcPtrs, srcSizes, expected);
+    free(keyPtrs);
+  }
+
+  private void verifyBitop(BitOp op, long dstPtr, int dstSize, long[] srcPtrs, int[] srcSizes,
+      BitSet expected) {
+    long count = SparseBitmaps.SBITOP(map, op, dstPtr, dstSize, srcPtrs, srcSizes);
+    assertEquals(expected.cardinality(), count);
+    assertEquals(count, SparseBitmaps.SBITCOUNT(map, dstPtr, dstSize, Commons.NULL_LONG,
+      Commons.NULL_LONG));
+    int max = expected.length() + 64;
+    for (int i = 0; i < max; i++) {
+      assertEquals(expected.get(i) ? 1 : 0, SparseBitmaps.SGETBIT(map, dstPtr, dstSize, i));
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.util.Utils;
+import com.carrotdata.redcarrot.storage.WriteAheadLog;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestBlockedClients {
+
+  private static final Logger log = LogManager.getLogger(TestBlockedClients.class);
+
+  private BigSortedMap store;
+  private RequestHandlers handlers;
+  private ServerSocketChannel server;
+  private Thread acceptor;
+
+  static class Client implements AutoCloseable {
+    final Socket socket;
+    final OutputStream os;
+    final DataInputStream is;
+
+    Client(int port) throws IOException {
+      socket = new Socket("localhost", port);
+      os = socket.getOutputStream();
+      is = new DataInputStream(socket.getInputStream());
+    }
+
+    void send(String inline) throws IOException {
+      os.write(Utils.inlineToRedisRequest(inline).getBytes());
+      os.flush();
+    }
+
+    String read(int size) throws IOException {
+      byte[] buf = new byte[size];
+      is.readFully(buf);
+      return new String(buf);
+    }
+
+    void expect(String reply) throws IOException {
+      assertEquals(reply, read(reply.length()));
+    }
+
+    void call(String inline, String reply) throws IOException {
+      send(inline);
+      expect(reply);
+    }
+
+    @Override
+    public void close() throws IOException {
+      socket.close();
+    }
+  }
+
+  @Before
+  public void setUp() throws IOException {
+    store = new BigSortedMap(100000000);
+    // Two I/O threads: waiters and producers are served by different threads
+    handlers = RequestHandlers.create(store, 2);
+    handlers.start();
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress("localhost", 0));
+    acceptor = new Thread(() -> {
+      try {
+        while (true) {
+          SocketChannel ch = server.accept();
+          ch.configureBlocking(false);
+          handlers.register(ch);
+        }
+      } catch (IOException e) {
+        // closed
+      }
+    });
+    acceptor.start();
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.close();
+    acceptor.join();
+    handlers.shutdown();
+    // Wait until all connections are closed
+    waitForWaiting(0);
+    store.dispose();
+  }
+
+  private int port() throws IOException {
+    return ((InetSocketAddress) server.getLocalAddress()).getPort();
+  }
+
+  private void waitForWaiting(int expected) throws InterruptedException {
+    long start = System.currentTimeMillis();
+    while (BlockedClients.getWaitingCount() != expected) {
+      assertTrue(System.currentTimeMillis() - start < 10000);
+      Thread.sleep(1);
+    }
+  }
+
+  @Test
+  public void testServeInFifoOrder() throws Exception {
+    try (Client c1 = new Client(port()); Client c2 = new Client(port());
+        Client c3 = new Client(port()); Client p = new Client(port())) {
+      c1.send("BLPOP list 0");
+      waitForWaiting(1);
+      c2.send("BLPOP other list 0");
+      waitForWaiting(2);
+      c3.send("BRPOP list 0");
+      waitForWaiting(3);
+      // All elements are pushed before waiters are served
+      p.call("RPUSH list a b", ":2\r\n");
+      c1.expect("*2\r\n$4\r\nlist\r\n$1\r\na\r\n");
+      c2.expect("*2\r\n$4\r\nlist\r\n$1\r\nb\r\n");
+      waitForWaiting(1);
+      p.call("LPUSH list c", ":1\r\n");
+      c3.expect("*2\r\n$4\r\nlist\r\n$1\r\nc\r\n");
+      waitForWaiting(0);
+      p.call("LLEN list", ":0\r\n");
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    try (Client c = new Client(port())) {
+      long start = System.currentTimeMillis();
+      c.call("BLPOP list 0.2", "*-1\r\n");
+      long time = System.currentTimeMillis() - start;
+      log.debug("Timeout in {}ms", time);
+      assertTrue(time >= 200);
+      waitForWaiting(0);
+      // Connection is usable
+      c.call("BZPOPMIN zset 0.05", "*-1\r\n");
+      c.call("RPUSH list a", ":1\r\n");
+    }
+  }
+
+  @Test
+  public void testPipelinedRequests() throws Exception {
+    try (Client c = new Client(port()); Client p = new Client(port())) {
+      // Requests after a blocking one wait for it
+      c.send("BLPOP list 0");
+      c.send("LLEN list");
+      c.send("RPUSH list x");
+      waitForWaiting(1);
+      p.call("RPUSH list a b", ":2\r\n");
+      c.expect("*2\r\n$4\r\nlist\r\n$1\r\na\r\n");
+      c.expect(":1\r\n");
+      c.expect(":2\r\n");
+    }
+  }
+
+  @Test
+  public void testSortedSets() throws Exception {
+    try (Client c1 = new Client(port()); Client c2 = new Client(port());
+        Client p = new Client(port())) {
+      c1.send("BZPOPMIN zset 0");
+      waitForWaiting(1);
+      c2.send("BZPOPMAX zset 0");
+      waitForWaiting(2);
+      p.call("ZADD zset 1.5 a 2.5 b 3.5 c", ":3\r\n");
+      c1.expect("*3\r\n$4\r\nzset\r\n$1\r\na\r\n$3\r\n1.5\r\n");
+      c2.expect("*3\r\n$4\r\nzset\r\n$1\r\nc\r\n$3\r\n3.5\r\n");
+      p.call("ZCARD zset", ":1\r\n");
+    }
+  }
+
+  @Test
+  public void testMoveChain() throws Exception {
+    try (Client c1 = new Client(port()); Client c2 = new Client(port());
+        Client p = new Client(port())) {
+      c1.send("BLMOVE src dst LEFT LEFT 0");
+      waitForWaiting(1);
+      c2.send("BLPOP dst 0");
+      waitForWaiting(2);
+      // Element moved by a served client wakes up the next one
+      p.call("LPUSH src v", ":1\r\n");
+      c1.expect("$1\r\nv\r\n");
+      c2.expect("*2\r\n$3\r\ndst\r\n$1\r\nv\r\n");
+      waitForWaiting(0);
+      p.call("LLEN dst", ":0\r\n");
+    }
+  }
+
+  @Test
+  public void testClosedConnection() throws Exception {
+    try (Client p = new Client(port())) {
+      Client c = new Client(port());
+      c.send("BLPOP list 0");
+      waitForWaiting(1);
+      c.close();
+      waitForWaiting(0);
+      p.call("RPUSH list a", ":1\r\n");
+      // Element was not consumed
+      p.call("LLEN list", ":1\r\n");
+    }
+  }
+
+  @Test
+  public void testSyncedReplies() throws Exception {
+    File dir = Files.createTempDirectory("wal").toFile();
+    WriteAheadLog wal =
+        new WriteAheadLog(dir.getAbsolutePath(), WriteAheadLog.SyncPolicy.ALWAYS, 0, 1 << 20);
+    wal.open(0);
+    store.setWAL(wal);
+    try (Client c = new Client(port()); Client p = new Client(port())) {
+      // Pipelined requests: replies are sent together after the last write has been synced
+      p.send("SET key 1");
+      p.send("INCR key");
+      p.send("GET key");
+      p.expect("+OK\r\n:2\r\n$1\r\n2\r\n");
+      // Blocked request after a write is executed again, when replies have been sent
+      c.send("RPUSH other a");
+      c.send("BLPOP list 0");
+      c.expect(":1\r\n");
+      waitForWaiting(1);
+      p.call("RPUSH list b", ":1\r\n");
+      c.expect("*2\r\n$4\r\nlist\r\n$1\r\nb\r\n");
+      waitForWaiting(0);
+    } finally {
+      wal.close();
+      store.setWAL(null);
+    }
+    // SET, INCR, RPUSH, RPUSH and served BLPOP
+    assertEquals(5, wal.getSequence());
+    for (File f : dir.listFiles()) {
+      f.delete();
+    }
+    dir.delete();
+  }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestBITFIELD extends CommandBase {
+
+  protected String[] validRequests = new String[] {
+      "BITFIELD key SET i8 #0 100 SET i8 #1 200", /* 0 0 */
+      "BITFIELD key GET i8 0 GET i8 8 GET u8 8", /* 100 -56 200 */
+      "BITFIELD key1 INCRBY u2 100 1 OVERFLOW SAT INCRBY u2 102 1", /* 1 1 */
+      "BITFIELD key1 INCRBY u2 100 1 OVERFLOW SAT INCRBY u2 102 1", /* 2 2 */
+      "BITFIELD key1 INCRBY u2 100 1 OVERFLOW SAT INCRBY u2 102 1", /* 3 3 */
+      "bitfield key1 incrby u2 100 1 overflow sat incrby u2 102 1", /* 0 3 */
+      "BITFIELD key1 OVERFLOW FAIL INCRBY u2 102 1", /* nil */
+      "BITFIELD key2 SET u5 7 23 GET u16 0", /* 0 368 */
+      "BITFIELD key3 SET i64 60 -2 GET i64 60 GET u4 124", /* 0 -2 0 */
+      "STRLEN key3", /* 16 */
+      "BITFIELD key3 OVERFLOW SAT SET i64 0 9223372036854775807 INCRBY i64 0 1", /* 15 MAX */
+      "BITFIELD key3 INCRBY i64 0 2", /* -9223372036854775807 */
+      "BITFIELD key4 GET u8 0", /* 0 */
+      "GET key4" /* nil */
+  };
+
+  protected String[] validResponses = new String[] { "*2\r\n:0\r\n:0\r\n",
+      "*3\r\n:100\r\n:-56\r\n:200\r\n", "*2\r\n:1\r\n:1\r\n", "*2\r\n:2\r\n:2\r\n",
+      "*2\r\n:3\r\n:3\r\n", "*2\r\n:0\r\n:3\r\n", "*1\r\n$-1\r\n", "*2\r\n:0\r\n:368\r\n",
+      "*3\r\n:0\r\n:-2\r\n:0\r\n", ":16\r\n", "*2\r\n:15\r\n:9223372036854775807\r\n",
+      "*1\r\n:-9223372036854775807\r\n", "*1\r\n:0\r\n", "$-1\r\n" };
+
+  protected String[] invalidRequests = new String[] { "bitfieldd x y", /* unsupported command */
+      "BITFIELD", /* wrong number of arguments */
+      "BITFIELD key GET i8", /* wrong number of arguments */
+      "BITFIELD key OVERFLOW", /* wrong number of arguments */
+      "BITFIELD key GET x8 0", /* wrong bitfield type */
+      "BITFIELD key GET u64 0", /* wrong bitfield type */
+      "BITFIELD key GET i8 -1", /* out of range */
+      "BITFIELD key SET i8 0 a", /* wrong number format */
+      "BITFIELD key OVERFLOW XXX", /* wrong command format */
+      "BITFIELD key DEL i8 0" /* wrong command format */
+  };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Unsupported command: BITFIELDD\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong bitfield type (must be i1-i64 or u1-u63): x8\r\n",
+      "-ERR: Wrong bitfield type (must be i1-i64 or u1-u63): u64\r\n",
+      "-ERR: Index is out of range: -1\r\n", "-ERR: Wrong number format: a\r\n",
+      "-ERR: Wrong command format, unexpected argument: XXX\r\n",
+      "-ERR: Wrong command format, unexpected argument: DEL\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
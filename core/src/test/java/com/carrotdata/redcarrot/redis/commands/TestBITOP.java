@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestBITOP extends CommandBase {
+
+  protected String[] validRequests = new String[] { "SET key1 foobar", /* OK */
+      "SET key2 abcdef", /* OK */
+      "BITOP AND dest key1 key2", /* 6 */
+      "GET dest", /* `bc`ab */
+      "bitop or dest key1 key2", /* 6 */
+      "GET dest", /* goofev */
+      "BITOP XOR dest key1 key1", /* 6 */
+      "BITCOUNT dest", /* 0 */
+      "BITOP NOT dest key1", /* 6 */
+      "BITCOUNT dest", /* 22 */
+      "SET key3 ab", /* OK */
+      "BITOP OR dest key1 key3 key4", /* 6 */
+      "GET dest", /* goobar */
+      "BITOP AND key1 key1 key3", /* 6 */
+      "BITCOUNT key1 2 -1", /* 0 */
+      "BITOP OR dest key4 key5", /* 0 */
+      "GET dest" /* nil */
+  };
+
+  protected String[] validResponses = new String[] { "+OK\r\n", "+OK\r\n", ":6\r\n",
+      "$6\r\n`bc`ab\r\n", ":6\r\n", "$6\r\ngoofev\r\n", ":6\r\n", ":0\r\n", ":6\r\n", ":22\r\n",
+      "+OK\r\n", ":6\r\n", "$6\r\ngoobar\r\n", ":6\r\n", ":0\r\n", ":0\r\n", "$-1\r\n" };
+
+  protected String[] invalidRequests = new String[] { "bitopp x y", /* unsupported command */
+      "BITOP", /* wrong number of arguments */
+      "BITOP AND dest", /* wrong number of arguments */
+      "BITOP NAND dest key1", /* wrong command format */
+      "BITOP NOT dest key1 key2" /* wrong number of arguments */
+  };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Unsupported command: BITOPP\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong command format, unexpected argument: NAND\r\n",
+      "-ERR: Wrong number of arguments\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestBLMOVE extends CommandBase {
+
+  protected String[] validRequests = new String[] { "RPUSH src a b c", /* 3 */
+      "BLMOVE src dst LEFT RIGHT 0", /* a */
+      "BLMOVE src dst right left 0.5", /* c */
+      "LRANGE dst 0 -1", /* [c, a] */
+      "BLMOVE src dst LEFT LEFT 0", /* b */
+      "BLMOVE src dst LEFT LEFT 0.1" /* nil (times out) */
+  };
+
+  protected String[] validResponses = new String[] { ":3\r\n", "$1\r\na\r\n", "$1\r\nc\r\n",
+      "*2\r\n$1\r\nc\r\n$1\r\na\r\n", "$1\r\nb\r\n", "$-1\r\n" };
+
+  protected String[] invalidRequests = new String[] { "blmovee x y", /* unsupported command */
+      "BLMOVE x y LEFT LEFT", /* wrong number of arguments */
+      "BLMOVE x y LEFT UP 0", /* unexpected argument */
+      "BLMOVE x y LEFT LEFT z", /* wrong number format */
+      "BLMOVE x y LEFT LEFT -1" /* negative timeout */
+  };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Unsupported command: BLMOVEE\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong command format, unexpected argument\r\n",
+      "-ERR: Wrong number format: z\r\n", "-ERR: Timeout can't be negative\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestBRPOP extends CommandBase {
+
+  protected String[] validRequests = new String[] { "RPUSH key1 a b", /* 2 */
+      "BRPOP key key1 0", /* [key1, b] */
+      "BRPOP key1 key 0.5", /* [key1, a] */
+      "BRPOP key1 key 0.1", /* nil (times out) */
+      "brpop key1 0.01" /* nil (times out) */
+  };
+
+  protected String[] validResponses = new String[] { ":2\r\n",
+      "*2\r\n$4\r\nkey1\r\n$1\r\nb\r\n", "*2\r\n$4\r\nkey1\r\n$1\r\na\r\n", "*-1\r\n",
+      "*-1\r\n" };
+
+  protected String[] invalidRequests = new String[] { "brpopp x y", /* unsupported command */
+      "BRPOP", /* wrong number of arguments */
+      "BRPOP x", /* wrong number of arguments */
+      "BRPOP x y", /* wrong number format */
+      "BRPOP x -1" /* negative timeout */
+  };
+
+  protected String[] invalidResponses =
+      new String[] { "-ERR: Unsupported command: BRPOPP\r\n", "-ERR: Wrong number of arguments\r\n",
+          "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number format: y\r\n",
+          "-ERR: Timeout can't be negative\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
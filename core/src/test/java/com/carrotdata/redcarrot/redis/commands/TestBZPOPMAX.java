@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestBZPOPMAX extends CommandBase {
+
+  protected String[] validRequests = new String[] { "ZADD key1 1.5 a 2.5 b", /* 2 */
+      "BZPOPMAX key key1 0", /* [key1, b, 2.5] */
+      "BZPOPMAX key1 key 0.5", /* [key1, a, 1.5] */
+      "BZPOPMAX key1 key 0.1", /* nil (times out) */
+      "bzpopmax key1 0.01" /* nil (times out) */
+  };
+
+  protected String[] validResponses = new String[] { ":2\r\n",
+      "*3\r\n$4\r\nkey1\r\n$1\r\nb\r\n$3\r\n2.5\r\n",
+      "*3\r\n$4\r\nkey1\r\n$1\r\na\r\n$3\r\n1.5\r\n", "*-1\r\n",
+      "*-1\r\n" };
+
+  protected String[] invalidRequests = new String[] { "bzpopmaxx x y", /* unsupported command */
+      "BZPOPMAX", /* wrong number of arguments */
+      "BZPOPMAX x", /* wrong number of arguments */
+      "BZPOPMAX x y", /* wrong number format */
+      "BZPOPMAX x -1" /* negative timeout */
+  };
+
+  protected String[] invalidResponses = new String[] {
+      "-ERR: Unsupported command: BZPOPMAXX\r\n", "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number format: y\r\n",
+      "-ERR: Timeout can't be negative\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
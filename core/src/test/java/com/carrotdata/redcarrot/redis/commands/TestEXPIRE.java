@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestEXPIRE extends CommandBase {
+
+  protected String[] validRequests = new String[] { "SET key1 100", "EXPIRE key1 1000",
+      "TTL key1", "EXPIRE key1 2000 NX", "EXPIRE key1 2000 XX", "TTL key1", "EXPIRE key1 1000 GT",
+      "EXPIRE key1 1000 lt", "TTL key1", "EXPIRE key2 100", "SET key2 100", "EXPIRE key2 100 XX",
+      "EXPIRE key2 100 GT", "EXPIRE key2 100 NX", "TTL key2", "SADD key3 a", "EXPIRE key3 100",
+      "TTL key3", "EXPIRE key3 0", "TTL key3", "expire key1 -1", "GET key1" };
+
+  protected String[] validResponses = new String[] { "+OK\r\n", ":1\r\n", ":1000\r\n",
+      ":0\r\n", ":1\r\n", ":2000\r\n", ":0\r\n", ":1\r\n", ":1000\r\n", ":0\r\n",
+      "+OK\r\n", ":0\r\n", ":0\r\n", ":1\r\n", ":100\r\n", ":1\r\n", ":0\r\n", ":-1\r\n",
+      ":1\r\n", ":-2\r\n", ":1\r\n", "$-1\r\n" };
+
+  protected String[] invalidRequests = new String[] { "EXPIRE key1", /* wrong number of args */
+      "EXPIRE key1 100 NX XX", /* wrong number of args */
+      "EXPIRE key1 100 XY" /* unknown option */
+  };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong command format, unexpected argument: XY\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  @Override
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  @Override
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  @Override
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
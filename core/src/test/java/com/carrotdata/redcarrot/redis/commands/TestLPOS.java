@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestLPOS extends CommandBase {
+
+  protected String[] validRequests = new String[] { "RPUSH key a b c 1 2 3 c c", /* 8 */
+      "LPOS key c", /* 2 */
+      "LPOS key c RANK 2", /* 6 */
+      "LPOS key c RANK -1", /* 7 */
+      "LPOS key c COUNT 2", /* [2, 6] */
+      "LPOS key c RANK -1 COUNT 2", /* [7, 6] */
+      "LPOS key c COUNT 0", /* [2, 6, 7] */
+      "LPOS key c COUNT 0 MAXLEN 7", /* [2, 6] */
+      "LPOS key c RANK -1 COUNT 0 MAXLEN 2", /* [7, 6] */
+      "LPOS key x", /* nil */
+      "LPOS key x COUNT 0", /* [] */
+      "LPOS key c MAXLEN 2", /* nil */
+      "lpos key c rank 4" /* nil */
+  };
+
+  protected String[] validResponses = new String[] { ":8\r\n", ":2\r\n", ":6\r\n", ":7\r\n",
+      "*2\r\n:2\r\n:6\r\n", "*2\r\n:7\r\n:6\r\n", "*3\r\n:2\r\n:6\r\n:7\r\n", "*2\r\n:2\r\n:6\r\n",
+      "*2\r\n:7\r\n:6\r\n", "$-1\r\n", "*0\r\n", "$-1\r\n", "$-1\r\n" };
+
+  protected String[] invalidRequests = new String[] { "lpo x y", /* unsupported command */
+      "LPOS", /* wrong number of arguments */
+      "LPOS x", /* wrong number of arguments */
+      "LPOS x y RANK", /* wrong number of arguments */
+      "LPOS x y RANK 0", /* RANK is zero */
+      "LPOS x y COUNT -1", /* negative */
+      "LPOS x y MAXLEN z", /* wrong number format */
+      "LPOS x y LIMIT 1" /* unexpected argument */
+  };
+
+  protected String[] invalidResponses =
+      new String[] { "-ERR: Unsupported command: LPO\r\n", "-ERR: Wrong number of arguments\r\n",
+          "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number of arguments\r\n",
+          "-ERR: RANK can't be zero\r\n", "-ERR: Number can't be negative: -1\r\n",
+          "-ERR: Wrong number format: z\r\n",
+          "-ERR: Wrong command format, unexpected argument: LIMIT\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestLTRIM extends CommandBase {
+
+  protected String[] validRequests = new String[] { "RPUSH key v0 v1 v2 v3 v4 v5 v6 v7 v8 v9", /*
+                                                                                                * 10
+                                                                                                */
+      "LTRIM key 1 -2", /* OK */
+      "LRANGE key 0 -1", /* v1 - v8 */
+      "LTRIM key -3 100", /* OK */
+      "LRANGE key 0 -1", /* v6 - v8 */
+      "LTRIM key 1 1", /* OK */
+      "LRANGE key 0 -1", /* v7 */
+      "LTRIM key 2 1", /* OK */
+      "LLEN key", /* 0 */
+      "ltrim key 0 1" /* OK */
+  };
+
+  protected String[] validResponses = new String[] { ":10\r\n", "+OK\r\n",
+      "*8\r\n$2\r\nv1\r\n$2\r\nv2\r\n$2\r\nv3\r\n$2\r\nv4\r\n$2\r\nv5\r\n$2\r\nv6\r\n"
+          + "$2\r\nv7\r\n$2\r\nv8\r\n",
+      "+OK\r\n", "*3\r\n$2\r\nv6\r\n$2\r\nv7\r\n$2\r\nv8\r\n", "+OK\r\n", "*1\r\n$2\r\nv7\r\n",
+      "+OK\r\n", ":0\r\n", "+OK\r\n" };
+
+  protected String[] invalidRequests = new String[] { "ltrm x y", /* unsupported command */
+      "LTRIM", /* wrong number of arguments */
+      "LTRIM x", /* wrong number of arguments */
+      "LTRIM x 1", /* wrong number of arguments */
+      "LTRIM x 1 2 3", /* wrong number of arguments */
+      "LTRIM x y 1" /* wrong number format */
+  };
+
+  protected String[] invalidResponses =
+      new String[] { "-ERR: Unsupported command: LTRM\r\n", "-ERR: Wrong number of arguments\r\n",
+          "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number of arguments\r\n",
+          "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number format: y\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestPTTL extends CommandBase {
+
+  protected String[] validRequests = new String[] { "SET key1 100", "PTTL key1",
+      "SET key2 100 PXAT 1000", "PTTL key2", "PTTL key3", "HSET key4 f v", "PTTL key4",
+      "pttl key5" };
+
+  protected String[] validResponses = new String[] { "+OK\r\n", ":-1\r\n", "+OK\r\n",
+      ":-2\r\n", ":-2\r\n", ":1\r\n", ":-1\r\n", ":-2\r\n" };
+
+  protected String[] invalidRequests = new String[] { "pttl x y", /* wrong argument number */
+      "PTTL" /* wrong argument number */
+  };
+
+  protected String[] invalidResponses =
+      new String[] { "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number of arguments\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  @Override
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  @Override
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  @Override
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
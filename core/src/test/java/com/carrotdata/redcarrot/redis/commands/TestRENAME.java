@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestRENAME extends CommandBase {
+
+  protected String[] validRequests = new String[] { "SET key1 v1", "RENAME key1 key2", "GET key1",
+      "GET key2", "SET key3 v3 EX 1000", "RENAME key3 key2", "GET key2", "TTL key2",
+      "SADD set a b c", "RENAME set set1", "SCARD set", "SCARD set1", "ZADD zset 1 a 2 b",
+      "RENAME zset zset1", "ZCARD zset", "ZSCORE zset1 b", "HSET hash f v", "RENAME hash hash1",
+      "HGET hash1 f", "LPUSH list a b", "RENAME list list1", "LLEN list", "LLEN list1",
+      "RENAME list1 key2", "GET key2", "LLEN key2", "rename key2 key2" };
+
+  protected String[] validResponses = new String[] { "+OK\r\n", "+OK\r\n", "$-1\r\n",
+      "$2\r\nv1\r\n", "+OK\r\n", "+OK\r\n", "$2\r\nv3\r\n", ":1000\r\n", ":3\r\n",
+      "+OK\r\n", ":0\r\n", ":3\r\n", ":2\r\n", "+OK\r\n", ":0\r\n", "$3\r\n2.0\r\n",
+      ":1\r\n", "+OK\r\n", "$1\r\nv\r\n", ":2\r\n", "+OK\r\n", ":0\r\n", ":2\r\n",
+      "+OK\r\n", "$-1\r\n", ":2\r\n", "+OK\r\n" };
+
+  protected String[] invalidRequests = new String[] { "RENAME key", /* wrong number of args */
+      "RENAME key1 key2 key3", /* wrong number of args */
+      "RENAME nokey key" /* key does not exist */
+  };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Key does not exist\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  @Override
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  @Override
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  @Override
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestSBITOP extends CommandBase {
+
+  protected String[] validRequests = new String[] { "SSETBIT key1 1 1", /* 0 */
+      "SSETBIT key1 100 1", /* 0 */
+      "SSETBIT key1 40000 1", /* 0 */
+      "SSETBIT key1 100000 1", /* 0 */
+      "SSETBIT key2 100 1", /* 0 */
+      "SSETBIT key2 40000 1", /* 0 */
+      "SSETBIT key2 70000 1", /* 0 */
+      "SBITOP AND 2 key1 key2", /* 2 */
+      "sbitop or 2 key1 key2", /* 5 */
+      "SBITOP XOR 2 key1 key2", /* 3 */
+      "SBITOP ANDNOT 2 key1 key2", /* 2 */
+      "SBITOP AND 2 key1 key2 STORE dest", /* 2 */
+      "SBITCOUNT dest", /* 2 */
+      "SGETBIT dest 40000", /* 1 */
+      "SGETBIT dest 1", /* 0 */
+      "SBITOP OR 3 key1 key2 key3 store dest", /* 5 */
+      "SBITCOUNT dest", /* 5 */
+      "SBITOP AND 2 key1 key3 STORE dest", /* 0 */
+      "SBITCOUNT dest", /* 0 */
+      "SBITOP XOR 2 key1 key2 STORE key1", /* 3 */
+      "SBITCOUNT key1", /* 3 */
+      "SGETBIT key1 70000" /* 1 */
+  };
+
+  protected String[] validResponses = new String[] { ":0\r\n", ":0\r\n", ":0\r\n", ":0\r\n",
+      ":0\r\n", ":0\r\n", ":0\r\n", ":2\r\n", ":5\r\n", ":3\r\n", ":2\r\n", ":2\r\n", ":2\r\n",
+      ":1\r\n", ":0\r\n", ":5\r\n", ":5\r\n", ":0\r\n", ":0\r\n", ":3\r\n", ":3\r\n", ":1\r\n" };
+
+  protected String[] invalidRequests = new String[] { "sbitopp x y", /* unsupported command */
+      "SBITOP", /* wrong number of arguments */
+      "SBITOP AND 2 key1", /* wrong number of arguments */
+      "SBITOP NAND 1 key1", /* wrong command format */
+      "SBITOP AND x key1", /* wrong number format */
+      "SBITOP AND 0 key1", /* positive number expected */
+      "SBITOP AND 1 key1 KEEP dest" /* wrong command format */
+  };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Unsupported command: SBITOPP\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong command format, unexpected argument: NAND\r\n",
+      "-ERR: Wrong number format: x\r\n", "-ERR: Positive number expected: 0\r\n",
+      "-ERR: Wrong command format, unexpected argument: KEEP\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
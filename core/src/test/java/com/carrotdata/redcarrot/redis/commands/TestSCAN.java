@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestSCAN extends CommandBase {
+
+  protected String[] validRequests = new String[] { "SET key1 v", "SET key2 v", "SET key10 v",
+      "SADD set1 a b c", "HSET hash1 f1 v1", "ZADD zset1 1 a 2 b", "scan 0 count 2", // lower case
+      "SCAN 1 COUNT 2", "SCAN 2 COUNT 2", "SCAN 3 COUNT 2",
+      // Scan string keys which start with 'key'
+      "SCAN 0 MATCH key* COUNT 10", "SCAN 5 MATCH key* COUNT 10",
+      // Scan sets
+      "SCAN 0 TYPE set", "SCAN 7 TYPE set",
+      // All options
+      "scan 0 type zset match *1 count 100", "SCAN 9 TYPE zset MATCH *1 COUNT 100" };
+
+  // String keys go first, keys of the same type are ordered by size
+  protected String[] validResponses = new String[] { "+OK\r\n", "+OK\r\n", "+OK\r\n", ":3\r\n",
+      ":1\r\n", ":2\r\n", "*2\r\n$1\r\n1\r\n*2\r\n$4\r\nkey1\r\n$4\r\nkey2\r\n",
+      "*2\r\n$1\r\n2\r\n*2\r\n$5\r\nkey10\r\n$4\r\nset1\r\n",
+      "*2\r\n$1\r\n3\r\n*2\r\n$5\r\nhash1\r\n$5\r\nzset1\r\n", "*2\r\n$1\r\n0\r\n*0\r\n",
+      "*2\r\n$1\r\n5\r\n*3\r\n$4\r\nkey1\r\n$4\r\nkey2\r\n$5\r\nkey10\r\n",
+      "*2\r\n$1\r\n0\r\n*0\r\n", "*2\r\n$1\r\n7\r\n*1\r\n$4\r\nset1\r\n",
+      "*2\r\n$1\r\n0\r\n*0\r\n", "*2\r\n$1\r\n9\r\n*1\r\n$5\r\nzset1\r\n",
+      "*2\r\n$1\r\n0\r\n*0\r\n" };
+
+  protected String[] invalidRequests = new String[] { "SCAN", /* wrong number of arguments */
+      "SCAN 0 COUNT", /* wrong number of arguments */
+      "SCAN x", /* invalid cursor */
+      "SCAN 0 METCH a*", /* Wrong command format */
+      "SCAN 0 TYPE stream", /* Wrong command format */
+      "SCAN 0 MATCH a* COUNT 10a", /* Wrong number format */
+  };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Invalid cursor: x\r\n",
+      "-ERR: Wrong command format, unexpected argument: METCH\r\n",
+      "-ERR: Wrong command format, unexpected argument: stream\r\n",
+      "-ERR: Wrong number format: 10a\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  @Override
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  @Override
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  @Override
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestSINTER extends CommandBase {
+
+  protected String[] validRequests = new String[] { "SADD key1 a b c d", /* 4 */
+      "SADD key2 c", /* 1 */
+      "SADD key3 a c e", /* 3 */
+      "SINTER key1 key2 key3", /* c */
+      "sinter key1 key3", /* a c */
+      "SINTER key1 key4" /* empty array */
+  };
+
+  protected String[] validResponses = new String[] { ":4\r\n", ":1\r\n", ":3\r\n",
+      "*1\r\n$1\r\nc\r\n", "*2\r\n$1\r\na\r\n$1\r\nc\r\n", "*0\r\n" };
+
+  protected String[] invalidRequests = new String[] { "sintr x y", /* unsupported command */
+      "SINTER" /* wrong number of arguments */
+  };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Unsupported command: SINTR\r\n",
+      "-ERR: Wrong number of arguments\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
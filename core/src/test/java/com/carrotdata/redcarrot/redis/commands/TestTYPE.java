@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestTYPE extends CommandBase {
+
+  protected String[] validRequests = new String[] { "SET key1 100", "SADD set1 a b c",
+      "HSET hash1 f1 v1", "RPUSH list1 a b", "ZADD zset1 1 a 2 b", "TYPE key1", "type set1",
+      "TYPE hash1", "TYPE list1", "TYPE zset1", "TYPE key2" };
+
+  protected String[] validResponses = new String[] { "+OK\r\n", ":3\r\n", ":1\r\n", ":2\r\n",
+      ":2\r\n", "+string\r\n", "+set\r\n", "+hash\r\n", "+list\r\n", "+zset\r\n", "+none\r\n" };
+
+  protected String[] invalidRequests = new String[] { "TYPE", /* wrong arg number */ "TYPE x y" };
+
+  protected String[] invalidResponses = new String[] { "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number of arguments\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  @Override
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  @Override
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  @Override
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
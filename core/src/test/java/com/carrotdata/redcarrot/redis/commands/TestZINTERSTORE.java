@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestZINTERSTORE extends CommandBase {
+
+  protected String[] validRequests = new String[] { "ZADD key1 1 a 2 b 3 c", /* 3 */
+      "ZADD key2 3 b 4 c 5 d", /* 3 */
+      "ZINTERSTORE dst 2 key1 key2", /* 2 */
+      "ZSCORE dst b", /* 5.0 */
+      "zinterstore dst 2 key1 key2 weights 2 1 aggregate max", /* 2 */
+      "ZSCORE dst b", /* 4.0 */
+      "ZSCORE dst a", /* NULL */
+      "ZINTERSTORE dst 2 key1 key3", /* 0 */
+      "ZCARD dst", /* 0 */
+      "ZINTERSTORE key1 2 key1 key2 AGGREGATE MIN", /* 2 */
+      "ZRANGE key1 0 -1 WITHSCORES" /* b 2 c 3 */
+  };
+
+  protected String[] validResponses = new String[] { ":3\r\n", ":3\r\n",
+      ":2\r\n", "$3\r\n5.0\r\n", ":2\r\n", "$3\r\n4.0\r\n", "$-1\r\n", ":0\r\n", ":0\r\n",
+      ":2\r\n", "*4\r\n$1\r\nb\r\n$3\r\n2.0\r\n$1\r\nc\r\n$3\r\n3.0\r\n" };
+
+  protected String[] invalidRequests = new String[] { "zinterstoree x y", /* unsupported command */
+      "ZINTERSTORE", /* wrong number of arguments */
+      "ZINTERSTORE x 1", /* wrong number of arguments */
+      "ZINTERSTORE x 2 y", /* wrong number of arguments */
+      "ZINTERSTORE x a y z", /* wrong number format */
+      "ZINTERSTORE x 0 y z", /* positive number expected */
+      "ZINTERSTORE x 2 y z WEIGHTS 1", /* wrong number of arguments */
+      "ZINTERSTORE x 2 y z AGGREGATE AVG", /* wrong command format */
+      "ZINTERSTORE x 1 y LIMIT" /* wrong command format */
+  };
+
+  protected String[] invalidResponses = new String[] {
+      "-ERR: Unsupported command: ZINTERSTOREE\r\n", "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number format: a\r\n", "-ERR: Positive number expected: 0\r\n",
+      "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong command format, unexpected argument: AVG\r\n",
+      "-ERR: Wrong command format, unexpected argument: LIMIT\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc. 
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details. 
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.commands;
+
+public class TestZUNIONSTORE extends CommandBase {
+
+  protected String[] validRequests = new String[] { "ZADD key1 1 a 2 b 3 c", /* 3 */
+      "ZADD key2 3 b 4 c 5 d", /* 3 */
+      "ZUNIONSTORE dst 2 key1 key2", /* 4 */
+      "ZSCORE dst b", /* 5.0 */
+      "zunionstore dst 3 key1 key2 key3 weights 2 1 1 aggregate max", /* 4 */
+      "ZSCORE dst a", /* 2.0 */
+      "ZSCORE dst b", /* 4.0 */
+      "ZUNIONSTORE key1 2 key1 key2 AGGREGATE MIN", /* 4 */
+      "ZRANGE key1 0 -1 WITHSCORES" /* a 1 b 2 c 3 d 5 */
+  };
+
+  protected String[] validResponses = new String[] { ":3\r\n", ":3\r\n",
+      ":4\r\n", "$3\r\n5.0\r\n", ":4\r\n", "$3\r\n2.0\r\n", "$3\r\n4.0\r\n", ":4\r\n",
+      "*8\r\n$1\r\na\r\n$3\r\n1.0\r\n$1\r\nb\r\n$3\r\n2.0\r\n"
+          + "$1\r\nc\r\n$3\r\n3.0\r\n$1\r\nd\r\n$3\r\n5.0\r\n" };
+
+  protected String[] invalidRequests = new String[] { "zunionstoree x y", /* unsupported command */
+      "ZUNIONSTORE", /* wrong number of arguments */
+      "ZUNIONSTORE x 1", /* wrong number of arguments */
+      "ZUNIONSTORE x 2 y", /* wrong number of arguments */
+      "ZUNIONSTORE x a y z", /* wrong number format */
+      "ZUNIONSTORE x 0 y z", /* positive number expected */
+      "ZUNIONSTORE x 2 y z WEIGHTS 1", /* wrong number of arguments */
+      "ZUNIONSTORE x 2 y z AGGREGATE AVG", /* wrong command format */
+      "ZUNIONSTORE x 1 y LIMIT" /* wrong command format */
+  };
+
+  protected String[] invalidResponses = new String[] {
+      "-ERR: Unsupported command: ZUNIONSTOREE\r\n", "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number of arguments\r\n", "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong number format: a\r\n", "-ERR: Positive number expected: 0\r\n",
+      "-ERR: Wrong number of arguments\r\n",
+      "-ERR: Wrong command format, unexpected argument: AVG\r\n",
+      "-ERR: Wrong command format, unexpected argument: LIMIT\r\n" };
+
+  /** Subclasses must override */
+  protected String[] getValidRequests() {
+    return validRequests;
+  }
+
+  protected String[] getValidResponses() {
+    return validResponses;
+  }
+
+  protected String[] getInvalidRequests() {
+    return invalidRequests;
+  }
+
+  protected String[] getInvalidResponses() {
+    return invalidResponses;
+  }
+}
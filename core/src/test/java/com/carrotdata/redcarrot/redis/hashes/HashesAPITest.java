@@ -22,7 +22,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.CarrotCoreBase;
 import com.carrotdata.redcarrot.ops.OperationFailedException;
+import com.carrotdata.redcarrot.redis.util.Commons;
 import com.carrotdata.redcarrot.util.Pair;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 import org.junit.Before;
 import org.junit.Test;
@@ -533,6 +535,47 @@ public class HashesAPITest extends CarrotCoreBase {
     assertEquals(0, total);
   }
 
+  @Test
+  public void testValueOffsets() {
+    for (boolean offsets : new boolean[] { true, false }) {
+      Commons.setValueOffsetsEnabled(offsets);
+      try {
+        int n = 10 * nSize;
+        String key = "key";
+        // Random order of inserts splits values and updates their offset tables
+        List<String> list = loadDataRandomSize(key, n);
+        assertEquals(n, (int) Hashes.HLEN(map, key));
+        for (String f : list) {
+          assertEquals(f, Hashes.HGET(map, key, f, 200));
+        }
+        Random r = new Random();
+        for (int i = 0; i < n; i++) {
+          assertEquals(0, Hashes.HEXISTS(map, key, Utils.getRandomStr(r, 9)));
+        }
+        // Update existing fields
+        for (String f : list) {
+          assertEquals(0, Hashes.HSET(map, key, f, f + f));
+        }
+        assertEquals(n, scan(key, null, 100, 200, null));
+        // Delete every other field
+        for (int i = 0; i < n; i += 2) {
+          assertEquals(1, Hashes.HDEL(map, key, list.get(i)));
+        }
+        assertEquals(n / 2, (int) Hashes.HLEN(map, key));
+        for (int i = 0; i < n; i++) {
+          String f = list.get(i);
+          assertEquals(i % 2 == 0 ? null : f + f, Hashes.HGET(map, key, f, 200));
+        }
+        assertEquals(n / 2, scan(key, null, 100, 200, null));
+        long keyPtr = UnsafeAccess.allocAndCopy(key, 0, key.length());
+        Hashes.DELETE(map, keyPtr, key.length());
+        UnsafeAccess.free(keyPtr);
+      } finally {
+        Commons.setValueOffsetsEnabled(true);
+      }
+    }
+  }
+
   private int scan(String key, String lastSeenMember, int count, int bufferSize, String regex) {
     int total = 0;
     List<Pair<String>> result;
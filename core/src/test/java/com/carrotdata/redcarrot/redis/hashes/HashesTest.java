@@ -23,6 +23,8 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.CarrotCoreBase;
+import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.Metadata;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.KeyValue;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
@@ -314,6 +316,58 @@ public class HashesTest extends CarrotCoreBase {
     assertEquals(0, (int) recc);
   }
 
+  @Test
+  public void testMetadata() {
+
+    Key key = getKey();
+    int num = 10000;
+    // Field and value with their 1 byte VLE size prefixes
+    int fieldValueSize = 2 * (valSize + 1);
+    for (int i = 0; i < num; i++) {
+      long ptr = values.get(i).address;
+      int size = values.get(i).length;
+      int res = Hashes.HSET(map, key.address, key.length, ptr, size, ptr, size);
+      assertEquals(1, res);
+    }
+    assertEquals(num, Hashes.HLEN(map, key.address, key.length));
+    assertEquals((long) num * fieldValueSize,
+      Hashes.getHashSizeInBytes(map, key.address, key.length));
+    // All K-Vs of the hash, one metadata K-V and one key directory K-V
+    long chunks = Metadata.getChunks(map, DataType.HASH, key.address, key.length);
+    assertTrue(chunks > 1);
+    assertEquals(chunks + 2, countRecords(map));
+
+    // Overwrite does not change number of fields, but changes the size
+    long ptr = values.get(0).address;
+    long valuePtr = UnsafeAccess.malloc(2 * valSize);
+    assertEquals(0, Hashes.HSET(map, key.address, key.length, ptr, valSize, valuePtr, 2 * valSize));
+    UnsafeAccess.free(valuePtr);
+    assertEquals(num, Hashes.HLEN(map, key.address, key.length));
+    assertEquals((long) num * fieldValueSize + valSize,
+      Hashes.getHashSizeInBytes(map, key.address, key.length));
+
+    for (int i = 0; i < num / 2; i++) {
+      int res =
+          Hashes.HDEL(map, key.address, key.length, values.get(i).address, values.get(i).length);
+      assertEquals(1, res);
+    }
+    int left = num - num / 2;
+    assertEquals(left, Hashes.HLEN(map, key.address, key.length));
+    assertEquals((long) left * fieldValueSize,
+      Hashes.getHashSizeInBytes(map, key.address, key.length));
+    chunks = Metadata.getChunks(map, DataType.HASH, key.address, key.length);
+    assertEquals(chunks + 2, countRecords(map));
+
+    for (int i = num / 2; i < num; i++) {
+      int res =
+          Hashes.HDEL(map, key.address, key.length, values.get(i).address, values.get(i).length);
+      assertEquals(1, res);
+    }
+    assertEquals(0, Hashes.HLEN(map, key.address, key.length));
+    assertTrue(Hashes.isEmpty(map, key.address, key.length));
+    assertEquals(0, (int) countRecords(map));
+  }
+
   @Test
   public void testAddRemoveMulti() {
 
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.EvictionPolicy;
+import com.carrotdata.redcarrot.redis.CommandProcessor;
+import com.carrotdata.redcarrot.redis.util.Utils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EvictorTest {
+
+  private static final Logger log = LogManager.getLogger(EvictorTest.class);
+
+  static final long MEMORY = 4 * 1024 * 1024;
+
+  static final String VALUE = new String(new char[100]).replace('\0', 'v');
+
+  BigSortedMap map;
+
+  long limit;
+
+  @Before
+  public void setUp() {
+    // Memory can be allocated by other tests
+    limit = BigSortedMap.getGlobalAllocatedMemory() + MEMORY;
+    map = new BigSortedMap(limit);
+  }
+
+  @After
+  public void tearDown() {
+    map.dispose();
+    BigSortedMap.setEvictionPolicy(EvictionPolicy.NOEVICTION);
+    BigSortedMap.setGlobalMemoryLimit(Long.MAX_VALUE);
+  }
+
+  @Test
+  public void testNoEviction() {
+    BigSortedMap.setEvictionPolicy(EvictionPolicy.NOEVICTION);
+    int failed = 0;
+    for (int i = 0; i < 100000; i++) {
+      if (!"+OK\r\n".equals(execute("SET key:" + i + " " + VALUE))) {
+        failed++;
+      }
+    }
+    assertTrue(failed > 0);
+  }
+
+  @Test
+  public void testAllKeysLRU() {
+    BigSortedMap.setEvictionPolicy(EvictionPolicy.ALLKEYS_LRU);
+    int hot = 1000;
+    for (int i = 0; i < hot; i++) {
+      assertEquals("+OK\r\n", execute("SET hot:" + i + " " + VALUE));
+    }
+    for (int i = 0; i < 100000; i++) {
+      assertEquals("+OK\r\n", execute("SET cold:" + i + " " + VALUE));
+      if (i % 100 == 0) {
+        // Keep hot keys recently used
+        for (int j = 0; j < hot; j += 10) {
+          execute("GET hot:" + j);
+        }
+      }
+    }
+    verifyMemory();
+    int hotFound = count("hot:", hot);
+    int coldFound = count("cold:", 100000);
+    log.debug("LRU: hot={} cold={}", hotFound, coldFound);
+    assertTrue(coldFound < 100000);
+    assertTrue(hotFound > hot * 9 / 10);
+  }
+
+  @Test
+  public void testAllKeysLFU() {
+    BigSortedMap.setEvictionPolicy(EvictionPolicy.ALLKEYS_LFU);
+    int hot = 1000;
+    for (int i = 0; i < hot; i++) {
+      assertEquals("+OK\r\n", execute("SET hot:" + i + " " + VALUE));
+      for (int j = 0; j < 100; j++) {
+        execute("GET hot:" + i);
+      }
+    }
+    for (int i = 0; i < 100000; i++) {
+      assertEquals("+OK\r\n", execute("SET cold:" + i + " " + VALUE));
+    }
+    verifyMemory();
+    int hotFound = count("hot:", hot);
+    int coldFound = count("cold:", 100000);
+    log.debug("LFU: hot={} cold={}", hotFound, coldFound);
+    assertTrue(coldFound < 100000);
+    assertTrue(hotFound > hot * 9 / 10);
+  }
+
+  @Test
+  public void testVolatileTTL() {
+    BigSortedMap.setEvictionPolicy(EvictionPolicy.VOLATILE_TTL);
+    int persistent = 1000;
+    for (int i = 0; i < persistent; i++) {
+      assertEquals("+OK\r\n", execute("SET persistent:" + i + " " + VALUE));
+    }
+    for (int i = 0; i < 100000; i++) {
+      assertEquals("+OK\r\n", execute("SET volatile:" + i + " " + VALUE + " EX 100000"));
+    }
+    verifyMemory();
+    assertEquals(persistent, count("persistent:", persistent));
+    assertTrue(count("volatile:", 100000) < 100000);
+  }
+
+  @Test
+  public void testAllKeysRandom() {
+    BigSortedMap.setEvictionPolicy(EvictionPolicy.ALLKEYS_RANDOM);
+    for (int i = 0; i < 100000; i++) {
+      assertEquals("+OK\r\n", execute("SET key:" + i + " " + VALUE));
+    }
+    verifyMemory();
+    assertTrue(count("key:", 100000) < 100000);
+  }
+
+  @Test
+  public void testTypeAwareEviction() {
+    BigSortedMap.setEvictionPolicy(EvictionPolicy.ALLKEYS_RANDOM);
+    int fields = 20;
+    StringBuilder hset = new StringBuilder();
+    StringBuilder rpush = new StringBuilder();
+    for (int j = 0; j < fields; j++) {
+      hset.append(" f").append(j).append(" ").append(VALUE);
+      rpush.append(" ").append(VALUE);
+    }
+    int n = 10000;
+    for (int i = 0; i < n; i++) {
+      assertEquals(":" + fields + "\r\n", execute("HSET hash:" + i + hset));
+      assertEquals(":" + fields + "\r\n", execute("RPUSH list:" + i + rpush));
+    }
+    verifyMemory();
+    int hashes = 0, lists = 0;
+    for (int i = 0; i < n; i++) {
+      // Keys are evicted with all their fields and elements
+      String hlen = execute("HLEN hash:" + i);
+      assertTrue(hlen, hlen.equals(":0\r\n") || hlen.equals(":" + fields + "\r\n"));
+      hashes += hlen.equals(":0\r\n") ? 0 : 1;
+      String llen = execute("LLEN list:" + i);
+      assertTrue(llen, llen.equals(":0\r\n") || llen.equals(":" + fields + "\r\n"));
+      lists += llen.equals(":0\r\n") ? 0 : 1;
+    }
+    log.debug("Type aware: hashes={} lists={}", hashes, lists);
+    assertTrue(hashes < n);
+    assertTrue(lists < n);
+  }
+
+  private void verifyMemory() {
+    long allocated = BigSortedMap.getGlobalAllocatedMemory();
+    log.debug("Allocated={} limit={}", allocated, limit);
+    assertTrue(allocated < limit);
+  }
+
+  private int count(String prefix, int n) {
+    int found = 0;
+    for (int i = 0; i < n; i++) {
+      if (!"$-1\r\n".equals(execute("GET " + prefix + i))) {
+        found++;
+      }
+    }
+    return found;
+  }
+
+  private String execute(String inline) {
+    ByteBuffer in = ByteBuffer.allocate(8192);
+    ByteBuffer out = ByteBuffer.allocate(8192);
+    in.put(Utils.inlineToRedisRequest(inline).getBytes());
+    CommandProcessor.process(map, in, out);
+    out.flip();
+    byte[] bytes = new byte[out.limit()];
+    out.get(bytes);
+    return new String(bytes);
+  }
+}
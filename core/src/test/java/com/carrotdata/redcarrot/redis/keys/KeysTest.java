@@ -0,0 +1,348 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.CommandProcessor;
+import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.KeyDirectory;
+import com.carrotdata.redcarrot.redis.util.Utils;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KeysTest {
+
+  BigSortedMap map;
+
+  /* Number of Keys.SCAN calls made by the last scan */
+  int scanCalls;
+
+  @Before
+  public void setUp() {
+    map = new BigSortedMap(100000000);
+  }
+
+  @After
+  public void tearDown() {
+    map.dispose();
+  }
+
+  @Test
+  public void testTypeAndExists() {
+    createAll("");
+    assertEquals(DataType.STRING, type("string"));
+    assertEquals(DataType.LIST, type("list"));
+    assertEquals(DataType.SET, type("set"));
+    assertEquals(DataType.ZSET, type("zset"));
+    assertEquals(DataType.ZSET, type("bigzset"));
+    assertEquals(DataType.HASH, type("hash"));
+    assertEquals(DataType.SBITMAP, type("bitmap"));
+    assertNull(type("nokey"));
+    assertEquals(7, exists("string", "list", "set", "zset", "bigzset", "hash", "bitmap"));
+    assertEquals(2, exists("set", "nokey", "set"));
+    assertEquals(":-1\r\n", execute("TTL hash"));
+    assertEquals(":-2\r\n", execute("TTL nokey"));
+  }
+
+  @Test
+  public void testDeleteAll() {
+    createAll("");
+    assertEquals(":7\r\n", execute("DEL string list set zset bigzset hash bitmap nokey"));
+    for (String key : new String[] { "string", "list", "set", "zset", "bigzset", "hash",
+        "bitmap" }) {
+      assertNull(type(key));
+    }
+    // No directory records left
+    assertEquals(0L, map.countRecords());
+  }
+
+  @Test
+  public void testCollectionsBecomeEmpty() {
+    execute("LPUSH list a");
+    execute("LPOP list");
+    execute("SADD set a");
+    execute("SREM set a");
+    execute("HSET hash f v");
+    execute("HDEL hash f");
+    execute("SSETBIT bitmap 1000 1");
+    execute("SSETBIT bitmap 1000 0");
+    execute("ZADD zset 1 a");
+    execute("ZREM zset a");
+    assertEquals(0L, map.countRecords());
+    // Update of the only member re-creates the set part of a sorted set
+    execute("ZADD zset 1 a");
+    execute("ZADD zset 2 a");
+    assertEquals(DataType.ZSET, type("zset"));
+    execute("ZINCRBY zset 1 a");
+    assertEquals(DataType.ZSET, type("zset"));
+  }
+
+  @Test
+  public void testDuplicateKeys() {
+    execute("SET key v");
+    execute("LPUSH key a");
+    execute("SADD key a");
+    assertEquals(DataType.STRING, type("key"));
+    // DEL deletes one key at a time
+    assertEquals(":1\r\n", execute("DEL key"));
+    assertEquals(DataType.SET, type("key"));
+    assertEquals(":1\r\n", execute("DEL key"));
+    assertEquals(DataType.LIST, type("key"));
+    assertEquals(":1\r\n", execute("DEL key"));
+    assertNull(type("key"));
+    assertEquals(":0\r\n", execute("DEL key"));
+    assertEquals(0L, map.countRecords());
+  }
+
+  @Test
+  public void testRenameLarge() {
+    int n = 20000;
+    for (int i = 0; i < n; i += 100) {
+      StringBuilder sb = new StringBuilder("HSET hash");
+      for (int j = i; j < i + 100; j++) {
+        sb.append(" field:" + j + " value:" + j);
+      }
+      execute(sb.toString());
+    }
+    assertEquals("+OK\r\n", execute("RENAME hash hash1"));
+    assertNull(type("hash"));
+    assertEquals(DataType.HASH, type("hash1"));
+    assertEquals(":" + n + "\r\n", execute("HLEN hash1"));
+    for (int i = 0; i < n; i += 1000) {
+      assertEquals("$" + ("value:" + i).length() + "\r\nvalue:" + i + "\r\n",
+        execute("HGET hash1 field:" + i));
+    }
+  }
+
+  @Test
+  public void testRebuild() {
+    createAll("");
+    long count = map.countRecords();
+    // Rebuild the directory from scratch
+    for (String key : new String[] { "list", "set", "zset", "bigzset", "hash", "bitmap" }) {
+      long ptr = UnsafeAccess.allocAndCopy(key, 0, key.length());
+      KeyDirectory.remove(map, 0xff, ptr, key.length());
+      UnsafeAccess.free(ptr);
+      assertNull(type(key));
+    }
+    // Sorted set in a normal mode is indexed as a set and as a hash
+    assertEquals(7, KeyDirectory.rebuildIfNeeded(map));
+    // A marker is added
+    assertEquals(count + 1, map.countRecords());
+    assertEquals(-1, KeyDirectory.rebuildIfNeeded(map));
+    assertEquals(DataType.LIST, type("list"));
+    assertEquals(DataType.SET, type("set"));
+    // Compact sorted set can not be told from a set
+    assertEquals(DataType.SET, type("zset"));
+    assertEquals(DataType.ZSET, type("bigzset"));
+    assertEquals(DataType.HASH, type("hash"));
+    assertEquals(DataType.SBITMAP, type("bitmap"));
+  }
+
+  @Test
+  public void testRebuildMalformedKeys() {
+    createAll("");
+    for (String key : new String[] { "list", "set", "zset", "bigzset", "hash", "bitmap" }) {
+      long ptr = UnsafeAccess.allocAndCopy(key, 0, key.length());
+      KeyDirectory.remove(map, 0xff, ptr, key.length());
+      UnsafeAccess.free(ptr);
+    }
+    // Set K-Vs with negative, zero, overflowing and too large external key lengths
+    int size = 16;
+    long ptr = UnsafeAccess.mallocZeroed(size);
+    long valuePtr = UnsafeAccess.mallocZeroed(1);
+    for (int len : new int[] { -5, 0, Integer.MAX_VALUE, size }) {
+      UnsafeAccess.putByte(ptr, (byte) DataType.SET.ordinal());
+      UnsafeAccess.putInt(ptr + 1, len);
+      UnsafeAccess.putByte(ptr + size - 1, (byte) len);
+      assertTrue(map.put(ptr, size, valuePtr, 1, 0));
+    }
+    UnsafeAccess.free(ptr);
+    UnsafeAccess.free(valuePtr);
+    // Malformed keys are skipped
+    assertEquals(7, KeyDirectory.rebuildIfNeeded(map));
+    assertEquals(DataType.LIST, type("list"));
+    assertEquals(DataType.SET, type("set"));
+    assertEquals(DataType.HASH, type("hash"));
+  }
+
+  @Test
+  public void testDbSize() {
+    int n = 100;
+    for (int i = 0; i < n; i++) {
+      createAll(":" + i);
+    }
+    assertEquals(7 * n, Keys.DBSIZE(map));
+    // Large hash is split into many K-Vs, but it is a single key
+    for (int i = 0; i < 20000; i += 100) {
+      StringBuilder sb = new StringBuilder("HSET largehash");
+      for (int j = i; j < i + 100; j++) {
+        sb.append(" field:" + j + " value:" + j);
+      }
+      execute(sb.toString());
+    }
+    assertEquals(7 * n + 1, Keys.DBSIZE(map));
+    for (int i = 0; i < n; i += 2) {
+      execute("DEL string:" + i + " list:" + i + " bigzset:" + i + " bitmap:" + i);
+    }
+    execute("DEL largehash");
+    assertEquals(7 * n - 4 * n / 2, Keys.DBSIZE(map));
+    assertEquals(":" + (7 * n - 4 * n / 2) + "\r\n", execute("DBSIZE"));
+    execute("FLUSHALL");
+    assertEquals(0, Keys.DBSIZE(map));
+  }
+
+  @Test
+  public void testScan() {
+    int n = 1000;
+    for (int i = 0; i < n; i++) {
+      execute("SET user:" + i + " v");
+      execute("SADD order:" + i + " a b c");
+    }
+    createAll("");
+    // Every key is reported once
+    List<String> keys = scan(null, null, 100);
+    assertEquals(2 * n + 7, keys.size());
+    assertEquals(Keys.DBSIZE(map), keys.size());
+    assertEquals(keys.size(), new HashSet<String>(keys).size());
+    // Only the key range of a pattern is visited: user:1, user:10-19, user:100-199
+    keys = scan("user:1*", null, 111);
+    assertEquals(111, keys.size());
+    // All of them are visited by the first call, the second call completes the scan
+    assertEquals(2, scanCalls);
+    keys = scan("order:?[0-4]", DataType.SET, 7);
+    assertEquals(45, keys.size());
+    keys = scan("*", DataType.ZSET, 3);
+    assertEquals(2, keys.size());
+    assertTrue(keys.contains("zset") && keys.contains("bigzset"));
+    keys = scan("*set", null, 1);
+    assertEquals(3, keys.size());
+    keys = scan("nokey*", null, 10);
+    assertEquals(0, keys.size());
+    // KEYS reports a required buffer size
+    long buffer = UnsafeAccess.malloc(1024);
+    long size = Keys.KEYS(map, "user:*", buffer, 1024);
+    UnsafeAccess.free(buffer);
+    assertTrue(size > 1024);
+    buffer = UnsafeAccess.malloc(size);
+    try {
+      assertEquals(size, Keys.KEYS(map, "user:*", buffer, (int) size));
+      assertEquals(n, UnsafeAccess.toInt(buffer));
+    } finally {
+      UnsafeAccess.free(buffer);
+    }
+  }
+
+  private List<String> scan(String pattern, DataType type, int count) {
+    List<String> keys = new ArrayList<String>();
+    Set<String> seen = new HashSet<String>();
+    int bufferSize = 65536;
+    long buffer = UnsafeAccess.malloc(bufferSize);
+    long lastPtr = 0;
+    int lastSize = 0;
+    scanCalls = 0;
+    try {
+      while (true) {
+        scanCalls++;
+        long size = Keys.SCAN(map, lastPtr, lastSize, count, buffer, bufferSize, pattern, type);
+        if (lastPtr > 0) {
+          UnsafeAccess.free(lastPtr);
+          lastPtr = 0;
+        }
+        if (size == 0) {
+          break;
+        }
+        int num = UnsafeAccess.toInt(buffer);
+        long ptr = buffer + com.carrotdata.redcarrot.util.Utils.SIZEOF_INT;
+        for (int i = 0; i < num; i++) {
+          int len = com.carrotdata.redcarrot.util.Utils.readUVInt(ptr);
+          ptr += com.carrotdata.redcarrot.util.Utils.sizeUVInt(len);
+          if (i < num - 1) {
+            String key = com.carrotdata.redcarrot.util.Utils.toString(ptr, len);
+            assertTrue(key, seen.add(key));
+            keys.add(key);
+          } else {
+            // Last seen key
+            lastPtr = UnsafeAccess.allocAndCopy(ptr, len);
+            lastSize = len;
+          }
+          ptr += len;
+        }
+      }
+    } finally {
+      UnsafeAccess.free(buffer);
+    }
+    return keys;
+  }
+
+  private void createAll(String suffix) {
+    execute("SET string" + suffix + " v");
+    execute("LPUSH list" + suffix + " a b c");
+    execute("SADD set" + suffix + " a b c");
+    execute("ZADD zset" + suffix + " 1 a 2 b");
+    StringBuilder sb = new StringBuilder("ZADD bigzset" + suffix);
+    for (int i = 0; i < 500; i++) {
+      sb.append(" " + i + " member:" + i);
+    }
+    execute(sb.toString());
+    execute("HSET hash" + suffix + " f v");
+    execute("SSETBIT bitmap" + suffix + " 100000 1");
+  }
+
+  private DataType type(String key) {
+    long ptr = UnsafeAccess.allocAndCopy(key, 0, key.length());
+    try {
+      return Keys.TYPE(map, ptr, key.length());
+    } finally {
+      UnsafeAccess.free(ptr);
+    }
+  }
+
+  private int exists(String... keys) {
+    long[] ptrs = new long[keys.length];
+    int[] sizes = new int[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      ptrs[i] = UnsafeAccess.allocAndCopy(keys[i], 0, keys[i].length());
+      sizes[i] = keys[i].length();
+    }
+    try {
+      return Keys.EXISTS(map, ptrs, sizes);
+    } finally {
+      for (long ptr : ptrs) {
+        UnsafeAccess.free(ptr);
+      }
+    }
+  }
+
+  private String execute(String inline) {
+    ByteBuffer in = ByteBuffer.allocate(65536);
+    ByteBuffer out = ByteBuffer.allocate(65536);
+    in.put(Utils.inlineToRedisRequest(inline).getBytes());
+    CommandProcessor.process(map, in, out);
+    out.flip();
+    byte[] bytes = new byte[out.limit()];
+    out.get(bytes);
+    return new String(bytes);
+  }
+}
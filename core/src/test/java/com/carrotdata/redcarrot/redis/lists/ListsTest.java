@@ -824,6 +824,213 @@ public class ListsTest extends CarrotCoreBase {
     assertEquals(0, (int) Lists.LLEN(map, key.address, key.length));
   }
 
+  @Test
+  public void testSegmentIndex() {
+    Key key = getKey();
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    log.debug("Test seed={}", seed);
+    // List model - indexes of values
+    List<Integer> list = new ArrayList<>();
+    int toLoad = nValues / 10;
+    for (int i = 0; i < toLoad; i++) {
+      Value v = values.get(i);
+      long[] elemPtrs = new long[] { v.address };
+      int[] elemSizes = new int[] { v.length };
+      if (r.nextBoolean()) {
+        Lists.LPUSH(map, key.address, key.length, elemPtrs, elemSizes);
+        list.add(0, i);
+      } else {
+        Lists.RPUSH(map, key.address, key.length, elemPtrs, elemSizes);
+        list.add(i);
+      }
+    }
+    verifyList(key, list, r);
+    for (int i = 0; i < 10 * toLoad; i++) {
+      int op = r.nextInt(6);
+      int index = r.nextInt(list.size());
+      int vi = r.nextInt(nValues);
+      Value v = values.get(vi);
+      long[] elemPtrs = new long[] { v.address };
+      int[] elemSizes = new int[] { v.length };
+      switch (op) {
+        case 0:
+          Lists.LPUSH(map, key.address, key.length, elemPtrs, elemSizes);
+          list.add(0, vi);
+          break;
+        case 1:
+          Lists.RPUSH(map, key.address, key.length, elemPtrs, elemSizes);
+          list.add(vi);
+          break;
+        case 2:
+          assertEquals(valueSize, Lists.LPOP(map, key.address, key.length, buffer, bufferSize));
+          list.remove(0);
+          break;
+        case 3:
+          assertEquals(valueSize, Lists.RPOP(map, key.address, key.length, buffer, bufferSize));
+          list.remove(list.size() - 1);
+          break;
+        case 4:
+          assertEquals(list.size(),
+            (int) Lists.LSET(map, key.address, key.length, index, v.address, v.length));
+          list.set(index, vi);
+          break;
+        default:
+          // Insert before an element, values are random - pivot is the first occurrence
+          Value pivot = values.get(list.get(index));
+          index = list.indexOf(list.get(index));
+          Lists.LINSERT(map, key.address, key.length, false, pivot.address, pivot.length,
+            v.address, v.length);
+          list.add(index, vi);
+      }
+      int k = r.nextInt(list.size());
+      int sz = Lists.LINDEX(map, key.address, key.length, k, buffer, bufferSize);
+      assertEquals(valueSize, sz);
+      Value expected = values.get(list.get(k));
+      assertEquals(0, Utils.compareTo(expected.address, expected.length, buffer, sz));
+    }
+    verifyList(key, list, r);
+    Lists.DELETE(map, key.address, key.length);
+    assertEquals(0, (int) Lists.LLEN(map, key.address, key.length));
+  }
+
+  private void verifyList(Key key, List<Integer> list, Random r) {
+    assertEquals(list.size(), (int) Lists.LLEN(map, key.address, key.length));
+    for (int i = 0; i < list.size(); i++) {
+      int sz = Lists.LINDEX(map, key.address, key.length, i, buffer, bufferSize);
+      assertEquals(valueSize, sz);
+      Value expected = values.get(list.get(i));
+      assertEquals(0, Utils.compareTo(expected.address, expected.length, buffer, sz));
+    }
+    int size = 100 * (valueSize + Utils.SIZEOF_INT) + Utils.SIZEOF_INT;
+    long buf = UnsafeAccess.malloc(size);
+    for (int i = 0; i < 100; i++) {
+      int start = r.nextInt(list.size());
+      int end = Math.min(start + 99, list.size() - 1);
+      Lists.LRANGE(map, key.address, key.length, start, end, buf, size);
+      assertEquals(end - start + 1, UnsafeAccess.toInt(buf));
+      long ptr = buf + Utils.SIZEOF_INT;
+      for (int j = start; j <= end; j++) {
+        int sz = Utils.readUVInt(ptr);
+        int ssz = Utils.sizeUVInt(sz);
+        Value expected = values.get(list.get(j));
+        assertEquals(0, Utils.compareTo(expected.address, expected.length, ptr + ssz, sz));
+        ptr += sz + ssz;
+      }
+    }
+    UnsafeAccess.free(buf);
+  }
+
+  @Test
+  public void testLTRIM() {
+    Key key = getKey();
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    log.debug("Test seed={}", seed);
+    List<Integer> list = new ArrayList<>();
+    for (int i = 0; i < nValues; i++) {
+      Value v = values.get(i);
+      Lists.RPUSH(map, key.address, key.length, new long[] { v.address }, new int[] { v.length });
+      list.add(i);
+    }
+    for (int k = 0; k < 50; k++) {
+      int size = list.size();
+      int start = r.nextInt(size / 10 + 1);
+      int end = size - 1 - r.nextInt(size / 10 + 1);
+      // Use negative end sometimes
+      long stop = r.nextBoolean() ? end : end - size;
+      assertEquals(end - start + 1, (int) Lists.LTRIM(map, key.address, key.length, start, stop));
+      list = new ArrayList<>(list.subList(start, end + 1));
+      verifyList(key, list, r);
+      // Push some more to both sides
+      for (int i = 0; i < 10; i++) {
+        int vi = r.nextInt(nValues);
+        Value v = values.get(vi);
+        long[] elemPtrs = new long[] { v.address };
+        int[] elemSizes = new int[] { v.length };
+        Lists.LPUSH(map, key.address, key.length, elemPtrs, elemSizes);
+        list.add(0, vi);
+        Lists.RPUSH(map, key.address, key.length, elemPtrs, elemSizes);
+        list.add(vi);
+      }
+    }
+    // Capped list
+    Lists.DELETE(map, key.address, key.length);
+    list.clear();
+    for (int i = 0; i < nValues; i++) {
+      Value v = values.get(i);
+      Lists.LPUSH(map, key.address, key.length, new long[] { v.address }, new int[] { v.length });
+      list.add(0, i);
+      int len = (int) Lists.LTRIM(map, key.address, key.length, 0, 999);
+      if (list.size() > 1000) {
+        list.remove(list.size() - 1);
+      }
+      assertEquals(list.size(), len);
+    }
+    verifyList(key, list, r);
+    // Out of range - list is deleted
+    assertEquals(0, (int) Lists.LTRIM(map, key.address, key.length, 1000, -1));
+    assertEquals(0, (int) Lists.LLEN(map, key.address, key.length));
+  }
+
+  @Test
+  public void testLPOS() {
+    Key key = getKey();
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    log.debug("Test seed={}", seed);
+    // Small set of distinct values to get duplicates
+    int distinct = 100;
+    List<Integer> list = new ArrayList<>();
+    for (int i = 0; i < nValues / 10; i++) {
+      int vi = r.nextInt(distinct);
+      Value v = values.get(vi);
+      Lists.RPUSH(map, key.address, key.length, new long[] { v.address }, new int[] { v.length });
+      list.add(vi);
+    }
+    int size = list.size();
+    int bufSize = Utils.SIZEOF_INT + size * Utils.SIZEOF_LONG;
+    long buf = UnsafeAccess.malloc(bufSize);
+    for (int i = 0; i < 1000; i++) {
+      int vi = r.nextInt(distinct + 1);
+      Value v = values.get(vi);
+      int rank = r.nextInt(10) + 1;
+      rank = r.nextBoolean() ? rank : -rank;
+      int count = r.nextInt(4) == 0 ? 0 : r.nextInt(20) + 1;
+      int maxlen = r.nextBoolean() ? 0 : r.nextInt(size) + 1;
+      // Expected
+      List<Long> expected = new ArrayList<>();
+      int compared = 0;
+      int skip = Math.abs(rank) - 1;
+      for (int j = 0; j < size && (maxlen == 0 || compared < maxlen); j++, compared++) {
+        int index = rank > 0 ? j : size - 1 - j;
+        if (list.get(index) == vi) {
+          if (skip > 0) {
+            skip--;
+          } else {
+            expected.add((long) index);
+            if (expected.size() == count) {
+              break;
+            }
+          }
+        }
+      }
+      int sz = Lists.LPOS(map, key.address, key.length, v.address, v.length, rank, count, maxlen,
+        buf, bufSize);
+      assertEquals(Utils.SIZEOF_INT + expected.size() * Utils.SIZEOF_LONG, sz);
+      assertEquals(expected.size(), UnsafeAccess.toInt(buf));
+      for (int j = 0; j < expected.size(); j++) {
+        assertEquals((long) expected.get(j),
+          UnsafeAccess.toLong(buf + Utils.SIZEOF_INT + j * Utils.SIZEOF_LONG));
+      }
+    }
+    UnsafeAccess.free(buf);
+    Lists.DELETE(map, key.address, key.length);
+  }
+
   @Test
   public void testLINSERT() {
     Key key = getKey();
@@ -18,6 +18,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.CarrotCoreBase;
+import com.carrotdata.redcarrot.redis.util.Commons;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
 import org.junit.Before;
@@ -84,6 +85,156 @@ public class SetsAPITest extends CarrotCoreBase {
     }
   }
 
+  @Test
+  public void testSCOUNT() {
+    String key = "key";
+    int n = 10000;
+    List<String> list = loadData(key, n);
+    Collections.sort(list);
+    long keyPtr = UnsafeAccess.allocAndCopy(key, 0, key.length());
+    int keySize = key.length();
+    assertEquals(n, Sets.SCOUNT(map, keyPtr, keySize, 0, 0, 0, 0));
+    Random r = new Random();
+    for (int i = 0; i < 100; i++) {
+      int start = r.nextInt(n);
+      int stop = start + r.nextInt(n - start);
+      String startMember = list.get(start);
+      String stopMember = list.get(stop);
+      long startPtr = UnsafeAccess.allocAndCopy(startMember, 0, startMember.length());
+      long stopPtr = UnsafeAccess.allocAndCopy(stopMember, 0, stopMember.length());
+      assertEquals(stop,
+        Sets.SCOUNT(map, keyPtr, keySize, 0, 0, stopPtr, stopMember.length()));
+      assertEquals(stop - start, Sets.SCOUNT(map, keyPtr, keySize, startPtr,
+        startMember.length(), stopPtr, stopMember.length()));
+      assertEquals(n - start,
+        Sets.SCOUNT(map, keyPtr, keySize, startPtr, startMember.length(), 0, 0));
+      UnsafeAccess.free(startPtr);
+      UnsafeAccess.free(stopPtr);
+    }
+    UnsafeAccess.free(keyPtr);
+    Sets.DELETE(map, key);
+  }
+
+  @Test
+  public void testSetAlgebra() {
+    // 'large' is much larger than 'small' to exercise point lookups along with merge scans
+    TreeSet<String> large = new TreeSet<String>();
+    TreeSet<String> medium = new TreeSet<String>();
+    TreeSet<String> small = new TreeSet<String>();
+    for (int i = 0; i < 5000; i++) {
+      String m = "member-" + i;
+      large.add(m);
+      Sets.SADD(map, "large", m);
+      if (i % 3 == 0) {
+        medium.add(m);
+        Sets.SADD(map, "medium", m);
+      }
+      if (i % 50 == 0) {
+        small.add(m);
+        Sets.SADD(map, "small", m);
+      }
+    }
+    Sets.SADD(map, "small", "extra");
+    small.add("extra");
+
+    TreeSet<String> expected = new TreeSet<String>(small);
+    expected.retainAll(medium);
+    expected.retainAll(large);
+    verifySetOperation("SINTER", "dst", new String[] { "large", "medium", "small" }, expected);
+    verifySetOperation("SINTER", "dst", new String[] { "small", "nokey" }, new TreeSet<String>());
+
+    expected = new TreeSet<String>(small);
+    expected.addAll(medium);
+    expected.addAll(large);
+    verifySetOperation("SUNION", "dst", new String[] { "small", "medium", "large", "nokey" },
+      expected);
+
+    expected = new TreeSet<String>(medium);
+    expected.removeAll(small);
+    verifySetOperation("SDIFF", "dst", new String[] { "medium", "small" }, expected);
+    expected = new TreeSet<String>(small);
+    expected.removeAll(large);
+    verifySetOperation("SDIFF", "dst", new String[] { "small", "large" }, expected);
+
+    // Destination K-Vs are put between the sources while they are scanned, old members are gone
+    Sets.SADD(map, "middle", "stale");
+    expected = new TreeSet<String>(large);
+    expected.addAll(small);
+    verifySetOperation("SUNION", "middle", new String[] { "large", "small" }, expected);
+    expected = new TreeSet<String>(large);
+    expected.removeAll(medium);
+    verifySetOperation("SDIFF", "middle", new String[] { "large", "medium" }, expected);
+
+    // Destination is one of the sources
+    expected = new TreeSet<String>(medium);
+    expected.retainAll(small);
+    verifySetOperation("SINTER", "medium", new String[] { "medium", "small" }, expected);
+
+    Sets.DELETE(map, "dst");
+    Sets.DELETE(map, "middle");
+    Sets.DELETE(map, "large");
+    Sets.DELETE(map, "medium");
+    Sets.DELETE(map, "small");
+  }
+
+  private void verifySetOperation(String op, String dst, String[] keys,
+      TreeSet<String> expected) {
+    long[] ptrs = new long[keys.length + 1];
+    int[] sizes = new int[keys.length + 1];
+    ptrs[0] = UnsafeAccess.allocAndCopy(dst, 0, dst.length());
+    sizes[0] = dst.length();
+    for (int i = 0; i < keys.length; i++) {
+      ptrs[i + 1] = UnsafeAccess.allocAndCopy(keys[i], 0, keys[i].length());
+      sizes[i + 1] = keys[i].length();
+    }
+    long[] srcPtrs = Arrays.copyOfRange(ptrs, 1, ptrs.length);
+    int[] srcSizes = Arrays.copyOfRange(sizes, 1, sizes.length);
+    int bufferSize = 1 << 20;
+    long buffer = UnsafeAccess.malloc(bufferSize);
+    long size = 0, count = 0;
+    switch (op) {
+      case "SINTER":
+        size = Sets.SINTER(map, srcPtrs, srcSizes, buffer, bufferSize);
+        count = Sets.SINTERSTORE(map, ptrs, sizes);
+        break;
+      case "SUNION":
+        size = Sets.SUNION(map, srcPtrs, srcSizes, buffer, bufferSize);
+        count = Sets.SUNIONSTORE(map, ptrs, sizes);
+        break;
+      case "SDIFF":
+        size = Sets.SDIFF(map, srcPtrs, srcSizes, buffer, bufferSize);
+        count = Sets.SDIFFSTORE(map, ptrs, sizes);
+        break;
+    }
+    assertTrue(size <= bufferSize);
+    assertEquals(expected.size(), UnsafeAccess.toInt(buffer));
+    long ptr = buffer + Utils.SIZEOF_INT;
+    for (String m : expected) {
+      int mSize = Utils.readUVInt(ptr);
+      int mSizeSize = Utils.sizeUVInt(mSize);
+      assertEquals(m, Utils.toString(ptr + mSizeSize, mSize));
+      ptr += mSize + mSizeSize;
+    }
+    assertEquals(size, ptr - buffer);
+
+    assertEquals(expected.size(), count);
+    assertEquals(expected.size(), Sets.SCARD(map, dst));
+    List<byte[]> members = Sets.SMEMBERS(map, dst.getBytes(), bufferSize);
+    if (expected.size() == 0) {
+      assertNull(members);
+    } else {
+      assertEquals(expected.size(), members.size());
+      int i = 0;
+      for (String m : expected) {
+        assertEquals(m, new String(members.get(i++)));
+      }
+    }
+    UnsafeAccess.free(buffer);
+    for (long p : ptrs) {
+      UnsafeAccess.free(p);
+    }
+  }
+
   @Test
   public void testSimpleCalls() {
 
@@ -716,6 +867,45 @@ public class SetsAPITest extends CarrotCoreBase {
     // start)+"ms");
   }
 
+  @Test
+  public void testValueOffsets() {
+    for (boolean offsets : new boolean[] { true, false }) {
+      Commons.setValueOffsetsEnabled(offsets);
+      try {
+        String key = "key";
+        int n = 10000;
+        // Random order of inserts splits values and updates their offset tables
+        List<String> list = loadData(key, n);
+        assertEquals(n, (int) Sets.SCARD(map, key));
+        for (String m : list) {
+          assertEquals(1, Sets.SISMEMBER(map, key, m));
+        }
+        Random r = new Random();
+        for (int i = 0; i < n; i++) {
+          assertEquals(0, Sets.SISMEMBER(map, key, Utils.getRandomStr(r, 15)));
+        }
+        assertEquals(n, scan(map, key, null, 100, 200, null));
+        // Delete every other member
+        long keyPtr = UnsafeAccess.allocAndCopy(key, 0, key.length());
+        for (int i = 0; i < n; i += 2) {
+          String m = list.get(i);
+          long mPtr = UnsafeAccess.allocAndCopy(m, 0, m.length());
+          assertEquals(1, Sets.SREM(map, keyPtr, key.length(), mPtr, m.length()));
+          UnsafeAccess.free(mPtr);
+        }
+        UnsafeAccess.free(keyPtr);
+        assertEquals(n / 2, (int) Sets.SCARD(map, key));
+        for (int i = 0; i < n; i++) {
+          assertEquals(i % 2, Sets.SISMEMBER(map, key, list.get(i)));
+        }
+        assertEquals(n / 2, scan(map, key, null, 100, 200, null));
+        Sets.DELETE(map, key);
+      } finally {
+        Commons.setValueOffsetsEnabled(true);
+      }
+    }
+  }
+
   private static int scan(BigSortedMap map, String key, String lastSeenMember, int count,
       int bufferSize, String regex) {
     // TODO bifferSize never used
@@ -28,6 +28,8 @@ import com.carrotdata.redcarrot.compression.Codec;
 import com.carrotdata.redcarrot.compression.CodecFactory;
 import com.carrotdata.redcarrot.compression.CodecType;
 import com.carrotdata.redcarrot.redis.util.Commons;
+import com.carrotdata.redcarrot.redis.util.DataType;
+import com.carrotdata.redcarrot.redis.util.Metadata;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
@@ -321,6 +323,54 @@ public class SetsTest extends CarrotCoreBase {
     assertEquals(0, (int) Sets.SCARD(map, key.address, key.length));
   }
 
+  @Test
+  public void testMetadata() {
+
+    Key key = getKey();
+    int num = (int) Math.min(n, 10000);
+    // Element size and its 1 byte VLE size prefix
+    int elemSize = valSize + 1;
+    for (int i = 0; i < num; i++) {
+      int res = Sets.SADD(map, key.address, key.length, values.get(i).address,
+        values.get(i).length);
+      assertEquals(1, res);
+    }
+    assertEquals(num, Sets.SCARD(map, key.address, key.length));
+    assertEquals((long) num * elemSize, Sets.getSetSizeInBytes(map, key.address, key.length));
+    // All K-Vs of the set, one metadata K-V and one key directory K-V
+    long chunks = Metadata.getChunks(map, DataType.SET, key.address, key.length);
+    assertTrue(chunks > 1);
+    assertEquals(chunks + 2, map.countRecords());
+    assertFalse(Sets.isEmpty(map, key.address, key.length));
+
+    // Existing members do not change metadata
+    assertEquals(0, Sets.SADD(map, key.address, key.length, values.get(0).address,
+      values.get(0).length));
+    assertEquals(num, Sets.SCARD(map, key.address, key.length));
+
+    for (int i = 0; i < num / 2; i++) {
+      int res = Sets.SREM(map, key.address, key.length, values.get(i).address,
+        values.get(i).length);
+      assertEquals(1, res);
+    }
+    int left = num - num / 2;
+    assertEquals(left, Sets.SCARD(map, key.address, key.length));
+    assertEquals((long) left * elemSize, Sets.getSetSizeInBytes(map, key.address, key.length));
+    chunks = Metadata.getChunks(map, DataType.SET, key.address, key.length);
+    assertEquals(chunks + 2, map.countRecords());
+
+    long buffer = UnsafeAccess.malloc(4096);
+    long size = Sets.SPOP(map, key.address, key.length, buffer, 4096, 10);
+    assertTrue(size > 0);
+    assertEquals(left - 10, Sets.SCARD(map, key.address, key.length));
+    UnsafeAccess.free(buffer);
+
+    Sets.DELETE(map, key.address, key.length);
+    assertEquals(0, Sets.SCARD(map, key.address, key.length));
+    assertTrue(Sets.isEmpty(map, key.address, key.length));
+    assertEquals(0, (int) map.countRecords());
+  }
+
   @Ignore
   @Test
   public void testMemoryUsageForInts() {
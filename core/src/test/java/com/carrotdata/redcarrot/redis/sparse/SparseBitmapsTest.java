@@ -21,8 +21,11 @@ import java.util.*;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.BigSortedMapScanner;
 import com.carrotdata.redcarrot.CarrotCoreBase;
+import com.carrotdata.redcarrot.redis.util.BitOp;
 import com.carrotdata.redcarrot.redis.util.Commons;
+import com.carrotdata.redcarrot.redis.util.DataType;
 import com.carrotdata.redcarrot.util.Key;
 import com.carrotdata.redcarrot.util.UnsafeAccess;
 import com.carrotdata.redcarrot.util.Utils;
@@ -244,6 +247,156 @@ public class SparseBitmapsTest extends CarrotCoreBase {
     assertEquals(0, (int) map.countRecords());
   }
 
+  @Test
+  public void testBitOp() {
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    log.debug("Test seed={}", seed);
+    key2 = getKey();
+    Key dst = getKey();
+    TreeSet<Long> set1 = new TreeSet<Long>();
+    TreeSet<Long> set2 = new TreeSet<Long>();
+    // Dense (uncompressed) chunks in the beginning and sparse (compressed) ones after
+    long dense = 4 * SparseBitmaps.BITS_PER_CHUNK;
+    long sparse = 100 * SparseBitmaps.BITS_PER_CHUNK;
+    for (int i = 0; i < nBits / 10; i++) {
+      long offset = i % 2 == 0 ? Math.abs(r.nextLong()) % dense : Math.abs(r.nextLong()) % sparse;
+      set1.add(offset);
+      SparseBitmaps.SSETBIT(map, key.address, key.length, offset, 1);
+      offset = i % 2 == 0 ? Math.abs(r.nextLong()) % dense : Math.abs(r.nextLong()) % sparse;
+      set2.add(offset);
+      SparseBitmaps.SSETBIT(map, key2.address, key2.length, offset, 1);
+    }
+    long[] keyPtrs = new long[] { key.address, key2.address };
+    int[] keySizes = new int[] { key.length, key2.length };
+
+    for (BitOp op : new BitOp[] { BitOp.AND, BitOp.OR, BitOp.XOR, BitOp.ANDNOT }) {
+      TreeSet<Long> expected = new TreeSet<Long>(set1);
+      switch (op) {
+        case AND:
+          expected.retainAll(set2);
+          break;
+        case OR:
+          expected.addAll(set2);
+          break;
+        case XOR:
+          expected.addAll(set2);
+          TreeSet<Long> common = new TreeSet<Long>(set1);
+          common.retainAll(set2);
+          expected.removeAll(common);
+          break;
+        default:
+          expected.removeAll(set2);
+      }
+      long count = SparseBitmaps.SBITOP(map, op, 0, 0, keyPtrs, keySizes);
+      assertEquals(expected.size(), (int) count);
+      count = SparseBitmaps.SBITOP(map, op, dst.address, dst.length, keyPtrs, keySizes);
+      assertEquals(expected.size(), (int) count);
+      count = SparseBitmaps.SBITCOUNT(map, dst.address, dst.length, Commons.NULL_LONG,
+        Commons.NULL_LONG);
+      assertEquals(expected.size(), (int) count);
+      for (long offset : expected) {
+        assertEquals(1, SparseBitmaps.SGETBIT(map, dst.address, dst.length, offset));
+      }
+    }
+    // Missing key and destination as a source
+    Key missing = getKey();
+    keyPtrs = new long[] { dst.address, missing.address };
+    keySizes = new int[] { dst.length, missing.length };
+    assertEquals(0, SparseBitmaps.SBITOP(map, BitOp.AND, dst.address, dst.length, keyPtrs,
+      keySizes));
+    assertFalse(SparseBitmaps.EXISTS(map, dst.address, dst.length));
+    UnsafeAccess.free(missing.address);
+    UnsafeAccess.free(dst.address);
+  }
+
+  @Test
+  public void testContainers() throws IOException {
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    log.debug("Test seed={}", seed);
+    int bitsPerChunk = SparseBitmaps.BITS_PER_CHUNK;
+    BitSet bits = new BitSet();
+    // Chunk 0: very sparse - array container
+    for (int i = 0; i < bitsPerChunk; i += 1000) {
+      bits.set(i);
+      SparseBitmaps.SSETBIT(map, key.address, key.length, i, 1);
+    }
+    // Chunk 1: long run of set bits - run container
+    int from = SparseBitmaps.BYTES_PER_CHUNK + 10;
+    int size = 3000;
+    long ptr = UnsafeAccess.malloc(size);
+    UnsafeAccess.setMemory(ptr, size, (byte) 0xff);
+    SparseBitmaps.SSETRANGE(map, key.address, key.length, from, ptr, size);
+    UnsafeAccess.free(ptr);
+    bits.set(from * Utils.BITS_PER_BYTE, (from + size) * Utils.BITS_PER_BYTE);
+    // Chunk 2: random 30% population - raw bitmap
+    for (int i = 2 * bitsPerChunk; i < 3 * bitsPerChunk; i++) {
+      if (r.nextInt(10) < 3) {
+        bits.set(i);
+        SparseBitmaps.SSETBIT(map, key.address, key.length, i, 1);
+      }
+    }
+    byte[] expectedTypes =
+        new byte[] { SparseContainers.ARRAY, SparseContainers.RUN, 0 /* raw bitmap */ };
+    verifyContainerTypes(expectedTypes);
+    verifyBits(bits);
+
+    // Clear most of the bits in chunk 2 - it becomes an array container
+    for (int i = 2 * bitsPerChunk; i < 3 * bitsPerChunk - 1000; i++) {
+      if (bits.get(i)) {
+        bits.clear(i);
+        assertEquals(1, SparseBitmaps.SSETBIT(map, key.address, key.length, i, 0));
+      }
+    }
+    // Punch a hole in a run
+    int hole = from * Utils.BITS_PER_BYTE + 777;
+    assertEquals(1, SparseBitmaps.SSETBIT(map, key.address, key.length, hole, 0));
+    bits.clear(hole);
+    expectedTypes[2] = SparseContainers.ARRAY;
+    verifyContainerTypes(expectedTypes);
+    verifyBits(bits);
+  }
+
+  private void verifyContainerTypes(byte[] types) throws IOException {
+    // Scan bitmap chunks only
+    long startPtr = UnsafeAccess.malloc(2);
+    UnsafeAccess.putByte(startPtr, (byte) DataType.SBITMAP.ordinal());
+    UnsafeAccess.putByte(startPtr + 1, (byte) (DataType.SBITMAP.ordinal() + 1));
+    BigSortedMapScanner scanner = map.getScanner(startPtr, 1, startPtr + 1, 1);
+    int i = 0;
+    while (scanner.hasNext()) {
+      long valuePtr = scanner.valueAddress();
+      byte type = SparseContainers.isContainer(valuePtr) ? SparseContainers.getType(valuePtr) : 0;
+      assertEquals(types[i++], type);
+      scanner.next();
+    }
+    scanner.close();
+    UnsafeAccess.free(startPtr);
+    assertEquals(types.length, i);
+  }
+
+  private void verifyBits(BitSet bits) {
+    Random r = new Random();
+    for (int i = 0; i < bits.length() + 100; i++) {
+      assertEquals(bits.get(i) ? 1 : 0, SparseBitmaps.SGETBIT(map, key.address, key.length, i));
+    }
+    assertEquals(bits.cardinality(), (int) SparseBitmaps.SBITCOUNT(map, key.address, key.length,
+      Commons.NULL_LONG, Commons.NULL_LONG));
+    int strlen = (bits.length() - 1) / Utils.BITS_PER_BYTE + 1;
+    assertEquals(strlen, (int) SparseBitmaps.SSTRLEN(map, key.address, key.length));
+    for (int i = 0; i < 1000; i++) {
+      int start = r.nextInt(strlen);
+      int end = start + r.nextInt(strlen - start);
+      int expected =
+          bits.get(start * Utils.BITS_PER_BYTE, (end + 1) * Utils.BITS_PER_BYTE).cardinality();
+      assertEquals(expected,
+        (int) SparseBitmaps.SBITCOUNT(map, key.address, key.length, start, end));
+    }
+  }
+
   @Test
   public void testBitCounts() {
 
@@ -16,6 +16,8 @@ import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.CarrotCoreBase;
 import com.carrotdata.redcarrot.ops.OperationFailedException;
+import com.carrotdata.redcarrot.redis.util.BitFieldOp;
+import com.carrotdata.redcarrot.redis.util.BitOp;
 import com.carrotdata.redcarrot.redis.util.Commons;
 import com.carrotdata.redcarrot.redis.util.MutationOptions;
 import com.carrotdata.redcarrot.util.KeyValue;
@@ -647,6 +649,47 @@ public class StringsTest extends CarrotCoreBase {
     }
   }
 
+  @Test
+  public void testMgetManyKeys() {
+    Strings.MSET(map, keyValues);
+    int n = Math.min(500, keyValues.size());
+    long[] ptrs = new long[n];
+    int[] sizes = new int[n];
+    long expected = Utils.SIZEOF_INT;
+    Random r = new Random();
+    for (int k = 0; k < n; k++) {
+      KeyValue kv = keyValues.get(r.nextInt(keyValues.size()));
+      // every third key does not exist
+      ptrs[k] = k % 3 == 0 ? kv.valuePtr : kv.keyPtr;
+      sizes[k] = k % 3 == 0 ? kv.valueSize : kv.keySize;
+      expected += Utils.SIZEOF_INT + (k % 3 == 0 ? 0 : kv.valueSize);
+    }
+    long size = Strings.MGET(map, ptrs, sizes, buffer, bufferSize);
+    assertEquals(expected, size);
+
+    int largeBufferSize = (int) size;
+    long largeBuffer = UnsafeAccess.malloc(largeBufferSize);
+    size = Strings.MGET(map, ptrs, sizes, largeBuffer, largeBufferSize);
+    assertEquals(expected, size);
+    assertEquals(n, UnsafeAccess.toInt(largeBuffer));
+    long ptr = largeBuffer + Utils.SIZEOF_INT;
+    for (int k = 0; k < n; k++) {
+      int valueSize = UnsafeAccess.toInt(ptr);
+      ptr += Utils.SIZEOF_INT;
+      if (k % 3 == 0) {
+        assertEquals(-1, valueSize);
+        continue;
+      }
+      long valuePtr = UnsafeAccess.malloc(valueSize);
+      long res = Strings.GET(map, ptrs[k], sizes[k], valuePtr, valueSize);
+      assertEquals(valueSize, (int) res);
+      assertEquals(0, Utils.compareTo(valuePtr, valueSize, ptr, valueSize));
+      UnsafeAccess.free(valuePtr);
+      ptr += valueSize;
+    }
+    UnsafeAccess.free(largeBuffer);
+  }
+
   private void verify(long[] arr) {
     assertEquals(arr.length, UnsafeAccess.toInt(buffer));
     long ptr = buffer + Utils.SIZEOF_INT;
@@ -1060,6 +1103,164 @@ public class StringsTest extends CarrotCoreBase {
     return pos;
   }
 
+  @Test
+  public void testBitOp() {
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    log.debug("Test seed={}", seed);
+
+    // Sources have different lengths (not multiple of 8), the third one does not exist
+    int[] sizes = new int[] { 100, 37, 0 };
+    byte[][] values = new byte[sizes.length][];
+    long[] keyPtrs = new long[sizes.length + 1];
+    int[] keySizes = new int[sizes.length + 1];
+    keyPtrs[0] = keyValues.get(0).keyPtr;
+    keySizes[0] = keyValues.get(0).keySize;
+    for (int i = 0; i < sizes.length; i++) {
+      KeyValue kv = keyValues.get(i + 1);
+      keyPtrs[i + 1] = kv.keyPtr;
+      keySizes[i + 1] = kv.keySize;
+      values[i] = new byte[sizes[i]];
+      r.nextBytes(values[i]);
+      if (sizes[i] > 0) {
+        long ptr = UnsafeAccess.allocAndCopy(values[i], 0, sizes[i]);
+        Strings.SET(map, kv.keyPtr, kv.keySize, ptr, sizes[i], 0, MutationOptions.NONE, false);
+        UnsafeAccess.free(ptr);
+      }
+    }
+    for (BitOp op : BitOp.values()) {
+      int n = op == BitOp.NOT ? 2 : keyPtrs.length;
+      byte[] expected = new byte[sizes[0]];
+      for (int j = 0; j < expected.length; j++) {
+        int v = values[0][j];
+        for (int i = 1; i < n - 1; i++) {
+          int b = j < values[i].length ? values[i][j] : 0;
+          switch (op) {
+            case AND:
+              v &= b;
+              break;
+            case OR:
+              v |= b;
+              break;
+            case XOR:
+              v ^= b;
+              break;
+            case ANDNOT:
+              v &= ~b;
+              break;
+            default:
+          }
+        }
+        expected[j] = (byte) (op == BitOp.NOT ? ~v : v);
+      }
+      long size = Strings.BITOP(map, op, Arrays.copyOf(keyPtrs, n), Arrays.copyOf(keySizes, n));
+      assertEquals(expected.length, (int) size);
+      size = Strings.GET(map, keyPtrs[0], keySizes[0], buffer, bufferSize);
+      assertEquals(expected.length, (int) size);
+      assertTrue(Utils.compareTo(expected, 0, expected.length, buffer, (int) size) == 0);
+    }
+    // Destination is one of the sources
+    long size = Strings.BITOP(map, BitOp.XOR, new long[] { keyPtrs[1], keyPtrs[1], keyPtrs[2] },
+      new int[] { keySizes[1], keySizes[1], keySizes[2] });
+    assertEquals(sizes[0], (int) size);
+    assertEquals(bitcount(values[0], 37),
+      (int) Strings.BITCOUNT(map, keyPtrs[1], keySizes[1], 37, Commons.NULL_LONG));
+    // All sources do not exist - destination is deleted
+    size = Strings.BITOP(map, BitOp.OR, new long[] { keyPtrs[0], keyPtrs[3] },
+      new int[] { keySizes[0], keySizes[3] });
+    assertEquals(0, (int) size);
+    assertFalse(Strings.keyExists(map, keyPtrs[0], keySizes[0]));
+  }
+
+  private int bitcount(byte[] value, int from) {
+    int count = 0;
+    for (int i = from; i < value.length; i++) {
+      count += Integer.bitCount(value[i] & 0xff);
+    }
+    return count;
+  }
+
+  @Test
+  public void testBitField() {
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    log.debug("Test seed={}", seed);
+
+    KeyValue kv = keyValues.get(0);
+    byte[] value = new byte[0];
+    for (int i = 0; i < 1000; i++) {
+      boolean signed = r.nextBoolean();
+      int bits = 1 + r.nextInt(signed ? 64 : 63);
+      long offset = r.nextInt(500);
+      long v = r.nextLong();
+      BitFieldOp.Type type = BitFieldOp.Type.values()[r.nextInt(3)];
+      BitFieldOp op = new BitFieldOp(type, signed, bits, offset, v, BitFieldOp.Overflow.WRAP);
+      long expected = getField(value, offset, bits, signed);
+      if (type != BitFieldOp.Type.GET) {
+        int required = (int) ((offset + bits + 7) / 8);
+        if (required > value.length) {
+          value = Arrays.copyOf(value, required);
+        }
+        long newValue = type == BitFieldOp.Type.SET ? v : expected + v;
+        setField(value, offset, bits, newValue);
+        if (type == BitFieldOp.Type.INCRBY) {
+          expected = getField(value, offset, bits, signed);
+        }
+      }
+      assertTrue(Strings.BITFIELD(map, kv.keyPtr, kv.keySize, Arrays.asList(op)));
+      assertFalse(op.failed);
+      assertEquals(expected, op.result);
+    }
+    long size = Strings.GET(map, kv.keyPtr, kv.keySize, buffer, bufferSize);
+    assertEquals(value.length, (int) size);
+    assertTrue(Utils.compareTo(value, 0, value.length, buffer, (int) size) == 0);
+
+    // Overflow control
+    BitFieldOp sat = new BitFieldOp(BitFieldOp.Type.INCRBY, false, 2, 1000, 5,
+        BitFieldOp.Overflow.SAT);
+    BitFieldOp fail = new BitFieldOp(BitFieldOp.Type.INCRBY, true, 8, 1002, -129,
+        BitFieldOp.Overflow.FAIL);
+    BitFieldOp set = new BitFieldOp(BitFieldOp.Type.SET, true, 8, 1002, 200,
+        BitFieldOp.Overflow.SAT);
+    assertTrue(Strings.BITFIELD(map, kv.keyPtr, kv.keySize, Arrays.asList(sat, fail, set)));
+    assertEquals(3, sat.result);
+    assertTrue(fail.failed);
+    assertFalse(set.failed);
+    assertEquals(0, set.result);
+    BitFieldOp get = new BitFieldOp(BitFieldOp.Type.GET, true, 8, 1002, 0,
+        BitFieldOp.Overflow.WRAP);
+    assertTrue(Strings.BITFIELD(map, kv.keyPtr, kv.keySize, Arrays.asList(get)));
+    assertEquals(127, get.result);
+  }
+
+  private long getField(byte[] value, long offset, int bits, boolean signed) {
+    long v = 0;
+    for (int i = 0; i < bits; i++) {
+      long pos = offset + i;
+      int bit = 0;
+      if (pos / 8 < value.length) {
+        bit = (value[(int) (pos / 8)] >>> (7 - (int) (pos % 8))) & 1;
+      }
+      v = (v << 1) | bit;
+    }
+    if (signed && bits < 64) {
+      v = (v << (64 - bits)) >> (64 - bits);
+    }
+    return v;
+  }
+
+  private void setField(byte[] value, long offset, int bits, long v) {
+    for (int i = 0; i < bits; i++) {
+      long pos = offset + i;
+      int bit = (int) (v >>> (bits - 1 - i)) & 1;
+      int index = (int) (pos / 8);
+      int mask = 1 << (7 - (int) (pos % 8));
+      value[index] = (byte) (bit == 1 ? value[index] | mask : value[index] & ~mask);
+    }
+  }
+
   @Override
   public void extTearDown() {
     if (Objects.nonNull(keyValues)) {
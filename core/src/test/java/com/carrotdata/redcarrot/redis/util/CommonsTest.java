@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import static com.carrotdata.redcarrot.redis.util.Commons.NUM_ELEM_SIZE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import com.carrotdata.redcarrot.util.Utils;
+import org.junit.After;
+import org.junit.Test;
+
+public class CommonsTest {
+
+  @After
+  public void tearDown() {
+    Commons.setValueOffsetsEnabled(true);
+  }
+
+  /**
+   * Builds a set value
+   * @param members members
+   * @param pairs true - hash value (member is a field and a value), false - set value
+   * @return value address, value has space for an offset table
+   */
+  private long buildValue(List<String> members, boolean pairs) {
+    long ptr = UnsafeAccess.malloc(dataSize(members, pairs) + Commons.offsetsSize(members.size()));
+    long off = ptr + NUM_ELEM_SIZE;
+    for (String m : members) {
+      off += Utils.writeUVInt(off, m.length());
+      if (pairs) {
+        off += Utils.writeUVInt(off, m.length());
+      }
+      UnsafeAccess.copy(m.getBytes(), 0, off, m.length());
+      off += m.length();
+      if (pairs) {
+        UnsafeAccess.copy(m.getBytes(), 0, off, m.length());
+        off += m.length();
+      }
+    }
+    Commons.setNumElements(ptr, members.size());
+    return ptr;
+  }
+
+  private int dataSize(List<String> members, boolean pairs) {
+    int size = NUM_ELEM_SIZE;
+    for (String m : members) {
+      size += (Utils.sizeUVInt(m.length()) + m.length()) * (pairs ? 2 : 1);
+    }
+    return size;
+  }
+
+  private List<String> members(int n) {
+    List<String> list = new ArrayList<String>();
+    for (int i = 0; i < n; i++) {
+      list.add(String.format("member-%05d", i * 2));
+    }
+    return list;
+  }
+
+  @Test
+  public void testOffsetsSize() {
+    assertEquals(0, Commons.offsetsSize(Commons.VALUE_OFFSETS_MIN_ELEMENTS - 1));
+    assertEquals(2 * Commons.VALUE_OFFSET_SIZE,
+      Commons.offsetsSize(Commons.VALUE_OFFSETS_MIN_ELEMENTS + 1));
+    Commons.setValueOffsetsEnabled(false);
+    assertEquals(0, Commons.offsetsSize(1000));
+  }
+
+  @Test
+  public void testSearchStart() {
+    for (boolean pairs : new boolean[] { false, true }) {
+      for (int n : new int[] { 1, 15, 16, 17, 24, 25, 100, 255 }) {
+        List<String> list = members(n);
+        long valuePtr = buildValue(list, pairs);
+        int dataSize = dataSize(list, pairs);
+        int valueSize = Commons.buildOffsets(valuePtr, dataSize, pairs);
+        assertEquals(dataSize + Commons.offsetsSize(n), valueSize);
+        assertEquals(n >= Commons.VALUE_OFFSETS_MIN_ELEMENTS, Commons.hasOffsets(valuePtr));
+        assertEquals(n, Commons.numElementsInValue(valuePtr));
+        assertEquals(dataSize, Commons.dataSize(valuePtr, valueSize));
+        // Every member and every key between members starts from a sampled member before it
+        for (int i = -1; i < n; i++) {
+          String k = i < 0 ? "a" : String.format("member-%05d", i * 2 + (i % 2));
+          long kPtr = UnsafeAccess.allocAndCopy(k, 0, k.length());
+          long start = Commons.searchStart(valuePtr, valueSize, kPtr, k.length(), pairs);
+          long expected = valuePtr + NUM_ELEM_SIZE;
+          long ptr = expected;
+          for (int j = 0; j <= i; j++) {
+            if (j % Commons.VALUE_OFFSETS_STRIDE == 0 && Commons.hasOffsets(valuePtr)) {
+              expected = ptr;
+            }
+            int size = Utils.readUVInt(ptr);
+            ptr += (Utils.sizeUVInt(size) + size) * (pairs ? 2 : 1);
+          }
+          assertEquals(expected, start);
+          UnsafeAccess.free(kPtr);
+        }
+        UnsafeAccess.free(valuePtr);
+      }
+    }
+  }
+
+  @Test
+  public void testUnsortedValue() {
+    List<String> list = members(100);
+    Collections.swap(list, 50, 51);
+    long valuePtr = buildValue(list, false);
+    int dataSize = dataSize(list, false);
+    assertEquals(dataSize, Commons.buildOffsets(valuePtr, dataSize, false));
+    assertFalse(Commons.hasOffsets(valuePtr));
+    assertEquals(100, Commons.numElementsInValue(valuePtr));
+    UnsafeAccess.free(valuePtr);
+  }
+
+  @Test
+  public void testElementsCount() {
+    List<String> list = members(100);
+    long valuePtr = buildValue(list, false);
+    int dataSize = dataSize(list, false);
+    Commons.buildOffsets(valuePtr, dataSize, false);
+    assertTrue(Commons.hasOffsets(valuePtr));
+    // Update of a number of elements drops offset table flag
+    assertEquals(101, Commons.addNumElements(valuePtr, 1));
+    assertFalse(Commons.hasOffsets(valuePtr));
+    assertEquals(dataSize, Commons.dataSize(valuePtr, dataSize));
+    UnsafeAccess.free(valuePtr);
+  }
+}
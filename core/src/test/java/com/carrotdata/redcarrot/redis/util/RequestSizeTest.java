@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import static com.carrotdata.redcarrot.redis.util.Utils.inlineToRedisRequest;
+import static com.carrotdata.redcarrot.redis.util.Utils.requestSize;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class RequestSizeTest {
+
+  private ByteBuffer toBuffer(String s) {
+    ByteBuffer buf = ByteBuffer.allocateDirect(s.length());
+    buf.put(s.getBytes());
+    return buf;
+  }
+
+  @Test
+  public void testPipelinedRequests() {
+    String r1 = inlineToRedisRequest("SET key value");
+    String r2 = inlineToRedisRequest("GET key");
+    String r3 = inlineToRedisRequest("HSET hash field1 value1 field2 value2");
+    ByteBuffer buf = toBuffer(r1 + r2 + r3);
+    int limit = buf.position();
+    int off = 0;
+    assertEquals(r1.length(), requestSize(buf, off, limit));
+    off += r1.length();
+    assertEquals(r2.length(), requestSize(buf, off, limit));
+    off += r2.length();
+    assertEquals(r3.length(), requestSize(buf, off, limit));
+    off += r3.length();
+    assertEquals(0, requestSize(buf, off, limit));
+    // buffer is not changed
+    assertEquals(limit, buf.position());
+  }
+
+  @Test
+  public void testPartialRequest() {
+    String r = inlineToRedisRequest("SET key value");
+    ByteBuffer buf = toBuffer(r);
+    for (int i = 0; i < r.length(); i++) {
+      assertEquals(0, requestSize(buf, 0, i));
+    }
+    assertEquals(r.length(), requestSize(buf, 0, r.length()));
+  }
+
+  @Test
+  public void testInlineRequests() {
+    String r1 = "SET key value\r\n";
+    String r2 = "GET key\n";
+    ByteBuffer buf = toBuffer(r1 + r2 + "GET");
+    int limit = buf.position();
+    assertEquals(r1.length(), requestSize(buf, 0, limit));
+    assertEquals(r2.length(), requestSize(buf, r1.length(), limit));
+    assertEquals(0, requestSize(buf, r1.length() + r2.length(), limit));
+  }
+
+  @Test
+  public void testWrongFormat() {
+    ByteBuffer buf = toBuffer("*2\r\n$3\r\nGET\r\n:1\r\n");
+    assertEquals(-1, requestSize(buf, 0, buf.position()));
+    buf = toBuffer("*x\r\n$3\r\nGET\r\n");
+    assertEquals(-1, requestSize(buf, 0, buf.position()));
+  }
+}
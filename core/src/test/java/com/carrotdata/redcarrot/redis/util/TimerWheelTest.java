@@ -0,0 +1,68 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TimerWheelTest {
+
+  @Test
+  public void testExpiration() {
+    long now = 1000000;
+    // 16 slots of 10ms: deadlines up to 10s take many rounds
+    TimerWheel<Long> wheel = new TimerWheel<>(16, 10, now);
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    int n = 1000;
+    for (int i = 0; i < n; i++) {
+      long deadline = now + r.nextInt(10000);
+      wheel.add(deadline, deadline);
+    }
+    assertEquals(n, wheel.size());
+    List<Long> expired = new ArrayList<>();
+    while (wheel.size() > 0) {
+      now += r.nextInt(50);
+      final long time = now;
+      int before = expired.size();
+      wheel.advance(now, x -> expired.add(x));
+      for (int i = before; i < expired.size(); i++) {
+        long deadline = expired.get(i);
+        // Not before deadline and not later than one tick
+        assertTrue("seed=" + seed, deadline <= time);
+        assertTrue("seed=" + seed, time - deadline < 10 + 50);
+      }
+    }
+    assertEquals(n, expired.size());
+  }
+
+  @Test
+  public void testPastDeadline() {
+    long now = 1000;
+    TimerWheel<String> wheel = new TimerWheel<>(8, 10, now);
+    wheel.add("past", now - 100);
+    List<String> expired = new ArrayList<>();
+    wheel.advance(now, x -> expired.add(x));
+    assertEquals(0, expired.size());
+    // Next tick
+    wheel.advance(now + 10, x -> expired.add(x));
+    assertEquals(1, expired.size());
+    assertEquals(0, wheel.size());
+  }
+}
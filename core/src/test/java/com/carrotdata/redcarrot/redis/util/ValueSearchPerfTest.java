@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.redis.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.DataBlock;
+import com.carrotdata.redcarrot.compression.CodecFactory;
+import com.carrotdata.redcarrot.compression.CodecType;
+import com.carrotdata.redcarrot.redis.hashes.Hashes;
+import com.carrotdata.redcarrot.redis.sets.Sets;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * SISMEMBER/HGET latency versus maximum size of a packed set/hash value (chunk), with and without
+ * element offset tables
+ */
+public class ValueSearchPerfTest {
+
+  private static final Logger log = LogManager.getLogger(ValueSearchPerfTest.class);
+
+  static final int[] CHUNK_SIZES = new int[] { 256, 512, 1024, 2048 };
+
+  static final int N = 200000;
+
+  static final int ELEMENT_SIZE = 12;
+
+  static long elements;
+
+  static long key;
+
+  static int keySize;
+
+  static short maxEmbeddedSize;
+
+  @BeforeClass
+  public static void setUp() {
+    BigSortedMap.setCompressionCodec(CodecFactory.getInstance().getCodec(CodecType.NONE));
+    maxEmbeddedSize = DataBlock.MAX_EMBEDDED_KV_SIZE;
+    elements = UnsafeAccess.malloc((long) N * ELEMENT_SIZE);
+    Random r = new Random(1);
+    byte[] buf = new byte[ELEMENT_SIZE];
+    for (int i = 0; i < N; i++) {
+      r.nextBytes(buf);
+      UnsafeAccess.copy(buf, 0, elements + (long) i * ELEMENT_SIZE, ELEMENT_SIZE);
+    }
+    byte[] k = "key".getBytes();
+    keySize = k.length;
+    key = UnsafeAccess.allocAndCopy(k, 0, keySize);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    UnsafeAccess.free(elements);
+    UnsafeAccess.free(key);
+    DataBlock.MAX_EMBEDDED_KV_SIZE = maxEmbeddedSize;
+    Commons.setValueOffsetsEnabled(true);
+  }
+
+  @Test
+  public void testLookupLatency() {
+    // Warm up
+    run(512, true);
+    run(512, false);
+    for (int size : CHUNK_SIZES) {
+      long[] with = run(size, true);
+      long[] without = run(size, false);
+      log.info("chunk={} SISMEMBER={}ns/{}ns HGET={}ns/{}ns (offsets/no offsets)", size,
+        with[0], without[0], with[1], without[1]);
+    }
+  }
+
+  /**
+   * Loads a set and a hash and looks up all their members and fields
+   * @param chunkSize maximum embedded K-V size
+   * @param offsets use element offset tables
+   * @return SISMEMBER and HGET latency in ns
+   */
+  private long[] run(int chunkSize, boolean offsets) {
+    DataBlock.MAX_EMBEDDED_KV_SIZE = (short) chunkSize;
+    Commons.setValueOffsetsEnabled(offsets);
+    BigSortedMap map = new BigSortedMap(1L << 30);
+    long buf = UnsafeAccess.malloc(ELEMENT_SIZE);
+    try {
+      for (int i = 0; i < N; i++) {
+        long ptr = elements + (long) i * ELEMENT_SIZE;
+        Sets.SADD(map, key, keySize, ptr, ELEMENT_SIZE);
+        Hashes.HSET(map, key, keySize, ptr, ELEMENT_SIZE, ptr, ELEMENT_SIZE);
+      }
+      long start = System.nanoTime();
+      for (int i = 0; i < N; i++) {
+        assertEquals(1,
+          Sets.SISMEMBER(map, key, keySize, elements + (long) i * ELEMENT_SIZE, ELEMENT_SIZE));
+      }
+      long sismember = (System.nanoTime() - start) / N;
+      start = System.nanoTime();
+      for (int i = 0; i < N; i++) {
+        long ptr = elements + (long) i * ELEMENT_SIZE;
+        assertEquals(ELEMENT_SIZE,
+          Hashes.HGET(map, key, keySize, ptr, ELEMENT_SIZE, buf, ELEMENT_SIZE));
+      }
+      long hget = (System.nanoTime() - start) / N;
+      return new long[] { sismember, hget };
+    } finally {
+      UnsafeAccess.free(buf);
+      map.dispose();
+    }
+  }
+}
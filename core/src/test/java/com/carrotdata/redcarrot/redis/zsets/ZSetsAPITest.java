@@ -25,6 +25,7 @@ import org.apache.logging.log4j.Logger;
 import com.carrotdata.redcarrot.BigSortedMap;
 import com.carrotdata.redcarrot.CarrotCoreBase;
 import com.carrotdata.redcarrot.redis.sets.Sets;
+import com.carrotdata.redcarrot.redis.util.Aggregate;
 import com.carrotdata.redcarrot.util.Pair;
 import com.carrotdata.redcarrot.util.Utils;
 import org.junit.Before;
@@ -159,6 +160,62 @@ public class ZSetsAPITest extends CarrotCoreBase {
     return ll;
   }
 
+  @Test
+  public void testZUNIONSTOREZINTERSTORE() {
+    // 'large' is in a normal mode (set + hash), 'small' is in a compact mode (set only)
+    Map<String, Double> large = new HashMap<String, Double>();
+    Map<String, Double> small = new HashMap<String, Double>();
+    for (int i = 0; i < 2000; i++) {
+      String m = "member-" + i;
+      large.put(m, (double) i);
+      ZSets.ZADD(map, "large", new String[] { m }, new double[] { i }, false);
+      if (i % 20 == 0) {
+        small.put(m, (double) -i);
+        ZSets.ZADD(map, "small", new String[] { m }, new double[] { -i }, false);
+      }
+    }
+    ZSets.ZADD(map, "small", new String[] { "extra" }, new double[] { 1 }, false);
+    small.put("extra", 1.0);
+    String[] keys = new String[] { "large", "small", "nokey" };
+
+    long n = ZSets.ZUNIONSTORE(map, "dst", keys, null, null);
+    assertEquals(large.size() + 1, (int) n);
+    assertEquals(n, ZSets.ZCARD(map, "dst"));
+    for (String m : small.keySet()) {
+      double expected = small.get(m) + large.getOrDefault(m, 0.0);
+      assertEquals(expected, ZSets.ZSCORE(map, "dst", m), 0.0);
+    }
+    assertEquals(1999.0, ZSets.ZSCORE(map, "dst", "member-1999"), 0.0);
+
+    n = ZSets.ZUNIONSTORE(map, "dst", keys, new double[] { 2, 1, 1 }, Aggregate.MIN);
+    assertEquals(large.size() + 1, (int) n);
+    assertEquals(-20.0, ZSets.ZSCORE(map, "dst", "member-20"), 0.0);
+    assertEquals(2.0, ZSets.ZSCORE(map, "dst", "member-1"), 0.0);
+
+    n = ZSets.ZINTERSTORE(map, "dst", keys, null, null);
+    assertEquals(0, (int) n);
+    assertEquals(0, (int) ZSets.ZCARD(map, "dst"));
+
+    keys = new String[] { "small", "large" };
+    n = ZSets.ZINTERSTORE(map, "dst", keys, new double[] { 1, 3 }, Aggregate.MAX);
+    assertEquals(small.size() - 1, (int) n);
+    assertNull(ZSets.ZSCORE(map, "dst", "extra"));
+    assertEquals(60.0, ZSets.ZSCORE(map, "dst", "member-20"), 0.0);
+    // Ordered by score
+    List<Pair<String>> range = ZSets.ZRANGE(map, "dst", 0, 0, false, 1000);
+    assertEquals("member-0", range.get(0).getFirst());
+
+    // Destination is one of the inputs
+    n = ZSets.ZINTERSTORE(map, "large", keys, null, Aggregate.SUM);
+    assertEquals(small.size() - 1, (int) n);
+    assertEquals(n, ZSets.ZCARD(map, "large"));
+    assertEquals(0.0, ZSets.ZSCORE(map, "large", "member-20"), 0.0);
+
+    ZSets.DELETE(map, "dst");
+    ZSets.DELETE(map, "large");
+    ZSets.DELETE(map, "small");
+  }
+
   @Test
   public void testZRANDMEMBER() {
     int[] capacity = new int[] { 500, 1000 };
@@ -0,0 +1,392 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.storage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import com.carrotdata.redcarrot.BigSortedMap;
+import com.carrotdata.redcarrot.redis.CommandProcessor;
+import com.carrotdata.redcarrot.redis.lists.Lists;
+import com.carrotdata.redcarrot.redis.util.Utils;
+import com.carrotdata.redcarrot.storage.WriteAheadLog.SyncPolicy;
+import com.carrotdata.redcarrot.util.UnsafeAccess;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteAheadLogTest {
+
+  private static final Logger log = LogManager.getLogger(WriteAheadLogTest.class);
+
+  File dir;
+
+  @Before
+  public void setUp() throws IOException {
+    dir = Files.createTempDirectory("wal").toFile();
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = dir.listFiles();
+    if (files != null) {
+      for (File f : files) {
+        f.delete();
+      }
+    }
+    dir.delete();
+  }
+
+  private long append(WriteAheadLog wal, String s) {
+    byte[] data = s.getBytes();
+    long ptr = UnsafeAccess.malloc(data.length);
+    UnsafeAccess.copy(data, 0, ptr, data.length);
+    long seq = wal.append(ptr, data.length);
+    UnsafeAccess.free(ptr);
+    return seq;
+  }
+
+  private List<String> replay(WriteAheadLog wal) throws IOException {
+    List<String> records = new ArrayList<String>();
+    wal.replay(
+      (ptr, size) -> records.add(com.carrotdata.redcarrot.util.Utils.toString(ptr, size)));
+    return records;
+  }
+
+  @Test
+  public void testAppendReplay() throws IOException {
+    for (SyncPolicy policy : SyncPolicy.values()) {
+      log.debug("Policy={}", policy);
+      WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), policy, 10, 1 << 20);
+      wal.open(0);
+      // fsync per record is slow
+      int n = policy == SyncPolicy.ALWAYS ? 1000 : 10000;
+      for (int i = 0; i < n; i++) {
+        append(wal, "record-" + policy + "-" + i);
+      }
+      wal.close();
+      List<String> records = replay(new WriteAheadLog(dir.getAbsolutePath(), policy, 10, 1 << 20));
+      assertEquals(n, records.size());
+      for (int i = 0; i < n; i++) {
+        assertEquals("record-" + policy + "-" + i, records.get(i));
+      }
+      tearDown();
+      setUp();
+    }
+  }
+
+  @Test
+  public void testRotateCheckpoint() throws IOException {
+    WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1024);
+    wal.open(0);
+    for (int i = 0; i < 1000; i++) {
+      append(wal, "old-" + i);
+    }
+    long segment = wal.rotate();
+    for (int i = 0; i < 10; i++) {
+      append(wal, "new-" + i);
+    }
+    wal.checkpoint(segment);
+    wal.close();
+    // Small segment size: rolled over many times, only segments after the checkpoint remain
+    assertTrue(dir.list().length < 10);
+    List<String> records =
+        replay(new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1024));
+    assertEquals(10, records.size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals("new-" + i, records.get(i));
+    }
+  }
+
+  @Test
+  public void testCorruptedTail() throws IOException {
+    WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.ALWAYS, 0, 1 << 20);
+    wal.open(0);
+    for (int i = 0; i < 100; i++) {
+      append(wal, "record-" + i);
+    }
+    wal.close();
+    File segment = dir.listFiles((d, name) -> name.startsWith("wal-"))[0];
+    // Cut last record in the middle
+    try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+      raf.setLength(raf.length() - 3);
+    }
+    wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1 << 20);
+    List<String> records = replay(wal);
+    assertEquals(99, records.size());
+    // Tail is truncated, next records are written to a new segment
+    wal.open(0);
+    append(wal, "record-100");
+    wal.close();
+    records = replay(new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1 << 20));
+    assertEquals(100, records.size());
+    assertEquals("record-100", records.get(99));
+  }
+
+  @Test
+  public void testCorruptedMiddleSegment() throws IOException {
+    WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1 << 20);
+    wal.open(0);
+    for (int i = 0; i < 1000; i++) {
+      append(wal, "record-" + i);
+      if (i % 200 == 199) {
+        wal.rotate();
+      }
+    }
+    wal.close();
+    File[] segments = dir.listFiles((d, name) -> name.startsWith("wal-"));
+    Arrays.sort(segments);
+    assertTrue(segments.length > 3);
+    // Corrupt the last byte of a middle segment
+    File segment = segments[segments.length / 2];
+    try (RandomAccessFile raf = new RandomAccessFile(segment, "rw")) {
+      raf.seek(raf.length() - 1);
+      byte b = raf.readByte();
+      raf.seek(raf.length() - 1);
+      raf.writeByte(b ^ 0xff);
+    }
+    List<String> records = new ArrayList<String>();
+    try {
+      new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1 << 20).replay(
+        (ptr, size) -> records.add(com.carrotdata.redcarrot.util.Utils.toString(ptr, size)));
+      fail("Replay of a log with a gap must fail");
+    } catch (IOException e) {
+      log.debug("Expected: {}", e.getMessage());
+    }
+    // Records after the gap are not applied
+    assertTrue(records.size() > 0 && records.size() < 1000);
+    for (int i = 0; i < records.size(); i++) {
+      assertEquals("record-" + i, records.get(i));
+    }
+    // Segment is not truncated
+    assertTrue(segment.length() > 0);
+  }
+
+  @Test
+  public void testSequence() throws IOException {
+    WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1 << 20);
+    wal.open(0);
+    for (int i = 1; i <= 100; i++) {
+      assertEquals(i, append(wal, "record-" + i));
+    }
+    wal.close();
+    // Records covered by a snapshot are skipped
+    List<String> records = new ArrayList<String>();
+    wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1 << 20);
+    assertEquals(10, wal.replay(90,
+      (ptr, size) -> records.add(com.carrotdata.redcarrot.util.Utils.toString(ptr, size))));
+    assertEquals("record-91", records.get(0));
+    // New records continue the sequence
+    wal.open(0);
+    assertEquals(101, append(wal, "record-101"));
+    wal.close();
+    // Snapshot can be ahead of the log
+    wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1 << 20);
+    assertEquals(0, wal.replay(1000, (ptr, size) -> {
+    }));
+    wal.open(1000);
+    assertEquals(1001, append(wal, "record-1001"));
+    wal.close();
+  }
+
+  @Test
+  public void testDeferUntilSynced() throws IOException, InterruptedException {
+    WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.ALWAYS, 0, 1 << 20);
+    wal.open(0);
+    CountDownLatch synced = new CountDownLatch(100);
+    for (int i = 0; i < 100; i++) {
+      long seq = append(wal, "record-" + i);
+      if (!wal.deferUntilSynced(seq, synced::countDown)) {
+        synced.countDown();
+      }
+    }
+    assertTrue(synced.await(10, TimeUnit.SECONDS));
+    assertFalse(wal.deferUntilSynced(wal.getSequence(), () -> {
+    }));
+    wal.close();
+    // Other policies do not defer replies
+    wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.INTERVAL, 1000, 1 << 20);
+    wal.open(0);
+    assertFalse(wal.deferUntilSynced(append(wal, "record"), () -> {
+    }));
+    wal.close();
+  }
+
+  @Test
+  public void testSnapshotReplay() throws IOException {
+    BigSortedMap map = new BigSortedMap(10000000);
+    WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.INTERVAL, 10, 1 << 20);
+    wal.open(0);
+    map.setWAL(wal);
+    for (int i = 0; i < 10; i++) {
+      execute(map, "INCR counter");
+    }
+    execute(map, "SADD set m1 m2 m3 m4 m5");
+    execute(map, "SET key1 value1");
+    map.snapshot();
+    // Not idempotent: must not be applied twice
+    for (int i = 0; i < 5; i++) {
+      execute(map, "INCR counter");
+    }
+    execute(map, "APPEND key1 -suffix");
+    // Random members
+    execute(map, "SPOP set 2");
+    String members = execute(map, "SMEMBERS set");
+    // Relative TTLs
+    execute(map, "SETEX key2 1000 value2");
+    execute(map, "EXPIRE key1 2000");
+    String expire1 = execute(map, "GETEXPIRE key1");
+    String expire2 = execute(map, "GETEXPIRE key2");
+    wal.close();
+    map.dispose();
+
+    map = BigSortedMap.loadStore(0);
+    map.openWAL(dir.getAbsolutePath(), true);
+    assertEquals("$2\r\n15\r\n", execute(map, "GET counter"));
+    assertEquals("$13\r\nvalue1-suffix\r\n", execute(map, "GET key1"));
+    assertEquals(members, execute(map, "SMEMBERS set"));
+    assertEquals(expire1, execute(map, "GETEXPIRE key1"));
+    assertEquals(expire2, execute(map, "GETEXPIRE key2"));
+    // Recovered store is logged, sequence continues
+    long seq = map.getWAL().getSequence();
+    execute(map, "INCR counter");
+    assertEquals(seq + 1, map.getWAL().getSequence());
+    map.getWAL().close();
+    map.dispose();
+  }
+
+  @Test
+  public void testSnapshotUnderLoad() throws IOException, InterruptedException {
+    Lists.registerDeallocator();
+    Lists.registerSerDe();
+    BigSortedMap map = new BigSortedMap(100000000);
+    for (int i = 0; i < 100000; i++) {
+      execute(map, "SET key:" + i + " value:" + i);
+    }
+    WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.INTERVAL, 10, 1 << 20);
+    wal.open(0);
+    map.setWAL(wal);
+    // Not idempotent commands: snapshot and replayed records must not overlap
+    AtomicBoolean stop = new AtomicBoolean();
+    AtomicLong executed = new AtomicLong();
+    BigSortedMap store = map;
+    Thread[] writers = new Thread[4];
+    for (int t = 0; t < writers.length; t++) {
+      int id = t;
+      writers[t] = new Thread(() -> {
+        Random r = new Random(id);
+        while (!stop.get()) {
+          int n = r.nextInt(100000);
+          execute(store, "INCR counter:" + n % 100);
+          execute(store, "APPEND key:" + n + " -" + id);
+          execute(store, "RPUSH list:" + n % 10 + " " + n);
+          execute(store, "SADD set:" + n % 10 + " " + n);
+          executed.incrementAndGet();
+        }
+      });
+      writers[t].start();
+    }
+    Thread.sleep(100);
+    long before = executed.get();
+    map.snapshot();
+    // Commands are applied while the snapshot is being saved
+    assertTrue(executed.get() > before);
+    Thread.sleep(100);
+    stop.set(true);
+    for (Thread t : writers) {
+      t.join();
+    }
+    List<String> requests = new ArrayList<String>();
+    for (int i = 0; i < 100; i++) {
+      requests.add("GET counter:" + i);
+    }
+    for (int i = 0; i < 10; i++) {
+      requests.add("LLEN list:" + i);
+      requests.add("LINDEX list:" + i + " 0");
+      requests.add("LINDEX list:" + i + " -1");
+      requests.add("SCARD set:" + i);
+    }
+    for (int i = 0; i < 100000; i += 97) {
+      requests.add("GET key:" + i);
+    }
+    List<String> expected = new ArrayList<String>();
+    for (String r : requests) {
+      expected.add(execute(map, r));
+    }
+    wal.close();
+    map.dispose();
+
+    map = BigSortedMap.loadStore(0);
+    map.openWAL(dir.getAbsolutePath(), true);
+    for (int i = 0; i < requests.size(); i++) {
+      assertEquals(requests.get(i), expected.get(i), execute(map, requests.get(i)));
+    }
+    map.getWAL().close();
+    map.dispose();
+  }
+
+  @Test
+  public void testCommandsReplay() throws IOException {
+    BigSortedMap map = new BigSortedMap(10000000);
+    WriteAheadLog wal = new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.INTERVAL, 10, 1 << 20);
+    wal.open(0);
+    map.setWAL(wal);
+    String[] requests = new String[] { "SET key1 value1", "SET key2 value2", "INCR counter",
+        "INCRBY counter 10", "DEL key2", "HSET hash f1 v1 f2 v2", "GET key1", "SADD set m1 m2 m3",
+        "SREM set m2" };
+    for (String r : requests) {
+      execute(map, r);
+    }
+    wal.close();
+    map.dispose();
+
+    BigSortedMap recovered = new BigSortedMap(10000000);
+    new WriteAheadLog(dir.getAbsolutePath(), SyncPolicy.OS, 0, 1 << 20)
+        .replay((ptr, size) -> CommandProcessor.execute(recovered, ptr));
+    map = recovered;
+    assertEquals("$6\r\nvalue1\r\n", execute(map, "GET key1"));
+    assertEquals("$-1\r\n", execute(map, "GET key2"));
+    assertEquals("$2\r\n11\r\n", execute(map, "GET counter"));
+    assertEquals("$2\r\nv2\r\n", execute(map, "HGET hash f2"));
+    assertEquals(":2\r\n", execute(map, "SCARD set"));
+    map.dispose();
+  }
+
+  private String execute(BigSortedMap map, String inline) {
+    ByteBuffer in = ByteBuffer.allocate(4096);
+    ByteBuffer out = ByteBuffer.allocate(4096);
+    in.put(Utils.inlineToRedisRequest(inline).getBytes());
+    CommandProcessor.process(map, in, out);
+    out.flip();
+    byte[] bytes = new byte[out.limit()];
+    out.get(bytes);
+    return new String(bytes);
+  }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright (C) 2024-present Carrot Data, Inc.
+ * <p>This program is free software: you can redistribute it
+ * and/or modify it under the terms of the Server Side Public License, version 1, as published by
+ * MongoDB, Inc.
+ * <p>This program is distributed in the hope that it will be useful, but WITHOUT ANY
+ * WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR
+ * PURPOSE. See the Server Side Public License for more details.
+ * <p>You should have received a copy of the Server Side Public License along with this program. If not, see
+ * <http://www.mongodb.com/licensing/server-side-public-license>.
+ */
+package com.carrotdata.redcarrot.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class TestSlabAllocator {
+
+  static final int[] SIZES = new int[] { 256, 512, 1024, 4096 };
+  static final int SLAB_SIZE = 64 * 1024;
+
+  @Test
+  public void testSizeClasses() {
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 8);
+    long[] ptrs = new long[] { allocator.malloc(1), allocator.malloc(256),
+        allocator.malloc(257), allocator.malloc(1000), allocator.malloc(4096) };
+    int[] expected = new int[] { 256, 256, 512, 1024, 4096 };
+    for (int i = 0; i < ptrs.length; i++) {
+      assertEquals(expected[i], allocator.sizeOf(ptrs[i]));
+    }
+    assertEquals(256 + 256 + 512 + 1024 + 4096, allocator.getUsedMemory());
+    // One slab per size class
+    assertEquals(4 * SLAB_SIZE, allocator.getReservedMemory());
+    // Larger than the largest class
+    long large = allocator.malloc(5000);
+    assertEquals(-1, allocator.sizeOf(large));
+    allocator.free(large);
+    for (long ptr : ptrs) {
+      allocator.free(ptr);
+    }
+    assertEquals(0, allocator.getUsedMemory());
+  }
+
+  @Test
+  public void testReuse() {
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 8);
+    int n = 3 * SLAB_SIZE / 512;
+    for (int k = 0; k < 5; k++) {
+      HashSet<Long> ptrs = new HashSet<Long>();
+      for (int i = 0; i < n; i++) {
+        assertTrue(ptrs.add(allocator.malloc(512)));
+      }
+      assertEquals(n * 512, allocator.getUsedMemory());
+      // Released slots are reused
+      assertEquals(3 * SLAB_SIZE, allocator.getReservedMemory());
+      for (long ptr : ptrs) {
+        allocator.free(ptr);
+      }
+    }
+    assertEquals(0, allocator.getUsedMemory());
+  }
+
+  @Test
+  public void testReleaseEmptySlabs() {
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 8);
+    int n = 10 * SLAB_SIZE / 1024;
+    long[] ptrs = new long[n];
+    for (int i = 0; i < n; i++) {
+      ptrs[i] = allocator.malloc(1024);
+    }
+    assertEquals(10 * SLAB_SIZE, allocator.getReservedMemory());
+    for (long ptr : ptrs) {
+      allocator.free(ptr);
+    }
+    allocator.releaseThreadCache();
+    // The last slab and one spare slab are kept
+    assertTrue(allocator.getReservedMemory() <= 2 * SLAB_SIZE);
+    assertEquals(0, allocator.getUsedMemory());
+    // Released slabs do not own pointers anymore
+    int released = 0;
+    for (long ptr : ptrs) {
+      released += allocator.sizeOf(ptr) < 0 ? 1 : 0;
+    }
+    assertTrue(released >= n - 2 * SLAB_SIZE / 1024);
+    for (int i = 0; i < n; i++) {
+      ptrs[i] = allocator.malloc(1024);
+      assertEquals(1024, allocator.sizeOf(ptrs[i]));
+    }
+    assertEquals(10 * SLAB_SIZE, allocator.getReservedMemory());
+    for (long ptr : ptrs) {
+      allocator.free(ptr);
+    }
+  }
+
+  @Test
+  public void testTerminatedThreadCache() throws InterruptedException {
+    int cacheSize = 64;
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, cacheSize);
+    int n = SLAB_SIZE / 256;
+    Thread t = new Thread(() -> {
+      long[] ptrs = new long[n];
+      for (int i = 0; i < n; i++) {
+        ptrs[i] = allocator.malloc(256);
+      }
+      for (long ptr : ptrs) {
+        allocator.free(ptr);
+      }
+    });
+    t.start();
+    t.join();
+    // Slots cached by the terminated thread are reused
+    long[] ptrs = new long[n];
+    for (int i = 0; i < n; i++) {
+      ptrs[i] = allocator.malloc(256);
+    }
+    assertEquals(SLAB_SIZE, allocator.getReservedMemory());
+    HashSet<Long> set = new HashSet<Long>();
+    for (long ptr : ptrs) {
+      assertTrue(set.add(ptr));
+    }
+    for (long ptr : ptrs) {
+      allocator.free(ptr);
+    }
+    assertEquals(0, allocator.getUsedMemory());
+  }
+
+  @Test
+  public void testMallocStats() {
+    boolean debug = UnsafeAccess.isMallocDebugEnabled();
+    UnsafeAccess.setMallocDebugEnabled(true);
+    try {
+      SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 8);
+      long allocs = UnsafeAccess.mallocStats.getAllocEventNumber();
+      long frees = UnsafeAccess.mallocStats.getFreeEventNumber();
+      long ptr = allocator.malloc(300);
+      // Slot is recorded, slab is not
+      assertEquals(allocs + 1, UnsafeAccess.mallocStats.getAllocEventNumber());
+      assertTrue(UnsafeAccess.mallocStats.getAllocMap().inside(ptr, 512));
+      allocator.free(ptr);
+      assertEquals(frees + 1, UnsafeAccess.mallocStats.getFreeEventNumber());
+      assertFalse(UnsafeAccess.mallocStats.getAllocMap().inside(ptr, 1));
+    } finally {
+      UnsafeAccess.setMallocDebugEnabled(debug);
+    }
+  }
+
+  @Test
+  public void testChurn() throws InterruptedException {
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 8);
+    int numThreads = 4;
+    int live = 2000;
+    AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    AtomicLong peak = new AtomicLong();
+    ArrayList<Long> evicted = new ArrayList<Long>();
+    for (int round = 0; round < 50; round++) {
+      // Every short-lived thread allocates blocks and evicts blocks of a previous one
+      for (int t = 0; t < numThreads; t++) {
+        final int seed = t;
+        final boolean first = round == 0;
+        Thread thread = new Thread(() -> {
+          try {
+            Random r = new Random(seed);
+            ArrayList<Long> ptrs = new ArrayList<Long>();
+            for (int i = 0; i < live; i++) {
+              ptrs.add(allocator.malloc(1 + r.nextInt(4096)));
+            }
+            if (first) {
+              peak.accumulateAndGet(allocator.getReservedMemory(), Math::max);
+            }
+            for (long ptr : evicted) {
+              allocator.free(ptr);
+            }
+            evicted.clear();
+            evicted.addAll(ptrs);
+          } catch (Throwable e) {
+            error.set(e);
+          }
+        });
+        thread.start();
+        thread.join();
+      }
+      if (error.get() != null) {
+        throw new AssertionError(error.get());
+      }
+      // Slots of evicted blocks and caches of terminated threads are reused
+      long max = peak.get() + SIZES.length * SLAB_SIZE;
+      long reserved = reserved(allocator);
+      assertTrue("round=" + round + " reserved=" + reserved + " max=" + max, reserved <= max);
+    }
+    for (long ptr : evicted) {
+      allocator.free(ptr);
+    }
+    allocator.releaseThreadCache();
+    assertEquals(0, allocator.getUsedMemory());
+    // Empty slabs are released
+    assertTrue(reserved(allocator) <= 2 * SIZES.length * SLAB_SIZE);
+  }
+
+  private static long reserved(SlabAllocator allocator) {
+    String prefix = "allocator_reserved:";
+    for (String s : allocator.getStats()) {
+      if (s.startsWith(prefix)) {
+        return Long.parseLong(s.substring(prefix.length()));
+      }
+    }
+    throw new AssertionError("No " + prefix + " in stats");
+  }
+
+  @Test
+  public void testNoCache() {
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 0);
+    long ptr1 = allocator.malloc(300);
+    allocator.free(ptr1);
+    long ptr2 = allocator.malloc(300);
+    assertEquals(ptr1, ptr2);
+    allocator.free(ptr2);
+    assertEquals(0, allocator.getUsedMemory());
+  }
+
+  @Test
+  public void testRealloc() {
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 8);
+    long ptr = allocator.mallocZeroed(200);
+    for (int i = 0; i < 256; i++) {
+      assertEquals(0, UnsafeAccess.toByte(ptr + i));
+      UnsafeAccess.putByte(ptr + i, (byte) i);
+    }
+    // Fits the slot
+    assertEquals(ptr, allocator.realloc(ptr, 256));
+    // Next size class
+    ptr = allocator.realloc(ptr, 1000);
+    assertEquals(1024, allocator.sizeOf(ptr));
+    // Unsafe allocation
+    ptr = allocator.realloc(ptr, 8000);
+    assertEquals(-1, allocator.sizeOf(ptr));
+    ptr = allocator.realloc(ptr, 10000);
+    for (int i = 0; i < 256; i++) {
+      assertEquals((byte) i, UnsafeAccess.toByte(ptr + i));
+    }
+    allocator.free(ptr);
+    assertEquals(0, allocator.getUsedMemory());
+  }
+
+  @Test
+  public void testUnsafePointers() {
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 8);
+    long slab = allocator.malloc(256);
+    // Pointers which were not allocated from slabs
+    long ptr = UnsafeAccess.malloc(256);
+    assertEquals(-1, allocator.sizeOf(ptr));
+    ptr = allocator.realloc(ptr, 512);
+    assertEquals(-1, allocator.sizeOf(ptr));
+    allocator.free(ptr);
+    allocator.free(slab);
+    assertEquals(0, allocator.getUsedMemory());
+  }
+
+  @Test
+  public void testMultipleThreads() throws InterruptedException {
+    SlabAllocator allocator = new SlabAllocator(SIZES, SLAB_SIZE, 8);
+    int numThreads = 4;
+    AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    // Pointers are released by other threads
+    ArrayList<Long> shared = new ArrayList<Long>();
+    Thread[] threads = new Thread[numThreads];
+    for (int t = 0; t < numThreads; t++) {
+      final byte id = (byte) t;
+      threads[t] = new Thread(() -> {
+        try {
+          Random r = new Random(id);
+          ArrayList<Long> ptrs = new ArrayList<Long>();
+          for (int i = 0; i < 100000; i++) {
+            if (ptrs.size() < 1000 && r.nextInt(3) > 0) {
+              int size = 1 + r.nextInt(4096);
+              long ptr = allocator.malloc(size);
+              assertTrue(allocator.sizeOf(ptr) >= size);
+              UnsafeAccess.setMemory(ptr, size, id);
+              ptrs.add(ptr);
+            } else if (ptrs.size() > 0) {
+              long ptr = ptrs.remove(r.nextInt(ptrs.size()));
+              // Nobody else has written into the slot
+              assertEquals(id, UnsafeAccess.toByte(ptr));
+              allocator.free(ptr);
+            }
+          }
+          synchronized (shared) {
+            shared.addAll(ptrs);
+          }
+        } catch (Throwable e) {
+          error.set(e);
+        }
+      });
+      threads[t].start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+    if (error.get() != null) {
+      throw new AssertionError(error.get());
+    }
+    assertEquals(shared.size(), new HashSet<Long>(shared).size());
+    for (long ptr : shared) {
+      allocator.free(ptr);
+    }
+    assertEquals(0, allocator.getUsedMemory());
+    String[] stats = allocator.getStats();
+    assertEquals(4 + SIZES.length, stats.length);
+    assertEquals("allocator_used:0", stats[2]);
+  }
+}